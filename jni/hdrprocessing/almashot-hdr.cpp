@@ -439,10 +439,10 @@ extern "C" JNIEXPORT jstring JNICALL Java_com_almalence_plugins_processing_hdr_A
 	return env->NewStringUTF("ok");
 }
 
-extern "C" JNIEXPORT jbyteArray JNICALL Java_com_almalence_plugins_processing_hdr_AlmaShotHDR_HDRProcess
+// Processes frames into OutPic, returns size of NV21 result
+static int ProcessToOutPic
 (
 	JNIEnv* env,
-	jobject thiz,
 	jint sx,
 	jint sy,
 	jintArray jcrop,
@@ -452,13 +452,8 @@ extern "C" JNIEXPORT jbyteArray JNICALL Java_com_almalence_plugins_processing_hd
 {
 	Uint8 *OutNV21;
 	int *crop;
-	int x,y;
-	int tmp;
 	int allocSize;
 
-	unsigned char *data;
-	jbyteArray jdata = env->NewByteArray(0);
-
 	//__android_log_print(ANDROID_LOG_INFO, "CameraTest", "PROCESSING CALLED %d %d", sx, sy);
 
 	if (OutPic)
@@ -497,6 +492,28 @@ extern "C" JNIEXPORT jbyteArray JNICALL Java_com_almalence_plugins_processing_hd
 		OutPic = OutNV21;
 	}
 
+	env->ReleaseIntArrayElements(jcrop, (jint*)crop, JNI_ABORT);
+
+	return allocSize;
+}
+
+extern "C" JNIEXPORT jbyteArray JNICALL Java_com_almalence_plugins_processing_hdr_AlmaShotHDR_HDRProcess
+(
+	JNIEnv* env,
+	jobject thiz,
+	jint sx,
+	jint sy,
+	jintArray jcrop,
+	jint orientation,
+	jboolean mirror
+)
+{
+	int allocSize;
+	unsigned char *data;
+	jbyteArray jdata;
+
+	allocSize = ProcessToOutPic(env, sx, sy, jcrop, orientation, mirror);
+
 	jdata = env->NewByteArray(allocSize);
 	data = (unsigned char*)env->GetByteArrayElements(jdata, NULL);
 	memcpy (data, OutPic, allocSize);
@@ -508,12 +525,34 @@ extern "C" JNIEXPORT jbyteArray JNICALL Java_com_almalence_plugins_processing_hd
 //	fwrite (data, allocSize, 1, f);
 //	fclose(f);
 
-	env->ReleaseIntArrayElements(jcrop, (jint*)crop, JNI_ABORT);
 	env->ReleaseByteArrayElements(jdata, (jbyte*)data, 0);
 
 	return jdata;
 }
 
+// Same as HDRProcess, but result isn't copied to java heap: caller takes
+// ownership of malloc'ed NV21 and frees it with free().
+extern "C" JNIEXPORT jlong JNICALL Java_com_almalence_plugins_processing_hdr_AlmaShotHDR_HDRProcessToHeap
+(
+	JNIEnv* env,
+	jobject thiz,
+	jint sx,
+	jint sy,
+	jintArray jcrop,
+	jint orientation,
+	jboolean mirror
+)
+{
+	Uint8 *result;
+
+	ProcessToOutPic(env, sx, sy, jcrop, orientation, mirror);
+
+	result = OutPic;
+	OutPic = NULL;
+
+	return (jlong)(intptr_t)result;
+}
+
 extern "C" JNIEXPORT jint JNICALL Java_com_almalence_plugins_processing_hdr_AlmaShotHDR_HDRFreeInstance
 (
 	JNIEnv*,
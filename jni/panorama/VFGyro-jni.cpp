@@ -131,7 +131,7 @@ JNIEXPORT void JNICALL Java_com_almalence_plugins_capture_panoramaaugmented_VfGy
 	}
 }
 
-JNIEXPORT void JNICALL Java_com_almalence_plugins_capture_panoramaaugmented_VfGyroSensor_SetFrameParameters
+JNIEXPORT void JNICALL Java_com_almalence_plugins_capture_panoramaaugmented_VfGyroSensor_nativeSetFrameParameters
 (
 	JNIEnv* env,
 	jobject thiz,
@@ -477,7 +477,7 @@ inline int max(int a, int b)
 	return (a > b ? a : b);
 }
 
-JNIEXPORT jlong JNICALL Java_com_almalence_plugins_capture_panoramaaugmented_VfGyroSensor_FixDrift
+JNIEXPORT jlong JNICALL Java_com_almalence_plugins_capture_panoramaaugmented_VfGyroSensor_nativeFixDrift
 (
 	JNIEnv* env,
 	jobject,
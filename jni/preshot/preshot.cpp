@@ -17,7 +17,10 @@ by Almalence Inc. All Rights Reserved.
 */
 
 #include <string.h>
+#include <stdint.h>
 #include <stdio.h>
+#include <stdlib.h>
+#include <time.h>
 #include <jni.h>
 #include <pthread.h>
 #include <android/log.h>
@@ -32,10 +35,22 @@ typedef unsigned short Uint16;
 typedef unsigned char Uint8;
 typedef signed char Int8;
 
+// quality of preview frames compressed on insert
+#define JPEG_QUALITY			90
+// expected size of compressed preview frame, part of NV21 size. Arena is
+// sized by it, if frames are bigger less seconds are kept.
+#define COMPRESSION_ESTIMATE	6
+
 static int FPS = 1;
 
-//cyclic buffer for storing data
+// Frames are stored one after another in one preallocated arena. Records of
+// frames (offset, length, orientation, time) form a cyclic queue from the
+// oldest frame (idxOUT) to the newest one. Preview frames are compressed to
+// jpeg on insert, frames of slow mode are jpeg already. Oldest frames are
+// dropped when they are older than the time to keep, when new frame doesn't
+// fit the arena or when there's no free record.
 static unsigned char *frame_buffer = NULL;
+static int arena_size = 0;
 static int buf_size = 0;
 
 //cyclic buffer for storing image orientation
@@ -46,6 +61,10 @@ static unsigned char *orient_buffer = NULL;
 static unsigned int *len_buffer = NULL;
 //static unsigned int *reserved_len_buffer = NULL;
 
+//cyclic buffers for storing data offset in arena and insert time, us
+static unsigned int *offset_buffer = NULL;
+static int64_t *time_buffer = NULL;
+
 //reserved cyclic buffer for storing data. reserved used while saving
 //static unsigned char *frame_buffer_reserved = NULL;
 
@@ -59,11 +78,30 @@ static int image_h = 0;
 //static int image_wReserved = 0;
 //static int image_hReserved = 0;
 
-static int idxIN = 0;
 static int idxOUT = 0;
+static int frameCount = 0;
 static int elemSize = 0;
+static int isJPGBuffer = 0;
+static int64_t keepTime = 0;
 static long mem_free = 0;
 
+//preview frame is compressed here before it's copied to arena
+static unsigned char *encode_buffer = NULL;
+//frame decoded back to NV21
+static unsigned char *decode_buffer = NULL;
+
+//insert runs on capture thread, frames are read on others
+static pthread_mutex_t buffer_mutex = PTHREAD_MUTEX_INITIALIZER;
+
+//statistics since allocation: frames inserted and dropped, NV21 and stored
+//bytes, insert time (us)
+static int64_t stat_inserted = 0;
+static int64_t stat_dropped = 0;
+static int64_t stat_raw_bytes = 0;
+static int64_t stat_stored_bytes = 0;
+static int64_t stat_insert_time = 0;
+static int64_t stat_max_insert_time = 0;
+
 
 extern "C" {
 
@@ -94,6 +132,77 @@ void mem_usage(long *mem_free)
 	*mem_free = (curr_mem_free + curr_mem_cached) * 1024;
 }
 
+static int64_t time_us()
+{
+	struct timespec ts;
+	clock_gettime(CLOCK_MONOTONIC, &ts);
+	return (int64_t)ts.tv_sec*1000000 + ts.tv_nsec/1000;
+}
+
+//expected size of stored frame
+static int storedFrameSize()
+{
+	return isJPGBuffer ? elemSize/3 : elemSize/COMPRESSION_ESTIMATE;
+}
+
+//record of idx-th frame from the oldest one, -1 if there is no such frame
+static int recordIndex(int idx)
+{
+	if (!frame_buffer || idx < 0 || idx >= frameCount)
+		return -1;
+
+	return (idxOUT + idx) % buf_size;
+}
+
+static void dropOldest()
+{
+	idxOUT++;
+	if (idxOUT == buf_size)
+		idxOUT = 0;
+	frameCount--;
+	stat_dropped++;
+}
+
+//offset in arena where frame of given length is stored, dropping oldest
+//frames to make room. -1 if frame is bigger than arena.
+static int makeRoom(int length, int64_t time)
+{
+	if (length > arena_size)
+		return -1;
+
+	while (frameCount > 0 && time - time_buffer[idxOUT] > keepTime)
+		dropOldest();
+	if (frameCount == buf_size)
+		dropOldest();
+
+	while (frameCount > 0)
+	{
+		int newest = (idxOUT + frameCount - 1) % buf_size;
+		int pos = offset_buffer[newest] + len_buffer[newest];
+		int oldest = offset_buffer[idxOUT];
+
+		if (oldest >= pos)
+		{
+			//oldest frame is ahead, space till it is free
+			if (pos + length <= oldest)
+				return pos;
+		}
+		else
+		{
+			//oldest frame is behind, space till the end of arena and before
+			//oldest frame is free
+			if (pos + length <= arena_size)
+				return pos;
+			if (length <= oldest)
+				return 0;
+		}
+
+		dropOldest();
+	}
+
+	return 0;
+}
+
 //max amount of elements which can be allocated
 JNIEXPORT jint JNICALL Java_com_almalence_plugins_capture_preshot_PreShot_AvailableMemory
 (
@@ -101,11 +210,16 @@ JNIEXPORT jint JNICALL Java_com_almalence_plugins_capture_preshot_PreShot_Availa
 	jobject pObj
 )
 {
+	if (storedFrameSize() == 0)
+		return 0;
+
 	//count amount of elements. we can't use all available memory. take just 80%
-	return mem_free*0.8/elemSize;
+	return mem_free*0.8/storedFrameSize();
 }
 
 
+JNIEXPORT jboolean JNICALL Java_com_almalence_plugins_capture_preshot_PreShot_FreeBuffer(JNIEnv* env, jobject pObj);
+
 //allocate buffer for storing
 //allocation depends on image w and h, selected fps, selected amount of seconds to store, image format
 JNIEXPORT jint JNICALL Java_com_almalence_plugins_capture_preshot_PreShot_AllocateBuffer
@@ -119,50 +233,74 @@ JNIEXPORT jint JNICALL Java_com_almalence_plugins_capture_preshot_PreShot_Alloca
 	jint isJPG
 )
 {
-	int i=0;
-
 	int desiredBufSize = 0;
 	int maxBufSize = 0;
+	int frames = 0;
+
+	Java_com_almalence_plugins_capture_preshot_PreShot_FreeBuffer(env, pObj);
+
+	pthread_mutex_lock(&buffer_mutex);
 
 	image_w = jimgw;
 	image_h = jimgh;
 	FPS = jfps;
 
 	//zero buf head&tail
-	idxIN=0;
-	idxOUT=0;
-
-	if (isJPG==1)
-		elemSize = jimgw*jimgh/2;
-	else
-		elemSize = jimgw*jimgh*3/2;
+	idxOUT = 0;
+	frameCount = 0;
+
+	stat_inserted = 0;
+	stat_dropped = 0;
+	stat_raw_bytes = 0;
+	stat_stored_bytes = 0;
+	stat_insert_time = 0;
+	stat_max_insert_time = 0;
+
+	isJPGBuffer = isJPG;
+	elemSize = jimgw*jimgh*3/2;
+	keepTime = (int64_t)secondsToAllocate*1000000;
 	//long mem_free;
 	mem_usage(&mem_free);
 
 	desiredBufSize = secondsToAllocate*FPS+1;
-//	if (!isReservedAllocated)
-//		maxBufSize = mem_free/2/elemSize;
-//	else
-		maxBufSize = mem_free*0.8/elemSize;
+	maxBufSize = (mem_free*0.8 - (isJPG ? 0 : 2*elemSize))/storedFrameSize();
 
-	//count buf_size
-	buf_size = (desiredBufSize<maxBufSize)?desiredBufSize:maxBufSize;
-
-	frame_buffer = (unsigned char *)malloc(sizeof(unsigned char)*buf_size*elemSize);
-	if (!frame_buffer)
+	//count amount of frames arena is sized for
+	frames = (desiredBufSize<maxBufSize)?desiredBufSize:maxBufSize;
+	if (frames <= 0)
+	{
+		pthread_mutex_unlock(&buffer_mutex);
 		return 0;
+	}
 
-	orient_buffer = (unsigned char *)malloc(sizeof(unsigned char)*buf_size);
-	if (!orient_buffer)
-		return 0;
+	arena_size = frames*storedFrameSize();
+	//records for frames which are smaller than expected
+	buf_size = 2*desiredBufSize;
 
+	frame_buffer = (unsigned char *)malloc(arena_size);
+	orient_buffer = (unsigned char *)malloc(sizeof(unsigned char)*buf_size);
 	len_buffer = (unsigned int *)malloc(sizeof(unsigned int)*buf_size);
-	if (!len_buffer)
+	offset_buffer = (unsigned int *)malloc(sizeof(unsigned int)*buf_size);
+	time_buffer = (int64_t *)malloc(sizeof(int64_t)*buf_size);
+	if (!isJPG)
+	{
+		encode_buffer = (unsigned char *)malloc(elemSize);
+		decode_buffer = (unsigned char *)malloc(elemSize);
+	}
+
+	if (!frame_buffer || !orient_buffer || !len_buffer || !offset_buffer || !time_buffer
+		|| (!isJPG && (!encode_buffer || !decode_buffer)))
+	{
+		pthread_mutex_unlock(&buffer_mutex);
+		Java_com_almalence_plugins_capture_preshot_PreShot_FreeBuffer(env, pObj);
 		return 0;
+	}
+
+	pthread_mutex_unlock(&buffer_mutex);
 
-	__android_log_print(ANDROID_LOG_ERROR, "Allocation", "Allocated %d bufers of %d size", buf_size, elemSize);
+	__android_log_print(ANDROID_LOG_ERROR, "Allocation", "Allocated %d bytes for %d frames of %d size", arena_size, frames, storedFrameSize());
 
-	return buf_size/FPS;
+	return frames/FPS;
 }
 
 //free allocated bufer
@@ -172,39 +310,40 @@ JNIEXPORT jboolean JNICALL Java_com_almalence_plugins_capture_preshot_PreShot_Fr
 	jobject pObj
 )
 {
-	int i;
+	pthread_mutex_lock(&buffer_mutex);
+
+	jboolean allocated = frame_buffer != NULL;
 
-	idxIN = 0;
 	idxOUT = 0;
+	frameCount = 0;
 
-	if (!frame_buffer)
-	{
-		return 0;
-	}
 	free(frame_buffer);
 	frame_buffer = 0;
+	arena_size = 0;
 
-	if (!orient_buffer)
-	{
-		return 0;
-	}
 	free(orient_buffer);
 	orient_buffer = 0;
-
-	if (!len_buffer)
-	{
-		return 0;
-	}
 	free(len_buffer);
 	len_buffer = 0;
+	free(offset_buffer);
+	offset_buffer = 0;
+	free(time_buffer);
+	time_buffer = 0;
 
+	free(encode_buffer);
+	encode_buffer = 0;
+	free(decode_buffer);
+	decode_buffer = 0;
 
-	__android_log_print(ANDROID_LOG_ERROR, "Allocation", "Buffers freed");
+	pthread_mutex_unlock(&buffer_mutex);
 
-	return 1;
+	if (allocated)
+		__android_log_print(ANDROID_LOG_ERROR, "Allocation", "Buffers freed");
+
+	return allocated;
 }
 
-//insert data into buffer specifying if image is in portrait/landscape orientation
+//insert data into buffer specifying image orientation
 JNIEXPORT jint JNICALL Java_com_almalence_plugins_capture_preshot_PreShot_InsertToBuffer
 (
 	JNIEnv* env,
@@ -215,50 +354,85 @@ JNIEXPORT jint JNICALL Java_com_almalence_plugins_capture_preshot_PreShot_Insert
 )
 {
 	unsigned char *data;
+	unsigned char *frame;
+	unsigned long frame_length;
 	int data_length;
-
-//	if (!isBuffering)
-//		return 0;
+	int pos;
+	int idx;
+	int64_t started = time_us();
 
 	data_length = env->GetArrayLength(jdata);
-	//__android_log_print(ANDROID_LOG_ERROR, "Insert", "Buffer size %d data size %d", elemSize, data_length);
-	if (data_length > elemSize)
+
+	pthread_mutex_lock(&buffer_mutex);
+
+	if (!frame_buffer || (!isJPGBuffer && data_length < elemSize))
+	{
+		pthread_mutex_unlock(&buffer_mutex);
 		return -1;
+	}
+
 	data = (unsigned char*)env->GetByteArrayElements(jdata, NULL);
 
-	memcpy ((void*)(frame_buffer+ idxIN*elemSize), (void*)data, data_length);
+	if (isJPGBuffer)
+	{
+		frame = data;
+		frame_length = data_length;
+	}
+	else
+	{
+		frame = encode_buffer;
+		frame_length = elemSize;
+		if (!NV21toJPEG(data, image_w, image_h, JPEG_QUALITY, &frame, &frame_length))
+			frame_length = 0;
+	}
 
-//	if (1==isPortrait)
-//		*(orient_buffer+ idxIN) = 1;
-//	else
-//		*(orient_buffer+ idxIN) = 0;
-	if(0 == orientation)
-		*(orient_buffer+ idxIN) = 0;
-	else if(90 == orientation)
-		*(orient_buffer+ idxIN) = 1;
-	else if(180 == orientation)
-		*(orient_buffer+ idxIN) = 2;
-	else if(270 == orientation)
-		*(orient_buffer+ idxIN) = 3;
-
-	*(len_buffer+ idxIN) = data_length;
+	pos = frame_length > 0 ? makeRoom(frame_length, started) : -1;
+	if (pos >= 0)
+	{
+		idx = (idxOUT + frameCount) % buf_size;
+		memcpy (frame_buffer + pos, frame, frame_length);
+
+		if(90 == orientation)
+			*(orient_buffer+ idx) = 1;
+		else if(180 == orientation)
+			*(orient_buffer+ idx) = 2;
+		else if(270 == orientation)
+			*(orient_buffer+ idx) = 3;
+		else
+			*(orient_buffer+ idx) = 0;
+
+		*(len_buffer+ idx) = frame_length;
+		*(offset_buffer+ idx) = pos;
+		*(time_buffer+ idx) = started;
+		frameCount++;
+
+		int64_t insert_time = time_us() - started;
+		stat_inserted++;
+		stat_raw_bytes += elemSize;
+		stat_stored_bytes += frame_length;
+		stat_insert_time += insert_time;
+		if (insert_time > stat_max_insert_time)
+			stat_max_insert_time = insert_time;
+	}
+
+	//encoder allocates its own buffer if frame doesn't fit ours
+	if (frame != data && frame != encode_buffer)
+		free(frame);
+
+	pthread_mutex_unlock(&buffer_mutex);
 
 	env->ReleaseByteArrayElements(jdata, (jbyte*)data, JNI_ABORT);
 
-	//move head
-	idxIN++;
-	if(idxIN == (buf_size))
-		idxIN=0;
+	return pos >= 0 ? 0 : -1;
+}
 
-	//move tail
-	if (idxIN == idxOUT)
-	{
-		idxOUT++;
-		if(idxOUT == (buf_size))
-			idxOUT=0;
-	}
+//decodes stored preview frame to decode_buffer
+static int decodeFrame(int rec)
+{
+	if (isJPGBuffer || !decode_buffer)
+		return 0;
 
-	return 0;
+	return JPEG2NV21Scaled(decode_buffer, frame_buffer + offset_buffer[rec], len_buffer[rec], image_w, image_h);
 }
 
 
@@ -274,42 +448,85 @@ JNIEXPORT jintArray JNICALL Java_com_almalence_plugins_capture_preshot_PreShot_G
 )
 {
 	unsigned int *data;
-	int TempidxOUT = idxOUT;
-	jintArray jdata = env->NewIntArray(0);
+	jintArray jdata;
+	int rec;
 
-	if (idxIN == idxOUT)
+	pthread_mutex_lock(&buffer_mutex);
+
+	rec = recordIndex(idx);
+	if (rec < 0 || !decodeFrame(rec))
 	{
-		env->ReleaseIntArrayElements(jdata, (jint*)data, 0);
-		return jdata;
+		pthread_mutex_unlock(&buffer_mutex);
+		return env->NewIntArray(0);
 	}
 
-	TempidxOUT +=idx;
-
-	if(TempidxOUT == (buf_size))
-		TempidxOUT=0;
-	if (idxIN == TempidxOUT)
+	jdata = env->NewIntArray(image_w*image_h);
+	if (jdata == NULL)
 	{
-		env->ReleaseIntArrayElements(jdata, (jint*)data, 0);
-		return jdata;
+		pthread_mutex_unlock(&buffer_mutex);
+		return NULL;
 	}
-	if(TempidxOUT > (buf_size-1))
-		TempidxOUT = idx - (buf_size - idxOUT);
-
-	jdata = env->NewIntArray(elemSize);
 
 	data = (unsigned int*)env->GetIntArrayElements(jdata, NULL);
 
-	//bool rotate = (manualOrientation ? orientation : (1 == *(orient_buffer+TempidxOUT)));
+	//bool rotate = (manualOrientation ? orientation : (1 == *(orient_buffer+rec)));
 
-	bool rotate = (manualOrientation ? orientation : (1 == *(orient_buffer+TempidxOUT) || 3 == *(orient_buffer+TempidxOUT)));
-	NV21_to_RGB(frame_buffer+TempidxOUT*elemSize, (int*)data, image_w, image_h, rotate);
+	bool rotate = (manualOrientation ? orientation : (1 == *(orient_buffer+rec) || 3 == *(orient_buffer+rec)));
+	NV21_to_RGB(decode_buffer, (int*)data, image_w, image_h, rotate);
 
 	env->ReleaseIntArrayElements(jdata, (jint*)data, 0);
 
+	pthread_mutex_unlock(&buffer_mutex);
+
 	return jdata;
 }
 
 
+//image scaled to outWidth x outHeight of rotated image and rotated clockwise
+//by rotation degrees, written as ARGB to caller's array, which is reused
+//between calls. Returns false if frame isn't available or array is too small.
+JNIEXPORT jboolean JNICALL Java_com_almalence_plugins_capture_preshot_PreShot_GetFromBufferRGBAScaled
+(
+	JNIEnv* env,
+	jobject pObj,
+	jint idx,
+	jintArray jout,
+	jint outWidth,
+	jint outHeight,
+	jint rotation
+)
+{
+	int *out;
+	int rec;
+
+	if (jout == NULL || outWidth <= 0 || outHeight <= 0 || env->GetArrayLength(jout) < outWidth*outHeight)
+		return JNI_FALSE;
+
+	pthread_mutex_lock(&buffer_mutex);
+
+	rec = recordIndex(idx);
+	if (rec < 0 || !decodeFrame(rec))
+	{
+		pthread_mutex_unlock(&buffer_mutex);
+		return JNI_FALSE;
+	}
+
+	out = (int*)env->GetIntArrayElements(jout, NULL);
+	if (out == NULL)
+	{
+		pthread_mutex_unlock(&buffer_mutex);
+		return JNI_FALSE;
+	}
+
+	NV21_to_ARGB_scaled_rotated(decode_buffer, image_w, image_h, out, outWidth, outHeight, rotation);
+
+	env->ReleaseIntArrayElements(jout, (jint*)out, 0);
+
+	pthread_mutex_unlock(&buffer_mutex);
+
+	return JNI_TRUE;
+}
+
 // - move GetFromBufferToShowInSlow jpeg decodings and downscaling into java
 // (it is always a single-image decode, there will always be enough java heap memory),
 // all what is needed - to move data from native heap into java heap
@@ -324,45 +541,23 @@ JNIEXPORT jbyteArray JNICALL Java_com_almalence_plugins_capture_preshot_PreShot_
 	jint previewH
 )
 {
-	unsigned char *data;
-	int TempidxOUT = idxOUT;
-	jbyteArray jdata = env->NewByteArray(0);
-
-	if (idxIN == idxOUT)
-	{
-		//env->ReleaseIntArrayElements(jdata, (jint*)data, JNI_ABORT);
-		env->ReleaseByteArrayElements(jdata, (jbyte*)data, 0);
-		return jdata;
-	}
+	jbyteArray jdata;
+	int rec;
 
-	TempidxOUT +=idx;
+	pthread_mutex_lock(&buffer_mutex);
 
-	if(TempidxOUT == (buf_size))
-		TempidxOUT=0;
-	if (idxIN == TempidxOUT)
+	rec = recordIndex(idx);
+	if (rec < 0)
 	{
-		//env->ReleaseIntArrayElements(jdata, (jint*)data, JNI_ABORT);
-		env->ReleaseByteArrayElements(jdata, (jbyte*)data, 0);
-		return jdata;
+		pthread_mutex_unlock(&buffer_mutex);
+		return env->NewByteArray(0);
 	}
-	if(TempidxOUT > (buf_size-1))
-		TempidxOUT = idx - (buf_size - idxOUT);
-
 
+	jdata = env->NewByteArray(*(len_buffer+ rec));
+	if (jdata != NULL)
+		env->SetByteArrayRegion(jdata, 0, *(len_buffer+ rec), (jbyte*)(frame_buffer + *(offset_buffer+ rec)));
 
-
-	size_t size_src = *(len_buffer+ TempidxOUT);
-	//size_t size = image_h*image_w;
-	//jdata = env->NewIntArray(size);
-	jdata = env->NewByteArray(size_src);
-	data = (unsigned char*)env->GetByteArrayElements(jdata, NULL);
-
-//	jdata = env->NewIntArray(size_src/sizeof(int));
-//	data = (unsigned int*)env->GetIntArrayElements(jdata, NULL);
-	memcpy (data, frame_buffer+TempidxOUT*elemSize, size_src);
-	//memcpy (data, frame_buffer+TempidxOUT*elemSize, size*sizeof(int));
-	//env->ReleaseIntArrayElements(jdata, (jint*)data, JNI_ABORT);
-	env->ReleaseByteArrayElements(jdata, (jbyte*)data, 0);
+	pthread_mutex_unlock(&buffer_mutex);
 
 	return jdata;
 }
@@ -376,32 +571,18 @@ JNIEXPORT jint JNICALL Java_com_almalence_plugins_capture_preshot_PreShot_getOri
 	jint idx
 )
 {
-	int TempidxOUT = idxOUT;
+	int orientation = 0;
+	int rec;
 
-	TempidxOUT +=idx;
+	pthread_mutex_lock(&buffer_mutex);
 
-	if(TempidxOUT == (buf_size))
-		TempidxOUT=0;
-	if (idxIN == TempidxOUT)
-	{
-		return 0;
-	}
-	if(TempidxOUT > (buf_size-1))
-		TempidxOUT = idx - (buf_size - idxOUT);
+	rec = recordIndex(idx);
+	if (rec >= 0)
+		orientation = 90 * *(orient_buffer+rec);
 
-//	if (1 == *(orient_buffer+TempidxOUT))
-//		return 1;
-//	else
-//		return 0;
-	if(0 == *(orient_buffer+TempidxOUT))
-		return 0;
-	else if(1 == *(orient_buffer+TempidxOUT))
-		return 90;
-	else if(2 == *(orient_buffer+TempidxOUT))
-		return 180;
-	else if(3 == *(orient_buffer+TempidxOUT))
-		return 270;
-	//return *(orient_buffer+TempidxOUT);
+	pthread_mutex_unlock(&buffer_mutex);
+
+	return orientation;
 }
 
 ////check image orientation by index in reserved buffer
@@ -435,20 +616,33 @@ JNIEXPORT jint JNICALL Java_com_almalence_plugins_capture_preshot_PreShot_GetIma
 	jobject pObj
 )
 {
-	int imgCnt=0;
-
-	if (idxIN == 0 && idxOUT == 0)
-		return 0;
+	return frameCount;
+}
 
-	if (idxIN > idxOUT)
-	{
-		imgCnt = idxIN - idxOUT;
-	}
-	else
-	{
-		imgCnt = buf_size - idxOUT + idxIN;
-	}
-	return imgCnt;
+//statistics since allocation: frames inserted, frames dropped, NV21 bytes,
+//stored bytes, total and max insert time in microseconds
+JNIEXPORT jlongArray JNICALL Java_com_almalence_plugins_capture_preshot_PreShot_GetStatistics
+(
+	JNIEnv* env,
+	jobject pObj
+)
+{
+	jlong stats[6];
+	jlongArray jstats = env->NewLongArray(6);
+	if (jstats == NULL)
+		return NULL;
+
+	pthread_mutex_lock(&buffer_mutex);
+	stats[0] = stat_inserted;
+	stats[1] = stat_dropped;
+	stats[2] = stat_raw_bytes;
+	stats[3] = stat_stored_bytes;
+	stats[4] = stat_insert_time;
+	stats[5] = stat_max_insert_time;
+	pthread_mutex_unlock(&buffer_mutex);
+
+	env->SetLongArrayRegion(jstats, 0, 6, stats);
+	return jstats;
 }
 
 
@@ -528,6 +722,40 @@ JNIEXPORT jint JNICALL Java_com_almalence_plugins_capture_preshot_PreShot_GetIma
 //	return 1;
 //}
 
+// copies frame idx to data, rotating it to portrait if needed. Called with
+// buffer_mutex locked, returns 0 if there's no such frame.
+static int CopyFromBufferNV21(unsigned char *data, int idx, int mirrored)
+{
+	int rec = recordIndex(idx);
+	if (rec < 0 || !decodeFrame(rec))
+		return 0;
+
+	if (1 != mirrored)
+	{
+		if (1 == *(orient_buffer+rec))
+			TransformNV21(decode_buffer, data, image_w, image_h, NULL, 0, 0, 1);
+		else if(3 == *(orient_buffer+rec))
+			TransformNV21(decode_buffer, data, image_w, image_h, NULL, 1, 1, 1);
+		else if(2 == *(orient_buffer+rec))
+			TransformNV21(decode_buffer, data, image_w, image_h, NULL, 1, 1, 0);
+		else
+			memcpy (data, decode_buffer, elemSize);
+	}
+	else
+	{
+		if (1 == *(orient_buffer+rec))
+			TransformNV21(decode_buffer, data, image_w, image_h, NULL, 1, 1, 1);
+		else if(3 == *(orient_buffer+rec))
+			TransformNV21(decode_buffer, data, image_w, image_h, NULL, 0, 0, 1);
+		else if(2 == *(orient_buffer+rec))
+			TransformNV21(decode_buffer, data, image_w, image_h, NULL, 1, 1, 0);
+		else
+			memcpy (data, decode_buffer, elemSize);
+	}
+
+	return 1;
+}
+
 //get data from buffer
 JNIEXPORT jbyteArray JNICALL Java_com_almalence_plugins_capture_preshot_PreShot_GetFromBufferNV21
 (
@@ -544,34 +772,75 @@ JNIEXPORT jbyteArray JNICALL Java_com_almalence_plugins_capture_preshot_PreShot_
 	jbyteArray jdata;
 
 	jdata = env->NewByteArray(elemSize);
+	if (jdata == NULL)
+		return NULL;
 	data = (unsigned char*)env->GetByteArrayElements(jdata, NULL);
 
-	if (1 != mirrored)
+	pthread_mutex_lock(&buffer_mutex);
+	CopyFromBufferNV21(data, idx, mirrored);
+	pthread_mutex_unlock(&buffer_mutex);
+
+	env->ReleaseByteArrayElements(jdata, (jbyte*)data, 0);
+
+	return jdata;
+}
+
+//get data from buffer to native heap, caller frees it with free()
+JNIEXPORT jlong JNICALL Java_com_almalence_plugins_capture_preshot_PreShot_GetFromBufferNV21ToHeap
+(
+	JNIEnv* env,
+	jobject pObj,
+	jint idx,
+	jint W,
+	jint H,
+	jint mirrored
+)
+{
+	unsigned char *heap;
+
+	if (!frame_buffer || elemSize == 0)
+		return 0;
+
+	heap = (unsigned char *)malloc(elemSize);
+	if (heap == NULL)
 	{
-		if (1 == *(orient_buffer+idx))
-			TransformNV21(frame_buffer+idx*elemSize, data, image_w, image_h, NULL, 0, 0, 1);
-		else if(3 == *(orient_buffer+idx))
-			TransformNV21(frame_buffer+idx*elemSize, data, image_w, image_h, NULL, 1, 1, 1);
-		else if(2 == *(orient_buffer+idx))
-			TransformNV21(frame_buffer+idx*elemSize, data, image_w, image_h, NULL, 1, 1, 0);
-		else
-			memcpy (data, frame_buffer+idx*elemSize, elemSize);
+		__android_log_print(ANDROID_LOG_ERROR, "Allocation", "Can't allocate %d bytes for result", elemSize);
+		return 0;
 	}
-	else
+
+	pthread_mutex_lock(&buffer_mutex);
+	if (!CopyFromBufferNV21(heap, idx, mirrored))
 	{
-		if (1 == *(orient_buffer+idx))
-			TransformNV21(frame_buffer+idx*elemSize, data, image_w, image_h, NULL, 1, 1, 1);
-		else if(3 == *(orient_buffer+idx))
-			TransformNV21(frame_buffer+idx*elemSize, data, image_w, image_h, NULL, 0, 0, 1);
-		else if(2 == *(orient_buffer+idx))
-			TransformNV21(frame_buffer+idx*elemSize, data, image_w, image_h, NULL, 1, 1, 0);
-		else
-			memcpy (data, frame_buffer+idx*elemSize, elemSize);
+		free(heap);
+		heap = NULL;
 	}
+	pthread_mutex_unlock(&buffer_mutex);
 
-	env->ReleaseByteArrayElements(jdata, (jbyte*)data, 0);
+	return (jlong)(intptr_t)heap;
+}
 
-	return jdata;
+//size of data returned by GetFromBufferNV21ToHeap or GetFromBufferSimpleToHeap
+JNIEXPORT jint JNICALL Java_com_almalence_plugins_capture_preshot_PreShot_GetFromBufferLength
+(
+	JNIEnv* env,
+	jobject pObj,
+	jint idx,
+	jboolean simple
+)
+{
+	int length = 0;
+	int rec;
+
+	if (!simple)
+		return elemSize;
+
+	pthread_mutex_lock(&buffer_mutex);
+	rec = recordIndex(idx);
+	if (rec >= 0)
+		length = *(len_buffer + rec);
+	pthread_mutex_unlock(&buffer_mutex);
+
+	return length;
 }
 
 ////get data from reserved buffer in JPEG format
@@ -653,16 +922,36 @@ JNIEXPORT jbyteArray JNICALL Java_com_almalence_plugins_capture_preshot_PreShot_
 	jint idx
 )
 {
-	unsigned char *data;
-	jbyteArray jdata = env->NewByteArray(0);
+	return Java_com_almalence_plugins_capture_preshot_PreShot_GetFromBufferToShowInSlow(env, pObj, idx, 0, 0);
+}
 
-	jdata = env->NewByteArray(*(len_buffer + idx));
-	data = (unsigned char*)env->GetByteArrayElements(jdata, NULL);
-	memcpy (data, frame_buffer+idx*elemSize, *(len_buffer + idx));
+//get data from buffer in JPEG format without any rotation to native heap,
+//caller frees it with free(). ONLY FOR SLOW!!!
+JNIEXPORT jlong JNICALL Java_com_almalence_plugins_capture_preshot_PreShot_GetFromBufferSimpleToHeap
+(
+	JNIEnv* env,
+	jobject pObj,
+	jint idx
+)
+{
+	unsigned char *heap = NULL;
+	int rec;
 
-	env->ReleaseByteArrayElements(jdata, (jbyte*)data, 0);
+	pthread_mutex_lock(&buffer_mutex);
 
-	return jdata;
+	rec = recordIndex(idx);
+	if (rec >= 0 && *(len_buffer + rec) > 0)
+	{
+		heap = (unsigned char *)malloc(*(len_buffer + rec));
+		if (heap == NULL)
+			__android_log_print(ANDROID_LOG_ERROR, "Allocation", "Can't allocate %d bytes for result", *(len_buffer + rec));
+		else
+			memcpy (heap, frame_buffer + *(offset_buffer + rec), *(len_buffer + rec));
+	}
+
+	pthread_mutex_unlock(&buffer_mutex);
+
+	return (jlong)(intptr_t)heap;
 }
 
 ////free reserved buffer
@@ -17,6 +17,8 @@ by Almalence Inc. All Rights Reserved.
 */
 
 #include <string.h>
+#include <stdint.h>
+#include <stdlib.h>
 #include <stdio.h>
 #include <jni.h>
 #include <pthread.h>
@@ -121,4 +123,57 @@ JNIEXPORT jboolean JNICALL Java_com_almalence_SwapHeap_FreeFromHeap
 }
 
 
+// Same as above with pointer-sized handles, used by com.almalence.NativeFrame
+
+JNIEXPORT jlong JNICALL Java_com_almalence_SwapHeap_SwapToHeap64
+(
+	JNIEnv* env,
+	jobject,
+	jbyteArray jdata
+)
+{
+	int data_length;
+	unsigned char *heap;
+
+	data_length = env->GetArrayLength(jdata);
+
+	heap = (unsigned char *)malloc(data_length);
+	if (heap != NULL)
+		env->GetByteArrayRegion(jdata, 0, data_length, (jbyte*)heap);
+	else
+		__android_log_print(ANDROID_LOG_ERROR, "SwapToHeap64", "heap is NULL");
+
+	return (jlong)(intptr_t)heap;
+}
+
+JNIEXPORT jbyteArray JNICALL Java_com_almalence_SwapHeap_CopyFromHeap64
+(
+	JNIEnv* env,
+	jobject,
+	jlong jheap,
+	jint jdata_length
+)
+{
+	jbyteArray jdata;
+
+	jdata = env->NewByteArray(jdata_length);
+	if (jdata != NULL)
+		env->SetByteArrayRegion(jdata, 0, jdata_length, (jbyte*)(intptr_t)jheap);
+
+	return jdata;
+}
+
+JNIEXPORT jboolean JNICALL Java_com_almalence_SwapHeap_FreeFromHeap64
+(
+	JNIEnv* env,
+	jobject,
+	jlong jheap
+)
+{
+	free ((void*)(intptr_t)jheap);
+
+	return 1;
+}
+
+
 }
@@ -178,6 +178,75 @@ extern "C" JNIEXPORT jint JNICALL Java_com_almalence_util_ImageConversion_JpegCo
 	return (jint)out;
 }
 
+extern "C" JNIEXPORT jint JNICALL Java_com_almalence_util_ImageConversion_JpegConvertRange
+(
+	JNIEnv* env,
+	jobject thiz,
+	jbyteArray jdata,
+	jint offset,
+	jint length,
+	jint sx,
+	jint sy,
+	jboolean jrot,
+	jboolean mirror,
+	jint rotationDegree
+)
+{
+	unsigned char *data;
+
+	if (offset < 0 || length < 0 || offset + length > env->GetArrayLength(jdata))
+		return 0;
+
+	data = (unsigned char*)env->GetByteArrayElements(jdata, NULL);
+
+	unsigned char* out = (unsigned char*)malloc(sx*sy+2*((sx+1)/2)*((sy+1)/2));
+
+	if (out != NULL)
+	{
+		if (JPEG2NV21(out, data + offset, length, sx, sy, jrot, mirror, rotationDegree) == 0)
+		{
+			free(out);
+			out = NULL;
+		}
+	}
+
+	env->ReleaseByteArrayElements(jdata, (jbyte*)data, JNI_ABORT);
+
+	return (jint)out;
+}
+
+extern "C" JNIEXPORT jboolean JNICALL Java_com_almalence_util_ImageConversion_JpegDecodeToNV21
+(
+	JNIEnv* env,
+	jobject thiz,
+	jbyteArray jdata,
+	jint offset,
+	jint length,
+	jbyteArray jout,
+	jint sx,
+	jint sy
+)
+{
+	unsigned char *data;
+	unsigned char *out;
+	int res;
+
+	if (offset < 0 || length < 0 || offset + length > env->GetArrayLength(jdata))
+		return JNI_FALSE;
+	if (sx <= 0 || sy <= 0 || env->GetArrayLength(jout) < sx*sy+2*((sx+1)/2)*((sy+1)/2))
+		return JNI_FALSE;
+
+	data = (unsigned char*)env->GetByteArrayElements(jdata, NULL);
+	out = (unsigned char*)env->GetByteArrayElements(jout, NULL);
+
+	res = JPEG2NV21Scaled(out, data + offset, length, sx, sy);
+
+	env->ReleaseByteArrayElements(jout, (jbyte*)out, res ? 0 : JNI_ABORT);
+	env->ReleaseByteArrayElements(jdata, (jbyte*)data, JNI_ABORT);
+
+	return res ? JNI_TRUE : JNI_FALSE;
+}
+
 extern "C" JNIEXPORT jint JNICALL Java_com_almalence_util_ImageConversion_JpegConvertN
 (
 	JNIEnv* env,
@@ -176,6 +176,189 @@ int JPEG2NV21(Uint8 *yuv, Uint8 *jpegdata, int jpeglen, int sx, int sy, bool nee
 	return 1;
 }
 
+// Decodes jpeg to NV21 of exactly sx*sy pixels. Bigger jpeg is downscaled
+// by libjpeg in DCT domain (1/2, 1/4 or 1/8), which is much cheaper than
+// decoding at full size. Returns 0 if jpeg is broken or no scale gives sx*sy.
+int JPEG2NV21Scaled(Uint8 *yuv, Uint8 *jpegdata, int jpeglen, int sx, int sy)
+{
+	int i, y = 0;
+	int denom;
+
+	struct jpeg_decompress_struct cinfo;
+	struct my_error_mgr jerr;
+	JSAMPARRAY scanline;
+	unsigned char *wline;
+	unsigned char *y_buffer;
+	unsigned char *cbcr_buffer;
+	int cbcr_stride = 2*((sx+1)/2);
+
+	cinfo.err = jpeg_std_error(&jerr.pub);
+	jerr.pub.error_exit = my_error_exit;
+	if (setjmp(jerr.setjmp_buffer))
+	{
+		jpeg_destroy_decompress(&cinfo);
+		return 0;
+	}
+	jpeg_create_decompress(&cinfo);
+
+	jpeg_mem_src(&cinfo, jpegdata, jpeglen);
+	(void) jpeg_read_header(&cinfo, TRUE);
+
+	for (denom = 1; denom <= 8; denom *= 2)
+		if ((int)(cinfo.image_width + denom - 1) / denom == sx && (int)(cinfo.image_height + denom - 1) / denom == sy)
+			break;
+	if (denom > 8)
+	{
+		LOGE("JPEG2NV21Scaled: %dx%d jpeg can't be decoded to %dx%d", cinfo.image_width, cinfo.image_height, sx, sy);
+		jpeg_destroy_decompress(&cinfo);
+		return 0;
+	}
+
+	cinfo.scale_num = 1;
+	cinfo.scale_denom = denom;
+	cinfo.out_color_space = JCS_YCbCr;
+
+	(void) jpeg_start_decompress(&cinfo);
+
+	// libjpeg rounds scaled size the same way, check anyway as output goes
+	// straight to caller's buffer
+	if ((int)cinfo.output_width != sx || (int)cinfo.output_height != sy)
+	{
+		jpeg_abort_decompress(&cinfo);
+		jpeg_destroy_decompress(&cinfo);
+		return 0;
+	}
+
+	y_buffer = yuv;
+	cbcr_buffer = yuv + sx*sy;
+	scanline = (*cinfo.mem->alloc_sarray)((j_common_ptr) &cinfo, JPOOL_IMAGE, cinfo.output_width * cinfo.output_components, 1);
+	wline = scanline[0];
+
+	while (cinfo.output_scanline < cinfo.output_height)
+	{
+		jpeg_read_scanlines(&cinfo, scanline, (JDIMENSION)1);
+
+		for (i = 0; i < sx; i++)
+			y_buffer[i] = wline[i*3];
+		y_buffer += sx;
+
+		// chroma of even rows, last odd row of odd height too
+		if (!(y & 1))
+		{
+			for (i = 0; i < sx; i += 2)
+			{
+				cbcr_buffer[i] = wline[(i*3) + 2];		// V
+				cbcr_buffer[i + 1] = wline[(i*3) + 1];	// U
+			}
+			cbcr_buffer += cbcr_stride;
+		}
+		y++;
+	}
+
+	(void) jpeg_finish_decompress(&cinfo);
+	jpeg_destroy_decompress(&cinfo);
+
+	return 1;
+}
+
+// Raw YCbCr input, so libjpeg does no color conversion. Rows are fed by
+// 16 luma and 8 chroma lines, chroma is deinterleaved from NV21 VU pairs.
+int NV21toJPEG(Uint8 *yuv, int sx, int sy, int quality, Uint8 **out, unsigned long *outlen)
+{
+	int i, j, k;
+	int wa = (sx+15)&-16;
+	struct jpeg_compress_struct cinfo;
+	struct my_error_mgr jerr;
+	JSAMPROW ptrY[16], ptrU[8], ptrV[8];
+	JSAMPARRAY planes[3] = { ptrY, ptrU, ptrV };
+	Uint8 *uv = yuv + sx*sy;
+	Uint8 *buf;
+
+	if ((sx | sy) & 1)
+		return 0;
+
+	buf = (Uint8*)malloc(24*wa);
+	if (buf == NULL)
+		return 0;
+
+	cinfo.err = jpeg_std_error(&jerr.pub);
+	jerr.pub.error_exit = my_error_exit;
+	if (setjmp(jerr.setjmp_buffer))
+	{
+		jpeg_destroy_compress(&cinfo);
+		free(buf);
+		return 0;
+	}
+	jpeg_create_compress(&cinfo);
+	jpeg_mem_dest(&cinfo, out, outlen);
+
+	cinfo.image_width = sx;
+	cinfo.image_height = sy;
+	cinfo.input_components = 3;
+	cinfo.in_color_space = JCS_YCbCr;
+	jpeg_set_defaults(&cinfo);
+	cinfo.raw_data_in = TRUE;
+	cinfo.dct_method = JDCT_IFAST;
+	cinfo.comp_info[0].h_samp_factor = 2;
+	cinfo.comp_info[0].v_samp_factor = 2;
+	cinfo.comp_info[1].h_samp_factor = 1;
+	cinfo.comp_info[1].v_samp_factor = 1;
+	cinfo.comp_info[2].h_samp_factor = 1;
+	cinfo.comp_info[2].v_samp_factor = 1;
+	jpeg_set_quality(&cinfo, quality, TRUE);
+	jpeg_start_compress(&cinfo, TRUE);
+
+	for (i = 0; i < 16; i++)
+		ptrY[i] = buf + i*wa;
+	for (i = 0; i < 8; i++)
+		ptrV[i] = (ptrU[i] = buf + (i+16)*wa) + (wa>>1);
+
+	for (i = 0; i < sy; i += 16)
+	{
+		int n = sy - i;
+		if (n > 16)
+			n = 16;
+
+		for (j = 0; j < n; j++)
+		{
+			memcpy(ptrY[j], yuv + (i+j)*sx, sx);
+			if (sx < wa)
+				memset(ptrY[j] + sx, ptrY[j][sx-1], wa - sx);
+			if (j & 1)
+			{
+				Uint8 *d = ptrU[j>>1];
+				Uint8 *s = uv + ((i+j)>>1)*sx;
+				for (k = 0; k < (sx>>1); k++)
+				{
+					d[k] = s[k*2+1];			// U
+					d[k + (wa>>1)] = s[k*2];	// V
+				}
+				for ( ; k < (wa>>1); k++)
+				{
+					d[k] = d[(sx>>1)-1];
+					d[k + (wa>>1)] = d[(wa>>1) + (sx>>1)-1];
+				}
+			}
+		}
+
+		// last rows repeat the last line of the image
+		for ( ; j < 15; j += 2)
+		{
+			ptrY[j] = ptrY[j+1] = ptrY[n-1];
+			ptrU[j>>1] = ptrU[(n>>1)-1];
+			ptrV[j>>1] = ptrV[(n>>1)-1];
+		}
+
+		jpeg_write_raw_data(&cinfo, planes, 16);
+	}
+
+	jpeg_finish_compress(&cinfo);
+	jpeg_destroy_compress(&cinfo);
+	free(buf);
+
+	return 1;
+}
+
 int JPEG2RGBA(Uint8 *dst, Uint8 *jpegdata, int jpeglen)
 {
 	int i, y;
@@ -634,6 +817,71 @@ void NV21_to_RGB
 }
 
 
+// convert NV21 into ARGB ints (as Bitmap.setPixels takes them) scaled to
+// outWidth x outHeight of rotated image and rotated clockwise by rotation
+// degrees (multiple of 90). Luma is averaged over up to 2x2 source pixels.
+void NV21_to_ARGB_scaled_rotated
+(
+	unsigned char * in,
+	int   sx,
+	int   sy,
+	int * out,
+	int   outWidth,
+	int   outHeight,
+	int   rotation
+)
+{
+	int ox, oy, ux, uy, x, y, x1, y1;
+	int nY, nU, nV;
+	unsigned int R, G, B;
+	int quarter = (rotation / 90) & 3;
+	// size of scaled image before rotation
+	int uw = (quarter & 1) ? outHeight : outWidth;
+	int uh = (quarter & 1) ? outWidth : outHeight;
+
+	for (oy = 0; oy < outHeight; ++oy)
+	{
+		for (ox = 0; ox < outWidth; ++ox)
+		{
+			switch (quarter)
+			{
+			case 1:
+				ux = oy;
+				uy = uh-1-ox;
+				break;
+			case 2:
+				ux = uw-1-ox;
+				uy = uh-1-oy;
+				break;
+			case 3:
+				ux = uw-1-oy;
+				uy = ox;
+				break;
+			default:
+				ux = ox;
+				uy = oy;
+				break;
+			}
+
+			x = ux*sx/uw;
+			y = uy*sy/uh;
+			x1 = (sx >= 2*uw && x < sx-1) ? x+1 : x;
+			y1 = (sy >= 2*uh && y < sy-1) ? y+1 : y;
+
+			nY = (get_Ysz(in, x, y) + get_Ysz(in, x1, y) + get_Ysz(in, x, y1) + get_Ysz(in, x1, y1) + 2) >> 2;
+			nU = get_Usz(in, x, y);
+			nV = get_Vsz(in, x, y);
+
+			R = CSC_R(nY, nV);
+			G = CSC_G(nY, nU, nV);
+			B = CSC_B(nY, nU);
+
+			out[oy*outWidth+ox] = (R<<16) + (G<<8) + B + (255<<24);
+		}
+	}
+}
+
+
 void NV21_to_RGB_scaled_rotated
 (
 	unsigned char *pY,
@@ -46,6 +46,26 @@ int JPEG2NV21(
 	int rotationDegree
 );
 
+int JPEG2NV21Scaled(
+	unsigned char* yuv,
+	unsigned char* jpegdata,
+	int jpeglen,
+	int sx,
+	int sy
+);
+
+// Encodes NV21 to jpeg. Output goes to *out if it has *outlen bytes,
+// if it's too small libjpeg allocates new one with malloc() and caller
+// frees it. *outlen is set to jpeg length. Returns 0 on failure.
+int NV21toJPEG(
+	unsigned char* yuv,
+	int sx,
+	int sy,
+	int quality,
+	unsigned char** out,
+	unsigned long* outlen
+);
+
 int JPEG2RGBA
 (
 	unsigned char *dst,
@@ -111,6 +131,19 @@ void NV21_to_RGB
 	int   rotate
 );
 
+// convert NV21 into ARGB ints scaled to outWidth x outHeight of rotated image
+// and rotated clockwise by multiple of 90 degrees
+void NV21_to_ARGB_scaled_rotated
+(
+	unsigned char * in,
+	int   sx,
+	int   sy,
+	int * out,
+	int   outWidth,
+	int   outHeight,
+	int   rotation
+);
+
 
 // convert NV21 into RGB or BGRA with 90 degree rotation and scaling
 // used to make portrait-oriented on-screen previews
@@ -18,6 +18,8 @@
 
 #include <stdio.h>
 #include <string.h>
+#include <stdint.h>
+#include <stdlib.h>
 #include <jni.h>
 #include <android/log.h>
 
@@ -29,17 +31,15 @@ static unsigned char *yuv;
 static int SX = 0;
 static int SY = 0;
 
-extern "C" JNIEXPORT jboolean JNICALL Java_com_almalence_YuvImage_SaveJpegFreeOutMT
+// Legacy int handle is freed if encoder can't be initialized, memory of
+// NativeFrame is left to its owner.
+static jboolean SaveJpegFreeOutMT
 (
-		JNIEnv* env, jobject, int jout,
+		JNIEnv* env, jbyte* OutPic, bool freeOnError,
 		int format, int width, int height, jintArray offsets,
 		jintArray strides, int jpegQuality, jobject jstream, jbyteArray jstorage
 )
 {
-	jbyte* OutPic;
-
-	OutPic = (jbyte *)jout;
-
 	initStreamMethods(env);
 
 	jint* imgOffsets = env->GetIntArrayElements(offsets, NULL);
@@ -47,7 +47,8 @@ extern "C" JNIEXPORT jboolean JNICALL Java_com_almalence_YuvImage_SaveJpegFreeOu
 
 	if (YuvToJpegEncoderMT_init(format, imgStrides))
 	{
-		free(OutPic);
+		if (freeOnError)
+			free(OutPic);
 		return false;
 	}
 
@@ -61,6 +62,27 @@ extern "C" JNIEXPORT jboolean JNICALL Java_com_almalence_YuvImage_SaveJpegFreeOu
 	return result;
 }
 
+extern "C" JNIEXPORT jboolean JNICALL Java_com_almalence_YuvImage_SaveJpegFreeOutMT
+(
+		JNIEnv* env, jobject, int jout,
+		int format, int width, int height, jintArray offsets,
+		jintArray strides, int jpegQuality, jobject jstream, jbyteArray jstorage
+)
+{
+	return SaveJpegFreeOutMT(env, (jbyte *)jout, true, format, width, height, offsets, strides, jpegQuality, jstream, jstorage);
+}
+
+// Same with pointer-sized address, used for com.almalence.NativeFrame
+extern "C" JNIEXPORT jboolean JNICALL Java_com_almalence_YuvImage_SaveJpegFreeOutMT64
+(
+		JNIEnv* env, jobject, jlong jout,
+		int format, int width, int height, jintArray offsets,
+		jintArray strides, int jpegQuality, jobject jstream, jbyteArray jstorage
+)
+{
+	return SaveJpegFreeOutMT(env, (jbyte *)(intptr_t)jout, false, format, width, height, offsets, strides, jpegQuality, jstream, jstorage);
+}
+
 extern "C" JNIEXPORT void JNICALL Java_com_almalence_YuvImage_RemoveFrame
 (
 		JNIEnv* env,
@@ -285,6 +307,49 @@ extern "C" JNIEXPORT jbyte* JNICALL Java_com_almalence_YuvImage_CreateYUVImageBy
 	return (jbyte *)jpixels;
 }
 
+// Same as CreateYUVImageByteArray, but fills array given by caller, so preview
+// buffers may be reused instead of allocating new array for every frame
+extern "C" JNIEXPORT jint JNICALL Java_com_almalence_YuvImage_FillYUVImageByteArray
+(
+		JNIEnv* env,
+		jobject thiz,
+		jobject bufY,
+		jobject bufU,
+		jobject bufV,
+		jint pixelStrideY,
+		jint rowStrideY,
+		jint pixelStrideU,
+		jint rowStrideU,
+		jint pixelStrideV,
+		jint rowStrideV,
+		jint sx,
+		jint sy,
+		jbyteArray out
+)
+{
+	unsigned char *Y, *U, *V;
+
+	Y = (unsigned char*)env->GetDirectBufferAddress(bufY);
+	U = (unsigned char*)env->GetDirectBufferAddress(bufU);
+	V = (unsigned char*)env->GetDirectBufferAddress(bufV);
+
+	if ((Y == NULL) || (U == NULL) || (V == NULL))
+		return -1;
+
+	if (env->GetArrayLength(out) < sx*sy+sx*((sy+1)/2))
+		return -2;
+
+	unsigned char * single_yuv = (unsigned char *)env->GetPrimitiveArrayCritical(out, NULL);
+	if (single_yuv == NULL)
+		return -3;
+
+	ExtractYuvFromDirectBuffer(Y, U, V, single_yuv, pixelStrideY, rowStrideY, pixelStrideU, rowStrideU, pixelStrideV, rowStrideV, sx, sy);
+
+	env->ReleasePrimitiveArrayCritical(out, single_yuv, 0);
+
+	return 0;
+}
+
 extern "C" JNIEXPORT int JNICALL Java_com_almalence_YuvImage_AllocateMemoryForYUV
 (
 		JNIEnv* env,
@@ -0,0 +1,372 @@
+/*
+The contents of this file are subject to the Mozilla Public License
+Version 1.1 (the "License"); you may not use this file except in
+compliance with the License. You may obtain a copy of the License at
+http://www.mozilla.org/MPL/
+
+Software distributed under the License is distributed on an "AS IS"
+basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+License for the specific language governing rights and limitations
+under the License.
+
+The Original Code is collection of files collectively known as Open Camera.
+
+The Initial Developer of the Original Code is Almalence Inc.
+Portions created by Initial Developer are Copyright (C) 2013
+by Almalence Inc. All Rights Reserved.
+ */
+
+package com.almalence;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/***
+ * Reference counted block of native memory owned by a capture session.
+ *
+ * Address is kept as long, so handle stays valid on 64-bit processes where
+ * int pointers of SwapHeap get truncated. Frames are registered per session:
+ * whatever the session didn't free itself (aborted save, failed encoding) is
+ * freed by releaseSession() when shared memory of the session is cleared.
+ *
+ * Memory is allocated and freed by Allocator, which is SwapHeap by default
+ * and may be replaced when native library isn't available.
+ ***/
+public final class NativeFrame
+{
+	public interface Allocator
+	{
+		// Copies data to native memory. Returns 0 if memory can't be allocated.
+		long allocate(byte[] data);
+
+		byte[] copy(long address, int length);
+
+		void free(long address);
+	}
+
+	// Allocates memory with SwapHeap natives
+	public static final Allocator					HEAP_ALLOCATOR	= new HeapAllocator();
+
+	private static final int						LIVE			= 0;
+	// ownership was passed to native code, which frees memory itself
+	private static final int						DETACHED		= 1;
+	private static final int						FREED			= 2;
+
+	private static final Object						lock			= new Object();
+	private static final Map<Long, List<NativeFrame>>	sessions		= new HashMap<Long, List<NativeFrame>>();
+	private static Allocator						allocator		= HEAP_ALLOCATOR;
+	private static long								liveBytes		= 0;
+	private static long								peakBytes		= 0;
+	private static int								liveFrames		= 0;
+
+	private final long								address;
+	private final int								length;
+	private final long								sessionID;
+	// frame is freed by allocator which allocated it
+	private final Allocator							owner;
+	private final AtomicInteger						refs			= new AtomicInteger(1);
+	private int										state			= LIVE;
+
+	private NativeFrame(long sessionID, long address, int length, Allocator owner)
+	{
+		this.sessionID = sessionID;
+		this.address = address;
+		this.length = length;
+		this.owner = owner;
+	}
+
+	/**
+	 * Copies data to native memory owned by session. Returned frame has one
+	 * reference.
+	 */
+	public static NativeFrame allocate(long sessionID, byte[] data)
+	{
+		Allocator a;
+		synchronized (lock)
+		{
+			a = allocator;
+		}
+
+		long address = a.allocate(data);
+		if (address == 0)
+			throw new OutOfMemoryError("Can't allocate " + data.length + " bytes of native memory");
+
+		NativeFrame frame = new NativeFrame(sessionID, address, data.length, a);
+		register(frame);
+		return frame;
+	}
+
+	/**
+	 * Takes ownership of memory allocated by native code with malloc(), for
+	 * example by processing library.
+	 */
+	public static NativeFrame adopt(long sessionID, long address, int length)
+	{
+		Allocator a;
+		synchronized (lock)
+		{
+			a = allocator;
+		}
+
+		NativeFrame frame = new NativeFrame(sessionID, address, length, a);
+		register(frame);
+		return frame;
+	}
+
+	// Address of legacy int handle. Handles are unsigned, so high bit must not
+	// be extended into upper word.
+	public static long toAddress(int handle)
+	{
+		return handle & 0xFFFFFFFFL;
+	}
+
+	public long getAddress()
+	{
+		return address;
+	}
+
+	public int getLength()
+	{
+		return length;
+	}
+
+	public long getSessionID()
+	{
+		return sessionID;
+	}
+
+	// True if address may be passed to natives which take int pointer
+	public boolean hasLegacyHandle()
+	{
+		return (address >>> 32) == 0;
+	}
+
+	/**
+	 * Address as int pointer for natives which don't take long yet. Throws
+	 * instead of truncating address of 64-bit process.
+	 */
+	public int getHandle()
+	{
+		if (!hasLegacyHandle())
+			throw new IllegalStateException("Native frame address 0x" + Long.toHexString(address)
+					+ " doesn't fit into int handle");
+		return (int) address;
+	}
+
+	public void acquire()
+	{
+		while (true)
+		{
+			int count = refs.get();
+			if (count <= 0)
+				throw new IllegalStateException("Native frame is already released");
+			if (refs.compareAndSet(count, count + 1))
+				return;
+		}
+	}
+
+	// Frees memory when last reference is released
+	public void release()
+	{
+		int count = refs.decrementAndGet();
+		if (count == 0)
+			free(false);
+		else if (count < 0 && isLive())
+			throw new IllegalStateException("Native frame is released more times than acquired");
+	}
+
+	/**
+	 * Passes ownership to native code which frees memory itself. Frame isn't
+	 * accounted any more and release() of it does nothing.
+	 */
+	public void detach()
+	{
+		synchronized (lock)
+		{
+			if (state != LIVE)
+				throw new IllegalStateException("Native frame is already " + (state == FREED ? "freed" : "detached"));
+			state = DETACHED;
+			unregister(this);
+		}
+	}
+
+	public boolean isLive()
+	{
+		synchronized (lock)
+		{
+			return state == LIVE;
+		}
+	}
+
+	public byte[] toByteArray()
+	{
+		if (!isLive())
+			throw new IllegalStateException("Native frame is not live");
+		return owner.copy(address, length);
+	}
+
+	// Copies frame to java heap and releases one reference
+	public byte[] swapOut()
+	{
+		byte[] data = toByteArray();
+		release();
+		return data;
+	}
+
+	/**
+	 * Frees all live frames of session, regardless of their references.
+	 * Returns number of freed frames: non-zero means session leaked them.
+	 */
+	public static int releaseSession(long sessionID)
+	{
+		List<NativeFrame> owned;
+		synchronized (lock)
+		{
+			owned = sessions.remove(Long.valueOf(sessionID));
+		}
+		if (owned == null)
+			return 0;
+
+		int freed = 0;
+		for (NativeFrame frame : owned)
+			if (frame.free(true))
+				freed++;
+		return freed;
+	}
+
+	public static void setAllocator(Allocator a)
+	{
+		synchronized (lock)
+		{
+			allocator = a != null ? a : HEAP_ALLOCATOR;
+		}
+	}
+
+	public static long getLiveBytes()
+	{
+		synchronized (lock)
+		{
+			return liveBytes;
+		}
+	}
+
+	public static long getPeakBytes()
+	{
+		synchronized (lock)
+		{
+			return peakBytes;
+		}
+	}
+
+	public static int getLiveFrames()
+	{
+		synchronized (lock)
+		{
+			return liveFrames;
+		}
+	}
+
+	public static int getLiveFrames(long sessionID)
+	{
+		synchronized (lock)
+		{
+			List<NativeFrame> owned = sessions.get(Long.valueOf(sessionID));
+			return owned != null ? owned.size() : 0;
+		}
+	}
+
+	public static void resetPeakBytes()
+	{
+		synchronized (lock)
+		{
+			peakBytes = liveBytes;
+		}
+	}
+
+	private boolean free(boolean forced)
+	{
+		synchronized (lock)
+		{
+			if (state != LIVE)
+				return false;
+			state = FREED;
+			if (!forced)
+				unregister(this);
+			else
+			{
+				liveBytes -= length;
+				liveFrames--;
+			}
+		}
+		if (forced)
+			refs.set(0);
+		owner.free(address);
+		return true;
+	}
+
+	private static void register(NativeFrame frame)
+	{
+		synchronized (lock)
+		{
+			Long key = Long.valueOf(frame.sessionID);
+			List<NativeFrame> owned = sessions.get(key);
+			if (owned == null)
+			{
+				owned = new ArrayList<NativeFrame>();
+				sessions.put(key, owned);
+			}
+			owned.add(frame);
+
+			liveBytes += frame.length;
+			liveFrames++;
+			if (liveBytes > peakBytes)
+				peakBytes = liveBytes;
+		}
+	}
+
+	// Must be called with lock held
+	private static void unregister(NativeFrame frame)
+	{
+		Long key = Long.valueOf(frame.sessionID);
+		List<NativeFrame> owned = sessions.get(key);
+		if (owned != null)
+		{
+			owned.remove(frame);
+			if (owned.isEmpty())
+				sessions.remove(key);
+		}
+
+		liveBytes -= frame.length;
+		liveFrames--;
+	}
+
+	private static class HeapAllocator implements Allocator
+	{
+		@Override
+		public long allocate(byte[] data)
+		{
+			return SwapHeap.SwapToHeap64(data);
+		}
+
+		@Override
+		public byte[] copy(long address, int length)
+		{
+			return SwapHeap.CopyFromHeap64(address, length);
+		}
+
+		@Override
+		public void free(long address)
+		{
+			SwapHeap.FreeFromHeap64(address);
+		}
+	}
+
+	@Override
+	public String toString()
+	{
+		return "NativeFrame 0x" + Long.toHexString(address) + ", " + length + " bytes, session " + sessionID;
+	}
+}
@@ -30,6 +30,14 @@ public final class SwapHeap
 
 	public static native boolean FreeFromHeap(int ptr);
 
+	// Pointer-sized variants, safe on 64-bit processes. Use them through
+	// NativeFrame, which tracks ownership of the memory.
+	public static native long SwapToHeap64(byte[] data);
+
+	public static native byte[] CopyFromHeap64(long ptr, int length);
+
+	public static native boolean FreeFromHeap64(long ptr);
+
 	static
 	{
 		System.loadLibrary("swapheap");
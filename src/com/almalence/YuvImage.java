@@ -57,10 +57,15 @@ public class YuvImage
 	private int					mFormat;
 
 	/**
-	 * The raw YUV data. In the case of more than one image plane, the image
-	 * planes must be concatenated into a single byte array.
+	 * Address of the raw YUV data. In the case of more than one image plane,
+	 * the image planes must be concatenated into a single byte array.
 	 */
-	private int					mData;
+	private long				mData;
+
+	/**
+	 * Data is int handle of SwapHeap, freed by native compressor on failure.
+	 */
+	private boolean				mLegacyHandle;
 
 	/**
 	 * The number of row bytes in each image plane.
@@ -99,6 +104,16 @@ public class YuvImage
 	 *             null.
 	 */
 	public YuvImage(int yuv, int format, int width, int height, int[] strides)
+	{
+		this(NativeFrame.toAddress(yuv), format, width, height, strides);
+		mLegacyHandle = true;
+	}
+
+	/**
+	 * Construct an YuvImage over native memory of pointer size, like
+	 * {@link NativeFrame#getAddress()}. Memory isn't freed by compression.
+	 */
+	public YuvImage(long yuv, int format, int width, int height, int[] strides)
 	{
 		if (format != ImageFormat.NV21 && format != ImageFormat.YUY2)
 		{
@@ -164,8 +179,13 @@ public class YuvImage
 		adjustRectangle(rectangle);
 		int[] offsets = calculateOffsets(rectangle.left, rectangle.top);
 
-		boolean res = SaveJpegFreeOutMT(mData, mFormat, rectangle.width(), rectangle.height(), offsets, mStrides,
-				quality, stream, new byte[WORKING_COMPRESS_STORAGE_MT]);
+		boolean res;
+		if (mLegacyHandle)
+			res = SaveJpegFreeOutMT((int) mData, mFormat, rectangle.width(), rectangle.height(), offsets, mStrides,
+					quality, stream, new byte[WORKING_COMPRESS_STORAGE_MT]);
+		else
+			res = SaveJpegFreeOutMT64(mData, mFormat, rectangle.width(), rectangle.height(), offsets, mStrides,
+					quality, stream, new byte[WORKING_COMPRESS_STORAGE_MT]);
 		return res;
 	}
 
@@ -271,6 +291,11 @@ public class YuvImage
 	public static native boolean SaveJpegFreeOutMT(int oriYuv, int format, int width, int height, int[] offsets,
 			int[] strides, int quality, OutputStream stream, byte[] tempStorage);
 
+	// Same as SaveJpegFreeOutMT with pointer-sized address. Memory isn't freed
+	// on failure, it belongs to caller.
+	public static native boolean SaveJpegFreeOutMT64(long oriYuv, int format, int width, int height, int[] offsets,
+			int[] strides, int quality, OutputStream stream, byte[] tempStorage);
+
 	// Return: pointer to the frame data in heap converted to int
 	public static synchronized native int GetFrame();
 
@@ -292,6 +317,12 @@ public class YuvImage
 			int pixelStrideY, int rowStrideY, int pixelStrideU, int rowStrideU, int pixelStrideV, int rowStrideV,
 			int sx, int sy);
 
+	// Fills out (at least sx*sy*3/2 bytes) with NV21 image.
+	// Return: error status (0 = all ok)
+	public static native int FillYUVImageByteArray(ByteBuffer Y, ByteBuffer U, ByteBuffer V, int pixelStrideY,
+			int rowStrideY, int pixelStrideU, int rowStrideU, int pixelStrideV, int rowStrideV, int sx, int sy,
+			byte[] out);
+
 	// Return pointer to heap with size for one yuv image
 	public static synchronized native int AllocateMemoryForYUV(int sx, int sy);
 
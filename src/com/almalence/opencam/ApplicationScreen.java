@@ -994,6 +994,7 @@ abstract public class ApplicationScreen extends Activity implements ApplicationI
 		ApplicationScreen.getGUIManager().onStop();
 		ApplicationScreen.getPluginManager().onStop();
 		CameraController.onStop();
+		MediaIndexer.flushInstance();
 
 //		if (!CameraController.isRemoteCamera())
 //		{
@@ -1205,6 +1206,7 @@ abstract public class ApplicationScreen extends Activity implements ApplicationI
 
 		ApplicationScreen.getGUIManager().onPause();
 		ApplicationScreen.getPluginManager().onPause(true);
+		MediaIndexer.flushInstance();
 
 		orientListener.disable();
 
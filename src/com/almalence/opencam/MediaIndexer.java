@@ -0,0 +1,395 @@
+/*
+The contents of this file are subject to the Mozilla Public License
+Version 1.1 (the "License"); you may not use this file except in
+compliance with the License. You may obtain a copy of the License at
+http://www.mozilla.org/MPL/
+
+Software distributed under the License is distributed on an "AS IS"
+basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+License for the specific language governing rights and limitations
+under the License.
+
+The Original Code is collection of files collectively known as Open Camera.
+
+The Initial Developer of the Original Code is Almalence Inc.
+Portions created by Initial Developer are Copyright (C) 2013
+by Almalence Inc. All Rights Reserved.
+ */
+
+/* <!-- +++
+ package com.almalence.opencam_plus;
+ +++ --> */
+//<!-- -+-
+package com.almalence.opencam;
+
+//-+- -->
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+import android.provider.MediaStore;
+import android.util.Log;
+
+/***
+ * Write-behind queue of MediaStore inserts.
+ *
+ * Saving threads only put ContentValues to the queue and go on. Single worker
+ * thread collects entries of a burst for a short time and inserts them with
+ * one applyBatch call, then tells gallery about new pictures once per session
+ * instead of once per file. Entries are inserted in order they were queued.
+ ***/
+public class MediaIndexer
+{
+	private static final String		TAG				= "MediaIndexer";
+
+	// How long worker waits for more entries of a burst before inserting
+	private static final long		BATCH_WINDOW	= 100;
+	private static final int		MAX_BATCH		= 32;
+
+	private static MediaIndexer		instance;
+
+	public interface Callback
+	{
+		// Called on indexer thread. uri is null if insert failed.
+		void onIndexed(Uri uri);
+	}
+
+	private static class Entry
+	{
+		Uri			table;
+		ContentValues	values;
+		long		sessionID;
+		boolean		broadcast;
+		Callback	callback;
+		long		enqueued;
+		Uri			uri;
+	}
+
+	// Not yet indexed entries and last inserted picture of a session
+	private static class SessionState
+	{
+		int			pending;
+		Uri			lastUri;
+	}
+
+	private final Context					context;
+	private final ContentResolver			resolver;
+
+	private final Object					lock		= new Object();
+	private final ArrayDeque<Entry>			queue		= new ArrayDeque<Entry>();
+	private final Map<Long, SessionState>	sessions	= new HashMap<Long, SessionState>();
+	private boolean							flushRequested;
+	private Thread							worker;
+
+	private final AtomicLong				indexed		= new AtomicLong();
+	private final AtomicLong				failed		= new AtomicLong();
+	private final AtomicLong				batches		= new AtomicLong();
+	private final AtomicLong				broadcasts	= new AtomicLong();
+	private final AtomicLong				latency		= new AtomicLong();
+	private final AtomicLong				maxLatency	= new AtomicLong();
+	private final AtomicLong				batchTime	= new AtomicLong();
+
+	public static synchronized MediaIndexer getInstance(Context context)
+	{
+		if (instance == null)
+		{
+			Context appContext = context.getApplicationContext();
+			instance = new MediaIndexer(appContext != null ? appContext : context);
+		}
+		return instance;
+	}
+
+	// Flushes queue of indexer if it was ever used and logs its counters
+	public static void flushInstance()
+	{
+		MediaIndexer indexer;
+		synchronized (MediaIndexer.class)
+		{
+			indexer = instance;
+		}
+		if (indexer != null)
+		{
+			indexer.flush();
+			Log.d(TAG, indexer.toString());
+		}
+	}
+
+	MediaIndexer(Context context)
+	{
+		this(context, context.getContentResolver());
+	}
+
+	MediaIndexer(Context context, ContentResolver resolver)
+	{
+		this.context = context;
+		this.resolver = resolver;
+	}
+
+	/***
+	 * Queue insert of one file to MediaStore. Never blocks on content provider.
+	 *
+	 * @param table
+	 *            content uri of MediaStore table, like
+	 *            Images.Media.EXTERNAL_CONTENT_URI
+	 * @param values
+	 *            columns of new row, not changed by caller after this call
+	 * @param sessionID
+	 *            capture session of the file
+	 * @param broadcast
+	 *            whether file is announced as new picture. Only last such file
+	 *            of a session is announced.
+	 * @param callback
+	 *            called when file is indexed, may be null
+	 ***/
+	public void enqueue(Uri table, ContentValues values, long sessionID, boolean broadcast, Callback callback)
+	{
+		Entry entry = new Entry();
+		entry.table = table;
+		entry.values = values;
+		entry.sessionID = sessionID;
+		entry.broadcast = broadcast;
+		entry.callback = callback;
+		entry.enqueued = System.nanoTime();
+
+		synchronized (lock)
+		{
+			SessionState session = sessions.get(sessionID);
+			if (session == null)
+			{
+				session = new SessionState();
+				sessions.put(sessionID, session);
+			}
+			session.pending++;
+
+			queue.add(entry);
+			if (worker == null)
+			{
+				worker = new Thread(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						work();
+					}
+				}, "MediaIndexer");
+				worker.setPriority(Thread.NORM_PRIORITY - 1);
+				worker.start();
+			}
+			lock.notifyAll();
+		}
+	}
+
+	/***
+	 * Makes worker insert everything queued so far without waiting for batch
+	 * window. Called when application is paused or stopped. Doesn't wait for
+	 * inserts to finish.
+	 ***/
+	public void flush()
+	{
+		synchronized (lock)
+		{
+			if (!queue.isEmpty())
+			{
+				flushRequested = true;
+				lock.notifyAll();
+			}
+		}
+	}
+
+	private void work()
+	{
+		ArrayList<Entry> batch = new ArrayList<Entry>(MAX_BATCH);
+		while (true)
+		{
+			synchronized (lock)
+			{
+				try
+				{
+					while (queue.isEmpty())
+						lock.wait();
+
+					long deadline = queue.peek().enqueued + BATCH_WINDOW * 1000000;
+					long remaining;
+					while (!flushRequested && queue.size() < MAX_BATCH
+							&& (remaining = (deadline - System.nanoTime()) / 1000000) > 0)
+						lock.wait(remaining);
+				} catch (InterruptedException e)
+				{
+					e.printStackTrace();
+					worker = null;
+					return;
+				}
+
+				while (!queue.isEmpty() && batch.size() < MAX_BATCH)
+					batch.add(queue.poll());
+				if (queue.isEmpty())
+					flushRequested = false;
+			}
+
+			long started = System.nanoTime();
+			insert(batch);
+			long finished = System.nanoTime();
+			batches.incrementAndGet();
+			batchTime.addAndGet(finished - started);
+
+			complete(batch, finished);
+			batch.clear();
+		}
+	}
+
+	// MediaProvider applies the batch in one database transaction, so in case
+	// of failure nothing is inserted and entries are retried one by one.
+	private void insert(ArrayList<Entry> batch)
+	{
+		ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>(batch.size());
+		for (Entry entry : batch)
+			operations.add(ContentProviderOperation.newInsert(entry.table).withValues(entry.values).build());
+
+		try
+		{
+			ContentProviderResult[] results = resolver.applyBatch(MediaStore.AUTHORITY, operations);
+			for (int i = 0; i < batch.size() && i < results.length; i++)
+				batch.get(i).uri = results[i].uri;
+			return;
+		} catch (Exception e)
+		{
+			Log.e(TAG, "applyBatch of " + batch.size() + " entries failed, inserting one by one", e);
+		}
+
+		for (Entry entry : batch)
+		{
+			try
+			{
+				entry.uri = resolver.insert(entry.table, entry.values);
+			} catch (Exception e)
+			{
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private void complete(ArrayList<Entry> batch, long finished)
+	{
+		ArrayList<Uri> announce = new ArrayList<Uri>();
+		synchronized (lock)
+		{
+			for (Entry entry : batch)
+			{
+				SessionState session = sessions.get(entry.sessionID);
+				if (entry.broadcast && entry.uri != null)
+					session.lastUri = entry.uri;
+				if (--session.pending == 0)
+				{
+					sessions.remove(entry.sessionID);
+					if (session.lastUri != null)
+						announce.add(session.lastUri);
+				}
+			}
+		}
+
+		for (Entry entry : batch)
+		{
+			if (entry.uri != null)
+				indexed.incrementAndGet();
+			else
+				failed.incrementAndGet();
+
+			long time = finished - entry.enqueued;
+			latency.addAndGet(time);
+			long max = maxLatency.get();
+			while (time > max && !maxLatency.compareAndSet(max, time))
+				max = maxLatency.get();
+
+			if (entry.callback != null)
+			{
+				try
+				{
+					entry.callback.onIndexed(entry.uri);
+				} catch (Exception e)
+				{
+					e.printStackTrace();
+				}
+			}
+		}
+
+		for (Uri uri : announce)
+		{
+			broadcastNewPicture(uri);
+			broadcasts.incrementAndGet();
+		}
+	}
+
+	protected void broadcastNewPicture(Uri uri)
+	{
+		context.sendBroadcast(new Intent(Intent.ACTION_MEDIA_SCANNER_SCAN_FILE, uri));
+		context.sendBroadcast(new Intent("android.hardware.action.NEW_PICTURE", uri));
+		// Keep compatibility
+		context.sendBroadcast(new Intent("com.android.camera.NEW_PICTURE", uri));
+	}
+
+	// entries waiting to be inserted
+	public int getQueueDepth()
+	{
+		synchronized (lock)
+		{
+			return queue.size();
+		}
+	}
+
+	public long getIndexed()
+	{
+		return indexed.get();
+	}
+
+	public long getFailed()
+	{
+		return failed.get();
+	}
+
+	public long getBatches()
+	{
+		return batches.get();
+	}
+
+	public long getBroadcasts()
+	{
+		return broadcasts.get();
+	}
+
+	// average time from enqueue to indexed, ms
+	public long getAverageLatency()
+	{
+		long n = indexed.get() + failed.get();
+		return n > 0 ? latency.get() / n / 1000000 : 0;
+	}
+
+	public long getMaxLatency()
+	{
+		return maxLatency.get() / 1000000;
+	}
+
+	// average time of one provider call, ms
+	public long getAverageBatchTime()
+	{
+		long n = batches.get();
+		return n > 0 ? batchTime.get() / n / 1000000 : 0;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "index: queued " + getQueueDepth() + ", done " + getIndexed() + ", failed " + getFailed()
+				+ ", batches " + getBatches() + ", broadcasts " + getBroadcasts() + ", latency "
+				+ getAverageLatency() + "ms, max " + getMaxLatency() + "ms, batch " + getAverageBatchTime() + "ms";
+	}
+}
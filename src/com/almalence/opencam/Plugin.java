@@ -56,11 +56,15 @@ import com.almalence.asynctaskmanager.Task;
 /* <!-- +++
 import com.almalence.opencam_plus.cameracontroller.CameraController;
 import com.almalence.opencam_plus.cameracontroller.CameraController.Size;
+import com.almalence.opencam_plus.cameracontroller.PreviewDispatcher;
+import com.almalence.opencam_plus.cameracontroller.PreviewFrame;
 import com.almalence.opencam_plus.R;
 +++ --> */
 //<!-- -+-
 import com.almalence.opencam.cameracontroller.CameraController;
 import com.almalence.opencam.cameracontroller.CameraController.Size;
+import com.almalence.opencam.cameracontroller.PreviewDispatcher;
+import com.almalence.opencam.cameracontroller.PreviewFrame;
 import com.almalence.opencam.R;
 //-+- -->
 
@@ -69,7 +73,7 @@ import com.almalence.opencam.R;
  * Abstract class for plugins
  ***/
 
-public abstract class Plugin
+public abstract class Plugin implements PreviewDispatcher.Consumer
 {
 	// unique plugin id
 	public String					ID;
@@ -278,6 +282,23 @@ public abstract class Plugin
 		
 	}
 
+	// Preview frame, called on plugin's own worker thread (see
+	// PreviewDispatcher). Data is valid only during this call, plugins which
+	// use it later have to override this method and acquire the frame.
+	@Override
+	public void onPreviewFrame(PreviewFrame frame)
+	{
+		onPreviewFrame(frame.getData());
+	}
+
+	// Frames per second plugin wants to get in onPreviewFrame. Plugins that
+	// process preview have to override it.
+	@Override
+	public int getPreviewFrameRate()
+	{
+		return PreviewDispatcher.RATE_NONE;
+	}
+
 	@TargetApi(21)
 	public void onCaptureCompleted(CaptureResult result)
 	{
@@ -126,10 +126,7 @@ public class PluginManager extends PluginManagerBase
 		pluginList = new Hashtable<String, Plugin>();
 		processingPluginList = new HashMap<Long, Plugin>();
 
-		sharedMemory = new Hashtable<String, String>();
-
-		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP)
-			createRAWCaptureResultHashtable();
+		sharedMemory = new SessionStore();
 
 		activeVF = new ArrayList<String>();
 
@@ -295,6 +292,8 @@ public class PluginManager extends PluginManagerBase
 			timer = null;
 		}
 
+		previewDispatcher.shutdown();
+
 		for (int i = 0; i < activeVF.size(); i++)
 			pluginList.get(activeVF.get(i)).onPause();
 		if (null != pluginList.get(activeCapture))
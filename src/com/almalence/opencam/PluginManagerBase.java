@@ -24,7 +24,6 @@ package com.almalence.opencam;
 
 //-+- -->
 
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -33,7 +32,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
-import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.List;
@@ -75,18 +73,19 @@ import android.widget.Toast;
 import com.almalence.plugins.export.standard.GPSTagsConverter;
 import com.almalence.util.MLocation;
 import com.almalence.util.Util;
-import com.almalence.util.exifreader.imaging.jpeg.JpegMetadataReader;
-import com.almalence.util.exifreader.imaging.jpeg.JpegProcessingException;
-import com.almalence.util.exifreader.metadata.Directory;
-import com.almalence.util.exifreader.metadata.Metadata;
 import com.almalence.util.exifreader.metadata.exif.ExifIFD0Directory;
 import com.almalence.util.exifreader.metadata.exif.ExifSubIFDDirectory;
+import com.almalence.util.exifreader.metadata.exif.ExifTagScanner;
 
 /* <!-- +++
  import com.almalence.opencam_plus.cameracontroller.CameraController;
+ import com.almalence.opencam_plus.cameracontroller.PreviewDispatcher;
+ import com.almalence.opencam_plus.cameracontroller.PreviewFrame;
  +++ --> */
 //<!-- -+-
 import com.almalence.opencam.cameracontroller.CameraController;
+import com.almalence.opencam.cameracontroller.PreviewDispatcher;
+import com.almalence.opencam.cameracontroller.PreviewFrame;
 //-+- -->
 
 /***
@@ -130,16 +129,16 @@ abstract public class PluginManagerBase implements PluginManagerInterface
 	// counter indicating amout of processing tasks running
 	protected int								cntProcessing			= 0;
 
-	// table for sharing plugin's data
-	// hashtable for storing shared data - assoc massive for string key and
-	// string value
-	// file SharedMemory.txt contains data keys and formats for currently used
-	// data
-	protected Hashtable<String, String>			sharedMemory;
-	protected Hashtable<String, CaptureResult>	rawCaptureResults;
+	// storage for sharing plugin's data, one typed object per session.
+	// string keys from file SharedMemory.txt are still accepted by
+	// addToSharedMem/getFromSharedMem
+	protected SessionStore						sharedMemory;
+
+	// runs VF and capture plugins' preview processing off the camera thread
+	protected final PreviewDispatcher			previewDispatcher		= new PreviewDispatcher();
 
 	// Support flag to avoid plugin's view disappearance issue
-	protected static boolean					isRestarting			= false;
+	protected static volatile boolean			isRestarting			= false;
 
 	static int									jpegQuality				= 95;
 
@@ -155,10 +154,7 @@ abstract public class PluginManagerBase implements PluginManagerInterface
 		pluginList = new Hashtable<String, Plugin>();
 		processingPluginList = new HashMap<Long, Plugin>();
 
-		sharedMemory = new Hashtable<String, String>();
-
-		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP)
-			createRAWCaptureResultHashtable();
+		sharedMemory = new SessionStore();
 
 		activeVF = new ArrayList<String>();
 
@@ -185,12 +181,6 @@ abstract public class PluginManagerBase implements PluginManagerInterface
 
 	abstract protected void createPlugins();
 
-	@TargetApi(21)
-	public void createRAWCaptureResultHashtable()
-	{
-		rawCaptureResults = new Hashtable<String, CaptureResult>();
-	}
-
 	public void setupDefaultMode()
 	{
 		// select default mode - selection from preferences if exists. or from
@@ -404,6 +394,8 @@ abstract public class PluginManagerBase implements PluginManagerInterface
 	// base onDestroy stage
 	public void onDestroy()
 	{
+		previewDispatcher.shutdown();
+
 		for (int i = 0; i < activeVF.size(); i++)
 			pluginList.get(activeVF.get(i)).onDestroy();
 		if (null != pluginList.get(activeCapture))
@@ -430,6 +422,8 @@ abstract public class PluginManagerBase implements PluginManagerInterface
 	// base onPause stage
 	public void onPause(boolean isFromMain)
 	{
+		previewDispatcher.shutdown();
+
 		for (int i = 0; i < activeVF.size(); i++)
 			pluginList.get(activeVF.get(i)).onPause();
 		if (null != pluginList.get(activeCapture))
@@ -712,22 +706,49 @@ abstract public class PluginManagerBase implements PluginManagerInterface
 			pluginList.get(activeCapture).addToSharedMemExifTags(frameData);
 	}
 
+	// Preview frame which isn't from PreviewFramePool (remote camera, camera1
+	// without callback buffers). Caller doesn't reuse data array.
 	@Override
 	public void onPreviewFrame(byte[] data)
+	{
+		onPreviewFrame(PreviewFrame.wrap(data, ApplicationScreen.getPreviewWidth(),
+				ApplicationScreen.getPreviewHeight(), System.nanoTime()));
+	}
+
+	// Called on camera thread: preview callback thread of camera1, image
+	// reader handler of camera2, liveview decoder thread of remote camera.
+	// Plugins get the frame on their own worker threads with the rate each of
+	// them asked for.
+	@Override
+	public void onPreviewFrame(PreviewFrame frame)
 	{
 		// prevents plugin's views to disappear
 		if (isRestarting)
 		{
-			RelativeLayout pluginsLayout = (RelativeLayout) ApplicationScreen.instance.findViewById(R.id.mainLayout1);
-			pluginsLayout.requestLayout();
 			isRestarting = false;
+			ApplicationScreen.instance.runOnUiThread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					RelativeLayout pluginsLayout = (RelativeLayout) ApplicationScreen.instance
+							.findViewById(R.id.mainLayout1);
+					if (pluginsLayout != null)
+						pluginsLayout.requestLayout();
+				}
+			});
 		}
 
 		for (int i = 0; i < activeVF.size(); i++)
-			pluginList.get(activeVF.get(i)).onPreviewFrame(data);
+			previewDispatcher.dispatch(pluginList.get(activeVF.get(i)), frame);
 
 		if (null != pluginList.get(activeCapture))
-			pluginList.get(activeCapture).onPreviewFrame(data);
+			previewDispatcher.dispatch(pluginList.get(activeCapture), frame);
+	}
+
+	public PreviewDispatcher getPreviewDispatcher()
+	{
+		return previewDispatcher;
 	}
 
 	public void onFrameAvailable()
@@ -1080,65 +1101,74 @@ abstract public class PluginManagerBase implements PluginManagerInterface
 	@TargetApi(21)
 	public boolean addRAWCaptureResultToSharedMem(String key, CaptureResult value)
 	{
-		rawCaptureResults.put(key, value);
+		sharedMemory.putCaptureResult(key, value);
 
 		return true;
 	}
 
+	// Typed data of capture session. Created on first access and released by
+	// clearSharedMemory.
+	public SessionData getSessionData(long sessionID)
+	{
+		return sharedMemory.getSession(sessionID);
+	}
+
+	// Tags copied from captured jpeg to shared memory
+	private static final int[]	EXIF_IFD0_TAGS		= { ExifIFD0Directory.TAG_MAKE, ExifIFD0Directory.TAG_MODEL };
+	private static final int[]	EXIF_SUB_IFD_TAGS	= { ExifSubIFDDirectory.TAG_EXPOSURE_TIME,
+			ExifSubIFDDirectory.TAG_FNUMBER, ExifSubIFDDirectory.TAG_FLASH, ExifSubIFDDirectory.TAG_FOCAL_LENGTH,
+			ExifSubIFDDirectory.TAG_ISO_EQUIVALENT, ExifSubIFDDirectory.TAG_WHITE_BALANCE_MODE,
+			ExifSubIFDDirectory.TAG_SPECTRAL_SENSITIVITY, ExifSubIFDDirectory.TAG_EXIF_VERSION,
+			ExifSubIFDDirectory.TAG_SCENE_CAPTURE_TYPE, ExifSubIFDDirectory.TAG_METERING_MODE };
+
+	// Reads only the tags above straight from jpeg array. Strings are the same
+	// as of full JpegMetadataReader read.
 	public boolean addToSharedMemExifTagsFromJPEG(final byte[] paramArrayOfByte, final long SessionID, final int num)
 	{
-		try
-		{
-			InputStream is = new ByteArrayInputStream(paramArrayOfByte);
-			Metadata metadata = JpegMetadataReader.readMetadata(is);
-			Directory exifDirectory = metadata.getDirectory(ExifSubIFDDirectory.class);
-			String s1 = exifDirectory.getString(ExifSubIFDDirectory.TAG_EXPOSURE_TIME);
-			String s2 = exifDirectory.getString(ExifSubIFDDirectory.TAG_FNUMBER);
-			String s3 = exifDirectory.getString(ExifSubIFDDirectory.TAG_FLASH);
-			String s4 = exifDirectory.getString(ExifSubIFDDirectory.TAG_FOCAL_LENGTH);
-			String s5 = exifDirectory.getString(ExifSubIFDDirectory.TAG_ISO_EQUIVALENT);
-			String s6 = exifDirectory.getString(ExifSubIFDDirectory.TAG_WHITE_BALANCE_MODE);
-			String s9 = exifDirectory.getString(ExifSubIFDDirectory.TAG_SPECTRAL_SENSITIVITY);
-			String s10 = exifDirectory.getString(ExifSubIFDDirectory.TAG_EXIF_VERSION);
-			String s11 = exifDirectory.getString(ExifSubIFDDirectory.TAG_SCENE_CAPTURE_TYPE);
-			String s12 = exifDirectory.getString(ExifSubIFDDirectory.TAG_METERING_MODE);
-
-			Directory exif2Directory = metadata.getDirectory(ExifIFD0Directory.class);
-			String s7 = exif2Directory.getString(ExifIFD0Directory.TAG_MAKE);
-			String s8 = exif2Directory.getString(ExifIFD0Directory.TAG_MODEL);
-
-			if (num != -1 && s1 != null)
-				addToSharedMem("exiftag_exposure_time" + num + SessionID, s1);
-			else if (s1 != null)
-				addToSharedMem("exiftag_exposure_time" + SessionID, s1);
-			if (s2 != null)
-				addToSharedMem("exiftag_aperture" + SessionID, s2);
-			if (s3 != null)
-				addToSharedMem("exiftag_flash" + SessionID, s3);
-			if (s4 != null)
-				addToSharedMem("exiftag_focal_lenght" + SessionID, s4);
-			if (s5 != null)
-				addToSharedMem("exiftag_iso" + SessionID, s5);
-			if (s6 != null)
-				addToSharedMem("exiftag_white_balance" + SessionID, s6);
-			if (s7 != null)
-				addToSharedMem("exiftag_make" + SessionID, s7);
-			if (s8 != null)
-				addToSharedMem("exiftag_model" + SessionID, s8);
-			if (s9 != null)
-				addToSharedMem("exiftag_spectral_sensitivity" + SessionID, s9);
-			if (s10 != null)
-				addToSharedMem("exiftag_version" + SessionID, s10);
-			if (s11 != null)
-				addToSharedMem("exiftag_scene_capture_type" + SessionID, s11);
-			if (s12 != null)
-				addToSharedMem("exiftag_metering_mode" + SessionID, s12);
-
-		} catch (JpegProcessingException e1)
-		{
-			e1.printStackTrace();
+		ExifTagScanner exif = new ExifTagScanner(EXIF_IFD0_TAGS, EXIF_SUB_IFD_TAGS);
+		if (!exif.scan(paramArrayOfByte))
 			return false;
-		}
+
+		String s1 = exif.getString(ExifTagScanner.SUB_IFD, ExifSubIFDDirectory.TAG_EXPOSURE_TIME);
+		String s2 = exif.getString(ExifTagScanner.SUB_IFD, ExifSubIFDDirectory.TAG_FNUMBER);
+		String s3 = exif.getString(ExifTagScanner.SUB_IFD, ExifSubIFDDirectory.TAG_FLASH);
+		String s4 = exif.getString(ExifTagScanner.SUB_IFD, ExifSubIFDDirectory.TAG_FOCAL_LENGTH);
+		String s5 = exif.getString(ExifTagScanner.SUB_IFD, ExifSubIFDDirectory.TAG_ISO_EQUIVALENT);
+		String s6 = exif.getString(ExifTagScanner.SUB_IFD, ExifSubIFDDirectory.TAG_WHITE_BALANCE_MODE);
+		String s9 = exif.getString(ExifTagScanner.SUB_IFD, ExifSubIFDDirectory.TAG_SPECTRAL_SENSITIVITY);
+		String s10 = exif.getString(ExifTagScanner.SUB_IFD, ExifSubIFDDirectory.TAG_EXIF_VERSION);
+		String s11 = exif.getString(ExifTagScanner.SUB_IFD, ExifSubIFDDirectory.TAG_SCENE_CAPTURE_TYPE);
+		String s12 = exif.getString(ExifTagScanner.SUB_IFD, ExifSubIFDDirectory.TAG_METERING_MODE);
+
+		String s7 = exif.getString(ExifTagScanner.IFD0, ExifIFD0Directory.TAG_MAKE);
+		String s8 = exif.getString(ExifTagScanner.IFD0, ExifIFD0Directory.TAG_MODEL);
+
+		if (num != -1 && s1 != null)
+			addToSharedMem("exiftag_exposure_time" + num + SessionID, s1);
+		else if (s1 != null)
+			addToSharedMem("exiftag_exposure_time" + SessionID, s1);
+		if (s2 != null)
+			addToSharedMem("exiftag_aperture" + SessionID, s2);
+		if (s3 != null)
+			addToSharedMem("exiftag_flash" + SessionID, s3);
+		if (s4 != null)
+			addToSharedMem("exiftag_focal_lenght" + SessionID, s4);
+		if (s5 != null)
+			addToSharedMem("exiftag_iso" + SessionID, s5);
+		if (s6 != null)
+			addToSharedMem("exiftag_white_balance" + SessionID, s6);
+		if (s7 != null)
+			addToSharedMem("exiftag_make" + SessionID, s7);
+		if (s8 != null)
+			addToSharedMem("exiftag_model" + SessionID, s8);
+		if (s9 != null)
+			addToSharedMem("exiftag_spectral_sensitivity" + SessionID, s9);
+		if (s10 != null)
+			addToSharedMem("exiftag_version" + SessionID, s10);
+		if (s11 != null)
+			addToSharedMem("exiftag_scene_capture_type" + SessionID, s11);
+		if (s12 != null)
+			addToSharedMem("exiftag_metering_mode" + SessionID, s12);
 		return true;
 	}
 
@@ -1207,52 +1237,19 @@ abstract public class PluginManagerBase implements PluginManagerInterface
 
 	public boolean containsSharedMem(String key)
 	{
-		if (!sharedMemory.containsKey(key))
-			return false;
-		return true;
+		return sharedMemory.get(key) != null;
 	}
 
 	@TargetApi(21)
 	public CaptureResult getFromRAWCaptureResults(String key)
 	{
-		return rawCaptureResults.get(key);
-	}
-
-	@TargetApi(21)
-	private boolean containsRAWCaptureResults(String key)
-	{
-		if (rawCaptureResults.containsKey(key))
-			return true;
-		else
-			return false;
+		return (CaptureResult) sharedMemory.getCaptureResult(key);
 	}
 
+	// Drops all data of session, including RAW capture results.
 	public void clearSharedMemory(long sessionID)
 	{
-		String partKey = String.valueOf(sessionID);
-		Enumeration<String> e = sharedMemory.keys();
-		while (e.hasMoreElements())
-		{
-			String i = (String) e.nextElement();
-			if (i.contains(partKey))
-				sharedMemory.remove(i);
-		}
-
-		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP)
-			clearRAWCaptureResults(sessionID);
-	}
-
-	@TargetApi(21)
-	public void clearRAWCaptureResults(long sessionID)
-	{
-		String partKey = String.valueOf(sessionID);
-		Enumeration<String> e2 = rawCaptureResults.keys();
-		while (e2.hasMoreElements())
-		{
-			String i = (String) e2.nextElement();
-			if (i.contains(partKey))
-				rawCaptureResults.remove(i);
-		}
+		sharedMemory.clearSession(sessionID);
 	}
 
 	public int sizeOfSharedMemory()
@@ -1262,13 +1259,7 @@ abstract public class PluginManagerBase implements PluginManagerInterface
 
 	public void removeFromSharedMemory(String key)
 	{
-		Enumeration<String> e = sharedMemory.keys();
-		while (e.hasMoreElements())
-		{
-			String i = (String) e.nextElement();
-			if (i.equals(key))
-				sharedMemory.remove(i);
-		}
+		sharedMemory.remove(key);
 	}
 
 	public boolean muteSounds()
@@ -1477,7 +1468,8 @@ abstract public class PluginManagerBase implements PluginManagerInterface
 			}
 		}
 
-		ApplicationScreen.instance.getContentResolver().insert(Images.Media.EXTERNAL_CONTENT_URI, values);
+		MediaIndexer.getInstance(ApplicationScreen.instance).enqueue(Images.Media.EXTERNAL_CONTENT_URI, values,
+				SessionID, false, null);
 	}
 
 	private void saveInputFileNew(boolean isYUV, Long SessionID, int i, byte[] buffer, int yuvBuffer, String fileFormat)
@@ -1615,7 +1607,8 @@ abstract public class PluginManagerBase implements PluginManagerInterface
 			}
 		}
 
-		ApplicationScreen.instance.getContentResolver().insert(Images.Media.EXTERNAL_CONTENT_URI, values);
+		MediaIndexer.getInstance(ApplicationScreen.instance).enqueue(Images.Media.EXTERNAL_CONTENT_URI, values,
+				SessionID, false, null);
 	}
 
 	public static int saveExifToInput(File file, int displayOrientation, boolean cameraMirrored, boolean saveGeo)
@@ -25,6 +25,13 @@ package com.almalence.opencam;
 
 import android.hardware.camera2.CaptureResult;
 
+/* <!-- +++
+ import com.almalence.opencam_plus.cameracontroller.PreviewFrame;
+ +++ --> */
+//<!-- -+-
+import com.almalence.opencam.cameracontroller.PreviewFrame;
+//-+- -->
+
 
 //PluginManagerInterface used by Camera Controller to communicate with appluication's plugins
 public interface PluginManagerInterface
@@ -45,6 +52,10 @@ public interface PluginManagerInterface
 	//Callback for camera's preview frames
 	public void onPreviewFrame(byte[] data);
 
+	//Callback for camera's preview frames from buffer pool. Frame is released by
+	//caller after return, consumers which need it longer have to acquire it.
+	public void onPreviewFrame(PreviewFrame frame);
+
 	//Callback for captured still images
 	public void onImageTaken(int frame, byte[] frameData, int frame_len, int format);
 	
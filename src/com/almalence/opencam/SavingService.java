@@ -24,19 +24,26 @@ package com.almalence.opencam;
 
 //-+- -->
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import android.annotation.TargetApi;
 import android.content.ContentValues;
@@ -53,13 +60,13 @@ import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.Paint.Align;
 import android.graphics.Rect;
+import android.hardware.camera2.CaptureResult;
 import android.hardware.camera2.DngCreator;
 import android.location.Address;
 import android.location.Geocoder;
 import android.location.Location;
 import android.media.ExifInterface;
 import android.net.Uri;
-import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Environment;
 import android.preference.PreferenceManager;
@@ -70,12 +77,14 @@ import android.util.Log;
 import android.util.Size;
 import android.widget.Toast;
 
+import com.almalence.NativeFrame;
 import com.almalence.SwapHeap;
 import com.almalence.plugins.export.ExifDriver.ExifDriver;
 import com.almalence.plugins.export.ExifDriver.ExifManager;
 import com.almalence.plugins.export.ExifDriver.Values.ValueByteArray;
 import com.almalence.plugins.export.ExifDriver.Values.ValueNumber;
 import com.almalence.plugins.export.ExifDriver.Values.ValueRationals;
+import com.almalence.util.HeapUtil;
 import com.almalence.util.MLocation;
 import com.almalence.util.Util;
 
@@ -89,53 +98,465 @@ import com.almalence.opencam.cameracontroller.CameraController;
 public class SavingService extends NotificationService
 {
 
+	/******************************************************************************************************
+	 * Saving pipeline
+	 * 
+	 * Each result frame goes through encode -> metadata -> write stages and is
+	 * then queued to MediaIndexer. Stages have their own bounded thread pools,
+	 * so frames of one session are encoded in parallel and next session may be
+	 * encoded while previous one is written or indexed. File names are assigned
+	 * and files are created in order when session is planned, and frames of a
+	 * session are queued for indexing in the same order.
+	 ******************************************************************************************************/
+	public static final int			STAGE_ENCODE			= 0;
+	public static final int			STAGE_METADATA			= 1;
+	public static final int			STAGE_WRITE				= 2;
+
+	// Sessions which may be saved at the same time if native heap has room
+	// for them
+	private static final int		MAX_SESSIONS_IN_FLIGHT	= 3;
+
+	// Space left in Exif of saved pictures, so tags added later by gallery
+	// or ExifDriver.saveInPlace don't need the file to be rewritten
+	private static final int		EXIF_PADDING			= 1024;
+
+	private static final Stage[]	stages					= new Stage[] {
+			new Stage("encode", Runtime.getRuntime().availableProcessors()),
+			new Stage("metadata", Runtime.getRuntime().availableProcessors()), new Stage("write", 2) };
+
+	// Sessions are planned one by one, so files are named in order of capture
+	private static final Stage		planner					= new Stage("plan", 1);
+
+	private static final Object		inFlightLock			= new Object();
+	private static int				sessionsInFlight		= 0;
+
+	/***
+	 * Bounded worker pool of one saving stage with queue depth and latency
+	 * counters.
+	 ***/
+	public static class Stage
+	{
+		private final String				name;
+		private final ThreadPoolExecutor	executor;
+
+		private final AtomicInteger			queued		= new AtomicInteger();
+		private final AtomicInteger			running		= new AtomicInteger();
+		private final AtomicLong			processed	= new AtomicLong();
+		private final AtomicLong			waitTime	= new AtomicLong();
+		private final AtomicLong			runTime		= new AtomicLong();
+		private final AtomicLong			maxLatency	= new AtomicLong();
+
+		Stage(final String name, int threads)
+		{
+			this.name = name;
+			executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(), new ThreadFactory()
+					{
+						private int	count	= 0;
+
+						@Override
+						public synchronized Thread newThread(Runnable r)
+						{
+							Thread thread = new Thread(r, "Saving-" + name + "-" + (++count));
+							thread.setPriority(Thread.NORM_PRIORITY - 1);
+							return thread;
+						}
+					});
+			executor.allowCoreThreadTimeOut(true);
+		}
+
+		void execute(final Runnable task)
+		{
+			final long enqueued = System.nanoTime();
+			queued.incrementAndGet();
+			executor.execute(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					long started = System.nanoTime();
+					queued.decrementAndGet();
+					running.incrementAndGet();
+					try
+					{
+						task.run();
+					} finally
+					{
+						long finished = System.nanoTime();
+						running.decrementAndGet();
+						processed.incrementAndGet();
+						waitTime.addAndGet(started - enqueued);
+						runTime.addAndGet(finished - started);
+
+						long latency = finished - enqueued;
+						long max = maxLatency.get();
+						while (latency > max && !maxLatency.compareAndSet(max, latency))
+							max = maxLatency.get();
+					}
+				}
+			});
+		}
+
+		public String getName()
+		{
+			return name;
+		}
+
+		// frames waiting for a worker
+		public int getQueueDepth()
+		{
+			return queued.get();
+		}
+
+		public int getRunning()
+		{
+			return running.get();
+		}
+
+		public long getProcessed()
+		{
+			return processed.get();
+		}
+
+		// average time in queue, ms
+		public long getAverageWaitTime()
+		{
+			long n = processed.get();
+			return n > 0 ? waitTime.get() / n / 1000000 : 0;
+		}
+
+		// average time of processing, ms
+		public long getAverageRunTime()
+		{
+			long n = processed.get();
+			return n > 0 ? runTime.get() / n / 1000000 : 0;
+		}
+
+		// max time from enqueue to finish, ms
+		public long getMaxLatency()
+		{
+			return maxLatency.get() / 1000000;
+		}
+
+		@Override
+		public String toString()
+		{
+			return name + ": queued " + getQueueDepth() + ", running " + getRunning() + ", done " + getProcessed()
+					+ ", wait " + getAverageWaitTime() + "ms, run " + getAverageRunTime() + "ms, max "
+					+ getMaxLatency() + "ms";
+		}
+	}
+
+	// Result frame on its way through saving stages
+	protected static class SaveJob
+	{
+		SaveSession		session;
+		int				frame;
+		String			format;
+		boolean			dng;
+		int				quality;			// jpeg quality read when planning
+		int				x;
+		int				y;
+		int				orientation;
+		boolean			cameraMirrored;
+		int				exifOrientation;
+		int				rotation;
+		OutputStream	os;
+		boolean			document;			// destination is DocumentFile
+		ContentValues	values;
+		JpegBuffer		jpeg;
+		ExifDriver		exifDriver;
+		boolean			written;
+		volatile boolean	failed;
+	}
+
+	protected static class SaveSession
+	{
+		final long				sessionID;
+		final SessionData		data;
+		final List<SaveJob>		jobs		= new ArrayList<SaveJob>();
+		int						nextToIndex	= 0;
+		int						indexed		= 0;
+		volatile boolean		ioError		= false;
+
+		SaveSession(long sessionID, SessionData data)
+		{
+			this.sessionID = sessionID;
+			this.data = data;
+		}
+	}
+
+	public static Stage[] getStages()
+	{
+		return stages;
+	}
+
+	public static int getSessionsInFlight()
+	{
+		synchronized (inFlightLock)
+		{
+			return sessionsInFlight;
+		}
+	}
+
 	@Override
 	public int onStartCommand(Intent intent, int flags, int startid)
 	{
-		long sessionID = intent.getLongExtra("sessionID", 0);
+		final long sessionID = intent.getLongExtra("sessionID", 0);
 		if (sessionID == 0)
 		{
 			return START_NOT_STICKY;
 		}
 
-		SavingTask task = new SavingTask();
-		task.sessionID = sessionID;
-		task.executeOnExecutor(AsyncTask.SERIAL_EXECUTOR);
+		planner.execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				SessionData session = PluginManager.getInstance().getSessionData(sessionID);
+				try
+				{
+					acquireSessionSlot(estimateSessionBytes(session));
+				} catch (InterruptedException e)
+				{
+					e.printStackTrace();
+					return;
+				}
+
+				SaveSession saveSession = new SaveSession(sessionID, session);
+				if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP)
+				{
+					saveResultPictureNew(saveSession);
+				} else
+				{
+					saveResultPicture(saveSession);
+				}
+				startSaving(saveSession);
+			}
+		});
 
 		return START_NOT_STICKY;
 	}
 
-	private class SavingTask extends AsyncTask<Void, Void, Void>
+	// Sessions wait here while native heap has no room for one more of them.
+	// At least one session is always allowed, so saving never stalls
+	// completely.
+	private static void acquireSessionSlot(long bytes) throws InterruptedException
 	{
-		public long	sessionID	= 0;	// id to identify data flow
+		synchronized (inFlightLock)
+		{
+			while (sessionsInFlight > 0
+					&& (sessionsInFlight >= MAX_SESSIONS_IN_FLIGHT || HeapUtil.getAmountOfMemoryToFitFrames() < bytes))
+			{
+				// heap may be freed by others, so re-check from time to time
+				inFlightLock.wait(500);
+			}
+			sessionsInFlight++;
+		}
+	}
 
-		@Override
-		protected void onPreExecute()
+	private static void releaseSessionSlot()
+	{
+		synchronized (inFlightLock)
 		{
+			sessionsInFlight--;
+			inFlightLock.notifyAll();
 		}
+	}
 
-		@Override
-		protected Void doInBackground(Void... params)
+	private static long estimateSessionBytes(SessionData session)
+	{
+		int imagesAmount = Math.max(session.getInt(SessionData.INT_RESULT_FRAMES, 1), 1);
+		long frameSize = (long) session.getInt(SessionData.INT_SAVE_IMAGE_WIDTH, 0)
+				* session.getInt(SessionData.INT_SAVE_IMAGE_HEIGHT, 0) * 3 / 2;
+		return imagesAmount * frameSize;
+	}
+
+	private void startSaving(SaveSession saveSession)
+	{
+		if (saveSession.jobs.isEmpty())
 		{
-			if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP)
+			finishSaving(saveSession);
+			return;
+		}
+
+		for (SaveJob job : saveSession.jobs)
+			submit(STAGE_ENCODE, job);
+	}
+
+	private void submit(final int stage, final SaveJob job)
+	{
+		stages[stage].execute(new Runnable()
+		{
+			@Override
+			public void run()
 			{
-				saveResultPictureNew(sessionID);
-			} else
+				try
+				{
+					if (!job.failed)
+						process(stage, job);
+				} catch (IOException e)
+				{
+					e.printStackTrace();
+					job.failed = true;
+					job.session.ioError = true;
+					if (job.document)
+						showError(e);
+				} catch (Exception e)
+				{
+					e.printStackTrace();
+					job.failed = true;
+				} catch (OutOfMemoryError e)
+				{
+					e.printStackTrace();
+					job.failed = true;
+				}
+
+				switch (stage)
+				{
+				case STAGE_ENCODE:
+					submit(STAGE_METADATA, job);
+					break;
+				case STAGE_METADATA:
+					submit(STAGE_WRITE, job);
+					break;
+				case STAGE_WRITE:
+					closeStream(job);
+					onWritten(job);
+					break;
+				default:
+					break;
+				}
+			}
+		});
+	}
+
+	private void process(int stage, SaveJob job) throws IOException
+	{
+		SessionData session = job.session.data;
+		switch (stage)
+		{
+		case STAGE_ENCODE:
+			if (!job.dng)
 			{
-				saveResultPicture(sessionID);
+				job.jpeg = encodeResultFrame(session, job.frame, job.format, job.x, job.y, job.quality);
+				if (job.jpeg == null)
+					throw new IOException("Can't encode result frame " + job.frame);
 			}
+			break;
+		case STAGE_METADATA:
+			if (!job.dng)
+				prepareJpeg(job);
+			break;
+		case STAGE_WRITE:
+			if (job.dng)
+				saveDNGPicture(job.frame, job.session.sessionID, job.os, job.x, job.y, job.orientation,
+						job.cameraMirrored);
+			else
+				writeJpeg(job);
+			break;
+		default:
+			break;
+		}
+	}
 
-			PluginManager.getInstance().clearSharedMemory(sessionID);
-			return null;
+	private void closeStream(SaveJob job)
+	{
+		job.jpeg = null;
+		job.exifDriver = null;
+		if (job.os != null)
+		{
+			try
+			{
+				job.os.close();
+			} catch (Exception e)
+			{
+				e.printStackTrace();
+			}
+			job.os = null;
 		}
+	}
 
-		@Override
-		protected void onPostExecute(Void result)
+	// Jobs are queued for indexing in frame order, so pictures of session
+	// appear in gallery in order of their names. Failed jobs are only counted.
+	private void onWritten(SaveJob job)
+	{
+		SaveSession saveSession = job.session;
+		synchronized (saveSession)
+		{
+			job.written = true;
+			while (saveSession.nextToIndex < saveSession.jobs.size()
+					&& saveSession.jobs.get(saveSession.nextToIndex).written)
+			{
+				index(saveSession.jobs.get(saveSession.nextToIndex++));
+			}
+		}
+	}
+
+	private void index(final SaveJob job)
+	{
+		if (job.failed || job.values == null)
 		{
+			onIndexed(job);
+			return;
 		}
+
+		MediaIndexer.getInstance(this).enqueue(Images.Media.EXTERNAL_CONTENT_URI, job.values,
+				job.session.sessionID, true, new MediaIndexer.Callback()
+				{
+					@Override
+					public void onIndexed(Uri uri)
+					{
+						SavingService.this.onIndexed(job);
+					}
+				});
+	}
+
+	private void onIndexed(SaveJob job)
+	{
+		SaveSession saveSession = job.session;
+		boolean finished;
+		synchronized (saveSession)
+		{
+			finished = ++saveSession.indexed == saveSession.jobs.size();
+		}
+		if (finished)
+			finishSaving(saveSession);
+	}
+
+	private void finishSaving(SaveSession saveSession)
+	{
+		try
+		{
+			if (ApplicationScreen.getMessageHandler() != null)
+			{
+				ApplicationScreen.getMessageHandler().sendEmptyMessage(
+						saveSession.ioError ? ApplicationInterface.MSG_EXPORT_FINISHED_IOEXCEPTION
+								: ApplicationInterface.MSG_EXPORT_FINISHED);
+			}
+			PluginManager.getInstance().clearSharedMemory(saveSession.sessionID);
+		} finally
+		{
+			releaseSessionSlot();
+		}
+	}
+
+	private void showError(IOException e)
+	{
+		if (ApplicationScreen.instance == null)
+			return;
+
+		final IOException eIOFinal = e;
+		ApplicationScreen.instance.runOnUiThread(new Runnable()
+		{
+			public void run()
+			{
+				Toast.makeText(MainScreen.getMainContext(), "Error ocurred:" + eIOFinal.getLocalizedMessage(),
+						Toast.LENGTH_LONG).show();
+			}
+		});
 	}
 
-	private static int		jpegQuality				= 95;
 	protected static int	saveOption;
 	protected static boolean saveOptionSeparator	= false;
 	private static boolean	useGeoTaggingPrefExport;
@@ -186,9 +607,11 @@ public class SavingService extends NotificationService
 		}
 	}
 
-	// save result pictures method for android < 5.0
-	public void saveResultPicture(long sessionID)
+	// Plans saving of result pictures for android < 5.0: files are named and
+	// created here, then jobs are passed to saving stages.
+	public void saveResultPicture(SaveSession saveSession)
 	{
+		long sessionID = saveSession.sessionID;
 		initSavingPrefs();
 		SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(getApplicationContext());
 		// save fused result
@@ -198,15 +621,16 @@ public class SavingService extends NotificationService
 
 			Calendar d = Calendar.getInstance();
 
-			int imagesAmount = Integer.parseInt(getFromSharedMem("amountofresultframes" + Long.toString(sessionID)));
+			SessionData session = saveSession.data;
+			if (!session.hasInt(SessionData.INT_RESULT_FRAMES))
+				throw new IllegalStateException("No result frames in session " + sessionID);
+
+			int imagesAmount = session.getInt(SessionData.INT_RESULT_FRAMES, 1);
 
 			if (imagesAmount == 0)
 				imagesAmount = 1;
 
-			int imageIndex = 0;
-			String sImageIndex = getFromSharedMem("resultframeindex" + Long.toString(sessionID));
-			if (sImageIndex != null)
-				imageIndex = Integer.parseInt(getFromSharedMem("resultframeindex" + Long.toString(sessionID)));
+			int imageIndex = session.getInt(SessionData.INT_RESULT_FRAME_INDEX, 0);
 
 			if (imageIndex != 0)
 				imagesAmount = 1;
@@ -217,7 +641,7 @@ public class SavingService extends NotificationService
 			for (int i = 1; i <= imagesAmount; i++)
 			{
 				hasDNGResult = false;
-				String format = getFromSharedMem("resultframeformat" + i + Long.toString(sessionID));
+				String format = session.getResultFrameFormat(i);
 
 				if (format != null && format.equalsIgnoreCase("dng"))
 					hasDNGResult = true;
@@ -229,7 +653,7 @@ public class SavingService extends NotificationService
 							+ ((format != null && !format.equalsIgnoreCase("dng") && hasDNGResult) ? i - imagesAmount
 									/ 2 : i);
 
-				String modeName = getFromSharedMem("modeSaveName" + Long.toString(sessionID));
+				String modeName = session.getString(SessionData.STR_MODE_SAVE_NAME);
 				// define file name format. from settings!
 				String fileFormat = getExportFileName(modeName);
 				fileFormat += idx + ((format != null && format.equalsIgnoreCase("dng")) ? ".dng" : ".jpg");
@@ -274,92 +698,31 @@ public class SavingService extends NotificationService
 				if (imagesAmount == 1 && imageIndex != 0)
 					i = imageIndex;
 
-				String resultOrientation = getFromSharedMem("resultframeorientation" + i + Long.toString(sessionID));
-				int orientation = 0;
-				if (resultOrientation != null)
-					orientation = Integer.parseInt(resultOrientation);
-
-				String resultMirrored = getFromSharedMem("resultframemirrored" + i + Long.toString(sessionID));
-				Boolean cameraMirrored = false;
-				if (resultMirrored != null)
-					cameraMirrored = Boolean.parseBoolean(resultMirrored);
+				int orientation = session.getResultFrameOrientation(i);
+				boolean cameraMirrored = session.getResultFrameMirrored(i);
 
-				int x = Integer.parseInt(getFromSharedMem("saveImageHeight" + Long.toString(sessionID)));
-				int y = Integer.parseInt(getFromSharedMem("saveImageWidth" + Long.toString(sessionID)));
+				int x = session.getInt(SessionData.INT_SAVE_IMAGE_HEIGHT, 0);
+				int y = session.getInt(SessionData.INT_SAVE_IMAGE_WIDTH, 0);
 				if (orientation == 0 || orientation == 180 || (format != null && format.equalsIgnoreCase("dng")))
 				{
-					x = Integer.valueOf(getFromSharedMem("saveImageWidth" + Long.toString(sessionID)));
-					y = Integer.valueOf(getFromSharedMem("saveImageHeight" + Long.toString(sessionID)));
+					x = session.getInt(SessionData.INT_SAVE_IMAGE_WIDTH, 0);
+					y = session.getInt(SessionData.INT_SAVE_IMAGE_HEIGHT, 0);
 				}
 
-				Boolean writeOrientationTag = true;
-				String writeOrientTag = getFromSharedMem("writeorientationtag" + Long.toString(sessionID));
-				if (writeOrientTag != null)
-					writeOrientationTag = Boolean.parseBoolean(writeOrientTag);
-
-				if (format != null && format.equalsIgnoreCase("jpeg"))
-				{// if result in jpeg format
-
-					if (os != null)
-					{
-						byte[] frame = SwapHeap.SwapFromHeap(
-								Integer.parseInt(getFromSharedMem("resultframe" + i + Long.toString(sessionID))),
-								Integer.parseInt(getFromSharedMem("resultframelen" + i + Long.toString(sessionID))));
-						os.write(frame);
-						try
-						{
-							os.close();
-						} catch (Exception e)
-						{
-							e.printStackTrace();
-						}
-					}
-				} else if (format != null && format.equalsIgnoreCase("dng"))
-				{
-					saveDNGPicture(i, sessionID, os, x, y, orientation, cameraMirrored);
-				} else
-				{// if result in nv21 format
-					int yuv = Integer.parseInt(getFromSharedMem("resultframe" + i + Long.toString(sessionID)));
-					com.almalence.YuvImage out = new com.almalence.YuvImage(yuv, ImageFormat.NV21, x, y, null);
-					Rect r;
-
-					String res = getFromSharedMem("resultfromshared" + Long.toString(sessionID));
-					if ((null == res) || "".equals(res) || "true".equals(res))
-					{
-						// to avoid problems with SKIA
-						int cropHeight = out.getHeight() - out.getHeight() % 16;
-						r = new Rect(0, 0, out.getWidth(), cropHeight);
-					} else
-					{
-						if (null == getFromSharedMem("resultcrop0" + Long.toString(sessionID)))
-						{
-							// to avoid problems with SKIA
-							int cropHeight = out.getHeight() - out.getHeight() % 16;
-							r = new Rect(0, 0, out.getWidth(), cropHeight);
-						} else
-						{
-							int crop0 = Integer.parseInt(getFromSharedMem("resultcrop0" + Long.toString(sessionID)));
-							int crop1 = Integer.parseInt(getFromSharedMem("resultcrop1" + Long.toString(sessionID)));
-							int crop2 = Integer.parseInt(getFromSharedMem("resultcrop2" + Long.toString(sessionID)));
-							int crop3 = Integer.parseInt(getFromSharedMem("resultcrop3" + Long.toString(sessionID)));
-
-							r = new Rect(crop0, crop1, crop0 + crop2, crop1 + crop3);
-
-						}
-					}
-
-					jpegQuality = Integer.parseInt(prefs.getString(ApplicationScreen.sJPEGQualityPref, "95"));
-					if (!out.compressToJpeg(r, jpegQuality, os))
-					{
-						if (ApplicationScreen.instance != null && ApplicationScreen.getMessageHandler() != null)
-						{
-							ApplicationScreen.getMessageHandler().sendEmptyMessage(
-									ApplicationInterface.MSG_EXPORT_FINISHED_IOEXCEPTION);
-						}
-						return;
-					}
-					SwapHeap.FreeFromHeap(yuv);
-				}
+				boolean writeOrientationTag = session.getBoolean(SessionData.BOOL_WRITE_ORIENTATION_TAG, true);
+
+				SaveJob job = new SaveJob();
+				job.session = saveSession;
+				job.frame = i;
+				job.quality = Integer.parseInt(prefs.getString(ApplicationScreen.sJPEGQualityPref, "95"));
+				job.format = format;
+				job.dng = format != null && format.equalsIgnoreCase("dng");
+				job.x = x;
+				job.y = y;
+				job.orientation = orientation;
+				job.cameraMirrored = cameraMirrored;
+				job.os = os;
+				saveSession.jobs.add(job);
 
 				String orientation_tag = String.valueOf(0);
 
@@ -460,31 +823,6 @@ public class SavingService extends NotificationService
 				values.put(ImageColumns.BUCKET_DISPLAY_NAME, name);
 				values.put(ImageColumns.DATA, file.getAbsolutePath());
 
-				File tmpFile;
-				if (ApplicationScreen.getForceFilename() == null)
-				{
-					tmpFile = file;
-				} else
-				{
-					tmpFile = new File(getApplicationContext().getFilesDir(), "buffer.jpeg");
-					tmpFile.createNewFile();
-					copyFromForceFileName(tmpFile);
-				}
-
-				if (!enableExifTagOrientation)
-				{
-					Matrix matrix = new Matrix();
-					if (writeOrientationTag && (orientation + additionalRotationValue) != 0)
-					{
-						matrix.postRotate((orientation + additionalRotationValue + 360) % 360);
-						rotateImage(tmpFile, matrix);
-					} else if (!writeOrientationTag && additionalRotationValue != 0)
-					{
-						matrix.postRotate((additionalRotationValue + 360) % 360);
-						rotateImage(tmpFile, matrix);
-					}
-				}
-
 				if (useGeoTaggingPrefExport)
 				{
 					Location l = MLocation.getLocation(getApplicationContext());
@@ -501,50 +839,35 @@ public class SavingService extends NotificationService
 					}
 				}
 
-				File modifiedFile = saveExifTags(tmpFile, sessionID, i, x, y, exif_orientation,
-						useGeoTaggingPrefExport, enableExifTagOrientation);
-				if (ApplicationScreen.getForceFilename() == null)
-				{
-					file.delete();
-					modifiedFile.renameTo(file);
-				} else
-				{
-					copyToForceFileName(modifiedFile);
-					tmpFile.delete();
-					modifiedFile.delete();
-				}
-
-				Uri uri = getApplicationContext().getContentResolver()
-						.insert(Images.Media.EXTERNAL_CONTENT_URI, values);
-				broadcastNewPicture(uri); 
+				job.exifOrientation = exif_orientation;
+				job.rotation = getRotation(orientation, writeOrientationTag);
+				job.values = values;
 			}
-
-			ApplicationScreen.getMessageHandler().sendEmptyMessage(ApplicationInterface.MSG_EXPORT_FINISHED);
 		} catch (IOException e)
 		{
 			e.printStackTrace();
-			ApplicationScreen.getMessageHandler()
-					.sendEmptyMessage(ApplicationInterface.MSG_EXPORT_FINISHED_IOEXCEPTION);
-			return;
+			saveSession.ioError = true;
+			cancelUnplannedJobs(saveSession);
 		} catch (Exception e)
 		{
 			e.printStackTrace();
-			ApplicationScreen.getMessageHandler().sendEmptyMessage(ApplicationInterface.MSG_EXPORT_FINISHED);
+			cancelUnplannedJobs(saveSession);
 		} finally
 		{
 			ApplicationScreen.setForceFilename(null);
 		}
 	}
 
-	// save result pictures method for android >= 5.0
-	public void saveResultPictureNew(long sessionID)
+	// Plans saving of result pictures for android >= 5.0
+	public void saveResultPictureNew(SaveSession saveSession)
 	{
 		if (ApplicationScreen.getForceFilename() != null)
 		{
-			saveResultPicture(sessionID);
+			saveResultPicture(saveSession);
 			return;
 		}
 
+		long sessionID = saveSession.sessionID;
 		initSavingPrefs();
 		SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(getApplicationContext());
 		// save fused result
@@ -552,15 +875,16 @@ public class SavingService extends NotificationService
 		{
 			DocumentFile saveDir = getSaveDirNew(false);
 
-			int imagesAmount = Integer.parseInt(getFromSharedMem("amountofresultframes" + Long.toString(sessionID)));
+			SessionData session = saveSession.data;
+			if (!session.hasInt(SessionData.INT_RESULT_FRAMES))
+				throw new IllegalStateException("No result frames in session " + sessionID);
+
+			int imagesAmount = session.getInt(SessionData.INT_RESULT_FRAMES, 1);
 
 			if (imagesAmount == 0)
 				imagesAmount = 1;
 
-			int imageIndex = 0;
-			String sImageIndex = getFromSharedMem("resultframeindex" + Long.toString(sessionID));
-			if (sImageIndex != null)
-				imageIndex = Integer.parseInt(getFromSharedMem("resultframeindex" + Long.toString(sessionID)));
+			int imageIndex = session.getInt(SessionData.INT_RESULT_FRAME_INDEX, 0);
 
 			if (imageIndex != 0)
 				imagesAmount = 1;
@@ -571,7 +895,7 @@ public class SavingService extends NotificationService
 			for (int i = 1; i <= imagesAmount; i++)
 			{
 				hasDNGResult = false;
-				String format = getFromSharedMem("resultframeformat" + i + Long.toString(sessionID));
+				String format = session.getResultFrameFormat(i);
 
 				if (format != null && format.equalsIgnoreCase("dng"))
 					hasDNGResult = true;
@@ -583,7 +907,7 @@ public class SavingService extends NotificationService
 							+ ((format != null && !format.equalsIgnoreCase("dng") && hasDNGResult) ? i - imagesAmount
 									/ 2 : i);
 
-				String modeName = getFromSharedMem("modeSaveName" + Long.toString(sessionID));
+				String modeName = session.getString(SessionData.STR_MODE_SAVE_NAME);
 
 				// define file name format. from settings!
 				String fileFormat = getExportFileName(modeName);
@@ -607,123 +931,46 @@ public class SavingService extends NotificationService
 					file = DocumentFile.fromFile(ApplicationScreen.getForceFilename());
 				}
 
-				// Create buffer image to deal with exif tags.
-				OutputStream os = null;
-				File bufFile = new File(getApplicationContext().getFilesDir(), "buffer.jpeg");
-				try
-				{
-					os = new FileOutputStream(bufFile);
-				} catch (Exception e)
-				{
-					e.printStackTrace();
-				}
-
 				// Take only one result frame from several results
 				// Used for PreShot plugin that may decide which result to save
 				if (imagesAmount == 1 && imageIndex != 0)
 				{
 					i = imageIndex;
 					//With changed frame index we have to get appropriate frame format
-					format = getFromSharedMem("resultframeformat" + i + Long.toString(sessionID));
+					format = session.getResultFrameFormat(i);
 				}
 
-				String resultOrientation = getFromSharedMem("resultframeorientation" + i + Long.toString(sessionID));
-				int orientation = 0;
-				if (resultOrientation != null)
-					orientation = Integer.parseInt(resultOrientation);
-
-				String resultMirrored = getFromSharedMem("resultframemirrored" + i + Long.toString(sessionID));
-				Boolean cameraMirrored = false;
-				if (resultMirrored != null)
-					cameraMirrored = Boolean.parseBoolean(resultMirrored);
+				int orientation = session.getResultFrameOrientation(i);
+				boolean cameraMirrored = session.getResultFrameMirrored(i);
 
-				int x = Integer.parseInt(getFromSharedMem("saveImageHeight" + Long.toString(sessionID)));
-				int y = Integer.parseInt(getFromSharedMem("saveImageWidth" + Long.toString(sessionID)));
+				int x = session.getInt(SessionData.INT_SAVE_IMAGE_HEIGHT, 0);
+				int y = session.getInt(SessionData.INT_SAVE_IMAGE_WIDTH, 0);
 				if (orientation == 0 || orientation == 180 || (format != null && format.equalsIgnoreCase("dng")))
 				{
-					x = Integer.valueOf(getFromSharedMem("saveImageWidth" + Long.toString(sessionID)));
-					y = Integer.valueOf(getFromSharedMem("saveImageHeight" + Long.toString(sessionID)));
+					x = session.getInt(SessionData.INT_SAVE_IMAGE_WIDTH, 0);
+					y = session.getInt(SessionData.INT_SAVE_IMAGE_HEIGHT, 0);
 				}
 
-				Boolean writeOrientationTag = true;
-				String writeOrientTag = getFromSharedMem("writeorientationtag" + Long.toString(sessionID));
-				if (writeOrientTag != null)
-					writeOrientationTag = Boolean.parseBoolean(writeOrientTag);
-
-				if (format != null && format.equalsIgnoreCase("jpeg"))
-				{// if result in jpeg format
-
-					if (os != null)
-					{
-						byte[] frame = SwapHeap.SwapFromHeap(
-								Integer.parseInt(getFromSharedMem("resultframe" + i + Long.toString(sessionID))),
-								Integer.parseInt(getFromSharedMem("resultframelen" + i + Long.toString(sessionID))));
-						os.write(frame);
-						try
-						{
-							os.close();
-						} catch (Exception e)
-						{
-							e.printStackTrace();
-						}
-					}
-				} else if (format != null && format.equalsIgnoreCase("dng")
-						&& Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP)
-				{
-					saveDNGPicture(i, sessionID, os, x, y, orientation, cameraMirrored);
-				} else
-				{// if result in nv21 format
-					int yuv = Integer.parseInt(getFromSharedMem("resultframe" + i + Long.toString(sessionID)));
-					com.almalence.YuvImage out = new com.almalence.YuvImage(yuv, ImageFormat.NV21, x, y, null);
-					Rect r;
-
-//					w = out.getWidth();
-//					h = out.getHeight();
-//					ApplicationScreen.instance.runOnUiThread(new Runnable()
-//					{
-//						public void run()
-//						{
-//							int mImageWidth = w;
-//							int mImageHeight = h;
-//							String szstr =  "resolutions w = " + mImageWidth +" h = " +mImageHeight;
-//							Toast.makeText(MainScreen.getMainContext(), szstr, Toast.LENGTH_LONG).show();
-////							Toast.makeText(MainScreen.getMainContext(), "QQQQQQ", Toast.LENGTH_LONG).show();
-//						}
-//					});
-					
-					String res = getFromSharedMem("resultfromshared" + Long.toString(sessionID));
-					if ((null == res) || "".equals(res) || "true".equals(res))
-					{
-						// to avoid problems with SKIA
-						int cropHeight = out.getHeight() - out.getHeight() % 16;
-						r = new Rect(0, 0, out.getWidth(), cropHeight);
-					} else
-					{
-						if (null == getFromSharedMem("resultcrop0" + Long.toString(sessionID)))
-						{
-							// to avoid problems with SKIA
-							int cropHeight = out.getHeight() - out.getHeight() % 16;
-							r = new Rect(0, 0, out.getWidth(), cropHeight);
-						} else
-						{
-							int crop0 = Integer.parseInt(getFromSharedMem("resultcrop0" + Long.toString(sessionID)));
-							int crop1 = Integer.parseInt(getFromSharedMem("resultcrop1" + Long.toString(sessionID)));
-							int crop2 = Integer.parseInt(getFromSharedMem("resultcrop2" + Long.toString(sessionID)));
-							int crop3 = Integer.parseInt(getFromSharedMem("resultcrop3" + Long.toString(sessionID)));
-
-							r = new Rect(crop0, crop1, crop0 + crop2, crop1 + crop3);
-						}
-					}
-
-					jpegQuality = Integer.parseInt(prefs.getString(ApplicationScreen.sJPEGQualityPref, "95"));
-					if (!out.compressToJpeg(r, jpegQuality, os))
-					{
-						ApplicationScreen.getMessageHandler().sendEmptyMessage(
-								ApplicationInterface.MSG_EXPORT_FINISHED_IOEXCEPTION);
-						return;
-					}
-					SwapHeap.FreeFromHeap(yuv);
-				}
+				boolean writeOrientationTag = session.getBoolean(SessionData.BOOL_WRITE_ORIENTATION_TAG, true);
+
+				// Data goes right into the destination file, there is no
+				// intermediate buffer file any more.
+				OutputStream os = getApplicationContext().getContentResolver().openOutputStream(file.getUri());
+
+				SaveJob job = new SaveJob();
+				job.session = saveSession;
+				job.frame = i;
+				job.quality = Integer.parseInt(prefs.getString(ApplicationScreen.sJPEGQualityPref, "95"));
+				job.format = format;
+				job.dng = format != null && format.equalsIgnoreCase("dng")
+						&& Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP;
+				job.x = x;
+				job.y = y;
+				job.orientation = orientation;
+				job.cameraMirrored = cameraMirrored;
+				job.os = os;
+				job.document = true;
+				saveSession.jobs.add(job);
 
 				String orientation_tag = String.valueOf(0);
 				
@@ -829,20 +1076,6 @@ public class SavingService extends NotificationService
 					values.put(ImageColumns.DATA, documentPath);
 				}
 
-				if (!enableExifTagOrientation && !hasDNGResult)
-				{
-					Matrix matrix = new Matrix();
-					if (writeOrientationTag && (orientation + additionalRotationValue) != 0)
-					{
-						matrix.postRotate((orientation + additionalRotationValue + 360) % 360);
-						rotateImage(bufFile, matrix);
-					} else if (!writeOrientationTag && additionalRotationValue != 0)
-					{
-						matrix.postRotate((additionalRotationValue + 360) % 360);
-						rotateImage(bufFile, matrix);
-					}
-				}
-
 				if (useGeoTaggingPrefExport)
 				{
 					Location l = MLocation.getLocation(getApplicationContext());
@@ -859,143 +1092,160 @@ public class SavingService extends NotificationService
 					}
 				}
 
-				File modifiedFile = null;
-				if (!hasDNGResult)
-				{
-					modifiedFile = saveExifTags(bufFile, sessionID, i, x, y, exif_orientation, useGeoTaggingPrefExport,
-							enableExifTagOrientation);
-				}
-				if (modifiedFile != null)
-				{
-					bufFile.delete();
-
-					if (ApplicationScreen.getForceFilename() == null)
-					{
-						// Copy buffer image with exif tags into result file.
-						InputStream is = null;
-						int len;
-						byte[] buf = new byte[4096];
-						try
-						{
-							os = getApplicationContext().getContentResolver().openOutputStream(file.getUri());
-							is = new FileInputStream(modifiedFile);
-							while ((len = is.read(buf)) > 0)
-							{
-								os.write(buf, 0, len);
-							}
-							is.close();
-							os.close();
-						}
-						catch (IOException eIO)
-						{
-							eIO.printStackTrace();
-							final IOException eIOFinal = eIO;
-							ApplicationScreen.instance.runOnUiThread(new Runnable()
-							{
-								public void run()
-								{
-									Toast.makeText(MainScreen.getMainContext(), "Error ocurred:" + eIOFinal.getLocalizedMessage(),
-											Toast.LENGTH_LONG).show();
-								}
-							});
-						}
-						catch (Exception e)
-						{
-							e.printStackTrace();
-						}
-					} else
-					{
-						copyToForceFileName(modifiedFile);
-					}
-
-					modifiedFile.delete();
-				} else
-				{
-					// Copy buffer image into result file.
-					InputStream is = null;
-					int len;
-					byte[] buf = new byte[4096];
-					try
-					{
-						os = getApplicationContext().getContentResolver().openOutputStream(file.getUri());
-						is = new FileInputStream(bufFile);
-						while ((len = is.read(buf)) > 0)
-						{
-							os.write(buf, 0, len);
-						}
-						is.close();
-						os.close();
-					} catch (Exception e)
-					{
-						e.printStackTrace();
-					}
-					bufFile.delete();
-				}
-
-				Uri uri = getApplicationContext().getContentResolver()
-						.insert(Images.Media.EXTERNAL_CONTENT_URI, values);
-				broadcastNewPicture(uri);
+				job.exifOrientation = exif_orientation;
+				job.rotation = getRotation(orientation, writeOrientationTag);
+				job.values = values;
 			}
-
-			ApplicationScreen.getMessageHandler().sendEmptyMessage(ApplicationInterface.MSG_EXPORT_FINISHED);
 		} catch (IOException e)
 		{
 			e.printStackTrace();
-			ApplicationScreen.getMessageHandler()
-					.sendEmptyMessage(ApplicationInterface.MSG_EXPORT_FINISHED_IOEXCEPTION);
-			return;
+			saveSession.ioError = true;
+			cancelUnplannedJobs(saveSession);
 		} catch (Exception e)
 		{
 			e.printStackTrace();
-			ApplicationScreen.getMessageHandler().sendEmptyMessage(ApplicationInterface.MSG_EXPORT_FINISHED);
+			cancelUnplannedJobs(saveSession);
 		}
 	}
 
-	public static void broadcastNewPicture(Uri uri)
+	// Job which failed to be planned completely is only cleaned up by stages
+	private static void cancelUnplannedJobs(SaveSession saveSession)
 	{
-		if (ApplicationScreen.instance != null)
+		for (SaveJob job : saveSession.jobs)
+			if (job.values == null)
+				job.failed = true;
+	}
+
+	/***
+	 * Jpeg encoder output. Gives access to its buffer, so data is written to
+	 * destination without copying.
+	 ***/
+	protected static class JpegBuffer extends ByteArrayOutputStream
+	{
+		public JpegBuffer(int size)
+		{
+			super(size);
+		}
+
+		// wraps already encoded jpeg
+		public JpegBuffer(byte[] data)
+		{
+			super(0);
+			buf = data;
+			count = data.length;
+		}
+
+		public byte[] getBuffer()
 		{
-			ApplicationScreen.instance.sendBroadcast(new Intent(Intent.ACTION_MEDIA_SCANNER_SCAN_FILE, uri));
-			ApplicationScreen.getMainContext().sendBroadcast(new Intent("android.hardware.action.NEW_PICTURE", uri));
-			// Keep compatibility
-			ApplicationScreen.getMainContext().sendBroadcast(new Intent("com.android.camera.NEW_PICTURE", uri));
+			return buf;
 		}
 	}
 
-	protected File saveExifTags(File file, long sessionID, int i, int x, int y, int exif_orientation,
-			boolean useGeoTaggingPrefExport, boolean enableExifTagOrientation)
+	// Returns result frame i as jpeg or null if it can't be encoded. NV21
+	// frame is freed after encoding.
+	protected JpegBuffer encodeResultFrame(SessionData session, int i, String format, int x, int y, int quality)
 	{
-		addTimestamp(file, exif_orientation);
+		NativeFrame frame = session.getResultNativeFrame(i);
+		if (format != null && format.equalsIgnoreCase("jpeg"))
+		{
+			if (frame != null)
+				return new JpegBuffer(frame.swapOut());
+			return new JpegBuffer(SwapHeap.SwapFromHeap(session.getResultFrame(i), session.getResultFrameLength(i)));
+		}
 
-		// Set tag_model using ExifInterface.
-		// If we try set tag_model using ExifDriver, then standard
-		// gallery of android (Nexus 4) will crash on this file.
-		// Can't figure out why, other Exif tools work fine.
-		try
+		// NativeFrame is passed by its full address and freed with the session
+		// if encoding fails. Legacy int frame is freed by encoder then.
+		com.almalence.YuvImage out;
+		if (frame != null)
+			out = new com.almalence.YuvImage(frame.getAddress(), ImageFormat.NV21, x, y, null);
+		else
+			out = new com.almalence.YuvImage(session.getResultFrame(i), ImageFormat.NV21, x, y, null);
+		Rect r;
+
+		if (session.getBoolean(SessionData.BOOL_RESULT_FROM_SHARED, true) || !session.hasInt(SessionData.INT_CROP_LEFT))
+		{
+			// to avoid problems with SKIA
+			int cropHeight = out.getHeight() - out.getHeight() % 16;
+			r = new Rect(0, 0, out.getWidth(), cropHeight);
+		} else
 		{
-			ExifInterface ei = new ExifInterface(file.getAbsolutePath());
-			String tag_model = getFromSharedMem("exiftag_model" + Long.toString(sessionID));
-			String tag_make = getFromSharedMem("exiftag_make" + Long.toString(sessionID));
-			if (tag_model == null)
-				tag_model = Build.MODEL; 
-			ei.setAttribute(ExifInterface.TAG_MODEL, tag_model);
-			if (tag_make == null)
-				tag_make = Build.MANUFACTURER;	
-			ei.setAttribute(ExifInterface.TAG_MAKE, tag_make);
-			ei.setAttribute(ExifInterface.TAG_ORIENTATION, String.valueOf(exif_orientation));
-			ei.saveAttributes();
-		} catch (IOException e1)
-		{
-			e1.printStackTrace();
+			int crop0 = session.getInt(SessionData.INT_CROP_LEFT, 0);
+			int crop1 = session.getInt(SessionData.INT_CROP_TOP, 0);
+			int crop2 = session.getInt(SessionData.INT_CROP_WIDTH, 0);
+			int crop3 = session.getInt(SessionData.INT_CROP_HEIGHT, 0);
+
+			r = new Rect(crop0, crop1, crop0 + crop2, crop1 + crop3);
 		}
 
-		// Open ExifDriver.
-		ExifDriver exifDriver = ExifDriver.getInstance(file.getAbsolutePath());
-		ExifManager exifManager = null;
-		if (exifDriver != null)
+		// compressed image rarely exceeds a quarter of NV21 size
+		JpegBuffer jpeg = new JpegBuffer(r.width() * r.height() * 3 / 8);
+		if (!out.compressToJpeg(r, quality, jpeg))
+			return null;
+		if (frame != null)
+			frame.release();
+		else
+			SwapHeap.FreeFromHeap(session.getResultFrame(i));
+
+		return jpeg;
+	}
+
+	// Rotation to apply to pixels when orientation tag is disabled in settings
+	protected int getRotation(int orientation, boolean writeOrientationTag)
+	{
+		if (enableExifTagOrientation)
+			return 0;
+		if (writeOrientationTag)
+			return (orientation + additionalRotationValue + 360) % 360;
+		return (additionalRotationValue + 360) % 360;
+	}
+
+	// Builds Exif of the picture in memory. Exif of camera output is
+	// preserved. Only timestamp and rotation without orientation tag need image
+	// to be re-encoded.
+	protected void prepareJpeg(SaveJob job)
+	{
+		job.exifDriver = ExifDriver.getInstance(job.jpeg.getBuffer(), job.jpeg.size());
+
+		if (job.rotation != 0)
 		{
-			exifManager = new ExifManager(exifDriver, getApplicationContext());
+			Matrix matrix = new Matrix();
+			matrix.postRotate(job.rotation);
+			job.jpeg = rotateImage(job.jpeg, matrix, job.quality);
 		}
+		job.jpeg = addTimestamp(job.jpeg, job.exifOrientation, job.quality);
+
+		if (job.exifDriver != null)
+		{
+			job.exifDriver.setPadding(EXIF_PADDING);
+			setExifTags(job.exifDriver, job.session.data, job.frame, job.x, job.y, job.exifOrientation);
+		}
+	}
+
+	// Writes jpeg to destination in one pass: SOI, Exif and then compressed
+	// data.
+	protected void writeJpeg(SaveJob job) throws IOException
+	{
+		if (job.exifDriver != null)
+			job.exifDriver.save(job.os, job.jpeg.getBuffer(), job.jpeg.size());
+		else
+			job.os.write(job.jpeg.getBuffer(), 0, job.jpeg.size());
+	}
+
+	protected void setExifTags(ExifDriver exifDriver, SessionData session, int i, int x, int y, int exif_orientation)
+	{
+		ExifManager exifManager = new ExifManager(exifDriver, getApplicationContext());
+
+		// Model and make were set with ExifInterface, as standard gallery of
+		// Nexus 4 crashed on values written by ExifDriver. Exif requires ASCII
+		// values to be NUL terminated, so terminate them here.
+		String tag_model = session.getString(SessionData.STR_EXIF_MODEL);
+		String tag_make = session.getString(SessionData.STR_EXIF_MAKE);
+		if (tag_model == null)
+			tag_model = Build.MODEL;
+		if (tag_make == null)
+			tag_make = Build.MANUFACTURER;
+		exifDriver.getIfd0().put(ExifDriver.TAG_MODEL, asciiValue(tag_model));
+		exifDriver.getIfd0().put(ExifDriver.TAG_MAKE, asciiValue(tag_make));
 
 		if (useGeoTaggingPrefExport)
 		{
@@ -1022,16 +1272,16 @@ public class SavingService extends NotificationService
 			}
 		}
 
-		String tag_exposure_time = getFromSharedMem("exiftag_exposure_time" + Long.toString(sessionID));
-		String tag_aperture = getFromSharedMem("exiftag_aperture" + Long.toString(sessionID));
-		String tag_flash = getFromSharedMem("exiftag_flash" + Long.toString(sessionID));
-		String tag_focal_length = getFromSharedMem("exiftag_focal_lenght" + Long.toString(sessionID));
-		String tag_iso = getFromSharedMem("exiftag_iso" + Long.toString(sessionID));
-		String tag_white_balance = getFromSharedMem("exiftag_white_balance" + Long.toString(sessionID));
-		String tag_spectral_sensitivity = getFromSharedMem("exiftag_spectral_sensitivity" + Long.toString(sessionID));
-		String tag_version = getFromSharedMem("exiftag_version" + Long.toString(sessionID));
-		String tag_scene = getFromSharedMem("exiftag_scene_capture_type" + Long.toString(sessionID));
-		String tag_metering_mode = getFromSharedMem("exiftag_metering_mode" + Long.toString(sessionID));
+		String tag_exposure_time = session.getString(SessionData.STR_EXIF_EXPOSURE_TIME);
+		String tag_aperture = session.getString(SessionData.STR_EXIF_APERTURE);
+		String tag_flash = session.getString(SessionData.STR_EXIF_FLASH);
+		String tag_focal_length = session.getString(SessionData.STR_EXIF_FOCAL_LENGTH);
+		String tag_iso = session.getString(SessionData.STR_EXIF_ISO);
+		String tag_white_balance = session.getString(SessionData.STR_EXIF_WHITE_BALANCE);
+		String tag_spectral_sensitivity = session.getString(SessionData.STR_EXIF_SPECTRAL_SENSITIVITY);
+		String tag_version = session.getString(SessionData.STR_EXIF_VERSION);
+		String tag_scene = session.getString(SessionData.STR_EXIF_SCENE_CAPTURE_TYPE);
+		String tag_metering_mode = session.getString(SessionData.STR_EXIF_METERING_MODE);
 
 		if (exifDriver != null)
 		{
@@ -1046,8 +1296,7 @@ public class SavingService extends NotificationService
 				}
 			} else
 			{ // hack for expo bracketing
-				tag_exposure_time = getFromSharedMem("exiftag_exposure_time" + Integer.toString(i)
-						+ Long.toString(sessionID));
+				tag_exposure_time = session.getFrameExposureTime(i);
 				if (tag_exposure_time != null)
 				{
 					int[][] ratValue = ExifManager.stringToRational(tag_exposure_time);
@@ -1235,7 +1484,7 @@ public class SavingService extends NotificationService
 			}
 
 			// extract mode name
-			String tag_modename = getFromSharedMem("mode_name" + Long.toString(sessionID));
+			String tag_modename = session.getString(SessionData.STR_MODE_NAME);
 			if (tag_modename == null)
 				tag_modename = "";
 			String softwareString = getResources().getString(R.string.app_name) + ", " + tag_modename;
@@ -1252,17 +1501,22 @@ public class SavingService extends NotificationService
 				ValueNumber value = new ValueNumber(ExifDriver.FORMAT_UNSIGNED_SHORT, ExifInterface.ORIENTATION_NORMAL);
 				exifDriver.getIfd0().put(ExifDriver.TAG_ORIENTATION, value);
 			}
-
-			// Save exif info to new file, and replace old file with new
-			// one.
-			File modifiedFile = new File(file.getAbsolutePath() + ".tmp");
-			exifDriver.save(modifiedFile.getAbsolutePath());
-			return modifiedFile;
 		}
-		return null;
 	}
 
-	protected void addTimestamp(File file, int exif_orientation)
+	private static ValueByteArray asciiValue(String string)
+	{
+		byte[] bytes = string.getBytes();
+		byte[] res = new byte[bytes.length + 1];
+		System.arraycopy(bytes, 0, res, 0, bytes.length);
+		ValueByteArray value = new ValueByteArray(ExifDriver.FORMAT_ASCII_STRINGS);
+		value.setBytes(res);
+		return value;
+	}
+
+	// Draws timestamp over the image. Returns re-encoded image or the same one
+	// if timestamp is disabled or can't be drawn.
+	protected JpegBuffer addTimestamp(JpegBuffer jpeg, int exif_orientation, int quality)
 	{
 		try
 		{
@@ -1279,7 +1533,7 @@ public class SavingService extends NotificationService
 
 			String formattedCurrentDate = "";
 			if (dateFormat == 0 && timeFormat == 0 && customText.equals("") && saveGeo == 0)
-				return;
+				return jpeg;
 
 			String geoText = "";
 			// show geo data on time stamp
@@ -1378,7 +1632,7 @@ public class SavingService extends NotificationService
 					+ (geoText.isEmpty() ? "" : ("\n" + geoText));
 
 			if (formattedCurrentDate.equals(""))
-				return;
+				return jpeg;
 
 			Bitmap sourceBitmap;
 			Bitmap bitmap;
@@ -1400,7 +1654,7 @@ public class SavingService extends NotificationService
 			BitmapFactory.Options options = new BitmapFactory.Options();
 			options.inMutable = true;
 
-			sourceBitmap = BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+			sourceBitmap = BitmapFactory.decodeByteArray(jpeg.getBuffer(), 0, jpeg.size(), options);
 			bitmap = Bitmap.createBitmap(sourceBitmap, 0, 0, sourceBitmap.getWidth(), sourceBitmap.getHeight(), matrix,
 					false);
 
@@ -1451,16 +1705,10 @@ public class SavingService extends NotificationService
 
 			bitmap.recycle();
 
-			FileOutputStream outStream;
-			outStream = new FileOutputStream(file);
-			sourceBitmap.compress(Bitmap.CompressFormat.JPEG, jpegQuality, outStream);
+			JpegBuffer stamped = new JpegBuffer(jpeg.size());
+			sourceBitmap.compress(Bitmap.CompressFormat.JPEG, quality, stamped);
 			sourceBitmap.recycle();
-			outStream.flush();
-			outStream.close();
-		} catch (FileNotFoundException e)
-		{
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			return stamped;
 		} catch (IOException e)
 		{
 			// TODO Auto-generated catch block
@@ -1472,6 +1720,7 @@ public class SavingService extends NotificationService
 		{
 			e.printStackTrace();
 		}
+		return jpeg;
 	}
 
 	protected void drawTextWithBackground(Canvas canvas, Paint paint, String text, int foreground, int background,
@@ -1543,39 +1792,40 @@ public class SavingService extends NotificationService
 		}
 	}
 
-	private void rotateImage(File file, Matrix matrix)
+	// Fallback for disabled orientation tag: decodes and re-encodes image.
+	private JpegBuffer rotateImage(JpegBuffer jpeg, Matrix matrix, int quality)
 	{
 		try
 		{
-			Bitmap sourceBitmap = BitmapFactory.decodeFile(file.getAbsolutePath());
+			Bitmap sourceBitmap = BitmapFactory.decodeByteArray(jpeg.getBuffer(), 0, jpeg.size());
 			Bitmap rotatedBitmap = Bitmap.createBitmap(sourceBitmap, 0, 0, sourceBitmap.getWidth(),
 					sourceBitmap.getHeight(), matrix, true);
+			sourceBitmap.recycle();
 
-			FileOutputStream outStream;
-			outStream = new FileOutputStream(file);
-			rotatedBitmap.compress(Bitmap.CompressFormat.JPEG, jpegQuality, outStream);
-			outStream.flush();
-			outStream.close();
-		} catch (FileNotFoundException e)
+			JpegBuffer rotated = new JpegBuffer(jpeg.size());
+			rotatedBitmap.compress(Bitmap.CompressFormat.JPEG, quality, rotated);
+			rotatedBitmap.recycle();
+			return rotated;
+		} catch (Exception e)
 		{
-			// TODO Auto-generated catch block
 			e.printStackTrace();
-		} catch (IOException e)
+		} catch (OutOfMemoryError e)
 		{
-			// TODO Auto-generated catch block
 			e.printStackTrace();
 		}
+		return jpeg;
 	}
 
 	@TargetApi(21)
 	private void saveDNGPicture(int frameNum, long sessionID, OutputStream os, int width, int height, int orientation,
 			boolean cameraMirrored)
 	{
-		DngCreator creator = new DngCreator(CameraController.getCameraCharacteristics(), PluginManager.getInstance()
-				.getFromRAWCaptureResults("captureResult" + frameNum + sessionID));
-		byte[] frame = SwapHeap.SwapFromHeap(
-				Integer.parseInt(getFromSharedMem("resultframe" + frameNum + Long.toString(sessionID))),
-				Integer.parseInt(getFromSharedMem("resultframelen" + frameNum + Long.toString(sessionID))));
+		SessionData session = PluginManager.getInstance().getSessionData(sessionID);
+		DngCreator creator = new DngCreator(CameraController.getCameraCharacteristics(),
+				(CaptureResult) session.getCaptureResult(frameNum));
+		NativeFrame nativeFrame = session.getResultNativeFrame(frameNum);
+		byte[] frame = nativeFrame != null ? nativeFrame.swapOut() : SwapHeap.SwapFromHeap(
+				session.getResultFrame(frameNum), session.getResultFrameLength(frameNum));
 
 		ByteBuffer buff = ByteBuffer.allocateDirect(frame.length);
 		buff.put(frame);
@@ -1847,8 +2097,4 @@ public class SavingService extends NotificationService
 		out.close();
 	}
 
-	private String getFromSharedMem(String key)
-	{
-		return PluginManager.getInstance().getFromSharedMem(key);
-	}
 }
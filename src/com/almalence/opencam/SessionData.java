@@ -0,0 +1,434 @@
+/*
+The contents of this file are subject to the Mozilla Public License
+Version 1.1 (the "License"); you may not use this file except in
+compliance with the License. You may obtain a copy of the License at
+http://www.mozilla.org/MPL/
+
+Software distributed under the License is distributed on an "AS IS"
+basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+License for the specific language governing rights and limitations
+under the License.
+
+The Original Code is collection of files collectively known as Open Camera.
+
+The Initial Developer of the Original Code is Almalence Inc.
+Portions created by Initial Developer are Copyright (C) 2013
+by Almalence Inc. All Rights Reserved.
+ */
+
+/* <!-- +++
+ package com.almalence.opencam_plus;
+ +++ --> */
+//<!-- -+-
+package com.almalence.opencam;
+
+//-+- -->
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.almalence.NativeFrame;
+
+/***
+ * Typed storage of all data produced by one capture session.
+ *
+ * Replaces string keys like "resultframe" + i + sessionID with fields of
+ * primitive type. Every accessor locks only this session, so capture,
+ * processing and saving of different sessions never contend.
+ *
+ * Frame indexes are the same as used by plugins with old string keys (mostly
+ * 1-based), so typed and legacy accessors may be mixed freely.
+ ***/
+public class SessionData
+{
+	// Per-frame data. Each value has a bit in 'fields' to tell "not set" from
+	// zero, as legacy readers expect null for absent keys.
+	public static class Frame
+	{
+		public static final int	HANDLE			= 1;
+		public static final int	LENGTH			= 1 << 1;
+		public static final int	ORIENTATION		= 1 << 2;
+		public static final int	MIRRORED		= 1 << 3;
+		public static final int	FORMAT			= 1 << 4;
+		public static final int	RAW				= 1 << 5;
+		public static final int	EXPOSURE_TIME	= 1 << 6;
+
+		int						fields;
+		int						handle;
+		int						length;
+		int						orientation;
+		boolean					mirrored;
+		boolean					raw;
+		String					format;
+		String					exposureTime;
+		Object					captureResult;
+		// set if frame memory is tracked, then handle is legacy alias of it
+		NativeFrame				nativeFrame;
+
+		public boolean has(int field)
+		{
+			return (fields & field) != 0;
+		}
+	}
+
+	// Session-wide integer values
+	public static final int		INT_CAPTURED_FRAMES		= 0;
+	public static final int		INT_CAPTURED_RAW_FRAMES	= 1;
+	public static final int		INT_RESULT_FRAMES		= 2;
+	public static final int		INT_RESULT_FRAME_INDEX	= 3;
+	public static final int		INT_SAVE_IMAGE_WIDTH	= 4;
+	public static final int		INT_SAVE_IMAGE_HEIGHT	= 5;
+	public static final int		INT_IMAGE_WIDTH			= 6;
+	public static final int		INT_IMAGE_HEIGHT		= 7;
+	public static final int		INT_CROP_LEFT			= 8;
+	public static final int		INT_CROP_TOP			= 9;
+	public static final int		INT_CROP_WIDTH			= 10;
+	public static final int		INT_CROP_HEIGHT			= 11;
+	static final int			INT_COUNT				= 12;
+
+	// Session-wide boolean values
+	public static final int		BOOL_RESULT_FROM_SHARED		= 0;
+	public static final int		BOOL_WRITE_ORIENTATION_TAG	= 1;
+	public static final int		BOOL_CAMERA_MIRRORED		= 2;
+	public static final int		BOOL_WANT_LANDSCAPE			= 3;
+	public static final int		BOOL_SLOW_MODE				= 4;
+	static final int			BOOL_COUNT					= 5;
+
+	// Session-wide string values: mode names and exif tags
+	public static final int		STR_MODE_NAME				= 0;
+	public static final int		STR_MODE_SAVE_NAME			= 1;
+	public static final int		STR_EXIF_EXPOSURE_TIME		= 2;
+	public static final int		STR_EXIF_APERTURE			= 3;
+	public static final int		STR_EXIF_FLASH				= 4;
+	public static final int		STR_EXIF_FOCAL_LENGTH		= 5;
+	public static final int		STR_EXIF_ISO				= 6;
+	public static final int		STR_EXIF_WHITE_BALANCE		= 7;
+	public static final int		STR_EXIF_MAKE				= 8;
+	public static final int		STR_EXIF_MODEL				= 9;
+	public static final int		STR_EXIF_SPECTRAL_SENSITIVITY	= 10;
+	public static final int		STR_EXIF_VERSION			= 11;
+	public static final int		STR_EXIF_SCENE_CAPTURE_TYPE	= 12;
+	public static final int		STR_EXIF_METERING_MODE		= 13;
+	static final int			STR_COUNT					= 14;
+
+	public final long			sessionID;
+
+	private Frame[]				frames					= new Frame[8];
+	private Frame[]				results					= new Frame[4];
+
+	private final int[]			ints					= new int[INT_COUNT];
+	private int					intsSet;
+	private final boolean[]		bools					= new boolean[BOOL_COUNT];
+	private int					boolsSet;
+	private final String[]		strings					= new String[STR_COUNT];
+
+	// values of keys that have no typed field yet (plugin-private data like
+	// "pano_frametrs")
+	private Map<String, String>	extras;
+
+	SessionData(long sessionID)
+	{
+		this.sessionID = sessionID;
+	}
+
+	/******************************************************************************************************
+	 * Captured (input) frames
+	 ******************************************************************************************************/
+	public synchronized void setFrame(int i, int handle, int length)
+	{
+		Frame f = frame(i, true);
+		f.handle = handle;
+		f.length = length;
+		f.fields |= Frame.HANDLE | Frame.LENGTH;
+	}
+
+	public synchronized void setFrameOrientation(int i, int orientation, boolean mirrored)
+	{
+		Frame f = frame(i, true);
+		f.orientation = orientation;
+		f.mirrored = mirrored;
+		f.fields |= Frame.ORIENTATION | Frame.MIRRORED;
+	}
+
+	public synchronized int getFrame(int i)
+	{
+		Frame f = frame(i, false);
+		return f != null ? f.handle : 0;
+	}
+
+	public synchronized int getFrameLength(int i)
+	{
+		Frame f = frame(i, false);
+		return f != null ? f.length : 0;
+	}
+
+	public synchronized int getFrameOrientation(int i)
+	{
+		Frame f = frame(i, false);
+		return f != null ? f.orientation : 0;
+	}
+
+	public synchronized boolean getFrameMirrored(int i)
+	{
+		Frame f = frame(i, false);
+		return f != null && f.mirrored;
+	}
+
+	public synchronized boolean hasFrameField(int i, int field)
+	{
+		Frame f = frame(i, false);
+		return f != null && f.has(field);
+	}
+
+	/******************************************************************************************************
+	 * Processed (result) frames
+	 ******************************************************************************************************/
+	public synchronized void setResultFrame(int i, int handle, int length)
+	{
+		Frame f = result(i, true);
+		f.handle = handle;
+		f.length = length;
+		f.fields |= Frame.HANDLE | Frame.LENGTH;
+	}
+
+	/**
+	 * Result frame in native memory owned by this session. Legacy int handle
+	 * is also set when address fits into it, so old readers keep working.
+	 */
+	public synchronized void setResultFrame(int i, NativeFrame frame)
+	{
+		Frame f = result(i, true);
+		f.nativeFrame = frame;
+		f.handle = frame.hasLegacyHandle() ? frame.getHandle() : 0;
+		f.length = frame.getLength();
+		f.fields |= Frame.HANDLE | Frame.LENGTH;
+	}
+
+	// null if result frame was stored as legacy int handle
+	public synchronized NativeFrame getResultNativeFrame(int i)
+	{
+		Frame f = result(i, false);
+		return f != null ? f.nativeFrame : null;
+	}
+
+	public synchronized void setResultFrameOrientation(int i, int orientation, boolean mirrored)
+	{
+		Frame f = result(i, true);
+		f.orientation = orientation;
+		f.mirrored = mirrored;
+		f.fields |= Frame.ORIENTATION | Frame.MIRRORED;
+	}
+
+	public synchronized void setResultFrameFormat(int i, String format)
+	{
+		Frame f = result(i, true);
+		f.format = format;
+		f.fields |= Frame.FORMAT;
+	}
+
+	public synchronized int getResultFrame(int i)
+	{
+		Frame f = result(i, false);
+		return f != null ? f.handle : 0;
+	}
+
+	public synchronized int getResultFrameLength(int i)
+	{
+		Frame f = result(i, false);
+		return f != null ? f.length : 0;
+	}
+
+	public synchronized int getResultFrameOrientation(int i)
+	{
+		Frame f = result(i, false);
+		return f != null ? f.orientation : 0;
+	}
+
+	public synchronized boolean getResultFrameMirrored(int i)
+	{
+		Frame f = result(i, false);
+		return f != null && f.mirrored;
+	}
+
+	// null if format wasn't set, which SavingService treats as NV21
+	public synchronized String getResultFrameFormat(int i)
+	{
+		Frame f = result(i, false);
+		return f != null ? f.format : null;
+	}
+
+	public synchronized boolean hasResultFrameField(int i, int field)
+	{
+		Frame f = result(i, false);
+		return f != null && f.has(field);
+	}
+
+	/******************************************************************************************************
+	 * Per-frame capture metadata
+	 ******************************************************************************************************/
+	public synchronized void setFrameExposureTime(int i, String exposureTime)
+	{
+		Frame f = frame(i, true);
+		f.exposureTime = exposureTime;
+		f.fields |= Frame.EXPOSURE_TIME;
+	}
+
+	public synchronized String getFrameExposureTime(int i)
+	{
+		Frame f = frame(i, false);
+		return f != null ? f.exposureTime : null;
+	}
+
+	// CaptureResult is kept as Object to not load camera2 classes on old
+	// devices.
+	public synchronized void setCaptureResult(int i, Object captureResult)
+	{
+		frame(i, true).captureResult = captureResult;
+	}
+
+	public synchronized Object getCaptureResult(int i)
+	{
+		Frame f = frame(i, false);
+		return f != null ? f.captureResult : null;
+	}
+
+	/******************************************************************************************************
+	 * Session-wide values
+	 ******************************************************************************************************/
+	public synchronized void setInt(int id, int value)
+	{
+		ints[id] = value;
+		intsSet |= 1 << id;
+	}
+
+	public synchronized int getInt(int id, int defaultValue)
+	{
+		return (intsSet & (1 << id)) != 0 ? ints[id] : defaultValue;
+	}
+
+	public synchronized boolean hasInt(int id)
+	{
+		return (intsSet & (1 << id)) != 0;
+	}
+
+	public synchronized void unsetInt(int id)
+	{
+		intsSet &= ~(1 << id);
+	}
+
+	public synchronized void setBoolean(int id, boolean value)
+	{
+		bools[id] = value;
+		boolsSet |= 1 << id;
+	}
+
+	public synchronized boolean getBoolean(int id, boolean defaultValue)
+	{
+		return (boolsSet & (1 << id)) != 0 ? bools[id] : defaultValue;
+	}
+
+	public synchronized boolean hasBoolean(int id)
+	{
+		return (boolsSet & (1 << id)) != 0;
+	}
+
+	public synchronized void unsetBoolean(int id)
+	{
+		boolsSet &= ~(1 << id);
+	}
+
+	public synchronized void setString(int id, String value)
+	{
+		strings[id] = value;
+	}
+
+	public synchronized String getString(int id)
+	{
+		return strings[id];
+	}
+
+	/******************************************************************************************************
+	 * Untyped values of legacy keys without typed field
+	 ******************************************************************************************************/
+	synchronized void putExtra(String key, String value)
+	{
+		if (extras == null)
+			extras = new HashMap<String, String>();
+		extras.put(key, value);
+	}
+
+	synchronized String getExtra(String key)
+	{
+		return extras != null ? extras.get(key) : null;
+	}
+
+	synchronized boolean hasExtras()
+	{
+		return extras != null && !extras.isEmpty();
+	}
+
+	synchronized void removeExtra(String key)
+	{
+		if (extras != null)
+			extras.remove(key);
+	}
+
+	synchronized int size()
+	{
+		int size = Integer.bitCount(intsSet) + Integer.bitCount(boolsSet);
+		for (int i = 0; i < STR_COUNT; i++)
+			if (strings[i] != null)
+				size++;
+		for (int i = 0; i < frames.length; i++)
+			if (frames[i] != null)
+				size += Integer.bitCount(frames[i].fields);
+		for (int i = 0; i < results.length; i++)
+			if (results[i] != null)
+				size += Integer.bitCount(results[i].fields);
+		if (extras != null)
+			size += extras.size();
+		return size;
+	}
+
+	// Must be called with session lock held
+	Frame frame(int i, boolean create)
+	{
+		if (i < 0)
+			return null;
+		if (i >= frames.length)
+		{
+			if (!create)
+				return null;
+			frames = grow(frames, i);
+		}
+		if (frames[i] == null && create)
+			frames[i] = new Frame();
+		return frames[i];
+	}
+
+	// Must be called with session lock held
+	Frame result(int i, boolean create)
+	{
+		if (i < 0)
+			return null;
+		if (i >= results.length)
+		{
+			if (!create)
+				return null;
+			results = grow(results, i);
+		}
+		if (results[i] == null && create)
+			results[i] = new Frame();
+		return results[i];
+	}
+
+	private static Frame[] grow(Frame[] array, int index)
+	{
+		int length = array.length;
+		while (length <= index)
+			length *= 2;
+		Frame[] grown = new Frame[length];
+		System.arraycopy(array, 0, grown, 0, array.length);
+		return grown;
+	}
+}
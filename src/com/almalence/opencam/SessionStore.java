@@ -0,0 +1,604 @@
+/*
+The contents of this file are subject to the Mozilla Public License
+Version 1.1 (the "License"); you may not use this file except in
+compliance with the License. You may obtain a copy of the License at
+http://www.mozilla.org/MPL/
+
+Software distributed under the License is distributed on an "AS IS"
+basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+License for the specific language governing rights and limitations
+under the License.
+
+The Original Code is collection of files collectively known as Open Camera.
+
+The Initial Developer of the Original Code is Almalence Inc.
+Portions created by Initial Developer are Copyright (C) 2013
+by Almalence Inc. All Rights Reserved.
+ */
+
+/* <!-- +++
+ package com.almalence.opencam_plus;
+ +++ --> */
+//<!-- -+-
+package com.almalence.opencam;
+
+//-+- -->
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import android.util.Log;
+
+import com.almalence.NativeFrame;
+
+/***
+ * Storage of data shared between capture, processing and export plugins.
+ *
+ * Holds one SessionData object per capture session, so clearing a session is
+ * a single map removal. Also implements old string-keyed interface of shared
+ * memory (see doc/SharedMemory.txt) on top of typed session fields for plugins
+ * which still build keys like "resultframe" + i + sessionID.
+ ***/
+public class SessionStore
+{
+	// Session ids are Date.getTime() values, so every session key ends with
+	// exactly that many digits.
+	static final int								SESSION_ID_DIGITS		= 13;
+
+	private final ConcurrentHashMap<Long, SessionData>	sessions			= new ConcurrentHashMap<Long, SessionData>();
+
+	// keys not bound to any session, like "sessionID"
+	private final ConcurrentHashMap<String, String>		globals				= new ConcurrentHashMap<String, String>();
+	private final ConcurrentHashMap<String, Object>		globalObjects		= new ConcurrentHashMap<String, Object>();
+
+	// Legacy key names and their typed fields
+	private static final int						FRAME					= 0;
+	private static final int						FRAME_LEN				= 1;
+	private static final int						FRAME_ORIENTATION		= 2;
+	private static final int						FRAME_MIRRORED			= 3;
+	private static final int						FRAME_ISRAW				= 4;
+	private static final int						RESULT					= 5;
+	private static final int						RESULT_LEN				= 6;
+	private static final int						RESULT_ORIENTATION		= 7;
+	private static final int						RESULT_MIRRORED			= 8;
+	private static final int						RESULT_FORMAT			= 9;
+	private static final int						RESULT_CROP				= 10;
+	private static final int						EXPOSURE_TIME			= 11;
+	// session-wide fields are encoded as (kind << 8) | id
+	private static final int						KIND_INT				= 1 << 8;
+	private static final int						KIND_BOOL				= 2 << 8;
+	private static final int						KIND_STRING				= 3 << 8;
+
+	// Open addressing table of legacy key names, looked up by a range of key
+	// so that resolving a key doesn't cut substrings of it
+	private static final int						LEGACY_TABLE_SIZE		= 128;
+	private static final String[]					legacyNames				= new String[LEGACY_TABLE_SIZE];
+	private static final int[]						legacyFields			= new int[LEGACY_TABLE_SIZE];
+	static
+	{
+		legacy("frame", FRAME);
+		legacy("framelen", FRAME_LEN);
+		legacy("frameorientation", FRAME_ORIENTATION);
+		legacy("framemirrored", FRAME_MIRRORED);
+		legacy("frameisraw", FRAME_ISRAW);
+		legacy("resultframe", RESULT);
+		legacy("resultframelen", RESULT_LEN);
+		legacy("resultframeorientation", RESULT_ORIENTATION);
+		legacy("resultframemirrored", RESULT_MIRRORED);
+		legacy("resultframeformat", RESULT_FORMAT);
+		legacy("resultcrop", RESULT_CROP);
+		legacy("exiftag_exposure_time", EXPOSURE_TIME);
+
+		legacy("amountofcapturedframes", KIND_INT | SessionData.INT_CAPTURED_FRAMES);
+		legacy("amountofcapturedrawframes", KIND_INT | SessionData.INT_CAPTURED_RAW_FRAMES);
+		legacy("amountofresultframes", KIND_INT | SessionData.INT_RESULT_FRAMES);
+		legacy("resultframeindex", KIND_INT | SessionData.INT_RESULT_FRAME_INDEX);
+		legacy("saveImageWidth", KIND_INT | SessionData.INT_SAVE_IMAGE_WIDTH);
+		legacy("saveImageHeight", KIND_INT | SessionData.INT_SAVE_IMAGE_HEIGHT);
+		legacy("imageWidth", KIND_INT | SessionData.INT_IMAGE_WIDTH);
+		legacy("imageHeight", KIND_INT | SessionData.INT_IMAGE_HEIGHT);
+
+		legacy("resultfromshared", KIND_BOOL | SessionData.BOOL_RESULT_FROM_SHARED);
+		legacy("writeorientationtag", KIND_BOOL | SessionData.BOOL_WRITE_ORIENTATION_TAG);
+		legacy("cameraMirrored", KIND_BOOL | SessionData.BOOL_CAMERA_MIRRORED);
+		legacy("wantLandscapePhoto", KIND_BOOL | SessionData.BOOL_WANT_LANDSCAPE);
+		legacy("IsSlowMode", KIND_BOOL | SessionData.BOOL_SLOW_MODE);
+
+		legacy("mode_name", KIND_STRING | SessionData.STR_MODE_NAME);
+		legacy("modeSaveName", KIND_STRING | SessionData.STR_MODE_SAVE_NAME);
+		legacy("exiftag_aperture", KIND_STRING | SessionData.STR_EXIF_APERTURE);
+		legacy("exiftag_flash", KIND_STRING | SessionData.STR_EXIF_FLASH);
+		legacy("exiftag_focal_lenght", KIND_STRING | SessionData.STR_EXIF_FOCAL_LENGTH);
+		legacy("exiftag_iso", KIND_STRING | SessionData.STR_EXIF_ISO);
+		legacy("exiftag_white_balance", KIND_STRING | SessionData.STR_EXIF_WHITE_BALANCE);
+		legacy("exiftag_make", KIND_STRING | SessionData.STR_EXIF_MAKE);
+		legacy("exiftag_model", KIND_STRING | SessionData.STR_EXIF_MODEL);
+		legacy("exiftag_spectral_sensitivity", KIND_STRING | SessionData.STR_EXIF_SPECTRAL_SENSITIVITY);
+		legacy("exiftag_version", KIND_STRING | SessionData.STR_EXIF_VERSION);
+		legacy("exiftag_scene_capture_type", KIND_STRING | SessionData.STR_EXIF_SCENE_CAPTURE_TYPE);
+		legacy("exiftag_metering_mode", KIND_STRING | SessionData.STR_EXIF_METERING_MODE);
+	}
+
+	private static void legacy(String name, int field)
+	{
+		int slot = hash(name, 0, name.length());
+		while (legacyNames[slot] != null)
+			slot = (slot + 1) & (LEGACY_TABLE_SIZE - 1);
+		legacyNames[slot] = name;
+		legacyFields[slot] = field;
+	}
+
+	// Field of legacy key name key[from, to) or -1
+	private static int legacyField(String key, int from, int to)
+	{
+		int length = to - from;
+		for (int slot = hash(key, from, to); legacyNames[slot] != null; slot = (slot + 1) & (LEGACY_TABLE_SIZE - 1))
+		{
+			String name = legacyNames[slot];
+			if (name.length() == length && key.regionMatches(from, name, 0, length))
+				return legacyFields[slot];
+		}
+		return -1;
+	}
+
+	private static int hash(String key, int from, int to)
+	{
+		int h = 0;
+		for (int i = from; i < to; i++)
+			h = 31 * h + key.charAt(i);
+		return (h ^ (h >>> 7)) & (LEGACY_TABLE_SIZE - 1);
+	}
+
+	// Returns data of session, creating it on first access.
+	public SessionData getSession(long sessionID)
+	{
+		Long key = Long.valueOf(sessionID);
+		SessionData session = sessions.get(key);
+		if (session == null)
+		{
+			SessionData created = new SessionData(sessionID);
+			session = sessions.putIfAbsent(key, created);
+			if (session == null)
+				session = created;
+		}
+		return session;
+	}
+
+	// Returns data of session or null if nothing was stored for it.
+	public SessionData peekSession(long sessionID)
+	{
+		return sessions.get(Long.valueOf(sessionID));
+	}
+
+	// Removes session data and frees native frames session still owns
+	public void clearSession(long sessionID)
+	{
+		sessions.remove(Long.valueOf(sessionID));
+		int leaked = NativeFrame.releaseSession(sessionID);
+		if (leaked > 0)
+			Log.w("SessionStore", "Session " + sessionID + " left " + leaked + " native frames, freed");
+	}
+
+	// Stores object under "captureResult" + n + sessionID key.
+	public void putCaptureResult(String key, Object result)
+	{
+		int keyLength = sessionKeyLength(key);
+		int index = keyLength < 0 ? -1 : captureResultIndex(key, keyLength);
+		if (index < 0)
+		{
+			globalObjects.put(key, result);
+			return;
+		}
+
+		getSession(parseSessionID(key, keyLength)).setCaptureResult(index, result);
+	}
+
+	public Object getCaptureResult(String key)
+	{
+		int keyLength = sessionKeyLength(key);
+		int index = keyLength < 0 ? -1 : captureResultIndex(key, keyLength);
+		if (index < 0)
+			return globalObjects.get(key);
+
+		SessionData session = peekSession(parseSessionID(key, keyLength));
+		return session != null ? session.getCaptureResult(index) : null;
+	}
+
+	private static int captureResultIndex(String key, int keyLength)
+	{
+		int start = indexStart(key, keyLength);
+		if (start != "captureResult".length() || !key.startsWith("captureResult"))
+			return -1;
+		return parseIndex(key, start, keyLength);
+	}
+
+	public int size()
+	{
+		int size = globals.size();
+		for (SessionData session : sessions.values())
+			size += session.size();
+		return size;
+	}
+
+	/******************************************************************************************************
+	 * String-keyed interface
+	 ******************************************************************************************************/
+	public void put(String key, String value)
+	{
+		int keyLength = sessionKeyLength(key);
+		if (keyLength < 0)
+		{
+			globals.put(key, value);
+			return;
+		}
+
+		SessionData session = getSession(parseSessionID(key, keyLength));
+		synchronized (session)
+		{
+			long resolved = resolve(key, keyLength);
+			if (putTyped(session, resolved, value))
+			{
+				if (session.hasExtras())
+					session.removeExtra(key.substring(0, keyLength));
+			} else
+			{
+				// typed value set before would shadow this one
+				removeTyped(session, resolved);
+				session.putExtra(key.substring(0, keyLength), value);
+			}
+		}
+	}
+
+	public String get(String key)
+	{
+		int keyLength = sessionKeyLength(key);
+		if (keyLength < 0)
+			return globals.get(key);
+
+		SessionData session = peekSession(parseSessionID(key, keyLength));
+		if (session == null)
+			return null;
+
+		synchronized (session)
+		{
+			String value = getTyped(session, resolve(key, keyLength));
+			if (value != null || !session.hasExtras())
+				return value;
+			return session.getExtra(key.substring(0, keyLength));
+		}
+	}
+
+	public void remove(String key)
+	{
+		int keyLength = sessionKeyLength(key);
+		if (keyLength < 0)
+		{
+			globals.remove(key);
+			return;
+		}
+
+		SessionData session = peekSession(parseSessionID(key, keyLength));
+		if (session == null)
+			return;
+
+		synchronized (session)
+		{
+			removeTyped(session, resolve(key, keyLength));
+			if (session.hasExtras())
+				session.removeExtra(key.substring(0, keyLength));
+		}
+	}
+
+	// Length of key without session id or -1 if key isn't bound to a session.
+	private static int sessionKeyLength(String key)
+	{
+		int length = key.length();
+		if (length <= SESSION_ID_DIGITS)
+			return -1;
+		for (int i = length - SESSION_ID_DIGITS; i < length; i++)
+		{
+			char c = key.charAt(i);
+			if (c < '0' || c > '9')
+				return -1;
+		}
+		return length - SESSION_ID_DIGITS;
+	}
+
+	private static long parseSessionID(String key, int from)
+	{
+		long id = 0;
+		for (int i = from; i < key.length(); i++)
+			id = id * 10 + (key.charAt(i) - '0');
+		return id;
+	}
+
+	// Position where index starts in key[0, keyLength) like "resultframe12"
+	private static int indexStart(String key, int keyLength)
+	{
+		int i = keyLength;
+		while (i > 0 && Character.isDigit(key.charAt(i - 1)))
+			i--;
+		return i;
+	}
+
+	// Index in key[from, keyLength) or -1 if key has no index
+	private static int parseIndex(String key, int from, int keyLength)
+	{
+		if (from == keyLength || keyLength - from > 9)
+			return -1;
+		int index = 0;
+		for (int i = from; i < keyLength; i++)
+			index = index * 10 + (key.charAt(i) - '0');
+		return index;
+	}
+
+	// Maps key without session id, key[0, keyLength), to typed field. Returns
+	// field in low 16 bits and frame index + 1 (0 if key has no index) in high
+	// bits, or -1 if key has no typed field.
+	private static long resolve(String key, int keyLength)
+	{
+		int field = legacyField(key, 0, keyLength);
+		if (field >= 0)
+			return field;
+
+		int start = indexStart(key, keyLength);
+		field = legacyField(key, 0, start);
+		int index = parseIndex(key, start, keyLength);
+		if (field < 0 || index < 0 || field >= KIND_INT)
+			return -1;
+		return ((long) (index + 1) << 16) | field;
+	}
+
+	private static boolean putTyped(SessionData session, long resolved, String value)
+	{
+		if (resolved < 0 || value == null)
+			return false;
+
+		int f = (int) (resolved & 0xFFFF);
+		int index = (int) (resolved >> 16) - 1;
+		try
+		{
+			switch (f & ~0xFF)
+			{
+			case KIND_INT:
+				session.setInt(f & 0xFF, Integer.parseInt(value));
+				return true;
+			case KIND_BOOL:
+				if (!isBoolean(value))
+					return false;
+				session.setBoolean(f & 0xFF, Boolean.parseBoolean(value));
+				return true;
+			case KIND_STRING:
+				session.setString(f & 0xFF, value);
+				return true;
+			default:
+				break;
+			}
+
+			if (index < 0)
+			{
+				// "exiftag_exposure_time" is also stored once per session
+				if (f == EXPOSURE_TIME)
+				{
+					session.setString(SessionData.STR_EXIF_EXPOSURE_TIME, value);
+					return true;
+				}
+				return false;
+			}
+
+			SessionData.Frame frame;
+			switch (f)
+			{
+			case FRAME:
+				frame = session.frame(index, true);
+				frame.handle = Integer.parseInt(value);
+				frame.fields |= SessionData.Frame.HANDLE;
+				return true;
+			case FRAME_LEN:
+				frame = session.frame(index, true);
+				frame.length = Integer.parseInt(value);
+				frame.fields |= SessionData.Frame.LENGTH;
+				return true;
+			case FRAME_ORIENTATION:
+				frame = session.frame(index, true);
+				frame.orientation = Integer.parseInt(value);
+				frame.fields |= SessionData.Frame.ORIENTATION;
+				return true;
+			case FRAME_MIRRORED:
+				if (!isBoolean(value))
+					return false;
+				frame = session.frame(index, true);
+				frame.mirrored = Boolean.parseBoolean(value);
+				frame.fields |= SessionData.Frame.MIRRORED;
+				return true;
+			case FRAME_ISRAW:
+				if (!isBoolean(value))
+					return false;
+				frame = session.frame(index, true);
+				frame.raw = Boolean.parseBoolean(value);
+				frame.fields |= SessionData.Frame.RAW;
+				return true;
+			case EXPOSURE_TIME:
+				frame = session.frame(index, true);
+				frame.exposureTime = value;
+				frame.fields |= SessionData.Frame.EXPOSURE_TIME;
+				return true;
+			case RESULT:
+				frame = session.result(index, true);
+				frame.handle = Integer.parseInt(value);
+				frame.fields |= SessionData.Frame.HANDLE;
+				return true;
+			case RESULT_LEN:
+				frame = session.result(index, true);
+				frame.length = Integer.parseInt(value);
+				frame.fields |= SessionData.Frame.LENGTH;
+				return true;
+			case RESULT_ORIENTATION:
+				frame = session.result(index, true);
+				frame.orientation = Integer.parseInt(value);
+				frame.fields |= SessionData.Frame.ORIENTATION;
+				return true;
+			case RESULT_MIRRORED:
+				if (!isBoolean(value))
+					return false;
+				frame = session.result(index, true);
+				frame.mirrored = Boolean.parseBoolean(value);
+				frame.fields |= SessionData.Frame.MIRRORED;
+				return true;
+			case RESULT_FORMAT:
+				frame = session.result(index, true);
+				frame.format = value;
+				frame.fields |= SessionData.Frame.FORMAT;
+				return true;
+			case RESULT_CROP:
+				if (index > 3)
+					return false;
+				session.setInt(SessionData.INT_CROP_LEFT + index, Integer.parseInt(value));
+				return true;
+			default:
+				return false;
+			}
+		} catch (NumberFormatException e)
+		{
+			// not a number - keep value as is
+			return false;
+		}
+	}
+
+	private static String getTyped(SessionData session, long resolved)
+	{
+		if (resolved < 0)
+			return null;
+
+		int f = (int) (resolved & 0xFFFF);
+		int index = (int) (resolved >> 16) - 1;
+		switch (f & ~0xFF)
+		{
+		case KIND_INT:
+			return session.hasInt(f & 0xFF) ? String.valueOf(session.getInt(f & 0xFF, 0)) : null;
+		case KIND_BOOL:
+			return session.hasBoolean(f & 0xFF) ? String.valueOf(session.getBoolean(f & 0xFF, false)) : null;
+		case KIND_STRING:
+			return session.getString(f & 0xFF);
+		default:
+			break;
+		}
+
+		if (index < 0)
+			return f == EXPOSURE_TIME ? session.getString(SessionData.STR_EXIF_EXPOSURE_TIME) : null;
+
+		if (f == RESULT_CROP)
+		{
+			int id = SessionData.INT_CROP_LEFT + index;
+			return index <= 3 && session.hasInt(id) ? String.valueOf(session.getInt(id, 0)) : null;
+		}
+
+		boolean isResult = f >= RESULT && f <= RESULT_FORMAT;
+		SessionData.Frame frame = isResult ? session.result(index, false) : session.frame(index, false);
+		if (frame == null)
+			return null;
+
+		switch (f)
+		{
+		case FRAME:
+		case RESULT:
+			return frame.has(SessionData.Frame.HANDLE) ? String.valueOf(frame.handle) : null;
+		case FRAME_LEN:
+		case RESULT_LEN:
+			return frame.has(SessionData.Frame.LENGTH) ? String.valueOf(frame.length) : null;
+		case FRAME_ORIENTATION:
+		case RESULT_ORIENTATION:
+			return frame.has(SessionData.Frame.ORIENTATION) ? String.valueOf(frame.orientation) : null;
+		case FRAME_MIRRORED:
+		case RESULT_MIRRORED:
+			return frame.has(SessionData.Frame.MIRRORED) ? String.valueOf(frame.mirrored) : null;
+		case FRAME_ISRAW:
+			return frame.has(SessionData.Frame.RAW) ? String.valueOf(frame.raw) : null;
+		case RESULT_FORMAT:
+			return frame.format;
+		case EXPOSURE_TIME:
+			return frame.exposureTime;
+		default:
+			return null;
+		}
+	}
+
+	private static void removeTyped(SessionData session, long resolved)
+	{
+		if (resolved < 0)
+			return;
+
+		int f = (int) (resolved & 0xFFFF);
+		int index = (int) (resolved >> 16) - 1;
+		switch (f & ~0xFF)
+		{
+		case KIND_INT:
+			session.unsetInt(f & 0xFF);
+			return;
+		case KIND_BOOL:
+			session.unsetBoolean(f & 0xFF);
+			return;
+		case KIND_STRING:
+			session.setString(f & 0xFF, null);
+			return;
+		default:
+			break;
+		}
+
+		if (index < 0)
+		{
+			if (f == EXPOSURE_TIME)
+				session.setString(SessionData.STR_EXIF_EXPOSURE_TIME, null);
+			return;
+		}
+
+		if (f == RESULT_CROP)
+		{
+			if (index <= 3)
+				session.unsetInt(SessionData.INT_CROP_LEFT + index);
+			return;
+		}
+
+		boolean isResult = f >= RESULT && f <= RESULT_FORMAT;
+		SessionData.Frame frame = isResult ? session.result(index, false) : session.frame(index, false);
+		if (frame == null)
+			return;
+
+		switch (f)
+		{
+		case FRAME:
+		case RESULT:
+			frame.fields &= ~SessionData.Frame.HANDLE;
+			break;
+		case FRAME_LEN:
+		case RESULT_LEN:
+			frame.fields &= ~SessionData.Frame.LENGTH;
+			break;
+		case FRAME_ORIENTATION:
+		case RESULT_ORIENTATION:
+			frame.fields &= ~SessionData.Frame.ORIENTATION;
+			break;
+		case FRAME_MIRRORED:
+		case RESULT_MIRRORED:
+			frame.fields &= ~SessionData.Frame.MIRRORED;
+			break;
+		case FRAME_ISRAW:
+			frame.fields &= ~SessionData.Frame.RAW;
+			break;
+		case RESULT_FORMAT:
+			frame.format = null;
+			frame.fields &= ~SessionData.Frame.FORMAT;
+			break;
+		case EXPOSURE_TIME:
+			frame.exposureTime = null;
+			frame.fields &= ~SessionData.Frame.EXPOSURE_TIME;
+			break;
+		default:
+			break;
+		}
+	}
+
+	private static boolean isBoolean(String value)
+	{
+		return "true".equalsIgnoreCase(value) || "false".equalsIgnoreCase(value);
+	}
+}
@@ -3467,6 +3467,11 @@ public class Camera2Controller
 		}
 	}
 	
+	// Preview frames are converted to NV21 into these buffers
+	private static PreviewFramePool	previewFramePool		= null;
+	// each preview consumer may hold one frame in work and one in its mailbox
+	private static final int		PREVIEW_BUFFERS_COUNT	= 5;
+
 	public final static ImageReader.OnImageAvailableListener imageAvailableListener = new ImageReader.OnImageAvailableListener()
 	{
 		@Override
@@ -3506,7 +3511,24 @@ public class Camera2Controller
 				// - U and V strides are the same
 				// So, passing all these parameters is a bit overkill
 
-				byte[] data = YuvImage.CreateYUVImageByteArray(
+				int bufferSize = imageWidth * imageHeight + imageWidth * ((imageHeight + 1) / 2);
+				PreviewFramePool pool = previewFramePool;
+				if (pool == null || pool.getBufferSize() != bufferSize)
+				{
+					if (pool != null)
+						pool.close();
+					pool = previewFramePool = new PreviewFramePool(bufferSize, PREVIEW_BUFFERS_COUNT);
+				}
+
+				// All buffers are still used by consumers - drop the frame
+				PreviewFrame frame = pool.obtain(imageWidth, imageHeight, im.getTimestamp());
+				if (frame == null)
+				{
+					im.close();
+					return;
+				}
+
+				int status = YuvImage.FillYUVImageByteArray(
 								Y,
 								U,
 								V,
@@ -3517,9 +3539,19 @@ public class Camera2Controller
 								im.getPlanes()[2].getPixelStride(),
 								im.getPlanes()[2].getRowStride(),
 								imageWidth,
-								imageHeight);
+								imageHeight,
+								frame.getData());
 
-				pluginManager.onPreviewFrame(data);
+				try
+				{
+					if (status == 0)
+						pluginManager.onPreviewFrame(frame);
+					else
+						Log.e(TAG, "Can't extract preview frame, error " + status);
+				} finally
+				{
+					frame.release();
+				}
 			} else
 			{
 				int frame = 0;
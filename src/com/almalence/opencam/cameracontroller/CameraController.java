@@ -354,8 +354,11 @@ public class CameraController implements Camera.PictureCallback, Camera.AutoFocu
 	private static Camera							camera							= null;
 	private static Camera.Parameters				cameraParameters				= null;
 
-	//Buffer for preview frames. It used to increase preview fps.
-	private static byte[]							pviewBuffer;
+	//Buffers for preview frames. They are used to increase preview fps and
+	//avoid allocation of new array for each frame.
+	private static PreviewFramePool					previewFramePool				= null;
+	// each preview consumer may hold one frame in work and one in its mailbox
+	private static final int						PREVIEW_BUFFERS_COUNT			= 5;
 
 	// Message handler for multishot capturing with pause between shots
 	// and different exposure compensations
@@ -1113,9 +1116,18 @@ public class CameraController implements Camera.PictureCallback, Camera.AutoFocu
 	/* Preview buffer methods */
 	public static void allocatePreviewBuffer(double size)
 	{
+		int bufferSize = (int) Math.ceil(size);
+		if (previewFramePool != null)
+		{
+			if (previewFramePool.getBufferSize() == bufferSize)
+				return;
+			previewFramePool.close();
+			previewFramePool = null;
+		}
+
 		try
 		{
-			pviewBuffer = new byte[(int) Math.ceil(size)];
+			previewFramePool = new PreviewFramePool(bufferSize, PREVIEW_BUFFERS_COUNT);
 		}
 		catch(OutOfMemoryError e)
 		{
@@ -1125,7 +1137,8 @@ public class CameraController implements Camera.PictureCallback, Camera.AutoFocu
 
 		    try
 		    {
-		    	pviewBuffer = new byte[(int) Math.ceil(size)];
+		    	// one buffer still lets preview work, with frames dropped while it is in use
+		    	previewFramePool = new PreviewFramePool(bufferSize, 1);
 		    }
 		    catch (OutOfMemoryError e2)
 		    {
@@ -1134,9 +1147,9 @@ public class CameraController implements Camera.PictureCallback, Camera.AutoFocu
 		}
 	}
 
-	public static byte[] getPreviewBuffer()
+	public static PreviewFramePool getPreviewFramePool()
 	{
-		return pviewBuffer;
+		return previewFramePool;
 	}
 
 	/* ^^^ Preview buffer methods */
@@ -4625,10 +4638,31 @@ public class CameraController implements Camera.PictureCallback, Camera.AutoFocu
 	@Override
 	public void onPreviewFrame(byte[] data, Camera camera)
 	{
-		pluginManager.onPreviewFrame(data);
-		if(pviewBuffer != null)
-			CameraController.getCamera().addCallbackBuffer(pviewBuffer);
+		PreviewFrame frame = null;
+		if (previewFramePool != null)
+			frame = previewFramePool.wrap(data, ApplicationScreen.getPreviewWidth(),
+					ApplicationScreen.getPreviewHeight(), System.nanoTime());
+
+		if (frame == null)
+		{
+			pluginManager.onPreviewFrame(data);
+			handlePreviewFrame(data);
+			return;
+		}
 
+		//Buffer goes back to camera when frame is released by all consumers
+		try
+		{
+			pluginManager.onPreviewFrame(frame);
+			handlePreviewFrame(data);
+		} finally
+		{
+			frame.release();
+		}
+	}
+
+	private void handlePreviewFrame(byte[] data)
+	{
 		//If capture plugin request image with size equals size of preview frame
 		//These tricky logic isn't affects capture plugin. It still request and received image as usual
 		if (takePreviewFrame)
@@ -4686,10 +4720,30 @@ public class CameraController implements Camera.PictureCallback, Camera.AutoFocu
 			{
 				//If preview buffer are allocated use preview callback with buffer
 				//instead use preview callback without buffer - it may to slow preview frame rate
-				if(CameraController.pviewBuffer != null)
+				if(CameraController.previewFramePool != null)
 				{
+					// null callback clears buffers queued to camera before
+					CameraController.getCamera().setPreviewCallbackWithBuffer(null);
 					CameraController.getCamera().setPreviewCallbackWithBuffer(CameraController.getInstance());
-					CameraController.getCamera().addCallbackBuffer(CameraController.pviewBuffer);
+					CameraController.previewFramePool.setRecycler(new PreviewFramePool.Recycler()
+					{
+						@Override
+						public void onRecycle(PreviewFrame frame)
+						{
+							Camera camera = CameraController.getCamera();
+							try
+							{
+								if (camera != null)
+									camera.addCallbackBuffer(frame.getData());
+							} catch (RuntimeException e)
+							{
+								// camera was released meanwhile
+								e.printStackTrace();
+							}
+						}
+					});
+					for (byte[] buffer : CameraController.previewFramePool.takeIdleBuffers())
+						CameraController.getCamera().addCallbackBuffer(buffer);
 				}
 				else
 					CameraController.getCamera().setPreviewCallback(CameraController.getInstance());
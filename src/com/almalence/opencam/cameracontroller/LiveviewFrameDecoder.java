@@ -0,0 +1,315 @@
+/*
+	CameraController for OpenCamera project - interface to camera device
+    Copyright (C) 2014  Almalence Inc.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/* <!-- +++
+ package com.almalence.opencam_plus.cameracontroller;
+ +++ --> */
+// <!-- -+-
+package com.almalence.opencam.cameracontroller;
+
+//-+- -->
+
+import com.almalence.util.ImageConversion;
+
+/***
+ * Decodes remote camera liveview jpegs to NV21 preview frames on its own
+ * thread.
+ *
+ * Liveview thread only copies jpeg into mailbox of one frame: if decoder is
+ * still busy when next jpeg arrives, pending jpeg is replaced by the newer one.
+ * Frames are decoded straight into buffers of PreviewFramePool. Frame size is
+ * taken from jpeg header, as cameras send liveview of different sizes and
+ * aspect ratios, and jpeg bigger than maximum frame size is downscaled by 2, 4
+ * or 8 while decoding.
+ ***/
+public class LiveviewFrameDecoder
+{
+	public interface Listener
+	{
+		// Called on decoder thread. Frame is released after return.
+		void onFrameDecoded(PreviewFrame frame);
+	}
+
+	// decoded frames may be held by plugin workers while next one is decoded
+	private static final int		POOL_SIZE			= 3;
+	private static final int		INITIAL_JPEG_SIZE	= 64 * 1024;
+	// how long stop waits for current frame to be decoded, ms
+	private static final long		STOP_TIMEOUT		= 200;
+
+	private final Listener			listener;
+	private Thread					thread				= null;
+	private boolean					running				= false;
+
+	// jpeg waiting for decoder and jpeg being decoded, swapped on take
+	private byte[]					pending				= new byte[INITIAL_JPEG_SIZE];
+	private byte[]					working				= new byte[INITIAL_JPEG_SIZE];
+	private int						pendingLength		= 0;
+	private long					pendingTime			= 0;
+	private boolean					hasPending			= false;
+
+	private int						maxWidth			= 0;
+	private int						maxHeight			= 0;
+
+	// size of frames in pool
+	private int						width				= 0;
+	private int						height				= 0;
+	private PreviewFramePool		pool				= null;
+	private final int[]				jpegSize			= new int[2];
+
+	private long					decoded				= 0;
+	private long					dropped				= 0;
+	private long					failed				= 0;
+
+	public LiveviewFrameDecoder(Listener listener)
+	{
+		this.listener = listener;
+	}
+
+	// Jpegs bigger than this are decoded to NV21 frames 2, 4 or 8 times
+	// smaller, the smallest scale which fits. 0 is no limit.
+	public synchronized void setMaxFrameSize(int width, int height)
+	{
+		maxWidth = width;
+		maxHeight = height;
+	}
+
+	/**
+	 * Copies jpeg to mailbox and wakes decoder, starting it if needed. Called
+	 * on liveview thread, data may be reused after return.
+	 */
+	public synchronized void offer(byte[] jpeg, int offset, int length)
+	{
+		if (pending.length < length)
+			pending = new byte[length + length / 2];
+		System.arraycopy(jpeg, offset, pending, 0, length);
+		pendingLength = length;
+		pendingTime = System.nanoTime();
+
+		if (hasPending)
+			dropped++;
+		hasPending = true;
+
+		if (thread == null)
+		{
+			running = true;
+			thread = new Thread(new Worker(), "LiveviewDecoder");
+			thread.setDaemon(true);
+			thread.start();
+		} else
+			notify();
+	}
+
+	// Stops decoder and drops pending jpeg. Started again by next offer.
+	public void stop()
+	{
+		Thread stopped;
+		synchronized (this)
+		{
+			stopped = thread;
+			thread = null;
+			running = false;
+			hasPending = false;
+			if (pool != null)
+			{
+				pool.close();
+				pool = null;
+			}
+			notify();
+		}
+
+		if (stopped != null)
+		{
+			try
+			{
+				stopped.join(STOP_TIMEOUT);
+			} catch (InterruptedException e)
+			{
+				e.printStackTrace();
+			}
+		}
+	}
+
+	public synchronized long getDecodedFrames()
+	{
+		return decoded;
+	}
+
+	// jpegs replaced by newer ones before decoder took them
+	public synchronized long getDroppedFrames()
+	{
+		return dropped;
+	}
+
+	public synchronized long getFailedFrames()
+	{
+		return failed;
+	}
+
+	// Smallest of 1, 2, 4 and 8 which makes jpeg fit into max size. Jpeg
+	// larger than 8 times max size is decoded at 1/8.
+	static int getScale(int jpegWidth, int jpegHeight, int maxWidth, int maxHeight)
+	{
+		if (maxWidth <= 0 || maxHeight <= 0)
+			return 1;
+		int scale = 1;
+		while (scale < 8
+				&& ((jpegWidth + scale - 1) / scale > maxWidth || (jpegHeight + scale - 1) / scale > maxHeight))
+			scale *= 2;
+		return scale;
+	}
+
+	/**
+	 * Reads image size from SOF marker of jpeg, without decoding it. Stops at
+	 * start of scan, so only header segments are walked through.
+	 * 
+	 * @return false if there is no SOF marker before image data
+	 */
+	static boolean readJpegSize(byte[] jpeg, int offset, int length, int[] size)
+	{
+		int end = offset + length;
+		if (length < 4 || (jpeg[offset] & 0xFF) != 0xFF || (jpeg[offset + 1] & 0xFF) != 0xD8)
+			return false;
+		int pos = offset + 2;
+		while (pos + 4 <= end)
+		{
+			if ((jpeg[pos] & 0xFF) != 0xFF)
+				return false;
+			int marker = jpeg[pos + 1] & 0xFF;
+			if (marker == 0xFF)
+			{
+				// fill byte
+				pos++;
+				continue;
+			}
+			if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7))
+			{
+				// markers without segment
+				pos += 2;
+				continue;
+			}
+			if (marker == 0xD9 || marker == 0xDA)
+				return false;
+			int segmentLength = ((jpeg[pos + 2] & 0xFF) << 8) | (jpeg[pos + 3] & 0xFF);
+			// SOF0..SOF15, except DHT, JPG and DAC which share the range
+			if (marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC)
+			{
+				if (segmentLength < 7 || pos + 9 > end)
+					return false;
+				size[1] = ((jpeg[pos + 5] & 0xFF) << 8) | (jpeg[pos + 6] & 0xFF);
+				size[0] = ((jpeg[pos + 7] & 0xFF) << 8) | (jpeg[pos + 8] & 0xFF);
+				return size[0] > 0 && size[1] > 0;
+			}
+			if (segmentLength < 2)
+				return false;
+			pos += 2 + segmentLength;
+		}
+		return false;
+	}
+
+	/******************************************************************************************************
+	 * Decoder thread
+	 ******************************************************************************************************/
+	private class Worker implements Runnable
+	{
+		@Override
+		public void run()
+		{
+			while (true)
+			{
+				int length;
+				long timestamp;
+				byte[] jpeg;
+				PreviewFrame frame;
+				int sx;
+				int sy;
+				synchronized (LiveviewFrameDecoder.this)
+				{
+					while (running && !hasPending)
+					{
+						try
+						{
+							LiveviewFrameDecoder.this.wait();
+						} catch (InterruptedException e)
+						{
+							running = false;
+						}
+					}
+					if (!running || thread != Thread.currentThread())
+						return;
+
+					jpeg = pending;
+					pending = working;
+					working = jpeg;
+					length = pendingLength;
+					timestamp = pendingTime;
+					hasPending = false;
+
+					if (!readJpegSize(jpeg, 0, length, jpegSize))
+					{
+						failed++;
+						continue;
+					}
+					int scale = getScale(jpegSize[0], jpegSize[1], maxWidth, maxHeight);
+					// rounded up the same way libjpeg does
+					sx = (jpegSize[0] + scale - 1) / scale;
+					sy = (jpegSize[1] + scale - 1) / scale;
+					if (pool != null && (sx != width || sy != height))
+					{
+						// frames held by plugins are freed on their release
+						pool.close();
+						pool = null;
+					}
+					if (pool == null)
+					{
+						width = sx;
+						height = sy;
+						pool = new PreviewFramePool(sx * sy + 2 * ((sx + 1) / 2) * ((sy + 1) / 2), POOL_SIZE);
+					}
+					// null if all buffers are still held by plugins
+					frame = pool.obtain(sx, sy, timestamp);
+				}
+
+				if (frame == null)
+					continue;
+
+				try
+				{
+					boolean ok = ImageConversion.JpegDecodeToNV21(jpeg, 0, length, frame.getData(), sx, sy);
+					synchronized (LiveviewFrameDecoder.this)
+					{
+						// decoder was stopped meanwhile, frame is of old session
+						if (thread != Thread.currentThread())
+							return;
+						if (ok)
+							decoded++;
+						else
+							failed++;
+					}
+					if (ok)
+						listener.onFrameDecoded(frame);
+				} catch (RuntimeException e)
+				{
+					e.printStackTrace();
+				} finally
+				{
+					frame.release();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,274 @@
+/*
+	CameraController for OpenCamera project - interface to camera device
+    Copyright (C) 2014  Almalence Inc.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/* <!-- +++
+ package com.almalence.opencam_plus.cameracontroller;
+ +++ --> */
+// <!-- -+-
+package com.almalence.opencam.cameracontroller;
+
+//-+- -->
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/***
+ * Delivers preview frames to consumers off the camera callback thread.
+ *
+ * Every consumer has its own worker thread with a mailbox of one frame: if
+ * consumer is still busy with previous frame when next one arrives, pending
+ * frame is replaced by the newer one (latest frame wins). So slow consumer
+ * never delays camera or other consumers, it just sees less frames.
+ *
+ * Consumer declares how many frames per second it wants, frames arriving
+ * more often are skipped before they are queued.
+ ***/
+public class PreviewDispatcher
+{
+	public interface Consumer
+	{
+		// Called on consumer's worker thread. Frame is released after return,
+		// consumer that keeps data longer has to acquire() it.
+		void onPreviewFrame(PreviewFrame frame);
+
+		// Frames per second consumer wants to get, RATE_ALL or RATE_NONE
+		int getPreviewFrameRate();
+	}
+
+	public static final int					RATE_ALL			= 0;
+	public static final int					RATE_NONE			= -1;
+
+	// how long shutdown waits for consumer to finish current frame, ms
+	private static final long				STOP_TIMEOUT		= 200;
+
+	private final Map<Consumer, Worker>		workers				= new HashMap<Consumer, Worker>();
+
+	// Called on camera thread for each consumer of the frame. Frame stays
+	// referenced by caller, dispatcher acquires its own reference.
+	public synchronized void dispatch(Consumer consumer, PreviewFrame frame)
+	{
+		int rate = consumer.getPreviewFrameRate();
+		if (rate == RATE_NONE)
+			return;
+
+		Worker worker = workers.get(consumer);
+		if (worker == null)
+		{
+			worker = new Worker(consumer);
+			workers.put(consumer, worker);
+		}
+		worker.offer(frame, rate);
+	}
+
+	// Stops all workers and releases frames they didn't take yet. Workers are
+	// created again on next dispatch.
+	public void shutdown()
+	{
+		List<Worker> stopped;
+		synchronized (this)
+		{
+			stopped = new ArrayList<Worker>(workers.values());
+			workers.clear();
+		}
+
+		for (Worker worker : stopped)
+			worker.stop();
+		for (Worker worker : stopped)
+			worker.join(STOP_TIMEOUT);
+	}
+
+	public synchronized List<Worker> getWorkers()
+	{
+		return new ArrayList<Worker>(workers.values());
+	}
+
+	/******************************************************************************************************
+	 * Consumer worker
+	 ******************************************************************************************************/
+	public static class Worker implements Runnable
+	{
+		private final Consumer	consumer;
+		private final Thread	thread;
+		private boolean			running			= true;
+
+		private PreviewFrame	pending			= null;
+		private long			pendingTime		= 0;
+		private long			lastTimestamp	= 0;
+		private boolean			accepted		= false;
+
+		private long			processed		= 0;
+		private long			skipped			= 0;
+		private long			dropped			= 0;
+		private long			totalLatency	= 0;
+		private long			maxLatency		= 0;
+
+		Worker(Consumer consumer)
+		{
+			this.consumer = consumer;
+			thread = new Thread(this, "Preview-" + consumer.getClass().getSimpleName());
+			thread.start();
+		}
+
+		synchronized void offer(PreviewFrame frame, int rate)
+		{
+			if (!running)
+				return;
+
+			// timestamp going back means new preview source, don't skip
+			long timestamp = frame.getTimestamp();
+			long interval = rate > 0 ? 1000000000L / rate : 0;
+			long elapsed = timestamp - lastTimestamp;
+			if (accepted && elapsed >= 0 && elapsed < interval)
+			{
+				skipped++;
+				return;
+			}
+			// keep to the schedule, so camera fps which isn't multiple of rate
+			// doesn't lower the rate
+			if (accepted && elapsed >= 0 && elapsed < 2 * interval)
+				lastTimestamp += interval;
+			else
+				lastTimestamp = timestamp;
+			accepted = true;
+
+			frame.acquire();
+			if (pending != null)
+			{
+				pending.release();
+				dropped++;
+			}
+			pending = frame;
+			pendingTime = System.nanoTime();
+			notify();
+		}
+
+		@Override
+		public void run()
+		{
+			while (true)
+			{
+				PreviewFrame frame;
+				long queued;
+				synchronized (this)
+				{
+					while (running && pending == null)
+					{
+						try
+						{
+							wait();
+						} catch (InterruptedException e)
+						{
+							running = false;
+						}
+					}
+					if (!running)
+						return;
+
+					frame = pending;
+					queued = pendingTime;
+					pending = null;
+				}
+
+				try
+				{
+					consumer.onPreviewFrame(frame);
+				} catch (RuntimeException e)
+				{
+					e.printStackTrace();
+				} finally
+				{
+					frame.release();
+				}
+
+				long latency = System.nanoTime() - queued;
+				synchronized (this)
+				{
+					processed++;
+					totalLatency += latency;
+					if (latency > maxLatency)
+						maxLatency = latency;
+				}
+			}
+		}
+
+		synchronized void stop()
+		{
+			running = false;
+			if (pending != null)
+			{
+				pending.release();
+				pending = null;
+			}
+			notify();
+		}
+
+		void join(long timeout)
+		{
+			try
+			{
+				thread.join(timeout);
+			} catch (InterruptedException e)
+			{
+				e.printStackTrace();
+			}
+		}
+
+		public Consumer getConsumer()
+		{
+			return consumer;
+		}
+
+		public synchronized long getProcessedFrames()
+		{
+			return processed;
+		}
+
+		// frames not queued because of consumer's rate
+		public synchronized long getSkippedFrames()
+		{
+			return skipped;
+		}
+
+		// queued frames replaced by newer ones while consumer was busy
+		public synchronized long getDroppedFrames()
+		{
+			return dropped;
+		}
+
+		// average time from dispatch till consumer returns, ms
+		public synchronized long getAverageLatency()
+		{
+			return processed > 0 ? totalLatency / processed / 1000000 : 0;
+		}
+
+		// ms
+		public synchronized long getMaxLatency()
+		{
+			return maxLatency / 1000000;
+		}
+
+		@Override
+		public synchronized String toString()
+		{
+			return thread.getName() + ": processed " + processed + ", skipped " + skipped + ", dropped " + dropped
+					+ ", latency " + getAverageLatency() + "ms, max " + getMaxLatency() + "ms";
+		}
+	}
+}
@@ -0,0 +1,115 @@
+/*
+	CameraController for OpenCamera project - interface to camera device
+    Copyright (C) 2014  Almalence Inc.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/* <!-- +++
+ package com.almalence.opencam_plus.cameracontroller;
+ +++ --> */
+// <!-- -+-
+package com.almalence.opencam.cameracontroller;
+
+//-+- -->
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/***
+ * NV21 preview frame from PreviewFramePool.
+ *
+ * Frame is valid only while it is referenced. Consumer that keeps frame data
+ * after onPreviewFrame returns (to process it in other thread, for example)
+ * must call acquire() before returning and release() when done with data.
+ * Buffer goes back to the pool when the last reference is released.
+ ***/
+public class PreviewFrame
+{
+	private final PreviewFramePool	pool;
+	private final byte[]			data;
+	private final AtomicInteger		refCount	= new AtomicInteger();
+
+	int								width;
+	int								height;
+	long							timestamp;
+
+	PreviewFrame(PreviewFramePool pool, byte[] data)
+	{
+		this.pool = pool;
+		this.data = data;
+	}
+
+	// Frame over buffer which isn't owned by any pool (camera1 without
+	// callback buffers, remote camera). Data is left to GC after release.
+	public static PreviewFrame wrap(byte[] data, int width, int height, long timestamp)
+	{
+		PreviewFrame frame = new PreviewFrame(null, data);
+		frame.reset(width, height, timestamp);
+		return frame;
+	}
+
+	public byte[] getData()
+	{
+		return data;
+	}
+
+	public int getWidth()
+	{
+		return width;
+	}
+
+	public int getHeight()
+	{
+		return height;
+	}
+
+	// Sensor timestamp in nanoseconds if camera provides it, time of frame
+	// arrival otherwise
+	public long getTimestamp()
+	{
+		return timestamp;
+	}
+
+	public PreviewFrame acquire()
+	{
+		refCount.incrementAndGet();
+		return this;
+	}
+
+	public void release()
+	{
+		int count = refCount.decrementAndGet();
+		if (count == 0)
+		{
+			if (pool != null)
+				pool.recycle(this);
+		}
+		else if (count < 0)
+			throw new IllegalStateException("Preview frame released more times than acquired");
+	}
+
+	boolean isReferenced()
+	{
+		return refCount.get() > 0;
+	}
+
+	// Called by pool when frame is handed out
+	void reset(int width, int height, long timestamp)
+	{
+		this.width = width;
+		this.height = height;
+		this.timestamp = timestamp;
+		refCount.set(1);
+	}
+}
@@ -0,0 +1,153 @@
+/*
+	CameraController for OpenCamera project - interface to camera device
+    Copyright (C) 2014  Almalence Inc.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/* <!-- +++
+ package com.almalence.opencam_plus.cameracontroller;
+ +++ --> */
+// <!-- -+-
+package com.almalence.opencam.cameracontroller;
+
+//-+- -->
+
+import java.util.ArrayList;
+import java.util.List;
+
+/***
+ * Fixed set of preview buffers, reused from frame to frame.
+ *
+ * Buffers are allocated once for current preview size. If all of them are
+ * still referenced by consumers when new frame arrives, the frame is dropped
+ * instead of allocating a new buffer.
+ *
+ * In camera1 mode idle buffers are owned by the camera (see
+ * Camera.addCallbackBuffer), so recycled frames are passed to Recycler instead
+ * of free list.
+ ***/
+public class PreviewFramePool
+{
+	public interface Recycler
+	{
+		void onRecycle(PreviewFrame frame);
+	}
+
+	private final int					bufferSize;
+	private final PreviewFrame[]		frames;
+	private final List<PreviewFrame>	free;
+	private Recycler					recycler		= null;
+	private boolean						closed			= false;
+
+	private long						deliveredFrames	= 0;
+	private long						droppedFrames	= 0;
+
+	public PreviewFramePool(int bufferSize, int count)
+	{
+		this.bufferSize = bufferSize;
+		frames = new PreviewFrame[count];
+		free = new ArrayList<PreviewFrame>(count);
+		for (int i = 0; i < count; i++)
+		{
+			frames[i] = new PreviewFrame(this, new byte[bufferSize]);
+			free.add(frames[i]);
+		}
+	}
+
+	public int getBufferSize()
+	{
+		return bufferSize;
+	}
+
+	// Return: free frame with one reference or null if all buffers are in use
+	// and this frame has to be dropped
+	public synchronized PreviewFrame obtain(int width, int height, long timestamp)
+	{
+		if (closed || free.isEmpty())
+		{
+			droppedFrames++;
+			return null;
+		}
+
+		PreviewFrame frame = free.remove(free.size() - 1);
+		frame.reset(width, height, timestamp);
+		deliveredFrames++;
+		return frame;
+	}
+
+	// Return: frame which owns data buffer, or null if buffer isn't from this
+	// pool. Used for buffers filled by camera1.
+	public synchronized PreviewFrame wrap(byte[] data, int width, int height, long timestamp)
+	{
+		for (int i = 0; i < frames.length; i++)
+		{
+			if (frames[i].getData() == data)
+			{
+				free.remove(frames[i]);
+				frames[i].reset(width, height, timestamp);
+				deliveredFrames++;
+				return frames[i];
+			}
+		}
+		return null;
+	}
+
+	// Idle buffers are passed to recycler from now on
+	public synchronized void setRecycler(Recycler recycler)
+	{
+		this.recycler = recycler;
+	}
+
+	// Return: buffers which aren't referenced by consumers now, to be given to
+	// camera. Frames held by consumers are passed to recycler on release.
+	public synchronized List<byte[]> takeIdleBuffers()
+	{
+		List<byte[]> buffers = new ArrayList<byte[]>(frames.length);
+		for (int i = 0; i < frames.length; i++)
+			if (!frames[i].isReferenced())
+				buffers.add(frames[i].getData());
+		free.clear();
+		return buffers;
+	}
+
+	synchronized void recycle(PreviewFrame frame)
+	{
+		if (closed)
+			return;
+
+		if (recycler != null)
+			recycler.onRecycle(frame);
+		else
+			free.add(frame);
+	}
+
+	// Buffers still referenced by consumers are left to GC when released
+	public synchronized void close()
+	{
+		closed = true;
+		recycler = null;
+		free.clear();
+	}
+
+	public synchronized long getDeliveredFrames()
+	{
+		return deliveredFrames;
+	}
+
+	public synchronized long getDroppedFrames()
+	{
+		return droppedFrames;
+	}
+}
@@ -0,0 +1,273 @@
+/*
+	CameraController for OpenCamera project - interface to camera device
+    Copyright (C) 2014  Almalence Inc.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/* <!-- +++
+ package com.almalence.opencam_plus.cameracontroller;
+ +++ --> */
+// <!-- -+-
+package com.almalence.opencam.cameracontroller;
+
+//-+- -->
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import android.util.Log;
+
+/***
+ * Runs requests to remote camera one by one on a single persistent thread.
+ *
+ * Requests are queued in two lanes, shutter and control (user actions and
+ * explicit settings changes). Shutter goes ahead of control requests queued
+ * after it, but not of the ones queued before it, so a picture is taken with
+ * settings chosen before shutter was pressed. Event polling doesn't go through
+ * executor, SimpleCameraEventObserver runs it on its own thread.
+ *
+ * Request with coalescing key replaces pending request with the same key (ten
+ * zoom steps or slider changes become the latest one), replaced request is
+ * cancelled. Requests queued before last shutter request aren't replaced, they
+ * have to run before it.
+ *
+ * Requests may submit further requests from their run().
+ ***/
+public class RemoteRequestExecutor
+{
+	public interface Listener
+	{
+		// Called on worker thread after every executed request
+		void onRequestDone();
+	}
+
+	public static final int						PRIORITY_SHUTTER	= 0;
+	public static final int						PRIORITY_CONTROL	= 1;
+	private static final int					PRIORITIES			= 2;
+
+	private static final String					TAG					= "RemoteRequestExecutor";
+
+	private final String						name;
+	private final Listener						listener;
+	private final List<LinkedList<Request>>		lanes				= new ArrayList<LinkedList<Request>>(PRIORITIES);
+	private Thread								worker				= null;
+	private Request								current				= null;
+	// order of submission and last shutter request, see submit()
+	private long								sequence			= 0;
+	private long								barrier				= 0;
+
+	private long								executed			= 0;
+	private long								coalesced			= 0;
+	private long								cancelled			= 0;
+	private final long[]						totalWait			= new long[PRIORITIES];
+	private final long[]						waitCount			= new long[PRIORITIES];
+
+	public RemoteRequestExecutor(String name, Listener listener)
+	{
+		this.name = name;
+		this.listener = listener;
+		for (int i = 0; i < PRIORITIES; i++)
+			lanes.add(new LinkedList<Request>());
+	}
+
+	/**
+	 * Queues request. If key isn't null, pending request with the same key is
+	 * cancelled and replaced. Returned future completes when request was
+	 * executed, or is cancelled if request was replaced or dropped.
+	 */
+	public synchronized Future<?> submit(int priority, String key, Runnable task)
+	{
+		Request request = new Request(key, task, ++sequence);
+		LinkedList<Request> lane = lanes.get(priority);
+
+		if (key != null)
+		{
+			for (Iterator<Request> it = lane.iterator(); it.hasNext();)
+			{
+				Request pending = it.next();
+				if (key.equals(pending.key) && pending.sequence > barrier)
+				{
+					it.remove();
+					pending.cancel(false);
+					coalesced++;
+				}
+			}
+		}
+
+		lane.add(request);
+		if (priority == PRIORITY_SHUTTER)
+			barrier = request.sequence;
+		if (worker == null)
+		{
+			worker = new Thread(new Worker(), name);
+			worker.setDaemon(true);
+			worker.start();
+		} else
+			notify();
+
+		return request;
+	}
+
+	/**
+	 * Drops all pending requests. Request being executed isn't interrupted.
+	 * Returns number of dropped requests.
+	 */
+	public synchronized int cancelPending()
+	{
+		int count = 0;
+		for (LinkedList<Request> lane : lanes)
+		{
+			for (Request request : lane)
+				request.cancel(false);
+			count += lane.size();
+			lane.clear();
+		}
+		cancelled += count;
+		return count;
+	}
+
+	// Requests waiting to be executed, not counting the running one
+	public synchronized int getPendingCount()
+	{
+		int count = 0;
+		for (LinkedList<Request> lane : lanes)
+			count += lane.size();
+		return count;
+	}
+
+	// Nothing is running and nothing is queued
+	public synchronized boolean isIdle()
+	{
+		return current == null && getPendingCount() == 0;
+	}
+
+	public synchronized long getExecutedCount()
+	{
+		return executed;
+	}
+
+	// pending requests replaced by newer ones with the same key
+	public synchronized long getCoalescedCount()
+	{
+		return coalesced;
+	}
+
+	public synchronized long getCancelledCount()
+	{
+		return cancelled;
+	}
+
+	// average time request of given priority waited in queue, ms
+	public synchronized long getAverageWait(int priority)
+	{
+		return waitCount[priority] > 0 ? totalWait[priority] / waitCount[priority] / 1000000 : 0;
+	}
+
+	private synchronized Request take() throws InterruptedException
+	{
+		current = null;
+		while (true)
+		{
+			int next = -1;
+			for (int i = 0; i < PRIORITIES && next == -1; i++)
+			{
+				if (!lanes.get(i).isEmpty())
+					next = i;
+			}
+
+			if (next == -1)
+			{
+				wait();
+				continue;
+			}
+
+			// shutter doesn't overtake control requests queued before it
+			LinkedList<Request> control = lanes.get(PRIORITY_CONTROL);
+			if (next == PRIORITY_SHUTTER && !control.isEmpty()
+					&& control.getFirst().sequence < lanes.get(PRIORITY_SHUTTER).getFirst().sequence)
+				next = PRIORITY_CONTROL;
+
+			current = lanes.get(next).removeFirst();
+			totalWait[next] += System.nanoTime() - current.queued;
+			waitCount[next]++;
+			return current;
+		}
+	}
+
+	private synchronized void onExecuted()
+	{
+		executed++;
+		current = null;
+	}
+
+	/******************************************************************************************************
+	 * Worker and request
+	 ******************************************************************************************************/
+	private class Worker implements Runnable
+	{
+		@Override
+		public void run()
+		{
+			while (true)
+			{
+				Request request;
+				try
+				{
+					request = take();
+				} catch (InterruptedException e)
+				{
+					return;
+				}
+
+				// FutureTask keeps exception of task, log it
+				request.run();
+				try
+				{
+					if (!request.isCancelled())
+						request.get();
+				} catch (ExecutionException e)
+				{
+					Log.w(TAG, name + ": request failed: " + e.getCause());
+				} catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+				}
+
+				onExecuted();
+				if (listener != null)
+					listener.onRequestDone();
+			}
+		}
+	}
+
+	private static class Request extends FutureTask<Void>
+	{
+		final String	key;
+		final long		sequence;
+		final long		queued	= System.nanoTime();
+
+		Request(String key, Runnable task, long sequence)
+		{
+			super(task, null);
+			this.key = key;
+			this.sequence = sequence;
+		}
+	}
+}
@@ -14,9 +14,9 @@ import java.net.URL;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Future;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -35,14 +35,12 @@ import android.preference.PreferenceManager;
 import android.util.Log;
 import android.view.View;
 
-import com.almalence.SwapHeap;
 import com.almalence.sony.cameraremote.PictureCallbackSonyRemote;
 import com.almalence.sony.cameraremote.ServerDevice;
 import com.almalence.sony.cameraremote.SimpleCameraEventObserver;
 import com.almalence.sony.cameraremote.SimpleRemoteApi;
 import com.almalence.sony.cameraremote.SimpleStreamSurfaceView;
 import com.almalence.sony.cameraremote.ZoomCallbackSonyRemote;
-import com.almalence.util.ImageConversion;
 
 /* <!-- +++
  import com.almalence.opencam_plus.ApplicationScreen;
@@ -101,7 +99,19 @@ public class SonyRemoteCamera
 	public static Handler									UIhandler					= new Handler(
 																								Looper.getMainLooper());
 
-	public static List<Thread>								requestQueue				= new LinkedList<Thread>();
+	// Requests to camera are sent one by one, user's requests in order and
+	// shutter ahead of the ones queued after it
+	private static final RemoteRequestExecutor.Listener		requestListener				= new RemoteRequestExecutor.Listener()
+																						{
+																							@Override
+																							public void onRequestDone()
+																							{
+																								onRequestResult();
+																							}
+																						};
+	private static final RemoteRequestExecutor				requests					= new RemoteRequestExecutor(
+																								"SonyRemoteRequests",
+																								requestListener);
 	public static boolean									opening						= false;
 	public static ProgressDialog							progress;
 	public static ProgressDialog							progressImageDownloading;
@@ -204,39 +214,26 @@ public class SonyRemoteCamera
 		};
 	}
 
-	static Boolean	isBusy	= false;
-
-	public static void sendRequest()
+	// Called by request executor after every request to camera
+	private static void onRequestResult()
 	{
-		synchronized (isBusy)
-		{
-			if (!isBusy && requestQueue.size() > 0)
-			{
-				isBusy = true;
-				requestQueue.get(0).start();
-				requestQueue.remove(0);
-			} else if (requestQueue.size() == 0 && opening && previewImagesCount >= 3)
-			{
-				if (progress != null)
-				{
-					progress.dismiss();
-				}
-				opening = false;
-				messageHandler.sendEmptyMessage(ApplicationInterface.MSG_SURFACE_READY);
-			}
-		}
-
+		CameraController.sendMessage(ApplicationInterface.MSG_BROADCAST,
+				ApplicationInterface.MSG_REMOTE_CAMERA_PARAMETR_CHANGED);
+		checkOpened();
 	}
 
-	public static void onRequestResult()
+	// Connection is ready when setup requests are done and liveview is running
+	private static synchronized void checkOpened()
 	{
-		synchronized (isBusy)
+		if (opening && previewImagesCount >= 3 && requests.isIdle())
 		{
-			isBusy = false;
+			if (progress != null)
+			{
+				progress.dismiss();
+			}
+			opening = false;
+			messageHandler.sendEmptyMessage(ApplicationInterface.MSG_SURFACE_READY);
 		}
-		CameraController.sendMessage(ApplicationInterface.MSG_BROADCAST,
-				ApplicationInterface.MSG_REMOTE_CAMERA_PARAMETR_CHANGED);
-		sendRequest();
 	}
 
 	public static void setZoomCallbackSonyRemote(ZoomCallbackSonyRemote callback)
@@ -274,7 +271,7 @@ public class SonyRemoteCamera
 
 		// setProgressBarIndeterminateVisibility(true);
 
-		requestQueue.add(new Thread()
+		requests.submit(RemoteRequestExecutor.PRIORITY_CONTROL, null, new Runnable()
 		{
 
 			@Override
@@ -283,7 +280,6 @@ public class SonyRemoteCamera
 				try
 				{
 					if (mRemoteApi == null) {
-						onRequestResult();
 						return;
 					}
 					
@@ -364,13 +360,9 @@ public class SonyRemoteCamera
 					// R.string.msg_error_api_calling);
 					// DisplayHelper.setProgressIndicator(SampleCameraActivity.this,
 					// false);
-				} finally
-				{
-					onRequestResult();
 				}
 			}
 		});
-		sendRequest();
 	}
 
 	/**
@@ -381,7 +373,7 @@ public class SonyRemoteCamera
 	{
 
 		mEventObserver.setEventChangeListener(mEventListener);
-		requestQueue.add(new Thread()
+		requests.submit(RemoteRequestExecutor.PRIORITY_CONTROL, null, new Runnable()
 		{
 
 			@Override
@@ -390,7 +382,6 @@ public class SonyRemoteCamera
 				Log.d(TAG, "openConnection(): exec.");
 				
 				if (mRemoteApi == null) {
-					onRequestResult();
 					return;
 				}
 
@@ -476,13 +467,9 @@ public class SonyRemoteCamera
 				} catch (IOException e)
 				{
 					Log.w(TAG, "openConnection : IOException: " + e.getMessage());
-				} finally
-				{
-					onRequestResult();
 				}
 			}
 		});
-		sendRequest();
 
 	}
 
@@ -501,6 +488,7 @@ public class SonyRemoteCamera
 		// Liveview stop
 		Log.d(TAG, "closeConnection(): LiveviewSurface.stop()");
 		stopLiveview();
+		liveviewDecoder.stop();
 
 		// getEvent stop
 		Log.d(TAG, "closeConnection(): EventObserver.release()");
@@ -512,7 +500,7 @@ public class SonyRemoteCamera
 		// stopRecMode if necessary.
 		if (isCameraApiAvailable("stopRecMode"))
 		{
-			requestQueue.add(new Thread()
+			requests.submit(RemoteRequestExecutor.PRIORITY_CONTROL, null, new Runnable()
 			{
 
 				@Override
@@ -521,7 +509,6 @@ public class SonyRemoteCamera
 					Log.d(TAG, "closeConnection(): stopRecMode()");
 					
 					if (mRemoteApi == null) {
-						onRequestResult();
 						return;
 					}
 					
@@ -534,20 +521,15 @@ public class SonyRemoteCamera
 					} catch (IOException e)
 					{
 						Log.w(TAG, "closeConnection: IOException: " + e.getMessage());
-					} finally
-					{
-						onRequestResult();
 					}
 				}
 			});
-			sendRequest();
 		}
 
 		currentWBMode = "Auto WB";
 		currentIsoMode = "auto";
 		currentFlashMode = "off";
 		currentExposureCompensation = 0;
-		requestQueue.clear();
 		mPreviewSizes.clear();
 		mPictureSizes.clear();
 		minExpoCompensation = 0;
@@ -649,16 +631,15 @@ public class SonyRemoteCamera
 	 * 
 	 * @param mode
 	 */
-	public static void cancelAutoFocusSonyRemote()
+	public static Future<?> cancelAutoFocusSonyRemote()
 	{
-		requestQueue.add(new Thread()
+		return requests.submit(RemoteRequestExecutor.PRIORITY_SHUTTER, null, new Runnable()
 		{
 
 			@Override
 			public void run()
 			{
 				if (mRemoteApi == null) {
-					onRequestResult();
 					return;
 				}
 				
@@ -681,13 +662,9 @@ public class SonyRemoteCamera
 				} catch (JSONException e)
 				{
 					Log.w(TAG, "setShootMode: JSON format error.");
-				} finally
-				{
-					onRequestResult();
 				}
 			}
 		});
-		sendRequest();
 	}
 
 	/**
@@ -697,7 +674,7 @@ public class SonyRemoteCamera
 	 */
 	public static boolean autoFocusSonyRemote()
 	{
-		requestQueue.add(new Thread()
+		requests.submit(RemoteRequestExecutor.PRIORITY_SHUTTER, null, new Runnable()
 		{
 
 			@Override
@@ -705,7 +682,6 @@ public class SonyRemoteCamera
 			{
 				if (mRemoteApi == null) {
 					CameraController.onAutoFocus(false);
-					onRequestResult();
 					return;
 				}
 				
@@ -740,11 +716,9 @@ public class SonyRemoteCamera
 							CameraController.onAutoFocus(res);
 						}
 					});
-					onRequestResult();
 				}
 			}
 		});
-		sendRequest();
 		return true;
 	}
 
@@ -755,14 +729,13 @@ public class SonyRemoteCamera
 	 */
 	public static void setShootMode(final String mode)
 	{
-		requestQueue.add(new Thread()
+		requests.submit(RemoteRequestExecutor.PRIORITY_CONTROL, null, new Runnable()
 		{
 
 			@Override
 			public void run()
 			{
 				if (mRemoteApi == null) {
-					onRequestResult();
 					return;
 				}
 				
@@ -781,13 +754,9 @@ public class SonyRemoteCamera
 				} catch (JSONException e)
 				{
 					Log.w(TAG, "setShootMode: JSON format error.");
-				} finally
-				{
-					onRequestResult();
 				}
 			}
 		});
-		sendRequest();
 	}
 
 	public static void setCameraFocusAreasSonyRemote(List<Area> focusAreas)
@@ -807,15 +776,14 @@ public class SonyRemoteCamera
 		}
 	}
 
-	public static void takePicture(final PictureCallbackSonyRemote pictureListener)
+	public static Future<?> takePicture(final PictureCallbackSonyRemote pictureListener)
 	{
-		requestQueue.add(new Thread()
+		return requests.submit(RemoteRequestExecutor.PRIORITY_SHUTTER, null, new Runnable()
 		{
 			@Override
 			public void run()
 			{
 				if (mRemoteApi == null) {
-					onRequestResult();
 					return;
 				}
 				
@@ -843,13 +811,9 @@ public class SonyRemoteCamera
 				} catch (JSONException e)
 				{
 					Log.w(TAG, "JSONException while closing slicer");
-				} finally
-				{
-					onRequestResult();
 				}
 			}
 		});
-		sendRequest();
 	}
 
 	public static void downloadAndProcessImage(final String postImageUrl, final boolean fromRequest)
@@ -865,7 +829,7 @@ public class SonyRemoteCamera
 			}
 		});
 
-		requestQueue.add(new Thread()
+		requests.submit(RemoteRequestExecutor.PRIORITY_SHUTTER, null, new Runnable()
 		{
 			@Override
 			public void run()
@@ -901,26 +865,23 @@ public class SonyRemoteCamera
 							}
 						}
 					});
-					onRequestResult();
 				}
 			}
 		});
-		sendRequest();
 	}
 
 	/**
 	 * Call startMovieRec
 	 */
-	public static void startMovieRec()
+	public static Future<?> startMovieRec()
 	{
-		requestQueue.add(new Thread()
+		return requests.submit(RemoteRequestExecutor.PRIORITY_SHUTTER, null, new Runnable()
 		{
 
 			@Override
 			public void run()
 			{
 				if (mRemoteApi == null) {
-					onRequestResult();
 					return;
 				}
 				
@@ -940,28 +901,23 @@ public class SonyRemoteCamera
 				} catch (JSONException e)
 				{
 					Log.w(TAG, "startMovieRec: JSON format error.");
-				} finally
-				{
-					onRequestResult();
 				}
 			}
 		});
-		sendRequest();
 	}
 
 	/**
 	 * Call stopMovieRec
 	 */
-	public static void stopMovieRec()
+	public static Future<?> stopMovieRec()
 	{
-		requestQueue.add(new Thread()
+		return requests.submit(RemoteRequestExecutor.PRIORITY_SHUTTER, null, new Runnable()
 		{
 
 			@Override
 			public void run()
 			{
 				if (mRemoteApi == null) {
-					onRequestResult();
 					return;
 				}
 				
@@ -981,13 +937,9 @@ public class SonyRemoteCamera
 				} catch (JSONException e)
 				{
 					Log.w(TAG, "stopMovieRec: JSON format error.");
-				} finally
-				{
-					onRequestResult();
 				}
 			}
 		});
-		sendRequest();
 	}
 
 	public static boolean isZoomAvailable()
@@ -1001,15 +953,17 @@ public class SonyRemoteCamera
 	 * @param direction
 	 * @param movement
 	 */
-	public static void actZoom(final String direction, final String movement)
+	public static Future<?> actZoom(final String direction, final String movement)
 	{
-		new Thread()
+		// Repeated steps are collapsed into the latest one, start and stop of
+		// continuous zoom must be sent as is.
+		String key = "1shot".equals(movement) ? "actZoom/" + direction : null;
+		return requests.submit(RemoteRequestExecutor.PRIORITY_CONTROL, key, new Runnable()
 		{
 			@Override
 			public void run()
 			{
 				if (mRemoteApi == null) {
-					onRequestResult();
 					return;
 				}
 				
@@ -1034,13 +988,12 @@ public class SonyRemoteCamera
 					Log.w(TAG, "actZoom: JSON format error.");
 				}
 			}
-		}.start();
+		});
 	}
 
 	private static void setExposureMode()
 	{
 		if (mRemoteApi == null) {
-			onRequestResult();
 			return;
 		}
 		
@@ -1070,13 +1023,12 @@ public class SonyRemoteCamera
 			Log.w(TAG, "startLiveview mLiveviewSurface is null.");
 			return;
 		}
-		requestQueue.add(new Thread()
+		requests.submit(RemoteRequestExecutor.PRIORITY_CONTROL, null, new Runnable()
 		{
 			@Override
 			public void run()
 			{
 				if (mRemoteApi == null) {
-					onRequestResult();
 					return;
 				}
 				
@@ -1108,9 +1060,9 @@ public class SonyRemoteCamera
 											{
 
 												@Override
-												public void onFrameAvailable(byte[] jpegData)
+												public void onFrameAvailable(byte[] jpegData, int offset, int length)
 												{
-													onPreviewFrame(jpegData);
+													onPreviewFrame(jpegData, offset, length);
 
 												}
 											}, new SimpleStreamSurfaceView.StreamErrorListener()
@@ -1134,13 +1086,9 @@ public class SonyRemoteCamera
 				} catch (JSONException e)
 				{
 					Log.w(TAG, "startLiveview JSONException: " + e.getMessage());
-				} finally
-				{
-					onRequestResult();
 				}
 			}
 		});
-		sendRequest();
 	}
 
 	private static void switchBackToDeviceCamera()
@@ -1161,13 +1109,16 @@ public class SonyRemoteCamera
 	private static void stopLiveview()
 	{
 		Log.e("SonyRemoteCamera", "stopLiveview");
-		requestQueue.add(new Thread()
+		// Nothing queued for liveview session makes sense after it's stopped
+		int cancelled = requests.cancelPending();
+		if (cancelled > 0)
+			Log.d(TAG, "stopLiveview: " + cancelled + " pending requests cancelled");
+		requests.submit(RemoteRequestExecutor.PRIORITY_CONTROL, null, new Runnable()
 		{
 			@Override
 			public void run()
 			{
 				if (mRemoteApi == null) {
-					onRequestResult();
 					return;
 				}
 				
@@ -1180,45 +1131,37 @@ public class SonyRemoteCamera
 				} catch (IOException e)
 				{
 					Log.w(TAG, "stopLiveview IOException: " + e.getMessage());
-				} finally
-				{
-					onRequestResult();
 				}
 			}
 		});
-		sendRequest();
 	}
 
 	static int	previewImagesCount	= 0;
 
-	public static void onPreviewFrame(byte[] jpegData)
+	// Liveview jpegs are converted for plugins on decoder thread, newest frame
+	// wins if decoder falls behind. Frames are of liveview jpeg size, downscaled
+	// to fit preview size, and reach pluginManager.onPreviewFrame on decoder
+	// thread, not on UI thread.
+	private static final LiveviewFrameDecoder	liveviewDecoder	= new LiveviewFrameDecoder(
+																	new LiveviewFrameDecoder.Listener()
+																	{
+																		@Override
+																		public void onFrameDecoded(PreviewFrame frame)
+																		{
+																			pluginManager.onPreviewFrame(frame);
+																		}
+																	});
+
+	public static void onPreviewFrame(byte[] jpegData, int offset, int length)
 	{
 		previewImagesCount++;
-		if (!opening)
+		if (!opening && pluginManager.needPreviewFrame())
 		{
-			int frame = ImageConversion.JpegConvert(jpegData, previewWidth, previewHeight, false, false, 0);
-			int frameLen = previewWidth * previewHeight + 2 * ((previewWidth + 1) / 2) * ((previewHeight + 1) / 2);
-			final byte[] data = SwapHeap.SwapFromHeap(frame, frameLen);
-
-			UIhandler.post(new Runnable()
-			{
-				@Override
-				public void run()
-				{
-					pluginManager.onPreviewFrame(data);
-				}
-			});
+			liveviewDecoder.setMaxFrameSize(previewWidth, previewHeight);
+			liveviewDecoder.offer(jpegData, offset, length);
 		}
 
-		if (requestQueue.size() == 0 && opening && previewImagesCount >= 3)
-		{
-			if (progress != null)
-			{
-				progress.dismiss();
-			}
-			opening = false;
-			messageHandler.sendEmptyMessage(ApplicationInterface.MSG_SURFACE_READY);
-		}
+		checkOpened();
 	}
 
 	/**
@@ -1809,17 +1752,16 @@ public class SonyRemoteCamera
 		}
 	}
 
-	public static void setExposureCompensationRemote(final int value)
+	public static Future<?> setExposureCompensationRemote(final int value)
 	{
 		if (isCameraApiAvailable("setExposureCompensation"))
 		{
-			requestQueue.add(new Thread()
+			return requests.submit(RemoteRequestExecutor.PRIORITY_CONTROL, "setExposureCompensation", new Runnable()
 			{
 				@Override
 				public void run()
 				{
 					if (mRemoteApi == null) {
-						onRequestResult();
 						return;
 					}
 					
@@ -1830,27 +1772,23 @@ public class SonyRemoteCamera
 					} catch (IOException e)
 					{
 						e.printStackTrace();
-					} finally
-					{
-						onRequestResult();
 					}
 				}
 			});
-			sendRequest();
 		}
+		return null;
 	}
 
-	public static void setFlashModeRemote(final String value)
+	public static Future<?> setFlashModeRemote(final String value)
 	{
 		if (isCameraApiAvailable("setFlashMode"))
 		{
-			requestQueue.add(new Thread()
+			return requests.submit(RemoteRequestExecutor.PRIORITY_CONTROL, "setFlashMode", new Runnable()
 			{
 				@Override
 				public void run()
 				{
 					if (mRemoteApi == null) {
-						onRequestResult();
 						return;
 					}
 					
@@ -1861,27 +1799,23 @@ public class SonyRemoteCamera
 					} catch (IOException e)
 					{
 						e.printStackTrace();
-					} finally
-					{
-						onRequestResult();
 					}
 				}
 			});
-			sendRequest();
 		}
+		return null;
 	}
 
-	public static void setIsoSpeedRateRemote(final String value)
+	public static Future<?> setIsoSpeedRateRemote(final String value)
 	{
 		if (isCameraApiAvailable("setIsoSpeedRate"))
 		{
-			requestQueue.add(new Thread()
+			return requests.submit(RemoteRequestExecutor.PRIORITY_CONTROL, "setIsoSpeedRate", new Runnable()
 			{
 				@Override
 				public void run()
 				{
 					if (mRemoteApi == null) {
-						onRequestResult();
 						return;
 					}
 					
@@ -1892,27 +1826,23 @@ public class SonyRemoteCamera
 					} catch (IOException e)
 					{
 						e.printStackTrace();
-					} finally
-					{
-						onRequestResult();
 					}
 				}
 			});
-			sendRequest();
 		}
+		return null;
 	}
 
-	public static void setWhiteBalanceRemote(final String value)
+	public static Future<?> setWhiteBalanceRemote(final String value)
 	{
 		if (isCameraApiAvailable("setWhiteBalance"))
 		{
-			requestQueue.add(new Thread()
+			return requests.submit(RemoteRequestExecutor.PRIORITY_CONTROL, "setWhiteBalance", new Runnable()
 			{
 				@Override
 				public void run()
 				{
 					if (mRemoteApi == null) {
-						onRequestResult();
 						return;
 					}
 					
@@ -1923,32 +1853,28 @@ public class SonyRemoteCamera
 					} catch (IOException e)
 					{
 						e.printStackTrace();
-					} finally
-					{
-						onRequestResult();
 					}
 				}
 			});
-			sendRequest();
 		}
+		return null;
 	}
 
-	public static void setPictureSizeRemote(int width, int height)
+	public static Future<?> setPictureSizeRemote(int width, int height)
 	{
 		final JSONObject jsonObject = mPictureSizeNames.get((long) (width * height));
 		if (jsonObject == null)
 		{
-			return;
+			return null;
 		}
 		if (isCameraApiAvailable("setStillSize"))
 		{
-			requestQueue.add(new Thread()
+			return requests.submit(RemoteRequestExecutor.PRIORITY_CONTROL, "setStillSize", new Runnable()
 			{
 				@Override
 				public void run()
 				{
 					if (mRemoteApi == null) {
-						onRequestResult();
 						return;
 					}
 					
@@ -1962,13 +1888,10 @@ public class SonyRemoteCamera
 					} catch (JSONException e)
 					{
 						e.printStackTrace();
-					} finally
-					{
-						onRequestResult();
 					}
 				}
 			});
-			sendRequest();
 		}
+		return null;
 	}
 }
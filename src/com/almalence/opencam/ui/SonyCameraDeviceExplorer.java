@@ -279,7 +279,8 @@ public class SonyCameraDeviceExplorer implements WifiListener
 	
 	private void searchForCameraAndOpenLoop()
 	{
-		mSsdpClient.search(loopSearchHandler);
+		// the first camera found is opened, no need to wait for others
+		mSsdpClient.search(loopSearchHandler, SimpleSsdpClient.ANY_DEVICE);
 
 	}
 
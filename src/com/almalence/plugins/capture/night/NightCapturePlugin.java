@@ -49,6 +49,8 @@ import com.almalence.SwapHeap;
 
 /* <!-- +++
  import com.almalence.opencam_plus.cameracontroller.CameraController;
+ import com.almalence.opencam_plus.cameracontroller.PreviewDispatcher;
+ import com.almalence.opencam_plus.cameracontroller.PreviewFrame;
  import com.almalence.opencam_plus.CameraParameters;
  import com.almalence.opencam_plus.ApplicationScreen;
  import com.almalence.opencam_plus.PluginCapture;
@@ -63,6 +65,8 @@ import com.almalence.opencam.ApplicationScreen;
 import com.almalence.opencam.PluginCapture;
 import com.almalence.opencam.PluginManager;
 import com.almalence.opencam.cameracontroller.CameraController;
+import com.almalence.opencam.cameracontroller.PreviewDispatcher;
+import com.almalence.opencam.cameracontroller.PreviewFrame;
 import com.almalence.opencam.ui.GUI.CameraParameter;
 import com.almalence.opencam.R;
 import com.almalence.opencam.ApplicationInterface;
@@ -92,6 +96,8 @@ public class NightCapturePlugin extends PluginCapture
 	private GLCameraPreview		cameraPreview;
 	private byte[]				data1;
 	private byte[]				data2;
+	// pooled frame which holds data1 until next frame arrives
+	private PreviewFrame		frame1;
 	private byte[]				dataS;
 	private byte[]				dataRotated;
 
@@ -220,6 +226,7 @@ public class NightCapturePlugin extends PluginCapture
 		data2 = null;
 		dataS = null;
 		yuvData = null;
+		releaseFrame1();
 	}
 
 	@Override
@@ -265,6 +272,12 @@ public class NightCapturePlugin extends PluginCapture
 		else
 			return true;
 	}
+
+	@Override
+	public int getPreviewFrameRate()
+	{
+		return needPreviewFrame() ? PreviewDispatcher.RATE_ALL : PreviewDispatcher.RATE_NONE;
+	}
 	
 	@Override
 	public boolean isGLSurfaceNeeded()
@@ -298,6 +311,7 @@ public class NightCapturePlugin extends PluginCapture
 			dataS = null;
 			dataRotated = null;
 			yuvData = null;
+			releaseFrame1();
 
 			msg.what = ApplicationInterface.MSG_OPENGL_LAYER_HIDE;
 		} else if (quickControlIconID == R.drawable.plugin_capture_night_nightvision_off)
@@ -882,6 +896,28 @@ public class NightCapturePlugin extends PluginCapture
 		}
 	}
 
+	// Previous frame is summed with the current one, so its pooled buffer is
+	// kept until the next frame is processed.
+	@Override
+	public void onPreviewFrame(PreviewFrame frame)
+	{
+		onPreviewFrame(frame.getData());
+
+		PreviewFrame previous = frame1;
+		frame1 = data1 == frame.getData() ? frame.acquire() : null;
+		if (previous != null)
+			previous.release();
+	}
+
+	private void releaseFrame1()
+	{
+		if (frame1 != null)
+		{
+			frame1.release();
+			frame1 = null;
+		}
+	}
+
 	/******************************************************************************************************
 	 * OpenGL layer functions
 	 ******************************************************************************************************/
@@ -73,6 +73,7 @@ import com.almalence.util.HeapUtil;
  import com.almalence.opencam_plus.PluginManager;
  import com.almalence.opencam_plus.R;
  import com.almalence.opencam_plus.cameracontroller.CameraController;
+ import com.almalence.opencam_plus.cameracontroller.PreviewDispatcher;
  import com.almalence.opencam_plus.ui.GUI.CameraParameter;
  import com.almalence.opencam_plus.ConfigParser;
  import com.almalence.opencam_plus.ApplicationInterface;
@@ -86,6 +87,7 @@ import com.almalence.opencam.ApplicationInterface;
 import com.almalence.opencam.PluginManager;
 import com.almalence.opencam.R;
 import com.almalence.opencam.cameracontroller.CameraController;
+import com.almalence.opencam.cameracontroller.PreviewDispatcher;
 import com.almalence.opencam.ui.GUI.CameraParameter;
 
 //-+- -->
@@ -591,6 +593,12 @@ public class PanoramaAugmentedCapturePlugin extends PluginCapture
 	{
 		return true;
 	}
+
+	@Override
+	public int getPreviewFrameRate()
+	{
+		return PreviewDispatcher.RATE_ALL;
+	}
 	
 	@Override
 	public void selectImageDimension()
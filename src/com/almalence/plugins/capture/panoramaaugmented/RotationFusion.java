@@ -0,0 +1,562 @@
+/*
+The contents of this file are subject to the Mozilla Public License
+Version 1.1 (the "License"); you may not use this file except in
+compliance with the License. You may obtain a copy of the License at
+http://www.mozilla.org/MPL/
+
+Software distributed under the License is distributed on an "AS IS"
+basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+License for the specific language governing rights and limitations
+under the License.
+
+The Original Code is collection of files collectively known as Open Camera.
+
+The Initial Developer of the Original Code is Almalence Inc.
+Portions created by Initial Developer are Copyright (C) 2013
+by Almalence Inc. All Rights Reserved.
+ */
+
+package com.almalence.plugins.capture.panoramaaugmented;
+
+/**
+ * Gyroscope/accelerometer/magnetometer fusion used by
+ * AugmentedRotationListener.
+ *
+ * Has no Android dependencies (SensorManager.getRotationMatrix and
+ * getOrientation are reproduced here) and keeps all intermediate vectors and
+ * matrices in preallocated arrays, so no garbage is produced per sensor event.
+ * Not thread safe, caller serializes events.
+ */
+public class RotationFusion
+{
+	private static final float	NS2S				= 1.0f / 1000000000.0f;
+
+	private static final float	VF_GYRO_SPEED_LIMIT	= 5.f;							// radians/sec
+
+	private static final float	GYRO_FUSION_CF		= 0.02f;
+	private static final float	GRAVITY_FILTER_CF	= 0.1f;
+
+	// SensorManager.STANDARD_GRAVITY
+	private static final float	STANDARD_GRAVITY	= 9.80665f;
+
+	private static final int[]	MAG_REMAP			= { 2, 0, 1 };
+
+	// filter state for acceleration filter
+	private static final int	ACC_FILT_LEN		= 8;
+	private final float[][]		acc_filter			= new float[ACC_FILT_LEN][3];
+	private int					acc_filt_idx		= 0;
+
+	private final float[]		angle_magnetic		= new float[3];
+	private final float[]		angleLF_magnetic	= new float[3];
+	private final float[]		angle_initial		= new float[3];
+	private final float[]		rate_magnetic		= new float[3];
+	private final float[]		filt_magnetic		= new float[3];
+	private final float[]		data_magnetic		= new float[3];
+	private final float[]		data_acceleration	= new float[3];
+	private final float[]		data_gyroscope		= new float[3];
+
+	private int					magneticDataValid	= 0;
+	private long				timestamp_magnetic;
+	private long				timestamp_gyro;
+
+	private final float[]		gyroOrientation		= new float[3];
+	private final float[]		accMagOrientation	= new float[3];
+	private boolean				accMagValid			= false;
+	private final float[]		fusedOrientation	= new float[3];
+	private final float[]		gyroMatrix			= new float[9];
+	private boolean				gyroMatrixValid		= false;
+
+	// scratch
+	private final float[]		gravity				= new float[3];
+	private final float[]		fakeMagnetoMatrix	= new float[9];
+	private final float[]		fakeMagneto			= new float[3];
+	private final float[]		accMatrix			= new float[9];
+	private final float[]		accOrientation		= new float[3];
+	private final float[]		deltaVector			= new float[4];
+	private final float[]		deltaMatrix			= new float[9];
+	private final float[]		normValues			= new float[3];
+	private final float[]		product				= new float[9];
+	private final float[]		xM					= new float[9];
+	private final float[]		yM					= new float[9];
+	private final float[]		zM					= new float[9];
+
+	/**
+	 * Accelerometer or gravity sensor values.
+	 */
+	public void onAcceleration(final float[] values)
+	{
+		System.arraycopy(values, 0, this.data_acceleration, 0, 3);
+		this.calculateAccMagOrientation();
+	}
+
+	/**
+	 * Magnetic field values. Values are filtered and normalized in place.
+	 */
+	public void onMagneticField(final float[] values, final long timestamp)
+	{
+		// simple averaging iir-filter on magnetic field
+		for (int i = 0; i < 3; ++i)
+		{
+			this.filt_magnetic[i] = values[i] = (this.filt_magnetic[i] + values[i]) / 2;
+		}
+
+		float norm = (float) Math.sqrt(values[0] * values[0] + values[1] * values[1] + values[2] * values[2]);
+
+		// normally earth magnetic field is 25-65 uTesla, but some sensors are
+		// way-off in magnitude, setting limit as 1 uTesla here
+		if (norm > 1)
+		{
+			for (int i = 0; i < 3; ++i)
+				values[i] /= norm;
+
+			if (magneticDataValid > 0)
+			{
+				float dT = (timestamp - timestamp_magnetic) * NS2S;
+
+				for (int i = 0; i < 3; ++i)
+				{
+					int j = (i + 1) % 3;
+					int k = MAG_REMAP[i];
+					float mag_new = values[i] * values[i] + values[j] * values[j];
+					float mag_old = this.data_magnetic[i] * this.data_magnetic[i] + this.data_magnetic[j]
+							* this.data_magnetic[j];
+
+					// note the absence of sqrt for these
+					if ((mag_old > 0.01) && (mag_new > 0.01))
+					{
+						// compute rotation rate
+						this.angle_magnetic[k] = (float) Math.atan2(values[i], values[j]);
+
+						float adiff = (this.angle_magnetic[k] - (float) Math.atan2(this.data_magnetic[i],
+								this.data_magnetic[j]));
+
+						while (adiff > Math.PI)
+							adiff -= 2 * Math.PI;
+						while (adiff < -Math.PI)
+							adiff += 2 * Math.PI;
+
+						this.rate_magnetic[k] = adiff / dT;
+
+						// compute LP-filtered angle
+						adiff = this.angle_magnetic[k] - this.angleLF_magnetic[k];
+						while (adiff > Math.PI)
+							adiff -= 2 * Math.PI;
+						while (adiff < -Math.PI)
+							adiff += 2 * Math.PI;
+
+						// above 3 degree difference - assume fast change in
+						// position
+						if (Math.abs(adiff) > Math.PI * 3 / 180)
+							this.angleLF_magnetic[k] = this.angle_magnetic[k];
+						else
+							this.angleLF_magnetic[k] = (this.angleLF_magnetic[k] * 15 + this.angle_magnetic[k]) / 16;
+					} else
+						this.rate_magnetic[k] = 0; // means unknown
+				}
+				magneticDataValid = 2;
+			} else
+			{
+				for (int i = 0; i < 3; ++i)
+				{
+					int j = (i + 1) % 3;
+					this.angle_initial[MAG_REMAP[i]] = (float) Math.atan2(values[i], values[j]);
+				}
+
+				magneticDataValid = 1;
+			}
+
+			for (int i = 0; i < 3; ++i)
+				this.data_magnetic[i] = values[i];
+		} else
+		{
+			magneticDataValid = 0;
+			this.filt_magnetic[0] = this.filt_magnetic[1] = this.filt_magnetic[2] = 0;
+		}
+
+		timestamp_magnetic = timestamp;
+	}
+
+	/**
+	 * Replaces implausible VF gyroscope rates by rates from magnetometer.
+	 */
+	public void fixLargeRates(final float[] values)
+	{
+		if (magneticDataValid < 2)
+			return;
+
+		for (int i = 0; i < 3; ++i)
+		{
+			// correct both:
+			// - high outbursts from vf-based gyro (above 5 radians/sec)
+			// - high-velocity movements not captured by vf-gyro
+			// (magnetometer seem reasonably stable at rates around 1
+			// radian/sec)
+			if (Math.abs(values[i]) > VF_GYRO_SPEED_LIMIT)
+				values[i] = this.rate_magnetic[i];
+		}
+	}
+
+	/**
+	 * Gyroscope rates, radians/sec.
+	 *
+	 * @return false if there were no accelerometer values yet and rotation
+	 *         isn't known
+	 */
+	public boolean onGyroscope(final float[] values, final long timestamp, final boolean accelerometerValueIsFresh)
+	{
+		if (!this.accMagValid)
+		{
+			return false;
+		}
+
+		if (!this.gyroMatrixValid)
+		{
+			getRotationMatrixFromOrientation(this.accMagOrientation, this.gyroMatrix);
+			System.arraycopy(this.accMagOrientation, 0, this.gyroOrientation, 0, 3);
+			this.gyroMatrixValid = true;
+		}
+
+		if (this.timestamp_gyro != 0)
+		{
+			final float dT = (timestamp - this.timestamp_gyro) * NS2S;
+			System.arraycopy(values, 0, this.data_gyroscope, 0, 3);
+			getRotationVectorFromGyro(this.data_gyroscope, this.deltaVector, dT / 2.0f);
+		} else
+		{
+			this.deltaVector[0] = this.deltaVector[1] = this.deltaVector[2] = this.deltaVector[3] = 0;
+		}
+
+		this.timestamp_gyro = timestamp;
+
+		getRotationMatrixFromVector(this.deltaMatrix, this.deltaVector);
+
+		matrixMultiplication(this.gyroMatrix, this.deltaMatrix, this.product);
+		System.arraycopy(this.product, 0, this.gyroMatrix, 0, 9);
+
+		getOrientation(this.gyroMatrix, this.gyroOrientation);
+
+		this.calculateFusion(accelerometerValueIsFresh);
+		return true;
+	}
+
+	/**
+	 * @return current rotation matrix (3x3), valid after onGyroscope returned
+	 *         true. Array is reused.
+	 */
+	public float[] getRotationMatrix()
+	{
+		return this.gyroMatrix;
+	}
+
+	// discard acceleration measurements that are far from g,
+	// i.e. when user started/stopped moving, or hand is shaking
+	private void filterGravity(final float[] accel, final float[] gravity)
+	{
+		acc_filter[acc_filt_idx][0] = accel[0];
+		acc_filter[acc_filt_idx][1] = accel[1];
+		acc_filter[acc_filt_idx][2] = accel[2];
+
+		float wsum;
+
+		gravity[0] = 0;
+		gravity[1] = 0;
+		gravity[2] = 0;
+		wsum = 0;
+		int idx = acc_filt_idx;
+		for (int i = 0; i < ACC_FILT_LEN; ++i)
+		{
+			float g = (float) Math.sqrt(acc_filter[idx][0] * acc_filter[idx][0] + acc_filter[idx][1]
+					* acc_filter[idx][1] + acc_filter[idx][2] * acc_filter[idx][2]);
+
+			// the farther the measured g from 9.81 the less the weight in a
+			// filter
+			float w = 1.f / (Math.abs(g - STANDARD_GRAVITY) + GRAVITY_FILTER_CF);
+
+			// the older the value from accelerometer - the lower the weight
+			w *= ACC_FILT_LEN - i;
+
+			wsum += w;
+
+			gravity[0] += w * acc_filter[i][0];
+			gravity[1] += w * acc_filter[i][1];
+			gravity[2] += w * acc_filter[i][2];
+
+			idx = (idx + ACC_FILT_LEN - 1) & (ACC_FILT_LEN - 1);
+		}
+
+		// normalize filtered result
+		gravity[0] /= wsum;
+		gravity[1] /= wsum;
+		gravity[2] /= wsum;
+
+		acc_filt_idx = (acc_filt_idx + 1) & (ACC_FILT_LEN - 1);
+	}
+
+	private void calculateAccMagOrientation()
+	{
+		if (!this.accMagValid)
+		{
+			this.accMagOrientation[0] = 0;
+			this.accMagOrientation[1] = 0;
+			this.accMagOrientation[2] = 0;
+			// give some initial direction to get meaningful results from fake
+			// magneto
+			this.gyroOrientation[0] = 1;
+			this.gyroOrientation[1] = 0;
+			this.gyroOrientation[2] = 0;
+			this.accMagValid = true;
+		}
+
+		// LP-filter data from accelerometer (nearly-discard data from
+		// non-stationary samplings)
+		filterGravity(this.data_acceleration, this.gravity);
+
+		// generate fake magneto readings from gyroscope (invert gyro matrix to
+		// get conversion from world coordinates to device coordinates)
+		// inversion of rotation matrix is just it's transpose
+		getRotationMatrixFromOrientation(this.gyroOrientation, this.fakeMagnetoMatrix);
+
+		// compose vector of magnetic field using axis pointing to north
+		// (0,1,0): 1,4,7 transposed to 3,4,5
+		this.fakeMagneto[0] = this.fakeMagnetoMatrix[3];
+		this.fakeMagneto[1] = this.fakeMagnetoMatrix[4];
+		this.fakeMagneto[2] = this.fakeMagnetoMatrix[5];
+
+		if (getRotationMatrix(this.accMatrix, this.gravity, this.fakeMagneto))
+		{
+			getOrientation(this.accMatrix, this.accOrientation);
+
+			this.accMagOrientation[0] = this.accOrientation[0];
+			this.accMagOrientation[1] = this.accOrientation[1];
+			this.accMagOrientation[2] = this.accOrientation[2];
+		}
+	}
+
+	private static float fuseAngles(float nice, float dirty, final float compensation, float filtCf)
+	{
+		while (nice - (dirty + compensation) > Math.PI)
+			dirty += 2 * Math.PI;
+		while (nice - (dirty + compensation) < -Math.PI)
+			dirty -= 2 * Math.PI;
+
+		// if gyro (nice) is very far from accelerometer (dirty) - converge
+		// faster
+		if (nice - (dirty + compensation) > Math.PI * 5 / 180) // 5 degrees
+			filtCf *= 5;
+
+		float oneMinusCoeff = 1.0f - filtCf;
+
+		nice = oneMinusCoeff * nice + filtCf * (dirty + compensation);
+
+		if (nice < -Math.PI)
+			nice += 2 * Math.PI;
+		if (nice > Math.PI)
+			nice -= 2 * Math.PI;
+
+		return nice;
+	}
+
+	private void calculateFusion(boolean accelerometerValueIsFresh)
+	{
+		for (int i = 0; i < 3; ++i)
+		{
+			if (accelerometerValueIsFresh)
+				this.fusedOrientation[i] = fuseAngles(this.gyroOrientation[i], this.accMagOrientation[i], 0,
+						GYRO_FUSION_CF);
+			else
+				this.fusedOrientation[i] = fuseAngles(this.gyroOrientation[i], this.accMagOrientation[i], 0, 0);
+		}
+
+		// overwrite gyro matrix and orientation with fused orientation to
+		// compensate gyro drift
+		getRotationMatrixFromOrientation(this.fusedOrientation, this.gyroMatrix);
+		System.arraycopy(this.fusedOrientation, 0, this.gyroOrientation, 0, 3);
+	}
+
+	private void getRotationVectorFromGyro(final float[] gyroValues, final float[] deltaRotationVector,
+			final float timeFactor)
+	{
+		final float[] normValues = this.normValues;
+		normValues[0] = normValues[1] = normValues[2] = 0;
+
+		// Calculate the angular speed of the sample
+		float omegaMagnitude = (float) Math.sqrt(gyroValues[0] * gyroValues[0] + gyroValues[1] * gyroValues[1]
+				+ gyroValues[2] * gyroValues[2]);
+
+		// Normalize the rotation vector if it's big enough to get the axis
+		if (omegaMagnitude != 0.0f)
+		{
+			normValues[0] = gyroValues[0] / omegaMagnitude;
+			normValues[1] = gyroValues[1] / omegaMagnitude;
+			normValues[2] = gyroValues[2] / omegaMagnitude;
+		}
+
+		// Integrate around this axis with the angular speed by the timestep
+		// in order to get a delta rotation from this sample over the timestep
+		// We will convert this axis-angle representation of the delta rotation
+		// into a quaternion before turning it into the rotation matrix.
+		float thetaOverTwo = omegaMagnitude * timeFactor;
+		float sinThetaOverTwo = (float) Math.sin(thetaOverTwo);
+		float cosThetaOverTwo = (float) Math.cos(thetaOverTwo);
+		deltaRotationVector[0] = sinThetaOverTwo * normValues[0];
+		deltaRotationVector[1] = sinThetaOverTwo * normValues[1];
+		deltaRotationVector[2] = sinThetaOverTwo * normValues[2];
+		deltaRotationVector[3] = cosThetaOverTwo;
+	}
+
+	// result must not be A or B
+	private static void matrixMultiplication(final float[] A, final float[] B, final float[] result)
+	{
+		result[0] = A[0] * B[0] + A[1] * B[3] + A[2] * B[6];
+		result[1] = A[0] * B[1] + A[1] * B[4] + A[2] * B[7];
+		result[2] = A[0] * B[2] + A[1] * B[5] + A[2] * B[8];
+
+		result[3] = A[3] * B[0] + A[4] * B[3] + A[5] * B[6];
+		result[4] = A[3] * B[1] + A[4] * B[4] + A[5] * B[7];
+		result[5] = A[3] * B[2] + A[4] * B[5] + A[5] * B[8];
+
+		result[6] = A[6] * B[0] + A[7] * B[3] + A[8] * B[6];
+		result[7] = A[6] * B[1] + A[7] * B[4] + A[8] * B[7];
+		result[8] = A[6] * B[2] + A[7] * B[5] + A[8] * B[8];
+	}
+
+	private void getRotationMatrixFromOrientation(final float[] o, final float[] result)
+	{
+		float sinX = (float) Math.sin(o[1]);
+		float cosX = (float) Math.cos(o[1]);
+		float sinY = (float) Math.sin(o[2]);
+		float cosY = (float) Math.cos(o[2]);
+		float sinZ = (float) Math.sin(o[0]);
+		float cosZ = (float) Math.cos(o[0]);
+
+		// rotation about x-axis (pitch)
+		xM[0] = 1.0f;
+		xM[1] = 0.0f;
+		xM[2] = 0.0f;
+		xM[3] = 0.0f;
+		xM[4] = cosX;
+		xM[5] = sinX;
+		xM[6] = 0.0f;
+		xM[7] = -sinX;
+		xM[8] = cosX;
+
+		// rotation about y-axis (roll)
+		yM[0] = cosY;
+		yM[1] = 0.0f;
+		yM[2] = sinY;
+		yM[3] = 0.0f;
+		yM[4] = 1.0f;
+		yM[5] = 0.0f;
+		yM[6] = -sinY;
+		yM[7] = 0.0f;
+		yM[8] = cosY;
+
+		// rotation about z-axis (azimuth)
+		zM[0] = cosZ;
+		zM[1] = sinZ;
+		zM[2] = 0.0f;
+		zM[3] = -sinZ;
+		zM[4] = cosZ;
+		zM[5] = 0.0f;
+		zM[6] = 0.0f;
+		zM[7] = 0.0f;
+		zM[8] = 1.0f;
+
+		// rotation order is y, x, z (roll, pitch, azimuth)
+		matrixMultiplication(xM, yM, product);
+		matrixMultiplication(zM, product, result);
+	}
+
+	private static void getRotationMatrixFromVector(final float[] R, final float[] rotationVector)
+	{
+		final float q0 = rotationVector[3];
+		final float q1 = rotationVector[0];
+		final float q2 = rotationVector[1];
+		final float q3 = rotationVector[2];
+
+		float sq_q1 = 2 * q1 * q1;
+		float sq_q2 = 2 * q2 * q2;
+		float sq_q3 = 2 * q3 * q3;
+		float q1_q2 = 2 * q1 * q2;
+		float q3_q0 = 2 * q3 * q0;
+		float q1_q3 = 2 * q1 * q3;
+		float q2_q0 = 2 * q2 * q0;
+		float q2_q3 = 2 * q2 * q3;
+		float q1_q0 = 2 * q1 * q0;
+
+		R[0] = 1 - sq_q2 - sq_q3;
+		R[1] = q1_q2 - q3_q0;
+		R[2] = q1_q3 + q2_q0;
+
+		R[3] = q1_q2 + q3_q0;
+		R[4] = 1 - sq_q1 - sq_q3;
+		R[5] = q2_q3 - q1_q0;
+
+		R[6] = q1_q3 - q2_q0;
+		R[7] = q2_q3 + q1_q0;
+		R[8] = 1 - sq_q1 - sq_q2;
+	}
+
+	// Same as SensorManager.getRotationMatrix(R, null, gravity, geomagnetic)
+	// for 3x3 R
+	private static boolean getRotationMatrix(final float[] R, final float[] gravity, final float[] geomagnetic)
+	{
+		float Ax = gravity[0];
+		float Ay = gravity[1];
+		float Az = gravity[2];
+
+		final float normsqA = (Ax * Ax + Ay * Ay + Az * Az);
+		final float g = 9.81f;
+		final float freeFallGravitySquared = 0.01f * g * g;
+		if (normsqA < freeFallGravitySquared)
+		{
+			// gravity less than 10% of normal value
+			return false;
+		}
+
+		final float Ex = geomagnetic[0];
+		final float Ey = geomagnetic[1];
+		final float Ez = geomagnetic[2];
+		float Hx = Ey * Az - Ez * Ay;
+		float Hy = Ez * Ax - Ex * Az;
+		float Hz = Ex * Ay - Ey * Ax;
+		final float normH = (float) Math.sqrt(Hx * Hx + Hy * Hy + Hz * Hz);
+
+		if (normH < 0.1f)
+		{
+			// device is close to free fall (or in space?), or close to
+			// magnetic north pole. Typical values are > 100.
+			return false;
+		}
+		final float invH = 1.0f / normH;
+		Hx *= invH;
+		Hy *= invH;
+		Hz *= invH;
+		final float invA = 1.0f / (float) Math.sqrt(Ax * Ax + Ay * Ay + Az * Az);
+		Ax *= invA;
+		Ay *= invA;
+		Az *= invA;
+		final float Mx = Ay * Hz - Az * Hy;
+		final float My = Az * Hx - Ax * Hz;
+		final float Mz = Ax * Hy - Ay * Hx;
+
+		R[0] = Hx;
+		R[1] = Hy;
+		R[2] = Hz;
+		R[3] = Mx;
+		R[4] = My;
+		R[5] = Mz;
+		R[6] = Ax;
+		R[7] = Ay;
+		R[8] = Az;
+		return true;
+	}
+
+	// Same as SensorManager.getOrientation(R, values) for 3x3 R
+	private static void getOrientation(final float[] R, final float[] values)
+	{
+		values[0] = (float) Math.atan2(R[1], R[4]);
+		values[1] = (float) Math.asin(-R[7]);
+		values[2] = (float) Math.atan2(-R[6], R[8]);
+	}
+}
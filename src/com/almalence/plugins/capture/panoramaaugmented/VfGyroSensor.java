@@ -1,335 +1,501 @@
-/*
-The contents of this file are subject to the Mozilla Public License
-Version 1.1 (the "License"); you may not use this file except in
-compliance with the License. You may obtain a copy of the License at
-http://www.mozilla.org/MPL/
-
-Software distributed under the License is distributed on an "AS IS"
-basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
-License for the specific language governing rights and limitations
-under the License.
-
-The Original Code is collection of files collectively known as Open Camera.
-
-The Initial Developer of the Original Code is Almalence Inc.
-Portions created by Initial Developer are Copyright (C) 2013 
-by Almalence Inc. All Rights Reserved.
- */
-
-package com.almalence.plugins.capture.panoramaaugmented;
-
-// Usage:
-// - create in activity onCreate
-// - call SetFrameParameters just before starting camera preview
-// - call NewData(data) from onPreviewFrame
-// - call close() from activity onDestroy
-
-import java.io.Closeable;
-import java.lang.reflect.Constructor;
-
-import android.hardware.Sensor;
-import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
-import android.hardware.SensorManager;
-import android.os.Handler;
-import android.os.Message;
-
-public class VfGyroSensor implements Closeable, Handler.Callback
-{
-	private static final boolean	SMOOTH_MOTION		= true;
-	private static final boolean	EARLY_TIMESTAMP		= true; // false;
-
-	// custom VF GYRO sensor type
-	public static final int			TYPE_VF_GYROSCOPE	= Sensor.TYPE_GYROSCOPE | 0x01000000;
-
-	public String getName()
-	{
-		return "ViewFinder Gyro";
-	}
-
-	public String getVendor()
-	{
-		return "Almalence";
-	}
-
-	public int getType()
-	{
-		return TYPE_VF_GYROSCOPE;
-	}
-
-	public int getVersion()
-	{
-		return 1;
-	}
-
-	public float getMaximumRange()
-	{
-		return 2 * (float) Math.PI;
-	}// full circle in a second
-
-	public float getResolution()
-	{
-		return 1e-5f;
-	}
-
-	public float getPower()
-	{
-		return 0;
-	}
-
-	public int getMinDelay()
-	{
-		return 16000;
-	} // ~ 60 fps
-
-	int getHandle()
-	{
-		return 0;
-	}
-
-	Constructor<SensorEvent>	EventConstructor	= null;
-	SensorEvent					sensorEvent, sensorEventPrev;
-	private float[]				sensorValuesPrev	= new float[3];
-
-	SensorEventListener			m_listener;
-
-	private boolean				m_justStability;
-
-	private byte[]				datacopy;
-	private long				timestamp;
-	private long				timestamp_initial;
-	private VfGyroSensor		mThiz;
-	private boolean				doneWithNewData		= true;
-	private int					nBlankRuns;
-
-	private final Handler		H					= new Handler(this);
-	private static final int	MSG_SMOOTHER_GYRO	= 1;
-
-	public VfGyroSensor(SensorEventListener listener)
-	{
-		mThiz = this;
-
-		doneWithNewData = true;
-
-		Initialize();
-
-		m_listener = listener;
-		m_justStability = false;
-
-		sensorValuesPrev[0] = sensorValuesPrev[1] = sensorValuesPrev[2] = 0;
-		nBlankRuns = 0;
-
-		// A hack to construct SensorEvent
-		try
-		{
-			EventConstructor = SensorEvent.class.getDeclaredConstructor(int.class); // Parameter
-																					// is
-																					// the
-																					// type
-																					// of
-																					// params
-																					// in
-																					// the
-																					// constructor
-																					// (e.g.
-																					// String)
-			EventConstructor.setAccessible(true);
-			sensorEvent = EventConstructor.newInstance(3);
-			sensorEventPrev = EventConstructor.newInstance(3);
-
-			sensorEvent.accuracy = SensorManager.SENSOR_STATUS_ACCURACY_HIGH;
-			sensorEvent.sensor = (Sensor) null;
-			sensorEventPrev.accuracy = SensorManager.SENSOR_STATUS_ACCURACY_HIGH;
-			sensorEventPrev.sensor = (Sensor) null;
-		} catch (Exception e)
-		{
-			e.printStackTrace();
-		}
-	}
-
-	public void open()
-	{
-		Initialize();
-	}
-
-	@Override
-	public void close() // throws IOException
-	{
-		Release();
-	}
-
-	@Override
-	public void finalize() throws Throwable
-	{
-		this.close();
-
-		super.finalize();
-	}
-
-	public void SetListener(SensorEventListener listener)
-	{
-		m_listener = listener;
-	}
-
-	public void SetStabilityOnly(boolean justStability)
-	{
-		m_justStability = justStability;
-	}
-
-	public boolean handleMessage(Message msg)
-	{
-		if (msg.what == MSG_SMOOTHER_GYRO)
-			NewData(null);
-
-		return true;
-	}
-
-	public void NewData(byte[] data)
-	{
-		if (EARLY_TIMESTAMP)
-			timestamp = System.nanoTime();
-
-		synchronized (sensorEventPrev)
-		{
-			// For smoother GUI: if frame is still in processing - pass the
-			// previous values,
-			// but take this (timestamp, values) into account for the next
-			// calculation
-			// Simpler way: if not finished with previous frame - do not accept
-			// the new one
-			if (SMOOTH_MOTION && ((!doneWithNewData) || (data == null)))
-			{
-				if (nBlankRuns < 4)
-				{
-					sensorEventPrev.timestamp = System.nanoTime(); // timestamp;
-
-					++nBlankRuns;
-
-					// emit sensor event
-					if (m_listener != null)
-					{
-						m_listener.onSensorChanged(sensorEventPrev);
-						H.sendEmptyMessageDelayed(MSG_SMOOTHER_GYRO, getMinDelay() / 1000);
-					}
-				}
-
-				return;
-			}
-		}
-
-		if ((!doneWithNewData) || (data == null))
-			return;
-
-		if (datacopy == null)
-			datacopy = new byte[data.length];
-		else if (datacopy.length != data.length)
-			datacopy = new byte[data.length];
-
-		System.arraycopy(data, 0, datacopy, 0, data.length);
-
-		doneWithNewData = false;
-
-		if (EARLY_TIMESTAMP)
-		{
-			sensorEvent.timestamp = timestamp;
-		}
-
-		// To prevent pressure on UI part - run gyro processing in separate
-		// thread
-		new Thread(new Runnable()
-		{
-			@Override
-			public void run()
-			{
-				synchronized (mThiz)
-				{
-					Update(datacopy, sensorEvent.timestamp, m_justStability);
-
-					Get(sensorEvent.values);
-
-					// clean any pending blank-run messages
-					if (SMOOTH_MOTION)
-						H.removeMessages(MSG_SMOOTHER_GYRO);
-
-					float[] savedValues = new float[3];
-
-					savedValues[0] = sensorEvent.values[0];
-					savedValues[1] = sensorEvent.values[1];
-					savedValues[2] = sensorEvent.values[2];
-
-					synchronized (sensorEventPrev)
-					{
-						if (!EARLY_TIMESTAMP)
-							sensorEvent.timestamp = System.nanoTime();
-
-						// if there were blank runs - correct for accumulated
-						// error
-						if (sensorEventPrev.timestamp != timestamp_initial)
-						{
-							long dt1 = sensorEvent.timestamp - timestamp_initial;
-							long dt2 = sensorEventPrev.timestamp - timestamp_initial;
-
-							if (dt1 != dt2) // replace with dt1 > dt2
-							{
-								float norm = 1.f / (dt1 - dt2);
-
-								for (int i = 0; i < 3; ++i)
-								{
-									float dx1 = dt1 * sensorEvent.values[i];
-									float dx2 = dt2 * sensorEventPrev.values[i];
-
-									sensorEvent.values[i] = (dx1 - dx2) * norm;
-								}
-							}
-						}
-
-						for (int i = 0; i < 3; ++i)
-						{
-							if (savedValues[i] * sensorValuesPrev[i] <= 0)
-								sensorEventPrev.values[i] = 0;
-							else if (Math.abs(savedValues[i]) < Math.abs(sensorValuesPrev[i]))
-								sensorEventPrev.values[i] = savedValues[i];
-							else
-								sensorEventPrev.values[i] = sensorValuesPrev[i];
-
-							sensorValuesPrev[i] = savedValues[i];
-						}
-
-						sensorEventPrev.timestamp = sensorEvent.timestamp;
-						timestamp_initial = sensorEvent.timestamp;
-						nBlankRuns = 0;
-
-						// emit sensor event
-						if (m_listener != null)
-						{
-							m_listener.onSensorChanged(sensorEvent);
-							if (SMOOTH_MOTION && (!m_justStability))
-								H.sendEmptyMessageDelayed(MSG_SMOOTHER_GYRO, getMinDelay() / 1000);
-						}
-
-						doneWithNewData = true;
-					}
-				}
-			}
-		}).start();
-	}
-
-	public native void Initialize();
-
-	public native void Release();
-
-	public native void SetFrameParameters(int w, int h, float HorizontalFOV, float VerticalFOV);
-
-	public native void Update(byte[] data, long timestamp, boolean justStability);
-
-	public native long Get(float[] values); // return value is timestamp
-
-	public static native void FixDrift(float[] values, boolean updateDrift);
-
-	static
-	{
-		System.loadLibrary("utils-image");
-		System.loadLibrary("almalib");
-		System.loadLibrary("almashot-pano");
-	}
-}
+/*
+The contents of this file are subject to the Mozilla Public License
+Version 1.1 (the "License"); you may not use this file except in
+compliance with the License. You may obtain a copy of the License at
+http://www.mozilla.org/MPL/
+
+Software distributed under the License is distributed on an "AS IS"
+basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+License for the specific language governing rights and limitations
+under the License.
+
+The Original Code is collection of files collectively known as Open Camera.
+
+The Initial Developer of the Original Code is Almalence Inc.
+Portions created by Initial Developer are Copyright (C) 2013 
+by Almalence Inc. All Rights Reserved.
+ */
+
+package com.almalence.plugins.capture.panoramaaugmented;
+
+// Usage:
+// - create in activity onCreate
+// - call SetFrameParameters just before starting camera preview
+// - call NewData(data) from onPreviewFrame
+// - call close() from activity onDestroy
+
+import java.io.Closeable;
+import java.lang.reflect.Constructor;
+
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.Handler;
+import android.os.Message;
+
+public class VfGyroSensor implements Closeable, Handler.Callback
+{
+	private static final boolean	SMOOTH_MOTION		= true;
+	private static final boolean	EARLY_TIMESTAMP		= true; // false;
+
+	// custom VF GYRO sensor type
+	public static final int			TYPE_VF_GYROSCOPE	= Sensor.TYPE_GYROSCOPE | 0x01000000;
+
+	public String getName()
+	{
+		return "ViewFinder Gyro";
+	}
+
+	public String getVendor()
+	{
+		return "Almalence";
+	}
+
+	public int getType()
+	{
+		return TYPE_VF_GYROSCOPE;
+	}
+
+	public int getVersion()
+	{
+		return 1;
+	}
+
+	public float getMaximumRange()
+	{
+		return 2 * (float) Math.PI;
+	}// full circle in a second
+
+	public float getResolution()
+	{
+		return 1e-5f;
+	}
+
+	public float getPower()
+	{
+		return 0;
+	}
+
+	public int getMinDelay()
+	{
+		return 16000;
+	} // ~ 60 fps
+
+	int getHandle()
+	{
+		return 0;
+	}
+
+	Constructor<SensorEvent>	EventConstructor	= null;
+	SensorEvent					sensorEvent, sensorEventPrev;
+	private float[]				sensorValuesPrev	= new float[3];
+
+	SensorEventListener			m_listener;
+
+	private boolean				m_justStability;
+
+	// Luma of accepted frames. Two buffers, so the one being estimated is
+	// never the one NewData writes to.
+	private final byte[][]		lumaBuffers			= new byte[2][];
+	private int					lumaIndex			= 0;
+	private int					lumaSize			= 0;
+	private long				timestamp;
+	private long				timestamp_initial;
+	private volatile boolean	doneWithNewData		= true;
+	private int					nBlankRuns;
+	private final float[]		savedValues			= new float[3];
+
+	// Estimator thread is started with the first frame and exits when there
+	// are no frames for a while
+	private static final long	ESTIMATOR_IDLE_TIMEOUT	= 2000;
+	private final Object		slotLock			= new Object();
+	private Thread				estimatorThread		= null;
+	private boolean				framePending		= false;
+	private long				frameTime;
+
+	private long				processedFrames		= 0;
+	private long				droppedFrames		= 0;
+	private long				totalLatency		= 0;
+	private long				maxLatency			= 0;
+
+	private final Handler		H					= new Handler(this);
+	private static final int	MSG_SMOOTHER_GYRO	= 1;
+
+	public VfGyroSensor(SensorEventListener listener)
+	{
+		doneWithNewData = true;
+
+		initialize();
+
+		m_listener = listener;
+		m_justStability = false;
+
+		sensorValuesPrev[0] = sensorValuesPrev[1] = sensorValuesPrev[2] = 0;
+		nBlankRuns = 0;
+
+		// A hack to construct SensorEvent
+		try
+		{
+			EventConstructor = SensorEvent.class.getDeclaredConstructor(int.class); // Parameter
+																					// is
+																					// the
+																					// type
+																					// of
+																					// params
+																					// in
+																					// the
+																					// constructor
+																					// (e.g.
+																					// String)
+			EventConstructor.setAccessible(true);
+			sensorEvent = EventConstructor.newInstance(3);
+			sensorEventPrev = EventConstructor.newInstance(3);
+
+			sensorEvent.accuracy = SensorManager.SENSOR_STATUS_ACCURACY_HIGH;
+			sensorEvent.sensor = (Sensor) null;
+			sensorEventPrev.accuracy = SensorManager.SENSOR_STATUS_ACCURACY_HIGH;
+			sensorEventPrev.sensor = (Sensor) null;
+		} catch (Exception e)
+		{
+			e.printStackTrace();
+		}
+	}
+
+	public void open()
+	{
+		initialize();
+	}
+
+	@Override
+	public void close() // throws IOException
+	{
+		release();
+	}
+
+	@Override
+	public void finalize() throws Throwable
+	{
+		this.close();
+
+		super.finalize();
+	}
+
+	public void SetListener(SensorEventListener listener)
+	{
+		m_listener = listener;
+	}
+
+	public void SetStabilityOnly(boolean justStability)
+	{
+		m_justStability = justStability;
+	}
+
+	public boolean handleMessage(Message msg)
+	{
+		if (msg.what == MSG_SMOOTHER_GYRO)
+			NewData(null);
+
+		return true;
+	}
+
+	public void NewData(byte[] data)
+	{
+		if (EARLY_TIMESTAMP)
+			timestamp = System.nanoTime();
+
+		synchronized (sensorEventPrev)
+		{
+			// For smoother GUI: if frame is still in processing - pass the
+			// previous values,
+			// but take this (timestamp, values) into account for the next
+			// calculation
+			// Simpler way: if not finished with previous frame - do not accept
+			// the new one
+			if (SMOOTH_MOTION && ((!doneWithNewData) || (data == null)))
+			{
+				if (data != null)
+					countDroppedFrame();
+
+				if (nBlankRuns < 4)
+				{
+					sensorEventPrev.timestamp = System.nanoTime(); // timestamp;
+
+					++nBlankRuns;
+
+					// emit sensor event
+					if (m_listener != null)
+					{
+						m_listener.onSensorChanged(sensorEventPrev);
+						H.sendEmptyMessageDelayed(MSG_SMOOTHER_GYRO, getMinDelay() / 1000);
+					}
+				}
+
+				return;
+			}
+		}
+
+		if (data == null)
+			return;
+
+		if (!doneWithNewData)
+		{
+			countDroppedFrame();
+			return;
+		}
+
+		// estimator reads only luma plane, chroma isn't copied
+		int size = lumaSize > 0 && lumaSize <= data.length ? lumaSize : data.length;
+		lumaIndex ^= 1;
+		if (lumaBuffers[lumaIndex] == null || lumaBuffers[lumaIndex].length != size)
+			lumaBuffers[lumaIndex] = new byte[size];
+
+		System.arraycopy(data, 0, lumaBuffers[lumaIndex], 0, size);
+
+		doneWithNewData = false;
+
+		if (EARLY_TIMESTAMP)
+		{
+			sensorEvent.timestamp = timestamp;
+		}
+
+		// To prevent pressure on UI part - run gyro processing in separate
+		// thread
+		synchronized (slotLock)
+		{
+			framePending = true;
+			frameTime = System.nanoTime();
+			if (estimatorThread == null)
+			{
+				estimatorThread = new Thread(estimator, "VfGyroSensor");
+				estimatorThread.start();
+			} else
+				slotLock.notify();
+		}
+	}
+
+	private final Runnable	estimator	= new Runnable()
+	{
+		@Override
+		public void run()
+		{
+			while (true)
+			{
+				byte[] luma;
+				long queued;
+				synchronized (slotLock)
+				{
+					if (!framePending)
+					{
+						try
+						{
+							slotLock.wait(ESTIMATOR_IDLE_TIMEOUT);
+						} catch (InterruptedException e)
+						{
+							e.printStackTrace();
+						}
+					}
+					if (!framePending)
+					{
+						estimatorThread = null;
+						return;
+					}
+					framePending = false;
+					luma = lumaBuffers[lumaIndex];
+					queued = frameTime;
+				}
+
+				estimate(luma);
+
+				long latency = System.nanoTime() - queued;
+				synchronized (slotLock)
+				{
+					processedFrames++;
+					totalLatency += latency;
+					if (latency > maxLatency)
+						maxLatency = latency;
+				}
+			}
+		}
+	};
+
+	private void estimate(byte[] luma)
+	{
+		synchronized (this)
+		{
+			update(luma, sensorEvent.timestamp, m_justStability);
+
+			get(sensorEvent.values);
+
+			// clean any pending blank-run messages
+			if (SMOOTH_MOTION)
+				H.removeMessages(MSG_SMOOTHER_GYRO);
+
+			savedValues[0] = sensorEvent.values[0];
+			savedValues[1] = sensorEvent.values[1];
+			savedValues[2] = sensorEvent.values[2];
+
+			synchronized (sensorEventPrev)
+			{
+				if (!EARLY_TIMESTAMP)
+					sensorEvent.timestamp = System.nanoTime();
+
+				// if there were blank runs - correct for accumulated
+				// error
+				if (sensorEventPrev.timestamp != timestamp_initial)
+				{
+					long dt1 = sensorEvent.timestamp - timestamp_initial;
+					long dt2 = sensorEventPrev.timestamp - timestamp_initial;
+
+					if (dt1 != dt2) // replace with dt1 > dt2
+					{
+						float norm = 1.f / (dt1 - dt2);
+
+						for (int i = 0; i < 3; ++i)
+						{
+							float dx1 = dt1 * sensorEvent.values[i];
+							float dx2 = dt2 * sensorEventPrev.values[i];
+
+							sensorEvent.values[i] = (dx1 - dx2) * norm;
+						}
+					}
+				}
+
+				for (int i = 0; i < 3; ++i)
+				{
+					if (savedValues[i] * sensorValuesPrev[i] <= 0)
+						sensorEventPrev.values[i] = 0;
+					else if (Math.abs(savedValues[i]) < Math.abs(sensorValuesPrev[i]))
+						sensorEventPrev.values[i] = savedValues[i];
+					else
+						sensorEventPrev.values[i] = sensorValuesPrev[i];
+
+					sensorValuesPrev[i] = savedValues[i];
+				}
+
+				sensorEventPrev.timestamp = sensorEvent.timestamp;
+				timestamp_initial = sensorEvent.timestamp;
+				nBlankRuns = 0;
+
+				// emit sensor event
+				if (m_listener != null)
+				{
+					m_listener.onSensorChanged(sensorEvent);
+					if (SMOOTH_MOTION && (!m_justStability))
+						H.sendEmptyMessageDelayed(MSG_SMOOTHER_GYRO, getMinDelay() / 1000);
+				}
+
+				doneWithNewData = true;
+			}
+		}
+	}
+
+	public void SetFrameParameters(int w, int h, float HorizontalFOV, float VerticalFOV)
+	{
+		lumaSize = w * h;
+		setFrameParameters(w, h, HorizontalFOV, VerticalFOV);
+	}
+
+	private void countDroppedFrame()
+	{
+		synchronized (slotLock)
+		{
+			droppedFrames++;
+		}
+	}
+
+	// frames processed by estimator
+	public long getProcessedFrames()
+	{
+		synchronized (slotLock)
+		{
+			return processedFrames;
+		}
+	}
+
+	// frames which came while estimator was busy with previous one
+	public long getDroppedFrames()
+	{
+		synchronized (slotLock)
+		{
+			return droppedFrames;
+		}
+	}
+
+	// average time from NewData till sensor event, ms
+	public long getAverageLatency()
+	{
+		synchronized (slotLock)
+		{
+			return processedFrames > 0 ? totalLatency / processedFrames / 1000000 : 0;
+		}
+	}
+
+	// ms
+	public long getMaxLatency()
+	{
+		synchronized (slotLock)
+		{
+			return maxLatency / 1000000;
+		}
+	}
+
+	// Motion estimation is native. Harnesses override these methods to run
+	// the sensor without native libraries.
+	protected void initialize()
+	{
+		loadLibraries();
+		Initialize();
+	}
+
+	protected void release()
+	{
+		Release();
+	}
+
+	protected void setFrameParameters(int w, int h, float HorizontalFOV, float VerticalFOV)
+	{
+		nativeSetFrameParameters(w, h, HorizontalFOV, VerticalFOV);
+	}
+
+	protected void update(byte[] luma, long timestamp, boolean justStability)
+	{
+		Update(luma, timestamp, justStability);
+	}
+
+	protected void get(float[] values)
+	{
+		Get(values);
+	}
+
+	public static void FixDrift(float[] values, boolean updateDrift)
+	{
+		loadLibraries();
+		nativeFixDrift(values, updateDrift);
+	}
+
+	public native void Initialize();
+
+	public native void Release();
+
+	private native void nativeSetFrameParameters(int w, int h, float HorizontalFOV, float VerticalFOV);
+
+	public native void Update(byte[] data, long timestamp, boolean justStability);
+
+	public native long Get(float[] values); // return value is timestamp
+
+	private static native void nativeFixDrift(float[] values, boolean updateDrift);
+
+	private static boolean	librariesLoaded	= false;
+
+	private static synchronized void loadLibraries()
+	{
+		if (librariesLoaded)
+			return;
+
+		System.loadLibrary("utils-image");
+		System.loadLibrary("almalib");
+		System.loadLibrary("almashot-pano");
+		librariesLoaded = true;
+	}
+}
@@ -26,6 +26,12 @@ public final class PreShot
 
 	public static native int[] GetFromBufferRGBA(int idx, boolean manualOrientation, boolean orientation);
 
+	// Frame scaled to outWidth x outHeight of rotated image and rotated
+	// clockwise by multiple of 90 degrees, as ARGB pixels written to out.
+	// False if frame isn't available.
+	public static native boolean GetFromBufferRGBAScaled(int idx, int[] out, int outWidth, int outHeight,
+			int rotation);
+
 	public static native byte[] GetFromBufferToShowInSlow(int idx, int previewW, int previewH);
 
 	public static native int getOrientation(int idx);
@@ -37,6 +43,14 @@ public final class PreShot
 	public static native byte[] GetFromBufferNV21(int idx, int W, int H, int mirrored);
 
 	public static native byte[] GetFromBufferSimpleNV21(int idx);
+
+	// Copies of buffered frames in native heap, caller owns returned memory.
+	// 0 is returned if frame isn't available.
+	public static native long GetFromBufferNV21ToHeap(int idx, int W, int H, int mirrored);
+
+	public static native long GetFromBufferSimpleToHeap(int idx);
+
+	public static native int GetFromBufferLength(int idx, boolean simple);
 	
 	// /reserved
 //	public static native int MakeCopy();
@@ -49,7 +63,13 @@ public final class PreShot
 
 	public static native boolean FreeBuffer();
 
-	public static native int InsertToBuffer(byte[] data, int isPortrait);
+	// Preview frames are compressed to jpeg on insert. Frames older than
+	// seconds given to AllocateBuffer are dropped.
+	public static native int InsertToBuffer(byte[] data, int orientation);
+
+	// Frames inserted and dropped, NV21 bytes, stored bytes, total and max
+	// insert time in microseconds since AllocateBuffer.
+	public static native long[] GetStatistics();
 
 	static
 	{
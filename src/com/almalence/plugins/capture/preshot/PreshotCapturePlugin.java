@@ -35,6 +35,7 @@ import android.widget.Toast;
 
 /* <!-- +++
  import com.almalence.opencam_plus.cameracontroller.CameraController;
+ import com.almalence.opencam_plus.cameracontroller.PreviewDispatcher;
  import com.almalence.opencam_plus.CameraParameters;
  import com.almalence.opencam_plus.ApplicationScreen;
  import com.almalence.opencam_plus.PluginCapture;
@@ -50,6 +51,7 @@ import com.almalence.opencam.PluginManager;
 import com.almalence.opencam.R;
 import com.almalence.opencam.ApplicationInterface;
 import com.almalence.opencam.cameracontroller.CameraController;
+import com.almalence.opencam.cameracontroller.PreviewDispatcher;
 //-+- -->
 
 import com.almalence.ui.Switch.Switch;
@@ -192,6 +194,12 @@ public class PreshotCapturePlugin extends PluginCapture
 	{
 		return true;
 	}
+
+	@Override
+	public int getPreviewFrameRate()
+	{
+		return PreviewDispatcher.RATE_ALL;
+	}
 	
 	private void getPrefs()
 	{
@@ -200,7 +208,7 @@ public class PreshotCapturePlugin extends PluginCapture
 		RefocusPreference = prefs.getBoolean("refocusPrefPreShot", false);
 		AutostartPreference = prefs.getBoolean("autostartPrefPreShot", false);
 		PauseBetweenShots = prefs.getString("pauseBetweenShotsPrefPreShot", "500");
-		PreShotInterval = prefs.getString("backInTimePrefPreShot", "5");
+		PreShotInterval = prefs.getString("PreShotPrefPreShot", "5");
 
 		if (1 == Integer.parseInt(prefs.getString("modePrefPreShot", "0")))
 		{
@@ -303,6 +311,8 @@ public class PreshotCapturePlugin extends PluginCapture
 	private long t1 = 0;
 	private int cnt = 0;
 	private double fpsInterval = 0;
+
+	private long bufferingStarted = 0;
 	
 	// starts buffering to native buffer
 	void StartBuffering()
@@ -316,6 +326,7 @@ public class PreshotCapturePlugin extends PluginCapture
 		resultCompleted = 0;
 		
 		isBuffering = true;
+		bufferingStarted = System.currentTimeMillis();
 		if (!isSlowMode)
 		{
 			PreShot.FreeBuffer();
@@ -384,6 +395,8 @@ public class PreshotCapturePlugin extends PluginCapture
 		PluginManager.getInstance().addToSharedMem("amountofcapturedframes" + SessionID,
 				String.valueOf(PreShot.GetImageCount()));
 
+		logStatistics();
+
 		if (!isSlowMode)
 		{
 			frmCnt = 1;
@@ -402,7 +415,6 @@ public class PreshotCapturePlugin extends PluginCapture
 		if (0 == cnt || timelapse>fpsInterval)
 		{
 			t1 = System.currentTimeMillis();
-			System.gc();
 
 			if (frmCnt == 1)
 				PluginManager.getInstance().addToSharedMemExifTagsFromCamera(SessionID);
@@ -412,6 +424,24 @@ public class PreshotCapturePlugin extends PluginCapture
 		frmCnt++;
 	}
 
+	// Insert latency includes jpeg compression of preview frame. Max
+	// sustained fps is how many frames per second inserts could take.
+	private void logStatistics()
+	{
+		long[] stats = PreShot.GetStatistics();
+		if (stats == null || stats[0] == 0 || stats[3] == 0)
+			return;
+
+		long inserted = stats[0];
+		long averageInsert = stats[4] / inserted;
+		long elapsed = System.currentTimeMillis() - bufferingStarted;
+		Log.i("Preshot capture", "frames " + inserted + ", dropped " + stats[1] + ", kept " + PreShot.GetImageCount()
+				+ ", compression " + String.format("%.1f", (double) stats[2] / stats[3]) + ", insert "
+				+ averageInsert + "us, max " + stats[5] + "us, max sustained fps "
+				+ (averageInsert > 0 ? 1000000 / averageInsert : 0) + ", fps "
+				+ (elapsed > 0 ? inserted * 1000 / elapsed : 0));
+	}
+
 	void StartCaptureSequence()
 	{
 		if (!inCapture)
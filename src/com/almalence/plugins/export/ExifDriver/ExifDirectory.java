@@ -0,0 +1,112 @@
+package com.almalence.plugins.export.ExifDriver;
+
+import com.almalence.plugins.export.ExifDriver.Values.ExifValue;
+import com.almalence.plugins.export.ExifDriver.Values.ValueByteArray;
+import com.almalence.plugins.export.ExifDriver.Values.ValueNumber;
+import com.almalence.plugins.export.ExifDriver.Values.ValueRationals;
+import com.almalence.util.IfdTable;
+
+/**
+ * One IFD directory of the driver. Values are kept in raw form in IfdTable,
+ * sorted by tag, so the directory is written without sorting and without
+ * converting values back from objects. ExifValue objects exist only on the
+ * way in and out.
+ *
+ * @see IfdTable
+ */
+public class ExifDirectory
+{
+	private final IfdTable	table	= new IfdTable();
+
+	/**
+	 * Get value of the tag. Returned value is a copy, changes of it have to be
+	 * put back to take effect.
+	 *
+	 * @param _tag
+	 *            Tag id
+	 * @return Value or null if directory has no such tag
+	 */
+	public ExifValue get(int _tag)
+	{
+		int index = table.indexOf(_tag);
+		if (index < 0)
+		{
+			return null;
+		}
+		ExifValue value = newValue(table.getFormat(index));
+		if (value != null)
+		{
+			value.readValueFromData(table.getArena(), table.getValueOffset(index), table.getCount(index),
+					ExifDriver.ALIGN_II);
+		}
+		return value;
+	}
+
+	/**
+	 * Set value of the tag. Value of the same size as the old one is
+	 * overwritten in place.
+	 *
+	 * @param _tag
+	 *            Tag id
+	 * @param _value
+	 *            New value
+	 */
+	public void put(int _tag, ExifValue _value)
+	{
+		_value.writeToTable(table, _tag);
+	}
+
+	public boolean remove(int _tag)
+	{
+		return table.remove(_tag);
+	}
+
+	public boolean containsKey(int _tag)
+	{
+		return table.contains(_tag);
+	}
+
+	public int size()
+	{
+		return table.size();
+	}
+
+	public void clear()
+	{
+		table.clear();
+	}
+
+	IfdTable getTable()
+	{
+		return table;
+	}
+
+	/**
+	 * Create empty value object for given datatype.
+	 *
+	 * @param _datatype
+	 *            One of ExifDriver.FORMAT_* constants
+	 * @return Value or null in case of unknown datatype
+	 */
+	static ExifValue newValue(int _datatype)
+	{
+		switch (_datatype)
+		{
+		case ExifDriver.FORMAT_UNSIGNED_BYTE:
+		case ExifDriver.FORMAT_UNSIGNED_SHORT:
+		case ExifDriver.FORMAT_UNSIGNED_LONG:
+		case ExifDriver.FORMAT_SIGNED_BYTE:
+		case ExifDriver.FORMAT_SIGNED_SHORT:
+		case ExifDriver.FORMAT_SIGNED_LONG:
+			return new ValueNumber(_datatype);
+		case ExifDriver.FORMAT_ASCII_STRINGS:
+		case ExifDriver.FORMAT_UNDEFINED:
+			return new ValueByteArray(_datatype);
+		case ExifDriver.FORMAT_UNSIGNED_RATIONAL:
+		case ExifDriver.FORMAT_SIGNED_RATIONAL:
+			return new ValueRationals(_datatype);
+		default:
+			return null;
+		}
+	}
+}
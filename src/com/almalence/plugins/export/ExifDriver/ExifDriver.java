@@ -1,23 +1,22 @@
 package com.almalence.plugins.export.ExifDriver;
 
 import java.io.EOFException;
+import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import android.util.Log;
 
-import com.almalence.plugins.export.ExifDriver.Values.ExifValue;
 import com.almalence.plugins.export.ExifDriver.Values.UndefinedValueAccessException;
-import com.almalence.plugins.export.ExifDriver.Values.ValueByteArray;
-import com.almalence.plugins.export.ExifDriver.Values.ValueNumber;
-import com.almalence.plugins.export.ExifDriver.Values.ValueRationals;
+import com.almalence.util.IfdTable;
 
 /**
  * Driver for reading/writting EXIF meta data to JPEG images. It tries to
@@ -200,6 +199,8 @@ public class ExifDriver
 	public static final int				TAG_INTEROPERABILITY_2				= 0x2;
 	// Length of Exif data size declaration - 2B
 	private final int					LENGTH_EXIF_SIZE_DECL				= 2;
+	// APP1 size declaration is 2B and covers itself and Exif header too
+	private final int					MAX_EXIF_DATA_SIZE					= 0xFFFF - 8;
 	private final int					LENGTH_APP1_EXIF_HEADER				= 10;										// APP1Marker+EXIF
 																														// size
 																														// +
@@ -224,13 +225,15 @@ public class ExifDriver
 	public static final int				ALIGN_MM							= 0x4D4D;									// Motorola
 																														// endian
 	private int							originalAlign;																	// endian
-	// IFD directories are represented as simple tag-value hashes
-	private HashMap<Integer, ExifValue>	ifd0								= new HashMap<Integer, ExifValue>();
-	private HashMap<Integer, ExifValue>	ifdExif								= new HashMap<Integer, ExifValue>();
-	private HashMap<Integer, ExifValue>	ifdGps								= new HashMap<Integer, ExifValue>();
-	private HashMap<Integer, ExifValue>	ifd1								= new HashMap<Integer, ExifValue>();
-	private HashMap<Integer, ExifValue>	ifdIOper							= new HashMap<Integer, ExifValue>();
+	// IFD directories are represented as tag-sorted tables of raw values
+	private ExifDirectory				ifd0								= new ExifDirectory();
+	private ExifDirectory				ifdExif								= new ExifDirectory();
+	private ExifDirectory				ifdGps								= new ExifDirectory();
+	private ExifDirectory				ifd1								= new ExifDirectory();
+	private ExifDirectory				ifdIOper							= new ExifDirectory();
 	private boolean						readyToWork							= false;
+	// Zero bytes reserved at the end of APP1, so Exif can grow in place later
+	private int							padding								= 0;
 	private boolean						debug								= true;
 
 	/**
@@ -254,6 +257,29 @@ public class ExifDriver
 		}
 	}
 
+	/**
+	 * Get instance of driver for JPEG image held in memory, for example
+	 * encoder output. If image has no Exif data, driver with empty directories
+	 * is returned, so tags can be added before writing the image out.
+	 * 
+	 * @param _jpeg
+	 *            JPEG image data
+	 * @param _length
+	 *            Number of valid bytes in _jpeg
+	 * @return ExifDriver or null in case, that data is not a JPEG image
+	 */
+	public static ExifDriver getInstance(byte[] _jpeg, int _length)
+	{
+		ExifDriver result = new ExifDriver(_jpeg, _length);
+		if (result.readyToWork())
+		{
+			return result;
+		} else
+		{
+			return null;
+		}
+	}
+
 	public String getSourceFile()
 	{
 		return sourceFile;
@@ -358,6 +384,85 @@ public class ExifDriver
 		}
 	}
 
+	/**
+	 * Constructor for in-memory image. Walks JPEG segments until Exif APP1 is
+	 * found and parses it right from the given array.
+	 * 
+	 * @param _jpeg
+	 *            JPEG image data
+	 * @param _length
+	 *            Number of valid bytes in _jpeg
+	 */
+	private ExifDriver(byte[] _jpeg, int _length)
+	{
+		readyToWork = _length > SOI.length && _jpeg[0] == SOI[0] && _jpeg[1] == SOI[1];
+		origAPP1MarkerOffset = -1;
+		origEXIFdata = new byte[0];
+		originalAlign = ALIGN_II;
+		if (!readyToWork)
+		{
+			return;
+		}
+
+		int app1 = findExifSegment(_jpeg, _length);
+		if (app1 < 0)
+		{
+			// No Exif yet - start from empty directories
+			return;
+		}
+
+		int exifDataSize = ((_jpeg[app1 + 2] & 0xFF) << 8) + (_jpeg[app1 + 3] & 0xFF);
+		try
+		{
+			origAPP1MarkerOffset = app1;
+			origEXIFdata = new byte[exifDataSize - (LENGTH_EXIF_SIZE_DECL + EXIFHeader.length)];
+			System.arraycopy(_jpeg, app1 + LENGTH_APP1_EXIF_HEADER, origEXIFdata, 0, origEXIFdata.length);
+			readExifData(origEXIFdata);
+		} catch (Exception e)
+		{
+			e.printStackTrace();
+			readyToWork = false;
+		}
+	}
+
+	/**
+	 * Find offset of APP1 marker of Exif segment. Only segments before Start
+	 * Of Scan are checked, so entropy-coded data is never scanned.
+	 * 
+	 * @param _jpeg
+	 *            JPEG image data
+	 * @param _length
+	 *            Number of valid bytes in _jpeg
+	 * @return Offset of APP1 marker or -1 if image has no Exif segment
+	 */
+	public static int findExifSegment(byte[] _jpeg, int _length)
+	{
+		int offset = 2;
+		while (offset + 4 <= _length && (_jpeg[offset] & 0xFF) == 0xFF)
+		{
+			int marker = _jpeg[offset + 1] & 0xFF;
+			if (marker == 0xFF)
+			{
+				// Fill byte
+				offset++;
+				continue;
+			}
+			if (marker == 0xDA || marker == 0xD9)
+			{
+				break;
+			}
+			int size = ((_jpeg[offset + 2] & 0xFF) << 8) + (_jpeg[offset + 3] & 0xFF);
+			if (marker == 0xE1 && offset + 10 <= _length && _jpeg[offset + 4] == 'E' && _jpeg[offset + 5] == 'x'
+					&& _jpeg[offset + 6] == 'i' && _jpeg[offset + 7] == 'f' && _jpeg[offset + 8] == 0
+					&& _jpeg[offset + 9] == 0)
+			{
+				return offset;
+			}
+			offset += 2 + size;
+		}
+		return -1;
+	}
+
 	/**
 	 * Tells the caller if the driver has been initialized corectly and we can
 	 * work with it. It is used by getInstance method. In case, that readyToWork
@@ -431,8 +536,10 @@ public class ExifDriver
 	 *         is expected only in IFD0.
 	 * @throws Exception
 	 */
-	private int readIfd(HashMap<Integer, ExifValue> _ifd, byte[] _data, int _start)
+	private int readIfd(ExifDirectory _ifd, byte[] _data, int _start)
 	{
+		IfdTable table = _ifd.getTable();
+		boolean motorola = originalAlign == ALIGN_MM;
 		int entriesNumber = readUInt(_data, _start, 2, originalAlign);
 		if (debug)
 		{
@@ -448,26 +555,13 @@ public class ExifDriver
 			int tag = readUInt(_data, entryStart, 2, originalAlign);
 			int datatype = readUInt(_data, entryStart + 2, 2, originalAlign);
 			int components = readUInt(_data, entryStart + 4, 4, originalAlign);
-			// If the totalLength is >4 it does not fit in directory
-			int totalLength = 0;
-			Object dType = COMP_WIDTHS[0];
-			if(datatype > COMP_WIDTHS.length)
+			if (datatype < FORMAT_UNSIGNED_BYTE || datatype > FORMAT_SIGNED_RATIONAL)
 			{
 				Log.e("EXIF_TAG", "Error in exifDriver. Tag " + tag + ", datatype = " + datatype);
-				if(tag == 274)
-					dType = COMP_WIDTHS[3];
-			}
-			else
-				dType = COMP_WIDTHS[datatype];
-			
-			if (dType != null)
-			{
-				totalLength = components * (Integer) dType;
-			} else
-			{
-				_ifd.clear();
-				return 0;
+				continue;
 			}
+			// If the totalLength is >4 it does not fit in directory
+			int totalLength = components * COMP_WIDTHS[datatype];
 			// Offset right in directory
 			int offset = entryStart + 8;
 			if (totalLength > 4)
@@ -486,35 +580,10 @@ public class ExifDriver
 							+ Integer.toHexString(origAPP1MarkerOffset + LENGTH_APP1_EXIF_HEADER + offset));
 				}
 			}
-			ExifValue value = null;
-			switch (datatype)
-			{
-			case FORMAT_UNSIGNED_BYTE:
-			case FORMAT_UNSIGNED_SHORT:
-			case FORMAT_UNSIGNED_LONG:
-			case FORMAT_SIGNED_BYTE:
-			case FORMAT_SIGNED_SHORT:
-			case FORMAT_SIGNED_LONG:
-				value = new ValueNumber(datatype);
-				break;
-			case FORMAT_ASCII_STRINGS:
-			case FORMAT_UNDEFINED:
-				value = new ValueByteArray(datatype);
-				break;
-			case FORMAT_UNSIGNED_RATIONAL:
-			case FORMAT_SIGNED_RATIONAL:
-				value = new ValueRationals(datatype);
-				break;
-			default:
-				break;
-			}
-			if (value != null)
-			{
-				value.readValueFromData(_data, offset, components, originalAlign);
-				_ifd.put(tag, value);
-			}
+			// Raw bytes are copied, just converted to Intel endian
+			table.put(tag, datatype, components, _data, offset, motorola);
 		}
-		
+
 		// Return the long value represented by 4B after the last entry
 		return readUInt(_data, _start + entriesNumber * 12 + 2, 4, originalAlign);
 	}
@@ -599,20 +668,10 @@ public class ExifDriver
 	 *            Given IFD
 	 * @return Required space in bytes
 	 */
-	private int requiredSpace(HashMap<Integer, ExifValue> _ifd)
+	private int requiredSpace(ExifDirectory _ifd)
 	{
-		int result = 6;// 2B number of items, 4B the "next" address
-		Object[] oKeys = _ifd.keySet().toArray();
-		for (int i = 0; i < oKeys.length; i++)
-		{
-			result += 12;
-			ExifValue val = _ifd.get((Integer) oKeys[i]);
-			if (val != null)
-			{
-				result += val.getExtraSize();
-			}
-		}
-		return result;
+		// Kept up to date by the table on every change
+		return _ifd.getTable().getRequiredSpace();
 	}
 
 	/**
@@ -652,42 +711,71 @@ public class ExifDriver
 	 *            Value, which will be written to the "next" area of the
 	 *            directory. In fact only in case of IFD0 it will be a nonzero.
 	 */
-	private void writeIfd(byte[] _data, HashMap<Integer, ExifValue> _ifd, int _offset, int _nextOffset)
+	private void writeIfd(byte[] _data, ExifDirectory _ifd, int _offset, int _nextOffset)
 	{
-		Object[] oKeys = _ifd.keySet().toArray();
-		int valuesOffset = _offset + 2 + oKeys.length * 12 + 4;
-		writeNumber(_data, _offset, oKeys.length, 2);
-		int itemOffset = _offset + 2;
-		Arrays.sort(oKeys);
-		for (int i = 0; i < oKeys.length; i++)
-		{
-			Integer key = (Integer) oKeys[i];
-			writeNumber(_data, itemOffset, key, 2);
-			valuesOffset = _ifd.get(key).writeToData(_data, itemOffset, valuesOffset);
-			itemOffset += 12;
-		}
-		writeNumber(_data, itemOffset, _nextOffset, 4);
+		// Table is sorted by tag already, values are in Intel endian
+		_ifd.getTable().write(_data, _offset, _nextOffset);
 	}
 
 	/**
-	 * Saves new image file with current Exif information. It is quite expensive
-	 * operation, so it is recomended to call it only at the end of work.
+	 * Set pointer tag (offset of directory or thumbnail) to given value. The
+	 * tag is of the same size every time, so its value is overwritten in place.
 	 * 
-	 * @param _name
-	 *            name of the new file
+	 * @param _ifd
+	 *            Directory holding the pointer
+	 * @param _tag
+	 *            Pointer tag
+	 * @param _offset
+	 *            Pointer value
 	 */
-	public void save(String _name)
+	private static void setPointer(ExifDirectory _ifd, int _tag, int _offset)
+	{
+		IfdTable table = _ifd.getTable();
+		int valueOffset = table.put(_tag, FORMAT_UNSIGNED_LONG, 1);
+		writeNumber(table.getArena(), valueOffset, _offset, 4);
+	}
+
+	/**
+	 * Set size of zero filled area reserved at the end of APP1 segment built
+	 * by this driver. Exif edited later can grow into it and be patched in
+	 * place, see saveInPlace.
+	 * 
+	 * @param _padding
+	 *            Reserved space in bytes, 0 by default
+	 */
+	public void setPadding(int _padding)
+	{
+		padding = _padding;
+	}
+
+	/**
+	 * Build APP1 segment (marker, size, Exif header and TIFF data) from current
+	 * Exif information. Original thumbnail is kept if there was one, padding
+	 * is reserved after all the data.
+	 * 
+	 * @return APP1 segment ready to be written after SOI
+	 */
+	public byte[] buildApp1()
+	{
+		return buildApp1(-1);
+	}
+
+	/**
+	 * Build APP1 segment of given size.
+	 * 
+	 * @param _exifSize
+	 *            Size of TIFF data in the segment, the rest after Exif is
+	 *            filled by zeros. -1 for required size plus padding.
+	 * @return APP1 segment or null if Exif does not fit into _exifSize
+	 */
+	private byte[] buildApp1(int _exifSize)
 	{
 		// Write empty directory referencies to calculate size of dirs
-		ValueNumber val = new ValueNumber(FORMAT_UNSIGNED_LONG, 0);
-		ifd0.put(TAG_EXIF_POINTER, val);
-		val = new ValueNumber(FORMAT_UNSIGNED_LONG, 0);
-		ifd0.put(TAG_GPS_POINTER, val);
-		val = new ValueNumber(FORMAT_UNSIGNED_LONG, 0);
-		ifdExif.put(TAG_INTEROPERABILITY_POINTER, val);
+		setPointer(ifd0, TAG_EXIF_POINTER, 0);
+		setPointer(ifd0, TAG_GPS_POINTER, 0);
+		setPointer(ifdExif, TAG_INTEROPERABILITY_POINTER, 0);
 		// Adjust referencies to image data
-		val = new ValueNumber(FORMAT_UNSIGNED_LONG, 0);
-		ifd1.put(TAG_JPEG_INTERCHANGE_FORMAT, val);
+		setPointer(ifd1, TAG_JPEG_INTERCHANGE_FORMAT, 0);
 
 		int startOfIfd0 = TIFFHeader.length;
 		int startOfIfdExif = startOfIfd0 + requiredSpace(ifd0);
@@ -702,26 +790,34 @@ public class ExifDriver
 			reqSize = startOfIfd1;
 		}
 
-		// Write directory referencies
-		val = new ValueNumber(FORMAT_UNSIGNED_LONG, startOfIfdExif);
-		ifd0.put(TAG_EXIF_POINTER, val);
-		val = new ValueNumber(FORMAT_UNSIGNED_LONG, startOfIfdGps);
-		ifd0.put(TAG_GPS_POINTER, val);
-		val = new ValueNumber(FORMAT_UNSIGNED_LONG, startOfIfdIOper);
-		ifdExif.put(TAG_INTEROPERABILITY_POINTER, val);
+		int exifSize = _exifSize;
+		if (exifSize < 0)
+		{
+			exifSize = Math.max(reqSize, Math.min(reqSize + padding, MAX_EXIF_DATA_SIZE));
+		} else if (exifSize < reqSize)
+		{
+			return null;
+		}
+
+		// Write directory referencies, sizes of directories don't change
+		setPointer(ifd0, TAG_EXIF_POINTER, startOfIfdExif);
+		setPointer(ifd0, TAG_GPS_POINTER, startOfIfdGps);
+		setPointer(ifdExif, TAG_INTEROPERABILITY_POINTER, startOfIfdIOper);
 		// Adjust referencies to image data
-		val = new ValueNumber(FORMAT_UNSIGNED_LONG, startOfThumbnail);
-		ifd1.put(TAG_JPEG_INTERCHANGE_FORMAT, val);
-		// }
-		// Write all headers
-		byte[] resultExif = new byte[reqSize];
+		setPointer(ifd1, TAG_JPEG_INTERCHANGE_FORMAT, startOfThumbnail);
+
+		// Write all headers. Note, we will always use Intel align
+		byte[] app1 = new byte[LENGTH_APP1_EXIF_HEADER + exifSize];
 		byte[] exifHeader = new byte[] { (byte) 0xFF, (byte) 0xE1, 0, 0, (byte) 0x45, (byte) 0x78, (byte) 0x69,
 				(byte) 0x66, 0, 0 };
-		exifHeader[2] = (byte) (((reqSize + 8) & 0xFF00) >> 8);
-		exifHeader[3] = (byte) ((reqSize + 8) & 0xFF);
-		// Note, we will always use Intel align
-		byte[] tiffHeader = new byte[] { 0x49, 0x49, 0x2A, 0x00, 0x08, 0x00, 0x00, 0x00 };
-		System.arraycopy(tiffHeader, 0, resultExif, 0, tiffHeader.length);
+		exifHeader[2] = (byte) (((exifSize + 8) & 0xFF00) >> 8);
+		exifHeader[3] = (byte) ((exifSize + 8) & 0xFF);
+		System.arraycopy(exifHeader, 0, app1, 0, exifHeader.length);
+
+		// Directories are written right into the segment, their offsets are
+		// relative to the TIFF header
+		byte[] resultExif = new byte[reqSize];
+		System.arraycopy(TIFFHeader, 0, resultExif, 0, TIFFHeader.length);
 		writeIfd(resultExif, ifd0, startOfIfd0, origThumbnailOffset == -1 ? 0 : startOfIfd1);
 		writeIfd(resultExif, ifdExif, startOfIfdExif, 0);
 		writeIfd(resultExif, ifdIOper, startOfIfdIOper, 0);
@@ -732,81 +828,235 @@ public class ExifDriver
 			writeIfd(resultExif, ifd1, startOfIfd1, 0);
 			System.arraycopy(origEXIFdata, origThumbnailOffset, resultExif, startOfThumbnail, origThumbnailLength);
 		}
+		System.arraycopy(resultExif, 0, app1, LENGTH_APP1_EXIF_HEADER, reqSize);
 
-		FileOutputStream fos = null;
-		FileInputStream fis = null;
+		return app1;
+	}
+
+	/**
+	 * Write given JPEG image with current Exif information to the stream in
+	 * one pass: SOI, new APP1 and then all the other segments and compressed
+	 * data of the image. Exif segment of the image, if any, is replaced.
+	 * Image data is not required to be the one this driver was created from,
+	 * so Exif read from camera output may be written with re-encoded image.
+	 * 
+	 * @param _os
+	 *            Stream to write to. It is not closed by this method.
+	 * @param _jpeg
+	 *            JPEG image data
+	 * @param _length
+	 *            Number of valid bytes in _jpeg
+	 * @return Number of bytes written
+	 * @throws IOException
+	 */
+	public int save(OutputStream _os, byte[] _jpeg, int _length) throws IOException
+	{
+		byte[] app1 = buildApp1();
+
+		int written = SOI.length + app1.length;
+		_os.write(SOI);
+		_os.write(app1);
+
+		int exifSegment = findExifSegment(_jpeg, _length);
+		if (exifSegment < 0)
+		{
+			_os.write(_jpeg, SOI.length, _length - SOI.length);
+			return written + _length - SOI.length;
+		}
+
+		// Keep segments which were before Exif (JFIF APP0 for example)
+		if (exifSegment > SOI.length)
+		{
+			_os.write(_jpeg, SOI.length, exifSegment - SOI.length);
+			written += exifSegment - SOI.length;
+		}
+		int exifSize = ((_jpeg[exifSegment + 2] & 0xFF) << 8) + (_jpeg[exifSegment + 3] & 0xFF);
+		int imageOffset = exifSegment + APP1Marker.length + exifSize;
+		_os.write(_jpeg, imageOffset, _length - imageOffset);
+		return written + _length - imageOffset;
+	}
+
+	/**
+	 * Saves new image file with current Exif information. It is quite expensive
+	 * operation, so it is recomended to call it only at the end of work.
+	 * 
+	 * @param _name
+	 *            name of the new file
+	 */
+	public void save(String _name)
+	{
 		try
 		{
-			fos = new FileOutputStream(_name);
-			fis = new FileInputStream(sourceFile);
-			fos.write((byte) 0xFF);
-			fos.write((byte) 0xD8);
-			fos.write(exifHeader);
-			fos.write(resultExif);
-			int skipped = 0;
-			int imageOffset = origAPP1MarkerOffset + APP1Marker.length + LENGTH_EXIF_SIZE_DECL + EXIFHeader.length
-					+ origEXIFdata.length;
-			while (skipped < imageOffset)
+			rewrite(new File(_name), buildApp1());
+		} catch (IOException ex)
+		{
+			Logger.getLogger(ExifDriver.class.getName()).log(Level.SEVERE, null, ex);
+		}
+	}
+
+	/**
+	 * Writes current Exif information back to the source file. If new Exif
+	 * fits into the original APP1 segment, padding included, just the segment
+	 * is overwritten at its place in the file. Otherwise the file is rewritten
+	 * with new padding reserved (see setPadding) and replaced; image data is
+	 * then copied from channel to channel, not through java buffers.
+	 * 
+	 * @return Number of bytes written to the file
+	 * @throws IOException
+	 */
+	public long saveInPlace() throws IOException
+	{
+		if (sourceFile == null)
+		{
+			throw new IllegalStateException("Driver was not created from a file");
+		}
+
+		byte[] app1 = buildApp1(origEXIFdata.length);
+		if (app1 != null)
+		{
+			RandomAccessFile file = new RandomAccessFile(sourceFile, "rw");
+			try
 			{
-				int skip = (int) fis.skip(imageOffset - skipped);
-				if (skip < 0)
+				FileChannel channel = file.getChannel();
+				ByteBuffer buffer = ByteBuffer.wrap(app1);
+				long position = origAPP1MarkerOffset;
+				while (buffer.hasRemaining())
 				{
-					fos.close();
-					throw (new IOException());
-				} else
-				{
-					skipped += skip;
+					position += channel.write(buffer, position);
 				}
-			}
-			byte[] buffer = new byte[10240];
-			int len;
-			while ((len = fis.read(buffer)) > 0)
+			} finally
 			{
-				fos.write(buffer, 0, len);
+				file.close();
 			}
-			fis.close();
-			fos.close();
-		} catch (FileNotFoundException ex)
+			updateOriginal(app1, origAPP1MarkerOffset);
+			return app1.length;
+		}
+
+		app1 = buildApp1();
+		File source = new File(sourceFile);
+		File temp = new File(sourceFile + ".exif.tmp");
+		long written;
+		try
 		{
-			Logger.getLogger(ExifDriver.class.getName()).log(Level.SEVERE, null, ex);
-		} catch (IOException ex)
+			written = rewrite(temp, app1);
+		} catch (IOException e)
 		{
-			Logger.getLogger(ExifDriver.class.getName()).log(Level.SEVERE, null, ex);
+			temp.delete();
+			throw e;
+		}
+		if (!temp.renameTo(source))
+		{
+			temp.delete();
+			throw new IOException("Can't replace " + sourceFile);
+		}
+		updateOriginal(app1, SOI.length);
+		return written;
+	}
+
+	/**
+	 * Write source image with given APP1 to new file: SOI, APP1, segments
+	 * which were before the original Exif and then the rest of the image.
+	 * 
+	 * @param _file
+	 *            File to write
+	 * @param _app1
+	 *            APP1 segment
+	 * @return Number of bytes written
+	 * @throws IOException
+	 */
+	private long rewrite(File _file, byte[] _app1) throws IOException
+	{
+		FileInputStream fis = new FileInputStream(sourceFile);
+		FileOutputStream fos = null;
+		try
+		{
+			fos = new FileOutputStream(_file);
+			FileChannel in = fis.getChannel();
+			FileChannel out = fos.getChannel();
+			long written = writeFully(out, ByteBuffer.wrap(SOI)) + writeFully(out, ByteBuffer.wrap(_app1));
+			// Keep segments which were before Exif (JFIF APP0 for example)
+			written += transferFully(in, SOI.length, origAPP1MarkerOffset - SOI.length, out);
+			long imageOffset = origAPP1MarkerOffset + APP1Marker.length + LENGTH_EXIF_SIZE_DECL + EXIFHeader.length
+					+ origEXIFdata.length;
+			written += transferFully(in, imageOffset, in.size() - imageOffset, out);
+			return written;
 		} finally
 		{
-			try
+			fis.close();
+			if (fos != null)
 			{
-				fis.close();
 				fos.close();
-			} catch (IOException ex)
+			}
+		}
+	}
+
+	private static long writeFully(FileChannel _out, ByteBuffer _buffer) throws IOException
+	{
+		int length = _buffer.remaining();
+		while (_buffer.hasRemaining())
+		{
+			_out.write(_buffer);
+		}
+		return length;
+	}
+
+	private static long transferFully(FileChannel _in, long _position, long _count, FileChannel _out)
+			throws IOException
+	{
+		long done = 0;
+		while (done < _count)
+		{
+			long transferred = _in.transferTo(_position + done, _count - done, _out);
+			if (transferred <= 0)
 			{
-				Logger.getLogger(ExifDriver.class.getName()).log(Level.SEVERE, null, ex);
+				throw new EOFException("Source file is shorter than expected");
 			}
+			done += transferred;
+		}
+		return done;
+	}
 
+	/**
+	 * Make just written APP1 the original one, so the driver can save again.
+	 * 
+	 * @param _app1
+	 *            APP1 segment written
+	 * @param _offset
+	 *            Its offset in the file
+	 */
+	private void updateOriginal(byte[] _app1, int _offset)
+	{
+		origAPP1MarkerOffset = _offset;
+		origEXIFdata = Arrays.copyOfRange(_app1, LENGTH_APP1_EXIF_HEADER, _app1.length);
+		originalAlign = ALIGN_II;
+		if (origThumbnailOffset != -1)
+		{
+			IfdTable table = ifd1.getTable();
+			origThumbnailOffset = table.getInt(table.indexOf(TAG_JPEG_INTERCHANGE_FORMAT), 0);
 		}
 	}
 
-	public HashMap<Integer, ExifValue> getIfd0()
+	public ExifDirectory getIfd0()
 	{
 		return ifd0;
 	}
 
-	public HashMap<Integer, ExifValue> getIfdExif()
+	public ExifDirectory getIfdExif()
 	{
 		return ifdExif;
 	}
 
-	public HashMap<Integer, ExifValue> getIfdGps()
+	public ExifDirectory getIfdGps()
 	{
 		return ifdGps;
 	}
 
-	public HashMap<Integer, ExifValue> getIfd1()
+	public ExifDirectory getIfd1()
 	{
 		return ifd1;
 	}
 
-	public HashMap<Integer, ExifValue> getIfdIOper()
+	public ExifDirectory getIfdIOper()
 	{
 		return ifdIOper;
 	}
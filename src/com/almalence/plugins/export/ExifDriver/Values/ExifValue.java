@@ -1,6 +1,7 @@
 package com.almalence.plugins.export.ExifDriver.Values;
 
 import com.almalence.plugins.export.ExifDriver.ExifDriver;
+import com.almalence.util.IfdTable;
 
 /**
  * Parent class of all EXIF datatypes.
@@ -180,6 +181,22 @@ public abstract class ExifValue {
 		}
 	}
 
+	/**
+	 * Store this value to directory table. Components are written to the
+	 * table's arena in Intel endian, same as writeToData does.
+	 *
+	 * @param _table
+	 *          Directory table
+	 * @param _tag
+	 *          Tag the value belongs to
+	 */
+	public final void writeToTable(IfdTable _table, int _tag) {
+		int offset = _table.put(_tag, dataType, getNbfComponents());
+		if (getNbfComponents() > 0) {
+			writeValues(_table.getArena(), offset);
+		}
+	}
+
 	/**
 	 * Returns the datatype of this value
 	 * 
@@ -0,0 +1,297 @@
+/*
+The contents of this file are subject to the Mozilla Public License
+Version 1.1 (the "License"); you may not use this file except in
+compliance with the License. You may obtain a copy of the License at
+http://www.mozilla.org/MPL/
+
+Software distributed under the License is distributed on an "AS IS"
+basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+License for the specific language governing rights and limitations
+under the License.
+
+The Original Code is collection of files collectively known as Open Camera.
+
+The Initial Developer of the Original Code is Almalence Inc.
+Portions created by Initial Developer are Copyright (C) 2013
+by Almalence Inc. All Rights Reserved.
+ */
+
+package com.almalence.plugins.processing.groupshot;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+
+/**
+ * Finds which faces of different frames belong to the same person.
+ *
+ * Faces are matched to reference frame, which is the frame with most
+ * unmatched faces. Each other frame is matched to it with minimal sum of
+ * distances (Hungarian algorithm), face may be matched only if its center is
+ * closer than 0.75 of reference face radius. Faces left unmatched are matched
+ * in next round against a new reference frame, until all faces are grouped.
+ *
+ * Groups are ordered by number of frames they are present in, then by the
+ * largest distance within group.
+ */
+public class FaceMatcher
+{
+	// Part of face radius within which face of other frame is the same face
+	public static final float	MATCH_RADIUS	= 0.75f;
+
+	private final int[][]		centerX;
+	private final int[][]		centerY;
+	private final float[][]		radius;
+
+	private static class Group
+	{
+		final int[]	faces;
+		int			presence;
+		float		maxDistance	= -1;
+		int			order;
+
+		Group(int frames)
+		{
+			faces = new int[frames];
+			Arrays.fill(faces, -1);
+		}
+	}
+
+	/**
+	 * @param centerX
+	 *            centers of faces by frame
+	 * @param centerY
+	 *            centers of faces by frame
+	 * @param radius
+	 *            radii of faces by frame
+	 */
+	public FaceMatcher(int[][] centerX, int[][] centerY, float[][] radius)
+	{
+		this.centerX = centerX;
+		this.centerY = centerY;
+		this.radius = radius;
+	}
+
+	/**
+	 * @return for each frame indexes of its faces in order of groups. Frame
+	 *         which has no face in a group is skipped, so only groups present
+	 *         in all frames have the same index everywhere.
+	 */
+	public int[][] match()
+	{
+		int frames = centerX.length;
+
+		boolean[][] used = new boolean[frames][];
+		int[] left = new int[frames];
+		for (int f = 0; f < frames; f++)
+		{
+			used[f] = new boolean[centerX[f].length];
+			left[f] = centerX[f].length;
+		}
+
+		ArrayList<Group> groups = new ArrayList<Group>();
+		while (true)
+		{
+			int ref = -1;
+			for (int f = 0; f < frames; f++)
+				if (left[f] > 0 && (ref == -1 || left[f] > left[ref]))
+					ref = f;
+			if (ref == -1)
+				break;
+
+			int[] refFaces = unused(used[ref], left[ref]);
+			Group[] round = new Group[refFaces.length];
+			for (int i = 0; i < refFaces.length; i++)
+			{
+				round[i] = new Group(frames);
+				round[i].faces[ref] = refFaces[i];
+				round[i].presence = 1;
+				round[i].order = groups.size() + i;
+				used[ref][refFaces[i]] = true;
+			}
+			left[ref] = 0;
+
+			for (int f = 0; f < frames; f++)
+			{
+				if (f == ref || left[f] == 0)
+					continue;
+
+				int[] faces = unused(used[f], left[f]);
+				float[][] distance = new float[refFaces.length][faces.length];
+				for (int i = 0; i < refFaces.length; i++)
+				{
+					int x = centerX[ref][refFaces[i]];
+					int y = centerY[ref][refFaces[i]];
+					float allowed = radius[ref][refFaces[i]] * MATCH_RADIUS;
+					for (int j = 0; j < faces.length; j++)
+					{
+						float d = getDistance(x, y, centerX[f][faces[j]], centerY[f][faces[j]]);
+						distance[i][j] = d < allowed ? d : -1;
+					}
+				}
+
+				int[] assignment = assign(distance);
+				for (int i = 0; i < refFaces.length; i++)
+				{
+					int j = assignment[i];
+					if (j == -1)
+						continue;
+
+					Group group = round[i];
+					group.faces[f] = faces[j];
+					group.presence++;
+					group.maxDistance = Math.max(group.maxDistance, distance[i][j]);
+					used[f][faces[j]] = true;
+					left[f]--;
+				}
+			}
+
+			groups.addAll(Arrays.asList(round));
+		}
+
+		Collections.sort(groups, new Comparator<Group>()
+		{
+			@Override
+			public int compare(Group a, Group b)
+			{
+				if (a.presence != b.presence)
+					return b.presence - a.presence;
+				if (a.maxDistance != b.maxDistance)
+					return a.maxDistance < b.maxDistance ? -1 : 1;
+				return a.order - b.order;
+			}
+		});
+
+		int[][] result = new int[frames][];
+		for (int f = 0; f < frames; f++)
+		{
+			result[f] = new int[centerX[f].length];
+			int n = 0;
+			for (Group group : groups)
+				if (group.faces[f] != -1)
+					result[f][n++] = group.faces[f];
+		}
+		return result;
+	}
+
+	private static int[] unused(boolean[] used, int count)
+	{
+		int[] indexes = new int[count];
+		int n = 0;
+		for (int i = 0; i < used.length; i++)
+			if (!used[i])
+				indexes[n++] = i;
+		return indexes;
+	}
+
+	/**
+	 * Minimal cost assignment of rows to columns. Largest possible number of
+	 * pairs is made first, then their sum of costs is minimized.
+	 *
+	 * @param cost
+	 *            non-negative costs, -1 if pair is not allowed
+	 * @return column of each row or -1
+	 */
+	static int[] assign(float[][] cost)
+	{
+		int rows = cost.length;
+		int cols = rows > 0 ? cost[0].length : 0;
+		int[] result = new int[rows];
+		Arrays.fill(result, -1);
+		if (rows == 0 || cols == 0)
+			return result;
+
+		// Not allowed pair costs more than all allowed ones together, so it's
+		// chosen only if there's no other way, and dropped afterwards.
+		double forbidden = 1;
+		for (int i = 0; i < rows; i++)
+			for (int j = 0; j < cols; j++)
+				if (cost[i][j] >= 0)
+					forbidden += cost[i][j];
+
+		// Hungarian algorithm needs rows <= columns
+		boolean transposed = rows > cols;
+		int n = transposed ? cols : rows;
+		int m = transposed ? rows : cols;
+		double[][] a = new double[n + 1][m + 1];
+		for (int i = 0; i < n; i++)
+			for (int j = 0; j < m; j++)
+			{
+				float c = transposed ? cost[j][i] : cost[i][j];
+				a[i + 1][j + 1] = c >= 0 ? c : forbidden;
+			}
+
+		// potentials and matching, 1-based, p[j] is row matched to column j
+		double[] u = new double[n + 1];
+		double[] v = new double[m + 1];
+		int[] p = new int[m + 1];
+		int[] way = new int[m + 1];
+		double[] minv = new double[m + 1];
+		boolean[] visited = new boolean[m + 1];
+		for (int i = 1; i <= n; i++)
+		{
+			p[0] = i;
+			int j0 = 0;
+			Arrays.fill(minv, Double.MAX_VALUE);
+			Arrays.fill(visited, false);
+			do
+			{
+				visited[j0] = true;
+				int i0 = p[j0];
+				int j1 = 0;
+				double delta = Double.MAX_VALUE;
+				for (int j = 1; j <= m; j++)
+					if (!visited[j])
+					{
+						double cur = a[i0][j] - u[i0] - v[j];
+						if (cur < minv[j])
+						{
+							minv[j] = cur;
+							way[j] = j0;
+						}
+						if (minv[j] < delta)
+						{
+							delta = minv[j];
+							j1 = j;
+						}
+					}
+				for (int j = 0; j <= m; j++)
+					if (visited[j])
+					{
+						u[p[j]] += delta;
+						v[j] -= delta;
+					} else
+						minv[j] -= delta;
+				j0 = j1;
+			} while (p[j0] != 0);
+
+			do
+			{
+				int j1 = way[j0];
+				p[j0] = p[j1];
+				j0 = j1;
+			} while (j0 != 0);
+		}
+
+		for (int j = 1; j <= m; j++)
+		{
+			if (p[j] == 0)
+				continue;
+			int row = transposed ? j - 1 : p[j] - 1;
+			int col = transposed ? p[j] - 1 : j - 1;
+			if (cost[row][col] >= 0)
+				result[row] = col;
+		}
+		return result;
+	}
+
+	/**
+	 * @return distance between 2 points (x,y) and (x0,y0), rounded as in
+	 *         GroupShotCore.
+	 */
+	private static int getDistance(int x, int y, int x0, int y0)
+	{
+		return (int) Math.round(Math.sqrt((x - x0) * (x - x0) + (y - y0) * (y - y0)));
+	}
+}
@@ -295,28 +295,38 @@ public class GroupShotCore
 		}
 	}
 
-	// Sort faces list to order them by position on images.
+	// Sort faces list, so the same face has the same index in all frames
+	// where it's found.
 	private void sortFaceList()
 	{
-		ArrayList<ArrayList<Rect>> newFaceList = new ArrayList<ArrayList<Rect>>(mNumOfFrame);
-		for (int i = 0; i < mNumOfFrame; i++)
+		int[][] centerX = new int[mNumOfFrame][];
+		int[][] centerY = new int[mNumOfFrame][];
+		float[][] radius = new float[mNumOfFrame][];
+		for (int frame = 0; frame < mNumOfFrame; frame++)
 		{
-			newFaceList.add(new ArrayList<Rect>());
+			ArrayList<Rect> faces = mFacesList.get(frame);
+			centerX[frame] = new int[faces.size()];
+			centerY[frame] = new int[faces.size()];
+			radius[frame] = new float[faces.size()];
+			for (int i = 0; i < faces.size(); i++)
+			{
+				Rect face = faces.get(i);
+				centerX[frame][i] = face.centerX();
+				centerY[frame][i] = face.centerY();
+				radius[frame][i] = getRadius(face);
+			}
 		}
 
-		while (isAnyFaceInList())
-		{
-			ArrayList<Integer> bestCandidateList = populateBestCandidate();
+		int[][] order = new FaceMatcher(centerX, centerY, radius).match();
 
-			if (bestCandidateList.size() != 0)
-				for (int frameIndex = 0; frameIndex < newFaceList.size(); frameIndex++)
-				{
-					int bestFaceIndex = bestCandidateList.get(frameIndex);
-					if (bestFaceIndex == -1)
-						continue;
-
-					newFaceList.get(frameIndex).add(mFacesList.get(frameIndex).remove(bestFaceIndex));
-				}
+		ArrayList<ArrayList<Rect>> newFaceList = new ArrayList<ArrayList<Rect>>(mNumOfFrame);
+		for (int frame = 0; frame < mNumOfFrame; frame++)
+		{
+			ArrayList<Rect> faces = mFacesList.get(frame);
+			ArrayList<Rect> sorted = new ArrayList<Rect>(faces.size());
+			for (int index : order[frame])
+				sorted.add(faces.get(index));
+			newFaceList.add(sorted);
 		}
 
 		mFacesList.clear();
@@ -343,106 +353,6 @@ public class GroupShotCore
 		}
 	}
 
-	private boolean isAnyFaceInList()
-	{
-		for (ArrayList<Rect> faceList : mFacesList)
-		{
-			if (faceList.size() > 0)
-				return true;
-		}
-
-		return false;
-	}
-
-	private ArrayList<Integer> populateBestCandidate()
-	{
-		int baseFaceX, baseFaceY, baseIndex, presenceNumber;
-		float allowedDistance, distance, maxDistance, minDistance;
-
-		int bestPresenceNumber = 0;
-		float bestMaxDistance = -1;
-
-		int candidateIndex, currIndex;
-		ArrayList<Integer> candidateList = new ArrayList<Integer>(mNumOfFrame);
-		ArrayList<Integer> bestCandidateList = new ArrayList<Integer>(mNumOfFrame);
-
-		int i = 0;
-		for (ArrayList<Rect> faceFrame : mFacesList)
-		{
-			baseIndex = 0;
-			if (faceFrame.size() > 0)
-				for (Rect baseFace : faceFrame)
-				{
-					candidateList.clear();
-					baseFaceX = baseFace.centerX();
-					baseFaceY = baseFace.centerY();
-					allowedDistance = getRadius(baseFace) * 0.75f;
-					presenceNumber = mFacesList.size();
-
-					maxDistance = -1;
-					for (int j = 0; j < mFacesList.size(); j++)
-					{
-						candidateIndex = -1;
-						minDistance = -1;
-
-						if (j == i || mFacesList.get(j).size() == 0)
-						{
-							if (j == i)
-								candidateIndex = baseIndex;
-
-							candidateList.add(candidateIndex);
-							presenceNumber--;
-							continue;
-						}
-
-						currIndex = 0;
-						for (Rect candidateFace : mFacesList.get(j))
-						{
-							distance = getDistance(baseFaceX, baseFaceY, candidateFace.centerX(),
-									candidateFace.centerY());
-							if (distance < allowedDistance && (distance < minDistance || minDistance == -1))
-							{
-								minDistance = distance;
-								candidateIndex = currIndex;
-							}
-							currIndex++;
-						}
-
-						if (minDistance == -1)
-							presenceNumber--;
-
-						if (minDistance > maxDistance)
-							maxDistance = minDistance;
-
-						candidateList.add(candidateIndex);
-					}
-
-					if (presenceNumber > bestPresenceNumber)
-					{
-						bestPresenceNumber = presenceNumber;
-						bestMaxDistance = maxDistance;
-
-						bestCandidateList.clear();
-						for (Integer index : candidateList)
-							bestCandidateList.add(index);
-					} else if (presenceNumber == bestPresenceNumber
-							&& (maxDistance < bestMaxDistance || bestMaxDistance == -1))
-					{
-						bestMaxDistance = maxDistance;
-
-						bestCandidateList.clear();
-						for (Integer index : candidateList)
-							bestCandidateList.add(index);
-					}
-
-					baseIndex++;
-				}
-			i++;
-		}
-
-		return bestCandidateList;
-	}
-
 	private boolean checkFaceDistance(float radius, float x, float y, int centerX, int centerY)
 	{
 		float distance = getDistance((int) x, (int) y, centerX, centerY);
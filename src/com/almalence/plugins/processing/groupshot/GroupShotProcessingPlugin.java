@@ -52,7 +52,7 @@ import android.widget.RelativeLayout;
 import android.widget.RelativeLayout.LayoutParams;
 import android.widget.TextView;
 
-import com.almalence.SwapHeap;
+import com.almalence.NativeFrame;
 
 /* <!-- +++
  import com.almalence.opencam_plus.ApplicationScreen;
@@ -514,11 +514,9 @@ public class GroupShotProcessingPlugin extends MultiShotProcessingPlugin impleme
 			return;
 		}
 
-		int frame_len = result.length;
-		int frame = SwapHeap.SwapToHeap(result);
+		NativeFrame frame = NativeFrame.allocate(sessionID, result);
 		PluginManager.getInstance().addToSharedMem("resultframeformat1" + sessionID, "jpeg");
-		PluginManager.getInstance().addToSharedMem("resultframe1" + sessionID, String.valueOf(frame));
-		PluginManager.getInstance().addToSharedMem("resultframelen1" + sessionID, String.valueOf(frame_len));
+		PluginManager.getInstance().getSessionData(sessionID).setResultFrame(1, frame);
 
 		// Nexus 6 has a original front camera sensor orientation, we have to
 		// manage it
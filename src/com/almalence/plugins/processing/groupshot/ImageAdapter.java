@@ -28,8 +28,9 @@ import android.graphics.Bitmap;
 import android.graphics.Bitmap.Config;
 import android.graphics.BitmapFactory;
 import android.graphics.Color;
-import android.graphics.Matrix;
 import android.graphics.Rect;
+import android.os.Handler;
+import android.os.Looper;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.BaseAdapter;
@@ -60,6 +61,17 @@ public class ImageAdapter extends BaseAdapter
 	private int					mImageDataOrientation;
 	private MemoryImageCache	cache				= null;
 	private int					mSelectedItem;
+	private final Handler		mainHandler			= new Handler(Looper.getMainLooper());
+
+	// Thumbnails are decoded by cache executor
+	private final MemoryImageCache.Loader	loader	= new MemoryImageCache.Loader()
+	{
+		@Override
+		public Bitmap load(String key)
+		{
+			return decodeYUVfromData(Integer.parseInt(key));
+		}
+	};
 
 	public ImageAdapter(Context context, List<Integer> list, int imageDataOrientation, boolean isMirrored)
 	{
@@ -71,21 +83,26 @@ public class ImageAdapter extends BaseAdapter
 		mGalleryItemBackground = a.getResourceId(R.styleable.GalleryTheme_android_galleryItemBackground, 0);
 		a.recycle();
 
-		cache = new MemoryImageCache(mYUVList.size());
-
-		for (int i = 0; i < mYUVList.size(); i++)
+		// room for thumbnails of all frames, so shown ones are never evicted
+		cache = new MemoryImageCache(mYUVList.size() * THUMBNAIL_WIDTH * THUMBNAIL_HEIGHT * 2);
+		cache.setOnBitmapLoadedListener(new MemoryImageCache.OnBitmapLoadedListener()
 		{
-			final int id = i;
-			new Thread(new Runnable()
+			@Override
+			public void onBitmapLoaded(String key, Bitmap bitmap)
 			{
-				@Override
-				public void run()
+				mainHandler.post(new Runnable()
 				{
-					final String Key = String.valueOf(id);
-					cache.addBitmap(Key, decodeYUVfromData(id));
-				}
-			}).start();
-		}
+					@Override
+					public void run()
+					{
+						notifyDataSetChanged();
+					}
+				});
+			}
+		});
+
+		for (int i = 0; i < mYUVList.size(); i++)
+			cache.load(String.valueOf(i), loader);
 	}
 
 	public void finalize()
@@ -123,27 +140,19 @@ public class ImageAdapter extends BaseAdapter
 		}
 
 		Rect rect = new Rect(0, 0, width, height);
-		Bitmap bitmap = Bitmap.createBitmap(
+		Bitmap bitmap = cache.obtainBitmap(scaledWidth, scaledHeight, Config.RGB_565);
+		bitmap.setPixels(
 				AlmaShotGroupShot.NV21toARGB(mYUVList.get(position), width, height, rect, scaledWidth, scaledHeight),
-				scaledWidth, scaledHeight, Config.RGB_565);
+				0, scaledWidth, 0, 0, scaledWidth, scaledHeight);
 
-		Matrix matrix = new Matrix();
 		// Workaround for Nexus5x, image is flipped because of sensor
 		// orientation
 //		if (CameraController.isNexus5x)
 //			matrix.postRotate(mCameraMirrored ? (mIsLandscape ? 90 : 270) : 270);
 //		else
 //			matrix.postRotate(mCameraMirrored ? (mIsLandscape ? 90 : -90) : 90);
-		
-		if (mImageDataOrientation != 0)
-		{
-			matrix.postRotate(mImageDataOrientation);
-		}
 
-		Bitmap rotatedBitmap = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
-		bitmap.recycle();
-		bitmap = null;
-		return rotatedBitmap;
+		return cache.rotateBitmap(bitmap, mImageDataOrientation);
 	}
 
 	public int getCount()
@@ -184,13 +193,10 @@ public class ImageAdapter extends BaseAdapter
 		final String Key = String.valueOf(position);
 		Bitmap b = cache.getBitmap(Key);
 
-		if (b != null)
-		{
-			imageView.setImageBitmap(b);
-		} else
-		{
-			imageView.setImageBitmap(decodeYUVfromData(position));
-		}
+		// Thumbnail which is not decoded yet is shown when it's ready
+		imageView.setImageBitmap(b);
+		if (b == null)
+			cache.load(Key, loader);
 
 		if (position == mSelectedItem)
 		{
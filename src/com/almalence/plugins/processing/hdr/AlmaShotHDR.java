@@ -41,6 +41,15 @@ public final class AlmaShotHDR
 
 	public static synchronized native byte[] HDRProcess(int sx, int sy, int[] crop, int rotate, boolean mirrored);
 
+	// Same as HDRProcess, but returns address of NV21 result in native heap
+	// (of resultSize() bytes), which caller has to free.
+	public static synchronized native long HDRProcessToHeap(int sx, int sy, int[] crop, int rotate, boolean mirrored);
+
+	public static int resultSize(int sx, int sy)
+	{
+		return sx * sy + (sx + 1) * (sy + 1) / 2;
+	}
+
 	public static synchronized native void HDRStopProcessing();
 
 	public static synchronized native void HDRFreeInstance();
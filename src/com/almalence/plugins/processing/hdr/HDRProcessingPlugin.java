@@ -65,7 +65,7 @@ import android.widget.SeekBar;
 import android.widget.SeekBar.OnSeekBarChangeListener;
 import android.widget.TextView;
 
-import com.almalence.SwapHeap;
+import com.almalence.NativeFrame;
 
 /* <!-- +++
  import com.almalence.opencam_plus.ConfigParser;
@@ -87,6 +87,7 @@ import com.almalence.opencam.cameracontroller.CameraController;
 //-+- -->
 
 import com.almalence.util.ImageConversion;
+import com.almalence.util.MemoryImageCache;
 import com.almalence.asynctaskmanager.OnTaskCompleteListener;
 import com.almalence.plugins.capture.expobracketing.ExpoBracketingCapturePlugin;
 
@@ -97,7 +98,7 @@ import com.almalence.plugins.capture.expobracketing.ExpoBracketingCapturePlugin;
 public class HDRProcessingPlugin extends PluginProcessing implements OnItemClickListener, OnClickListener,
 		OnSeekBarChangeListener, OnItemSelectedListener, OnTaskCompleteListener
 {
-	private byte[]				yuv;	// fused result
+	private NativeFrame			yuv;	// fused result
 	private static final int[]	crop									= new int[4];
 
 	private static String		ContrastPreference;
@@ -169,17 +170,13 @@ public class HDRProcessingPlugin extends PluginProcessing implements OnItemClick
 		{
 			HDRProcessing();
 
-			int frame_len = yuv.length;
-			int frame = SwapHeap.SwapToHeap(yuv);
-
 			PluginManager.getInstance().addToSharedMem("resultfromshared" + sessionID, "true");
 
 			PluginManager.getInstance().addToSharedMem("writeorientationtag" + sessionID, "false");
 			PluginManager.getInstance().addToSharedMem("resultframeorientation1" + sessionID,
 					String.valueOf(mImageDataOrientation));
 			PluginManager.getInstance().addToSharedMem("amountofresultframes" + sessionID, "1");
-			PluginManager.getInstance().addToSharedMem("resultframe1" + sessionID, String.valueOf(frame));
-			PluginManager.getInstance().addToSharedMem("resultframelen1" + sessionID, String.valueOf(frame_len));
+			PluginManager.getInstance().getSessionData(sessionID).setResultFrame(1, yuv);
 
 			PluginManager.getInstance().addToSharedMem("saveImageWidth" + sessionID, String.valueOf(mImageWidth));
 			PluginManager.getInstance().addToSharedMem("saveImageHeight" + sessionID, String.valueOf(mImageHeight));
@@ -270,8 +267,12 @@ public class HDRProcessingPlugin extends PluginProcessing implements OnItemClick
 
 	private void HDRProcessing()
 	{
-		yuv = AlmaShotHDR.HDRProcess(mImageWidth, mImageHeight, HDRProcessingPlugin.crop,
+		long result = AlmaShotHDR.HDRProcessToHeap(mImageWidth, mImageHeight, HDRProcessingPlugin.crop,
 				mImageDataOrientation, mCameraMirrored);
+		if (result == 0)
+			throw new OutOfMemoryError("HDR result isn't allocated");
+
+		yuv = NativeFrame.adopt(sessionID, result, AlmaShotHDR.resultSize(mImageWidth, mImageHeight));
 	}
 
 	@Override
@@ -467,16 +468,31 @@ public class HDRProcessingPlugin extends PluginProcessing implements OnItemClick
 	private static final int	PRESET_ICONS_SIZE				= 82;
 	private static final float	PRESET_ICONS_CROP_PART			= 2.0f / 3.0f;
 
+	// Preset thumbnails of all presets, with some room for replaced custom
+	// preset ones. Cleared thumbnails are reused by next post processing.
+	private static final int	PRESET_THUMBNAILS_CACHE_BYTES	= 4 * 1024 * 1024;
+	private static final String	PRESET_CUSTOM_THUMBNAIL			= "custom";
+
 	public static Bitmap getRoundedCornerBitmap(Bitmap bitmap, int pixels)
+	{
+		return getRoundedCornerBitmap(bitmap, pixels, null);
+	}
+
+	// Output bitmap is taken from cache reuse pool if cache isn't null
+	private static Bitmap getRoundedCornerBitmap(Bitmap bitmap, int pixels, MemoryImageCache cache)
 	{
 		final int side = (int) (Math.min(bitmap.getWidth(), bitmap.getHeight()) * PRESET_ICONS_CROP_PART);
 
-		System.gc();
 		final Bitmap bitmapCropped = Bitmap.createBitmap(bitmap, (bitmap.getWidth() - side) / 2,
 				(bitmap.getHeight() - side) / 2, side, side);
 
-		System.gc();
-		Bitmap output = Bitmap.createBitmap(side, side, Bitmap.Config.ARGB_8888);
+		Bitmap output;
+		if (cache != null)
+		{
+			output = cache.obtainBitmap(side, side, Bitmap.Config.ARGB_8888);
+			output.eraseColor(Color.TRANSPARENT);
+		} else
+			output = Bitmap.createBitmap(side, side, Bitmap.Config.ARGB_8888);
 
 		Canvas canvas = new Canvas(output);
 
@@ -493,6 +509,11 @@ public class HDRProcessingPlugin extends PluginProcessing implements OnItemClick
 
 		paint.setXfermode(new PorterDuffXfermode(Mode.SRC_IN));
 		canvas.drawBitmap(bitmapCropped, rect, rect, paint);
+		if (bitmapCropped != bitmap)
+			bitmapCropped.recycle();
+
+		if (cache != null)
+			return cache.rotateBitmap(output, mBitmapRotation);
 
 		if (mBitmapRotation != 0)
 		{	
@@ -764,12 +785,24 @@ public class HDRProcessingPlugin extends PluginProcessing implements OnItemClick
 
 	private AdjustmentsPreset					preset_custom		= null;
 
+	private final MemoryImageCache				presetThumbnails	= new MemoryImageCache(
+																			PRESET_THUMBNAILS_CACHE_BYTES);
+
 	@Override
 	public boolean isPostProcessingNeeded()
 	{
 		return AutoAdjustments;
 	}
 
+	// Export finishes after post-processing views are removed, so bitmaps
+	// left in thumbnails reuse pool can be freed.
+	@Override
+	public void freeMemory()
+	{
+		if (!postProcessingRun)
+			presetThumbnails.release();
+	}
+
 	@Override
 	public void onStartPostProcessing()
 	{
@@ -907,6 +940,7 @@ public class HDRProcessingPlugin extends PluginProcessing implements OnItemClick
 				ApplicationScreen.getGUIManager().lockControls = false;
 
 				postProcessingRun = false;
+				presetThumbnails.clear();
 
 				ApplicationScreen.getMessageHandler().sendEmptyMessage(ApplicationInterface.MSG_POSTPROCESSING_FINISHED);
 			}
@@ -917,22 +951,26 @@ public class HDRProcessingPlugin extends PluginProcessing implements OnItemClick
 		return super.onKeyDown(keyCode, event);
 	}
 
-	private Bitmap createThumbnail()
+	// Creates thumbnail of current preview and puts it to cache. Thumbnail
+	// previously cached with the same key may still be shown by its view, it's
+	// dropped from cache, not reused.
+	private Bitmap createThumbnail(String key)
 	{
 		int small = (int) (ApplicationScreen.getAppResources().getDisplayMetrics().density * PRESET_ICONS_SIZE * (1.0f / PRESET_ICONS_CROP_PART));
 		int radius = (int) (small * PRESET_ICONS_ROUND_RADIUS * PRESET_ICONS_CROP_PART);
 
+		Bitmap scaled;
 		if (this.SXP > this.SYP)
-		{
-			return getRoundedCornerBitmap(
-					Bitmap.createScaledBitmap(this.bitmap, small, (int) (this.SXP * ((float) small / this.SYP)), true),
-					radius);
-		} else
-		{
-			return getRoundedCornerBitmap(
-					Bitmap.createScaledBitmap(this.bitmap, (int) (this.SYP * ((float) small / this.SXP)), small, true),
-					radius);
-		}
+			scaled = Bitmap.createScaledBitmap(this.bitmap, small, (int) (this.SXP * ((float) small / this.SYP)), true);
+		else
+			scaled = Bitmap.createScaledBitmap(this.bitmap, (int) (this.SYP * ((float) small / this.SXP)), small, true);
+
+		Bitmap thumbnail = getRoundedCornerBitmap(scaled, radius, presetThumbnails);
+		if (scaled != this.bitmap)
+			scaled.recycle();
+
+		presetThumbnails.addBitmap(key, thumbnail);
+		return thumbnail;
 	}
 
 	private void setupAdjustments()
@@ -1023,9 +1061,7 @@ public class HDRProcessingPlugin extends PluginProcessing implements OnItemClick
 
 		this.bitmap.setPixels(this.pview, 0, this.SYP, 0, 0, this.SYP, this.SXP);
 
-		System.gc();
-
-		return new AdjustmentsPreset(title, this.createThumbnail(), sets);
+		return new AdjustmentsPreset(title, this.createThumbnail(title), sets);
 	}
 
 	private void showSeekBar()
@@ -1112,6 +1148,7 @@ public class HDRProcessingPlugin extends PluginProcessing implements OnItemClick
 			ApplicationScreen.getGUIManager().lockControls = false;
 
 			postProcessingRun = false;
+			presetThumbnails.clear();
 
 			ApplicationScreen.getMessageHandler().sendEmptyMessage(ApplicationInterface.MSG_POSTPROCESSING_FINISHED);
 		} else if (v == this.buttonSave)
@@ -1174,9 +1211,6 @@ public class HDRProcessingPlugin extends PluginProcessing implements OnItemClick
 		{
 			HDRProcessing();
 
-			int frame_len = yuv.length;
-			int frame = SwapHeap.SwapToHeap(yuv);
-
 			PluginManager.getInstance().addToSharedMem("sessionID", String.valueOf(sessionID));
 
 			PluginManager.getInstance().addToSharedMem("resultfromshared" + sessionID, "true");
@@ -1185,8 +1219,7 @@ public class HDRProcessingPlugin extends PluginProcessing implements OnItemClick
 			PluginManager.getInstance().addToSharedMem("resultframeorientation1" + sessionID,
 					String.valueOf(mImageDataOrientation));
 			PluginManager.getInstance().addToSharedMem("amountofresultframes" + sessionID, "1");
-			PluginManager.getInstance().addToSharedMem("resultframe1" + sessionID, String.valueOf(frame));
-			PluginManager.getInstance().addToSharedMem("resultframelen1" + sessionID, String.valueOf(frame_len));
+			PluginManager.getInstance().getSessionData(sessionID).setResultFrame(1, yuv);
 
 			PluginManager.getInstance().addToSharedMem("saveImageWidth" + sessionID,
 					String.valueOf(mImageWidth));
@@ -1208,8 +1241,7 @@ public class HDRProcessingPlugin extends PluginProcessing implements OnItemClick
 
 			if (this.presetSelection == CUSTOM_PRESET_POSITION && this.previewTaskPending == null)
 			{
-				System.gc();
-				this.presets.get(CUSTOM_PRESET_POSITION).setThumbnail(this.createThumbnail());
+				this.presets.get(CUSTOM_PRESET_POSITION).setThumbnail(this.createThumbnail(PRESET_CUSTOM_THUMBNAIL));
 			}
 
 			this.presetsAdapter.notifyDataSetChanged();
@@ -1301,6 +1333,9 @@ public class HDRProcessingPlugin extends PluginProcessing implements OnItemClick
 
 			ApplicationScreen.getGUIManager().lockControls = false;
 
+			postProcessingRun = false;
+			presetThumbnails.clear();
+
 			ApplicationScreen.getMessageHandler().sendEmptyMessage(ApplicationInterface.MSG_POSTPROCESSING_FINISHED);
 		}
 	}
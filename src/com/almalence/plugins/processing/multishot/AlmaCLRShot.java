@@ -21,6 +21,8 @@ package com.almalence.plugins.processing.multishot;
 import java.io.ByteArrayOutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 
 import android.content.SharedPreferences;
@@ -37,6 +39,7 @@ import android.preference.PreferenceManager;
 import android.util.Log;
 
 import com.almalence.SwapHeap;
+import com.almalence.util.HeapUtil;
 import com.almalence.util.Size;
 
 /* <!-- +++
@@ -56,6 +59,8 @@ public class AlmaCLRShot
 	private static final int		MIN_INPUT_FRAME	= 1;
 	
 	private static final int    	MPIX_8 			= 7680000;
+	// Sports mode results kept in native heap, if heap has room for them
+	private static final int		MAX_COMPOSITES	= 3;
 
 	private List<byte[]>			mJpegData;
 	private int						mBaseFrameIndex;
@@ -104,6 +109,27 @@ public class AlmaCLRShot
 
 	private OnProcessingListener	mOnProcessingListener;
 
+	// Base frame requested by initialize, processing may choose another one
+	private int						mInitialBaseFrame;
+
+	// Recent sports mode results by frame order, least recently used first
+	private final LinkedHashMap<String, Composite>	mComposites	= new LinkedHashMap<String, Composite>(
+																		MAX_COMPOSITES + 1, 0.75f, true);
+
+	private static class Composite
+	{
+		final int	outNV21;
+		final int[]	crop;
+		final int[]	baseArea;
+
+		Composite(int outNV21, int[] crop, int[] baseArea)
+		{
+			this.outNV21 = outNV21;
+			this.crop = crop;
+			this.baseArea = baseArea;
+		}
+	}
+
 	private AlmaCLRShot()
 	{
 		super();
@@ -236,6 +262,7 @@ public class AlmaCLRShot
 		mGhosting = ghosting;
 		mPreviewSize = previewSize;
 		mBaseFrameIndex = baseFrame;
+		mInitialBaseFrame = baseFrame;
 		mSensitivity = sensitivity;
 		mMinSize = minSize;
 		mOnProcessingListener = listener;
@@ -284,10 +311,99 @@ public class AlmaCLRShot
 		removeProcessing(mAutoLayout, sports_order);
 		updateLayout();
 
+		if (sports_order != null)
+			addComposite(sports_order);
+
 //		Log.d(TAG, "initialize() -- end");
 		return true;
 	}
 
+	/**
+	 * Make sports mode result of another frame order with parameters of last
+	 * initialize() call. Last results are cached, so switching back to one of
+	 * them doesn't run processing. Only result image is updated, objects
+	 * information is left as is.
+	 *
+	 * @return true if result was taken from cache
+	 */
+	public synchronized boolean recompose(int[] sports_order)
+	{
+		Composite composite = mComposites.get(Arrays.toString(sports_order));
+		if (composite != null)
+		{
+			setComposite(composite);
+			return true;
+		}
+
+		if (!isComposite(mOutNV21) && mOutNV21 != 0)
+			SwapHeap.FreeFromHeap(mOutNV21);
+		mOutNV21 = 0;
+
+		mBaseArea = new int[4];
+		mCrop = new int[5];
+		mCrop[4] = mInitialBaseFrame;
+		Arrays.fill(mAutoLayout, (byte) mInitialBaseFrame);
+		mAutoLayout[0] = -1;
+
+		mOutNV21 = MovObjProcess(mNumOfFrame, mInputFrameSize, mSensitivity, mMinSize, mBaseArea, mCrop, mAutoLayout,
+				mGhosting, IMAGE_TO_LAYOUT, sports_order);
+		mBaseFrameIndex = mCrop[4];
+
+		addComposite(sports_order);
+		return false;
+	}
+
+	private void addComposite(int[] sports_order)
+	{
+		if (mOutNV21 == 0)
+			return;
+
+		mComposites.put(Arrays.toString(sports_order), new Composite(mOutNV21, mCrop, mBaseArea));
+
+		long frameSize = (long) mInputFrameSize.getWidth() * mInputFrameSize.getHeight() * 3 / 2;
+		boolean lowMemory = HeapUtil.getAmountOfMemoryToFitFrames() < frameSize;
+		Iterator<Composite> it = mComposites.values().iterator();
+		while (it.hasNext() && (mComposites.size() > MAX_COMPOSITES || lowMemory && mComposites.size() > 1))
+		{
+			Composite oldest = it.next();
+			if (oldest.outNV21 == mOutNV21)
+				continue;
+			SwapHeap.FreeFromHeap(oldest.outNV21);
+			it.remove();
+		}
+	}
+
+	private void setComposite(Composite composite)
+	{
+		if (!isComposite(mOutNV21) && mOutNV21 != 0)
+			SwapHeap.FreeFromHeap(mOutNV21);
+
+		mOutNV21 = composite.outNV21;
+		mCrop = composite.crop;
+		mBaseArea = composite.baseArea;
+		mBaseFrameIndex = mCrop[4];
+	}
+
+	private boolean isComposite(int outNV21)
+	{
+		for (Composite composite : mComposites.values())
+			if (composite.outNV21 == outNV21)
+				return true;
+		return false;
+	}
+
+	// Frees cached results, current one too if it's among them
+	private void freeComposites()
+	{
+		for (Composite composite : mComposites.values())
+		{
+			if (composite.outNV21 == mOutNV21)
+				mOutNV21 = 0;
+			SwapHeap.FreeFromHeap(composite.outNV21);
+		}
+		mComposites.clear();
+	}
+
 	private Rect rotateObjRect(Rect rect)
 	{
 		if (mAngle == 0)
@@ -1134,16 +1250,17 @@ public class AlmaCLRShot
 	{
 		byte[] jpegBuffer = null;
 
-		android.graphics.YuvImage out = new android.graphics.YuvImage(SwapHeap.SwapFromHeap(mOutNV21,
-				mInputFrameSize.getWidth() * mInputFrameSize.getHeight() * 3 / 2), ImageFormat.NV21,
+		// encode straight from native memory, full size NV21 never gets to
+		// java heap
+		com.almalence.YuvImage out = new com.almalence.YuvImage(mOutNV21, ImageFormat.NV21,
 				mInputFrameSize.getWidth(), mInputFrameSize.getHeight(), null);
-		mOutNV21 = 0;
 		try
 		{
-			ByteArrayOutputStream os = new ByteArrayOutputStream();
-
 			Rect r = new Rect(mCrop[0], mCrop[1], mCrop[0] + mCrop[2], mCrop[1] + mCrop[3]);
 
+			// compressed image rarely exceeds a quarter of NV21 size
+			ByteArrayOutputStream os = new ByteArrayOutputStream(r.width() * r.height() * 3 / 8);
+
 			SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(ApplicationScreen.getMainContext());
 			int jpegQuality = Integer.parseInt(prefs.getString(ApplicationScreen.sJPEGQualityPref, "95"));
 			if (!out.compressToJpeg(r, jpegQuality, os))
@@ -1157,6 +1274,14 @@ public class AlmaCLRShot
 		{
 			Log.d(TAG, "Exception occured");
 			e.printStackTrace();
+		} finally
+		{
+			freeComposites();
+			if (mOutNV21 != 0)
+			{
+				SwapHeap.FreeFromHeap(mOutNV21);
+				mOutNV21 = 0;
+			}
 		}
 
 		return jpegBuffer;
@@ -1185,6 +1310,7 @@ public class AlmaCLRShot
 
 			IMAGE_TO_LAYOUT = 8;
 
+			freeComposites();
 			if (mOutNV21 != 0)
 			{
 				SwapHeap.FreeFromHeap(mOutNV21);
@@ -1205,6 +1331,7 @@ public class AlmaCLRShot
 
 	private synchronized void removeProcessing(byte[] layout, int[] sports_order)
 	{
+		freeComposites();
 		if (mOutNV21 != 0)
 		{
 			SwapHeap.FreeFromHeap(mOutNV21);
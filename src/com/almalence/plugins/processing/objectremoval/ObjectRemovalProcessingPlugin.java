@@ -43,7 +43,7 @@ import android.widget.ImageView;
 import android.widget.RelativeLayout;
 import android.widget.RelativeLayout.LayoutParams;
 
-import com.almalence.SwapHeap;
+import com.almalence.NativeFrame;
 /* <!-- +++
  import com.almalence.opencam_plus.ApplicationInterface;
  import com.almalence.opencam_plus.ApplicationScreen;
@@ -359,11 +359,9 @@ public class ObjectRemovalProcessingPlugin extends MultiShotProcessingPlugin
 	public void savePicture(Context context)
 	{
 		byte[] result = ObjectRemovalCore.processingSaveData();
-		int frame_len = result.length;
-		int frame = SwapHeap.SwapToHeap(result);
+		NativeFrame frame = NativeFrame.allocate(sessionID, result);
 		PluginManager.getInstance().addToSharedMem("resultframeformat1" + sessionID, "jpeg");
-		PluginManager.getInstance().addToSharedMem("resultframe1" + sessionID, String.valueOf(frame));
-		PluginManager.getInstance().addToSharedMem("resultframelen1" + sessionID, String.valueOf(frame_len));
+		PluginManager.getInstance().getSessionData(sessionID).setResultFrame(1, frame);
 
 		PluginManager.getInstance().addToSharedMem("resultframeorientation1" + sessionID,String.valueOf(mImageDataOrientation));
 		PluginManager.getInstance().addToSharedMem("resultframemirrored1" + sessionID, String.valueOf(mCameraMirrored));
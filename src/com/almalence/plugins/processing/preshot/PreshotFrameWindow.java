@@ -0,0 +1,440 @@
+/*
+The contents of this file are subject to the Mozilla Public License
+Version 1.1 (the "License"); you may not use this file except in
+compliance with the License. You may obtain a copy of the License at
+http://www.mozilla.org/MPL/
+
+Software distributed under the License is distributed on an "AS IS"
+basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+License for the specific language governing rights and limitations
+under the License.
+
+The Original Code is collection of files collectively known as Open Camera.
+
+The Initial Developer of the Original Code is Almalence Inc.
+Portions created by Initial Developer are Copyright (C) 2013
+by Almalence Inc. All Rights Reserved.
+ */
+
+package com.almalence.plugins.processing.preshot;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.almalence.plugins.capture.preshot.PreShot;
+
+/***
+ * Decoded frames of preshot buffer around the one being reviewed.
+ *
+ * Frames current-RADIUS..current+RADIUS are kept decoded at display size in a
+ * ring of bitmaps, frame i is in slot i % ring size. When current frame
+ * changes, slots of frames which left the window are reused for frames which
+ * entered it. Worker thread decodes them in background, frames in direction of
+ * last move first.
+ *
+ * Preview frame is scaled and rotated by native code into a reused pixel array
+ * and copied to its slot. Jpeg frame of slow mode is decoded to a reused
+ * source bitmap, then scaled and rotated to its slot by one draw. Frames which
+ * are shown (current and its neighbours) are always inside the window, so
+ * their bitmaps are not overwritten.
+ ***/
+public class PreshotFrameWindow
+{
+	private static final String	TAG		= "PreshotFrameWindow";
+
+	// Frames decoded at each side of current one
+	public static final int		RADIUS	= 2;
+
+	private static class Slot
+	{
+		Bitmap	bitmap;
+		int		index	= -1;
+		boolean	ready;
+		boolean	busy;
+		// frame isn't available, worker doesn't retry it
+		boolean	failed;
+	}
+
+	private final int			count;
+	private final boolean		slowMode;
+	private final int			previewWidth;
+	private final int			previewHeight;
+	private final int[]			rotations;
+
+	private final Slot[]		slots;
+	private int					current;
+	private int					direction	= 1;
+	private boolean				stopped;
+	private Thread				worker;
+
+	// Guards native buffer reads, source bitmap and pixels
+	private final Object		decodeLock	= new Object();
+	// jpeg of slow mode decoded at its size
+	private Bitmap				source;
+	// preview frame scaled and rotated by native code
+	private int[]				pixels;
+	private final Paint			paint		= new Paint(Paint.FILTER_BITMAP_FLAG);
+
+	private int					hits;
+	private int					misses;
+	private long				getTime;
+	private long				maxGetTime;
+	private int					decoded;
+	private long				decodeTime;
+
+	/***
+	 * @param count
+	 *            number of frames in buffer
+	 * @param slowMode
+	 *            frames are stored as jpeg
+	 * @param rotations
+	 *            rotation of each frame for display, degrees
+	 ***/
+	public PreshotFrameWindow(int count, boolean slowMode, int previewWidth, int previewHeight, int[] rotations)
+	{
+		this.count = count;
+		this.slowMode = slowMode;
+		this.previewWidth = previewWidth;
+		this.previewHeight = previewHeight;
+		this.rotations = rotations;
+
+		slots = new Slot[Math.min(2 * RADIUS + 1, Math.max(count, 1))];
+		for (int i = 0; i < slots.length; i++)
+			slots[i] = new Slot();
+	}
+
+	public synchronized void start(int index)
+	{
+		current = clamp(index);
+		if (worker != null || stopped)
+			return;
+
+		worker = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				work();
+			}
+		}, "PreshotFrameWindow");
+		worker.setPriority(Thread.NORM_PRIORITY - 1);
+		worker.start();
+	}
+
+	/***
+	 * Make index current frame, frames around it are decoded in background.
+	 ***/
+	public synchronized void moveTo(int index)
+	{
+		index = clamp(index);
+		if (index == current)
+			return;
+
+		direction = index > current ? 1 : -1;
+		current = index;
+		notifyAll();
+	}
+
+	/***
+	 * Bitmap of frame for display. Decodes it on calling thread if it isn't
+	 * ready yet. Bitmap is valid while frame is inside the window, caller must
+	 * not change or recycle it.
+	 ***/
+	public Bitmap get(int index)
+	{
+		long started = SystemClock.elapsedRealtime();
+		index = clamp(index);
+
+		Slot slot;
+		synchronized (this)
+		{
+			if (Math.abs(index - current) > RADIUS)
+				moveTo(index);
+
+			slot = slots[index % slots.length];
+			try
+			{
+				while (slot.busy)
+					wait();
+			} catch (InterruptedException e)
+			{
+				e.printStackTrace();
+				return null;
+			}
+
+			if (slot.index == index && slot.ready)
+			{
+				hits++;
+				addGetTime(SystemClock.elapsedRealtime() - started);
+				return slot.bitmap;
+			}
+
+			misses++;
+			slot.index = index;
+			slot.ready = false;
+			slot.busy = true;
+		}
+
+		decodeToSlot(slot, index);
+
+		synchronized (this)
+		{
+			addGetTime(SystemClock.elapsedRealtime() - started);
+			return slot.ready ? slot.bitmap : null;
+		}
+	}
+
+	/***
+	 * Stops worker and recycles bitmaps. Bitmaps must not be shown anymore.
+	 ***/
+	public void release()
+	{
+		Thread thread;
+		synchronized (this)
+		{
+			stopped = true;
+			thread = worker;
+			worker = null;
+			notifyAll();
+		}
+
+		if (thread != null)
+		{
+			try
+			{
+				thread.join();
+			} catch (InterruptedException e)
+			{
+				e.printStackTrace();
+			}
+		}
+
+		synchronized (this)
+		{
+			for (Slot slot : slots)
+			{
+				if (slot.bitmap != null)
+					slot.bitmap.recycle();
+				slot.bitmap = null;
+				slot.index = -1;
+				slot.ready = false;
+			}
+		}
+
+		synchronized (decodeLock)
+		{
+			if (source != null)
+				source.recycle();
+			source = null;
+			pixels = null;
+		}
+
+		Log.d(TAG, toString());
+	}
+
+	private void work()
+	{
+		while (true)
+		{
+			Slot slot;
+			int index = -1;
+			synchronized (this)
+			{
+				try
+				{
+					while (!stopped && (index = nextToDecode()) == -1)
+						wait();
+				} catch (InterruptedException e)
+				{
+					e.printStackTrace();
+					return;
+				}
+				if (stopped)
+					return;
+
+				slot = slots[index % slots.length];
+				slot.index = index;
+				slot.ready = false;
+				slot.busy = true;
+			}
+
+			decodeToSlot(slot, index);
+		}
+	}
+
+	// Nearest frame of the window which isn't decoded, ahead of current first
+	private int nextToDecode()
+	{
+		for (int k = 0; k <= RADIUS; k++)
+		{
+			for (int side = 0; side < 2; side++)
+			{
+				if (k == 0 && side == 1)
+					break;
+
+				int index = current + (side == 0 ? k : -k) * direction;
+				if (index < 0 || index >= count)
+					continue;
+
+				Slot slot = slots[index % slots.length];
+				if (!slot.busy && (slot.index != index || !slot.ready && !slot.failed))
+					return index;
+			}
+		}
+		return -1;
+	}
+
+	private void decodeToSlot(Slot slot, int index)
+	{
+		Bitmap bitmap = null;
+		try
+		{
+			bitmap = decode(index, slot.bitmap);
+		} catch (Exception e)
+		{
+			e.printStackTrace();
+		} catch (OutOfMemoryError e)
+		{
+			e.printStackTrace();
+		}
+
+		synchronized (this)
+		{
+			// previous bitmap of the slot isn't shown, it's left to GC if size
+			// of frame differs
+			if (bitmap != null)
+				slot.bitmap = bitmap;
+			slot.ready = bitmap != null;
+			slot.failed = bitmap == null;
+			slot.busy = false;
+			notifyAll();
+		}
+	}
+
+	/***
+	 * Decode frame at display size.
+	 *
+	 * @param target
+	 *            bitmap to draw to if it has right size, may be null
+	 * @return target or new bitmap, null if frame isn't available
+	 ***/
+	public Bitmap decode(int index, Bitmap target)
+	{
+		long started = SystemClock.elapsedRealtime();
+		int rotation = rotations != null && index < rotations.length ? rotations[index] : 0;
+		synchronized (decodeLock)
+		{
+			target = slowMode ? decodeSlow(index, target, rotation) : decodePreview(index, target, rotation);
+		}
+		if (target == null)
+			return null;
+
+		synchronized (this)
+		{
+			decoded++;
+			decodeTime += SystemClock.elapsedRealtime() - started;
+		}
+		return target;
+	}
+
+	// Native code scales preview frame to half size and rotates it into
+	// reused pixels, which are copied to target
+	private Bitmap decodePreview(int index, Bitmap target, int rotation)
+	{
+		rotation = (rotation % 360 + 360) % 360 / 90 * 90;
+		boolean portrait = rotation == 90 || rotation == 270;
+		int targetWidth = (portrait ? previewHeight : previewWidth) / 2;
+		int targetHeight = (portrait ? previewWidth : previewHeight) / 2;
+
+		if (pixels == null || pixels.length < targetWidth * targetHeight)
+			pixels = new int[targetWidth * targetHeight];
+		if (!PreShot.GetFromBufferRGBAScaled(index, pixels, targetWidth, targetHeight, rotation))
+			return null;
+
+		target = reuse(target, targetWidth, targetHeight);
+		target.setPixels(pixels, 0, targetWidth, 0, 0, targetWidth, targetHeight);
+		return target;
+	}
+
+	// Jpeg frame is decoded to reused source bitmap, then scaled and rotated
+	// to target by one draw
+	private Bitmap decodeSlow(int index, Bitmap target, int rotation)
+	{
+		byte[] data = PreShot.GetFromBufferToShowInSlow(index, previewHeight, previewWidth);
+		if (data == null || data.length == 0)
+			return null;
+
+		source = decodeJpeg(data, source);
+		if (source == null)
+			return null;
+
+		int srcWidth = source.getWidth();
+		int srcHeight = source.getHeight();
+		Matrix matrix = new Matrix();
+		matrix.setScale((float) previewWidth / srcWidth, (float) previewHeight / srcHeight);
+		matrix.postRotate(rotation);
+		RectF bounds = new RectF(0, 0, srcWidth, srcHeight);
+		matrix.mapRect(bounds);
+		matrix.postTranslate(-bounds.left, -bounds.top);
+
+		target = reuse(target, Math.round(bounds.width()), Math.round(bounds.height()));
+		new Canvas(target).drawBitmap(source, matrix, paint);
+		return target;
+	}
+
+	private static Bitmap reuse(Bitmap target, int width, int height)
+	{
+		if (target == null || target.isRecycled() || target.getWidth() != width || target.getHeight() != height)
+			return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+		return target;
+	}
+
+	// Decodes to reused bitmap when possible, it has to be of the same size
+	// before KitKat.
+	private static Bitmap decodeJpeg(byte[] data, Bitmap reusable)
+	{
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inMutable = true;
+		if (reusable != null)
+		{
+			options.inBitmap = reusable;
+			try
+			{
+				Bitmap bitmap = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+				if (bitmap != null)
+					return bitmap;
+			} catch (IllegalArgumentException e)
+			{
+				// size differs
+			}
+			options.inBitmap = null;
+		}
+		return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+	}
+
+	private int clamp(int index)
+	{
+		return Math.max(0, Math.min(index, count - 1));
+	}
+
+	private void addGetTime(long time)
+	{
+		getTime += time;
+		maxGetTime = Math.max(maxGetTime, time);
+	}
+
+	@Override
+	public synchronized String toString()
+	{
+		int gets = hits + misses;
+		return "preshot frames: hits " + hits + ", misses " + misses + ", get " + (gets > 0 ? getTime / gets : 0)
+				+ "ms, max " + maxGetTime + "ms, decoded " + decoded + ", decode "
+				+ (decoded > 0 ? decodeTime / decoded : 0) + "ms";
+	}
+}
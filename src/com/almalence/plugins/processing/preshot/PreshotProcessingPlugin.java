@@ -22,7 +22,6 @@ import android.app.ProgressDialog;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.Editor;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Matrix;
 import android.graphics.drawable.Drawable;
 import android.os.Build;
@@ -48,7 +47,7 @@ import android.widget.RelativeLayout;
 import android.widget.RelativeLayout.LayoutParams;
 import android.widget.TextView;
 
-import com.almalence.SwapHeap;
+import com.almalence.NativeFrame;
 
 /* <!-- +++
  import com.almalence.opencam_plus.ApplicationInterface;
@@ -90,7 +89,8 @@ public class PreshotProcessingPlugin extends PluginProcessing implements OnTouch
 	private static int		idx								= 0;
 	private static int		imgCnt							= 0;
 
-	private Bitmap[]		mini_frames;
+	// decoded frames around the one being shown
+	private PreshotFrameWindow	frames;
 	
 	private boolean[]		selected_frames;
 	private int				iNumSelected 					= 0; 
@@ -153,7 +153,7 @@ public class PreshotProcessingPlugin extends PluginProcessing implements OnTouch
 		ApplicationScreen.getPluginManager().addToSharedMem("ResultFromProcessingPlugin" + sessionID,
 				isSlowMode ? "true" : "false");
 
-		prepareMiniFrames();
+		prepareFrames();
 	}
 
 	private Integer ProcessingImages()
@@ -216,6 +216,7 @@ public class PreshotProcessingPlugin extends PluginProcessing implements OnTouch
 	@Override
 	public void freeMemory()
 	{
+		releaseFrames();
 		PreShot.FreeBuffer();
 	}
 
@@ -334,6 +335,8 @@ public class PreshotProcessingPlugin extends PluginProcessing implements OnTouch
 
 	public void saveTask()
 	{
+		releaseFrames();
+
 		if (isSaveAll)
 			saveAll();
 		else
@@ -385,6 +388,8 @@ public class PreshotProcessingPlugin extends PluginProcessing implements OnTouch
 		if (keyCode == KeyEvent.KEYCODE_BACK
 				&& ApplicationScreen.instance.findViewById(R.id.postprocessingLayout).getVisibility() == View.VISIBLE)
 		{
+			releaseFrames();
+
 			ApplicationScreen.getPluginManager().sendMessage(ApplicationInterface.MSG_BROADCAST, ApplicationInterface.MSG_CONTROL_UNLOCKED);
 
 			ApplicationScreen.getGUIManager().lockControls = false;
@@ -398,16 +403,40 @@ public class PreshotProcessingPlugin extends PluginProcessing implements OnTouch
 		return super.onKeyDown(keyCode, event);
 	}
 
-	private void prepareMiniFrames()
+	// Only frames around the shown one are decoded, starting from the frame
+	// which is shown first.
+	private void prepareFrames()
 	{
-		mini_frames = new Bitmap[imgCnt];
 		selected_frames = new boolean[imgCnt];
 		iNumSelected = 0;
 
+		int layoutOrient = ApplicationScreen.getGUIManager().getLayoutOrientation();
+		int[] rotations = new int[imgCnt];
 		for (int i = 0; i < imgCnt; i++)
+			rotations[i] = ApplicationScreen.getGUIManager().getMatrixRotationForBitmap(PreShot.getOrientation(i),
+					layoutOrient, mCameraMirrored);
+
+		// frames of previous session aren't shown anymore
+		if (frames != null)
+			frames.release();
+		frames = new PreshotFrameWindow(imgCnt, isSlowMode, ApplicationScreen.getPreviewWidth(),
+				ApplicationScreen.getPreviewHeight(), rotations);
+		frames.start(imgCnt > 0 ? (imgCnt - 1) / 2 : 0);
+	}
+
+	// Frame bitmaps are recycled, so they are removed from views first
+	private void releaseFrames()
+	{
+		if (frames == null)
+			return;
+
+		if (postProcessingView != null)
 		{
-			this.mini_frames[i] = getMultishotBitmap(i);
+			((ImageView) postProcessingView.findViewById(R.id.imageHolder)).setImageDrawable(null);
+			((ImageView) postProcessingView.findViewById(R.id.imageListed)).setImageDrawable(null);
 		}
+		frames.release();
+		frames = null;
 	}
 
 	@Override
@@ -433,12 +462,13 @@ public class PreshotProcessingPlugin extends PluginProcessing implements OnTouch
 			idx = 0;
 		else if (idx >= imgCnt)
 			idx = imgCnt - 1;
-		if (imgCnt == 1 || mini_frames.length == 1)
+		if (imgCnt == 1)
 			idx = 0;
 		
 		mCheckBox.setChecked(selected_frames[idx]);
 
-		Bitmap photo = mini_frames[idx];
+		frames.moveTo(idx);
+		Bitmap photo = frames.get(idx);
 		if (photo != null)
 		{
 			((ImageView) postProcessingView.findViewById(R.id.imageHolder)).setImageBitmap(photo);
@@ -521,54 +551,8 @@ public class PreshotProcessingPlugin extends PluginProcessing implements OnTouch
 	@Override
 	public Bitmap getMultishotBitmap(int index)
 	{
-		if (!isSlowMode)
-		{
-			int[] data = PreShot.GetFromBufferRGBA(index, true, false);
-
-			if (data.length == 0)
-			{
-				return null;
-			}
-
-			int H = ApplicationScreen.getPreviewHeight(), W = ApplicationScreen.getPreviewWidth();
-
-			Bitmap bitmap;
-			bitmap = Bitmap.createBitmap(W, H, Bitmap.Config.ARGB_8888);
-			bitmap.setPixels(data, 0, W, 0, 0, W, H);
-			bitmap = Bitmap.createScaledBitmap(bitmap, W / 2, H / 2, false);
-
-			int orient = PreShot.getOrientation(index);
-			int layoutOrient = ApplicationScreen.getGUIManager().getLayoutOrientation();
-			int rotation = ApplicationScreen.getGUIManager().getMatrixRotationForBitmap(orient, layoutOrient, mCameraMirrored);
-			Matrix matrix = new Matrix();
-			matrix.postRotate(rotation);
-			bitmap = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
-			
-			return bitmap;
-		} else
-		{// slow mode
-			byte[] data = PreShot.GetFromBufferToShowInSlow(index, ApplicationScreen.getPreviewHeight(),
-					ApplicationScreen.getPreviewWidth());
-
-			if (data.length == 0)
-			{
-				return null;
-			}
-
-			int H = ApplicationScreen.getPreviewHeight(), W = ApplicationScreen.getPreviewWidth();
-
-			Bitmap photo = null;
-			photo = BitmapFactory.decodeByteArray(data, 0, data.length);
-			photo = Bitmap.createScaledBitmap(photo, W, H, false);
-
-			int orient = PreShot.getOrientation(index);
-			int layoutOrient = ApplicationScreen.getGUIManager().getLayoutOrientation();
-			int rotation = ApplicationScreen.getGUIManager().getMatrixRotationForBitmap(orient, layoutOrient, mCameraMirrored);
-			Matrix matrix = new Matrix();
-			matrix.postRotate(rotation);
-			photo = Bitmap.createBitmap(photo, 0, 0, photo.getWidth(), photo.getHeight(), matrix, true);
-			return photo;
-		}
+		// new bitmap, not one of shown frames
+		return frames != null ? frames.decode(index, null) : null;
 	}
 
 	private static float	X				= 0;
@@ -774,13 +758,13 @@ public class PreshotProcessingPlugin extends PluginProcessing implements OnTouch
 				if (difX < X && Xprev >= X)
 				{
 					int new_idx = isGuffyOrientation ? idx - 1 : idx + 1;
-					photo = mini_frames[new_idx];
+					photo = frames.get(new_idx);
 					if (photo != null)
 						((ImageView) postProcessingView.findViewById(R.id.imageListed)).setImageBitmap(photo);
 				} else if (difX > X && Xprev <= X)
 				{
 					int new_idx = isGuffyOrientation ? idx + 1 : idx - 1;
-					photo = mini_frames[new_idx];
+					photo = frames.get(new_idx);
 					if (photo != null)
 						((ImageView) postProcessingView.findViewById(R.id.imageListed)).setImageBitmap(photo);
 				}
@@ -842,34 +826,23 @@ public class PreshotProcessingPlugin extends PluginProcessing implements OnTouch
 	{
 		if (!isSlowMode)
 		{
-			byte[] data = null;
-
-			if (mCameraMirrored)
-				data = PreShot.GetFromBufferNV21(i, 0, 0, 1);
-			else
-				data = PreShot.GetFromBufferNV21(i, 0, 0, 0);
-
-			if (data.length == 0)
+			long data = PreShot.GetFromBufferNV21ToHeap(i, 0, 0, mCameraMirrored ? 1 : 0);
+			if (data == 0)
 				return;
 
-			int frame = SwapHeap.SwapToHeap(data);
+			NativeFrame frame = NativeFrame.adopt(sessionID, data, PreShot.GetFromBufferLength(i, false));
 
-			ApplicationScreen.getPluginManager().addToSharedMem("resultframe" + (j + 1) + sessionID, String.valueOf(frame));
-			ApplicationScreen.getPluginManager().addToSharedMem("resultframelen" + (j + 1) + sessionID,
-					String.valueOf(data.length));
+			ApplicationScreen.getPluginManager().getSessionData(sessionID).setResultFrame(j + 1, frame);
 
 		} else if (isSlowMode)
 		{
-			byte[] data = PreShot.GetFromBufferSimpleNV21(i);
-
-			if (data.length == 0)
+			long data = PreShot.GetFromBufferSimpleToHeap(i);
+			if (data == 0)
 				return;
 
-			int frame = SwapHeap.SwapToHeap(data);
+			NativeFrame frame = NativeFrame.adopt(sessionID, data, PreShot.GetFromBufferLength(i, true));
 
-			ApplicationScreen.getPluginManager().addToSharedMem("resultframe" + (j + 1) + sessionID, String.valueOf(frame));
-			ApplicationScreen.getPluginManager().addToSharedMem("resultframelen" + (j + 1) + sessionID,
-					String.valueOf(data.length));
+			ApplicationScreen.getPluginManager().getSessionData(sessionID).setResultFrame(j + 1, frame);
 			ApplicationScreen.getPluginManager().addToSharedMem("resultframeformat" + (j + 1) + sessionID, "jpeg");
 		}
 	}
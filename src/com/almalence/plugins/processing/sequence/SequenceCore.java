@@ -35,13 +35,14 @@ import android.graphics.PointF;
 import android.graphics.Rect;
 import android.os.AsyncTask;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.util.Log;
 import android.view.Display;
 import android.view.View;
 import android.view.WindowManager;
 
-import com.almalence.SwapHeap;
+import com.almalence.NativeFrame;
 import com.almalence.plugins.capture.expobracketing.ExpoBracketingCapturePlugin;
 import com.almalence.plugins.processing.groupshot.GroupShotCore;
 import com.almalence.util.ImageConversion;
@@ -85,6 +86,18 @@ public class SequenceCore
 	
 	private ArrayList<Integer>			mYUVBufferList;	// List of input images.
 
+	// Timing of first processing (frames upload and objects detection),
+	// processing after sequence changes and time from sequence change to new
+	// preview, ms
+	private long						initTime		= 0;
+	private long						composeTime		= 0;
+	private int							composeCount	= 0;
+	private int							composeCached	= 0;
+	private long						previewLatency	= 0;
+	private long						maxPreviewLatency	= 0;
+	private int							previewCount	= 0;
+	private long						sequenceChangedTime	= 0;
+
 	public void setYUVBufferList(ArrayList<Integer> YUVBufferList)
 	{
 		this.mYUVBufferList = YUVBufferList;
@@ -121,6 +134,7 @@ public class SequenceCore
 	
 	public void release()
 	{
+		Log.d(TAG, getStatistics());
 		mAlmaCLRShot.release();
 	}
 	
@@ -167,6 +181,7 @@ public class SequenceCore
 			this.indexes[i] = i;
 		}
 
+		long start = SystemClock.uptimeMillis();
 		try
 		{
 			// frames!!! should be taken from heap
@@ -193,13 +208,52 @@ public class SequenceCore
 		{
 			e.printStackTrace();
 		}
+
+		synchronized (this)
+		{
+			initTime = SystemClock.uptimeMillis() - start;
+			composeTime = 0;
+			composeCount = 0;
+			composeCached = 0;
+			previewLatency = 0;
+			maxPreviewLatency = 0;
+			previewCount = 0;
+			sequenceChangedTime = 0;
+		}
 	}
 	
 	public Bitmap getPreviewBitmap()
 	{
-		return mAlmaCLRShot.getPreviewBitmap();
+		Bitmap bitmap = mAlmaCLRShot.getPreviewBitmap();
+
+		synchronized (this)
+		{
+			if (sequenceChangedTime != 0)
+			{
+				long latency = SystemClock.uptimeMillis() - sequenceChangedTime;
+				previewLatency += latency;
+				maxPreviewLatency = Math.max(maxPreviewLatency, latency);
+				previewCount++;
+				sequenceChangedTime = 0;
+			}
+		}
+		return bitmap;
 	}
-	
+
+	// Called when user changes sequence. Preview latency is counted from the
+	// last change, changes made while processing is running are coalesced.
+	public synchronized void onSequenceChanged()
+	{
+		sequenceChangedTime = SystemClock.uptimeMillis();
+	}
+
+	public synchronized String getStatistics()
+	{
+		return "init " + initTime + "ms, compose " + (composeCount > 0 ? composeTime / composeCount : 0)
+				+ "ms avg of " + composeCount + " (" + composeCached + " cached), preview latency "
+				+ (previewCount > 0 ? previewLatency / previewCount : 0) + "ms avg, " + maxPreviewLatency + "ms max";
+	}
+
 	public void runProcessingTask(int[] idx)
 	{
 		ProcessingTask task = new ProcessingTask();
@@ -221,45 +275,19 @@ public class SequenceCore
 		protected Void doInBackground(Void... params)
 		{
 			android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_DEFAULT);
-			CameraController.Size imageSize = CameraController.getCameraImageSize();
-			Size input = new Size(imageSize.getWidth(), imageSize.getHeight());
-			int minSize = 1000;
-			if (mMinSize == 0)
-			{
-				minSize = 0;
-			} else
-			{
-				minSize = input.getWidth() * input.getHeight() / mMinSize;
-			}
 
-			Size preview = new Size(mDisplayWidth, mDisplayHeight);
-			try
-			{
-				
-				
-				mAlmaCLRShot.initialize(preview,
-						0, //Angle
-						0, //Base frame
-				/*
-				 * sensitivity for objection detection
-				 */
-				mSensitivity - 15,
-				/*
-				 * Minimum size of object to be able to detect -15 ~ 15 max -> easy
-				 * detection dull detection min ->
-				 */
-				minSize,
-				/*
-				 * ghosting parameter 0 : normal operation 1 : detect ghosted
-				 * objects but not remove them 2 : detect and remove all object
-				 */
-				Integer.parseInt(mGhosting), idxInput, null);
-			} catch (NumberFormatException e)
-			{
-				e.printStackTrace();
-			} catch (Exception e)
+			// Processing runs with parameters of the first one, results of
+			// recent frame orders are taken from cache
+			long start = SystemClock.uptimeMillis();
+			boolean cached = mAlmaCLRShot.recompose(idxInput);
+			long time = SystemClock.uptimeMillis() - start;
+
+			synchronized (SequenceCore.this)
 			{
-				e.printStackTrace();
+				composeTime += time;
+				composeCount++;
+				if (cached)
+					composeCached++;
 			}
 
 			return null;
@@ -276,12 +304,10 @@ public class SequenceCore
 	public void processAndSaveData(long sessionID)
 	{
 		byte[] result = mAlmaCLRShot.processingSaveData();
-		int frame_len = result.length;
-		int frame = SwapHeap.SwapToHeap(result);
+		NativeFrame frame = NativeFrame.allocate(sessionID, result);
 
 		PluginManager.getInstance().addToSharedMem("resultframeformat1" + sessionID, "jpeg");
-		PluginManager.getInstance().addToSharedMem("resultframe1" + sessionID, String.valueOf(frame));
-		PluginManager.getInstance().addToSharedMem("resultframelen1" + sessionID, String.valueOf(frame_len));
+		PluginManager.getInstance().getSessionData(sessionID).setResultFrame(1, frame);
 
 		//Nexus 6 and 6p has a original front camera sensor orientation, we have to manage it
 		PluginManager.getInstance().addToSharedMem("resultframeorientation1" + sessionID, String.valueOf(mImageDataOrientation));
@@ -387,6 +387,7 @@ public class SequenceProcessingPlugin extends MultiShotProcessingPlugin implemen
 	@Override
 	public void onSequenceChanged(final int[] idx)
 	{
+		SequenceCore.getInstance().onSequenceChanged();
 		synchronized(syncObj)
 		{
 			if(!processingRunning)
@@ -0,0 +1,247 @@
+/*
+The contents of this file are subject to the Mozilla Public License
+Version 1.1 (the "License"); you may not use this file except in
+compliance with the License. You may obtain a copy of the License at
+http://www.mozilla.org/MPL/
+
+Software distributed under the License is distributed on an "AS IS"
+basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+License for the specific language governing rights and limitations
+under the License.
+
+The Original Code is collection of files collectively known as Open Camera.
+
+The Initial Developer of the Original Code is Almalence Inc.
+Portions created by Initial Developer are Copyright (C) 2013
+by Almalence Inc. All Rights Reserved.
+ */
+
+package com.almalence.plugins.vf.barcodescanner;
+
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.MultiFormatReader;
+import com.google.zxing.PlanarYUVLuminanceSource;
+import com.google.zxing.ReaderException;
+import com.google.zxing.Result;
+import com.google.zxing.common.HybridBinarizer;
+
+/**
+ * Long-lived barcode decoder.
+ *
+ * Only luminance of the bounding rect is copied from preview frame, into one
+ * of reusable buffers, so preview buffer is free as soon as offer() returns.
+ * Mailbox keeps one newest frame: frame offered while readers are busy
+ * replaces the previous one instead of queueing.
+ *
+ * Each reader thread has its own MultiFormatReader. With two readers
+ * consecutive frames are decoded in parallel on two cores.
+ */
+public class BarcodeDecoder
+{
+	public interface Listener
+	{
+		// Called on reader thread
+		void onDecoded(Result result);
+	}
+
+	// bounds of frames per second suggested to preview dispatcher
+	private static final int	MIN_RATE		= 1;
+	private static final int	MAX_RATE		= 10;
+
+	private final Listener		listener;
+	private final Reader[]		readers;
+
+	// Luminance buffers: one per reader plus the mailbox. Buffer is owned
+	// by whoever holds it in 'pending', 'free' or reader's 'luminance'.
+	private byte[]				pending			= null;
+	private int					pendingWidth;
+	private int					pendingHeight;
+	private byte[]				free			= null;
+	private boolean				running			= true;
+
+	private long				offered			= 0;
+	private long				dropped			= 0;
+	private long				decoded			= 0;
+	private long				found			= 0;
+	// moving average of one decode, ns
+	private long				averageTime		= 0;
+
+	public BarcodeDecoder(int readersCount, Listener listener)
+	{
+		this.listener = listener;
+		readers = new Reader[readersCount];
+		for (int i = 0; i < readersCount; i++)
+		{
+			readers[i] = new Reader();
+			readers[i].thread = new Thread(readers[i], "BarcodeDecoder-" + i);
+			readers[i].thread.start();
+		}
+	}
+
+	/**
+	 * Copy region of NV21 (or any Y-first planar) frame to decode it later.
+	 * Called on preview thread, data may be reused after return.
+	 */
+	public synchronized void offer(byte[] data, int dataWidth, int left, int top, int width, int height)
+	{
+		if (!running)
+			return;
+
+		offered++;
+		byte[] buffer;
+		if (pending != null)
+		{
+			// nobody took previous frame yet, overwrite it
+			buffer = pending;
+			dropped++;
+		} else
+		{
+			buffer = free;
+			free = null;
+		}
+
+		int size = width * height;
+		if (buffer == null || buffer.length < size)
+			buffer = new byte[size];
+
+		for (int y = 0; y < height; y++)
+			System.arraycopy(data, (top + y) * dataWidth + left, buffer, y * width, width);
+
+		pending = buffer;
+		pendingWidth = width;
+		pendingHeight = height;
+		notify();
+	}
+
+	public void shutdown()
+	{
+		synchronized (this)
+		{
+			running = false;
+			notifyAll();
+		}
+		for (int i = 0; i < readers.length; i++)
+			readers[i].thread.interrupt();
+	}
+
+	/**
+	 * Preview rate that keeps readers busy without copying frames which will
+	 * be overwritten anyway.
+	 */
+	public synchronized int getSuggestedRate()
+	{
+		if (averageTime == 0)
+			return MAX_RATE;
+
+		long rate = readers.length * 1000000000L / averageTime;
+		return (int) Math.max(MIN_RATE, Math.min(MAX_RATE, rate));
+	}
+
+	public synchronized long getOfferedFrames()
+	{
+		return offered;
+	}
+
+	// frames overwritten in mailbox before any reader took them
+	public synchronized long getDroppedFrames()
+	{
+		return dropped;
+	}
+
+	public synchronized long getDecodedFrames()
+	{
+		return decoded;
+	}
+
+	// decoded frames which contained barcode
+	public synchronized long getFoundFrames()
+	{
+		return found;
+	}
+
+	// ms
+	public synchronized long getAverageDecodeTime()
+	{
+		return averageTime / 1000000;
+	}
+
+	/******************************************************************************************************
+	 * Reader thread
+	 ******************************************************************************************************/
+	private class Reader implements Runnable
+	{
+		private final MultiFormatReader	reader		= new MultiFormatReader();
+		private byte[]					luminance	= null;
+		private Thread					thread;
+
+		@Override
+		public void run()
+		{
+			while (true)
+			{
+				int width;
+				int height;
+				synchronized (BarcodeDecoder.this)
+				{
+					// give previous buffer back, it's reused by offer()
+					if (luminance != null && free == null)
+						free = luminance;
+					luminance = null;
+
+					while (running && pending == null)
+					{
+						try
+						{
+							BarcodeDecoder.this.wait();
+						} catch (InterruptedException e)
+						{
+							running = false;
+						}
+					}
+					if (!running)
+						return;
+
+					luminance = pending;
+					width = pendingWidth;
+					height = pendingHeight;
+					pending = null;
+				}
+
+				long start = System.nanoTime();
+				Result result = decode(width, height);
+				long time = System.nanoTime() - start;
+
+				synchronized (BarcodeDecoder.this)
+				{
+					decoded++;
+					if (result != null)
+						found++;
+					averageTime = averageTime == 0 ? time : (averageTime * 7 + time) / 8;
+				}
+
+				if (result != null)
+					listener.onDecoded(result);
+			}
+		}
+
+		private Result decode(int width, int height)
+		{
+			PlanarYUVLuminanceSource source = new PlanarYUVLuminanceSource(luminance, width, height, 0, 0, width,
+					height, false);
+			try
+			{
+				return reader.decodeWithState(new BinaryBitmap(new HybridBinarizer(source)));
+			} catch (ReaderException re)
+			{
+				// nothing to do here
+			} catch (Exception e)
+			{
+				e.printStackTrace();
+			} finally
+			{
+				reader.reset();
+			}
+			return null;
+		}
+	}
+}
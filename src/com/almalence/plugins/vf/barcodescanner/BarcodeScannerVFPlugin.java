@@ -21,7 +21,6 @@ import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.Rect;
 import android.graphics.YuvImage;
-import android.os.AsyncTask;
 import android.preference.PreferenceManager;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -33,12 +32,7 @@ import android.widget.RelativeLayout;
 
 import com.almalence.ui.RotateImageView;
 import com.almalence.util.ImageConversion;
-import com.google.zxing.BinaryBitmap;
-import com.google.zxing.MultiFormatReader;
-import com.google.zxing.PlanarYUVLuminanceSource;
-import com.google.zxing.ReaderException;
 import com.google.zxing.Result;
-import com.google.zxing.common.HybridBinarizer;
 /* <!-- +++
  import com.almalence.opencam_plus.ApplicationScreen;
  import com.almalence.opencam_plus.MainScreen;
@@ -47,6 +41,8 @@ import com.google.zxing.common.HybridBinarizer;
  import com.almalence.opencam_plus.R;
  import com.almalence.opencam_plus.SoundPlayer;
  import com.almalence.opencam_plus.cameracontroller.CameraController;
+ import com.almalence.opencam_plus.cameracontroller.PreviewDispatcher;
+ import com.almalence.opencam_plus.cameracontroller.PreviewFrame;
 
  +++ --> */
 //<!-- -+-
@@ -57,6 +53,8 @@ import com.almalence.opencam.PluginViewfinder;
 import com.almalence.opencam.R;
 import com.almalence.opencam.SoundPlayer;
 import com.almalence.opencam.cameracontroller.CameraController;
+import com.almalence.opencam.cameracontroller.PreviewDispatcher;
+import com.almalence.opencam.cameracontroller.PreviewFrame;
 //-+- -->
 
 public class BarcodeScannerVFPlugin extends PluginViewfinder
@@ -66,11 +64,12 @@ public class BarcodeScannerVFPlugin extends PluginViewfinder
 	private static final Boolean		ON						= true;
 	private static final Boolean		OFF						= false;
 
-	private final MultiFormatReader		mMultiFormatReader		= new MultiFormatReader();
 	private SoundPlayer					mSoundPlayer			= null;
 	private static Boolean				mBarcodeScannerState	= OFF;
 	private static Boolean				decodedProcessing		= false;
-	private int							mFrameCounter			= 0;
+	private BarcodeDecoder				mDecoder				= null;
+	// Found barcode waiting for the next preview frame to be saved with
+	private volatile Result				mDecodedResult			= null;
 	private int							mOrientation			= 0;
 	private BoundingView				mBound					= null;
 	private RotateImageView				mBarcodesListButton;
@@ -78,8 +77,8 @@ public class BarcodeScannerVFPlugin extends PluginViewfinder
 	private BarcodeHistoryListDialog	barcodeHistoryDialog;
 	private BarcodeViewDialog			barcodeViewDialog;
 
-	//takes each X image, skipping other
-	private int							skipImgNum				= 10;
+	// decode frames on two cores where there are enough of them
+	private static final int			MULTI_READER_CORES		= 4;
 		
 	public BarcodeScannerVFPlugin()
 	{
@@ -101,6 +100,17 @@ public class BarcodeScannerVFPlugin extends PluginViewfinder
 		else
 			return false;
 	}
+
+	@Override
+	public int getPreviewFrameRate()
+	{
+		if (!needPreviewFrame())
+			return PreviewDispatcher.RATE_NONE;
+
+		// follows measured decoding time
+		BarcodeDecoder decoder = mDecoder;
+		return decoder != null ? decoder.getSuggestedRate() : PreviewDispatcher.RATE_ALL;
+	}
 	
 	void updatePreferences()
 	{
@@ -235,6 +245,13 @@ public class BarcodeScannerVFPlugin extends PluginViewfinder
 		clearViews();
 		mBound = null;
 		mBarcodesListButton = null;
+
+		if (mDecoder != null)
+		{
+			mDecoder.shutdown();
+			mDecoder = null;
+		}
+		mDecodedResult = null;
 		
 		if (mBarcodeScannerState == ON)
 		{
@@ -339,27 +356,54 @@ public class BarcodeScannerVFPlugin extends PluginViewfinder
 		barcodeHistoryDialog.show();
 	}
 
+	// Called on plugin's preview worker
 	@Override
-	public void onPreviewFrame(byte[] data)
+	public void onPreviewFrame(PreviewFrame frame)
 	{
 		if (mBarcodeScannerState == OFF)
 			return;
-		mFrameCounter++;
-		if (mFrameCounter != skipImgNum)
+
+		// barcode was found in one of previous frames, this one is saved as
+		// its picture
+		Result result = mDecodedResult;
+		if (result != null)
 		{
+			mDecodedResult = null;
+			File file = saveDecodedImageToFile(frame.getData());
+			final Barcode barcode = file != null ? new Barcode(result, file.getAbsolutePath()) : new Barcode(result);
+			ApplicationScreen.instance.runOnUiThread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					onDecoded(barcode);
+				}
+			});
 			return;
 		}
 
-		new DecodeAsyncTask(ApplicationScreen.getPreviewWidth(), ApplicationScreen.getPreviewHeight()).execute(data);
-
-		mFrameCounter = 0;
-	}
+		if (mDecoder == null)
+		{
+			int readers = Runtime.getRuntime().availableProcessors() >= MULTI_READER_CORES ? 2 : 1;
+			mDecoder = new BarcodeDecoder(readers, new BarcodeDecoder.Listener()
+			{
+				@Override
+				public void onDecoded(Result result)
+				{
+					synchronized (BarcodeScannerVFPlugin.this)
+					{
+						if (decodedProcessing)
+							return;
+						decodedProcessing = true;
+					}
+					mDecodedResult = result;
+				}
+			});
+		}
 
-	public synchronized PlanarYUVLuminanceSource buildLuminanceSource(byte[] data, int width, int height,
-			Rect boundingRect)
-	{
-		return new PlanarYUVLuminanceSource(data, width, height, boundingRect.left, boundingRect.top,
-				boundingRect.width(), boundingRect.height(), false);
+		// only bounding rect is copied and decoded
+		Rect bounds = getBoundingRect(frame.getWidth(), frame.getHeight());
+		mDecoder.offer(frame.getData(), frame.getWidth(), bounds.left, bounds.top, bounds.width(), bounds.height());
 	}
 
 	/**
@@ -419,18 +463,18 @@ public class BarcodeScannerVFPlugin extends PluginViewfinder
 	}
 
 	/**
-	 * @return bounding rect for camera
+	 * @return bounding rect for camera frame of given size
 	 */
-	public final synchronized Rect getBoundingRect()
+	public final synchronized Rect getBoundingRect(int previewWidth, int previewHeight)
 	{
 
 		double heightFraction = BOUNDS_FRACTION;
 		double widthFraction = BOUNDS_FRACTION;
 
-		int height = (int) (ApplicationScreen.getPreviewHeight() * heightFraction);
-		int width = (int) (ApplicationScreen.getPreviewWidth() * widthFraction);
-		int left = (int) (ApplicationScreen.getPreviewWidth() * ((1 - widthFraction) / 2));
-		int top = (int) (ApplicationScreen.getPreviewHeight() * ((1 - heightFraction) / 2));
+		int height = (int) (previewHeight * heightFraction);
+		int width = (int) (previewWidth * widthFraction);
+		int left = (int) (previewWidth * ((1 - widthFraction) / 2));
+		int top = (int) (previewHeight * ((1 - heightFraction) / 2));
 		int right = left + width;
 		int bottom = top + height;
 
@@ -455,82 +499,6 @@ public class BarcodeScannerVFPlugin extends PluginViewfinder
 		return new Rect(left, top, right, bottom);
 	}
 
-	/**
-	 * Asynchronous task for decoding and finding barcode
-	 */
-	private class DecodeAsyncTask extends AsyncTask<byte[], Void, Barcode>
-	{
-		private int	width;
-		private int	height;
-
-		private DecodeAsyncTask(int width, int height)
-		{
-			this.width = width;
-			this.height = height;
-		}
-
-		@Override
-		protected Barcode doInBackground(byte[]... datas)
-		{
-			Result rawResult = null;
-			File file = null;
-			final PlanarYUVLuminanceSource source = buildLuminanceSource(datas[0], width, height, getBoundingRect());
-			if (source != null)
-			{
-				BinaryBitmap bitmap = new BinaryBitmap(new HybridBinarizer(source));
-				try
-				{
-					rawResult = mMultiFormatReader.decodeWithState(bitmap);
-				} catch (ReaderException re)
-				{
-					// nothing to do here
-				} catch (Exception e)
-				{
-					e.printStackTrace();
-				} finally
-				{
-					mMultiFormatReader.reset();
-				}
-			}
-
-			if (rawResult == null)
-			{
-				return null;
-			}
-
-			synchronized (datas)
-			{
-				if (rawResult != null && !decodedProcessing)
-				{
-					decodedProcessing = true;
-					file = saveDecodedImageToFile(datas);
-				} else {
-					return null;
-				}
-			}
-
-			Barcode barcode = null;
-			if (file != null)
-			{
-				barcode = new Barcode(rawResult, file.getAbsolutePath());
-			} else
-			{
-				barcode = new Barcode(rawResult);
-			}
-
-			return barcode;
-		}
-
-		@Override
-		protected void onPostExecute(Barcode barcode)
-		{
-			if (barcode != null)
-			{
-				onDecoded(barcode);
-			}
-		}
-	}
-
 	private synchronized File saveDecodedImageToFile(byte[]... datas)
 	{
 		File file = null;
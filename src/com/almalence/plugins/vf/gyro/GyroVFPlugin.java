@@ -29,12 +29,14 @@ import com.almalence.opencam_plus.ApplicationScreen;
 import com.almalence.opencam_plus.PluginViewfinder;
 import com.almalence.opencam_plus.R;
 import com.almalence.opencam_plus.cameracontroller.CameraController;
+import com.almalence.opencam_plus.cameracontroller.PreviewDispatcher;
 +++ --> */
 //<!-- -+-
 import com.almalence.opencam.ApplicationScreen;
 import com.almalence.opencam.PluginViewfinder;
 import com.almalence.opencam.R;
 import com.almalence.opencam.cameracontroller.CameraController;
+import com.almalence.opencam.cameracontroller.PreviewDispatcher;
 
 //-+- -->
 
@@ -188,6 +190,12 @@ public class GyroVFPlugin extends PluginViewfinder
 		else
 			return false;
 	}
+
+	@Override
+	public int getPreviewFrameRate()
+	{
+		return needPreviewFrame() ? PreviewDispatcher.RATE_ALL : PreviewDispatcher.RATE_NONE;
+	}
 	
 	void updatePreferences()
 	{
@@ -238,11 +246,23 @@ public class GyroVFPlugin extends PluginViewfinder
 			this.mVfGyroscope.NewData(data);
 			if (mSurfacePreviewAugmented != null)
 			{
-				mSurfacePreviewAugmented.onDrawFrame();
+				ApplicationScreen.instance.runOnUiThread(drawFrame);
 			}
 		}
 	}
 
+	// horizon indicator views are updated on UI thread, onPreviewFrame is
+	// called on plugin's preview worker
+	private final Runnable	drawFrame	= new Runnable()
+	{
+		@Override
+		public void run()
+		{
+			if (mSurfacePreviewAugmented != null)
+				mSurfacePreviewAugmented.onDrawFrame();
+		}
+	};
+
 	@Override
 	public void onOrientationChanged(int orientation)
 	{
@@ -39,12 +39,14 @@ import android.view.WindowManager;
  import com.almalence.opencam_plus.PluginViewfinder;
  import com.almalence.opencam_plus.R;
  import com.almalence.opencam_plus.cameracontroller.CameraController;
+ import com.almalence.opencam_plus.cameracontroller.PreviewDispatcher;
  +++ --> */
 // <!-- -+-
 import com.almalence.opencam.ApplicationScreen;
 import com.almalence.opencam.PluginViewfinder;
 import com.almalence.opencam.R;
 import com.almalence.opencam.cameracontroller.CameraController;
+import com.almalence.opencam.cameracontroller.PreviewDispatcher;
 //-+- -->
 
 import com.almalence.util.Util;
@@ -71,8 +73,6 @@ public class HistogramVFPlugin extends PluginViewfinder
 	private int[]				histFactsG;
 	private int[]				histFactsB;
 
-	private int					frameCounter	= 0;
-
 	public static Path			histPath;
 	public static Path			histPathR;
 	public static Path			histPathG;
@@ -83,8 +83,8 @@ public class HistogramVFPlugin extends PluginViewfinder
 
 	private static int			histogramType	= NONE;
 
-	//takes each X image, skipping other
-	private int					skipImgNum		= 6;
+	// histogram updates per second
+	private static final int	HISTOGRAM_RATE	= 5;
 	
 	public HistogramVFPlugin()
 	{
@@ -236,6 +236,12 @@ public class HistogramVFPlugin extends PluginViewfinder
 		else
 			return false;
 	}
+
+	@Override
+	public int getPreviewFrameRate()
+	{
+		return needPreviewFrame() ? HISTOGRAM_RATE : PreviewDispatcher.RATE_NONE;
+	}
 	
 	void UpdatePreferences()
 	{
@@ -363,49 +369,75 @@ public class HistogramVFPlugin extends PluginViewfinder
 			return;
 	}
 
+	// Called on plugin's preview worker thread. Histogram is counted here,
+	// paths used by views' onDraw are rebuilt on UI thread.
 	@Override
 	public void onPreviewFrame(byte[] data)
 	{
 		if (histogramType == NONE)
 			return;
-		frameCounter++;
-		if (frameCounter != skipImgNum)
-		{
-			return;
-		}
+
 		int previewWidth = ApplicationScreen.getPreviewWidth();
 		int previewHeight = ApplicationScreen.getPreviewHeight();
 
 		if (histogramType == LUMA)
 		{
-			Histogram.createHistogram(data, histFacts, previewWidth, previewHeight, 256, histoHeight);
+			synchronized (histFacts)
+			{
+				Histogram.createHistogram(data, histFacts, previewWidth, previewHeight, 256, histoHeight);
+			}
+			ApplicationScreen.instance.runOnUiThread(updateLuma);
+		} else if (histogramType == RGB)
+		{
+			synchronized (histFacts)
+			{
+				Histogram.createRGBHistogram(data, histFactsR, histFactsG, histFactsB, previewWidth, previewHeight,
+						256, histoHeight);
+			}
+			ApplicationScreen.instance.runOnUiThread(updateRGB);
+		}
+	}
 
+	private final Runnable	updateLuma	= new Runnable()
+	{
+		@Override
+		public void run()
+		{
 			histPath.reset();
 			histPath.moveTo(0, histoHeight);
-			for (int i = 1; i < 256; i++)
+			synchronized (histFacts)
 			{
-				histPath.lineTo(((float) histoWidth / 256) * i, histoHeight - histFacts[i]);
+				for (int i = 1; i < 256; i++)
+				{
+					histPath.lineTo(((float) histoWidth / 256) * i, histoHeight - histFacts[i]);
+				}
 			}
 
 			histPath.setLastPoint(histoWidth, histoHeight);
 
 			histogram.invalidate();
-		} else if (histogramType == RGB)
-		{
-			Histogram.createRGBHistogram(data, histFactsR, histFactsG, histFactsB, previewWidth, previewHeight, 256,
-					histoHeight);
+		}
+	};
 
+	private final Runnable	updateRGB	= new Runnable()
+	{
+		@Override
+		public void run()
+		{
 			histPathR.reset();
 			histPathR.moveTo(0, histoHeight);
 			histPathG.reset();
 			histPathG.moveTo(0, histoHeight);
 			histPathB.reset();
 			histPathB.moveTo(0, histoHeight);
-			for (int i = 1; i < 256; i++)
+			synchronized (histFacts)
 			{
-				histPathR.lineTo(((float) histoWidth / 256) * i, histoHeight - histFactsR[i]);
-				histPathG.lineTo(((float) histoWidth / 256) * i, histoHeight - histFactsG[i]);
-				histPathB.lineTo(((float) histoWidth / 256) * i, histoHeight - histFactsB[i]);
+				for (int i = 1; i < 256; i++)
+				{
+					histPathR.lineTo(((float) histoWidth / 256) * i, histoHeight - histFactsR[i]);
+					histPathG.lineTo(((float) histoWidth / 256) * i, histoHeight - histFactsG[i]);
+					histPathB.lineTo(((float) histoWidth / 256) * i, histoHeight - histFactsB[i]);
+				}
 			}
 
 			histPathR.setLastPoint(histoWidth, histoHeight);
@@ -413,10 +445,8 @@ public class HistogramVFPlugin extends PluginViewfinder
 			histPathB.setLastPoint(histoWidth, histoHeight);
 
 			histogramRGB.invalidate();
-
 		}
-		frameCounter = 0;
-	}
+	};
 	
 	@Override
 	public void onOrientationChanged(int orientation)
@@ -39,6 +39,7 @@ import android.widget.TextView;
 
 /* <!-- +++
  import com.almalence.opencam_plus.cameracontroller.CameraController;
+ import com.almalence.opencam_plus.cameracontroller.PreviewDispatcher;
  import com.almalence.opencam_plus.CameraParameters;
  import com.almalence.opencam_plus.ApplicationScreen;
  import com.almalence.opencam_plus.PluginManager;
@@ -54,6 +55,7 @@ import com.almalence.opencam.PluginManager;
 import com.almalence.opencam.PluginViewfinder;
 import com.almalence.opencam.R;
 import com.almalence.opencam.cameracontroller.CameraController;
+import com.almalence.opencam.cameracontroller.PreviewDispatcher;
 //-+- -->
 
 import com.almalence.util.Util;
@@ -90,6 +92,9 @@ public class InfosetVFPlugin extends PluginViewfinder
 	private boolean						useWBMonitor;
 	private boolean						useFocusMonitor;
 	private boolean						useFlashMonitor;
+
+	// current ISO and exposure time updates per second
+	private static final int			MONITOR_RATE				= 2;
 	private boolean						useISOMonitor;
 
 	private boolean						isBatteryMonitorRegistered	= false;
@@ -684,45 +689,63 @@ public class InfosetVFPlugin extends PluginViewfinder
 		return false;
 	}
 
+	@Override
+	public int getPreviewFrameRate()
+	{
+		if (useCurrentSensitivityMonitor || useCurrentExposureTimeMonitor)
+			return MONITOR_RATE;
+		return PreviewDispatcher.RATE_NONE;
+	}
+
+	// Preview frame is used only as a tick to refresh current camera values
 	@Override
 	public void onPreviewFrame(byte[] data)
 	{
-		if (useCurrentSensitivityMonitor && currentSensitivityText != null)
+		ApplicationScreen.instance.runOnUiThread(updateMonitors);
+	}
+
+	private final Runnable	updateMonitors	= new Runnable()
+	{
+		@Override
+		public void run()
 		{
-			int currentSensetivity = CameraController.getCurrentSensitivity();
-			if (currentSensetivity != -1 && currentSensetivity != 0)
-			{
-				String currentSensetivityString = "ISO " + currentSensetivity;
-				currentSensitivityText.setText(currentSensetivityString);
-			}
-			else
+			if (useCurrentSensitivityMonitor && currentSensitivityText != null)
 			{
-				String currentSensetivityString = "ISO Auto";
-				currentSensitivityText.setText(currentSensetivityString);
+				int currentSensetivity = CameraController.getCurrentSensitivity();
+				if (currentSensetivity != -1 && currentSensetivity != 0)
+				{
+					String currentSensetivityString = "ISO " + currentSensetivity;
+					currentSensitivityText.setText(currentSensetivityString);
+				}
+				else
+				{
+					String currentSensetivityString = "ISO Auto";
+					currentSensitivityText.setText(currentSensetivityString);
+				}
+				currentSensitivityText.setVisibility(View.VISIBLE);
 			}
-			currentSensitivityText.setVisibility(View.VISIBLE);
-		}
 
-		if (useCurrentExposureTimeMonitor && currentExposureTimeText != null)
-		{
-			long currentExposureTime = CameraController.getCameraExposureTime();
-			if (currentExposureTime != -1 && currentExposureTime != 0)
+			if (useCurrentExposureTimeMonitor && currentExposureTimeText != null)
 			{
-				currentExposureTime = 1000000000 / currentExposureTime;
-				// Fix calculations.
-				if (currentExposureTime % 10 == 9)
+				long currentExposureTime = CameraController.getCameraExposureTime();
+				if (currentExposureTime != -1 && currentExposureTime != 0)
 				{
-					currentExposureTime = currentExposureTime + 1;
+					currentExposureTime = 1000000000 / currentExposureTime;
+					// Fix calculations.
+					if (currentExposureTime % 10 == 9)
+					{
+						currentExposureTime = currentExposureTime + 1;
+					}
+					String currentExposureTimeString = "1/" + currentExposureTime + " s";
+					currentExposureTimeText.setText(currentExposureTimeString);
+					currentExposureTimeText.setVisibility(View.VISIBLE);
+				} else
+				{
+					currentExposureTimeText.setVisibility(View.GONE);
 				}
-				String currentExposureTimeString = "1/" + currentExposureTime + " s";
-				currentExposureTimeText.setText(currentExposureTimeString);
-				currentExposureTimeText.setVisibility(View.VISIBLE);
-			} else
-			{
-				currentExposureTimeText.setVisibility(View.GONE);
 			}
 		}
-	}
+	};
 	
 	@Override
 	public void onOrientationChanged(int orientation)
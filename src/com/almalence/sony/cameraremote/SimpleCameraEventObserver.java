@@ -6,10 +6,12 @@ import org.json.JSONObject;
 
 import android.content.Context;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.util.Log;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -20,7 +22,23 @@ import java.util.List;
 public class SimpleCameraEventObserver
 {
 
-	private static final String	TAG	= SimpleCameraEventObserver.class.getSimpleName();
+	private static final String	TAG							= SimpleCameraEventObserver.class.getSimpleName();
+
+	// Indexes of getEvent v1.0 result fields
+	private static final int	INDEX_AVAILABLE_API_LIST	= 0;
+	private static final int	INDEX_CAMERA_STATUS			= 1;
+	private static final int	INDEX_ZOOM_INFORMATION		= 2;
+	private static final int	INDEX_LIVEVIEW_STATUS		= 3;
+	private static final int	INDEX_TAKE_PICTURE			= 5;
+	private static final int	INDEX_STORAGE_INFORMATION	= 10;
+	private static final int	INDEX_SHOOT_MODE			= 21;
+	private static final int	SNAPSHOT_SIZE				= 64;
+
+	// Long polling reply which comes faster than this with nothing changed
+	// means camera doesn't support long polling
+	private static final long	MIN_LONG_POLLING_TIME		= 500;	// [msec]
+	private static final long	MIN_BACKOFF					= 100;	// [msec]
+	private static final long	MAX_BACKOFF					= 3000;	// [msec]
 
 	/**
 	 * A listener interface to receive these changes. These methods will be
@@ -161,6 +179,20 @@ public class SimpleCameraEventObserver
 	// :
 	// : add attributes for Event data as necessary.
 
+	// Snapshot of last replies: JSON text of each result field and its hash.
+	// Field which text didn't change isn't parsed and reported again.
+	private String[]		mFieldTexts				= new String[SNAPSHOT_SIZE];
+
+	private int[]			mFieldHashes			= new int[SNAPSHOT_SIZE];
+
+	private boolean[]		mFieldChanged			= new boolean[SNAPSHOT_SIZE];
+
+	private volatile long	mEventCount				= 0;
+
+	private volatile long	mChangeCount			= 0;
+
+	private volatile long	mWastedPollCount		= 0;
+
 	/**
 	 * Constructor.
 	 * 
@@ -204,6 +236,13 @@ public class SimpleCameraEventObserver
 		}
 
 		mWhileEventMonitoring = true;
+
+		// First reply reports everything again
+		for (int i = 0; i < mFieldTexts.length; i++)
+		{
+			mFieldTexts[i] = null;
+		}
+
 		new Thread()
 		{
 
@@ -213,6 +252,7 @@ public class SimpleCameraEventObserver
 				Log.d(TAG, "start() exec.");
 				// Call getEvent API continuously.
 				boolean firstCall = true;
+				long backoff = 0;
 				MONITORLOOP: while (mWhileEventMonitoring)
 				{
 
@@ -222,11 +262,15 @@ public class SimpleCameraEventObserver
 					try
 					{
 						// Call getEvent API.
+						long requestTime = SystemClock.uptimeMillis();
 						JSONObject replyJson = mRemoteApi.getEvent(longPolling);
 
 						// Check error code at first.
 						int errorCode = findErrorCode(replyJson);
-						Log.d(TAG, "getEvent errorCode: " + errorCode);
+						if (errorCode != 0)
+						{
+							Log.d(TAG, "getEvent errorCode: " + errorCode);
+						}
 						switch (errorCode)
 						{
 						case 0: // no error
@@ -253,67 +297,117 @@ public class SimpleCameraEventObserver
 							break MONITORLOOP; // end monitoring.
 						}
 
-						List<String> availableApis = findAvailableApiList(replyJson);
-						if (!availableApis.isEmpty())
+						int changes = updateSnapshot(replyJson.getJSONArray("result"));
+
+						if (isFieldChanged(INDEX_AVAILABLE_API_LIST))
 						{
-							fireApiListModifiedListener(availableApis);
+							List<String> availableApis = findAvailableApiList(replyJson);
+							if (!availableApis.isEmpty())
+							{
+								fireApiListModifiedListener(availableApis);
+							}
 						}
 
 						// CameraStatus
-						String cameraStatus = findCameraStatus(replyJson);
-						Log.d(TAG, "getEvent cameraStatus: " + cameraStatus);
-						if (cameraStatus != null && !cameraStatus.equals(mCameraStatus))
+						if (isFieldChanged(INDEX_CAMERA_STATUS))
 						{
-							mCameraStatus = cameraStatus;
-							fireCameraStatusChangeListener(cameraStatus);
+							String cameraStatus = findCameraStatus(replyJson);
+							Log.d(TAG, "getEvent cameraStatus: " + cameraStatus);
+							if (cameraStatus != null && !cameraStatus.equals(mCameraStatus))
+							{
+								mCameraStatus = cameraStatus;
+								fireCameraStatusChangeListener(cameraStatus);
+							}
 						}
 
 						// LiveviewStatus
-						Boolean liveviewStatus = findLiveviewStatus(replyJson);
-						Log.d(TAG, "getEvent liveviewStatus: " + liveviewStatus);
-						if (liveviewStatus != null && !liveviewStatus.equals(mLiveviewStatus))
+						if (isFieldChanged(INDEX_LIVEVIEW_STATUS))
 						{
-							mLiveviewStatus = liveviewStatus;
-							fireLiveviewStatusChangeListener(liveviewStatus);
+							Boolean liveviewStatus = findLiveviewStatus(replyJson);
+							Log.d(TAG, "getEvent liveviewStatus: " + liveviewStatus);
+							if (liveviewStatus != null && !liveviewStatus.equals(mLiveviewStatus))
+							{
+								mLiveviewStatus = liveviewStatus;
+								fireLiveviewStatusChangeListener(liveviewStatus);
+							}
 						}
 
 						// ShootMode
-						String shootMode = findShootMode(replyJson);
-						Log.d(TAG, "getEvent shootMode: " + shootMode);
-						if (shootMode != null && !shootMode.equals(mShootMode))
+						if (isFieldChanged(INDEX_SHOOT_MODE))
 						{
-							mShootMode = shootMode;
-							fireShootModeChangeListener(shootMode);
+							String shootMode = findShootMode(replyJson);
+							Log.d(TAG, "getEvent shootMode: " + shootMode);
+							if (shootMode != null && !shootMode.equals(mShootMode))
+							{
+								mShootMode = shootMode;
+								fireShootModeChangeListener(shootMode);
+							}
 						}
 
 						// zoomPosition
-						int zoomPosition = findZoomInformation(replyJson);
-						Log.d(TAG, "getEvent zoomPosition: " + zoomPosition);
-						if (zoomPosition != -1)
+						if (isFieldChanged(INDEX_ZOOM_INFORMATION))
 						{
-							mZoomPosition = zoomPosition;
-							fireZoomInformationChangeListener(0, 0, zoomPosition, 0);
+							int zoomPosition = findZoomInformation(replyJson);
+							Log.d(TAG, "getEvent zoomPosition: " + zoomPosition);
+							if (zoomPosition != -1)
+							{
+								mZoomPosition = zoomPosition;
+								fireZoomInformationChangeListener(0, 0, zoomPosition, 0);
+							}
 						}
 
 						// storageId
-						String storageId = findStorageId(replyJson);
-						Log.d(TAG, "getEvent storageId:" + storageId);
-						if (storageId != null && !storageId.equals(mStorageId))
+						if (isFieldChanged(INDEX_STORAGE_INFORMATION))
 						{
-							mStorageId = storageId;
-							fireStorageIdChangeListener(storageId);
+							String storageId = findStorageId(replyJson);
+							Log.d(TAG, "getEvent storageId:" + storageId);
+							if (storageId != null && !storageId.equals(mStorageId))
+							{
+								mStorageId = storageId;
+								fireStorageIdChangeListener(storageId);
+							}
 						}
 
-						// takePictureUrl
+						// takePictureUrl is an event, not a state: camera may
+						// give the same url for the next picture, so it isn't
+						// compared with the previous one.
 						String takePictureUrl = findTakePictureUrl(replyJson);
-						Log.d(TAG, "getEvent takePictureUrl:" + takePictureUrl);
 						if (takePictureUrl != null)
 						{
+							if (!isFieldChanged(INDEX_TAKE_PICTURE))
+							{
+								changes++;
+							}
+							Log.d(TAG, "getEvent takePictureUrl:" + takePictureUrl);
 							firePictureTakenListener(takePictureUrl);
 						}
 						// :
 						// : add implementation for Event data as necessary.
 
+						mEventCount++;
+						mChangeCount += changes;
+
+						// Long polling reply should come when something has
+						// changed. Quick reply with nothing new means camera
+						// doesn't hold requests, so slow down instead of
+						// spinning.
+						long replyTime = SystemClock.uptimeMillis() - requestTime;
+						if (longPolling && changes == 0 && replyTime < MIN_LONG_POLLING_TIME)
+						{
+							mWastedPollCount++;
+							backoff = backoff == 0 ? MIN_BACKOFF : Math.min(backoff * 2, MAX_BACKOFF);
+							try
+							{
+								Thread.sleep(backoff);
+							} catch (InterruptedException e)
+							{
+								// do nothing.
+							}
+						} else if (changes > 0)
+						{
+							backoff = 0;
+						}
+
 					} catch (IOException e)
 					{
 						// Occurs when the server is not available now.
@@ -435,6 +529,89 @@ public class SimpleCameraEventObserver
 		return mStorageId;
 	}
 
+	/**
+	 * Returns number of getEvent replies handled.
+	 * 
+	 * @return event count
+	 */
+	public long getEventCount()
+	{
+		return mEventCount;
+	}
+
+	/**
+	 * Returns number of changed fields found in getEvent replies.
+	 * 
+	 * @return change count
+	 */
+	public long getChangeCount()
+	{
+		return mChangeCount;
+	}
+
+	/**
+	 * Returns number of long polling replies which came back at once with
+	 * nothing changed.
+	 * 
+	 * @return wasted poll count
+	 */
+	public long getWastedPollCount()
+	{
+		return mWastedPollCount;
+	}
+
+	/**
+	 * Compares every result field with the snapshot and stores new ones there.
+	 * Missing field isn't a change, camera omits fields it has nothing new
+	 * about.
+	 * 
+	 * @param results
+	 * @return number of changed fields
+	 */
+	private int updateSnapshot(JSONArray results)
+	{
+		int count = results.length();
+		if (count > mFieldTexts.length)
+		{
+			mFieldTexts = Arrays.copyOf(mFieldTexts, count);
+			mFieldHashes = Arrays.copyOf(mFieldHashes, count);
+			mFieldChanged = new boolean[count];
+		}
+
+		int changes = 0;
+		for (int i = 0; i < mFieldChanged.length; i++)
+		{
+			mFieldChanged[i] = false;
+			if (i >= count || results.isNull(i))
+			{
+				continue;
+			}
+
+			String text = results.opt(i).toString();
+			int hash = text.hashCode();
+			if (mFieldTexts[i] != null && mFieldHashes[i] == hash && mFieldTexts[i].equals(text))
+			{
+				continue;
+			}
+			mFieldTexts[i] = text;
+			mFieldHashes[i] = hash;
+			mFieldChanged[i] = true;
+			changes++;
+		}
+		return changes;
+	}
+
+	/**
+	 * Checks result of updateSnapshot() for the field.
+	 * 
+	 * @param index
+	 * @return true if field differs from the last reply
+	 */
+	private boolean isFieldChanged(int index)
+	{
+		return index < mFieldChanged.length && mFieldChanged[index];
+	}
+
 	/**
 	 * Notify the change of available APIs
 	 * 
@@ -1,7 +1,9 @@
 package com.almalence.sony.cameraremote;
 
 import java.io.IOException;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -10,6 +12,7 @@ import org.json.JSONObject;
 import android.util.Log;
 
 import com.almalence.sony.cameraremote.ServerDevice.ApiService;
+import com.almalence.sony.cameraremote.utils.LatencyHistogram;
 import com.almalence.sony.cameraremote.utils.SimpleHttpClient;
 
 /**
@@ -29,6 +32,9 @@ public class SimpleRemoteApi {
     // Request ID of API calling. This will be counted up by each API calling.
     private int mRequestId;
 
+    // Latency of calls by API method name
+    private final Map<String, LatencyHistogram> mLatencies = new HashMap<String, LatencyHistogram>();
+
     /**
      * Constructor.
      * 
@@ -61,7 +67,7 @@ public class SimpleRemoteApi {
      * 
      * @return
      */
-    private int id() {
+    private synchronized int id() {
         return mRequestId++;
     }
 
@@ -72,6 +78,75 @@ public class SimpleRemoteApi {
         }
     }
 
+    /**
+     * Sends request to the service and returns response to it.
+     *
+     * @param service service name
+     * @param requestJson request with method and id
+     * @return JSON data of response
+     * @throws IOException if camera can't be reached or answered to other
+     *             request
+     * @throws JSONException if response isn't JSON
+     */
+    private JSONObject call(String service, JSONObject requestJson) throws IOException,
+            JSONException {
+        return call(service, requestJson, SimpleHttpClient.DEFAULT_READ_TIMEOUT);
+    }
+
+    private JSONObject call(String service, JSONObject requestJson, int timeout)
+            throws IOException, JSONException {
+        String url = findActionListUrl(service) + "/" + service;
+        String request = requestJson.toString();
+        String method = requestJson.getString("method");
+        long start = System.nanoTime();
+
+        // get* methods only read camera state and may be sent again if
+        // connection breaks, act*, set* and the like never are
+        log("Request:  " + request);
+        String responseJson = SimpleHttpClient.httpPost(url, request, timeout,
+                method.startsWith("get"));
+        log("Response: " + responseJson);
+        getLatencyHistogram(method).record(System.nanoTime() - start);
+
+        // Connections are reused, so make sure the answer isn't left from
+        // some other request.
+        JSONObject reply = new JSONObject(responseJson);
+        int id = requestJson.getInt("id");
+        if (reply.has("id") && reply.getInt("id") != id) {
+            throw new IOException("Response id " + reply.getInt("id") + " doesn't match request id "
+                    + id);
+        }
+        return reply;
+    }
+
+    /**
+     * Latencies of calls of API method, including connection setup.
+     *
+     * @param method API method name, e.g. "getEvent"
+     * @return histogram which is filled by calls of this method
+     */
+    public LatencyHistogram getLatencyHistogram(String method) {
+        synchronized (mLatencies) {
+            LatencyHistogram histogram = mLatencies.get(method);
+            if (histogram == null) {
+                histogram = new LatencyHistogram();
+                mLatencies.put(method, histogram);
+            }
+            return histogram;
+        }
+    }
+
+    /**
+     * Latencies of all called API methods.
+     *
+     * @return copy of method name to histogram map
+     */
+    public Map<String, LatencyHistogram> getLatencyHistograms() {
+        synchronized (mLatencies) {
+            return new HashMap<String, LatencyHistogram>(mLatencies);
+        }
+    }
+
     // Camera Service APIs
 
     /**
@@ -98,12 +173,8 @@ public class SimpleRemoteApi {
                     new JSONObject().put("method", "getAvailableApiList")
                             .put("params", new JSONArray()).put("id", id())
                             .put("version", "1.0");
-            String url = findActionListUrl(service) + "/" + service;
 
-            log("Request:  " + requestJson.toString());
-            String responseJson = SimpleHttpClient.httpPost(url, requestJson.toString());
-            log("Response: " + responseJson);
-            return new JSONObject(responseJson);
+            return call(service, requestJson);
         } catch (JSONException e) {
             throw new IOException(e);
         }
@@ -133,12 +204,8 @@ public class SimpleRemoteApi {
                     new JSONObject().put("method", "getApplicationInfo") //
                             .put("params", new JSONArray()).put("id", id()) //
                             .put("version", "1.0");
-            String url = findActionListUrl(service) + "/" + service;
 
-            log("Request:  " + requestJson.toString());
-            String responseJson = SimpleHttpClient.httpPost(url, requestJson.toString());
-            log("Response: " + responseJson);
-            return new JSONObject(responseJson);
+            return call(service, requestJson);
         } catch (JSONException e) {
             throw new IOException(e);
         }
@@ -167,12 +234,8 @@ public class SimpleRemoteApi {
             JSONObject requestJson =
                     new JSONObject().put("method", "getShootMode").put("params", new JSONArray()) //
                             .put("id", id()).put("version", "1.0");
-            String url = findActionListUrl(service) + "/" + service;
 
-            log("Request:  " + requestJson.toString());
-            String responseJson = SimpleHttpClient.httpPost(url, requestJson.toString());
-            log("Response: " + responseJson);
-            return new JSONObject(responseJson);
+            return call(service, requestJson);
         } catch (JSONException e) {
             throw new IOException(e);
         }
@@ -203,12 +266,8 @@ public class SimpleRemoteApi {
                     new JSONObject().put("method", "setShootMode") //
                             .put("params", new JSONArray().put(shootMode)) //
                             .put("id", id()).put("version", "1.0");
-            String url = findActionListUrl(service) + "/" + service;
 
-            log("Request:  " + requestJson.toString());
-            String responseJson = SimpleHttpClient.httpPost(url, requestJson.toString());
-            log("Response: " + responseJson);
-            return new JSONObject(responseJson);
+            return call(service, requestJson);
         } catch (JSONException e) {
             throw new IOException(e);
         }
@@ -238,12 +297,8 @@ public class SimpleRemoteApi {
                     new JSONObject().put("method", "setTouchAFPosition") //
                             .put("params", new JSONArray().put(x).put(y)) //
                             .put("id", id()).put("version", "1.0");
-            String url = findActionListUrl(service) + "/" + service;
 
-            log("Request:  " + requestJson.toString());
-            String responseJson = SimpleHttpClient.httpPost(url, requestJson.toString());
-            log("Response: " + responseJson);
-            return new JSONObject(responseJson);
+            return call(service, requestJson);
         } catch (JSONException e) {
             throw new IOException(e);
         }
@@ -273,12 +328,8 @@ public class SimpleRemoteApi {
                     new JSONObject().put("method", "cancelTouchAFPosition") //
                             .put("params", new JSONArray()) //
                             .put("id", id()).put("version", "1.0");
-            String url = findActionListUrl(service) + "/" + service;
 
-            log("Request:  " + requestJson.toString());
-            String responseJson = SimpleHttpClient.httpPost(url, requestJson.toString());
-            log("Response: " + responseJson);
-            return new JSONObject(responseJson);
+            return call(service, requestJson);
         } catch (JSONException e) {
             throw new IOException(e);
         }
@@ -307,12 +358,8 @@ public class SimpleRemoteApi {
                     new JSONObject().put("method", "getAvailableShootMode") //
                             .put("params", new JSONArray()).put("id", id()) //
                             .put("version", "1.0");
-            String url = findActionListUrl(service) + "/" + service;
 
-            log("Request:  " + requestJson.toString());
-            String responseJson = SimpleHttpClient.httpPost(url, requestJson.toString());
-            log("Response: " + responseJson);
-            return new JSONObject(responseJson);
+            return call(service, requestJson);
         } catch (JSONException e) {
             throw new IOException(e);
         }
@@ -342,12 +389,8 @@ public class SimpleRemoteApi {
                     new JSONObject().put("method", "getSupportedShootMode") //
                             .put("params", new JSONArray()).put("id", id()) //
                             .put("version", "1.0");
-            String url = findActionListUrl(service) + "/" + service;
 
-            log("Request:  " + requestJson.toString());
-            String responseJson = SimpleHttpClient.httpPost(url, requestJson.toString());
-            log("Response: " + responseJson);
-            return new JSONObject(responseJson);
+            return call(service, requestJson);
         } catch (JSONException e) {
             throw new IOException(e);
         }
@@ -376,12 +419,8 @@ public class SimpleRemoteApi {
                     new JSONObject().put("method", "getAvailableLiveviewSize") //
                             .put("params", new JSONArray()).put("id", id()) //
                             .put("version", "1.0");
-            String url = findActionListUrl(service) + "/" + service;
 
-            log("Request:  " + requestJson.toString());
-            String responseJson = SimpleHttpClient.httpPost(url, requestJson.toString());
-            log("Response: " + responseJson);
-            return new JSONObject(responseJson);
+            return call(service, requestJson);
         } catch (JSONException e) {
             throw new IOException(e);
         }
@@ -410,12 +449,8 @@ public class SimpleRemoteApi {
                     new JSONObject().put("method", "getAvailableStillSize") //
                             .put("params", new JSONArray()).put("id", id()) //
                             .put("version", "1.0");
-            String url = findActionListUrl(service) + "/" + service;
 
-            log("Request:  " + requestJson.toString());
-            String responseJson = SimpleHttpClient.httpPost(url, requestJson.toString());
-            log("Response: " + responseJson);
-            return new JSONObject(responseJson);
+            return call(service, requestJson);
         } catch (JSONException e) {
             throw new IOException(e);
         }
@@ -444,12 +479,8 @@ public class SimpleRemoteApi {
                     new JSONObject().put("method", "setExposureMode") //
                             .put("params", new JSONArray().put("Program Auto")).put("id", id()) //
                             .put("version", "1.0");
-            String url = findActionListUrl(service) + "/" + service;
 
-            log("Request:  " + requestJson.toString());
-            String responseJson = SimpleHttpClient.httpPost(url, requestJson.toString());
-            log("Response: " + responseJson);
-            return new JSONObject(responseJson);
+            return call(service, requestJson);
         } catch (JSONException e) {
             throw new IOException(e);
         }
@@ -478,12 +509,8 @@ public class SimpleRemoteApi {
                     new JSONObject().put("method", "getAvailableExposureCompensation") //
                             .put("params", new JSONArray()).put("id", id()) //
                             .put("version", "1.0");
-            String url = findActionListUrl(service) + "/" + service;
 
-            log("Request:  " + requestJson.toString());
-            String responseJson = SimpleHttpClient.httpPost(url, requestJson.toString());
-            log("Response: " + responseJson);
-            return new JSONObject(responseJson);
+            return call(service, requestJson);
         } catch (JSONException e) {
             throw new IOException(e);
         }
@@ -512,12 +539,8 @@ public class SimpleRemoteApi {
                     new JSONObject().put("method", "getAvailableWhiteBalance") //
                             .put("params", new JSONArray()).put("id", id()) //
                             .put("version", "1.0");
-            String url = findActionListUrl(service) + "/" + service;
 
-            log("Request:  " + requestJson.toString());
-            String responseJson = SimpleHttpClient.httpPost(url, requestJson.toString());
-            log("Response: " + responseJson);
-            return new JSONObject(responseJson);
+            return call(service, requestJson);
         } catch (JSONException e) {
             throw new IOException(e);
         }
@@ -546,12 +569,8 @@ public class SimpleRemoteApi {
                     new JSONObject().put("method", "getAvailableFocusMode") //
                             .put("params", new JSONArray()).put("id", id()) //
                             .put("version", "1.0");
-            String url = findActionListUrl(service) + "/" + service;
 
-            log("Request:  " + requestJson.toString());
-            String responseJson = SimpleHttpClient.httpPost(url, requestJson.toString());
-            log("Response: " + responseJson);
-            return new JSONObject(responseJson);
+            return call(service, requestJson);
         } catch (JSONException e) {
             throw new IOException(e);
         }
@@ -580,12 +599,8 @@ public class SimpleRemoteApi {
                     new JSONObject().put("method", "getAvailableIsoSpeedRate") //
                             .put("params", new JSONArray()).put("id", id()) //
                             .put("version", "1.0");
-            String url = findActionListUrl(service) + "/" + service;
 
-            log("Request:  " + requestJson.toString());
-            String responseJson = SimpleHttpClient.httpPost(url, requestJson.toString());
-            log("Response: " + responseJson);
-            return new JSONObject(responseJson);
+            return call(service, requestJson);
         } catch (JSONException e) {
             throw new IOException(e);
         }
@@ -614,12 +629,8 @@ public class SimpleRemoteApi {
                     new JSONObject().put("method", "getAvailableFlashMode") //
                             .put("params", new JSONArray()).put("id", id()) //
                             .put("version", "1.0");
-            String url = findActionListUrl(service) + "/" + service;
 
-            log("Request:  " + requestJson.toString());
-            String responseJson = SimpleHttpClient.httpPost(url, requestJson.toString());
-            log("Response: " + responseJson);
-            return new JSONObject(responseJson);
+            return call(service, requestJson);
         } catch (JSONException e) {
             throw new IOException(e);
         }
@@ -648,12 +659,8 @@ public class SimpleRemoteApi {
             JSONObject requestJson =
                     new JSONObject().put("method", "startLiveview").put("params", new JSONArray()) //
                             .put("id", id()).put("version", "1.0");
-            String url = findActionListUrl(service) + "/" + service;
 
-            log("Request:  " + requestJson.toString());
-            String responseJson = SimpleHttpClient.httpPost(url, requestJson.toString());
-            log("Response: " + responseJson);
-            return new JSONObject(responseJson);
+            return call(service, requestJson);
         } catch (JSONException e) {
             throw new IOException(e);
         }
@@ -682,12 +689,8 @@ public class SimpleRemoteApi {
             JSONObject requestJson =
                     new JSONObject().put("method", "stopLiveview").put("params", new JSONArray()) //
                             .put("id", id()).put("version", "1.0");
-            String url = findActionListUrl(service) + "/" + service;
 
-            log("Request:  " + requestJson.toString());
-            String responseJson = SimpleHttpClient.httpPost(url, requestJson.toString());
-            log("Response: " + responseJson);
-            return new JSONObject(responseJson);
+            return call(service, requestJson);
         } catch (JSONException e) {
             throw new IOException(e);
         }
@@ -716,12 +719,8 @@ public class SimpleRemoteApi {
             JSONObject requestJson =
                     new JSONObject().put("method", "startRecMode").put("params", new JSONArray()) //
                             .put("id", id()).put("version", "1.0");
-            String url = findActionListUrl(service) + "/" + service;
 
-            log("Request:  " + requestJson.toString());
-            String responseJson = SimpleHttpClient.httpPost(url, requestJson.toString());
-            log("Response: " + responseJson);
-            return new JSONObject(responseJson);
+            return call(service, requestJson);
         } catch (JSONException e) {
             throw new IOException(e);
         }
@@ -750,12 +749,8 @@ public class SimpleRemoteApi {
             JSONObject requestJson =
                     new JSONObject().put("method", "stopRecMode").put("params", new JSONArray()) //
                             .put("id", id()).put("version", "1.0");
-            String url = findActionListUrl(service) + "/" + service;
 
-            log("Request:  " + requestJson.toString());
-            String responseJson = SimpleHttpClient.httpPost(url, requestJson.toString());
-            log("Response: " + responseJson);
-            return new JSONObject(responseJson);
+            return call(service, requestJson);
         } catch (JSONException e) {
             throw new IOException(e);
         }
@@ -783,12 +778,8 @@ public class SimpleRemoteApi {
             JSONObject requestJson =
                     new JSONObject().put("method", "actTakePicture").put("params", new JSONArray()) //
                             .put("id", id()).put("version", "1.0");
-            String url = findActionListUrl(service) + "/" + service;
 
-            log("Request:  " + requestJson.toString());
-            String responseJson = SimpleHttpClient.httpPost(url, requestJson.toString());
-            log("Response: " + responseJson);
-            return new JSONObject(responseJson);
+            return call(service, requestJson);
         } catch (JSONException e) {
             throw new IOException(e);
         }
@@ -817,12 +808,8 @@ public class SimpleRemoteApi {
             JSONObject requestJson =
                     new JSONObject().put("method", "startMovieRec").put("params", new JSONArray()) //
                             .put("id", id()).put("version", "1.0");
-            String url = findActionListUrl(service) + "/" + service;
 
-            log("Request:  " + requestJson.toString());
-            String responseJson = SimpleHttpClient.httpPost(url, requestJson.toString());
-            log("Response: " + responseJson);
-            return new JSONObject(responseJson);
+            return call(service, requestJson);
         } catch (JSONException e) {
             throw new IOException(e);
         }
@@ -851,12 +838,8 @@ public class SimpleRemoteApi {
             JSONObject requestJson =
                     new JSONObject().put("method", "stopMovieRec").put("params", new JSONArray()) //
                             .put("id", id()).put("version", "1.0");
-            String url = findActionListUrl(service) + "/" + service;
 
-            log("Request:  " + requestJson.toString());
-            String responseJson = SimpleHttpClient.httpPost(url, requestJson.toString());
-            log("Response: " + responseJson);
-            return new JSONObject(responseJson);
+            return call(service, requestJson);
         } catch (JSONException e) {
             throw new IOException(e);
         }
@@ -888,12 +871,8 @@ public class SimpleRemoteApi {
                     new JSONObject().put("method", "actZoom") //
                             .put("params", new JSONArray().put(direction).put(movement)) //
                             .put("id", id()).put("version", "1.0");
-            String url = findActionListUrl(service) + "/" + service;
 
-            log("Request:  " + requestJson.toString());
-            String responseJson = SimpleHttpClient.httpPost(url, requestJson.toString());
-            log("Response: " + responseJson);
-            return new JSONObject(responseJson);
+            return call(service, requestJson);
         } catch (JSONException e) {
             throw new IOException(e);
         }
@@ -924,14 +903,9 @@ public class SimpleRemoteApi {
                     new JSONObject().put("method", "getEvent") //
                             .put("params", new JSONArray().put(longPollingFlag)) //
                             .put("id", id()).put("version", "1.0");
-            String url = findActionListUrl(service) + "/" + service;
             int longPollingTimeout = (longPollingFlag) ? 20000 : 8000; // msec
 
-            log("Request:  " + requestJson.toString());
-            String responseJson = SimpleHttpClient.httpPost(url, requestJson.toString(),
-                    longPollingTimeout);
-            log("Response: " + responseJson);
-            return new JSONObject(responseJson);
+            return call(service, requestJson, longPollingTimeout);
         } catch (JSONException e) {
             throw new IOException(e);
         }
@@ -962,12 +936,8 @@ public class SimpleRemoteApi {
                     new JSONObject().put("method", "setCameraFunction") //
                             .put("params", new JSONArray().put(cameraFunction)) //
                             .put("id", id()).put("version", "1.0");
-            String url = findActionListUrl(service) + "/" + service;
 
-            log("Request:  " + requestJson.toString());
-            String responseJson = SimpleHttpClient.httpPost(url, requestJson.toString());
-            log("Response: " + responseJson);
-            return new JSONObject(responseJson);
+            return call(service, requestJson);
         } catch (JSONException e) {
             throw new IOException(e);
         }
@@ -997,12 +967,8 @@ public class SimpleRemoteApi {
                     new JSONObject().put("method", "getMethodTypes") //
                             .put("params", new JSONArray().put("")) //
                             .put("id", id()).put("version", "1.0");
-            String url = findActionListUrl(service) + "/" + service;
 
-            log("Request:  " + requestJson.toString());
-            String responseJson = SimpleHttpClient.httpPost(url, requestJson.toString());
-            log("Response: " + responseJson);
-            return new JSONObject(responseJson);
+            return call(service, requestJson);
         } catch (JSONException e) {
             throw new IOException(e);
         }
@@ -1030,16 +996,12 @@ public class SimpleRemoteApi {
     public JSONObject getAvcontentMethodTypes() throws IOException {
         String service = "avContent";
         try {
-            String url = findActionListUrl(service) + "/" + service;
             JSONObject requestJson =
                     new JSONObject().put("method", "getMethodTypes") //
                             .put("params", new JSONArray().put("")) //
                             .put("id", id()).put("version", "1.0"); //
 
-            log("Request:  " + requestJson.toString());
-            String responseJson = SimpleHttpClient.httpPost(url, requestJson.toString());
-            log("Response: " + responseJson);
-            return new JSONObject(responseJson);
+            return call(service, requestJson);
         } catch (JSONException e) {
             throw new IOException(e);
         }
@@ -1069,12 +1031,8 @@ public class SimpleRemoteApi {
             JSONObject requestJson =
                     new JSONObject().put("method", "getSchemeList").put("params", new JSONArray()) //
                             .put("id", id()).put("version", "1.0");
-            String url = findActionListUrl(service) + "/" + service;
 
-            log("Request:  " + requestJson.toString());
-            String responseJson = SimpleHttpClient.httpPost(url, requestJson.toString());
-            log("Response: " + responseJson);
-            return new JSONObject(responseJson);
+            return call(service, requestJson);
         } catch (JSONException e) {
             throw new IOException(e);
         }
@@ -1111,12 +1069,8 @@ public class SimpleRemoteApi {
                             .put("params", new JSONArray().put(0, params)) //
                             .put("version", "1.0").put("id", id());
 
-            String url = findActionListUrl(service) + "/" + service;
 
-            log("Request:  " + requestJson.toString());
-            String responseJson = SimpleHttpClient.httpPost(url, requestJson.toString());
-            log("Response: " + responseJson);
-            return new JSONObject(responseJson);
+            return call(service, requestJson);
         } catch (JSONException e) {
             throw new IOException(e);
         }
@@ -1153,12 +1107,8 @@ public class SimpleRemoteApi {
                     new JSONObject().put("method", "getContentList").put("params", params) //
                             .put("version", "1.3").put("id", id());
 
-            String url = findActionListUrl(service) + "/" + service;
 
-            log("Request:  " + requestJson.toString());
-            String responseJson = SimpleHttpClient.httpPost(url, requestJson.toString());
-            log("Response: " + responseJson);
-            return new JSONObject(responseJson);
+            return call(service, requestJson);
         } catch (JSONException e) {
             throw new IOException(e);
         }
@@ -1197,12 +1147,8 @@ public class SimpleRemoteApi {
                             .put("params", new JSONArray().put(0, params)) //
                             .put("version", "1.0").put("id", id());
 
-            String url = findActionListUrl(service) + "/" + service;
 
-            log("Request:  " + requestJson.toString());
-            String responseJson = SimpleHttpClient.httpPost(url, requestJson.toString());
-            log("Response: " + responseJson);
-            return new JSONObject(responseJson);
+            return call(service, requestJson);
         } catch (JSONException e) {
             throw new IOException(e);
         }
@@ -1232,12 +1178,8 @@ public class SimpleRemoteApi {
             JSONObject requestJson =
                     new JSONObject().put("method", "startStreaming").put("params", new JSONArray()) //
                             .put("id", id()).put("version", "1.0").put("id", id());
-            String url = findActionListUrl(service) + "/" + service;
 
-            log("Request:  " + requestJson.toString());
-            String responseJson = SimpleHttpClient.httpPost(url, requestJson.toString());
-            log("Response: " + responseJson);
-            return new JSONObject(responseJson);
+            return call(service, requestJson);
         } catch (JSONException e) {
             throw new IOException(e);
         }
@@ -1267,12 +1209,8 @@ public class SimpleRemoteApi {
             JSONObject requestJson =
                     new JSONObject().put("method", "stopStreaming").put("params", new JSONArray()) //
                             .put("id", id()).put("version", "1.0");
-            String url = findActionListUrl(service) + "/" + service;
 
-            log("Request:  " + requestJson.toString());
-            String responseJson = SimpleHttpClient.httpPost(url, requestJson.toString());
-            log("Response: " + responseJson);
-            return new JSONObject(responseJson);
+            return call(service, requestJson);
         } catch (JSONException e) {
             throw new IOException(e);
         }
@@ -1314,12 +1252,8 @@ public class SimpleRemoteApi {
                     new JSONObject().put("method", "setExposureCompensation") //
                             .put("params", new JSONArray().put(value)).put("id", id()) //
                             .put("version", "1.0");
-            String url = findActionListUrl(service) + "/" + service;
 
-            log("Request:  " + requestJson.toString());
-            String responseJson = SimpleHttpClient.httpPost(url, requestJson.toString());
-            log("Response: " + responseJson);
-            return new JSONObject(responseJson);
+            return call(service, requestJson);
         } catch (JSONException e) {
             throw new IOException(e);
         }
@@ -1348,12 +1282,8 @@ public class SimpleRemoteApi {
                     new JSONObject().put("method", "setFlashMode") //
                             .put("params", new JSONArray().put(value)).put("id", id()) //
                             .put("version", "1.0");
-            String url = findActionListUrl(service) + "/" + service;
 
-            log("Request:  " + requestJson.toString());
-            String responseJson = SimpleHttpClient.httpPost(url, requestJson.toString());
-            log("Response: " + responseJson);
-            return new JSONObject(responseJson);
+            return call(service, requestJson);
         } catch (JSONException e) {
             throw new IOException(e);
         }
@@ -1382,12 +1312,8 @@ public class SimpleRemoteApi {
                     new JSONObject().put("method", "setIsoSpeedRate") //
                             .put("params", new JSONArray().put(value)).put("id", id()) //
                             .put("version", "1.0");
-            String url = findActionListUrl(service) + "/" + service;
 
-            log("Request:  " + requestJson.toString());
-            String responseJson = SimpleHttpClient.httpPost(url, requestJson.toString());
-            log("Response: " + responseJson);
-            return new JSONObject(responseJson);
+            return call(service, requestJson);
         } catch (JSONException e) {
             throw new IOException(e);
         }
@@ -1416,12 +1342,8 @@ public class SimpleRemoteApi {
                     new JSONObject().put("method", "setWhiteBalance") //
                             .put("params", new JSONArray().put(value).put(false).put(-1)).put("id", id()) //
                             .put("version", "1.0");
-            String url = findActionListUrl(service) + "/" + service;
 
-            log("Request:  " + requestJson.toString());
-            String responseJson = SimpleHttpClient.httpPost(url, requestJson.toString());
-            log("Response: " + responseJson);
-            return new JSONObject(responseJson);
+            return call(service, requestJson);
         } catch (JSONException e) {
             throw new IOException(e);
         }
@@ -1450,12 +1372,8 @@ public class SimpleRemoteApi {
                     new JSONObject().put("method", "setStillSize") //
                             .put("params", new JSONArray().put(ratio).put(size)).put("id", id()) //
                             .put("version", "1.0");
-            String url = findActionListUrl(service) + "/" + service;
 
-            log("Request:  " + requestJson.toString());
-            String responseJson = SimpleHttpClient.httpPost(url, requestJson.toString());
-            log("Response: " + responseJson);
-            return new JSONObject(responseJson);
+            return call(service, requestJson);
         } catch (JSONException e) {
             throw new IOException(e);
         }
@@ -1484,12 +1402,8 @@ public class SimpleRemoteApi {
                     new JSONObject().put("method", "setPostviewImageSize") //
                             .put("params", new JSONArray().put(size)).put("id", id()) //
                             .put("version", "1.0");
-            String url = findActionListUrl(service) + "/" + service;
 
-            log("Request:  " + requestJson.toString());
-            String responseJson = SimpleHttpClient.httpPost(url, requestJson.toString());
-            log("Response: " + responseJson);
-            return new JSONObject(responseJson);
+            return call(service, requestJson);
         } catch (JSONException e) {
             throw new IOException(e);
         }
@@ -4,6 +4,7 @@
 
 package com.almalence.sony.cameraremote;
 
+import android.os.SystemClock;
 import android.util.Log;
 
 import java.io.IOException;
@@ -12,8 +13,14 @@ import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetSocketAddress;
 import java.net.SocketException;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A SSDP client class for this sample application. This implementation keeps
@@ -25,6 +32,15 @@ public class SimpleSsdpClient {
 
     private static final int SSDP_RECEIVE_TIMEOUT = 10000; // msec
 
+    // how long search waits for descriptions still being fetched when
+    // receiving is over
+    private static final int FETCH_WAIT_TIMEOUT = 5000; // msec
+
+    private static final int FETCH_THREADS = 4;
+
+    // cache lifetime of device which didn't send max-age
+    private static final int DEFAULT_CACHE_MAX_AGE = 1800; // sec
+
     private static final int PACKET_BUFFER_SIZE = 1024;
 
     private static final int SSDP_PORT = 1900;
@@ -59,7 +75,67 @@ public class SimpleSsdpClient {
         void onErrorFinished();
     }
 
-    private boolean mSearching = false;
+    /** Tells which found device ends searching. */
+    public interface DeviceFilter {
+
+        /**
+         * @param device found API server device
+         * @return true to stop searching after reporting this device
+         */
+        boolean accept(ServerDevice device);
+    }
+
+    /** Filter which stops searching at the first found device. */
+    public static final DeviceFilter ANY_DEVICE = new DeviceFilter() {
+        @Override
+        public boolean accept(ServerDevice device) {
+            return true;
+        }
+    };
+
+    /** Parsed device description, valid for one location until it expires. */
+    private static final class CachedDevice {
+        final String mLocation;
+
+        final ServerDevice mDevice;
+
+        final long mExpires;
+
+        CachedDevice(String location, ServerDevice device, long expires) {
+            mLocation = location;
+            mDevice = device;
+            mExpires = expires;
+        }
+    }
+
+    // keyed by USN, shared by all clients
+    private static final Map<String, CachedDevice> sDeviceCache = new HashMap<String, CachedDevice>();
+
+    private static ThreadPoolExecutor sFetchExecutor;
+
+    private final InetSocketAddress mSearchAddress;
+
+    private final int mReceiveTimeout;
+
+    private volatile boolean mSearching = false;
+
+    private Session mSession;
+
+    public SimpleSsdpClient() {
+        this(new InetSocketAddress(SSDP_ADDR, SSDP_PORT), SSDP_RECEIVE_TIMEOUT);
+    }
+
+    /**
+     * Sends M-SEARCH to given address instead of SSDP multicast group, used by
+     * tests with local stand-ins of cameras.
+     *
+     * @param searchAddress where M-SEARCH is sent
+     * @param receiveTimeout how long replies are waited for [msec]
+     */
+    SimpleSsdpClient(InetSocketAddress searchAddress, int receiveTimeout) {
+        mSearchAddress = searchAddress;
+        mReceiveTimeout = receiveTimeout;
+    }
 
     /**
      * Search API server device.
@@ -67,7 +143,21 @@ public class SimpleSsdpClient {
      * @param handler result handler
      * @return true: start successfully, false: already searching now
      */
-    public synchronized boolean search(final SearchResultHandler handler) {
+    public boolean search(final SearchResultHandler handler) {
+        return search(handler, null);
+    }
+
+    /**
+     * Search API server device. Descriptions of found devices are fetched in
+     * parallel, devices seen before are reported from cache without fetching.
+     *
+     * @param handler result handler
+     * @param preferred searching finishes as soon as device accepted by this
+     *            filter is reported, null to search until timeout
+     * @return true: start successfully, false: already searching now
+     */
+    public synchronized boolean search(final SearchResultHandler handler,
+            final DeviceFilter preferred) {
         if (mSearching) {
             Log.w(TAG, "search() already searching.");
             return false;
@@ -77,112 +167,9 @@ public class SimpleSsdpClient {
         }
         Log.i(TAG, "search() Start.");
 
-        final String ssdpRequest =
-                "M-SEARCH * HTTP/1.1\r\n" + String.format("HOST: %s:%d\r\n", SSDP_ADDR, SSDP_PORT)
-                        + String.format("MAN: \"ssdp:discover\"\r\n")
-                        + String.format("MX: %d\r\n", SSDP_MX)
-                        + String.format("ST: %s\r\n", SSDP_ST) + "\r\n";
-        final byte[] sendData = ssdpRequest.getBytes();
-
-        new Thread() {
-
-            @Override
-            public void run() {
-                // Send Datagram packets
-                DatagramSocket socket = null;
-                DatagramPacket receivePacket = null;
-                DatagramPacket packet = null;
-                try {
-                    socket = new DatagramSocket();
-                    InetSocketAddress iAddress = new InetSocketAddress(SSDP_ADDR, SSDP_PORT);
-                    packet = new DatagramPacket(sendData, sendData.length, iAddress);
-                    // send 3 times
-                    Log.i(TAG, "search() Send Datagram packet 3 times.");
-                    socket.send(packet);
-                    Thread.sleep(100);
-                    socket.send(packet);
-                    Thread.sleep(100);
-                    socket.send(packet);
-                } catch (SocketException e) {
-                    Log.e(TAG, "search() DatagramSocket error:", e);
-                    if (socket != null && !socket.isClosed()) {
-                        socket.close();
-                    }
-                    handler.onErrorFinished();
-                    return;
-                } catch (IOException e) {
-                    Log.e(TAG, "search() IOException :", e);
-                    if (socket != null && !socket.isClosed()) {
-                        socket.close();
-                    }
-                    handler.onErrorFinished();
-                    return;
-                } catch (InterruptedException e) {
-                    // do nothing.
-                    Log.d(TAG, "search() InterruptedException :", e);
-                }
-
-                // Receive reply packets
-                mSearching = true;
-                long startTime = System.currentTimeMillis();
-                List<String> foundDevices = new ArrayList<String>();
-                byte[] array = new byte[PACKET_BUFFER_SIZE];
-                ServerDevice device = null;
-                try {
-
-                    while (mSearching) {
-                        receivePacket = new DatagramPacket(array, array.length);
-                        socket.setSoTimeout(SSDP_RECEIVE_TIMEOUT);
-                        socket.receive(receivePacket);
-                        String ssdpReplyMessage = new String(receivePacket.getData(), 0, //
-                                receivePacket.getLength(), "UTF-8");
-                        String ddUsn = findParameterValue(ssdpReplyMessage, "USN");
-
-                        /*
-                         * There is possibility to receive multiple packets from
-                         * a individual server.
-                         */
-                        if (!foundDevices.contains(ddUsn)) {
-                            String ddLocation = findParameterValue(ssdpReplyMessage, "LOCATION");
-                            foundDevices.add(ddUsn);
-
-                            // Fetch Device Description XML and parse it.
-                            device = ServerDevice.fetch(ddLocation);
-                            // Note that it's a irresponsible rule
-                            // for the sample application.
-                            if (device != null && device.hasApiService("camera")) {
-                                handler.onDeviceFound(device);
-                            }
-                        }
-                        if (SSDP_RECEIVE_TIMEOUT < System.currentTimeMillis() - startTime) {
-                            break;
-                        }
-                    }
-
-                } catch (InterruptedIOException e) {
-                    Log.d(TAG, "search() Timeout.");
-
-                    if (device == null) {
-                        mSearching = false;
-                        handler.onErrorFinished();
-                        return;
-                    }
-                } catch (IOException e) {
-                    Log.d(TAG, "search() IOException2. : " + e);
-                    mSearching = false;
-                    handler.onErrorFinished();
-                    return;
-                } finally {
-                    Log.d(TAG, "search() Finish ");
-                    mSearching = false;
-                    if (socket != null && !socket.isClosed()) {
-                        socket.close();
-                    }
-                }
-
-                handler.onFinished();
-            };
-        }.start();
+        mSearching = true;
+        mSession = new Session(handler, preferred);
+        new Thread(mSession, "SsdpSearch").start();
 
         return true;
     }
@@ -197,10 +184,329 @@ public class SimpleSsdpClient {
     }
 
     /**
-     * Cancels searching. Note that it cannot stop the operation immediately.
+     * Cancels searching. Waiting for replies is stopped at once, devices whose
+     * descriptions arrive later are not reported.
      */
-    public void cancelSearching() {
+    public synchronized void cancelSearching() {
         mSearching = false;
+        if (mSession != null) {
+            mSession.cancel();
+            mSession = null;
+        }
+    }
+
+    /** Forgets all cached device descriptions. */
+    public static void clearDeviceCache() {
+        synchronized (sDeviceCache) {
+            sDeviceCache.clear();
+        }
+    }
+
+    private synchronized void onSessionFinished(Session session) {
+        if (mSession == session) {
+            mSession = null;
+            mSearching = false;
+        }
+    }
+
+    private static ServerDevice getCachedDevice(String usn, String location) {
+        synchronized (sDeviceCache) {
+            CachedDevice cached = sDeviceCache.get(usn);
+            if (cached == null) {
+                return null;
+            }
+            if (!cached.mLocation.equals(location)
+                    || cached.mExpires < SystemClock.elapsedRealtime()) {
+                sDeviceCache.remove(usn);
+                return null;
+            }
+            return cached.mDevice;
+        }
+    }
+
+    private static void putCachedDevice(String usn, String location, ServerDevice device,
+            int maxAge) {
+        synchronized (sDeviceCache) {
+            sDeviceCache.put(usn, new CachedDevice(location, device,
+                    SystemClock.elapsedRealtime() + maxAge * 1000L));
+        }
+    }
+
+    private static synchronized ThreadPoolExecutor getFetchExecutor() {
+        if (sFetchExecutor == null) {
+            sFetchExecutor = new ThreadPoolExecutor(FETCH_THREADS, FETCH_THREADS, 30,
+                    TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "SsdpFetch");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            sFetchExecutor.allowCoreThreadTimeOut(true);
+        }
+        return sFetchExecutor;
+    }
+
+    /**
+     * One search: sends M-SEARCH and receives replies on its own thread, hands
+     * description fetching to fetch threads. Reports devices to handler one at
+     * a time.
+     */
+    private final class Session implements Runnable {
+
+        private final SearchResultHandler mHandler;
+
+        private final DeviceFilter mPreferred;
+
+        // USNs replied so far, used by receiving thread only
+        private final Set<String> mFoundUsns = new HashSet<String>();
+
+        private volatile boolean mCancelled;
+
+        private volatile DatagramSocket mSocket;
+
+        // guarded by this session
+        private int mPendingFetches;
+
+        private int mFoundDevices;
+
+        private boolean mDone;
+
+        Session(SearchResultHandler handler, DeviceFilter preferred) {
+            mHandler = handler;
+            mPreferred = preferred;
+        }
+
+        @Override
+        public void run() {
+            boolean error = false;
+            try {
+                error = !receive();
+            } finally {
+                DatagramSocket socket = mSocket;
+                if (socket != null && !socket.isClosed()) {
+                    socket.close();
+                }
+            }
+
+            int found;
+            synchronized (this) {
+                long deadline = SystemClock.elapsedRealtime() + FETCH_WAIT_TIMEOUT;
+                while (mPendingFetches > 0 && !mDone && !mCancelled) {
+                    long left = deadline - SystemClock.elapsedRealtime();
+                    if (left <= 0) {
+                        Log.d(TAG, "search() " + mPendingFetches + " descriptions not fetched in time.");
+                        break;
+                    }
+                    try {
+                        wait(left);
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                }
+                // late descriptions are only cached
+                mDone = true;
+                found = mFoundDevices;
+            }
+
+            Log.d(TAG, "search() Finish ");
+            onSessionFinished(this);
+            if (!mCancelled && (error || found == 0)) {
+                mHandler.onErrorFinished();
+            } else {
+                mHandler.onFinished();
+            }
+        }
+
+        void cancel() {
+            mCancelled = true;
+            wakeUp();
+        }
+
+        private boolean isActive() {
+            if (mCancelled) {
+                return false;
+            }
+            synchronized (this) {
+                return !mDone;
+            }
+        }
+
+        // unblocks receive() and waiting for fetches
+        private void wakeUp() {
+            DatagramSocket socket = mSocket;
+            if (socket != null) {
+                socket.close();
+            }
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+
+        /**
+         * Sends M-SEARCH and handles replies until timeout, cancel or
+         * preferred device.
+         *
+         * @return false on network error
+         */
+        private boolean receive() {
+            final String ssdpRequest =
+                    "M-SEARCH * HTTP/1.1\r\n" + String.format("HOST: %s:%d\r\n", SSDP_ADDR, SSDP_PORT)
+                            + String.format("MAN: \"ssdp:discover\"\r\n")
+                            + String.format("MX: %d\r\n", SSDP_MX)
+                            + String.format("ST: %s\r\n", SSDP_ST) + "\r\n";
+            final byte[] sendData = ssdpRequest.getBytes();
+
+            // Send Datagram packets
+            DatagramSocket socket = null;
+            try {
+                socket = new DatagramSocket();
+                mSocket = socket;
+                if (mCancelled) {
+                    return true;
+                }
+                DatagramPacket packet = new DatagramPacket(sendData, sendData.length,
+                        mSearchAddress);
+                // send 3 times
+                Log.i(TAG, "search() Send Datagram packet 3 times.");
+                socket.send(packet);
+                Thread.sleep(100);
+                socket.send(packet);
+                Thread.sleep(100);
+                socket.send(packet);
+            } catch (SocketException e) {
+                if (mCancelled) {
+                    return true;
+                }
+                Log.e(TAG, "search() DatagramSocket error:", e);
+                return false;
+            } catch (IOException e) {
+                Log.e(TAG, "search() IOException :", e);
+                return false;
+            } catch (InterruptedException e) {
+                // do nothing.
+                Log.d(TAG, "search() InterruptedException :", e);
+            }
+
+            // Receive reply packets
+            long deadline = SystemClock.elapsedRealtime() + mReceiveTimeout;
+            byte[] array = new byte[PACKET_BUFFER_SIZE];
+            DatagramPacket receivePacket = new DatagramPacket(array, array.length);
+            try {
+                while (isActive()) {
+                    long left = deadline - SystemClock.elapsedRealtime();
+                    if (left <= 0) {
+                        break;
+                    }
+                    receivePacket.setLength(array.length);
+                    socket.setSoTimeout((int) left);
+                    socket.receive(receivePacket);
+                    onReply(new String(receivePacket.getData(), 0, receivePacket.getLength(),
+                            "UTF-8"));
+                }
+            } catch (InterruptedIOException e) {
+                Log.d(TAG, "search() Timeout.");
+            } catch (IOException e) {
+                // socket is closed to stop waiting for replies
+                if (isActive()) {
+                    Log.d(TAG, "search() IOException2. : " + e);
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void onReply(String ssdpReplyMessage) {
+            final String ddUsn = findParameterValue(ssdpReplyMessage, "USN");
+            final String ddLocation = findParameterValue(ssdpReplyMessage, "LOCATION");
+
+            /*
+             * There is possibility to receive multiple packets from a
+             * individual server.
+             */
+            if (ddUsn == null || ddLocation == null || !mFoundUsns.add(ddUsn)) {
+                return;
+            }
+
+            ServerDevice cached = getCachedDevice(ddUsn, ddLocation);
+            if (cached != null) {
+                Log.d(TAG, "search() Description of " + ddUsn + " is cached.");
+                onDeviceFetched(cached);
+                return;
+            }
+
+            final int maxAge = findMaxAge(ssdpReplyMessage);
+            synchronized (this) {
+                mPendingFetches++;
+            }
+            getFetchExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    ServerDevice device = null;
+                    try {
+                        // Fetch Device Description XML and parse it.
+                        device = ServerDevice.fetch(ddLocation);
+                        if (device != null) {
+                            putCachedDevice(ddUsn, ddLocation, device, maxAge);
+                        }
+                    } catch (RuntimeException e) {
+                        Log.w(TAG, "search() Broken description: " + ddLocation, e);
+                    }
+                    if (device != null) {
+                        onDeviceFetched(device);
+                    }
+                    synchronized (Session.this) {
+                        mPendingFetches--;
+                        Session.this.notifyAll();
+                    }
+                }
+            });
+        }
+
+        private void onDeviceFetched(ServerDevice device) {
+            // Note that it's a irresponsible rule
+            // for the sample application.
+            if (!device.hasApiService("camera")) {
+                return;
+            }
+
+            boolean preferred;
+            synchronized (this) {
+                if (mDone || mCancelled) {
+                    return;
+                }
+                mFoundDevices++;
+                preferred = mPreferred != null && mPreferred.accept(device);
+                if (preferred) {
+                    mDone = true;
+                }
+                mHandler.onDeviceFound(device);
+            }
+            if (preferred) {
+                wakeUp();
+            }
+        }
+    }
+
+    // max-age of CACHE-CONTROL header, how long description stays valid
+    private static int findMaxAge(String ssdpMessage) {
+        String cacheControl = findParameterValue(ssdpMessage, "CACHE-CONTROL");
+        if (cacheControl != null) {
+            int start = cacheControl.indexOf("max-age");
+            int equals = cacheControl.indexOf('=', start);
+            if (start != -1 && equals != -1) {
+                try {
+                    int maxAge = Integer.parseInt(cacheControl.substring(equals + 1).trim());
+                    if (maxAge > 0) {
+                        return maxAge;
+                    }
+                } catch (NumberFormatException e) {
+                    // use default
+                }
+            }
+        }
+        return DEFAULT_CACHE_MAX_AGE;
     }
 
     /**
@@ -32,7 +32,7 @@ public class SimpleStreamSurfaceView extends SurfaceView implements SurfaceHolde
 
 	private boolean						mWhileFetching;
 
-	private final BlockingQueue<byte[]>	mJpegQueue			= new ArrayBlockingQueue<byte[]>(2);
+	private final BlockingQueue<Payload>	mJpegQueue			= new ArrayBlockingQueue<Payload>(2);
 
 	private final boolean				mInMutableAvailable	= Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB;
 
@@ -169,16 +169,23 @@ public class SimpleStreamSurfaceView extends SurfaceView implements SurfaceHolde
 							continue;
 						}
 
-						if (mJpegQueue.size() == 2)
+						if (mFrameListener != null)
 						{
-							mJpegQueue.remove();
+							mFrameListener.onFrameAvailable(payload.getJpegBuffer(), payload.getJpegOffset(),
+									payload.getJpegLength());
 						}
-						mJpegQueue.add(payload.jpegData);
 
-						if (mFrameListener != null)
+						// queue takes over our reference, drop the oldest frame
+						// if drawer is behind
+						if (mJpegQueue.size() == 2)
 						{
-							mFrameListener.onFrameAvailable(payload.jpegData);
+							Payload dropped = mJpegQueue.poll();
+							if (dropped != null)
+							{
+								dropped.release();
+							}
 						}
+						mJpegQueue.add(payload);
 					}
 				} catch (IOException e)
 				{
@@ -196,7 +203,7 @@ public class SimpleStreamSurfaceView extends SurfaceView implements SurfaceHolde
 						mDrawerThread.interrupt();
 					}
 
-					mJpegQueue.clear();
+					clearQueue();
 					mWhileFetching = false;
 				}
 			}
@@ -220,11 +227,13 @@ public class SimpleStreamSurfaceView extends SurfaceView implements SurfaceHolde
 
 				while (mWhileFetching)
 				{
+					Payload payload = null;
 					try
 					{
-						byte[] jpegData = mJpegQueue.take();
+						payload = mJpegQueue.take();
 						frameBitmap = BitmapFactory.decodeByteArray(//
-								jpegData, 0, jpegData.length, factoryOptions);
+								payload.getJpegBuffer(), payload.getJpegOffset(), payload.getJpegLength(),
+								factoryOptions);
 
 						if (frameBitmap != null)
 						{
@@ -244,6 +253,12 @@ public class SimpleStreamSurfaceView extends SurfaceView implements SurfaceHolde
 					{
 						Log.i(TAG, "Drawer thread is Interrupted.");
 						break;
+					} finally
+					{
+						if (payload != null)
+						{
+							payload.release();
+						}
 					}
 
 					if (mInMutableAvailable)
@@ -257,6 +272,7 @@ public class SimpleStreamSurfaceView extends SurfaceView implements SurfaceHolde
 				{
 					frameBitmap.recycle();
 				}
+				clearQueue();
 				mWhileFetching = false;
 			}
 		};
@@ -264,6 +280,16 @@ public class SimpleStreamSurfaceView extends SurfaceView implements SurfaceHolde
 		return true;
 	}
 
+	// Releases frames nobody is going to draw
+	private void clearQueue()
+	{
+		Payload payload;
+		while ((payload = mJpegQueue.poll()) != null)
+		{
+			payload.release();
+		}
+	}
+
 	/**
 	 * Request to stop retrieving and drawing liveview data.
 	 */
@@ -393,6 +419,7 @@ public class SimpleStreamSurfaceView extends SurfaceView implements SurfaceHolde
 
 	public interface StreamFrameListener
 	{
-		void onFrameAvailable(byte[] jpegData);
+		// Called on fetching thread, data is valid only until return
+		void onFrameAvailable(byte[] jpegData, int offset, int length);
 	}
 }
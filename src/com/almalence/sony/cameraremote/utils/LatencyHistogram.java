@@ -0,0 +1,93 @@
+package com.almalence.sony.cameraremote.utils;
+
+/**
+ * Histogram of call latencies with logarithmic buckets, precise enough to
+ * tell p50 from p99 of remote API calls without keeping every sample.
+ */
+public final class LatencyHistogram {
+
+    // bucket i holds latencies below 2^(i / 4) * 100 usec, last one the rest
+    private static final int BUCKET_COUNT = 80;
+
+    private static final double BASE_USEC = 100;
+
+    private final long[] mBuckets = new long[BUCKET_COUNT];
+
+    private long mCount;
+
+    private long mTotalNanos;
+
+    private long mMaxNanos;
+
+    /** Adds one call which took given time. */
+    public synchronized void record(long nanos) {
+        mBuckets[bucketOf(nanos)]++;
+        mCount++;
+        mTotalNanos += nanos;
+        if (nanos > mMaxNanos) {
+            mMaxNanos = nanos;
+        }
+    }
+
+    public synchronized long getCount() {
+        return mCount;
+    }
+
+    /** Average latency [msec] */
+    public synchronized double getAverageMillis() {
+        return mCount > 0 ? mTotalNanos / 1e6 / mCount : 0;
+    }
+
+    public synchronized double getMaxMillis() {
+        return mMaxNanos / 1e6;
+    }
+
+    /**
+     * Latency [msec] below which given fraction of calls finished, for example
+     * getPercentileMillis(0.99) is p99. Result is upper bound of the bucket,
+     * that is up to 19% above real value.
+     */
+    public synchronized double getPercentileMillis(double fraction) {
+        if (mCount == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(fraction * mCount);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT - 1; i++) {
+            seen += mBuckets[i];
+            if (seen >= rank) {
+                return Math.min(upperBoundMillis(i), getMaxMillis());
+            }
+        }
+        return getMaxMillis();
+    }
+
+    public synchronized void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            mBuckets[i] = 0;
+        }
+        mCount = 0;
+        mTotalNanos = 0;
+        mMaxNanos = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("n=%d avg=%.1fms p50=%.1fms p99=%.1fms max=%.1fms", mCount,
+                getAverageMillis(), getPercentileMillis(0.5), getPercentileMillis(0.99),
+                getMaxMillis());
+    }
+
+    private static int bucketOf(long nanos) {
+        double usec = nanos / 1000.0;
+        if (usec < BASE_USEC) {
+            return 0;
+        }
+        int bucket = 1 + (int) (4 * Math.log(usec / BASE_USEC) / Math.log(2));
+        return Math.min(bucket, BUCKET_COUNT - 1);
+    }
+
+    private static double upperBoundMillis(int bucket) {
+        return BASE_USEC * Math.pow(2, bucket / 4.0) / 1000.0;
+    }
+}
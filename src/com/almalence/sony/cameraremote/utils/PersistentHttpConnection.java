@@ -0,0 +1,373 @@
+package com.almalence.sony.cameraremote.utils;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+
+/**
+ * HTTP/1.1 connection which is kept open between requests. Request and
+ * response buffers belong to connection and are reused by every request sent
+ * over it. Used by SimpleHttpClient for JSON-RPC calls, where connection
+ * setup takes longer than the call itself.
+ */
+final class PersistentHttpConnection {
+
+    private static final int INITIAL_BUFFER_SIZE = 4 * 1024;
+
+    private static final int MAX_LINE_LENGTH = 8 * 1024;
+
+    private final String mHost;
+
+    private final int mPort;
+
+    private final Socket mSocket;
+
+    private final InputStream mInput;
+
+    private final OutputStream mOutput;
+
+    private byte[] mRequestBuffer = new byte[INITIAL_BUFFER_SIZE];
+
+    private byte[] mResponseBuffer = new byte[INITIAL_BUFFER_SIZE];
+
+    private final StringBuilder mLine = new StringBuilder();
+
+    private int mRequestCount;
+
+    private long mIdleSince;
+
+    private boolean mReusable = true;
+
+    /**
+     * Connects to the server.
+     *
+     * @throws IOException if connection can't be established in time
+     */
+    PersistentHttpConnection(String host, int port, int connectTimeout) throws IOException {
+        mHost = host;
+        mPort = port;
+        mSocket = new Socket();
+        try {
+            mSocket.setTcpNoDelay(true);
+            mSocket.connect(new InetSocketAddress(host, port), connectTimeout);
+            mInput = new BufferedInputStream(mSocket.getInputStream(), INITIAL_BUFFER_SIZE);
+            mOutput = mSocket.getOutputStream();
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    String getHost() {
+        return mHost;
+    }
+
+    int getPort() {
+        return mPort;
+    }
+
+    /** Number of requests sent over this connection. */
+    int getRequestCount() {
+        return mRequestCount;
+    }
+
+    long getIdleSince() {
+        return mIdleSince;
+    }
+
+    /** False when server asked to close connection or response was broken. */
+    boolean isReusable() {
+        return mReusable && !mSocket.isClosed();
+    }
+
+    /**
+     * Checks idle connection before it's reused: whether server has closed it
+     * or sent something nobody asked for. Takes up to 1 msec when connection
+     * is fine.
+     *
+     * @return true if connection must not be used any more
+     */
+    boolean isDroppedByServer() {
+        try {
+            if (mInput.available() > 0) {
+                return true;
+            }
+            mSocket.setSoTimeout(1);
+            // -1 is closed by server, anything else is stray data
+            mInput.read();
+            return true;
+        } catch (SocketTimeoutException e) {
+            return false;
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    void close() {
+        mReusable = false;
+        try {
+            mSocket.close();
+        } catch (IOException e) {
+            // nothing to do, socket is dropped anyway
+        }
+    }
+
+    /**
+     * Sends POST request and reads response body.
+     *
+     * @param path request target, with leading slash
+     * @param postData request body
+     * @param timeout read timeout [msec]
+     * @return response body as string
+     * @throws StaleConnectionException if request couldn't be written to
+     *             reused connection, so the request can be sent again over
+     *             new connection
+     * @throws NoResponseException if server closed reused connection after
+     *             request was written, without answering. Server may have
+     *             processed the request, so only idempotent requests can be
+     *             sent again.
+     * @throws IOException all other errors
+     */
+    String post(String path, String postData, int timeout) throws IOException {
+        mSocket.setSoTimeout(timeout);
+        mRequestCount++;
+
+        byte[] body = postData.getBytes("UTF-8");
+        int length = 0;
+        length = append(length, "POST ");
+        length = append(length, path);
+        length = append(length, " HTTP/1.1\r\nHost: ");
+        length = append(length, mHost);
+        length = append(length, ":");
+        length = append(length, Integer.toString(mPort));
+        length = append(length, "\r\nContent-Type: application/json; charset=UTF-8\r\nContent-Length: ");
+        length = append(length, Integer.toString(body.length));
+        length = append(length, "\r\nConnection: keep-alive\r\n\r\n");
+        ensureRequestCapacity(length + body.length);
+        System.arraycopy(body, 0, mRequestBuffer, length, body.length);
+        length += body.length;
+
+        try {
+            mOutput.write(mRequestBuffer, 0, length);
+            mOutput.flush();
+        } catch (IOException e) {
+            close();
+            // a reused connection may have been dropped while idle
+            throw mRequestCount > 1 ? new StaleConnectionException(e) : e;
+        }
+
+        try {
+            String response = readResponse();
+            mIdleSince = System.currentTimeMillis();
+            return response;
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private String readResponse() throws IOException {
+        // Status line
+        int first = mInput.read();
+        if (first < 0) {
+            if (mRequestCount > 1) {
+                throw new NoResponseException();
+            }
+            throw new EOFException("Connection closed before response.");
+        }
+        String status = readLine(first);
+        if (!status.startsWith("HTTP/1.") || status.length() < 12) {
+            throw new IOException("Unexpected status line: " + status);
+        }
+        int responseCode;
+        try {
+            responseCode = Integer.parseInt(status.substring(9, 12));
+        } catch (NumberFormatException e) {
+            throw new IOException("Unexpected status line: " + status);
+        }
+        if (status.startsWith("HTTP/1.0")) {
+            mReusable = false;
+        }
+
+        // Headers
+        int contentLength = -1;
+        boolean chunked = false;
+        String header;
+        while ((header = readLine(mInput.read())).length() > 0) {
+            int colon = header.indexOf(':');
+            if (colon <= 0) {
+                continue;
+            }
+            String name = header.substring(0, colon).trim();
+            String value = header.substring(colon + 1).trim();
+            if ("Content-Length".equalsIgnoreCase(name)) {
+                try {
+                    contentLength = Integer.parseInt(value);
+                } catch (NumberFormatException e) {
+                    throw new IOException("Bad Content-Length: " + value);
+                }
+            } else if ("Transfer-Encoding".equalsIgnoreCase(name)) {
+                chunked = value.toLowerCase().contains("chunked");
+            } else if ("Connection".equalsIgnoreCase(name)) {
+                if ("close".equalsIgnoreCase(value)) {
+                    mReusable = false;
+                } else if ("keep-alive".equalsIgnoreCase(value)) {
+                    mReusable = true;
+                }
+            }
+        }
+
+        // Body
+        int bodyLength;
+        if (chunked) {
+            bodyLength = readChunkedBody();
+        } else if (contentLength >= 0) {
+            ensureResponseCapacity(contentLength);
+            readFully(mResponseBuffer, 0, contentLength);
+            bodyLength = contentLength;
+        } else {
+            // body ends with connection
+            bodyLength = readToEnd();
+            mReusable = false;
+        }
+
+        if (responseCode != 200) {
+            throw new IOException("Response Error:" + responseCode);
+        }
+        return new String(mResponseBuffer, 0, bodyLength, "UTF-8");
+    }
+
+    private int readChunkedBody() throws IOException {
+        int length = 0;
+        while (true) {
+            String sizeLine = readLine(mInput.read());
+            int semicolon = sizeLine.indexOf(';');
+            if (semicolon >= 0) {
+                sizeLine = sizeLine.substring(0, semicolon);
+            }
+            int chunkSize;
+            try {
+                chunkSize = Integer.parseInt(sizeLine.trim(), 16);
+            } catch (NumberFormatException e) {
+                throw new IOException("Bad chunk size: " + sizeLine);
+            }
+            if (chunkSize == 0) {
+                // skip trailers
+                while (readLine(mInput.read()).length() > 0) {
+                }
+                return length;
+            }
+            ensureResponseCapacity(length + chunkSize);
+            readFully(mResponseBuffer, length, chunkSize);
+            length += chunkSize;
+            readLine(mInput.read());
+        }
+    }
+
+    private int readToEnd() throws IOException {
+        int length = 0;
+        while (true) {
+            if (length == mResponseBuffer.length) {
+                ensureResponseCapacity(length + 1);
+            }
+            int read = mInput.read(mResponseBuffer, length, mResponseBuffer.length - length);
+            if (read < 0) {
+                return length;
+            }
+            length += read;
+        }
+    }
+
+    /**
+     * Reads CRLF terminated line, first byte of which is already read.
+     */
+    private String readLine(int c) throws IOException {
+        mLine.setLength(0);
+        while (true) {
+            if (c < 0) {
+                throw new EOFException("Connection closed inside response header.");
+            }
+            if (c == '\n') {
+                break;
+            }
+            if (c != '\r') {
+                mLine.append((char) c);
+                if (mLine.length() > MAX_LINE_LENGTH) {
+                    throw new IOException("Response header line is too long.");
+                }
+            }
+            c = mInput.read();
+        }
+        return mLine.toString();
+    }
+
+    private void readFully(byte[] buffer, int offset, int length) throws IOException {
+        while (length > 0) {
+            int read = mInput.read(buffer, offset, length);
+            if (read < 0) {
+                throw new EOFException("Connection closed inside response body.");
+            }
+            offset += read;
+            length -= read;
+        }
+    }
+
+    // ASCII only, request line and headers
+    private int append(int offset, String text) {
+        int length = text.length();
+        ensureRequestCapacity(offset + length);
+        for (int i = 0; i < length; i++) {
+            mRequestBuffer[offset + i] = (byte) text.charAt(i);
+        }
+        return offset + length;
+    }
+
+    private void ensureRequestCapacity(int capacity) {
+        if (mRequestBuffer.length < capacity) {
+            byte[] buffer = new byte[Math.max(capacity, mRequestBuffer.length * 2)];
+            System.arraycopy(mRequestBuffer, 0, buffer, 0, mRequestBuffer.length);
+            mRequestBuffer = buffer;
+        }
+    }
+
+    private void ensureResponseCapacity(int capacity) {
+        if (mResponseBuffer.length < capacity) {
+            byte[] buffer = new byte[Math.max(capacity, mResponseBuffer.length * 2)];
+            System.arraycopy(mResponseBuffer, 0, buffer, 0, mResponseBuffer.length);
+            mResponseBuffer = buffer;
+        }
+    }
+
+    /**
+     * Reused connection was closed by server while idle and request couldn't
+     * be written to it. Nothing of request was processed, so it's safe to send
+     * it again.
+     */
+    static final class StaleConnectionException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        StaleConnectionException(IOException cause) {
+            super("Connection was closed by server.", cause);
+        }
+    }
+
+    /**
+     * Reused connection was closed by server after request was written to it,
+     * without any response. Server may have closed it while idle, or after it
+     * received the request, and then the request may have been carried out.
+     */
+    static final class NoResponseException extends EOFException {
+
+        private static final long serialVersionUID = 1L;
+
+        NoResponseException() {
+            super("Connection was closed by server before response.");
+        }
+    }
+}
@@ -16,6 +16,8 @@ import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.SocketTimeoutException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Simple HTTP Client for sample application.
@@ -26,7 +28,22 @@ public final class SimpleHttpClient {
 
     private static final int DEFAULT_CONNECTION_TIMEOUT = 10000; // [msec]
 
-    private static final int DEFAULT_READ_TIMEOUT = 10000; // [msec]
+    public static final int DEFAULT_READ_TIMEOUT = 10000; // [msec]
+
+    // idle connections older than this are not reused, cameras close them
+    private static final int KEEP_ALIVE_TIMEOUT = 5000; // [msec]
+
+    // idle connections older than this are checked before request which
+    // can't be sent twice, back to back calls skip the check
+    private static final int PROBE_IDLE_TIME = 100; // [msec]
+
+    // one for getEvent long polling, one for the other calls
+    private static final int MAX_IDLE_CONNECTIONS = 2;
+
+    private static final List<PersistentHttpConnection> sIdleConnections =
+            new ArrayList<PersistentHttpConnection>();
+
+    private static int sOpenedConnections;
 
     private SimpleHttpClient() {
 
@@ -147,6 +164,147 @@ public final class SimpleHttpClient {
      *             Exception.
      */
     public static String httpPost(String url, String postData, int timeout) throws IOException {
+        return httpPost(url, postData, timeout, false);
+    }
+
+    /**
+     * Send HTTP POST request to the indicated url. Then returns response as
+     * string.
+     *
+     * @param url request target
+     * @param postData POST body data as string (ex. JSON)
+     * @param timeout Request timeout
+     * @param idempotent true if sending the request twice has the same effect
+     *            as sending it once (ex. get* methods). Only such requests
+     *            are sent again when reused connection is closed without
+     *            response.
+     * @return response as string
+     * @throws IOException all errors and exception are wrapped by this
+     *             Exception.
+     */
+    public static String httpPost(String url, String postData, int timeout, boolean idempotent)
+            throws IOException {
+        final URL urlObj;
+        try {
+            urlObj = new URL(url);
+        } catch (final MalformedURLException e) {
+            Log.w(TAG, "httpPost: MalformedUrlException: " + url);
+            throw new IOException();
+        }
+        if (!"http".equals(urlObj.getProtocol())) {
+            return httpPostOnce(urlObj, postData, timeout);
+        }
+
+        String host = urlObj.getHost();
+        int port = urlObj.getPort() != -1 ? urlObj.getPort() : urlObj.getDefaultPort();
+        String path = urlObj.getFile().length() > 0 ? urlObj.getFile() : "/";
+
+        while (true) {
+            PersistentHttpConnection connection = obtainConnection(host, port);
+            if (!idempotent && connection.getRequestCount() > 0
+                    && System.currentTimeMillis() - connection.getIdleSince() > PROBE_IDLE_TIME
+                    && connection.isDroppedByServer()) {
+                // Request can't be sent twice, so don't write it into
+                // connection which is known to be closed.
+                connection.close();
+                continue;
+            }
+            try {
+                String response = connection.post(path, postData, timeout);
+                recycleConnection(connection);
+                return response;
+            } catch (final PersistentHttpConnection.StaleConnectionException e) {
+                // Server dropped idle connection, send again over other one.
+                Log.d(TAG, "httpPost: stale connection after "
+                        + (connection.getRequestCount() - 1) + " requests, retry.");
+            } catch (final PersistentHttpConnection.NoResponseException e) {
+                // Request is written, camera may have carried it out already.
+                if (!idempotent) {
+                    Log.w(TAG, "httpPost: " + e.getMessage() + " " + url);
+                    throw e;
+                }
+                Log.d(TAG, "httpPost: no response after "
+                        + (connection.getRequestCount() - 1) + " requests, retry.");
+            } catch (final SocketTimeoutException e) {
+                Log.w(TAG, "httpPost: Timeout: " + url);
+                throw new IOException();
+            } catch (final IOException e) {
+                Log.w(TAG, "httpPost: IOException: " + e.getMessage());
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Drops all idle connections, for example when target device has changed.
+     */
+    public static void closeIdleConnections() {
+        synchronized (sIdleConnections) {
+            for (PersistentHttpConnection connection : sIdleConnections) {
+                connection.close();
+            }
+            sIdleConnections.clear();
+        }
+    }
+
+    /** Connections opened by httpPost since start. */
+    public static int getOpenedConnectionCount() {
+        synchronized (sIdleConnections) {
+            return sOpenedConnections;
+        }
+    }
+
+    /**
+     * Takes idle connection to the server, or opens new one if there is none.
+     * New connection is opened outside of the lock, so long polling getEvent
+     * doesn't block other calls.
+     */
+    private static PersistentHttpConnection obtainConnection(String host, int port)
+            throws IOException {
+        synchronized (sIdleConnections) {
+            long now = System.currentTimeMillis();
+            for (int i = sIdleConnections.size() - 1; i >= 0; i--) {
+                PersistentHttpConnection connection = sIdleConnections.get(i);
+                if (now - connection.getIdleSince() > KEEP_ALIVE_TIMEOUT) {
+                    // server will close it soon, or has already closed
+                    sIdleConnections.remove(i);
+                    connection.close();
+                } else if (connection.getPort() == port && connection.getHost().equals(host)) {
+                    sIdleConnections.remove(i);
+                    return connection;
+                }
+            }
+            sOpenedConnections++;
+        }
+
+        try {
+            return new PersistentHttpConnection(host, port, DEFAULT_CONNECTION_TIMEOUT);
+        } catch (final SocketTimeoutException e) {
+            Log.w(TAG, "httpPost: Connection timeout: " + host + ":" + port);
+            throw new IOException();
+        }
+    }
+
+    private static void recycleConnection(PersistentHttpConnection connection) {
+        if (!connection.isReusable()) {
+            connection.close();
+            return;
+        }
+        synchronized (sIdleConnections) {
+            if (sIdleConnections.size() < MAX_IDLE_CONNECTIONS) {
+                sIdleConnections.add(connection);
+                return;
+            }
+        }
+        connection.close();
+    }
+
+    /**
+     * Sends POST request over new HttpURLConnection, for urls persistent
+     * connections don't support.
+     */
+    private static String httpPostOnce(URL urlObj, String postData, int timeout) throws IOException {
+        String url = urlObj.toString();
         HttpURLConnection httpConn = null;
         OutputStream outputStream = null;
         OutputStreamWriter writer = null;
@@ -154,7 +312,6 @@ public final class SimpleHttpClient {
 
         // Open connection and input stream
         try {
-            final URL urlObj = new URL(url);
             httpConn = (HttpURLConnection) urlObj.openConnection();
             httpConn.setRequestMethod("POST");
             httpConn.setConnectTimeout(DEFAULT_CONNECTION_TIMEOUT);
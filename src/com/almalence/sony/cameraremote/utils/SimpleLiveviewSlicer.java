@@ -2,11 +2,12 @@ package com.almalence.sony.cameraremote.utils;
 
 import android.util.Log;
 
-import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.ArrayList;
 
 /**
  * A parser class for Liveview data Packet defined by Camera Remote API
@@ -17,33 +18,94 @@ public class SimpleLiveviewSlicer {
 
     /**
      * Payload data class. See also Camera Remote API specification document to
-     * know the data structure.
+     * know the data structure. Payload is reused by slicer: jpeg data stays
+     * valid until the last holder calls release().
      */
     public static final class Payload {
-        /** jpeg data container */
-        public final byte[] jpegData;
+        /** jpeg data container, may be longer than jpeg itself */
+        private byte[] mBuffer;
 
-        /** padding data container */
-        public final byte[] paddingData;
+        private int mJpegLength;
+
+        private int mPaddingSize;
+
+        private int mRefCount;
+
+        private final SimpleLiveviewSlicer mOwner;
 
         /**
          * Constructor
          */
-        private Payload(byte[] jpeg, byte[] padding) {
-            this.jpegData = jpeg;
-            this.paddingData = padding;
+        private Payload(SimpleLiveviewSlicer owner) {
+            mOwner = owner;
+        }
+
+        /** Buffer holding jpeg data from getJpegOffset() */
+        public byte[] getJpegBuffer() {
+            return mBuffer;
+        }
+
+        public int getJpegOffset() {
+            return 0;
+        }
+
+        public int getJpegLength() {
+            return mJpegLength;
+        }
+
+        /** Size of padding which followed jpeg data in stream */
+        public int getPaddingSize() {
+            return mPaddingSize;
+        }
+
+        /** Keeps payload valid for one more release() call. */
+        public void acquire() {
+            synchronized (mOwner.mFreePayloads) {
+                mRefCount++;
+            }
+        }
+
+        /** Gives payload back to slicer when nobody holds it. */
+        public void release() {
+            synchronized (mOwner.mFreePayloads) {
+                if (mRefCount <= 0) {
+                    throw new IllegalStateException("Payload is already released.");
+                }
+                if (--mRefCount == 0) {
+                    mOwner.mFreePayloads.add(this);
+                }
+            }
         }
     }
 
     private static final int CONNECTION_TIMEOUT = 2000; // [msec]
 
+    private static final int COMMON_HEADER_SIZE = 1 + 1 + 2 + 4;
+
+    private static final int PAYLOAD_HEADER_SIZE = 4 + 3 + 1 + 4 + 1 + 115;
+
+    private static final int INFORMATION_HEADER_SIZE = 4 + 3 + 1 + 2 + 118 + 4 + 4 + 24;
+
+    // first jpeg buffer size, enough for VGA liveview frames
+    private static final int INITIAL_JPEG_CAPACITY = 64 * 1024;
+
     private HttpURLConnection mHttpConn;
 
     private InputStream mInputStream;
 
+    // headers are parsed from here, packet bodies are not copied
+    private final byte[] mHeader = new byte[PAYLOAD_HEADER_SIZE];
+
+    // payloads nobody holds, guards reference counts of all payloads
+    private final ArrayList<Payload> mFreePayloads = new ArrayList<Payload>();
+
+    private long mPayloadCount;
+
+    private long mAllocatedBytes;
+
     /**
      * Opens Liveview HTTP GET connection and prepares for reading Packet data.
-     * 
+     *
      * @param liveviewUrl Liveview data url that is obtained by DD.xml or result
      *            of startLiveview API.
      * @throws IOException generic errors or exception.
@@ -64,9 +126,19 @@ public class SimpleLiveviewSlicer {
         }
     }
 
+    /**
+     * Reads packets from already opened stream, for example a recorded one.
+     */
+    public void open(InputStream in) {
+        if (mInputStream != null || mHttpConn != null) {
+            throw new IllegalStateException("Slicer is already open.");
+        }
+        mInputStream = in;
+    }
+
     /**
      * Closes the connection.
-     * 
+     *
      * @throws IOException generic errors or exception.
      */
     public void close() {
@@ -86,29 +158,30 @@ public class SimpleLiveviewSlicer {
 
     }
 
+    /**
+     * Reads packets until next payload. Caller owns returned payload and has
+     * to release() it.
+     *
+     * @return Payload data of sliced Packet
+     * @throws IOException generic errors or exception.
+     */
     public Payload nextPayload() throws IOException {
 
         Payload payload = null;
 
         while (mInputStream != null && payload == null) {
             // Common Header
-            int readLength = 1 + 1 + 2 + 4;
-            byte[] commonHeader = readBytes(mInputStream, readLength);
-            if (commonHeader == null || commonHeader.length != readLength) {
-                throw new IOException("Cannot read stream for common header.");
-            }
+            readFully(mInputStream, mHeader, 0, COMMON_HEADER_SIZE);
 
-            if (commonHeader[0] != (byte) 0xFF) {
+            if (mHeader[0] != (byte) 0xFF) {
                 throw new IOException("Unexpected data format. (Start byte)");
             }
 
-            switch (commonHeader[1]) {
+            switch (mHeader[1]) {
                 case (byte) 0x12:
                     // This is information header for streaming.
                     // skip this packet.
-                    readLength = 4 + 3 + 1 + 2 + 118 + 4 + 4 + 24;
-                    commonHeader = null;
-                    readBytes(mInputStream, readLength);
+                    skipFully(mInputStream, INFORMATION_HEADER_SIZE);
                     break;
                 case (byte) 0x01:
                 case (byte) 0x11:
@@ -124,8 +197,8 @@ public class SimpleLiveviewSlicer {
     /**
      * Reads liveview stream and slice one Packet. If server is not ready for
      * liveview data, this API calling will be blocked until server returns next
-     * data.
-     * 
+     * data. Caller owns returned payload and has to release() it.
+     *
      * @return Payload data of sliced Packet
      * @throws IOException generic errors or exception.
      */
@@ -133,31 +206,69 @@ public class SimpleLiveviewSlicer {
 
         if (mInputStream != null) {
             // Payload Header
-            int readLength = 4 + 3 + 1 + 4 + 1 + 115;
-            byte[] payloadHeader = readBytes(mInputStream, readLength);
-            if (payloadHeader == null || payloadHeader.length != readLength) {
-                throw new IOException("Cannot read stream for payload header.");
-            }
-            if (payloadHeader[0] != (byte) 0x24 || payloadHeader[1] != (byte) 0x35
-                    || payloadHeader[2] != (byte) 0x68
-                    || payloadHeader[3] != (byte) 0x79) {
+            readFully(mInputStream, mHeader, 0, PAYLOAD_HEADER_SIZE);
+            if (mHeader[0] != (byte) 0x24 || mHeader[1] != (byte) 0x35
+                    || mHeader[2] != (byte) 0x68
+                    || mHeader[3] != (byte) 0x79) {
                 throw new IOException("Unexpected data format. (Start code)");
             }
-            int jpegSize = bytesToInt(payloadHeader, 4, 3);
-            int paddingSize = bytesToInt(payloadHeader, 7, 1);
+            int jpegSize = bytesToInt(mHeader, 4, 3);
+            int paddingSize = bytesToInt(mHeader, 7, 1);
 
             // Payload Data
-            byte[] jpegData = readBytes(mInputStream, jpegSize);
-            byte[] paddingData = readBytes(mInputStream, paddingSize);
+            Payload payload = obtainPayload(jpegSize);
+            try {
+                readFully(mInputStream, payload.mBuffer, 0, jpegSize);
+                skipFully(mInputStream, paddingSize);
+            } catch (IOException e) {
+                payload.release();
+                throw e;
+            }
+            payload.mJpegLength = jpegSize;
+            payload.mPaddingSize = paddingSize;
+            mPayloadCount++;
 
-            return new Payload(jpegData, paddingData);
+            return payload;
         }
         return null;
     }
 
+    /** Number of payloads read since slicer creation. */
+    public long getPayloadCount() {
+        return mPayloadCount;
+    }
+
+    /** Bytes allocated for payload buffers since slicer creation. */
+    public long getAllocatedBytes() {
+        synchronized (mFreePayloads) {
+            return mAllocatedBytes;
+        }
+    }
+
+    /**
+     * Takes free payload or creates new one if all are held by consumers,
+     * and makes sure it can hold jpeg of given size.
+     */
+    private Payload obtainPayload(int jpegSize) {
+        synchronized (mFreePayloads) {
+            int count = mFreePayloads.size();
+            Payload payload = count > 0 ? mFreePayloads.remove(count - 1) : new Payload(this);
+            if (payload.mBuffer == null || payload.mBuffer.length < jpegSize) {
+                // grow with a margin, so slowly growing frames don't
+                // reallocate every time
+                int capacity = payload.mBuffer == null ? INITIAL_JPEG_CAPACITY
+                        : payload.mBuffer.length * 3 / 2;
+                payload.mBuffer = new byte[Math.max(capacity, jpegSize)];
+                mAllocatedBytes += payload.mBuffer.length;
+            }
+            payload.mRefCount = 1;
+            return payload;
+        }
+    }
+
     /**
      * Converts byte array to int.
-     * 
+     *
      * @param byteData
      * @param startIndex
      * @param count
@@ -172,29 +283,44 @@ public class SimpleLiveviewSlicer {
     }
 
     /**
-     * Reads byte array from the indicated input stream.
-     * 
+     * Reads exactly length bytes from the indicated input stream.
+     *
      * @param in
+     * @param buffer
+     * @param offset
      * @param length
-     * @return
-     * @throws IOException
+     * @throws IOException if stream ends before
      */
-    private static byte[] readBytes(InputStream in, int length) throws IOException {
-        ByteArrayOutputStream tmpByteArray = new ByteArrayOutputStream();
-        byte[] buffer = new byte[1024];
-        while (true) {
-            int trialReadlen = Math.min(buffer.length, length - tmpByteArray.size());
-            int readlen = in.read(buffer, 0, trialReadlen);
+    private static void readFully(InputStream in, byte[] buffer, int offset, int length)
+            throws IOException {
+        while (length > 0) {
+            int readlen = in.read(buffer, offset, length);
             if (readlen < 0) {
-                break;
+                throw new EOFException("Cannot read stream, " + length + " bytes left.");
             }
-            tmpByteArray.write(buffer, 0, readlen);
-            if (length <= tmpByteArray.size()) {
-                break;
+            offset += readlen;
+            length -= readlen;
+        }
+    }
+
+    /**
+     * Skips exactly length bytes of the indicated input stream.
+     *
+     * @param in
+     * @param length
+     * @throws IOException if stream ends before
+     */
+    private static void skipFully(InputStream in, int length) throws IOException {
+        while (length > 0) {
+            long skipped = in.skip(length);
+            if (skipped <= 0) {
+                // skip() may return 0 without reaching the end, read() tells
+                if (in.read() < 0) {
+                    throw new EOFException("Cannot skip stream, " + length + " bytes left.");
+                }
+                skipped = 1;
             }
+            length -= skipped;
         }
-        byte[] ret = tmpByteArray.toByteArray();
-        tmpByteArray.close();
-        return ret;
     }
 }
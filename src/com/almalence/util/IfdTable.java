@@ -0,0 +1,475 @@
+/*
+The contents of this file are subject to the Mozilla Public License
+Version 1.1 (the "License"); you may not use this file except in
+compliance with the License. You may obtain a copy of the License at
+http://www.mozilla.org/MPL/
+
+Software distributed under the License is distributed on an "AS IS"
+basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+License for the specific language governing rights and limitations
+under the License.
+
+The Original Code is collection of files collectively known as Open Camera.
+
+The Initial Developer of the Original Code is Almalence Inc.
+Portions created by Initial Developer are Copyright (C) 2013
+by Almalence Inc. All Rights Reserved.
+ */
+
+package com.almalence.util;
+
+import java.util.Arrays;
+
+/***
+ * Compact storage of one TIFF image file directory (IFD), as used by Exif.
+ *
+ * Tag ids are kept in sorted int array with parallel format, count and offset
+ * arrays. Values of all tags live in one byte arena, in Intel byte order, so
+ * directory is written out without sorting or converting anything. Lookup is
+ * binary search. Value replaced by one of the same size is overwritten in
+ * place, otherwise old bytes are left in arena until it is compacted.
+ *
+ * Entry may also carry a decoded object: readers cache java values converted
+ * from raw bytes there, and values which have no raw form are stored as
+ * objects only (FORMAT_NONE). Such entries can't be written.
+ ***/
+public final class IfdTable
+{
+	public static final int		FORMAT_NONE				= 0;
+	public static final int		FORMAT_UNSIGNED_BYTE	= 1;
+	public static final int		FORMAT_ASCII			= 2;
+	public static final int		FORMAT_UNSIGNED_SHORT	= 3;
+	public static final int		FORMAT_UNSIGNED_LONG	= 4;
+	public static final int		FORMAT_UNSIGNED_RATIONAL	= 5;
+	public static final int		FORMAT_SIGNED_BYTE		= 6;
+	public static final int		FORMAT_UNDEFINED		= 7;
+	public static final int		FORMAT_SIGNED_SHORT		= 8;
+	public static final int		FORMAT_SIGNED_LONG		= 9;
+	public static final int		FORMAT_SIGNED_RATIONAL	= 10;
+	public static final int		FORMAT_FLOAT			= 11;
+	public static final int		FORMAT_DOUBLE			= 12;
+
+	// Component size of each format, in bytes
+	public static final int[]	FORMAT_WIDTHS			= new int[] { 0, 1, 1, 2, 4, 8, 1, 1, 2, 4, 8, 4, 8 };
+
+	// IFD entry: 2B tag, 2B format, 4B count, 4B value or offset of value
+	public static final int		ENTRY_SIZE				= 12;
+
+	private static final int	INITIAL_CAPACITY		= 16;
+	private static final int	INITIAL_ARENA_SIZE		= 256;
+
+	private static final int[]	EMPTY					= new int[0];
+
+	// allocated on first put, directories like IFD1 are often empty
+	private int[]				tags					= EMPTY;
+	private int[]				formats					= EMPTY;
+	private int[]				counts					= EMPTY;
+	private int[]				offsets					= EMPTY;
+	// allocated on first object stored
+	private Object[]			objects					= null;
+	private int					size					= 0;
+
+	private byte[]				arena					= new byte[0];
+	private int					arenaLength				= 0;
+	// bytes of arena left by replaced and removed values
+	private int					arenaGarbage			= 0;
+	// bytes of values which don't fit into entry and go after directory
+	private int					extraSize				= 0;
+
+	public int size()
+	{
+		return size;
+	}
+
+	public void clear()
+	{
+		size = 0;
+		arenaLength = 0;
+		arenaGarbage = 0;
+		extraSize = 0;
+		if (objects != null)
+			Arrays.fill(objects, null);
+	}
+
+	/**
+	 * Binary search of tag.
+	 *
+	 * @return Index of entry or (-(insertion point) - 1) if there is no such
+	 *         tag, like Arrays.binarySearch
+	 */
+	public int indexOf(int tag)
+	{
+		int low = 0;
+		int high = size - 1;
+		while (low <= high)
+		{
+			int mid = (low + high) >>> 1;
+			int midTag = tags[mid];
+			if (midTag < tag)
+				low = mid + 1;
+			else if (midTag > tag)
+				high = mid - 1;
+			else
+				return mid;
+		}
+		return -(low + 1);
+	}
+
+	public boolean contains(int tag)
+	{
+		return indexOf(tag) >= 0;
+	}
+
+	public int getTag(int index)
+	{
+		return tags[index];
+	}
+
+	public int getFormat(int index)
+	{
+		return formats[index];
+	}
+
+	public int getCount(int index)
+	{
+		return counts[index];
+	}
+
+	public int getByteCount(int index)
+	{
+		return counts[index] * FORMAT_WIDTHS[formats[index]];
+	}
+
+	// Offset of entry's value in arena
+	public int getValueOffset(int index)
+	{
+		return offsets[index];
+	}
+
+	// Arena may be reallocated by put, get it again after every put
+	public byte[] getArena()
+	{
+		return arena;
+	}
+
+	public Object getObject(int index)
+	{
+		return objects != null ? objects[index] : null;
+	}
+
+	// Attaches decoded value to entry, it's dropped when value is replaced
+	public void setObject(int index, Object value)
+	{
+		if (objects == null)
+		{
+			if (value == null)
+				return;
+			objects = new Object[tags.length];
+		}
+		objects[index] = value;
+	}
+
+	/**
+	 * Reserves space for value of tag. Existing value of the same size is
+	 * overwritten in place.
+	 *
+	 * @return Offset in arena where count components of format have to be
+	 *         written, in Intel byte order
+	 */
+	public int put(int tag, int format, int count)
+	{
+		// arrays may be reallocated by putEntry
+		int index = putEntry(tag, format, count);
+		return offsets[index];
+	}
+
+	/**
+	 * Stores value copied from TIFF data of given byte order.
+	 *
+	 * @return Index of entry
+	 */
+	public int put(int tag, int format, int count, byte[] data, int offset, boolean motorolaByteOrder)
+	{
+		int index = putEntry(tag, format, count);
+		System.arraycopy(data, offset, arena, offsets[index], getByteCount(index));
+		if (motorolaByteOrder)
+			fromMotorolaByteOrder(index);
+		return index;
+	}
+
+	/**
+	 * Converts value which was copied to arena in Motorola byte order, at
+	 * offset returned by put(tag, format, count), to Intel byte order.
+	 */
+	public void fromMotorolaByteOrder(int index)
+	{
+		int format = formats[index];
+		// rationals are pairs of 4B numbers
+		int width = format == FORMAT_UNSIGNED_RATIONAL || format == FORMAT_SIGNED_RATIONAL ? 4
+				: FORMAT_WIDTHS[format];
+		if (width < 2)
+			return;
+		int start = offsets[index];
+		int end = start + getByteCount(index);
+		for (int i = start; i < end; i += width)
+			reverse(arena, i, width);
+	}
+
+	/**
+	 * Stores value which has no raw form.
+	 *
+	 * @return Index of entry
+	 */
+	public int putObject(int tag, Object value)
+	{
+		int index = putEntry(tag, FORMAT_NONE, 0);
+		setObject(index, value);
+		return index;
+	}
+
+	public boolean remove(int tag)
+	{
+		int index = indexOf(tag);
+		if (index < 0)
+			return false;
+
+		int bytes = getByteCount(index);
+		arenaGarbage += bytes;
+		extraSize -= extraBytes(bytes);
+		int tail = size - index - 1;
+		System.arraycopy(tags, index + 1, tags, index, tail);
+		System.arraycopy(formats, index + 1, formats, index, tail);
+		System.arraycopy(counts, index + 1, counts, index, tail);
+		System.arraycopy(offsets, index + 1, offsets, index, tail);
+		if (objects != null)
+		{
+			System.arraycopy(objects, index + 1, objects, index, tail);
+			objects[size - 1] = null;
+		}
+		size--;
+		return true;
+	}
+
+	/**
+	 * Reads integral component of entry: byte, short or long, signed or
+	 * unsigned according to format. Unsigned long is returned as is, so values
+	 * above 2^31 come out negative.
+	 */
+	public int getInt(int index, int component)
+	{
+		int offset = offsets[index] + component * FORMAT_WIDTHS[formats[index]];
+		switch (formats[index])
+		{
+		case FORMAT_SIGNED_BYTE:
+			return arena[offset];
+		case FORMAT_UNSIGNED_SHORT:
+			return readUInt16(arena, offset);
+		case FORMAT_SIGNED_SHORT:
+			return (short) readUInt16(arena, offset);
+		case FORMAT_UNSIGNED_LONG:
+		case FORMAT_SIGNED_LONG:
+		case FORMAT_FLOAT:
+			return readInt32(arena, offset);
+		default:
+			return arena[offset] & 0xFF;
+		}
+	}
+
+	public void setInt(int index, int component, int value)
+	{
+		int width = FORMAT_WIDTHS[formats[index]];
+		writeNumber(arena, offsets[index] + component * width, value, width);
+	}
+
+	public int getNumerator(int index, int component)
+	{
+		return readInt32(arena, offsets[index] + component * 8);
+	}
+
+	public int getDenominator(int index, int component)
+	{
+		return readInt32(arena, offsets[index] + component * 8 + 4);
+	}
+
+	public void setRational(int index, int component, int numerator, int denominator)
+	{
+		int offset = offsets[index] + component * 8;
+		writeNumber(arena, offset, numerator, 4);
+		writeNumber(arena, offset + 4, denominator, 4);
+	}
+
+	// Size of directory with all its values, in bytes
+	public int getRequiredSpace()
+	{
+		// 2B number of entries, 4B offset of next directory
+		return 2 + size * ENTRY_SIZE + 4 + extraSize;
+	}
+
+	/**
+	 * Writes directory in Intel byte order, values which don't fit into entry
+	 * right after it. Offsets are relative to data start, as in TIFF.
+	 *
+	 * @param nextOffset
+	 *            Offset of next directory, 0 if none
+	 * @return Offset of first byte after the directory and its values
+	 */
+	public int write(byte[] data, int offset, int nextOffset)
+	{
+		int valuesOffset = offset + 2 + size * ENTRY_SIZE + 4;
+		writeNumber(data, offset, size, 2);
+		int entry = offset + 2;
+		for (int i = 0; i < size; i++)
+		{
+			if (formats[i] == FORMAT_NONE)
+				throw new IllegalStateException("Tag " + tags[i] + " has no raw value");
+
+			int bytes = getByteCount(i);
+			writeNumber(data, entry, tags[i], 2);
+			writeNumber(data, entry + 2, formats[i], 2);
+			writeNumber(data, entry + 4, counts[i], 4);
+			if (bytes > 4)
+			{
+				writeNumber(data, entry + 8, valuesOffset, 4);
+				System.arraycopy(arena, offsets[i], data, valuesOffset, bytes);
+				valuesOffset += bytes;
+			} else
+			{
+				writeNumber(data, entry + 8, 0, 4);
+				System.arraycopy(arena, offsets[i], data, entry + 8, bytes);
+			}
+			entry += ENTRY_SIZE;
+		}
+		writeNumber(data, entry, nextOffset, 4);
+		return valuesOffset;
+	}
+
+	// Intel byte order
+	public static void writeNumber(byte[] data, int offset, int value, int width)
+	{
+		for (int i = 0; i < width; i++)
+			data[offset + i] = (byte) (value >>> (i * 8));
+	}
+
+	public static int readUInt16(byte[] data, int offset)
+	{
+		return (data[offset] & 0xFF) | ((data[offset + 1] & 0xFF) << 8);
+	}
+
+	public static int readInt32(byte[] data, int offset)
+	{
+		return (data[offset] & 0xFF) | ((data[offset + 1] & 0xFF) << 8) | ((data[offset + 2] & 0xFF) << 16)
+				| (data[offset + 3] << 24);
+	}
+
+	private int putEntry(int tag, int format, int count)
+	{
+		if (format < 0 || format >= FORMAT_WIDTHS.length || count < 0)
+			throw new IllegalArgumentException("Bad format " + format + " or count " + count + " of tag " + tag);
+
+		int bytes = count * FORMAT_WIDTHS[format];
+		int index = indexOf(tag);
+		if (index >= 0)
+		{
+			int oldBytes = getByteCount(index);
+			extraSize -= extraBytes(oldBytes);
+			if (objects != null)
+				objects[index] = null;
+			if (oldBytes != bytes)
+			{
+				// entry holds nothing while arena is compacted
+				arenaGarbage += oldBytes;
+				counts[index] = 0;
+				offsets[index] = allocate(bytes);
+			}
+		} else
+		{
+			index = -index - 1;
+			insertEntry(index, tag);
+			offsets[index] = allocate(bytes);
+		}
+		formats[index] = format;
+		counts[index] = count;
+		extraSize += extraBytes(bytes);
+		return index;
+	}
+
+	private void insertEntry(int index, int tag)
+	{
+		if (size == tags.length)
+		{
+			int capacity = Math.max(INITIAL_CAPACITY, size * 2);
+			tags = Arrays.copyOf(tags, capacity);
+			formats = Arrays.copyOf(formats, capacity);
+			counts = Arrays.copyOf(counts, capacity);
+			offsets = Arrays.copyOf(offsets, capacity);
+			if (objects != null)
+				objects = Arrays.copyOf(objects, capacity);
+		}
+		int tail = size - index;
+		// Tags of IFD read from file are usually sorted already, so this is
+		// mostly an append
+		if (tail > 0)
+		{
+			System.arraycopy(tags, index, tags, index + 1, tail);
+			System.arraycopy(formats, index, formats, index + 1, tail);
+			System.arraycopy(counts, index, counts, index + 1, tail);
+			System.arraycopy(offsets, index, offsets, index + 1, tail);
+			if (objects != null)
+				System.arraycopy(objects, index, objects, index + 1, tail);
+		}
+		tags[index] = tag;
+		formats[index] = FORMAT_NONE;
+		counts[index] = 0;
+		offsets[index] = 0;
+		if (objects != null)
+			objects[index] = null;
+		size++;
+	}
+
+	private int allocate(int bytes)
+	{
+		if (arenaLength + bytes > arena.length)
+		{
+			if (arenaGarbage > 0)
+				compact();
+			if (arenaLength + bytes > arena.length)
+				arena = Arrays.copyOf(arena,
+						Math.max(arenaLength + bytes, Math.max(INITIAL_ARENA_SIZE, arena.length * 2)));
+		}
+		int offset = arenaLength;
+		arenaLength += bytes;
+		return offset;
+	}
+
+	// Moves live values to the start of arena, in entry order
+	private void compact()
+	{
+		byte[] compacted = new byte[arena.length];
+		int length = 0;
+		for (int i = 0; i < size; i++)
+		{
+			int bytes = getByteCount(i);
+			System.arraycopy(arena, offsets[i], compacted, length, bytes);
+			offsets[i] = length;
+			length += bytes;
+		}
+		arena = compacted;
+		arenaLength = length;
+		arenaGarbage = 0;
+	}
+
+	private static int extraBytes(int bytes)
+	{
+		return bytes > 4 ? bytes : 0;
+	}
+
+	private static void reverse(byte[] data, int offset, int length)
+	{
+		for (int i = offset, j = offset + length - 1; i < j; i++, j--)
+		{
+			byte b = data[i];
+			data[i] = data[j];
+			data[j] = b;
+		}
+	}
+}
@@ -37,6 +37,11 @@ public class ImageConversion
 {
 	public static native int JpegConvert(byte[] in, int sx, int sy, boolean rotate, boolean mirrored, int rotationDegree);
 	public static native int JpegConvertN(int in, int length, int sx, int sy, boolean rotate, boolean mirrored, int rotationDegree);
+	public static native int JpegConvertRange(byte[] in, int offset, int length, int sx, int sy, boolean rotate, boolean mirrored, int rotationDegree);
+	// Decodes jpeg to NV21 of sx*sy into caller's buffer. Jpeg 2, 4 or 8 times
+	// bigger is downscaled while decoding. Returns false if jpeg is broken or
+	// can't be scaled to sx*sy.
+	public static native boolean JpegDecodeToNV21(byte[] in, int offset, int length, byte[] out, int sx, int sy);
 
 	public static native void sumByteArraysNV21(byte[] data1, byte[] data2, byte[] out, int width, int height);
 
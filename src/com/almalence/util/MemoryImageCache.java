@@ -12,49 +12,154 @@ under the License.
 The Original Code is collection of files collectively known as Open Camera.
 
 The Initial Developer of the Original Code is Almalence Inc.
-Portions created by Initial Developer are Copyright (C) 2013 
+Portions created by Initial Developer are Copyright (C) 2013
 by Almalence Inc. All Rights Reserved.
  */
 
 package com.almalence.util;
 
 import java.io.File;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.os.Build;
 import android.support.v4.util.LruCache;
 
+/***
+ * Bitmap cache limited by size of bitmaps in bytes.
+ *
+ * Bitmaps evicted from cache, replaced or cleared are just dropped: view may
+ * still draw them, so they are neither reused nor recycled. Bitmaps which
+ * caller knows to be unused are given to reuse pool with releaseBitmap, pool
+ * keeps them bucketed by width, height and config. Decoders take them from
+ * pool with getReusableBitmap / obtainBitmap (for example as
+ * BitmapFactory.Options.inBitmap) instead of allocating new ones. Pool has
+ * its own byte limit, bitmaps above it are recycled.
+ *
+ * Bitmaps may be loaded in background by shared decode executor, loads of the
+ * same key are not started twice.
+ ***/
 public class MemoryImageCache
 {
-	private LruCache<String, Bitmap>	lruCache;
+	private static final int								DECODE_THREADS	= 2;
 
-	private final Object				mCacheLock	= new Object();
+	private static final ThreadPoolExecutor					decodeExecutor;
+	static
+	{
+		decodeExecutor = new ThreadPoolExecutor(DECODE_THREADS, DECODE_THREADS, 10, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory()
+				{
+					private int	count	= 0;
+
+					@Override
+					public synchronized Thread newThread(Runnable r)
+					{
+						Thread thread = new Thread(r, "ImageCache-decode-" + (++count));
+						thread.setPriority(Thread.MIN_PRIORITY);
+						return thread;
+					}
+				});
+		decodeExecutor.allowCoreThreadTimeOut(true);
+	}
 
-	public MemoryImageCache(int maxCount)
+	public interface Loader
 	{
-		lruCache = new LruCache<String, Bitmap>(maxCount);
+		// Called on decode thread. Returns null if bitmap can't be loaded.
+		Bitmap load(String key);
 	}
 
-	public void addBitmap(String key, Bitmap bitmap)
+	public interface OnBitmapLoadedListener
 	{
-		if (bitmap == null)
-			return;
+		// Called on decode thread after bitmap is put to cache
+		void onBitmapLoaded(String key, Bitmap bitmap);
+	}
+
+	private final LruCache<String, Bitmap>					lruCache;
 
-		if (lruCache != null)
+	// Reusable bitmaps by bucket, oldest buckets first
+	private final LinkedHashMap<Long, ArrayDeque<Bitmap>>	pool			= new LinkedHashMap<Long, ArrayDeque<Bitmap>>(
+																					16, 0.75f, true);
+	private final int										maxPoolBytes;
+	private long											poolBytes		= 0;
+
+	private final Set<String>								inFlight		= new HashSet<String>();
+	private OnBitmapLoadedListener							listener;
+
+	private final AtomicLong								hits			= new AtomicLong();
+	private final AtomicLong								misses			= new AtomicLong();
+	private final AtomicLong								evictions		= new AtomicLong();
+	private final AtomicLong								reused			= new AtomicLong();
+
+	/***
+	 * @param maxBytes
+	 *            size limit of cached bitmaps. The same limit is used for
+	 *            reuse pool.
+	 ***/
+	public MemoryImageCache(int maxBytes)
+	{
+		this(maxBytes, maxBytes);
+	}
+
+	public MemoryImageCache(int maxBytes, int maxPoolBytes)
+	{
+		this.maxPoolBytes = maxPoolBytes;
+		lruCache = new LruCache<String, Bitmap>(Math.max(maxBytes, 1))
 		{
-			if (getBitmap(key) == null)
+			@Override
+			protected int sizeOf(String key, Bitmap bitmap)
 			{
-				lruCache.put(key, bitmap);
-				return;
+				return getBitmapBytes(bitmap);
 			}
 
-			synchronized (mCacheLock)
+			// Removed bitmap may still be shown, it's left to GC
+			@Override
+			protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue)
 			{
-				lruCache.put(key, bitmap);
+				if (evicted && oldValue != newValue)
+					evictions.incrementAndGet();
 			}
+		};
+	}
+
+	public static int getBitmapBytes(Bitmap bitmap)
+	{
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT)
+			return bitmap.getAllocationByteCount();
+		return bitmap.getByteCount();
+	}
+
+	public void setOnBitmapLoadedListener(OnBitmapLoadedListener listener)
+	{
+		synchronized (inFlight)
+		{
+			this.listener = listener;
 		}
 	}
 
+	public void addBitmap(String key, Bitmap bitmap)
+	{
+		if (bitmap == null)
+			return;
+
+		lruCache.put(key, bitmap);
+	}
+
 	public void addBitmap(String key, File bitmapFile)
 	{
 		if (bitmapFile == null)
@@ -62,36 +167,276 @@ public class MemoryImageCache
 		if (!bitmapFile.exists())
 			return;
 
-		Bitmap bitmap = BitmapFactory.decodeFile(bitmapFile.getAbsolutePath());
-		if (lruCache != null)
+		addBitmap(key, decodeFile(bitmapFile));
+	}
+
+	public Bitmap getBitmap(String key)
+	{
+		Bitmap bitmap = lruCache.get(key);
+		if (bitmap != null)
+			hits.incrementAndGet();
+		else
+			misses.incrementAndGet();
+		return bitmap;
+	}
+
+	public void remove(String key)
+	{
+		lruCache.remove(key);
+	}
+
+	/***
+	 * Load bitmap in background if it's neither cached nor being loaded
+	 * already.
+	 ***/
+	public void load(final String key, final Loader loader)
+	{
+		if (lruCache.get(key) != null)
+			return;
+
+		synchronized (inFlight)
 		{
-			if (getBitmap(key) == null)
-			{
-				lruCache.put(key, bitmap);
+			if (!inFlight.add(key))
 				return;
+		}
+
+		decodeExecutor.execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				Bitmap bitmap = null;
+				try
+				{
+					bitmap = loader.load(key);
+					addBitmap(key, bitmap);
+				} catch (Exception e)
+				{
+					e.printStackTrace();
+				} catch (OutOfMemoryError e)
+				{
+					e.printStackTrace();
+				}
+
+				OnBitmapLoadedListener l;
+				synchronized (inFlight)
+				{
+					inFlight.remove(key);
+					l = listener;
+				}
+				if (bitmap != null && l != null)
+					l.onBitmapLoaded(key, bitmap);
 			}
+		});
+	}
 
-			synchronized (mCacheLock)
+	/***
+	 * Decode file reusing pooled bitmap of the same size if there is one.
+	 ***/
+	public Bitmap decodeFile(File file)
+	{
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inJustDecodeBounds = true;
+		BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+		options.inJustDecodeBounds = false;
+
+		Bitmap reusable = options.outWidth > 0 ? getReusableBitmap(options.outWidth, options.outHeight,
+				options.inPreferredConfig) : null;
+		if (reusable != null)
+		{
+			options.inBitmap = reusable;
+			options.inMutable = true;
+			try
 			{
-				lruCache.put(key, bitmap);
+				return BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+			} catch (IllegalArgumentException e)
+			{
+				// format of file doesn't allow reuse
+				releaseBitmap(reusable);
+				options.inBitmap = null;
 			}
 		}
+		return BitmapFactory.decodeFile(file.getAbsolutePath(), options);
 	}
 
-	public Bitmap getBitmap(String key)
+	/***
+	 * @return mutable bitmap from reuse pool or null. Content of the bitmap is
+	 *         undefined.
+	 ***/
+	public Bitmap getReusableBitmap(int width, int height, Bitmap.Config config)
 	{
-		synchronized (mCacheLock)
+		Long bucket = getBucket(width, height, config);
+		synchronized (pool)
 		{
-			if (lruCache != null)
+			ArrayDeque<Bitmap> bitmaps = pool.get(bucket);
+			if (bitmaps == null || bitmaps.isEmpty())
+				return null;
+
+			Bitmap bitmap = bitmaps.poll();
+			if (bitmaps.isEmpty())
+				pool.remove(bucket);
+			poolBytes -= getBitmapBytes(bitmap);
+			reused.incrementAndGet();
+			return bitmap;
+		}
+	}
+
+	/***
+	 * @return mutable bitmap from reuse pool or new one. Content of the bitmap
+	 *         is undefined.
+	 ***/
+	public Bitmap obtainBitmap(int width, int height, Bitmap.Config config)
+	{
+		Bitmap bitmap = getReusableBitmap(width, height, config);
+		if (bitmap == null)
+			bitmap = Bitmap.createBitmap(width, height, config);
+		return bitmap;
+	}
+
+	/***
+	 * Give bitmap which is not used anymore to reuse pool. Bitmap must not be
+	 * cached or shown, it's overwritten when taken from pool.
+	 ***/
+	public void releaseBitmap(Bitmap bitmap)
+	{
+		if (bitmap == null || bitmap.isRecycled())
+			return;
+
+		int bytes = getBitmapBytes(bitmap);
+		if (!bitmap.isMutable() || bytes > maxPoolBytes)
+		{
+			bitmap.recycle();
+			return;
+		}
+
+		synchronized (pool)
+		{
+			Long bucket = getBucket(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+			ArrayDeque<Bitmap> bitmaps = pool.get(bucket);
+			if (bitmaps == null)
 			{
-				return lruCache.get(key);
+				bitmaps = new ArrayDeque<Bitmap>();
+				pool.put(bucket, bitmaps);
 			}
+			bitmaps.add(bitmap);
+			poolBytes += bytes;
+			trimPoolLocked(maxPoolBytes);
 		}
-		return null;
 	}
 
+	/***
+	 * Recycle bitmaps of reuse pool until it takes no more than maxBytes,
+	 * least recently used buckets first.
+	 ***/
+	public void trimPool(long maxBytes)
+	{
+		synchronized (pool)
+		{
+			trimPoolLocked(maxBytes);
+		}
+	}
+
+	private void trimPoolLocked(long maxBytes)
+	{
+		Iterator<Map.Entry<Long, ArrayDeque<Bitmap>>> it = pool.entrySet().iterator();
+		while (poolBytes > maxBytes && it.hasNext())
+		{
+			ArrayDeque<Bitmap> oldest = it.next().getValue();
+			while (poolBytes > maxBytes && !oldest.isEmpty())
+			{
+				Bitmap old = oldest.poll();
+				poolBytes -= getBitmapBytes(old);
+				old.recycle();
+			}
+			if (oldest.isEmpty())
+				it.remove();
+		}
+	}
+
+	/***
+	 * Rotate bitmap by multiple of 90 degrees. Result is taken from reuse
+	 * pool, source is released to it.
+	 ***/
+	public Bitmap rotateBitmap(Bitmap source, int degrees)
+	{
+		if (degrees % 360 == 0)
+			return source;
+
+		Matrix matrix = new Matrix();
+		matrix.setRotate(degrees);
+		RectF bounds = new RectF(0, 0, source.getWidth(), source.getHeight());
+		matrix.mapRect(bounds);
+		matrix.postTranslate(-bounds.left, -bounds.top);
+
+		Bitmap rotated = obtainBitmap(Math.round(bounds.width()), Math.round(bounds.height()), source.getConfig());
+		new Canvas(rotated).drawBitmap(source, matrix, new Paint(Paint.FILTER_BITMAP_FLAG));
+		releaseBitmap(source);
+		return rotated;
+	}
+
+	/***
+	 * Remove all bitmaps from cache. They may still be shown, so they are
+	 * neither pooled nor recycled.
+	 ***/
 	public void clear()
 	{
 		lruCache.evictAll();
 	}
-}
\ No newline at end of file
+
+	/***
+	 * Remove all bitmaps from cache and recycle the whole reuse pool. Cache
+	 * stays usable.
+	 ***/
+	public void release()
+	{
+		lruCache.evictAll();
+		trimPool(0);
+	}
+
+	private static Long getBucket(int width, int height, Bitmap.Config config)
+	{
+		return Long.valueOf(((long) width << 32) | ((long) height << 8) | (config != null ? config.ordinal() : 0xFF));
+	}
+
+	public long getHits()
+	{
+		return hits.get();
+	}
+
+	public long getMisses()
+	{
+		return misses.get();
+	}
+
+	// bitmaps removed to keep cache in budget or by clear()
+	public long getEvictions()
+	{
+		return evictions.get();
+	}
+
+	// bitmaps taken from reuse pool instead of allocation
+	public long getReused()
+	{
+		return reused.get();
+	}
+
+	public int getBytes()
+	{
+		return lruCache.size();
+	}
+
+	public long getPoolBytes()
+	{
+		synchronized (pool)
+		{
+			return poolBytes;
+		}
+	}
+
+	@Override
+	public String toString()
+	{
+		return "MemoryImageCache: " + getBytes() + " bytes, pool " + getPoolBytes() + " bytes, hits " + getHits()
+				+ ", misses " + getMisses() + ", evictions " + getEvictions() + ", reused " + getReused();
+	}
+}
@@ -124,6 +124,17 @@ public interface BufferReader
     @NotNull
     byte[] getBytes(int index, int count) throws BufferBoundsException;
 
+    /**
+     * Copies a sequence of bytes into a buffer of the caller, without allocating an array.
+     *
+     * @param index      position within the data buffer of the first byte
+     * @param count      the number of bytes to copy
+     * @param dest       the buffer to copy the bytes into
+     * @param destOffset position within <code>dest</code> of the first copied byte
+     * @throws BufferBoundsException the buffer does not contain enough bytes to service the request, or index is negative
+     */
+    void getBytes(int index, int count, @NotNull byte[] dest, int destOffset) throws BufferBoundsException;
+
     @NotNull
     String getString(int index, int bytesRequested) throws BufferBoundsException;
 
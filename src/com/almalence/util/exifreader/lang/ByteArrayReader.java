@@ -229,6 +229,14 @@ public class ByteArrayReader implements BufferReader
         return bytes;
     }
 
+    @Override
+    public void getBytes(int index, int count, @NotNull byte[] dest, int destOffset) throws BufferBoundsException
+    {
+        checkBounds(index, count);
+
+        System.arraycopy(_buffer, index, dest, destOffset, count);
+    }
+
     @Override
     @NotNull
     public String getString(int index, int bytesRequested) throws BufferBoundsException
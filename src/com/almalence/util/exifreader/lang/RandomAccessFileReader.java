@@ -281,6 +281,23 @@ public class RandomAccessFileReader implements BufferReader
         return bytes;
     }
 
+    @Override
+    public void getBytes(int index, int count, @NotNull byte[] dest, int destOffset) throws BufferBoundsException
+    {
+        checkBounds(index, count);
+        seek(index);
+
+        final int bytesRead;
+        try {
+            bytesRead = _file.read(dest, destOffset, count);
+            _currentIndex += bytesRead;
+        } catch (IOException e) {
+            throw new BufferBoundsException("Unexpected end of file encountered.", e);
+        }
+        if (bytesRead != count)
+            throw new BufferBoundsException("Unexpected end of file encountered.");
+    }
+
     @Override
     @NotNull
     public String getString(int index, int bytesRequested) throws BufferBoundsException
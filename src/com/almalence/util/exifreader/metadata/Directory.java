@@ -20,6 +20,9 @@
  */
 package com.almalence.util.exifreader.metadata;
 
+import com.almalence.util.IfdTable;
+import com.almalence.util.exifreader.lang.BufferBoundsException;
+import com.almalence.util.exifreader.lang.BufferReader;
 import com.almalence.util.exifreader.lang.Rational;
 import com.almalence.util.exifreader.lang.annotations.NotNull;
 import com.almalence.util.exifreader.lang.annotations.Nullable;
@@ -41,9 +44,12 @@ import java.util.*;
 public abstract class Directory
 {
 
-    /** Map of values hashed by type identifiers. */
+    /**
+     * Values sorted by tag type identifiers. Integer and rational values read from TIFF data are kept raw and
+     * converted to objects on first access, all other values are stored as objects.
+     */
     @NotNull
-    protected final Map<Integer, Object> _tagMap = new HashMap<Integer, Object>();
+    protected final IfdTable _tagTable = new IfdTable();
 
     /**
      * A convenient list holding tag values in the order in which they were stored.
@@ -88,10 +94,9 @@ public abstract class Directory
      * @param tagType the tag type to check for
      * @return true if a value exists for the specified tag type, false if not
      */
-    @java.lang.SuppressWarnings({ "UnnecessaryBoxing" })
     public boolean containsTag(int tagType)
     {
-        return _tagMap.containsKey(Integer.valueOf(tagType));
+        return _tagTable.contains(tagType);
     }
 
     /**
@@ -331,16 +336,48 @@ public abstract class Directory
      * @param value   the value for the specified tag
      * @throws NullPointerException if value is <code>null</code>
      */
-    @java.lang.SuppressWarnings( { "ConstantConditions", "UnnecessaryBoxing" })
+    @java.lang.SuppressWarnings( { "ConstantConditions" })
     public void setObject(int tagType, @NotNull Object value)
     {
         if (value == null)
             throw new NullPointerException("cannot set a null object");
 
-        if (!_tagMap.containsKey(Integer.valueOf(tagType))) {
+        if (!_tagTable.contains(tagType)) {
             _definedTagList.add(new Tag(tagType, this));
         }
-        _tagMap.put(tagType, value);
+        _tagTable.putObject(tagType, value);
+    }
+
+    /**
+     * Sets the raw value of an integer or rational TIFF tag.  The value is copied from the reader straight into
+     * the tag table, and converted to the same object <code>setInt</code>, <code>setIntArray</code>,
+     * <code>setRational</code> or <code>setRationalArray</code> would store only when first requested.
+     * <code>getInt</code> reads single integers without conversion.
+     *
+     * @param tagType        the tag identifier
+     * @param formatCode     the TIFF format code of the value
+     * @param componentCount the number of components, at least one for rationals
+     * @param reader         the reader holding the value, in its current byte order
+     * @param offset         the offset of the value within the reader
+     * @throws IllegalArgumentException if the format is not an integer or rational one
+     * @throws BufferBoundsException    if the value is outside of the reader, the tag is not set then
+     */
+    public void setRawValue(int tagType, int formatCode, int componentCount, @NotNull BufferReader reader, int offset) throws BufferBoundsException
+    {
+        if (!isRawIntegerFormat(formatCode) && !isRawRationalFormat(formatCode))
+            throw new IllegalArgumentException("Unsupported raw format code " + formatCode);
+
+        final int byteCount = componentCount * IfdTable.FORMAT_WIDTHS[formatCode];
+        if (offset < 0 || componentCount < 0 || (long)offset + byteCount > reader.getLength())
+            throw new BufferBoundsException("Attempt to read " + byteCount + " bytes at " + offset + " from buffer of " + reader.getLength() + " bytes");
+
+        if (!_tagTable.contains(tagType)) {
+            _definedTagList.add(new Tag(tagType, this));
+        }
+        int arenaOffset = _tagTable.put(tagType, formatCode, componentCount);
+        reader.getBytes(offset, byteCount, _tagTable.getArena(), arenaOffset);
+        if (reader.isMotorolaByteOrder())
+            _tagTable.fromMotorolaByteOrder(_tagTable.indexOf(tagType));
     }
 
     /**
@@ -374,6 +411,11 @@ public abstract class Directory
      */
     public int getInt(int tagType) throws MetadataException
     {
+        // single raw integer, no conversion needed
+        int index = _tagTable.indexOf(tagType);
+        if (index >= 0 && _tagTable.getCount(index) == 1 && isRawIntegerFormat(_tagTable.getFormat(index)))
+            return _tagTable.getInt(index, 0);
+
         Integer integer = getInteger(tagType);
         if (integer!=null)
             return integer;
@@ -859,11 +901,72 @@ public abstract class Directory
      * @param tagType the tag type identifier
      * @return the tag's value as an Object if available, else <code>null</code>
      */
-    @java.lang.SuppressWarnings({ "UnnecessaryBoxing" })
     @Nullable
     public Object getObject(int tagType)
     {
-        return _tagMap.get(Integer.valueOf(tagType));
+        int index = _tagTable.indexOf(tagType);
+        if (index < 0)
+            return null;
+
+        Object value = _tagTable.getObject(index);
+        if (value == null) {
+            value = decodeRawValue(index);
+            _tagTable.setObject(index, value);
+        }
+        return value;
+    }
+
+    /**
+     * Converts raw value of the entry to the object it would have been stored as by ExifReader: Integer or int[]
+     * for integer formats, Rational or Rational[] for rational ones.
+     */
+    @Nullable
+    private Object decodeRawValue(int index)
+    {
+        int format = _tagTable.getFormat(index);
+        int count = _tagTable.getCount(index);
+        if (isRawIntegerFormat(format)) {
+            if (count == 1)
+                return _tagTable.getInt(index, 0);
+            int[] ints = new int[count];
+            for (int i = 0; i < count; i++)
+                ints[i] = _tagTable.getInt(index, i);
+            return ints;
+        }
+        if (isRawRationalFormat(format)) {
+            Rational[] rationals = new Rational[count];
+            for (int i = 0; i < count; i++) {
+                long numerator = _tagTable.getNumerator(index, i);
+                long denominator = _tagTable.getDenominator(index, i);
+                if (format == IfdTable.FORMAT_UNSIGNED_RATIONAL) {
+                    numerator &= 0xFFFFFFFFL;
+                    denominator &= 0xFFFFFFFFL;
+                }
+                rationals[i] = new Rational(numerator, denominator);
+            }
+            return count == 1 ? rationals[0] : rationals;
+        }
+        return null;
+    }
+
+    private static boolean isRawIntegerFormat(int formatCode)
+    {
+        switch (formatCode) {
+            case IfdTable.FORMAT_UNSIGNED_BYTE:
+            case IfdTable.FORMAT_SIGNED_BYTE:
+            case IfdTable.FORMAT_UNSIGNED_SHORT:
+            case IfdTable.FORMAT_SIGNED_SHORT:
+            case IfdTable.FORMAT_UNSIGNED_LONG:
+            case IfdTable.FORMAT_SIGNED_LONG:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isRawRationalFormat(int formatCode)
+    {
+        return formatCode == IfdTable.FORMAT_UNSIGNED_RATIONAL || formatCode == IfdTable.FORMAT_SIGNED_RATIONAL;
     }
 
 // OTHER METHODS
@@ -314,24 +314,10 @@ public class ExifReader implements MetadataReader
                 directory.setString(tagType, string);
                 break;
             case FMT_SRATIONAL:
-                if (componentCount == 1) {
-                    directory.setRational(tagType, new Rational(reader.getInt32(tagValueOffset), reader.getInt32(tagValueOffset + 4)));
-                } else if (componentCount > 1) {
-                    Rational[] rationals = new Rational[componentCount];
-                    for (int i = 0; i < componentCount; i++)
-                        rationals[i] = new Rational(reader.getInt32(tagValueOffset + (8 * i)), reader.getInt32(tagValueOffset + 4 + (8 * i)));
-                    directory.setRationalArray(tagType, rationals);
-                }
-                break;
             case FMT_URATIONAL:
-                if (componentCount == 1) {
-                    directory.setRational(tagType, new Rational(reader.getUInt32(tagValueOffset), reader.getUInt32(tagValueOffset + 4)));
-                } else if (componentCount > 1) {
-                    Rational[] rationals = new Rational[componentCount];
-                    for (int i = 0; i < componentCount; i++)
-                        rationals[i] = new Rational(reader.getUInt32(tagValueOffset + (8 * i)), reader.getUInt32(tagValueOffset + 4 + (8 * i)));
-                    directory.setRationalArray(tagType, rationals);
-                }
+                // raw value is converted to Rational or Rational[] when requested
+                if (componentCount > 0)
+                    directory.setRawValue(tagType, formatCode, componentCount, reader, tagValueOffset);
                 break;
             case FMT_SINGLE:
                 if (componentCount == 1) {
@@ -356,62 +342,17 @@ public class ExifReader implements MetadataReader
 
             //
             // Note that all integral types are stored as int32 internally (the largest supported by TIFF)
+            // Directory keeps them raw and converts to Integer or int[] when requested
             //
 
             case FMT_SBYTE:
-                if (componentCount == 1) {
-                    directory.setInt(tagType, reader.getInt8(tagValueOffset));
-                } else {
-                    int[] bytes = new int[componentCount];
-                    for (int i = 0; i < componentCount; i++)
-                        bytes[i] = reader.getInt8(tagValueOffset + i);
-                    directory.setIntArray(tagType, bytes);
-                }
-                break;
             case FMT_BYTE:
-                if (componentCount == 1) {
-                    directory.setInt(tagType, reader.getUInt8(tagValueOffset));
-                } else {
-                    int[] bytes = new int[componentCount];
-                    for (int i = 0; i < componentCount; i++)
-                        bytes[i] = reader.getUInt8(tagValueOffset + i);
-                    directory.setIntArray(tagType, bytes);
-                }
-                break;
             case FMT_USHORT:
-                if (componentCount == 1) {
-                    int i = reader.getUInt16(tagValueOffset);
-                    directory.setInt(tagType, i);
-                } else {
-                    int[] ints = new int[componentCount];
-                    for (int i = 0; i < componentCount; i++)
-                        ints[i] = reader.getUInt16(tagValueOffset + (i * 2));
-                    directory.setIntArray(tagType, ints);
-                }
-                break;
             case FMT_SSHORT:
-                if (componentCount == 1) {
-                    int i = reader.getInt16(tagValueOffset);
-                    directory.setInt(tagType, i);
-                } else {
-                    int[] ints = new int[componentCount];
-                    for (int i = 0; i < componentCount; i++)
-                        ints[i] = reader.getInt16(tagValueOffset + (i * 2));
-                    directory.setIntArray(tagType, ints);
-                }
-                break;
             case FMT_SLONG:
             case FMT_ULONG:
                 // NOTE 'long' in this case means 32 bit, not 64
-                if (componentCount == 1) {
-                    int i = reader.getInt32(tagValueOffset);
-                    directory.setInt(tagType, i);
-                } else {
-                    int[] ints = new int[componentCount];
-                    for (int i = 0; i < componentCount; i++)
-                        ints[i] = reader.getInt32(tagValueOffset + (i * 4));
-                    directory.setIntArray(tagType, ints);
-                }
+                directory.setRawValue(tagType, formatCode, componentCount, reader, tagValueOffset);
                 break;
             default:
                 directory.addError("Unknown format code " + formatCode + " for tag " + tagType);
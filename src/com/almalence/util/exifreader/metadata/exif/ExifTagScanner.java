@@ -0,0 +1,468 @@
+/*
+ * Copyright 2002-2012 Drew Noakes
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ * More information about this project is available at:
+ *
+ *    http://drewnoakes.com/code/exif/
+ *    http://code.google.com/p/metadata-extractor/
+ */
+package com.almalence.util.exifreader.metadata.exif;
+
+import com.almalence.util.exifreader.lang.Rational;
+import com.almalence.util.exifreader.lang.annotations.NotNull;
+import com.almalence.util.exifreader.lang.annotations.Nullable;
+
+/**
+ * Reads a fixed set of tags from IFD0 and Exif SubIFD of a jpeg held in memory, without building
+ * <code>Metadata</code>.
+ * <p/>
+ * Segments are walked in place up to the first Exif APP1 segment, nothing is copied out of the jpeg.
+ * For every requested tag only its format, component count and value offset are kept, values are
+ * decoded when asked for. Tags are found the same way <code>ExifReader</code> finds them and
+ * <code>getString</code> returns the same text as <code>Directory.getString</code>, so this is a
+ * drop-in replacement for callers which need a few known tags of every captured frame.
+ * <p/>
+ * A scanner keeps the jpeg array until the next scan and is not thread-safe.
+ */
+public class ExifTagScanner
+{
+    public static final int IFD0 = 0;
+    public static final int SUB_IFD = 1;
+
+    private static final int[] BYTES_PER_FORMAT = { 0, 1, 1, 2, 4, 8, 1, 1, 2, 4, 8, 4, 8 };
+    private static final int MAX_FORMAT_CODE = 12;
+
+    private static final int FMT_BYTE = 1;
+    private static final int FMT_STRING = 2;
+    private static final int FMT_USHORT = 3;
+    private static final int FMT_ULONG = 4;
+    private static final int FMT_URATIONAL = 5;
+    private static final int FMT_SBYTE = 6;
+    private static final int FMT_UNDEFINED = 7;
+    private static final int FMT_SSHORT = 8;
+    private static final int FMT_SLONG = 9;
+    private static final int FMT_SRATIONAL = 10;
+    private static final int FMT_SINGLE = 11;
+    private static final int FMT_DOUBLE = 12;
+
+    private static final int MARKER_SOS = 0xDA;
+    private static final int MARKER_EOI = 0xD9;
+    private static final int MARKER_APP1 = 0xE1;
+
+    private static final int TIFF_HEADER_START_OFFSET = ExifReader.TIFF_HEADER_START_OFFSET;
+
+    /** IFD chains longer than this are treated as broken, ExifReader would only be looping through them. */
+    private static final int MAX_DIRECTORIES = 8;
+
+    // requested tags, IFD0 ones first
+    private final int[] _tags;
+    private final int _ifd0TagCount;
+
+    // per requested tag, valid if _format[i] != 0
+    private final int[] _format;
+    private final int[] _count;
+    private final int[] _valueOffset;
+
+    private final int[] _visitedDirectories = new int[MAX_DIRECTORIES];
+    private int _visitedCount;
+
+    private byte[] _buffer;
+    // start of Exif segment in _buffer, value offsets are relative to it
+    private int _segmentStart;
+    private int _segmentLength;
+    private boolean _isMotorolaByteOrder;
+
+    /**
+     * @param ifd0Tags   tags to read from IFD0, like <code>ExifIFD0Directory.TAG_MAKE</code>
+     * @param subIfdTags tags to read from Exif SubIFD, like <code>ExifSubIFDDirectory.TAG_FNUMBER</code>
+     */
+    public ExifTagScanner(@NotNull int[] ifd0Tags, @NotNull int[] subIfdTags)
+    {
+        _ifd0TagCount = ifd0Tags.length;
+        _tags = new int[ifd0Tags.length + subIfdTags.length];
+        System.arraycopy(ifd0Tags, 0, _tags, 0, ifd0Tags.length);
+        System.arraycopy(subIfdTags, 0, _tags, ifd0Tags.length, subIfdTags.length);
+        _format = new int[_tags.length];
+        _count = new int[_tags.length];
+        _valueOffset = new int[_tags.length];
+    }
+
+    /**
+     * Finds requested tags in jpeg, forgetting results of previous scan.
+     *
+     * @return false if jpeg is broken before Exif segment or has none
+     */
+    public boolean scan(@NotNull byte[] jpeg)
+    {
+        return scan(jpeg, 0, jpeg.length);
+    }
+
+    /**
+     * Finds requested tags in jpeg stored in part of array, forgetting results of previous scan.
+     *
+     * @return false if jpeg is broken before Exif segment or has none
+     */
+    public boolean scan(@NotNull byte[] jpeg, int offset, int length)
+    {
+        for (int i = 0; i < _format.length; i++)
+            _format[i] = 0;
+        _visitedCount = 0;
+        _buffer = jpeg;
+        _segmentStart = 0;
+        _segmentLength = 0;
+
+        final int end = offset + length;
+        if (length < 2 || (jpeg[offset] & 0xFF) != 0xFF || (jpeg[offset + 1] & 0xFF) != 0xD8)
+            return false;
+
+        int pos = offset + 2;
+        while (pos + 4 <= end) {
+            if ((jpeg[pos] & 0xFF) != 0xFF)
+                return false;
+            final int marker = jpeg[pos + 1] & 0xFF;
+            // segment length includes size bytes
+            final int segmentLength = (((jpeg[pos + 2] & 0xFF) << 8) | (jpeg[pos + 3] & 0xFF)) - 2;
+            final int segmentStart = pos + 4;
+            if (segmentLength < 0 || segmentStart + segmentLength > end)
+                return false;
+            if (marker == MARKER_SOS || marker == MARKER_EOI)
+                return false;
+
+            if (marker == MARKER_APP1 && segmentLength > 3 && isExifSegment(jpeg, segmentStart)) {
+                _segmentStart = segmentStart;
+                _segmentLength = segmentLength;
+                extract();
+                return true;
+            }
+            pos = segmentStart + segmentLength;
+        }
+        return false;
+    }
+
+    /** Whether tag was found by last scan. */
+    public boolean hasTag(int directory, int tagType)
+    {
+        return indexOf(directory, tagType) >= 0;
+    }
+
+    /**
+     * Returns integral tag value, or the first one of an array.
+     *
+     * @return the value, or <code>defaultValue</code> if tag wasn't found or isn't integral
+     */
+    public int getInt(int directory, int tagType, int defaultValue)
+    {
+        final int i = indexOf(directory, tagType);
+        if (i < 0 || _count[i] < 1)
+            return defaultValue;
+        final int offset = _valueOffset[i];
+        switch (_format[i]) {
+            case FMT_BYTE:
+                return getUInt8(offset);
+            case FMT_SBYTE:
+                return _buffer[_segmentStart + offset];
+            case FMT_USHORT:
+                return getUInt16(offset);
+            case FMT_SSHORT:
+                return (short)getUInt16(offset);
+            case FMT_SLONG:
+            case FMT_ULONG:
+                return getInt32(offset);
+            default:
+                return defaultValue;
+        }
+    }
+
+    /**
+     * Returns numeric tag value as double, first one of an array.
+     *
+     * @return the value, or <code>defaultValue</code> if tag wasn't found or isn't numeric
+     */
+    public double getDouble(int directory, int tagType, double defaultValue)
+    {
+        final int i = indexOf(directory, tagType);
+        if (i < 0 || _count[i] < 1)
+            return defaultValue;
+        final int offset = _valueOffset[i];
+        switch (_format[i]) {
+            case FMT_URATIONAL:
+                return (double)getUInt32(offset) / getUInt32(offset + 4);
+            case FMT_SRATIONAL:
+                return (double)getInt32(offset) / getInt32(offset + 4);
+            case FMT_SINGLE:
+                return Float.intBitsToFloat(getInt32(offset));
+            case FMT_DOUBLE:
+                return Double.longBitsToDouble(getInt64(offset));
+            case FMT_STRING:
+            case FMT_UNDEFINED:
+                return defaultValue;
+            default:
+                return getInt(directory, tagType, 0);
+        }
+    }
+
+    /**
+     * Returns tag value as text, formatted the same way as <code>Directory.getString</code> does.
+     *
+     * @return the text, or <code>null</code> if tag wasn't found
+     */
+    @Nullable
+    public String getString(int directory, int tagType)
+    {
+        final int i = indexOf(directory, tagType);
+        if (i < 0)
+            return null;
+
+        final int format = _format[i];
+        final int count = _count[i];
+        final int offset = _valueOffset[i];
+
+        if (format == FMT_STRING) {
+            int length = 0;
+            while (length < count && _buffer[_segmentStart + offset + length] != '\0')
+                length++;
+            return new String(_buffer, _segmentStart + offset, length);
+        }
+
+        if ((format == FMT_URATIONAL || format == FMT_SRATIONAL) && count == 1)
+            return getRational(format, offset).toSimpleString(true);
+
+        if (count == 1 && format != FMT_UNDEFINED) {
+            if (format == FMT_SINGLE)
+                return Float.toString(Float.intBitsToFloat(getInt32(offset)));
+            if (format == FMT_DOUBLE)
+                return Double.toString(Double.longBitsToDouble(getInt64(offset)));
+            return Integer.toString(getInt(directory, tagType, 0));
+        }
+
+        // arrays are space separated
+        final int size = BYTES_PER_FORMAT[format];
+        StringBuilder string = new StringBuilder();
+        for (int n = 0; n < count; n++) {
+            if (n != 0)
+                string.append(' ');
+            final int valueOffset = offset + n * size;
+            switch (format) {
+                case FMT_UNDEFINED:
+                case FMT_SBYTE:
+                    string.append(_buffer[_segmentStart + valueOffset]);
+                    break;
+                case FMT_BYTE:
+                    string.append(getUInt8(valueOffset));
+                    break;
+                case FMT_USHORT:
+                    string.append(getUInt16(valueOffset));
+                    break;
+                case FMT_SSHORT:
+                    string.append((short)getUInt16(valueOffset));
+                    break;
+                case FMT_SLONG:
+                case FMT_ULONG:
+                    string.append(getInt32(valueOffset));
+                    break;
+                case FMT_URATIONAL:
+                case FMT_SRATIONAL:
+                    string.append(getRational(format, valueOffset).toString());
+                    break;
+                case FMT_SINGLE:
+                    string.append(Float.intBitsToFloat(getInt32(valueOffset)));
+                    break;
+                case FMT_DOUBLE:
+                    string.append(Double.longBitsToDouble(getInt64(valueOffset)));
+                    break;
+            }
+        }
+        return string.toString();
+    }
+
+    // index of requested tag which was found by last scan
+    private int indexOf(int directory, int tagType)
+    {
+        final int i = indexOfRequested(directory, tagType);
+        return i >= 0 && _format[i] != 0 ? i : -1;
+    }
+
+    private static boolean isExifSegment(byte[] jpeg, int start)
+    {
+        // same check as JpegMetadataReader, case doesn't matter
+        return (jpeg[start] == 'E' || jpeg[start] == 'e')
+                && (jpeg[start + 1] == 'X' || jpeg[start + 1] == 'x')
+                && (jpeg[start + 2] == 'I' || jpeg[start + 2] == 'i')
+                && (jpeg[start + 3] == 'F' || jpeg[start + 3] == 'f');
+    }
+
+    // Mirrors ExifReader.extract and extractIFD
+    private void extract()
+    {
+        if (_segmentLength <= 14)
+            return;
+        final int start = _segmentStart;
+        if (_buffer[start + 4] != 0 || _buffer[start + 5] != 0
+                || _buffer[start] != 'E' || _buffer[start + 1] != 'x' || _buffer[start + 2] != 'i' || _buffer[start + 3] != 'f')
+            return;
+
+        final int tiffHeaderOffset = TIFF_HEADER_START_OFFSET;
+        final byte first = _buffer[start + tiffHeaderOffset];
+        final byte second = _buffer[start + tiffHeaderOffset + 1];
+        if (first == 'M' && second == 'M')
+            _isMotorolaByteOrder = true;
+        else if (first == 'I' && second == 'I')
+            _isMotorolaByteOrder = false;
+        else
+            return;
+
+        final int tiffMarker = getUInt16(2 + tiffHeaderOffset);
+        if (tiffMarker != 0x002A && tiffMarker != 0x4F52 && tiffMarker != 0x0055)
+            return;
+
+        int firstDirectoryOffset = getInt32(4 + tiffHeaderOffset) + tiffHeaderOffset;
+        if (firstDirectoryOffset >= _segmentLength - 1)
+            firstDirectoryOffset = 14;
+
+        processDirectory(IFD0, firstDirectoryOffset, tiffHeaderOffset);
+    }
+
+    /**
+     * Mirrors ExifReader.processDirectory, remembering requested tags instead of storing values.
+     *
+     * @return false if segment ended prematurely, which stops ExifReader too
+     */
+    private boolean processDirectory(int directory, int dirStartOffset, int tiffHeaderOffset)
+    {
+        for (int i = 0; i < _visitedCount; i++) {
+            if (_visitedDirectories[i] == dirStartOffset)
+                return true;
+        }
+        if (_visitedCount == MAX_DIRECTORIES)
+            return true;
+        _visitedDirectories[_visitedCount++] = dirStartOffset;
+
+        if (dirStartOffset >= _segmentLength || dirStartOffset < 0)
+            return true;
+        if (dirStartOffset + 2 > _segmentLength)
+            return false;
+
+        final int dirTagCount = getUInt16(dirStartOffset);
+        final int dirLength = (2 + (12 * dirTagCount) + 4);
+        if (dirLength + dirStartOffset > _segmentLength)
+            return true;
+
+        for (int tagNumber = 0; tagNumber < dirTagCount; tagNumber++) {
+            final int tagOffset = dirStartOffset + 2 + (12 * tagNumber);
+
+            final int tagType = getUInt16(tagOffset);
+            final int formatCode = getUInt16(tagOffset + 2);
+            if (formatCode < 1 || formatCode > MAX_FORMAT_CODE)
+                return true;
+
+            final int componentCount = getInt32(tagOffset + 4);
+            if (componentCount < 0)
+                continue;
+            // byteCount would overflow, ExifReader ends up out of bounds
+            if (componentCount > _segmentLength / BYTES_PER_FORMAT[formatCode])
+                return false;
+            final int byteCount = componentCount * BYTES_PER_FORMAT[formatCode];
+            final int tagValueOffset;
+            if (byteCount > 4) {
+                final int offsetVal = getInt32(tagOffset + 8);
+                if (offsetVal + byteCount > _segmentLength)
+                    continue;
+                tagValueOffset = tiffHeaderOffset + offsetVal;
+            } else {
+                tagValueOffset = tagOffset + 8;
+            }
+
+            if (tagValueOffset < 0 || tagValueOffset > _segmentLength)
+                continue;
+            if (byteCount < 0 || tagValueOffset + byteCount > _segmentLength)
+                continue;
+
+            switch (tagType) {
+                case ExifReader.TAG_EXIF_SUB_IFD_OFFSET:
+                    if (tagValueOffset + 4 > _segmentLength)
+                        return false;
+                    if (!processDirectory(SUB_IFD, tiffHeaderOffset + getInt32(tagValueOffset), tiffHeaderOffset))
+                        return false;
+                    continue;
+                case ExifReader.TAG_MAKER_NOTE_OFFSET:
+                    continue;
+                default:
+                    // ExifReader stores nothing for empty rationals
+                    if (componentCount == 0 && (formatCode == FMT_URATIONAL || formatCode == FMT_SRATIONAL))
+                        continue;
+                    final int i = indexOfRequested(directory, tagType);
+                    if (i >= 0) {
+                        _format[i] = formatCode;
+                        _count[i] = componentCount;
+                        _valueOffset[i] = tagValueOffset;
+                    }
+                    break;
+            }
+        }
+        return true;
+    }
+
+    private int indexOfRequested(int directory, int tagType)
+    {
+        final int from = directory == IFD0 ? 0 : _ifd0TagCount;
+        final int to = directory == IFD0 ? _ifd0TagCount : _tags.length;
+        for (int i = from; i < to; i++) {
+            if (_tags[i] == tagType)
+                return i;
+        }
+        return -1;
+    }
+
+    private Rational getRational(int format, int offset)
+    {
+        if (format == FMT_SRATIONAL)
+            return new Rational(getInt32(offset), getInt32(offset + 4));
+        return new Rational(getUInt32(offset), getUInt32(offset + 4));
+    }
+
+    // Readers of segment relative offsets, in byte order of the Exif data
+
+    private int getUInt8(int offset)
+    {
+        return _buffer[_segmentStart + offset] & 0xFF;
+    }
+
+    private int getUInt16(int offset)
+    {
+        final int b0 = _buffer[_segmentStart + offset] & 0xFF;
+        final int b1 = _buffer[_segmentStart + offset + 1] & 0xFF;
+        return _isMotorolaByteOrder ? (b0 << 8) | b1 : (b1 << 8) | b0;
+    }
+
+    private int getInt32(int offset)
+    {
+        final int p = _segmentStart + offset;
+        if (_isMotorolaByteOrder)
+            return ((_buffer[p] & 0xFF) << 24) | ((_buffer[p + 1] & 0xFF) << 16) | ((_buffer[p + 2] & 0xFF) << 8) | (_buffer[p + 3] & 0xFF);
+        return ((_buffer[p + 3] & 0xFF) << 24) | ((_buffer[p + 2] & 0xFF) << 16) | ((_buffer[p + 1] & 0xFF) << 8) | (_buffer[p] & 0xFF);
+    }
+
+    private long getUInt32(int offset)
+    {
+        return getInt32(offset) & 0xFFFFFFFFL;
+    }
+
+    private long getInt64(int offset)
+    {
+        final long first = getUInt32(offset);
+        final long second = getUInt32(offset + 4);
+        return _isMotorolaByteOrder ? (first << 32) | second : (second << 32) | first;
+    }
+}
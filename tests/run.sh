@@ -0,0 +1,43 @@
+#!/bin/sh
+#
+# Runs JVM harnesses of classes which don't depend on Android framework.
+#
+# Harnesses are in tests/src, minimal stand-ins of framework classes they
+# touch are in tests/stubs. Every harness is a class with main method named
+# *Test (checks) or *Bench (numbers only), it's compiled together with
+# sources it uses and run on desktop JVM.
+#
+# Usage: tests/run.sh [class name ...], all harnesses by default.
+
+cd "$(dirname "$0")/.." || exit 1
+
+OUT="${TMPDIR:-/tmp}/opencamera-tests"
+SOURCEPATH="tests/src:tests/stubs:src"
+LIBS="libs/xzing-2.1/core.jar:libs/android-support-v13.jar"
+
+if [ $# -gt 0 ]; then
+	HARNESSES="$*"
+else
+	HARNESSES=$(cd tests/src && find . -name '*Test.java' -o -name '*Bench.java' | sed 's|^\./||; s|\.java$||; s|/|.|g' | sort)
+fi
+
+failed=0
+for harness in $HARNESSES; do
+	echo "== $harness"
+	file="tests/src/$(echo "$harness" | tr . /).java"
+	rm -rf "$OUT/$harness"
+	mkdir -p "$OUT/$harness"
+	if ! javac -nowarn -encoding UTF-8 -cp "$LIBS" -sourcepath "$SOURCEPATH" -d "$OUT/$harness" "$file"; then
+		failed=$((failed + 1))
+		continue
+	fi
+	if ! java -ea -cp "$OUT/$harness:$LIBS" "$harness"; then
+		failed=$((failed + 1))
+	fi
+done
+
+if [ $failed -gt 0 ]; then
+	echo "$failed harness(es) failed"
+	exit 1
+fi
+echo "all passed"
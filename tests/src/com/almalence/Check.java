@@ -0,0 +1,53 @@
+/*
+The contents of this file are subject to the Mozilla Public License
+Version 1.1 (the "License"); you may not use this file except in
+compliance with the License. You may obtain a copy of the License at
+http://www.mozilla.org/MPL/
+
+Software distributed under the License is distributed on an "AS IS"
+basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+License for the specific language governing rights and limitations
+under the License.
+
+The Original Code is collection of files collectively known as Open Camera.
+
+The Initial Developer of the Original Code is Almalence Inc.
+Portions created by Initial Developer are Copyright (C) 2013
+by Almalence Inc. All Rights Reserved.
+ */
+
+package com.almalence;
+
+/***
+ * Assertions of JVM harnesses. Harness is a class with main method, it throws
+ * AssertionError on first failed check, see tests/run.sh.
+ ***/
+public final class Check
+{
+	private Check()
+	{
+	}
+
+	public static void that(boolean condition, String message)
+	{
+		if (!condition)
+			throw new AssertionError(message);
+	}
+
+	public static void equal(long expected, long actual, String what)
+	{
+		if (expected != actual)
+			throw new AssertionError(what + ": expected " + expected + ", got " + actual);
+	}
+
+	public static void equal(Object expected, Object actual, String what)
+	{
+		if (expected == null ? actual != null : !expected.equals(actual))
+			throw new AssertionError(what + ": expected " + expected + ", got " + actual);
+	}
+
+	public static void log(String message)
+	{
+		System.out.println("  " + message);
+	}
+}
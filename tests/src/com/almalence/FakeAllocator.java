@@ -0,0 +1,91 @@
+/*
+The contents of this file are subject to the Mozilla Public License
+Version 1.1 (the "License"); you may not use this file except in
+compliance with the License. You may obtain a copy of the License at
+http://www.mozilla.org/MPL/
+
+Software distributed under the License is distributed on an "AS IS"
+basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+License for the specific language governing rights and limitations
+under the License.
+
+The Original Code is collection of files collectively known as Open Camera.
+
+The Initial Developer of the Original Code is Almalence Inc.
+Portions created by Initial Developer are Copyright (C) 2013
+by Almalence Inc. All Rights Reserved.
+ */
+
+package com.almalence;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/***
+ * NativeFrame allocator for harnesses, in place of SwapHeap. Hands out
+ * addresses above 4 GB and fails on double or unknown free. Blocks are direct
+ * buffers, so like native memory they don't count as Java heap.
+ ***/
+class FakeAllocator implements NativeFrame.Allocator
+{
+	private final Map<Long, ByteBuffer>	heap	= new HashMap<Long, ByteBuffer>();
+	private long						next	= 0x7f0000000000L;
+	int									frees;
+
+	@Override
+	public synchronized long allocate(byte[] data)
+	{
+		long address = allocateNative(data.length);
+		heap.get(address).put(data).clear();
+		return address;
+	}
+
+	// Memory which native code allocated with malloc(), for adopt()
+	synchronized long allocateNative(int length)
+	{
+		long address = next;
+		next += Math.max(0x10000, (length + 0xFFFFL) & ~0xFFFFL);
+		heap.put(address, ByteBuffer.allocateDirect(length));
+		return address;
+	}
+
+	// malloc() and memcpy() in native code
+	synchronized long duplicate(long address, int length)
+	{
+		long copy = allocateNative(length);
+		heap.get(copy).put(block(address, length)).clear();
+		return copy;
+	}
+
+	@Override
+	public synchronized byte[] copy(long address, int length)
+	{
+		byte[] data = new byte[length];
+		block(address, length).get(data);
+		return data;
+	}
+
+	@Override
+	public synchronized void free(long address)
+	{
+		Check.that(heap.remove(address) != null, "double or unknown free of 0x" + Long.toHexString(address));
+		frees++;
+	}
+
+	// What native code sees at address, for reading without a Java copy
+	synchronized ByteBuffer block(long address, int length)
+	{
+		ByteBuffer block = heap.get(address);
+		Check.that(block != null, "access to freed memory 0x" + Long.toHexString(address));
+		Check.that(length <= block.capacity(), "access beyond block of " + block.capacity() + " bytes");
+		ByteBuffer view = block.duplicate();
+		view.limit(length);
+		return view;
+	}
+
+	synchronized int allocated()
+	{
+		return heap.size();
+	}
+}
@@ -0,0 +1,234 @@
+/*
+The contents of this file are subject to the Mozilla Public License
+Version 1.1 (the "License"); you may not use this file except in
+compliance with the License. You may obtain a copy of the License at
+http://www.mozilla.org/MPL/
+
+Software distributed under the License is distributed on an "AS IS"
+basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+License for the specific language governing rights and limitations
+under the License.
+
+The Original Code is collection of files collectively known as Open Camera.
+
+The Initial Developer of the Original Code is Almalence Inc.
+Portions created by Initial Developer are Copyright (C) 2013
+by Almalence Inc. All Rights Reserved.
+ */
+
+package com.almalence;
+
+import java.util.concurrent.CountDownLatch;
+
+import android.util.Log;
+
+import com.almalence.opencam.SessionData;
+import com.almalence.opencam.SessionStore;
+
+/***
+ * Native frame lifecycle of capture sessions over FakeAllocator, which hands
+ * out addresses above 4 GB and fails on double or unknown free. Sessions
+ * store and save result frames the way processing plugins and SavingService
+ * do, then are cleared by SessionStore. Nothing may stay allocated.
+ ***/
+public class NativeFrameTest
+{
+	private static final FakeAllocator	allocator	= new FakeAllocator();
+	private static final SessionStore	store		= new SessionStore();
+	private static long					nextSession	= 1400000000000L;
+
+	public static void main(String[] args) throws Exception
+	{
+		NativeFrame.setAllocator(allocator);
+
+		savedHdr();
+		abortedHdr();
+		abortedBurst();
+		abortedPreshot();
+		concurrentSessions();
+		legacyHandles();
+
+		Check.equal(0, NativeFrame.getLiveFrames(), "live frames");
+		Check.equal(0, NativeFrame.getLiveBytes(), "live bytes");
+		Check.equal(0, allocator.allocated(), "blocks left in fake heap");
+		Check.log("frees " + allocator.frees + ", peak " + NativeFrame.getPeakBytes() + " bytes");
+		System.out.println("NativeFrameTest passed");
+	}
+
+	// HDR result is adopted from processing library and saved
+	private static void savedHdr()
+	{
+		long sessionID = nextSession++;
+		SessionData session = store.getSession(sessionID);
+		NativeFrame result = NativeFrame.adopt(sessionID, allocator.allocateNative(3000), 3000);
+		session.setResultFrame(0, result);
+
+		Check.that(!result.hasLegacyHandle(), "fake address is above 4 GB");
+		Check.equal(0, session.getResultFrame(0), "legacy handle of 64-bit frame");
+		try
+		{
+			result.getHandle();
+			Check.that(false, "getHandle() must not truncate address");
+		} catch (IllegalStateException e)
+		{
+			// expected
+		}
+		Check.equal(3000, NativeFrame.getLiveBytes(), "live bytes of HDR result");
+
+		// SavingService encodes from the address and releases the frame
+		NativeFrame saved = session.getResultNativeFrame(0);
+		Check.equal(result.getAddress(), saved.getAddress(), "address kept by session");
+		saved.release();
+		Check.that(!saved.isLive(), "saved frame is freed");
+
+		int warnings = Log.warnings;
+		store.clearSession(sessionID);
+		Check.equal(warnings, Log.warnings, "leak warning of saved session");
+		Check.equal(0, NativeFrame.getLiveFrames(sessionID), "frames of saved HDR session");
+	}
+
+	// HDR processed, but activity was paused before saving
+	private static void abortedHdr()
+	{
+		long sessionID = nextSession++;
+		store.getSession(sessionID).setResultFrame(0,
+				NativeFrame.adopt(sessionID, allocator.allocateNative(3000), 3000));
+
+		int before = allocator.allocated();
+		int warnings = Log.warnings;
+		store.clearSession(sessionID);
+		Check.equal(warnings + 1, Log.warnings, "leak warning of aborted session");
+		Check.equal(before - 1, allocator.allocated(), "aborted HDR result freed by clearSession");
+		Check.equal(0, NativeFrame.getLiveFrames(sessionID), "frames of aborted HDR session");
+	}
+
+	// Sequence/group shot results: first saved as jpeg, one is still held by
+	// a viewer when the session is aborted
+	private static void abortedBurst()
+	{
+		long sessionID = nextSession++;
+		SessionData session = store.getSession(sessionID);
+		for (int i = 0; i < 4; i++)
+			session.setResultFrame(i, NativeFrame.allocate(sessionID, new byte[1000 + i]));
+		Check.equal(4, NativeFrame.getLiveFrames(sessionID), "burst frames");
+
+		byte[] jpeg = session.getResultNativeFrame(0).swapOut();
+		Check.equal(1000, jpeg.length, "swapped out frame");
+
+		NativeFrame held = session.getResultNativeFrame(2);
+		held.acquire();
+
+		Check.equal(3, NativeFrame.releaseSession(sessionID), "frames left by aborted burst");
+		store.clearSession(sessionID);
+		Check.that(!held.isLive(), "held frame is freed with its session");
+
+		// late release by the viewer doesn't free memory again
+		held.release();
+		held.release();
+		Check.equal(0, NativeFrame.getLiveFrames(sessionID), "frames of aborted burst");
+	}
+
+	// Preshot frames adopted one by one, export stopped half way
+	private static void abortedPreshot()
+	{
+		long sessionID = nextSession++;
+		SessionData session = store.getSession(sessionID);
+		int count = 10;
+		for (int i = 0; i < count; i++)
+		{
+			NativeFrame frame = NativeFrame.adopt(sessionID, allocator.allocateNative(500), 500);
+			session.setResultFrame(i, frame);
+			if (i < count / 2)
+				session.getResultNativeFrame(i).swapOut();
+		}
+		Check.equal(count / 2, NativeFrame.getLiveFrames(sessionID), "preshot frames left");
+
+		// frame handed to native code which frees it itself
+		NativeFrame detached = NativeFrame.adopt(sessionID, allocator.allocateNative(500), 500);
+		detached.detach();
+		detached.release();
+
+		store.clearSession(sessionID);
+		Check.equal(0, NativeFrame.getLiveFrames(sessionID), "frames of aborted preshot");
+		allocator.free(detached.getAddress());
+	}
+
+	// Saving thread releases frames while another thread clears the session
+	private static void concurrentSessions() throws InterruptedException
+	{
+		final int sessions = 20;
+		final int frames = 50;
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread[] threads = new Thread[sessions * 2];
+		for (int s = 0; s < sessions; s++)
+		{
+			final long sessionID = nextSession++;
+			final SessionData session = store.getSession(sessionID);
+			for (int i = 0; i < frames; i++)
+				session.setResultFrame(i, NativeFrame.allocate(sessionID, new byte[64]));
+
+			threads[2 * s] = new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					await(start);
+					for (int i = 0; i < frames; i++)
+						session.getResultNativeFrame(i).release();
+				}
+			});
+			threads[2 * s + 1] = new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					await(start);
+					store.clearSession(sessionID);
+				}
+			});
+		}
+
+		final Throwable[] failure = new Throwable[1];
+		Thread.UncaughtExceptionHandler handler = new Thread.UncaughtExceptionHandler()
+		{
+			@Override
+			public void uncaughtException(Thread t, Throwable e)
+			{
+				synchronized (failure)
+				{
+					failure[0] = e;
+				}
+			}
+		};
+		for (Thread thread : threads)
+		{
+			thread.setUncaughtExceptionHandler(handler);
+			thread.start();
+		}
+		start.countDown();
+		for (Thread thread : threads)
+			thread.join();
+
+		Check.that(failure[0] == null, "concurrent release and clear: " + failure[0]);
+		Check.equal(0, NativeFrame.getLiveFrames(), "frames after concurrent sessions");
+	}
+
+	// Address of int handle is unsigned
+	private static void legacyHandles()
+	{
+		Check.equal(0xFFFFFFFFL, NativeFrame.toAddress(-1), "address of handle -1");
+		Check.equal(0x80000000L, NativeFrame.toAddress(Integer.MIN_VALUE), "address of handle 0x80000000");
+		Check.equal(0x1234L, NativeFrame.toAddress(0x1234), "address of small handle");
+	}
+
+	private static void await(CountDownLatch latch)
+	{
+		try
+		{
+			latch.await();
+		} catch (InterruptedException e)
+		{
+			e.printStackTrace();
+		}
+	}
+}
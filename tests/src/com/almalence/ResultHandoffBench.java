@@ -0,0 +1,202 @@
+/*
+The contents of this file are subject to the Mozilla Public License
+Version 1.1 (the "License"); you may not use this file except in
+compliance with the License. You may obtain a copy of the License at
+http://www.mozilla.org/MPL/
+
+Software distributed under the License is distributed on an "AS IS"
+basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+License for the specific language governing rights and limitations
+under the License.
+
+The Original Code is collection of files collectively known as Open Camera.
+
+The Initial Developer of the Original Code is Almalence Inc.
+Portions created by Initial Developer are Copyright (C) 2013
+by Almalence Inc. All Rights Reserved.
+ */
+
+package com.almalence;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+import com.almalence.opencam.SessionData;
+import com.almalence.opencam.SessionStore;
+
+/***
+ * Java heap allocated per 13 MP processing result on its way to SavingService,
+ * through NativeFrame over FakeAllocator. Natives of processing libraries are
+ * played by the allocator: results are malloc'ed blocks, byte[] natives copy
+ * them into a new Java array like JNI does.
+ *
+ * Old flows are what plugins did before results were handed over in native
+ * memory: HDRProcessingPlugin took AlmaShotHDR.HDRProcess byte[] and copied it
+ * back with NativeFrame.allocate (SwapToHeap), PreshotProcessingPlugin did the
+ * same with PreShot.GetFromBufferNV21, AlmaCLRShot.processingSaveData took
+ * its NV21 with SwapFromHeap and encoded it with android.graphics.YuvImage
+ * into an unsized stream. The old HDR array also stayed referenced by the
+ * plugin until the next result.
+ ***/
+public class ResultHandoffBench
+{
+	private static final int									W			= 4160;
+	private static final int									H			= 3120;
+	// AlmaShotHDR.resultSize(W, H), class can't be loaded without its library
+	private static final int									HDR_SIZE	= W * H + (W + 1) * (H + 1) / 2;
+	private static final int									NV21_SIZE	= W * H * 3 / 2;
+	// quality 95 jpeg of a 13 MP photo
+	private static final int									JPEG_SIZE	= 4 * 1024 * 1024;
+
+	private static final int									ROUNDS		= 5;
+	private static final int									RESULTS		= 3;
+
+	// flows, old way of each result before the current one
+	private static final int									HDR_OLD			= 0;
+	private static final int									HDR				= 1;
+	private static final int									PRESHOT_OLD		= 2;
+	private static final int									PRESHOT			= 3;
+	private static final int									SEQUENCE_OLD	= 4;
+	private static final int									SEQUENCE		= 5;
+	private static final String[]								NAMES			= { "HDR", "preshot", "sequence" };
+
+	private static final com.sun.management.ThreadMXBean		THREADS		= (com.sun.management.ThreadMXBean) ManagementFactory
+																					.getThreadMXBean();
+
+	private static final FakeAllocator							allocator	= new FakeAllocator();
+	private static final SessionStore							store		= new SessionStore();
+	private static long											nextSession	= 1400000000000L;
+	// frame in preshot ring buffer
+	private static long											buffered;
+	private static long											sink;
+
+	public static void main(String[] args)
+	{
+		NativeFrame.setAllocator(allocator);
+		buffered = allocator.allocateNative(NV21_SIZE);
+		Check.log(W + "x" + H + ", NV21 " + NV21_SIZE + " bytes, " + RESULTS + " results per round");
+
+		// bytes per result of each flow in last round
+		long[] bytes = new long[SEQUENCE + 1];
+		for (int round = 0; round < ROUNDS; round++)
+			for (int flow = HDR_OLD; flow <= SEQUENCE; flow++)
+				bytes[flow] = measure(flow);
+		for (int flow = HDR_OLD; flow <= SEQUENCE; flow += 2)
+			Check.log(NAMES[flow / 2] + ": old " + bytes[flow] / 1024 + " KB, now " + bytes[flow + 1] / 1024
+					+ " KB of Java heap per result");
+
+		Check.that(bytes[HDR_OLD] >= HDR_SIZE, "old HDR flow has result in Java heap");
+		Check.that(bytes[PRESHOT_OLD] >= NV21_SIZE, "old preshot flow has result in Java heap");
+		Check.that(bytes[HDR] < 64 * 1024, "HDR result in Java heap: " + bytes[HDR] + " bytes");
+		Check.that(bytes[PRESHOT] < 64 * 1024, "preshot result in Java heap: " + bytes[PRESHOT] + " bytes");
+		Check.that(bytes[SEQUENCE_OLD] - bytes[SEQUENCE] >= NV21_SIZE, "sequence NV21 in Java heap: "
+				+ bytes[SEQUENCE] + " bytes");
+
+		allocator.free(buffered);
+		Check.equal(0, NativeFrame.getLiveFrames(), "live frames");
+		Check.equal(0, allocator.allocated(), "blocks left in fake heap");
+		Check.that(sink != 0, "results read");
+		System.out.println("ResultHandoffBench done");
+	}
+
+	// Average Java heap allocated by one result of flow
+	private static long measure(int flow)
+	{
+		long thread = Thread.currentThread().getId();
+		long bytes = THREADS.getThreadAllocatedBytes(thread);
+		for (int i = 0; i < RESULTS; i++)
+			handOver(flow, nextSession++);
+		return (THREADS.getThreadAllocatedBytes(thread) - bytes) / RESULTS;
+	}
+
+	private static void handOver(int flow, long sessionID)
+	{
+		switch (flow)
+		{
+		// AlmaShotHDR.HDRProcess result copied back with SwapToHeap
+		case HDR_OLD:
+		{
+			long outPic = allocator.allocateNative(HDR_SIZE);
+			byte[] yuv = allocator.copy(outPic, HDR_SIZE);
+			allocator.free(outPic);
+			publish(sessionID, NativeFrame.allocate(sessionID, yuv));
+			break;
+		}
+		// AlmaShotHDR.HDRProcessToHeap result adopted
+		case HDR:
+			publish(sessionID, NativeFrame.adopt(sessionID, allocator.allocateNative(HDR_SIZE), HDR_SIZE));
+			break;
+		// PreShot.GetFromBufferNV21 copied back with SwapToHeap
+		case PRESHOT_OLD:
+			publish(sessionID, NativeFrame.allocate(sessionID, allocator.copy(buffered, NV21_SIZE)));
+			break;
+		// PreShot.GetFromBufferNV21ToHeap copy adopted
+		case PRESHOT:
+			publish(sessionID, NativeFrame.adopt(sessionID, allocator.duplicate(buffered, NV21_SIZE), NV21_SIZE));
+			break;
+		// NV21 taken with SwapFromHeap, android.graphics.YuvImage encodes it
+		// with 4 KB storage into a growing stream
+		case SEQUENCE_OLD:
+		{
+			long outNV21 = allocator.allocateNative(NV21_SIZE);
+			byte[] nv21 = allocator.copy(outNV21, NV21_SIZE);
+			allocator.free(outNV21);
+
+			ByteArrayOutputStream os = new ByteArrayOutputStream();
+			compressToJpeg(ByteBuffer.wrap(nv21), os, new byte[4096]);
+			sink += os.toByteArray().length;
+			break;
+		}
+		// com.almalence.YuvImage encodes from native NV21 with 512 KB storage
+		// into a presized stream
+		case SEQUENCE:
+		{
+			long outNV21 = allocator.allocateNative(NV21_SIZE);
+			ByteArrayOutputStream os = new ByteArrayOutputStream(W * H * 3 / 8);
+			compressToJpeg(allocator.block(outNV21, NV21_SIZE), os, new byte[1024 * 512]);
+			sink += os.toByteArray().length;
+			allocator.free(outNV21);
+			break;
+		}
+		default:
+			break;
+		}
+	}
+
+	// Result frame is put to session, SavingService encodes it from the
+	// address and releases it, then session is cleared
+	private static void publish(long sessionID, NativeFrame frame)
+	{
+		SessionData session = store.getSession(sessionID);
+		session.setResultFrame(1, frame);
+
+		NativeFrame saved = session.getResultNativeFrame(1);
+		ByteBuffer yuv = allocator.block(saved.getAddress(), saved.getLength());
+		sink += yuv.get(0) + yuv.get(yuv.limit() - 1) + saved.getLength();
+		saved.release();
+		store.clearSession(sessionID);
+	}
+
+	// Stand-in of jpeg compressor, writes JPEG_SIZE bytes read from image
+	// through storage
+	private static void compressToJpeg(ByteBuffer image, OutputStream os, byte[] storage)
+	{
+		ByteBuffer source = image.duplicate();
+		try
+		{
+			for (int written = 0; written < JPEG_SIZE;)
+			{
+				int n = Math.min(storage.length, JPEG_SIZE - written);
+				source.get(storage, 0, n);
+				os.write(storage, 0, n);
+				written += n;
+			}
+		} catch (IOException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+}
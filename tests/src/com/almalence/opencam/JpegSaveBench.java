@@ -0,0 +1,271 @@
+/*
+The contents of this file are subject to the Mozilla Public License
+Version 1.1 (the "License"); you may not use this file except in
+compliance with the License. You may obtain a copy of the License at
+http://www.mozilla.org/MPL/
+
+Software distributed under the License is distributed on an "AS IS"
+basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+License for the specific language governing rights and limitations
+under the License.
+
+The Original Code is collection of files collectively known as Open Camera.
+
+The Initial Developer of the Original Code is Almalence Inc.
+Portions created by Initial Developer are Copyright (C) 2013
+by Almalence Inc. All Rights Reserved.
+ */
+
+package com.almalence.opencam;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import android.media.ExifInterface;
+
+import com.almalence.Check;
+import com.almalence.plugins.export.ExifDriver.ExifDriver;
+import com.almalence.plugins.export.ExifDriver.Values.ExifValue;
+import com.almalence.plugins.export.ExifDriver.Values.UndefinedValueAccessException;
+import com.almalence.plugins.export.ExifDriver.Values.ValueByteArray;
+import com.almalence.plugins.export.ExifDriver.Values.ValueNumber;
+import com.almalence.plugins.export.ExifDriver.Values.ValueRationals;
+import com.almalence.util.ExifCorpus;
+
+/***
+ * Saving of one encoded 4000x3000 result jpeg with Exif, by the steps
+ * SavingService takes (it's a Service, so the steps are replayed here):
+ *
+ * single write - Exif parsed from the array, tags set, SOI, APP1 with padding
+ * and compressed data written once to the destination (prepareJpeg,
+ * writeJpeg);
+ *
+ * old path - jpeg written to buffer.jpeg, make, model and orientation set by
+ * ExifInterface which rewrites the file, the rest by ExifDriver.save to a
+ * .tmp copy, which is then copied to the destination.
+ *
+ * Timestamp and rotation re-encodes are the same in both paths and left
+ * out. Reports wall time and bytes written per photo. Files go to /dev/shm
+ * when there is one, so numbers show the copying, not the disk.
+ ***/
+public class JpegSaveBench
+{
+	private static final int	EXIF_PADDING	= 1024;
+	private static final int	PHOTOS			= 20;
+
+	public static void main(String[] args) throws Exception
+	{
+		Random random = new Random(1);
+		byte[] jpeg = ExifCorpus.insertApp1(ExifCorpus.image(4000, 3000, 0, random),
+				ExifCorpus.exifPayload(true, random, 0), true);
+		File directory = createDirectory();
+
+		// driver traces parsing to stdout
+		PrintStream out = System.out;
+		System.setOut(new PrintStream(new ByteArrayOutputStream()));
+		try
+		{
+			out.println("  " + jpeg.length + " B jpeg in " + directory.getParent());
+			for (int round = 0; round < 3; round++)
+			{
+				long[] single = run(directory, jpeg, false);
+				long[] old = run(directory, jpeg, true);
+				if (round == 2)
+				{
+					out.println("  single write: " + format(single[0] / 1e6 / PHOTOS) + " ms, " + single[1] / PHOTOS
+							+ " B written per photo");
+					out.println("  old path: " + format(old[0] / 1e6 / PHOTOS) + " ms, " + old[1] / PHOTOS
+							+ " B written per photo");
+				}
+			}
+			checkSameExif(directory, jpeg);
+		} finally
+		{
+			System.setOut(out);
+			for (File file : directory.listFiles())
+				file.delete();
+			directory.delete();
+		}
+		System.out.println("JpegSaveBench done");
+	}
+
+	// Returns {nanoseconds, bytes written} of PHOTOS saves
+	private static long[] run(File directory, byte[] jpeg, boolean old) throws IOException
+	{
+		long time = 0;
+		long bytes = 0;
+		for (int i = 0; i < PHOTOS; i++)
+		{
+			File destination = new File(directory, "IMG_" + i + ".jpg");
+			long started = System.nanoTime();
+			bytes += old ? saveOld(directory, jpeg, destination, i) : saveSingle(jpeg, destination, i);
+			time += System.nanoTime() - started;
+			destination.delete();
+		}
+		return new long[] { time, bytes };
+	}
+
+	private static long saveSingle(byte[] jpeg, File destination, int k) throws IOException
+	{
+		ExifDriver driver = ExifDriver.getInstance(jpeg, jpeg.length);
+		driver.setPadding(EXIF_PADDING);
+		setTags(driver, k, true);
+		OutputStream os = new FileOutputStream(destination);
+		try
+		{
+			driver.save(os, jpeg, jpeg.length);
+		} finally
+		{
+			os.close();
+		}
+		return destination.length();
+	}
+
+	private static long saveOld(File directory, byte[] jpeg, File destination, int k) throws IOException
+	{
+		File bufFile = new File(directory, "buffer.jpeg");
+		OutputStream os = new FileOutputStream(bufFile);
+		try
+		{
+			os.write(jpeg);
+		} finally
+		{
+			os.close();
+		}
+		long written = bufFile.length();
+
+		ExifInterface ei = new ExifInterface(bufFile.getAbsolutePath());
+		ei.setAttribute(ExifInterface.TAG_MODEL, "Model-" + k);
+		ei.setAttribute(ExifInterface.TAG_MAKE, "Almalence");
+		ei.setAttribute(ExifInterface.TAG_ORIENTATION, String.valueOf(orientation(k)));
+		ei.saveAttributes();
+		written += bufFile.length();
+
+		ExifDriver driver = ExifDriver.getInstance(bufFile.getAbsolutePath());
+		setTags(driver, k, false);
+		File modifiedFile = new File(bufFile.getAbsolutePath() + ".tmp");
+		driver.save(modifiedFile.getAbsolutePath());
+		written += modifiedFile.length();
+		bufFile.delete();
+
+		InputStream is = new FileInputStream(modifiedFile);
+		os = new FileOutputStream(destination);
+		try
+		{
+			byte[] buf = new byte[4096];
+			int len;
+			while ((len = is.read(buf)) > 0)
+				os.write(buf, 0, len);
+		} finally
+		{
+			is.close();
+			os.close();
+		}
+		written += destination.length();
+		modifiedFile.delete();
+		return written;
+	}
+
+	// Tags setExifTags writes for a photo without geotag. Make, model and
+	// orientation were written by ExifInterface in the old path.
+	private static void setTags(ExifDriver driver, int k, boolean all)
+	{
+		if (all)
+		{
+			driver.getIfd0().put(ExifDriver.TAG_MODEL, ascii("Model-" + k));
+			driver.getIfd0().put(ExifDriver.TAG_MAKE, ascii("Almalence"));
+			driver.getIfd0().put(ExifDriver.TAG_ORIENTATION,
+					new ValueNumber(ExifDriver.FORMAT_UNSIGNED_SHORT, orientation(k)));
+		}
+		driver.getIfdExif().put(ExifDriver.TAG_EXPOSURE_TIME, rational(1, 30 + k));
+		driver.getIfdExif().put(ExifDriver.TAG_APERTURE_VALUE, rational(22, 10));
+		driver.getIfdExif().put(ExifDriver.TAG_FLASH, new ValueNumber(ExifDriver.FORMAT_UNSIGNED_SHORT, 16));
+		driver.getIfdExif().put(ExifDriver.TAG_FOCAL_LENGTH, rational(430, 100));
+		driver.getIfdExif().put(ExifDriver.TAG_ISO_SPEED_RATINGS,
+				new ValueNumber(ExifDriver.FORMAT_UNSIGNED_SHORT, 100 * (1 + k % 4)));
+		driver.getIfdExif().put(ExifDriver.TAG_SCENE_CAPTURE_TYPE,
+				new ValueNumber(ExifDriver.FORMAT_UNSIGNED_SHORT, 0));
+		driver.getIfd0().remove(ExifDriver.TAG_LIGHT_SOURCE);
+		ValueNumber whiteBalance = new ValueNumber(ExifDriver.FORMAT_UNSIGNED_SHORT, 0);
+		driver.getIfdExif().put(ExifDriver.TAG_WHITE_BALANCE, whiteBalance);
+		driver.getIfdExif().put(ExifDriver.TAG_LIGHT_SOURCE, whiteBalance);
+	}
+
+	// Both paths must end with the same tags
+	private static void checkSameExif(File directory, byte[] jpeg) throws IOException
+	{
+		File single = new File(directory, "single.jpg");
+		File old = new File(directory, "old.jpg");
+		saveSingle(jpeg, single, 3);
+		saveOld(directory, jpeg, old, 3);
+		ExifDriver a = ExifDriver.getInstance(single.getPath());
+		ExifDriver b = ExifDriver.getInstance(old.getPath());
+		Check.that(a != null && b != null, "saved files have Exif");
+		for (int tag : new int[] { ExifDriver.TAG_MODEL, ExifDriver.TAG_MAKE, ExifDriver.TAG_ORIENTATION })
+			Check.equal(describe(b.getIfd0().get(tag)), describe(a.getIfd0().get(tag)), "IFD0 tag " + tag);
+		for (int tag : new int[] { ExifDriver.TAG_EXPOSURE_TIME, ExifDriver.TAG_ISO_SPEED_RATINGS,
+				ExifDriver.TAG_WHITE_BALANCE })
+			Check.equal(describe(b.getIfdExif().get(tag)), describe(a.getIfdExif().get(tag)), "Exif tag " + tag);
+	}
+
+	private static String describe(ExifValue value)
+	{
+		try
+		{
+			switch (value.getDataType())
+			{
+			case ExifDriver.FORMAT_ASCII_STRINGS:
+				return new String(value.getBytes());
+			case ExifDriver.FORMAT_UNSIGNED_RATIONAL:
+				return Arrays.deepToString(value.getRationals());
+			default:
+				return Arrays.toString(value.getIntegers());
+			}
+		} catch (UndefinedValueAccessException e)
+		{
+			return "undefined " + value.getDataType();
+		}
+	}
+
+	private static int orientation(int k)
+	{
+		return k % 2 == 0 ? ExifInterface.ORIENTATION_ROTATE_90 : ExifInterface.ORIENTATION_NORMAL;
+	}
+
+	private static ValueByteArray ascii(String value)
+	{
+		ValueByteArray bytes = new ValueByteArray(ExifDriver.FORMAT_ASCII_STRINGS);
+		bytes.setBytes((value + "\0").getBytes());
+		return bytes;
+	}
+
+	private static ValueRationals rational(int numerator, int denominator)
+	{
+		ValueRationals value = new ValueRationals(ExifDriver.FORMAT_UNSIGNED_RATIONAL);
+		value.setRationals(new int[][] { { numerator, denominator } });
+		return value;
+	}
+
+	private static File createDirectory() throws IOException
+	{
+		File shm = new File("/dev/shm");
+		File file = shm.isDirectory() && shm.canWrite() ? File.createTempFile("jpegsave", "", shm) : File
+				.createTempFile("jpegsave", "");
+		file.delete();
+		file.mkdir();
+		return file;
+	}
+
+	private static String format(double value)
+	{
+		return String.format("%.2f", value);
+	}
+}
@@ -0,0 +1,228 @@
+/*
+The contents of this file are subject to the Mozilla Public License
+Version 1.1 (the "License"); you may not use this file except in
+compliance with the License. You may obtain a copy of the License at
+http://www.mozilla.org/MPL/
+
+Software distributed under the License is distributed on an "AS IS"
+basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+License for the specific language governing rights and limitations
+under the License.
+
+The Original Code is collection of files collectively known as Open Camera.
+
+The Initial Developer of the Original Code is Almalence Inc.
+Portions created by Initial Developer are Copyright (C) 2013
+by Almalence Inc. All Rights Reserved.
+ */
+
+package com.almalence.opencam;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.net.Uri;
+
+import com.almalence.Check;
+
+/***
+ * MediaIndexer over a stand-in content resolver which takes some time for
+ * every call, like MediaProvider. Saving threads queue results of capture
+ * sessions, indexer has to insert them in batches, in order, and announce
+ * only the last picture of each session.
+ ***/
+public class MediaIndexerTest
+{
+	private static final Uri	TABLE	= Uri.parse("content://media/external/images/media");
+
+	// Stand-in of MediaProvider, rows are logged in order they are inserted
+	private static class StandInResolver extends ContentResolver
+	{
+		final List<String>	rows	= Collections.synchronizedList(new ArrayList<String>());
+		final long			latency;
+		volatile boolean	failBatch;
+		volatile int		batchCalls;
+		volatile int		insertCalls;
+
+		StandInResolver(long latency)
+		{
+			this.latency = latency;
+		}
+
+		@Override
+		public ContentProviderResult[] applyBatch(String authority, ArrayList<ContentProviderOperation> operations)
+				throws OperationApplicationException
+		{
+			batchCalls++;
+			sleep(latency);
+			if (failBatch)
+				throw new OperationApplicationException("stand-in transaction failed");
+
+			ContentProviderResult[] results = new ContentProviderResult[operations.size()];
+			for (int i = 0; i < results.length; i++)
+				results[i] = new ContentProviderResult(row(operations.get(i).resolveValueBackReferences(null, 0)));
+			return results;
+		}
+
+		@Override
+		public Uri insert(Uri url, ContentValues values)
+		{
+			insertCalls++;
+			sleep(latency);
+			if (values.getAsString("title").startsWith("broken"))
+				throw new IllegalStateException("stand-in insert failed");
+			return row(values);
+		}
+
+		private Uri row(ContentValues values)
+		{
+			String title = values.getAsString("title");
+			rows.add(title);
+			return Uri.parse(TABLE + "/" + title);
+		}
+	}
+
+	private static class TestIndexer extends MediaIndexer
+	{
+		final List<Uri>	announced	= Collections.synchronizedList(new ArrayList<Uri>());
+
+		TestIndexer(ContentResolver resolver)
+		{
+			super(new Context(), resolver);
+		}
+
+		@Override
+		protected void broadcastNewPicture(Uri uri)
+		{
+			announced.add(uri);
+		}
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		burst();
+		flush();
+		failedBatch();
+		largeBurst();
+		System.out.println("MediaIndexerTest passed");
+		// indexer worker never exits
+		System.exit(0);
+	}
+
+	// HDR-like session: 20 input frames and 3 results saved back to back
+	private static void burst() throws Exception
+	{
+		StandInResolver resolver = new StandInResolver(20);
+		TestIndexer indexer = new TestIndexer(resolver);
+		final List<Uri> indexed = Collections.synchronizedList(new ArrayList<Uri>());
+		MediaIndexer.Callback callback = new MediaIndexer.Callback()
+		{
+			@Override
+			public void onIndexed(Uri uri)
+			{
+				indexed.add(uri);
+			}
+		};
+
+		long started = System.nanoTime();
+		for (int i = 0; i < 20; i++)
+			indexer.enqueue(TABLE, values("input" + i), 1, false, null);
+		for (int i = 0; i < 3; i++)
+			indexer.enqueue(TABLE, values("result" + i), 1, true, callback);
+		long enqueueTime = (System.nanoTime() - started) / 1000;
+		await(indexer, 23, 1);
+
+		List<String> expected = new ArrayList<String>();
+		for (int i = 0; i < 20; i++)
+			expected.add("input" + i);
+		expected.addAll(Arrays.asList("result0", "result1", "result2"));
+		Check.equal(expected, resolver.rows, "rows in order of enqueue");
+		Check.equal(1, resolver.batchCalls, "provider calls");
+		Check.equal(3, indexed.size(), "callbacks");
+		Check.equal(Arrays.asList(Uri.parse(TABLE + "/result2")), indexer.announced, "announced pictures");
+		Check.log("23 files queued in " + enqueueTime + "us, sync inserts would take " + 23 * resolver.latency
+				+ "ms of saving thread; " + indexer);
+	}
+
+	// Entry is inserted right after flush, not after batch window
+	private static void flush() throws Exception
+	{
+		StandInResolver resolver = new StandInResolver(10);
+		TestIndexer indexer = new TestIndexer(resolver);
+		long started = System.nanoTime();
+		indexer.enqueue(TABLE, values("paused"), 2, true, null);
+		indexer.flush();
+		await(indexer, 1, 1);
+		long time = (System.nanoTime() - started) / 1000000;
+		Check.that(time < 70, "flushed entry indexed after " + time + "ms");
+	}
+
+	// Failed transaction is retried row by row, broken row doesn't stop others
+	private static void failedBatch() throws Exception
+	{
+		StandInResolver resolver = new StandInResolver(5);
+		resolver.failBatch = true;
+		TestIndexer indexer = new TestIndexer(resolver);
+		indexer.enqueue(TABLE, values("first"), 3, true, null);
+		indexer.enqueue(TABLE, values("broken"), 3, true, null);
+		indexer.enqueue(TABLE, values("second"), 4, true, null);
+		await(indexer, 3, 2);
+
+		Check.equal(3, resolver.insertCalls, "inserts one by one");
+		Check.equal(2, indexer.getIndexed(), "indexed");
+		Check.equal(1, indexer.getFailed(), "failed");
+		Check.equal(Arrays.asList(Uri.parse(TABLE + "/first"), Uri.parse(TABLE + "/second")), indexer.announced,
+				"last indexed picture of each session is announced");
+	}
+
+	// Batches are limited, long burst takes several calls
+	private static void largeBurst() throws Exception
+	{
+		StandInResolver resolver = new StandInResolver(5);
+		TestIndexer indexer = new TestIndexer(resolver);
+		for (int i = 0; i < 70; i++)
+			indexer.enqueue(TABLE, values("frame" + i), 5, true, null);
+		await(indexer, 70, 1);
+		Check.equal(3, resolver.batchCalls, "provider calls for 70 files");
+		Check.equal(70, resolver.rows.size(), "rows");
+		Check.equal(Uri.parse(TABLE + "/frame69"), indexer.announced.get(0), "announced picture");
+	}
+
+	// Waits until all entries are done and sessions announced
+	private static void await(MediaIndexer indexer, int entries, int broadcasts) throws InterruptedException
+	{
+		long deadline = System.currentTimeMillis() + 5000;
+		while (indexer.getIndexed() + indexer.getFailed() < entries || indexer.getBroadcasts() < broadcasts)
+		{
+			Check.that(System.currentTimeMillis() < deadline, "indexer is done in time: " + indexer);
+			Thread.sleep(1);
+		}
+		Check.equal(0, indexer.getQueueDepth(), "queue depth");
+	}
+
+	private static ContentValues values(String title)
+	{
+		ContentValues values = new ContentValues();
+		values.put("title", title);
+		return values;
+	}
+
+	private static void sleep(long ms)
+	{
+		try
+		{
+			Thread.sleep(ms);
+		} catch (InterruptedException e)
+		{
+			e.printStackTrace();
+		}
+	}
+}
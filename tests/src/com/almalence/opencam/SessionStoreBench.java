@@ -0,0 +1,178 @@
+/*
+The contents of this file are subject to the Mozilla Public License
+Version 1.1 (the "License"); you may not use this file except in
+compliance with the License. You may obtain a copy of the License at
+http://www.mozilla.org/MPL/
+
+Software distributed under the License is distributed on an "AS IS"
+basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+License for the specific language governing rights and limitations
+under the License.
+
+The Original Code is collection of files collectively known as Open Camera.
+
+The Initial Developer of the Original Code is Almalence Inc.
+Portions created by Initial Developer are Copyright (C) 2013
+by Almalence Inc. All Rights Reserved.
+ */
+
+package com.almalence.opencam;
+
+import java.lang.management.ManagementFactory;
+
+/***
+ * Shared memory traffic of a 30 frame burst session, replayed against the
+ * old Hashtable and against SessionStore: capture plugin puts every frame and
+ * its orientation, mirroring and exposure, processing reads them back and
+ * puts result frames, SavingService reads results and session values, then
+ * the session is cleared. A few sessions stay in memory meanwhile, like
+ * sessions still being saved, so the old clear scans their keys too.
+ * Reports time and heap allocated per session.
+ ***/
+public class SessionStoreBench
+{
+	private static final com.sun.management.ThreadMXBean	threads		= (com.sun.management.ThreadMXBean) ManagementFactory
+																				.getThreadMXBean();
+
+	private static final int								FRAMES		= 30;
+	private static final int								PENDING		= 4;
+
+	private static long										sink;
+
+	private interface Memory
+	{
+		void put(String key, String value);
+
+		String get(String key);
+
+		void clearSession(long sessionID);
+	}
+
+	public static void main(String[] args)
+	{
+		final SessionStoreTest.LegacyMemory legacy = new SessionStoreTest.LegacyMemory();
+		final SessionStore store = new SessionStore();
+		Memory hashtable = new Memory()
+		{
+			@Override
+			public void put(String key, String value)
+			{
+				legacy.put(key, value);
+			}
+
+			@Override
+			public String get(String key)
+			{
+				return legacy.get(key);
+			}
+
+			@Override
+			public void clearSession(long sessionID)
+			{
+				legacy.clearSession(sessionID);
+			}
+		};
+		Memory sessionStore = new Memory()
+		{
+			@Override
+			public void put(String key, String value)
+			{
+				store.put(key, value);
+			}
+
+			@Override
+			public String get(String key)
+			{
+				return store.get(key);
+			}
+
+			@Override
+			public void clearSession(long sessionID)
+			{
+				store.clearSession(sessionID);
+			}
+		};
+
+		for (int round = 0; round < 3; round++)
+		{
+			run("Hashtable", hashtable, round == 2);
+			run("SessionStore", sessionStore, round == 2);
+		}
+		System.out.println("SessionStoreBench done");
+	}
+
+	private static void run(String name, Memory memory, boolean report)
+	{
+		long thread = Thread.currentThread().getId();
+		long sessionID = 1400000000000L;
+		for (int i = 0; i < PENDING; i++)
+			burst(memory, sessionID++);
+
+		long bytes = threads.getThreadAllocatedBytes(thread);
+		long started = System.nanoTime();
+		int sessions = 0;
+		while (System.nanoTime() - started < 1000000000L)
+		{
+			burst(memory, sessionID);
+			memory.clearSession(sessionID - PENDING);
+			sessionID++;
+			sessions++;
+		}
+		long time = System.nanoTime() - started;
+		bytes = threads.getThreadAllocatedBytes(thread) - bytes;
+
+		for (int i = PENDING; i > 0; i--)
+			memory.clearSession(sessionID - i);
+		if (report)
+			System.out.println("  " + name + ": " + time / sessions / 1000 + " us/session, " + bytes / sessions
+					+ " B/session");
+	}
+
+	private static void burst(Memory memory, long id)
+	{
+		memory.put("sessionID", String.valueOf(id));
+		memory.put("mode_name" + id, "burstmode");
+		memory.put("modeSaveName" + id, "BURST");
+		memory.put("cameraMirrored" + id, "false");
+		memory.put("IsSlowMode" + id, "false");
+		for (int i = 0; i < FRAMES; i++)
+		{
+			memory.put("frame" + (i + 1) + id, String.valueOf(0x10000 + i));
+			memory.put("framelen" + (i + 1) + id, "6000000");
+			memory.put("frameorientation" + (i + 1) + id, "90");
+			memory.put("framemirrored" + (i + 1) + id, "false");
+			memory.put("exiftag_exposure_time" + (i + 1) + id, "1/30");
+		}
+		memory.put("amountofcapturedframes" + id, String.valueOf(FRAMES));
+		memory.put("exiftag_iso" + id, "100");
+		memory.put("exiftag_white_balance" + id, "0");
+
+		int count = Integer.parseInt(memory.get("amountofcapturedframes" + id));
+		for (int i = 0; i < count; i++)
+		{
+			sink += Integer.parseInt(memory.get("frame" + (i + 1) + id));
+			sink += Integer.parseInt(memory.get("framelen" + (i + 1) + id));
+			sink += Integer.parseInt(memory.get("frameorientation" + (i + 1) + id));
+			if (Boolean.parseBoolean(memory.get("framemirrored" + (i + 1) + id)))
+				sink++;
+			memory.put("resultframe" + (i + 1) + id, String.valueOf(0x20000 + i));
+			memory.put("resultframelen" + (i + 1) + id, "3000000");
+			memory.put("resultframeorientation" + (i + 1) + id, "90");
+			memory.put("resultframemirrored" + (i + 1) + id, "false");
+		}
+		memory.put("amountofresultframes" + id, String.valueOf(count));
+		memory.put("saveImageWidth" + id, "4000");
+		memory.put("saveImageHeight" + id, "3000");
+
+		int results = Integer.parseInt(memory.get("amountofresultframes" + id));
+		for (int i = 0; i < results; i++)
+		{
+			sink += Integer.parseInt(memory.get("resultframe" + (i + 1) + id));
+			sink += Integer.parseInt(memory.get("resultframelen" + (i + 1) + id));
+			sink += Integer.parseInt(memory.get("resultframeorientation" + (i + 1) + id));
+			sink += memory.get("exiftag_exposure_time" + (i + 1) + id).length();
+			sink += memory.get("modeSaveName" + id).length();
+			sink += Integer.parseInt(memory.get("saveImageWidth" + id));
+		}
+	}
+}
@@ -0,0 +1,275 @@
+/*
+The contents of this file are subject to the Mozilla Public License
+Version 1.1 (the "License"); you may not use this file except in
+compliance with the License. You may obtain a copy of the License at
+http://www.mozilla.org/MPL/
+
+Software distributed under the License is distributed on an "AS IS"
+basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+License for the specific language governing rights and limitations
+under the License.
+
+The Original Code is collection of files collectively known as Open Camera.
+
+The Initial Developer of the Original Code is Almalence Inc.
+Portions created by Initial Developer are Copyright (C) 2013
+by Almalence Inc. All Rights Reserved.
+ */
+
+package com.almalence.opencam;
+
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Random;
+
+import com.almalence.Check;
+
+/***
+ * String-keyed interface of SessionStore against the Hashtable shared memory
+ * it replaced. Keys are built the way plugins build them: name, optional
+ * frame index, 13 digit session id. Same values must come back from typed
+ * fields and from the string fallback, and clearing a session must drop only
+ * that session.
+ ***/
+public class SessionStoreTest
+{
+	/***
+	 * Shared memory as PluginManagerBase kept it before SessionStore: one
+	 * Hashtable, session cleared by removing every key containing its id.
+	 ***/
+	static class LegacyMemory
+	{
+		final Hashtable<String, String>	table	= new Hashtable<String, String>();
+
+		void put(String key, String value)
+		{
+			table.put(key, value);
+		}
+
+		String get(String key)
+		{
+			return table.get(key);
+		}
+
+		void clearSession(long sessionID)
+		{
+			String partKey = String.valueOf(sessionID);
+			Enumeration<String> e = table.keys();
+			while (e.hasMoreElements())
+			{
+				String i = e.nextElement();
+				if (i.contains(partKey))
+					table.remove(i);
+			}
+		}
+	}
+
+	private static final String[]	FRAME_KEYS		= { "frame", "framelen", "frameorientation", "framemirrored",
+			"frameisraw", "exiftag_exposure_time", "resultframe", "resultframelen", "resultframeorientation",
+			"resultframemirrored", "resultframeformat", "resultcrop", "pano_frametrs" };
+	private static final String[]	SESSION_KEYS	= { "amountofcapturedframes", "amountofresultframes",
+			"saveImageWidth", "saveImageHeight", "resultfromshared", "cameraMirrored", "modeSaveName",
+			"exiftag_iso", "exiftag_exposure_time", "zoom", "pano_width" };
+
+	public static void main(String[] args)
+	{
+		indexedKeys();
+		globalKeys();
+		captureResults();
+		substringCollision();
+		model();
+		System.out.println("SessionStoreTest passed");
+	}
+
+	// Index digits are followed by session id digits, only the last 13 are id
+	private static void indexedKeys()
+	{
+		SessionStore store = new SessionStore();
+		long id = 1400000000000L;
+
+		store.put("resultframe" + 12 + id, "305419896");
+		store.put("resultframelen" + 12 + id, "4000000");
+		store.put("resultframeorientation" + 12 + id, "90");
+		store.put("resultframemirrored" + 12 + id, "true");
+		store.put("frame" + 0 + id, "17");
+		store.put("frameorientation" + 1 + id, "270");
+		store.put("exiftag_exposure_time" + 3 + id, "1/30");
+		store.put("resultcrop" + 2 + id, "640");
+		store.put("pano_frametrs" + 7 + id, "0.5 0.25");
+
+		SessionData session = store.peekSession(id);
+		Check.that(session != null, "session created from key");
+		Check.equal(305419896, session.getResultFrame(12), "typed result frame 12");
+		Check.equal(4000000, session.getResultFrameLength(12), "typed result length 12");
+		Check.equal(90, session.getResultFrameOrientation(12), "typed result orientation 12");
+		Check.that(session.getResultFrameMirrored(12), "typed result mirrored 12");
+		Check.equal(0, session.getResultFrame(1), "result frame 1 is not set");
+		Check.equal(17, session.getFrame(0), "typed frame 0");
+		Check.equal(270, session.getFrameOrientation(1), "typed frame orientation 1");
+		Check.equal("1/30", session.getFrameExposureTime(3), "typed exposure time 3");
+		Check.equal(640, session.getInt(SessionData.INT_CROP_WIDTH, 0), "typed crop width");
+
+		Check.equal("305419896", store.get("resultframe" + 12 + id), "result frame 12");
+		Check.equal("90", store.get("resultframeorientation" + 12 + id), "result orientation 12");
+		Check.equal("true", store.get("resultframemirrored" + 12 + id), "result mirrored 12");
+		Check.equal(null, store.get("resultframe" + 1 + id), "result frame 1");
+		Check.equal(null, store.get("resultframe" + 2 + id), "result frame 2");
+		Check.equal("0.5 0.25", store.get("pano_frametrs" + 7 + id), "untyped indexed key");
+		Check.equal(null, store.get("pano_frametrs" + 7 + (id + 1)), "untyped key of other session");
+
+		// values which don't parse stay strings
+		store.put("frameorientation" + 2 + id, "unknown");
+		Check.equal("unknown", store.get("frameorientation" + 2 + id), "unparsed orientation");
+
+		store.remove("resultframe" + 12 + id);
+		Check.equal(null, store.get("resultframe" + 12 + id), "removed result frame 12");
+		Check.equal("4000000", store.get("resultframelen" + 12 + id), "length kept after removal of handle");
+
+		store.clearSession(id);
+		Check.that(store.peekSession(id) == null, "cleared session");
+		Check.equal(null, store.get("resultframelen" + 12 + id), "length after clear");
+	}
+
+	// Keys without 13 trailing digits aren't bound to a session
+	private static void globalKeys()
+	{
+		SessionStore store = new SessionStore();
+		long id = 1400000000001L;
+		store.put("sessionID", String.valueOf(id));
+		store.put("zoom" + 12, "3");
+		store.put("amountofcapturedframes" + id, "30");
+
+		Check.equal(String.valueOf(id), store.get("sessionID"), "sessionID");
+		Check.equal("3", store.get("zoom12"), "key with short number");
+		Check.equal("30", store.get("amountofcapturedframes" + id), "session key");
+		Check.equal(3, store.size(), "size");
+
+		store.clearSession(id);
+		Check.equal(String.valueOf(id), store.get("sessionID"), "sessionID after clear");
+		Check.equal("3", store.get("zoom12"), "short key after clear");
+		Check.equal(null, store.get("amountofcapturedframes" + id), "session key after clear");
+		Check.equal(2, store.size(), "size after clear");
+
+		store.remove("sessionID");
+		Check.equal(null, store.get("sessionID"), "removed sessionID");
+	}
+
+	// RAW capture results are stored by "captureResult" + n + sessionID
+	private static void captureResults()
+	{
+		SessionStore store = new SessionStore();
+		long id = 1400000000002L;
+		Object[] results = new Object[3];
+		for (int i = 0; i < results.length; i++)
+		{
+			results[i] = new Object();
+			store.putCaptureResult("captureResult" + i + id, results[i]);
+		}
+		Object global = new Object();
+		store.putCaptureResult("captureResultLast", global);
+
+		for (int i = 0; i < results.length; i++)
+		{
+			Check.that(store.getCaptureResult("captureResult" + i + id) == results[i], "capture result " + i);
+			Check.that(store.getSession(id).getCaptureResult(i) == results[i], "typed capture result " + i);
+		}
+		Check.that(store.getCaptureResult("captureResult" + 3 + id) == null, "capture result 3");
+		Check.that(store.getCaptureResult("captureResultLast") == global, "global capture result");
+
+		store.clearSession(id);
+		Check.that(store.getCaptureResult("captureResult" + 0 + id) == null, "capture result after clear");
+		Check.that(store.getCaptureResult("captureResultLast") == global, "global capture result after clear");
+	}
+
+	// Id of one session can be a substring of key of another one: frame 1 of
+	// 1400000000000 is "resultframe11400000000000", which contains
+	// 1140000000000. Old shared memory dropped it with that session.
+	private static void substringCollision()
+	{
+		long cleared = 1140000000000L;
+		long kept = 1400000000000L;
+		String key = "resultframe" + 1 + kept;
+		Check.that(key.contains(String.valueOf(cleared)), "ids collide");
+
+		LegacyMemory legacy = new LegacyMemory();
+		legacy.put(key, "42");
+		legacy.clearSession(cleared);
+		Check.equal(null, legacy.get(key), "legacy memory drops key of other session");
+
+		SessionStore store = new SessionStore();
+		store.put(key, "42");
+		store.put("resultframe" + 0 + cleared, "41");
+		store.clearSession(cleared);
+		Check.equal("42", store.get(key), "key of other session");
+		Check.equal(null, store.get("resultframe" + 0 + cleared), "key of cleared session");
+	}
+
+	// Random puts, gets, removes and clears against the old shared memory.
+	// Values are canonical (no leading zeros, lower case booleans) since
+	// typed fields normalize them.
+	private static void model()
+	{
+		Random random = new Random(1);
+		SessionStore store = new SessionStore();
+		LegacyMemory legacy = new LegacyMemory();
+		long[] sessions = { 1400000000000L, 1400000000001L, 1140000000000L, 1411111111111L };
+
+		for (int n = 0; n < 200000; n++)
+		{
+			long id = sessions[random.nextInt(sessions.length)];
+			String key;
+			if (random.nextBoolean())
+				key = FRAME_KEYS[random.nextInt(FRAME_KEYS.length)] + random.nextInt(4) + id;
+			else
+				key = SESSION_KEYS[random.nextInt(SESSION_KEYS.length)] + id;
+
+			int op = random.nextInt(20);
+			if (op == 0)
+			{
+				clear(legacy, store, id);
+			} else if (op < 3)
+			{
+				legacy.table.remove(key);
+				store.remove(key);
+			} else if (op < 10)
+			{
+				String value = value(random);
+				legacy.put(key, value);
+				store.put(key, value);
+			} else
+			{
+				Check.equal(legacy.get(key), store.get(key), "get " + key + " at " + n);
+			}
+		}
+	}
+
+	// Clears session in both memories. Legacy memory may also drop keys of
+	// colliding sessions, those are dropped from store too to stay in sync.
+	private static void clear(LegacyMemory legacy, SessionStore store, long id)
+	{
+		Hashtable<String, String> before = new Hashtable<String, String>(legacy.table);
+		legacy.clearSession(id);
+		store.clearSession(id);
+		for (String key : before.keySet())
+			if (!legacy.table.containsKey(key) && !key.endsWith(String.valueOf(id)))
+			{
+				Check.equal(before.get(key), store.get(key), "key of other session survives clear");
+				store.remove(key);
+			}
+	}
+
+	private static String value(Random random)
+	{
+		switch (random.nextInt(4))
+		{
+		case 0:
+			return String.valueOf(random.nextInt(5000));
+		case 1:
+			return String.valueOf(random.nextBoolean());
+		case 2:
+			return "1/" + (1 + random.nextInt(4000));
+		default:
+			return "v" + random.nextInt(100);
+		}
+	}
+}
@@ -0,0 +1,199 @@
+/*
+	CameraController for OpenCamera project - interface to camera device
+    Copyright (C) 2014  Almalence Inc.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.almalence.opencam.cameracontroller;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+import com.almalence.Check;
+
+/***
+ * LiveviewFrameDecoder with liveview jpegs of the sizes remote cameras send.
+ * Frame size has to come from jpeg header and be downscaled to fit preview
+ * size, as libjpeg decoder only takes exact 1, 2, 4 or 8 scale. Decoding is
+ * done by ImageConversion stand-in from tests/stubs.
+ ***/
+public class LiveviewFrameDecoderTest
+{
+	public static void main(String[] args) throws Exception
+	{
+		jpegSize();
+		brokenHeaders();
+		scale();
+		decodedSizes();
+		System.out.println("LiveviewFrameDecoderTest passed");
+	}
+
+	private static void jpegSize() throws IOException
+	{
+		int[][] sizes = { { 640, 480 }, { 640, 360 }, { 1024, 576 }, { 1280, 720 }, { 7, 5 } };
+		int[] size = new int[2];
+		for (int[] s : sizes)
+		{
+			String name = s[0] + "x" + s[1];
+			byte[] jpeg = jpeg(s[0], s[1], false);
+			Check.that(LiveviewFrameDecoder.readJpegSize(jpeg, 0, jpeg.length, size), name + " size is read");
+			Check.equal(name, size[0] + "x" + size[1], "size of baseline jpeg");
+
+			jpeg = jpeg(s[0], s[1], true);
+			Check.that(LiveviewFrameDecoder.readJpegSize(jpeg, 0, jpeg.length, size), name + " progressive size is read");
+			Check.equal(name, size[0] + "x" + size[1], "size of progressive jpeg");
+
+			// liveview slicer hands jpeg inside of its buffer
+			byte[] framed = withExifAndFill(jpeg);
+			byte[] buffer = new byte[framed.length + 100];
+			System.arraycopy(framed, 0, buffer, 37, framed.length);
+			Check.that(LiveviewFrameDecoder.readJpegSize(buffer, 37, framed.length, size), name + " size at offset");
+			Check.equal(name, size[0] + "x" + size[1], "size of jpeg with APP1 and fill bytes");
+		}
+	}
+
+	private static void brokenHeaders() throws IOException
+	{
+		int[] size = new int[2];
+		byte[] jpeg = jpeg(640, 480, false);
+		int sof = sofPosition(jpeg);
+		Check.that(!LiveviewFrameDecoder.readJpegSize(jpeg, 0, sof + 6, size), "SOF cut in the middle");
+		Check.that(!LiveviewFrameDecoder.readJpegSize(jpeg, 0, sof, size), "no SOF before end of data");
+		Check.that(!LiveviewFrameDecoder.readJpegSize(new byte[] { 1, 2, 3, 4, 5 }, 0, 5, size), "not a jpeg");
+		Check.that(!LiveviewFrameDecoder.readJpegSize(jpeg, 0, 2, size), "SOI only");
+
+		byte[] noSof = jpeg.clone();
+		noSof[sof + 1] = (byte) 0xDA;
+		Check.that(!LiveviewFrameDecoder.readJpegSize(noSof, 0, noSof.length, size), "scan before SOF");
+
+		byte[] badLength = jpeg.clone();
+		badLength[4] = 0;
+		badLength[5] = 0;
+		Check.that(!LiveviewFrameDecoder.readJpegSize(badLength, 0, badLength.length, size), "zero segment length");
+	}
+
+	private static void scale()
+	{
+		Check.equal(1, LiveviewFrameDecoder.getScale(640, 480, 640, 480), "640x480 into 640x480");
+		Check.equal(1, LiveviewFrameDecoder.getScale(640, 360, 640, 480), "640x360 into 640x480");
+		Check.equal(2, LiveviewFrameDecoder.getScale(641, 480, 640, 480), "641x480 into 640x480");
+		Check.equal(2, LiveviewFrameDecoder.getScale(1024, 768, 640, 480), "1024x768 into 640x480");
+		Check.equal(2, LiveviewFrameDecoder.getScale(1280, 720, 640, 480), "1280x720 into 640x480");
+		Check.equal(4, LiveviewFrameDecoder.getScale(1920, 1080, 640, 480), "1920x1080 into 640x480");
+		Check.equal(8, LiveviewFrameDecoder.getScale(6000, 4000, 640, 480), "6000x4000 into 640x480");
+		Check.equal(1, LiveviewFrameDecoder.getScale(1920, 1080, 0, 0), "no limit");
+	}
+
+	// Camera switches liveview size while decoder runs: every jpeg has to be
+	// decoded, to a frame of its own size
+	private static void decodedSizes() throws Exception
+	{
+		final List<String> frames = Collections.synchronizedList(new ArrayList<String>());
+		LiveviewFrameDecoder decoder = new LiveviewFrameDecoder(new LiveviewFrameDecoder.Listener()
+		{
+			@Override
+			public void onFrameDecoded(PreviewFrame frame)
+			{
+				int width = frame.getWidth();
+				int height = frame.getHeight();
+				Check.that(frame.getData().length >= width * height * 3 / 2, "buffer fits frame");
+				frames.add(width + "x" + height + "/" + frame.getData()[0]);
+			}
+		});
+		decoder.setMaxFrameSize(640, 480);
+
+		int[][] sizes = { { 640, 480 }, { 640, 360 }, { 1024, 576 }, { 1024, 768 }, { 640, 480 } };
+		for (int[] s : sizes)
+		{
+			byte[] jpeg = withExifAndFill(jpeg(s[0], s[1], false));
+			for (int i = 0; i < 3; i++)
+			{
+				decoder.offer(jpeg, 0, jpeg.length);
+				long started = System.currentTimeMillis();
+				while (decoder.getDecodedFrames() + decoder.getFailedFrames() + decoder.getDroppedFrames() < frames
+						.size() + 1 && System.currentTimeMillis() - started < 2000)
+					Thread.sleep(1);
+				Thread.sleep(5);
+			}
+		}
+		decoder.stop();
+
+		Check.equal(0, decoder.getFailedFrames(), "failed frames");
+		Check.equal(0, decoder.getDroppedFrames(), "dropped frames");
+		Check.equal(Arrays.asList("640x480/1", "640x480/1", "640x480/1", "640x360/1", "640x360/1", "640x360/1",
+				"512x288/2", "512x288/2", "512x288/2", "512x384/2", "512x384/2", "512x384/2", "640x480/1",
+				"640x480/1", "640x480/1"), frames, "decoded frames (size/scale)");
+	}
+
+	private static byte[] jpeg(int width, int height, boolean progressive) throws IOException
+	{
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < height; y++)
+			for (int x = 0; x < width; x++)
+				image.setRGB(x, y, (x * 255 / width) << 16 | (y * 255 / height) << 8 | 80);
+
+		ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+		ImageWriteParam param = writer.getDefaultWriteParam();
+		if (progressive)
+			param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ImageOutputStream stream = ImageIO.createImageOutputStream(out);
+		writer.setOutput(stream);
+		writer.write(null, new IIOImage(image, null, null), param);
+		stream.close();
+		writer.dispose();
+		return out.toByteArray();
+	}
+
+	// Inserts APP1 segment and fill bytes after SOI, as camera jpegs have
+	private static byte[] withExifAndFill(byte[] jpeg)
+	{
+		byte[] app1 = new byte[300];
+		app1[0] = (byte) 0xFF;
+		app1[1] = (byte) 0xE1;
+		app1[2] = (byte) ((app1.length - 2) >> 8);
+		app1[3] = (byte) (app1.length - 2);
+		// bytes looking like SOF inside of segment data must be skipped
+		app1[10] = (byte) 0xFF;
+		app1[11] = (byte) 0xC0;
+		byte[] fill = { (byte) 0xFF, (byte) 0xFF };
+
+		byte[] result = new byte[jpeg.length + app1.length + fill.length];
+		System.arraycopy(jpeg, 0, result, 0, 2);
+		System.arraycopy(app1, 0, result, 2, app1.length);
+		System.arraycopy(fill, 0, result, 2 + app1.length, fill.length);
+		System.arraycopy(jpeg, 2, result, 2 + app1.length + fill.length, jpeg.length - 2);
+		return result;
+	}
+
+	private static int sofPosition(byte[] jpeg)
+	{
+		for (int i = 2; i + 1 < jpeg.length; i++)
+			if ((jpeg[i] & 0xFF) == 0xFF && (jpeg[i + 1] & 0xFF) == 0xC0)
+				return i;
+		throw new AssertionError("no SOF0 in jpeg");
+	}
+}
@@ -0,0 +1,183 @@
+/*
+	CameraController for OpenCamera project - interface to camera device
+    Copyright (C) 2014  Almalence Inc.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.almalence.opencam.cameracontroller;
+
+import java.util.List;
+
+import com.almalence.Check;
+
+/***
+ * Drives PreviewDispatcher with synthetic 30 fps frames from a pool.
+ ***/
+public class PreviewDispatcherTest
+{
+	private static final long	FRAME_INTERVAL	= 33333333L;
+	private static final int	FRAMES			= 300;
+	private static final int	POOL_SIZE		= 5;
+
+	private static class Consumer implements PreviewDispatcher.Consumer
+	{
+		final int		rate;
+		final long		delay;
+		final boolean	failing;
+		volatile int	calls;
+		volatile long	lastTimestamp	= -1;
+		volatile boolean	outOfOrder;
+
+		Consumer(int rate, long delay, boolean failing)
+		{
+			this.rate = rate;
+			this.delay = delay;
+			this.failing = failing;
+		}
+
+		@Override
+		public void onPreviewFrame(PreviewFrame frame)
+		{
+			calls++;
+			if (frame.getTimestamp() <= lastTimestamp)
+				outOfOrder = true;
+			lastTimestamp = frame.getTimestamp();
+			if (delay > 0)
+				sleep(delay);
+			if (failing && calls == 1)
+				throw new RuntimeException("expected consumer failure");
+		}
+
+		@Override
+		public int getPreviewFrameRate()
+		{
+			return rate;
+		}
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		PreviewFramePool pool = new PreviewFramePool(16, POOL_SIZE);
+		PreviewDispatcher dispatcher = new PreviewDispatcher();
+
+		Consumer slow = new Consumer(PreviewDispatcher.RATE_ALL, 20, false);
+		Consumer fast = new Consumer(PreviewDispatcher.RATE_ALL, 0, false);
+		Consumer rated = new Consumer(5, 0, false);
+		Consumer failing = new Consumer(PreviewDispatcher.RATE_ALL, 0, true);
+		Consumer none = new Consumer(PreviewDispatcher.RATE_NONE, 0, false);
+		Consumer[] consumers = { slow, fast, rated, failing, none };
+
+		long timestamp = 0;
+		int obtained = 0;
+		long maxDispatch = 0;
+		for (int i = 0; i < FRAMES; i++)
+		{
+			timestamp += FRAME_INTERVAL;
+			PreviewFrame frame = pool.obtain(4, 4, timestamp);
+			if (frame == null)
+			{
+				sleep(1);
+				continue;
+			}
+			obtained++;
+
+			long started = System.nanoTime();
+			for (Consumer consumer : consumers)
+				dispatcher.dispatch(consumer, frame);
+			frame.release();
+			maxDispatch = Math.max(maxDispatch, System.nanoTime() - started);
+			sleep(1);
+		}
+		sleep(100);
+
+		List<PreviewDispatcher.Worker> workers = dispatcher.getWorkers();
+		Check.equal(4, workers.size(), "workers, consumer with RATE_NONE has none");
+		for (PreviewDispatcher.Worker worker : workers)
+			Check.log(worker.toString());
+		Check.log("frames obtained " + obtained + ", dropped by pool " + pool.getDroppedFrames()
+				+ ", max dispatch " + maxDispatch / 1000 + "us");
+
+		PreviewDispatcher.Worker slowWorker = workerOf(workers, slow);
+		Check.that(slowWorker.getDroppedFrames() > 0, "slow consumer drops frames from its mailbox");
+		Check.equal(slow.calls, slowWorker.getProcessedFrames(), "slow consumer processed");
+		Check.that(slow.calls < obtained / 4, "slow consumer is not called for every frame");
+		Check.that(!slow.outOfOrder, "slow consumer always gets newer frame");
+		Check.that(slowWorker.getMaxLatency() >= 20, "latency includes consumer time");
+
+		// pool has enough buffers, a slow consumer must not starve others.
+		// Every frame is either processed or replaced by a newer one.
+		PreviewDispatcher.Worker fastWorker = workerOf(workers, fast);
+		Check.equal(fast.calls, fastWorker.getProcessedFrames(), "fast consumer processed");
+		Check.equal(obtained, fastWorker.getProcessedFrames() + fastWorker.getDroppedFrames(), "fast consumer frames");
+		Check.that(fastWorker.getDroppedFrames() < obtained / 10, "fast consumer keeps up");
+		Check.that(!fast.outOfOrder, "fast consumer frame order");
+
+		// 300 frames at 30 fps are 10 seconds, 5 fps gives 50 frames
+		PreviewDispatcher.Worker ratedWorker = workerOf(workers, rated);
+		long accepted = ratedWorker.getProcessedFrames() + ratedWorker.getDroppedFrames();
+		Check.that(Math.abs(accepted - obtained / 6) <= 2, "rated consumer gets 5 fps, got " + accepted);
+		Check.equal(obtained, accepted + ratedWorker.getSkippedFrames(), "rated consumer frames");
+
+		PreviewDispatcher.Worker failingWorker = workerOf(workers, failing);
+		Check.equal(obtained, failingWorker.getProcessedFrames() + failingWorker.getDroppedFrames(),
+				"consumer which throws keeps getting frames");
+		Check.equal(0, none.calls, "RATE_NONE consumer calls");
+
+		dispatcher.shutdown();
+		Check.equal(0, dispatcher.getWorkers().size(), "workers after shutdown");
+
+		// every reference taken by dispatcher is released
+		int free = 0;
+		while (pool.obtain(4, 4, 0) != null)
+			free++;
+		Check.equal(POOL_SIZE, free, "pool buffers after shutdown");
+
+		// timestamp going back is a new preview source, frame is not skipped
+		PreviewDispatcher restarted = new PreviewDispatcher();
+		Consumer again = new Consumer(5, 0, false);
+		PreviewFrame first = PreviewFrame.wrap(new byte[16], 4, 4, 10 * FRAME_INTERVAL);
+		restarted.dispatch(again, first);
+		first.release();
+		sleep(50);
+		PreviewFrame second = PreviewFrame.wrap(new byte[16], 4, 4, FRAME_INTERVAL);
+		restarted.dispatch(again, second);
+		second.release();
+		sleep(50);
+		Check.equal(2, again.calls, "frames after timestamp reset");
+		restarted.shutdown();
+
+		System.out.println("PreviewDispatcherTest passed");
+	}
+
+	private static PreviewDispatcher.Worker workerOf(List<PreviewDispatcher.Worker> workers,
+			PreviewDispatcher.Consumer consumer)
+	{
+		for (PreviewDispatcher.Worker worker : workers)
+			if (worker.getConsumer() == consumer)
+				return worker;
+		throw new AssertionError("no worker of " + consumer);
+	}
+
+	private static void sleep(long ms)
+	{
+		try
+		{
+			Thread.sleep(ms);
+		} catch (InterruptedException e)
+		{
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,276 @@
+/*
+	CameraController for OpenCamera project - interface to camera device
+    Copyright (C) 2014  Almalence Inc.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.almalence.opencam.cameracontroller;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import com.almalence.Check;
+
+/***
+ * RemoteRequestExecutor against a stand-in camera which takes some time for
+ * every call, like camera over Wi-Fi. Requests are submitted with the lanes
+ * and keys SonyRemoteCamera uses.
+ ***/
+public class RemoteRequestExecutorTest
+{
+	// Stand-in of remote camera API, calls are logged in order they arrive
+	private static class StandInCamera
+	{
+		final List<String>	calls		= Collections.synchronizedList(new ArrayList<String>());
+		final long			latency;
+		volatile int		exposure;
+		volatile String		flash		= "off";
+		final List<String>	pictures	= Collections.synchronizedList(new ArrayList<String>());
+		final List<Long>	shutterTimes	= Collections.synchronizedList(new ArrayList<Long>());
+
+		StandInCamera(long latency)
+		{
+			this.latency = latency;
+		}
+
+		void call(String name)
+		{
+			sleep(latency);
+			calls.add(name);
+		}
+
+		void setExposureCompensation(int value)
+		{
+			call("setExposureCompensation " + value);
+			exposure = value;
+		}
+
+		void setFlashMode(String value)
+		{
+			call("setFlashMode " + value);
+			flash = value;
+		}
+
+		void actTakePicture()
+		{
+			shutterTimes.add(System.nanoTime());
+			call("actTakePicture");
+			pictures.add("ev " + exposure + ", flash " + flash);
+		}
+	}
+
+	private static StandInCamera		camera;
+	private static RemoteRequestExecutor	requests;
+
+	public static void main(String[] args) throws Exception
+	{
+		settingsBeforeShutter();
+		settingAfterShutter();
+		zoomCoalescing();
+		shutterUnderSettingsStorm();
+		cancelOnStopLiveview();
+		failingRequest();
+		System.out.println("RemoteRequestExecutorTest passed");
+	}
+
+	// EV and flash changed right before shutter are applied to the picture
+	private static void settingsBeforeShutter() throws Exception
+	{
+		start(30);
+		Future<?> busy = requests.submit(RemoteRequestExecutor.PRIORITY_CONTROL, null, call("startLiveview"));
+		setExposure(2);
+		setFlash("on");
+		takePicture().get();
+
+		Check.that(busy.isDone(), "request submitted first is done");
+		Check.equal(Arrays.asList("ev 2, flash on"), camera.pictures, "picture settings");
+		Check.equal(Arrays.asList("startLiveview", "setExposureCompensation 2", "setFlashMode on", "actTakePicture"),
+				camera.calls, "call order");
+	}
+
+	// Change made after shutter doesn't replace the one made before it
+	private static void settingAfterShutter() throws Exception
+	{
+		start(30);
+		requests.submit(RemoteRequestExecutor.PRIORITY_CONTROL, null, call("startLiveview"));
+		Future<?> before = setExposure(1);
+		Future<?> shot = takePicture();
+		Future<?> after1 = setExposure(3);
+		Future<?> after2 = setExposure(-1);
+		after2.get();
+
+		Check.that(!before.isCancelled(), "setting before shutter is not coalesced with later one");
+		Check.that(shot.isDone() && !shot.isCancelled(), "picture taken");
+		Check.that(after1.isCancelled(), "settings after shutter are coalesced");
+		Check.equal(Arrays.asList("ev 1, flash off"), camera.pictures, "picture settings");
+		Check.equal(-1, camera.exposure, "final exposure");
+	}
+
+	// Ten zoom steps while camera is busy become the latest one
+	private static void zoomCoalescing() throws Exception
+	{
+		start(30);
+		requests.submit(RemoteRequestExecutor.PRIORITY_CONTROL, null, call("startLiveview"));
+		List<Future<?>> steps = new ArrayList<Future<?>>();
+		for (int i = 0; i < 10; i++)
+			steps.add(requests.submit(RemoteRequestExecutor.PRIORITY_CONTROL, "actZoom in 1shot", call("actZoom "
+					+ i)));
+		steps.get(9).get();
+
+		for (int i = 0; i < 9; i++)
+			Check.that(steps.get(i).isCancelled(), "zoom step " + i + " is replaced");
+		Check.equal(Arrays.asList("startLiveview", "actZoom 9"), camera.calls, "calls");
+		Check.equal(9, requests.getCoalescedCount(), "coalesced requests");
+	}
+
+	// Shutter pressed while user keeps zooming and moving EV slider. Shutter
+	// waits for the call in flight and for the latest zoom and EV change made
+	// before it, not for every step.
+	private static void shutterUnderSettingsStorm() throws Exception
+	{
+		long latency = 20;
+		start(latency);
+		int shots = 20;
+		long[] waits = new long[shots];
+		for (int shot = 0; shot < shots; shot++)
+		{
+			for (int i = 0; i < 50; i++)
+				requests.submit(RemoteRequestExecutor.PRIORITY_CONTROL, "actZoom in 1shot", call("actZoom " + i));
+			for (int i = 0; i < 5; i++)
+				setExposure(i);
+			sleep(latency / 2);
+
+			long pressed = System.nanoTime();
+			takePicture().get();
+			waits[shot] = (camera.shutterTimes.get(shot) - pressed) / 1000000;
+			requests.cancelPending();
+		}
+		Arrays.sort(waits);
+
+		long p50 = waits[shots / 2];
+		long max = waits[shots - 1];
+		Check.log("shutter-to-request under settings storm (" + latency + "ms per call): p50 " + p50 + "ms, max "
+				+ max + "ms, average shutter wait in queue "
+				+ requests.getAverageWait(RemoteRequestExecutor.PRIORITY_SHUTTER) + "ms");
+		for (String picture : camera.pictures)
+			Check.equal("ev 4, flash off", picture, "picture takes last EV set before shutter");
+		// call in flight, one coalesced zoom and one coalesced EV change at most
+		Check.that(max < 4 * latency, "shutter doesn't wait for every settings step, max " + max + "ms");
+	}
+
+	// stopLiveview drops everything queued for liveview session
+	private static void cancelOnStopLiveview() throws Exception
+	{
+		start(30);
+		Future<?> running = requests.submit(RemoteRequestExecutor.PRIORITY_CONTROL, null, call("startLiveview"));
+		sleep(5);
+		List<Future<?>> queued = new ArrayList<Future<?>>();
+		for (int i = 0; i < 5; i++)
+			queued.add(requests.submit(RemoteRequestExecutor.PRIORITY_CONTROL, null, call("getAvailableApiList")));
+		queued.add(setExposure(1));
+
+		Check.equal(6, requests.cancelPending(), "dropped requests");
+		running.get();
+		for (Future<?> future : queued)
+			Check.that(future.isCancelled(), "queued request is cancelled");
+		sleep(50);
+		Check.that(requests.isIdle(), "executor is idle");
+		Check.equal(Arrays.asList("startLiveview"), camera.calls, "calls");
+	}
+
+	// Exception of one request doesn't stop the worker
+	private static void failingRequest() throws Exception
+	{
+		start(0);
+		requests.submit(RemoteRequestExecutor.PRIORITY_CONTROL, null, new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				throw new IllegalStateException("expected request failure");
+			}
+		});
+		takePicture().get();
+		Check.equal(1, camera.pictures.size(), "picture after failed request");
+	}
+
+	private static void start(long latency)
+	{
+		camera = new StandInCamera(latency);
+		requests = new RemoteRequestExecutor("StandInRequests", null);
+	}
+
+	private static Runnable call(final String name)
+	{
+		return new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				camera.call(name);
+			}
+		};
+	}
+
+	private static Future<?> setExposure(final int value)
+	{
+		return requests.submit(RemoteRequestExecutor.PRIORITY_CONTROL, "setExposureCompensation", new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				camera.setExposureCompensation(value);
+			}
+		});
+	}
+
+	private static Future<?> setFlash(final String value)
+	{
+		return requests.submit(RemoteRequestExecutor.PRIORITY_CONTROL, "setFlashMode", new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				camera.setFlashMode(value);
+			}
+		});
+	}
+
+	private static Future<?> takePicture()
+	{
+		return requests.submit(RemoteRequestExecutor.PRIORITY_SHUTTER, null, new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				camera.actTakePicture();
+			}
+		});
+	}
+
+	private static void sleep(long ms)
+	{
+		try
+		{
+			Thread.sleep(ms);
+		} catch (InterruptedException e)
+		{
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,76 @@
+/*
+The contents of this file are subject to the Mozilla Public License
+Version 1.1 (the "License"); you may not use this file except in
+compliance with the License. You may obtain a copy of the License at
+http://www.mozilla.org/MPL/
+
+Software distributed under the License is distributed on an "AS IS"
+basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+License for the specific language governing rights and limitations
+under the License.
+
+The Original Code is collection of files collectively known as Open Camera.
+
+The Initial Developer of the Original Code is Almalence Inc.
+Portions created by Initial Developer are Copyright (C) 2013
+by Almalence Inc. All Rights Reserved.
+ */
+
+package com.almalence.plugins.capture.panoramaaugmented;
+
+import java.lang.management.ManagementFactory;
+
+import android.hardware.SensorEventListener;
+
+/***
+ * Time and heap allocated per sensor event of a 20 s panorama trace, by the
+ * listener as it was before RotationFusion and by the current one.
+ ***/
+public class RotationFusionBench
+{
+	private static final com.sun.management.ThreadMXBean	threads	= (com.sun.management.ThreadMXBean) ManagementFactory
+																			.getThreadMXBean();
+
+	private static long										sink;
+
+	public static void main(String[] args)
+	{
+		SensorTrace trace = new SensorTrace(1, 20);
+		for (int round = 0; round < 3; round++)
+		{
+			RotationFusionTest.Recorder legacy = new RotationFusionTest.Recorder(64);
+			LegacyRotationListener legacyListener = new LegacyRotationListener(false, true);
+			legacyListener.setReceiver(legacy);
+			run("legacy listener", trace, legacyListener, round == 2);
+			sink += legacy.count;
+
+			RotationFusionTest.Recorder fused = new RotationFusionTest.Recorder(64);
+			AugmentedRotationListener listener = new AugmentedRotationListener(false, true);
+			listener.setReceiver(fused);
+			run("RotationFusion", trace, listener, round == 2);
+			sink += fused.count;
+		}
+		System.out.println("RotationFusionBench done");
+	}
+
+	private static void run(String name, SensorTrace trace, SensorEventListener listener, boolean report)
+	{
+		long thread = Thread.currentThread().getId();
+		long offset = 0;
+		long bytes = threads.getThreadAllocatedBytes(thread);
+		long started = System.nanoTime();
+		int replays = 0;
+		while (System.nanoTime() - started < 1000000000L)
+		{
+			trace.replay(listener, offset);
+			offset += trace.duration();
+			replays++;
+		}
+		long time = System.nanoTime() - started;
+		bytes = threads.getThreadAllocatedBytes(thread) - bytes;
+
+		long events = (long) replays * trace.size();
+		if (report)
+			System.out.println("  " + name + ": " + time / events + " ns/event, " + bytes / events + " B/event");
+	}
+}
@@ -0,0 +1,112 @@
+/*
+The contents of this file are subject to the Mozilla Public License
+Version 1.1 (the "License"); you may not use this file except in
+compliance with the License. You may obtain a copy of the License at
+http://www.mozilla.org/MPL/
+
+Software distributed under the License is distributed on an "AS IS"
+basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+License for the specific language governing rights and limitations
+under the License.
+
+The Original Code is collection of files collectively known as Open Camera.
+
+The Initial Developer of the Original Code is Almalence Inc.
+Portions created by Initial Developer are Copyright (C) 2013
+by Almalence Inc. All Rights Reserved.
+ */
+
+package com.almalence.plugins.capture.panoramaaugmented;
+
+import java.lang.management.ManagementFactory;
+
+import com.almalence.Check;
+import com.almalence.plugins.capture.panoramaaugmented.AugmentedRotationListener.AugmentedRotationReceiver;
+
+/***
+ * Replays a fixed sensor trace through AugmentedRotationListener, which runs
+ * RotationFusion, and through the listener as it was before. Every rotation
+ * matrix handed to receiver must be bit-identical, and the new listener must
+ * not allocate anything per event.
+ ***/
+public class RotationFusionTest
+{
+	private static final com.sun.management.ThreadMXBean	threads	= (com.sun.management.ThreadMXBean) ManagementFactory
+																			.getThreadMXBean();
+
+	// Keeps every matrix in a preallocated array, wraps around when full
+	static class Recorder implements AugmentedRotationReceiver
+	{
+		final float[]	matrices;
+		int				count;
+
+		Recorder(int capacity)
+		{
+			matrices = new float[capacity * 9];
+		}
+
+		@Override
+		public void onRotationChanged(float[] transformation_matrix)
+		{
+			System.arraycopy(transformation_matrix, 0, matrices, (count * 9) % matrices.length, 9);
+			count++;
+		}
+	}
+
+	public static void main(String[] args)
+	{
+		SensorTrace trace = new SensorTrace(1, 20);
+		identical(trace, false);
+		identical(trace, true);
+		noAllocation(trace);
+		System.out.println("RotationFusionTest passed");
+	}
+
+	private static void identical(SensorTrace trace, boolean remap)
+	{
+		Recorder legacy = new Recorder(trace.size());
+		LegacyRotationListener legacyListener = new LegacyRotationListener(remap, true);
+		legacyListener.setReceiver(legacy);
+		trace.replay(legacyListener, 0);
+
+		Recorder fused = new Recorder(trace.size());
+		AugmentedRotationListener listener = new AugmentedRotationListener(remap, true);
+		listener.setReceiver(fused);
+		trace.replay(listener, 0);
+
+		Check.that(legacy.count > trace.size() / 8, "rotations of trace: " + legacy.count);
+		Check.equal(legacy.count, fused.count, "rotations, remap " + remap);
+		for (int i = 0; i < legacy.count * 9; i++)
+		{
+			Check.that(!Float.isNaN(legacy.matrices[i]), "NaN in reference matrix " + i / 9);
+			Check.equal(Float.floatToRawIntBits(legacy.matrices[i]), Float.floatToRawIntBits(fused.matrices[i]),
+					"bits of matrix " + i / 9 + " element " + i % 9 + ", remap " + remap);
+		}
+		Check.log("remap " + remap + ": " + legacy.count + " identical matrices of " + trace.size() + " events");
+	}
+
+	private static void noAllocation(SensorTrace trace)
+	{
+		Recorder recorder = new Recorder(64);
+		AugmentedRotationListener listener = new AugmentedRotationListener(false, true);
+		listener.setReceiver(recorder);
+
+		long offset = 0;
+		for (int i = 0; i < 30; i++)
+		{
+			trace.replay(listener, offset);
+			offset += trace.duration();
+		}
+
+		long thread = Thread.currentThread().getId();
+		int replays = 10;
+		long bytes = threads.getThreadAllocatedBytes(thread);
+		for (int i = 0; i < replays; i++)
+		{
+			trace.replay(listener, offset);
+			offset += trace.duration();
+		}
+		bytes = threads.getThreadAllocatedBytes(thread) - bytes;
+		Check.equal(0, bytes, "bytes allocated by " + replays * trace.size() + " events");
+	}
+}
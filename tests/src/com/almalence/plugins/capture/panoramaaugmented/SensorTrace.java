@@ -0,0 +1,169 @@
+/*
+The contents of this file are subject to the Mozilla Public License
+Version 1.1 (the "License"); you may not use this file except in
+compliance with the License. You may obtain a copy of the License at
+http://www.mozilla.org/MPL/
+
+Software distributed under the License is distributed on an "AS IS"
+basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+License for the specific language governing rights and limitations
+under the License.
+
+The Original Code is collection of files collectively known as Open Camera.
+
+The Initial Developer of the Original Code is Almalence Inc.
+Portions created by Initial Developer are Copyright (C) 2013
+by Almalence Inc. All Rights Reserved.
+ */
+
+package com.almalence.plugins.capture.panoramaaugmented;
+
+import java.lang.reflect.Constructor;
+import java.util.Random;
+
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+
+/***
+ * Fixed trace of a panorama sweep: accelerometer at 100 Hz, magnetometer at
+ * 50 Hz and viewfinder gyroscope at 30 fps, generated from a seed. Device
+ * turns around vertical axis while pitch and roll wobble, sensors are noisy,
+ * VF gyro has occasional outbursts above 5 rad/s, accelerometer has shakes
+ * and magnetometer drops out for a while.
+ ***/
+final class SensorTrace
+{
+	static final int	ACCELEROMETER	= 0;
+	static final int	MAGNETOMETER	= 1;
+	static final int	VF_GYRO			= 2;
+
+	final int[]			types;
+	final long[]		timestamps;
+	final float[][]		values;
+
+	// Events are reused like framework does, listeners may change values
+	private final SensorEvent[]	events	= new SensorEvent[3];
+
+	SensorTrace(long seed, int seconds)
+	{
+		Random random = new Random(seed);
+		int count = seconds * (100 + 50 + 30);
+		types = new int[count];
+		timestamps = new long[count];
+		values = new float[count][3];
+
+		long start = 1000000000L;
+		long[] next = { start, start + 3000000, start + 7000000 };
+		long[] period = { 10000000, 20000000, 33333333 };
+		float[] rotation = new float[9];
+		for (int n = 0; n < count; n++)
+		{
+			int type = 0;
+			for (int k = 1; k < 3; k++)
+				if (next[k] < next[type])
+					type = k;
+			long t = next[type];
+			next[type] += period[type];
+			types[n] = type;
+			timestamps[n] = t;
+
+			double s = (t - start) * 1e-9;
+			double azimuth = 0.4 * s + 0.3 * Math.sin(0.7 * s);
+			double pitch = 0.3 * Math.sin(0.5 * s);
+			double roll = 0.2 * Math.cos(0.4 * s);
+			rotation(azimuth, pitch, roll, rotation);
+
+			float[] v = values[n];
+			switch (type)
+			{
+			case ACCELEROMETER:
+				rotate(rotation, 0, 0, 9.81, v);
+				noise(v, random, s > 6 && s < 6.5 ? 4 : 0.05);
+				break;
+			case MAGNETOMETER:
+				rotate(rotation, 0, 22, -40, v);
+				noise(v, random, 0.5);
+				if (s > 12 && s < 12.4)
+					v[0] = v[1] = v[2] = 0.2f;
+				break;
+			default:
+				v[0] = (float) (0.15 * Math.cos(0.5 * s));
+				v[1] = (float) (-0.08 * Math.sin(0.4 * s));
+				v[2] = (float) (0.4 + 0.21 * Math.cos(0.7 * s));
+				noise(v, random, 0.02);
+				if (random.nextInt(40) == 0)
+					v[random.nextInt(3)] = 8 * (random.nextBoolean() ? 1 : -1);
+				break;
+			}
+		}
+
+		try
+		{
+			Constructor<SensorEvent> constructor = SensorEvent.class.getDeclaredConstructor(int.class);
+			constructor.setAccessible(true);
+			for (int k = 0; k < 3; k++)
+				events[k] = constructor.newInstance(3);
+		} catch (Exception e)
+		{
+			throw new IllegalStateException(e);
+		}
+		events[ACCELEROMETER].sensor = new Sensor(Sensor.TYPE_ACCELEROMETER);
+		events[MAGNETOMETER].sensor = new Sensor(Sensor.TYPE_MAGNETIC_FIELD);
+		events[VF_GYRO].sensor = null; // null means VfGyro
+	}
+
+	int size()
+	{
+		return types.length;
+	}
+
+	// Delivers events to listener, timestamps shifted by offset
+	void replay(SensorEventListener listener, long offset)
+	{
+		for (int n = 0; n < types.length; n++)
+		{
+			SensorEvent event = events[types[n]];
+			event.timestamp = timestamps[n] + offset;
+			event.values[0] = values[n][0];
+			event.values[1] = values[n][1];
+			event.values[2] = values[n][2];
+			listener.onSensorChanged(event);
+		}
+	}
+
+	// duration of trace, ns
+	long duration()
+	{
+		return timestamps[timestamps.length - 1] - timestamps[0] + 1000000000L;
+	}
+
+	private static void rotation(double azimuth, double pitch, double roll, float[] r)
+	{
+		double ca = Math.cos(azimuth), sa = Math.sin(azimuth);
+		double cp = Math.cos(pitch), sp = Math.sin(pitch);
+		double cr = Math.cos(roll), sr = Math.sin(roll);
+		r[0] = (float) (ca * cr - sa * sp * sr);
+		r[1] = (float) (sa * cr + ca * sp * sr);
+		r[2] = (float) (-cp * sr);
+		r[3] = (float) (-sa * cp);
+		r[4] = (float) (ca * cp);
+		r[5] = (float) sp;
+		r[6] = (float) (ca * sr + sa * sp * cr);
+		r[7] = (float) (sa * sr - ca * sp * cr);
+		r[8] = (float) (cp * cr);
+	}
+
+	private static void rotate(float[] r, double x, double y, double z, float[] out)
+	{
+		out[0] = (float) (r[0] * x + r[1] * y + r[2] * z);
+		out[1] = (float) (r[3] * x + r[4] * y + r[5] * z);
+		out[2] = (float) (r[6] * x + r[7] * y + r[8] * z);
+	}
+
+	private static void noise(float[] v, Random random, double sigma)
+	{
+		for (int i = 0; i < 3; i++)
+			v[i] += (float) (random.nextGaussian() * sigma);
+	}
+}
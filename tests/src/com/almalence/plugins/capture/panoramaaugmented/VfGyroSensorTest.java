@@ -0,0 +1,309 @@
+/*
+The contents of this file are subject to the Mozilla Public License
+Version 1.1 (the "License"); you may not use this file except in
+compliance with the License. You may obtain a copy of the License at
+http://www.mozilla.org/MPL/
+
+Software distributed under the License is distributed on an "AS IS"
+basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+License for the specific language governing rights and limitations
+under the License.
+
+The Original Code is collection of files collectively known as Open Camera.
+
+The Initial Developer of the Original Code is Almalence Inc.
+Portions created by Initial Developer are Copyright (C) 2013
+by Almalence Inc. All Rights Reserved.
+ */
+
+package com.almalence.plugins.capture.panoramaaugmented;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+
+import com.almalence.Check;
+
+/***
+ * Feeds VfGyroSensor with 30 fps NV21 frames over a fake estimator. Frames
+ * coming while the estimator is busy must be dropped and counted, accepted
+ * ones must reach the estimator as their own luma plane with the time of
+ * NewData, and their events must come in order. Estimator thread must exit
+ * after idle timeout and start again with the next frame.
+ ***/
+public class VfGyroSensorTest
+{
+	private static final int	WIDTH			= 64;
+	private static final int	HEIGHT			= 48;
+	private static final long	FRAME_INTERVAL	= 33;
+	private static final int	FRAMES			= 60;
+
+	// Estimator which takes updateTime ms per frame
+	private static class FakeSensor extends VfGyroSensor
+	{
+		final long			updateTime;
+		final List<long[]>	updates		= new ArrayList<long[]>();	// {frame number, timestamp}
+		volatile int		mixedFrames;
+		volatile int		wrongSize;
+		volatile int		frameWidth;
+		volatile boolean	released;
+
+		FakeSensor(SensorEventListener listener, long updateTime)
+		{
+			super(listener);
+			this.updateTime = updateTime;
+		}
+
+		@Override
+		protected void initialize()
+		{
+		}
+
+		@Override
+		protected void release()
+		{
+			released = true;
+		}
+
+		@Override
+		protected void setFrameParameters(int w, int h, float HorizontalFOV, float VerticalFOV)
+		{
+			frameWidth = w;
+		}
+
+		@Override
+		protected void update(byte[] luma, long timestamp, boolean justStability)
+		{
+			if (luma.length != WIDTH * HEIGHT)
+				wrongSize++;
+			for (int i = 1; i < luma.length; i++)
+				if (luma[i] != luma[0])
+				{
+					mixedFrames++;
+					break;
+				}
+			synchronized (updates)
+			{
+				updates.add(new long[] { luma[0], timestamp });
+			}
+			sleep(updateTime);
+		}
+
+		@Override
+		protected void get(float[] values)
+		{
+			values[0] = 0.1f;
+			values[1] = 0.2f;
+			values[2] = 0.3f;
+		}
+
+		List<long[]> getUpdates()
+		{
+			synchronized (updates)
+			{
+				return new ArrayList<long[]>(updates);
+			}
+		}
+	}
+
+	private static class Listener implements SensorEventListener
+	{
+		final List<Long>	timestamps	= new ArrayList<Long>();
+
+		@Override
+		public synchronized void onSensorChanged(SensorEvent event)
+		{
+			timestamps.add(event.timestamp);
+		}
+
+		@Override
+		public void onAccuracyChanged(Sensor sensor, int accuracy)
+		{
+		}
+
+		synchronized List<Long> getTimestamps()
+		{
+			return new ArrayList<Long>(timestamps);
+		}
+	}
+
+	public static void main(String[] args)
+	{
+		fastEstimator();
+		slowEstimator();
+		idleRestart();
+		System.out.println("VfGyroSensorTest passed");
+	}
+
+	// Estimator keeps up with preview, nothing is dropped
+	private static void fastEstimator()
+	{
+		Listener listener = new Listener();
+		FakeSensor sensor = new FakeSensor(listener, 5);
+		sensor.SetFrameParameters(WIDTH, HEIGHT, 60, 45);
+		Check.equal(WIDTH, sensor.frameWidth, "frame parameters reach estimator");
+
+		long[][] calls = feed(sensor, 0, 30);
+		awaitProcessed(sensor, 30);
+		Check.equal(0, sensor.getDroppedFrames(), "dropped by fast estimator");
+		Check.equal(30, sensor.getUpdates().size(), "frames estimated by fast estimator");
+		checkEvents(sensor, listener, calls, 0);
+		Check.log("fast: latency avg " + sensor.getAverageLatency() + " ms, max " + sensor.getMaxLatency() + " ms");
+		sensor.close();
+		Check.that(sensor.released, "close releases estimator");
+	}
+
+	// Estimator takes 50 ms of 33 ms frame interval, it gets every other
+	// frame
+	private static void slowEstimator()
+	{
+		Listener listener = new Listener();
+		FakeSensor sensor = new FakeSensor(listener, 50);
+		sensor.SetFrameParameters(WIDTH, HEIGHT, 60, 45);
+
+		long[][] calls = feed(sensor, 0, FRAMES);
+		long processed = awaitIdle(sensor);
+		long dropped = sensor.getDroppedFrames();
+		Check.equal(FRAMES, processed + dropped, "processed and dropped frames");
+		Check.that(dropped >= FRAMES / 6, "slow estimator drops frames: " + dropped);
+		Check.that(processed >= FRAMES / 3, "slow estimator processes frames: " + processed);
+		checkEvents(sensor, listener, calls, 0);
+
+		Check.that(sensor.getAverageLatency() >= 50, "latency includes estimation: " + sensor.getAverageLatency());
+		Check.that(sensor.getMaxLatency() < 50 + 2 * FRAME_INTERVAL + 50, "max latency " + sensor.getMaxLatency());
+		Check.log("slow: processed " + processed + ", dropped " + dropped + ", latency avg "
+				+ sensor.getAverageLatency() + " ms, max " + sensor.getMaxLatency() + " ms");
+		sensor.close();
+	}
+
+	// Thread exits after 2 s without frames and starts with the next one
+	private static void idleRestart()
+	{
+		// threads of sensors closed before
+		awaitNoEstimator();
+
+		Listener listener = new Listener();
+		FakeSensor sensor = new FakeSensor(listener, 5);
+		sensor.SetFrameParameters(WIDTH, HEIGHT, 60, 45);
+
+		long[][] calls = feed(sensor, 0, 5);
+		awaitProcessed(sensor, 5);
+		Check.equal(1, estimatorThreads(), "estimator thread while frames come");
+		checkEvents(sensor, listener, calls, 0);
+
+		awaitNoEstimator();
+
+		calls = feed(sensor, 5, 5);
+		awaitProcessed(sensor, 10);
+		Check.equal(1, estimatorThreads(), "estimator thread after restart");
+		Check.equal(0, sensor.getDroppedFrames(), "dropped around restart");
+		checkEvents(sensor, listener, calls, 5);
+		sensor.close();
+	}
+
+	// Every estimated frame was fed in order and gives an event with the
+	// time of its NewData call. Other events are smoothing ones between
+	// frames.
+	private static void checkEvents(FakeSensor sensor, Listener listener, long[][] calls, int first)
+	{
+		Check.equal(0, sensor.mixedFrames, "luma buffers mixed while estimated");
+		Check.equal(0, sensor.wrongSize, "luma of wrong size");
+
+		List<long[]> updates = sensor.getUpdates();
+		int previous = -1;
+		for (long[] update : updates)
+		{
+			int n = (int) update[0] - first;
+			if (n < 0 || n >= calls.length)
+				continue;
+			Check.that(n > previous, "frame " + n + " estimated after " + previous);
+			Check.that(update[1] >= calls[n][0] && update[1] <= calls[n][1], "time of frame " + n
+					+ " is its NewData time");
+			previous = n;
+		}
+
+		List<Long> estimated = new ArrayList<Long>();
+		List<Long> timestamps = listener.getTimestamps();
+		for (long[] update : updates)
+			Check.that(timestamps.contains(update[1]), "event of estimated frame " + update[0]);
+		for (long timestamp : timestamps)
+			for (long[] update : updates)
+				if (update[1] == timestamp)
+					estimated.add(timestamp);
+		for (int i = 1; i < estimated.size(); i++)
+			Check.that(estimated.get(i) > estimated.get(i - 1), "events out of order at " + i);
+	}
+
+	// Feeds frames first.. at 30 fps, every one filled with its number. Returns
+	// bounds of NewData calls, {before, after} per frame.
+	private static long[][] feed(FakeSensor sensor, int first, int count)
+	{
+		long[][] calls = new long[count][];
+		byte[] frame = new byte[WIDTH * HEIGHT * 3 / 2];
+		long start = System.currentTimeMillis();
+		for (int n = 0; n < count; n++)
+		{
+			long due = start + n * FRAME_INTERVAL;
+			long now = System.currentTimeMillis();
+			if (due > now)
+				sleep(due - now);
+			Arrays.fill(frame, (byte) (first + n));
+			long before = System.nanoTime();
+			sensor.NewData(frame);
+			calls[n] = new long[] { before, System.nanoTime() };
+		}
+		return calls;
+	}
+
+	private static void awaitProcessed(FakeSensor sensor, long count)
+	{
+		long deadline = System.currentTimeMillis() + 5000;
+		while (sensor.getProcessedFrames() < count && System.currentTimeMillis() < deadline)
+			sleep(5);
+		Check.equal(count, sensor.getProcessedFrames(), "processed frames");
+	}
+
+	// Waits until estimator finishes the last accepted frame
+	private static long awaitIdle(FakeSensor sensor)
+	{
+		long processed = -1;
+		while (processed != sensor.getProcessedFrames())
+		{
+			processed = sensor.getProcessedFrames();
+			sleep(sensor.updateTime + 20);
+		}
+		return processed;
+	}
+
+	private static void awaitNoEstimator()
+	{
+		long deadline = System.currentTimeMillis() + 5000;
+		while (estimatorThreads() > 0 && System.currentTimeMillis() < deadline)
+			sleep(100);
+		Check.equal(0, estimatorThreads(), "estimator thread after idle timeout");
+	}
+
+	private static int estimatorThreads()
+	{
+		int count = 0;
+		for (Thread thread : Thread.getAllStackTraces().keySet())
+			if ("VfGyroSensor".equals(thread.getName()) && thread.isAlive())
+				count++;
+		return count;
+	}
+
+	private static void sleep(long ms)
+	{
+		try
+		{
+			Thread.sleep(ms);
+		} catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,185 @@
+package com.almalence.plugins.export.ExifDriver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+
+import com.almalence.Check;
+import com.almalence.plugins.export.ExifDriver.Values.ValueByteArray;
+import com.almalence.plugins.export.ExifDriver.Values.ValueNumber;
+import com.almalence.plugins.export.ExifDriver.Values.ValueRationals;
+import com.almalence.util.ExifCorpus;
+
+/**
+ * Saving edited Exif back to a file: saveInPlace must give the same Exif as
+ * a full save to a new file and leave image data untouched, whether new Exif
+ * fits into the old APP1 and is patched in place or the file is rewritten.
+ */
+public class ExifDriverTest
+{
+	private static File	directory;
+
+	public static void main(String[] args) throws Exception
+	{
+		// driver traces parsing to stdout
+		PrintStream out = System.out;
+		System.setOut(new PrintStream(new ByteArrayOutputStream()));
+		directory = createDirectory();
+		try
+		{
+			byte[] image = ExifCorpus.image(1024, 768, 0, new Random(1));
+			byte[] exif = ExifCorpus.generate(1, 1).get(0);
+			patchedInPlace(image, exif);
+			rewritten(image, exif);
+			notFromFile(exif);
+		} finally
+		{
+			System.setOut(out);
+			for (File file : directory.listFiles())
+				file.delete();
+			directory.delete();
+		}
+		System.out.println("ExifDriverTest passed");
+	}
+
+	// APP1 saved with padding takes edits without rewriting the file
+	private static void patchedInPlace(byte[] image, byte[] exif) throws Exception
+	{
+		File file = base(directory, image, exif, 1024);
+		long length = file.length();
+
+		ExifDriver driver = ExifDriver.getInstance(file.getPath());
+		edit(driver, 0);
+		long written = driver.saveInPlace();
+		Check.equal(length, file.length(), "file length after patch");
+		Check.that(written < 4096, "patch writes only APP1, wrote " + written + " bytes");
+		checkSaved(file, image, 0);
+
+		// driver keeps working on the patched file
+		edit(driver, 1);
+		Check.that(driver.saveInPlace() < 4096, "second patch by the same driver");
+		checkSaved(file, image, 1);
+	}
+
+	// APP1 without padding has no room for new tags, file is rewritten
+	private static void rewritten(byte[] image, byte[] exif) throws Exception
+	{
+		File file = base(directory, image, exif, 0);
+		long length = file.length();
+
+		ExifDriver driver = ExifDriver.getInstance(file.getPath());
+		edit(driver, 0);
+		long written = driver.saveInPlace();
+		Check.equal(file.length(), written, "rewrite writes whole file");
+		Check.that(file.length() > length, "file grows by new tags");
+		Check.that(!new File(file.getPath() + ".exif.tmp").exists(), "temporary file is replaced");
+		checkSaved(file, image, 0);
+
+		// value of the same size fits into the rewritten APP1
+		edit(driver, 1);
+		Check.that(driver.saveInPlace() < 4096, "patch after rewrite");
+		checkSaved(file, image, 1);
+	}
+
+	private static void notFromFile(byte[] exif)
+	{
+		try
+		{
+			ExifDriver.getInstance(exif, exif.length).saveInPlace();
+			Check.that(false, "saveInPlace of driver created from array");
+		} catch (IllegalStateException e)
+		{
+			// expected
+		} catch (IOException e)
+		{
+			Check.that(false, "saveInPlace of driver created from array: " + e);
+		}
+	}
+
+	// Exif of file equals the one written by full save of the same edit, and
+	// image data follow it unchanged
+	private static void checkSaved(File file, byte[] image, int k) throws Exception
+	{
+		ExifDriver saved = ExifDriver.getInstance(file.getPath());
+		Check.that(saved != null, "saved file is parsed");
+		Check.equal(1 + k % 8, saved.getIfd0().get(ExifDriver.TAG_ORIENTATION).getIntegers()[0], "orientation");
+
+		File full = new File(directory, "full.jpg");
+		ExifDriver expected = ExifDriver.getInstance(file.getPath());
+		edit(expected, k);
+		expected.save(full.getPath());
+		Check.that(Arrays.equals(ExifDriver.getInstance(full.getPath()).buildApp1(), saved.buildApp1()),
+				"Exif equals full save");
+
+		byte[] data = read(file);
+		Check.that(Arrays.equals(Arrays.copyOfRange(image, 2, image.length),
+				Arrays.copyOfRange(data, data.length - image.length + 2, data.length)), "image data intact");
+	}
+
+	/**
+	 * Edits export makes to a saved picture: GPS position, artist and
+	 * orientation. Values have the same size for every k.
+	 */
+	static void edit(ExifDriver driver, int k)
+	{
+		ValueRationals position = new ValueRationals(ExifDriver.FORMAT_UNSIGNED_RATIONAL);
+		position.setRationals(new int[][] { { 55, 1 }, { 45, 1 }, { 1234 + k, 100 } });
+		driver.getIfdGps().put(ExifDriver.TAG_GPS_LATITUDE, position);
+		driver.getIfdGps().put(ExifDriver.TAG_GPS_LONGITUDE, position);
+		ValueByteArray reference = new ValueByteArray(ExifDriver.FORMAT_ASCII_STRINGS);
+		reference.setBytes("N\0".getBytes());
+		driver.getIfdGps().put(ExifDriver.TAG_GPS_LATITUDE_REF, reference);
+		ValueByteArray artist = new ValueByteArray(ExifDriver.FORMAT_ASCII_STRINGS);
+		artist.setBytes("Some Photographer\0".getBytes());
+		driver.getIfd0().put(ExifDriver.TAG_ARTIST, artist);
+		driver.getIfd0().put(ExifDriver.TAG_ORIENTATION, new ValueNumber(ExifDriver.FORMAT_UNSIGNED_SHORT, 1 + k % 8));
+	}
+
+	/**
+	 * File of image with Exif of another jpeg, APP1 padded.
+	 */
+	static File base(File directory, byte[] image, byte[] exif, int padding) throws IOException
+	{
+		ExifDriver driver = ExifDriver.getInstance(exif, exif.length);
+		driver.setPadding(padding);
+		ByteArrayOutputStream data = new ByteArrayOutputStream(image.length + 4096);
+		driver.save(data, image, image.length);
+		File file = new File(directory, "base" + padding + ".jpg");
+		FileOutputStream out = new FileOutputStream(file);
+		try
+		{
+			data.writeTo(out);
+		} finally
+		{
+			out.close();
+		}
+		return file;
+	}
+
+	static File createDirectory() throws IOException
+	{
+		File file = File.createTempFile("exifdriver", "");
+		file.delete();
+		file.mkdir();
+		return file;
+	}
+
+	static byte[] read(File file) throws IOException
+	{
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try
+		{
+			byte[] data = new byte[(int) in.length()];
+			in.readFully(data);
+			return data;
+		} finally
+		{
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,156 @@
+/*
+The contents of this file are subject to the Mozilla Public License
+Version 1.1 (the "License"); you may not use this file except in
+compliance with the License. You may obtain a copy of the License at
+http://www.mozilla.org/MPL/
+
+Software distributed under the License is distributed on an "AS IS"
+basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+License for the specific language governing rights and limitations
+under the License.
+
+The Original Code is collection of files collectively known as Open Camera.
+
+The Initial Developer of the Original Code is Almalence Inc.
+Portions created by Initial Developer are Copyright (C) 2013
+by Almalence Inc. All Rights Reserved.
+ */
+
+package com.almalence.plugins.processing.groupshot;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.almalence.Check;
+
+/***
+ * Time of face matching of a group shot by number of frames and faces per
+ * frame, FaceMatcher against the greedy search GroupShotCore did before,
+ * which is kept here as reference.
+ ***/
+public class FaceMatcherBench
+{
+	private static long	sink;
+
+	public static void main(String[] args)
+	{
+		// first round warms up
+		for (int round = 0; round < 2; round++)
+			for (int frames : new int[] { 4, 10, 20 })
+				for (int faces : new int[] { 5, 15, 20 })
+					measure(frames, faces, round == 1);
+		System.out.println("FaceMatcherBench done");
+	}
+
+	private static void measure(int frames, int faces, boolean report)
+	{
+		FaceMatcherTest.Scene scene = FaceMatcherTest.generate(new Random(7), frames, faces, 0.1, 0.05, 0, 120);
+		int iterations = frames * faces > 200 ? 50 : 200;
+
+		long started = System.nanoTime();
+		for (int i = 0; i < iterations; i++)
+			sink += greedy(scene);
+		long greedyTime = System.nanoTime() - started;
+
+		started = System.nanoTime();
+		for (int i = 0; i < iterations; i++)
+			sink += new FaceMatcher(scene.x, scene.y, scene.radius).match()[0].length;
+		long matcherTime = System.nanoTime() - started;
+
+		if (report)
+			Check.log(String.format("%2d frames x %2d faces: greedy %8.1f us, FaceMatcher %7.1f us", frames, faces,
+					greedyTime / 1e3 / iterations, matcherTime / 1e3 / iterations));
+	}
+
+	// sortFaceList and populateBestCandidate of GroupShotCore before
+	// FaceMatcher, over face indexes instead of Rects. Returns number of
+	// groups.
+	private static int greedy(FaceMatcherTest.Scene scene)
+	{
+		int frames = scene.frames();
+		List<List<Integer>> faces = new ArrayList<List<Integer>>(frames);
+		for (int f = 0; f < frames; f++)
+		{
+			List<Integer> frame = new ArrayList<Integer>();
+			for (int i = 0; i < scene.x[f].length; i++)
+				frame.add(i);
+			faces.add(frame);
+		}
+
+		int groups = 0;
+		while (true)
+		{
+			List<Integer> best = bestCandidate(scene, faces);
+			if (best.isEmpty())
+				return groups;
+			for (int f = 0; f < frames; f++)
+				if (best.get(f) != -1)
+					faces.get(f).remove((int) best.get(f));
+			groups++;
+		}
+	}
+
+	private static List<Integer> bestCandidate(FaceMatcherTest.Scene scene, List<List<Integer>> faces)
+	{
+		int bestPresence = 0;
+		float bestMaxDistance = -1;
+		List<Integer> candidates = new ArrayList<Integer>();
+		List<Integer> best = new ArrayList<Integer>();
+
+		for (int i = 0; i < faces.size(); i++)
+		{
+			for (int baseIndex = 0; baseIndex < faces.get(i).size(); baseIndex++)
+			{
+				int base = faces.get(i).get(baseIndex);
+				int baseX = scene.x[i][base];
+				int baseY = scene.y[i][base];
+				float allowed = scene.radius[i][base] * FaceMatcher.MATCH_RADIUS;
+				int presence = faces.size();
+				float maxDistance = -1;
+				candidates.clear();
+				for (int j = 0; j < faces.size(); j++)
+				{
+					if (j == i || faces.get(j).isEmpty())
+					{
+						candidates.add(j == i ? baseIndex : -1);
+						presence--;
+						continue;
+					}
+
+					int candidate = -1;
+					float minDistance = -1;
+					for (int k = 0; k < faces.get(j).size(); k++)
+					{
+						int face = faces.get(j).get(k);
+						float distance = distance(baseX, baseY, scene.x[j][face], scene.y[j][face]);
+						if (distance < allowed && (distance < minDistance || minDistance == -1))
+						{
+							minDistance = distance;
+							candidate = k;
+						}
+					}
+					if (minDistance == -1)
+						presence--;
+					maxDistance = Math.max(maxDistance, minDistance);
+					candidates.add(candidate);
+				}
+
+				if (presence > bestPresence
+						|| (presence == bestPresence && (maxDistance < bestMaxDistance || bestMaxDistance == -1)))
+				{
+					bestPresence = presence;
+					bestMaxDistance = maxDistance;
+					best.clear();
+					best.addAll(candidates);
+				}
+			}
+		}
+		return best;
+	}
+
+	private static int distance(int x, int y, int x0, int y0)
+	{
+		return (int) Math.round(Math.sqrt((x - x0) * (x - x0) + (y - y0) * (y - y0)));
+	}
+}
@@ -0,0 +1,279 @@
+/*
+The contents of this file are subject to the Mozilla Public License
+Version 1.1 (the "License"); you may not use this file except in
+compliance with the License. You may obtain a copy of the License at
+http://www.mozilla.org/MPL/
+
+Software distributed under the License is distributed on an "AS IS"
+basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+License for the specific language governing rights and limitations
+under the License.
+
+The Original Code is collection of files collectively known as Open Camera.
+
+The Initial Developer of the Original Code is Almalence Inc.
+Portions created by Initial Developer are Copyright (C) 2013
+by Almalence Inc. All Rights Reserved.
+ */
+
+package com.almalence.plugins.processing.groupshot;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import com.almalence.Check;
+
+/***
+ * FaceMatcher.assign against brute force on small random matrices, then
+ * match on synthetic group shots: a row of people in every frame, faces
+ * jittered, sometimes not detected, with false detections around.
+ ***/
+public class FaceMatcherTest
+{
+	// Faces of a group shot by frame, id is the person or -1 for false
+	// detection
+	static class Scene
+	{
+		int[][]		x;
+		int[][]		y;
+		float[][]	radius;
+		int[][]		id;
+
+		int frames()
+		{
+			return x.length;
+		}
+	}
+
+	public static void main(String[] args)
+	{
+		Random random = new Random(1);
+		assignEdgeCases();
+		assignOptimal(random);
+		matchClean(random);
+		matchNoisy(random);
+		System.out.println("FaceMatcherTest passed");
+	}
+
+	private static void assignEdgeCases()
+	{
+		Check.equal(0, FaceMatcher.assign(new float[0][0]).length, "no rows");
+		Check.equal("[-1, -1]", Arrays.toString(FaceMatcher.assign(new float[2][0])), "no columns");
+		Check.equal("[-1, -1]", Arrays.toString(FaceMatcher.assign(new float[][] { { -1, -1 }, { -1, -1 } })),
+				"nothing allowed");
+		// cheapest pair 0-0 would leave row 1 without column
+		Check.equal("[1, 0]", Arrays.toString(FaceMatcher.assign(new float[][] { { 1, 5 }, { 2, -1 } })),
+				"most pairs first");
+		Check.equal("[-1, 0, 1]", Arrays.toString(FaceMatcher.assign(new float[][] { { 9, 9 }, { 1, 9 }, { 9, 1 } })),
+				"more rows than columns");
+		Check.equal("[2]", Arrays.toString(FaceMatcher.assign(new float[][] { { 3, -1, 0 } })), "single row");
+	}
+
+	// Same number of pairs and sum of costs as the best assignment found by
+	// trying all of them
+	private static void assignOptimal(Random random)
+	{
+		int matrices = 3000;
+		for (int t = 0; t < matrices; t++)
+		{
+			int rows = 1 + random.nextInt(6);
+			int cols = 1 + random.nextInt(6);
+			float[][] cost = new float[rows][cols];
+			for (int i = 0; i < rows; i++)
+				for (int j = 0; j < cols; j++)
+					cost[i][j] = random.nextDouble() < 0.4 ? -1 : random.nextInt(50);
+
+			int[] assignment = FaceMatcher.assign(cost);
+			boolean[] taken = new boolean[cols];
+			int pairs = 0;
+			double sum = 0;
+			for (int i = 0; i < rows; i++)
+			{
+				int j = assignment[i];
+				if (j == -1)
+					continue;
+				Check.that(cost[i][j] >= 0 && !taken[j], "matrix " + t + ": pair " + i + "-" + j + " is allowed once");
+				taken[j] = true;
+				pairs++;
+				sum += cost[i][j];
+			}
+
+			double[] best = bruteForce(cost, 0, new boolean[cols]);
+			Check.equal((long) best[0], pairs, "matrix " + t + ": pairs");
+			Check.that(Math.abs(best[1] - sum) < 1e-6, "matrix " + t + ": sum " + sum + ", best " + best[1]);
+		}
+		Check.log("assign optimal on " + matrices + " random matrices");
+	}
+
+	// {pairs, sum} of best assignment of rows from row on
+	private static double[] bruteForce(float[][] cost, int row, boolean[] taken)
+	{
+		if (row == cost.length)
+			return new double[] { 0, 0 };
+		double[] best = bruteForce(cost, row + 1, taken);
+		for (int j = 0; j < taken.length; j++)
+		{
+			if (taken[j] || cost[row][j] < 0)
+				continue;
+			taken[j] = true;
+			double[] rest = bruteForce(cost, row + 1, taken);
+			taken[j] = false;
+			double pairs = rest[0] + 1;
+			double sum = rest[1] + cost[row][j];
+			if (pairs > best[0] || (pairs == best[0] && sum < best[1] - 1e-9))
+				best = new double[] { pairs, sum };
+		}
+		return best;
+	}
+
+	// Everyone detected in every frame: same person has the same index
+	// everywhere
+	private static void matchClean(Random random)
+	{
+		int scenes = 300;
+		for (int t = 0; t < scenes; t++)
+		{
+			Scene scene = generate(random, 2 + random.nextInt(9), 1 + random.nextInt(15), 0.05, 0, 0, 120);
+			int[][] order = match(scene);
+			for (int f = 1; f < scene.frames(); f++)
+				for (int k = 0; k < order[f].length; k++)
+					Check.equal(scene.id[0][order[0][k]], scene.id[f][order[f][k]], "scene " + t + ", frame " + f
+							+ ", group " + k);
+		}
+		Check.log(scenes + " clean group shots matched exactly");
+	}
+
+	// Jitter, missed and false detections: every face is kept once, people
+	// found in all frames are grouped correctly
+	private static void matchNoisy(Random random)
+	{
+		int scenes = 300;
+		int groups = 0;
+		int wrong = 0;
+		for (int t = 0; t < scenes; t++)
+		{
+			Scene scene = generate(random, 2 + random.nextInt(9), 1 + random.nextInt(15), 0.1, 0.1, 1, 120);
+			int[][] order = match(scene);
+
+			// groups of people detected in all frames come first
+			int common = 0;
+			for (int id = 0; id < people(scene); id++)
+				if (inAllFrames(scene, id))
+					common++;
+			for (int k = 0; k < common; k++)
+			{
+				int id = scene.id[0][order[0][k]];
+				boolean same = id >= 0;
+				for (int f = 1; f < scene.frames(); f++)
+					same &= scene.id[f][order[f][k]] == id;
+				if (!same)
+					wrong++;
+			}
+			groups += common;
+		}
+		Check.log(scenes + " noisy group shots, " + groups + " people detected in all frames");
+		Check.equal(0, wrong, "mixed groups of people detected in all frames");
+	}
+
+	private static int people(Scene scene)
+	{
+		int people = 0;
+		for (int[] ids : scene.id)
+			for (int id : ids)
+				people = Math.max(people, id + 1);
+		return people;
+	}
+
+	private static boolean inAllFrames(Scene scene, int person)
+	{
+		for (int[] ids : scene.id)
+		{
+			boolean found = false;
+			for (int id : ids)
+				found |= id == person;
+			if (!found)
+				return false;
+		}
+		return true;
+	}
+
+	private static int[][] match(Scene scene)
+	{
+		int[][] order = new FaceMatcher(scene.x, scene.y, scene.radius).match();
+		for (int f = 0; f < scene.frames(); f++)
+		{
+			int[] sorted = order[f].clone();
+			Arrays.sort(sorted);
+			for (int i = 0; i < sorted.length; i++)
+				Check.equal(i, sorted[i], "frame " + f + " lists every face once");
+		}
+		return order;
+	}
+
+	/**
+	 * People in rows spacing pixels apart, face diameter is spacing. Face
+	 * centers move by jitter of radius between frames, face is missed with
+	 * probability drop.
+	 */
+	static Scene generate(Random random, int frames, int people, double jitter, double drop, int falseFaces,
+			int spacing)
+	{
+		int radius = spacing / 2;
+		int[] personX = new int[people];
+		int[] personY = new int[people];
+		for (int k = 0; k < people; k++)
+		{
+			personX[k] = 200 + k * spacing + random.nextInt(spacing / 4);
+			personY[k] = 500 + (k % 3) * spacing / 2 + random.nextInt(40);
+		}
+
+		Scene scene = new Scene();
+		scene.x = new int[frames][];
+		scene.y = new int[frames][];
+		scene.radius = new float[frames][];
+		scene.id = new int[frames][];
+		for (int f = 0; f < frames; f++)
+		{
+			int[] ids = new int[people + falseFaces];
+			int n = 0;
+			for (int k = 0; k < people; k++)
+				if (random.nextDouble() >= drop)
+					ids[n++] = k;
+			for (int s = 0; s < falseFaces; s++)
+				ids[n++] = -1;
+			ids = Arrays.copyOf(ids, n);
+			shuffle(ids, random);
+
+			scene.x[f] = new int[n];
+			scene.y[f] = new int[n];
+			scene.radius[f] = new float[n];
+			scene.id[f] = ids;
+			for (int i = 0; i < n; i++)
+			{
+				if (ids[i] >= 0)
+				{
+					scene.x[f][i] = personX[ids[i]] + (int) (random.nextGaussian() * jitter * radius);
+					scene.y[f][i] = personY[ids[i]] + (int) (random.nextGaussian() * jitter * radius);
+					scene.radius[f][i] = 2 * radius + random.nextInt(8) - 4;
+				} else
+				{
+					scene.x[f][i] = random.nextInt(4000);
+					scene.y[f][i] = random.nextInt(3000);
+					scene.radius[f][i] = 2 * radius;
+				}
+			}
+		}
+		return scene;
+	}
+
+	private static void shuffle(int[] values, Random random)
+	{
+		for (int i = values.length - 1; i > 0; i--)
+		{
+			int j = random.nextInt(i + 1);
+			int value = values[i];
+			values[i] = values[j];
+			values[j] = value;
+		}
+	}
+}
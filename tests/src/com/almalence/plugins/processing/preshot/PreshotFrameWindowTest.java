@@ -0,0 +1,137 @@
+/*
+The contents of this file are subject to the Mozilla Public License
+Version 1.1 (the "License"); you may not use this file except in
+compliance with the License. You may obtain a copy of the License at
+http://www.mozilla.org/MPL/
+
+Software distributed under the License is distributed on an "AS IS"
+basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+License for the specific language governing rights and limitations
+under the License.
+
+The Original Code is collection of files collectively known as Open Camera.
+
+The Initial Developer of the Original Code is Almalence Inc.
+Portions created by Initial Developer are Copyright (C) 2013
+by Almalence Inc. All Rights Reserved.
+ */
+
+package com.almalence.plugins.processing.preshot;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import android.graphics.Bitmap;
+
+import com.almalence.Check;
+import com.almalence.plugins.capture.preshot.PreShot;
+
+/***
+ * Window logic of PreshotFrameWindow over PreShot stand-in, whose frames are
+ * filled with their own color and whose reads take a few milliseconds. Review
+ * swipes both ways and jumps out of the window: every frame must be right and
+ * of its display size, shown bitmaps must not be overwritten and native reads
+ * must not run at the same time. Preview frames must be scaled into one
+ * reused pixel array.
+ ***/
+public class PreshotFrameWindowTest
+{
+	private static final int	FRAMES			= 30;
+	private static final int	PREVIEW_WIDTH	= 16;
+	private static final int	PREVIEW_HEIGHT	= 8;
+	// a swipe animation, worker prefetches meanwhile
+	private static final long	SWIPE_MILLIS	= 30;
+
+	public static void main(String[] args) throws Exception
+	{
+		swipes(false);
+		swipes(true);
+		bitmapsReused();
+		missingFrames();
+		System.out.println("PreshotFrameWindowTest passed");
+	}
+
+	private static void swipes(boolean slowMode) throws InterruptedException
+	{
+		int[] rotations = new int[FRAMES];
+		for (int i = 0; i < FRAMES; i++)
+			rotations[i] = i % 4 * 90;
+		PreShot.reset(FRAMES, 5);
+		PreshotFrameWindow window = new PreshotFrameWindow(FRAMES, slowMode, PREVIEW_WIDTH, PREVIEW_HEIGHT,
+				rotations);
+		String mode = slowMode ? "slow mode: " : "preview: ";
+
+		int index = FRAMES / 2;
+		window.start(index);
+		Thread.sleep(SWIPE_MILLIS);
+		Bitmap next = null;
+		for (int step = 0; step < 40; step++)
+		{
+			int to = Math.max(0, Math.min(FRAMES - 1, index + (step < 15 ? 1 : -1)));
+			Bitmap shown = window.get(index);
+			int shownColor = shown.getPixel(0, 0);
+
+			next = window.get(to);
+			Check.equal(PreShot.color(to), next.getPixel(0, 0), mode + "color of frame " + to);
+			// slow mode frames are shown at preview size, preview ones at half
+			int width = slowMode ? PREVIEW_WIDTH : PREVIEW_WIDTH / 2;
+			int height = slowMode ? PREVIEW_HEIGHT : PREVIEW_HEIGHT / 2;
+			boolean portrait = rotations[to] % 180 != 0;
+			Check.equal(portrait ? height : width, next.getWidth(), mode + "width of frame " + to);
+			Check.equal(portrait ? width : height, next.getHeight(), mode + "height of frame " + to);
+
+			window.moveTo(to);
+			Thread.sleep(SWIPE_MILLIS);
+			Check.equal(shownColor, shown.getPixel(0, 0), mode + "shown frame " + index + " after swipe");
+			index = to;
+		}
+
+		Bitmap far = window.get(2);
+		Check.equal(PreShot.color(2), far.getPixel(0, 0), mode + "color of frame out of window");
+
+		Check.equal(1, PreShot.getMaxActive(), mode + "native reads at the same time");
+		if (!slowMode)
+			Check.equal(1, PreShot.getOutputArrays(), "pixel arrays of preview frames");
+
+		String stats = window.toString();
+		window.release();
+		Check.that(far.isRecycled() && next.isRecycled(), mode + "bitmaps are recycled on release");
+		Check.log(mode + stats + ", native reads " + PreShot.getReads());
+	}
+
+	// Frames of the same size are drawn to bitmaps of their slots
+	private static void bitmapsReused() throws InterruptedException
+	{
+		PreShot.reset(FRAMES, 1);
+		PreshotFrameWindow window = new PreshotFrameWindow(FRAMES, false, PREVIEW_WIDTH, PREVIEW_HEIGHT, null);
+		Set<Bitmap> bitmaps = Collections.newSetFromMap(new IdentityHashMap<Bitmap, Boolean>());
+		window.start(0);
+		for (int index = 0; index < FRAMES; index++)
+		{
+			Bitmap bitmap = window.get(index);
+			Check.equal(PreShot.color(index), bitmap.getPixel(0, 0), "color of frame " + index);
+			bitmaps.add(bitmap);
+			window.moveTo(index);
+		}
+		window.release();
+		Check.equal(2 * PreshotFrameWindow.RADIUS + 1, bitmaps.size(), "bitmaps of " + FRAMES + " frames");
+		Check.equal(1, PreShot.getOutputArrays(), "pixel arrays of " + FRAMES + " frames");
+	}
+
+	// Frames dropped from buffer aren't shown and aren't read again by worker
+	private static void missingFrames() throws InterruptedException
+	{
+		PreShot.reset(5, 1);
+		PreshotFrameWindow window = new PreshotFrameWindow(8, false, PREVIEW_WIDTH, PREVIEW_HEIGHT, null);
+		window.start(6);
+		Check.that(window.get(6) == null, "missing frame isn't shown");
+		Check.that(window.get(4) != null, "available frame is shown");
+		Thread.sleep(SWIPE_MILLIS);
+
+		int reads = PreShot.getReads();
+		Thread.sleep(SWIPE_MILLIS);
+		Check.equal(reads, PreShot.getReads(), "reads of idle window");
+		window.release();
+	}
+}
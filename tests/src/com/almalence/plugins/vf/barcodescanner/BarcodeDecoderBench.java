@@ -0,0 +1,186 @@
+/*
+The contents of this file are subject to the Mozilla Public License
+Version 1.1 (the "License"); you may not use this file except in
+compliance with the License. You may obtain a copy of the License at
+http://www.mozilla.org/MPL/
+
+Software distributed under the License is distributed on an "AS IS"
+basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+License for the specific language governing rights and limitations
+under the License.
+
+The Original Code is collection of files collectively known as Open Camera.
+
+The Initial Developer of the Original Code is Almalence Inc.
+Portions created by Initial Developer are Copyright (C) 2013
+by Almalence Inc. All Rights Reserved.
+ */
+
+package com.almalence.plugins.vf.barcodescanner;
+
+import java.util.Random;
+
+import com.almalence.Check;
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.MultiFormatWriter;
+import com.google.zxing.Result;
+import com.google.zxing.common.BitMatrix;
+
+/***
+ * Feeds BarcodeDecoder with 640x480 NV21 frames at 30 fps the way barcode
+ * scanner plugin does (bounding rect of 0.6 of frame). Frames are noisy empty
+ * scenes followed by a QR code and then an EAN-13 code, at a different place
+ * in each frame. Reports decodes per second and time from the first frame with
+ * a code to its detection, then decodes per second when frames come as fast as
+ * decoder takes them.
+ ***/
+public class BarcodeDecoderBench
+{
+	private static final int		WIDTH			= 640;
+	private static final int		HEIGHT			= 480;
+	private static final double		BOUNDS_FRACTION	= 0.6;
+	private static final long		FRAME_INTERVAL	= 33;
+	private static final int		LABEL_MARGIN	= 20;
+
+	private static final String		QR_TEXT			= "http://opencamera.almalence.com/bench";
+	private static final String		EAN_TEXT		= "5901234123457";
+
+	private static final Random		random			= new Random(1);
+
+	private static volatile String	lastText;
+	private static volatile long	lastTime;
+
+	public static void main(String[] args) throws Exception
+	{
+		byte[][] empty = new byte[8][];
+		byte[][] qr = new byte[8][];
+		byte[][] ean = new byte[8][];
+		BitMatrix qrMatrix = new MultiFormatWriter().encode(QR_TEXT, BarcodeFormat.QR_CODE, 160, 160);
+		BitMatrix eanMatrix = new MultiFormatWriter().encode(EAN_TEXT, BarcodeFormat.EAN_13, 300, 100);
+		for (int i = 0; i < empty.length; i++)
+		{
+			empty[i] = frame(null, 0, 0);
+			qr[i] = frame(qrMatrix, random.nextInt(40) - 20, random.nextInt(40) - 20);
+			ean[i] = frame(eanMatrix, random.nextInt(40) - 20, random.nextInt(40) - 20);
+		}
+
+		int readers = Runtime.getRuntime().availableProcessors() >= 4 ? 2 : 1;
+		BarcodeDecoder decoder = new BarcodeDecoder(readers, new BarcodeDecoder.Listener()
+		{
+			@Override
+			public void onDecoded(Result result)
+			{
+				if (lastText == null)
+					lastTime = System.nanoTime();
+				lastText = result.getText();
+			}
+		});
+
+		try
+		{
+			run(decoder, readers, empty, qr, ean);
+		} finally
+		{
+			decoder.shutdown();
+		}
+		System.out.println("BarcodeDecoderBench done");
+	}
+
+	private static void run(BarcodeDecoder decoder, int readers, byte[][] empty, byte[][] qr, byte[][] ean)
+	{
+		// warm up
+		stream(decoder, qr, 20, 0);
+		stream(decoder, empty, 20, 0);
+
+		long started = System.nanoTime();
+		long decodedBefore = decoder.getDecodedFrames();
+		stream(decoder, empty, 30, FRAME_INTERVAL);
+		long qrTime = detect(decoder, qr, QR_TEXT);
+		stream(decoder, empty, 30, FRAME_INTERVAL);
+		long eanTime = detect(decoder, ean, EAN_TEXT);
+		double seconds = (System.nanoTime() - started) / 1e9;
+
+		Check.log(readers + " reader(s), 30 fps: " + format((decoder.getDecodedFrames() - decodedBefore) / seconds)
+				+ " decodes/s, decode " + decoder.getAverageDecodeTime() + "ms, suggested rate "
+				+ decoder.getSuggestedRate() + " fps");
+		Check.log("first detection: QR " + qrTime + "ms, EAN-13 " + eanTime + "ms");
+
+		// as fast as readers take frames
+		long offeredBefore = decoder.getOfferedFrames();
+		decodedBefore = decoder.getDecodedFrames();
+		long droppedBefore = decoder.getDroppedFrames();
+		started = System.nanoTime();
+		while (System.nanoTime() - started < 2000000000L)
+			stream(decoder, qr, 8, 1);
+		seconds = (System.nanoTime() - started) / 1e9;
+		Check.log("saturated: " + format((decoder.getDecodedFrames() - decodedBefore) / seconds) + " decodes/s, "
+				+ (decoder.getOfferedFrames() - offeredBefore) + " offered, "
+				+ (decoder.getDroppedFrames() - droppedBefore) + " replaced in mailbox");
+	}
+
+	// ms from first frame with code to its detection
+	private static long detect(BarcodeDecoder decoder, byte[][] frames, String text)
+	{
+		lastText = null;
+		long started = System.nanoTime();
+		for (int i = 0; i < 90 && lastText == null; i++)
+			offer(decoder, frames[i % frames.length], FRAME_INTERVAL);
+		Check.equal(text, lastText, "decoded text");
+		return (lastTime - started) / 1000000;
+	}
+
+	private static void stream(BarcodeDecoder decoder, byte[][] frames, int count, long interval)
+	{
+		for (int i = 0; i < count; i++)
+			offer(decoder, frames[i % frames.length], interval);
+	}
+
+	private static void offer(BarcodeDecoder decoder, byte[] frame, long interval)
+	{
+		int width = (int) (WIDTH * BOUNDS_FRACTION);
+		int height = (int) (HEIGHT * BOUNDS_FRACTION);
+		int left = (int) (WIDTH * ((1 - BOUNDS_FRACTION) / 2));
+		int top = (int) (HEIGHT * ((1 - BOUNDS_FRACTION) / 2));
+		decoder.offer(frame, WIDTH, left, top, width, height);
+		if (interval > 0)
+		{
+			try
+			{
+				Thread.sleep(interval);
+			} catch (InterruptedException e)
+			{
+				e.printStackTrace();
+			}
+		}
+	}
+
+	// NV21 frame of noisy grey scene with code centered at dx, dy
+	private static byte[] frame(BitMatrix code, int dx, int dy)
+	{
+		byte[] frame = new byte[WIDTH * HEIGHT * 3 / 2];
+		for (int y = 0; y < HEIGHT; y++)
+			for (int x = 0; x < WIDTH; x++)
+				frame[y * WIDTH + x] = (byte) (120 + 40 * Math.sin(x * 0.05) * Math.cos(y * 0.03) + random.nextInt(16));
+		for (int i = WIDTH * HEIGHT; i < frame.length; i++)
+			frame[i] = (byte) 128;
+
+		if (code != null)
+		{
+			// code is printed on a white label with quiet zone around it
+			int left = (WIDTH - code.getWidth()) / 2 + dx;
+			int top = (HEIGHT - code.getHeight()) / 2 + dy;
+			for (int y = -LABEL_MARGIN; y < code.getHeight() + LABEL_MARGIN; y++)
+				for (int x = -LABEL_MARGIN; x < code.getWidth() + LABEL_MARGIN; x++)
+				{
+					boolean black = x >= 0 && y >= 0 && x < code.getWidth() && y < code.getHeight() && code.get(x, y);
+					frame[(top + y) * WIDTH + left + x] = (byte) ((black ? 30 : 220) + random.nextInt(16));
+				}
+		}
+		return frame;
+	}
+
+	private static String format(double value)
+	{
+		return String.format("%.1f", value);
+	}
+}
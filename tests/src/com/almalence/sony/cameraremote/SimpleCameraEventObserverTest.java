@@ -0,0 +1,351 @@
+package com.almalence.sony.cameraremote;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.almalence.Check;
+
+/**
+ * SimpleCameraEventObserver against a local stand-in camera which answers
+ * getEvent with a scripted sequence of replies. Checks that only fields which
+ * changed since the last reply reach listeners, that quick long polling
+ * replies with nothing new make the observer back off, and the event, change
+ * and wasted poll counters.
+ */
+public class SimpleCameraEventObserverTest {
+
+    private static final long BACKOFF_SLACK = 80; // [msec]
+
+    /** Camera state which getEvent reports, in getEvent v1.0 layout. */
+    private static final class State implements Cloneable {
+        List<String> apis = Arrays.asList("getEvent", "actTakePicture", "startLiveview");
+
+        String cameraStatus = "IDLE";
+
+        int zoomPosition = 0;
+
+        boolean liveview = true;
+
+        String pictureUrl = null;
+
+        String storageId = "Memory Card 1";
+
+        String shootMode = "still";
+
+        // every field is sent as null, camera has nothing new about them
+        boolean omitAll = false;
+
+        State with(String field, Object value) {
+            State state;
+            try {
+                state = (State) clone();
+            } catch (CloneNotSupportedException e) {
+                throw new IllegalStateException(e);
+            }
+            state.pictureUrl = null;
+            state.omitAll = false;
+            if ("apis".equals(field)) {
+                state.apis = Arrays.asList((String[]) value);
+            } else if ("cameraStatus".equals(field)) {
+                state.cameraStatus = (String) value;
+            } else if ("zoomPosition".equals(field)) {
+                state.zoomPosition = (Integer) value;
+            } else if ("liveview".equals(field)) {
+                state.liveview = (Boolean) value;
+            } else if ("pictureUrl".equals(field)) {
+                state.pictureUrl = (String) value;
+            } else if ("storageId".equals(field)) {
+                state.storageId = (String) value;
+            } else if ("shootMode".equals(field)) {
+                state.shootMode = (String) value;
+            } else if ("omitAll".equals(field)) {
+                state.omitAll = true;
+            }
+            return state;
+        }
+
+        String reply(int id) throws JSONException {
+            JSONArray result = new JSONArray();
+            for (int i = 0; i < 26; i++) {
+                result.put(JSONObject.NULL);
+            }
+            if (!omitAll) {
+                result.put(0, new JSONObject().put("type", "availableApiList").put("names",
+                        array(apis.toArray())));
+                result.put(1, new JSONObject().put("type", "cameraStatus").put("cameraStatus",
+                        cameraStatus));
+                result.put(2, new JSONObject().put("type", "zoomInformation")
+                        .put("zoomPosition", zoomPosition).put("zoomNumberBox", 1)
+                        .put("zoomIndexCurrentBox", 0).put("zoomPositionCurrentBox", zoomPosition));
+                result.put(3, new JSONObject().put("type", "liveviewStatus").put("liveviewStatus",
+                        liveview));
+                result.put(10, array(new JSONObject().put("type", "storageInformation")
+                        .put("storageID", storageId).put("recordTarget", true)));
+                result.put(21, new JSONObject().put("type", "shootMode").put("currentShootMode",
+                        shootMode));
+            }
+            if (pictureUrl != null) {
+                result.put(5, array(new JSONObject().put("type", "takePicture").put(
+                        "takePictureUrl", array(pictureUrl))));
+            }
+            return new JSONObject().put("result", result).put("id", id).toString();
+        }
+
+        private static JSONArray array(Object... values) {
+            JSONArray array = new JSONArray();
+            for (Object value : values) {
+                array.put(value);
+            }
+            return array;
+        }
+    }
+
+    /** One getEvent reply: state to report and how long camera holds it. */
+    private static final class Step {
+        final State mState;
+
+        final long mHold;
+
+        Step(State state, long hold) {
+            mState = state;
+            mHold = hold;
+        }
+    }
+
+    /**
+     * Stand-in camera. Replies come from the script in order, after the
+     * script ends getEvent answers with "Any" error which ends monitoring.
+     */
+    private static final class StandInCamera extends SimpleRemoteApi {
+        final List<Step> mScript;
+
+        final List<Boolean> mLongPolling = Collections.synchronizedList(new ArrayList<Boolean>());
+
+        final List<Long> mCallTimes = Collections.synchronizedList(new ArrayList<Long>());
+
+        private int mNext;
+
+        StandInCamera(List<Step> script) {
+            super(null);
+            mScript = script;
+        }
+
+        @Override
+        public JSONObject getEvent(boolean longPollingFlag) throws IOException {
+            mCallTimes.add(System.nanoTime());
+            mLongPolling.add(longPollingFlag);
+            int id = mNext + 1;
+            try {
+                if (mNext >= mScript.size()) {
+                    return new JSONObject("{\"error\":[1,\"Any\"],\"id\":" + id + "}");
+                }
+                Step step = mScript.get(mNext++);
+                sleep(step.mHold);
+                return new JSONObject(step.mState.reply(id));
+            } catch (JSONException e) {
+                throw new IOException(e.getMessage());
+            }
+        }
+    }
+
+    /** Logs listener calls in order they come on UI thread. */
+    private static final class Recorder extends SimpleCameraEventObserver.ChangeListenerTmpl {
+        final List<String> mCalls = Collections.synchronizedList(new ArrayList<String>());
+
+        @Override
+        public void onApiListModified(List<String> apis) {
+            mCalls.add("apis " + apis);
+        }
+
+        @Override
+        public void onCameraStatusChanged(String status) {
+            mCalls.add("cameraStatus " + status);
+        }
+
+        @Override
+        public void onLiveviewStatusChanged(boolean status) {
+            mCalls.add("liveview " + status);
+        }
+
+        @Override
+        public void onShootModeChanged(String shootMode) {
+            mCalls.add("shootMode " + shootMode);
+        }
+
+        @Override
+        public void onZoomPositionChanged(int zoomPosition) {
+            mCalls.add("zoom " + zoomPosition);
+        }
+
+        @Override
+        public void onStorageIdChanged(String storageId) {
+            mCalls.add("storageId " + storageId);
+        }
+
+        @Override
+        public void onPictureTaken(String takePictureUrl) {
+            mCalls.add("picture " + takePictureUrl);
+        }
+    }
+
+    private static final String[] FIRST_REPLY_CALLS = {
+            "apis [getEvent, actTakePicture, startLiveview]", "cameraStatus IDLE",
+            "liveview true", "shootMode still", "zoom 0", "storageId Memory Card 1"
+    };
+
+    public static void main(String[] args) throws Exception {
+        singleFieldChanges();
+        quickReplies();
+        System.out.println("SimpleCameraEventObserverTest passed");
+    }
+
+    // Every reply changes one field, or repeats a picture, or omits
+    // everything. Listener of that field fires and no other.
+    private static void singleFieldChanges() throws Exception {
+        State initial = new State();
+        State zoomed = initial.with("zoomPosition", 20);
+        State capturing = zoomed.with("cameraStatus", "StillCapturing");
+        State movie = capturing.with("shootMode", "movie");
+        State stopped = movie.with("liveview", false);
+        State noMedia = stopped.with("storageId", "No Media");
+        List<Step> script = Arrays.asList(
+                new Step(initial, 0),
+                new Step(zoomed, 0),
+                new Step(capturing, 0),
+                new Step(capturing.with("pictureUrl", "http://camera/pict1.jpg"), 0),
+                // camera may give the same url for the next picture
+                new Step(capturing.with("pictureUrl", "http://camera/pict1.jpg"), 0),
+                // nothing new, held like a real long poll
+                new Step(capturing.with("omitAll", null), 600),
+                new Step(capturing, 600),
+                new Step(movie, 0),
+                new Step(stopped, 0),
+                new Step(noMedia, 0),
+                new Step(noMedia.with("apis", new String[] {
+                        "getEvent", "actTakePicture", "startLiveview", "actZoom"
+                }), 0));
+
+        StandInCamera camera = new StandInCamera(script);
+        Recorder recorder = new Recorder();
+        SimpleCameraEventObserver observer = run(camera, recorder);
+
+        List<String> expected = new ArrayList<String>(Arrays.asList(FIRST_REPLY_CALLS));
+        expected.addAll(Arrays.asList("zoom 20", "cameraStatus StillCapturing",
+                "picture http://camera/pict1.jpg", "picture http://camera/pict1.jpg",
+                "shootMode movie", "liveview false", "storageId No Media",
+                "apis [getEvent, actTakePicture, startLiveview, actZoom]"));
+        Check.equal(expected, recorder.mCalls, "listener calls");
+
+        Check.equal(script.size(), observer.getEventCount(), "events");
+        // 6 fields of the first reply, one per reply after it, none for the
+        // omitted and the repeated state
+        Check.equal(FIRST_REPLY_CALLS.length + 8, observer.getChangeCount(), "changes");
+        Check.equal(0, observer.getWastedPollCount(), "wasted polls");
+        Check.equal(20, observer.getZoomPosition(), "zoom position");
+        Check.equal("No Media", observer.getStorageId(), "storage id");
+        checkPollingFlags(camera, script.size());
+    }
+
+    // Camera which answers long polling at once with nothing new. Observer
+    // backs off 100, 200, 400 ms.. on such replies, a reply held as long as
+    // real long poll isn't wasted, a change resets backoff.
+    private static void quickReplies() throws Exception {
+        State initial = new State();
+        State zoomed = initial.with("zoomPosition", 5);
+        List<Step> script = Arrays.asList(
+                // first call isn't long polling, its quick reply is expected
+                new Step(initial, 0),
+                new Step(initial, 0),
+                new Step(initial, 0),
+                new Step(initial, 0),
+                new Step(initial, 600),
+                new Step(initial, 0),
+                new Step(zoomed, 0),
+                new Step(zoomed, 0));
+        // observer's sleep after each reply [msec]
+        long[] backoffs = {
+                0, 100, 200, 400, 0, 800, 0, 100
+        };
+
+        StandInCamera camera = new StandInCamera(script);
+        Recorder recorder = new Recorder();
+        SimpleCameraEventObserver observer = run(camera, recorder);
+
+        List<String> expected = new ArrayList<String>(Arrays.asList(FIRST_REPLY_CALLS));
+        expected.add("zoom 5");
+        Check.equal(expected, recorder.mCalls, "listener calls");
+        Check.equal(script.size(), observer.getEventCount(), "events");
+        Check.equal(FIRST_REPLY_CALLS.length + 1, observer.getChangeCount(), "changes");
+        Check.equal(5, observer.getWastedPollCount(), "wasted polls");
+        checkPollingFlags(camera, script.size());
+
+        StringBuilder gaps = new StringBuilder();
+        for (int i = 0; i < script.size(); i++) {
+            long gap = (camera.mCallTimes.get(i + 1) - camera.mCallTimes.get(i)) / 1000000
+                    - script.get(i).mHold;
+            Check.that(gap >= backoffs[i] - 1 && gap < backoffs[i] + BACKOFF_SLACK, "pause after reply "
+                    + i + " is " + gap + " ms, backoff " + backoffs[i] + " ms");
+            gaps.append(i == 0 ? "" : ", ").append(gap);
+        }
+        Check.log("pauses after replies: " + gaps + " ms");
+    }
+
+    private static void checkPollingFlags(StandInCamera camera, int replies) {
+        // script replies and the error which ends monitoring
+        Check.equal(replies + 1, camera.mLongPolling.size(), "getEvent calls");
+        Check.equal(false, camera.mLongPolling.get(0), "first call isn't long polling");
+        for (int i = 1; i < camera.mLongPolling.size(); i++) {
+            Check.equal(true, camera.mLongPolling.get(i), "call " + i + " is long polling");
+        }
+    }
+
+    // Runs observer until script ends and listener calls are delivered
+    private static SimpleCameraEventObserver run(StandInCamera camera, Recorder recorder)
+            throws InterruptedException {
+        SimpleCameraEventObserver observer = new SimpleCameraEventObserver(new Context(), camera);
+        observer.setEventChangeListener(recorder);
+        observer.activate();
+        Check.that(observer.start(), "observer starts");
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (observer.isStarted() && System.currentTimeMillis() < deadline) {
+            sleep(10);
+        }
+        Check.that(!observer.isStarted(), "monitoring ends with the script");
+
+        // listeners are called on UI thread, wait until it gets here
+        final CountDownLatch delivered = new CountDownLatch(1);
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                delivered.countDown();
+            }
+        });
+        Check.that(delivered.await(5, TimeUnit.SECONDS), "UI thread delivers listener calls");
+        return observer;
+    }
+
+    private static void sleep(long ms) {
+        if (ms <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
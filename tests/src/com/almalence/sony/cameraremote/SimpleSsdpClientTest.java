@@ -0,0 +1,336 @@
+package com.almalence.sony.cameraremote;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.almalence.Check;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * SSDP discovery against local stand-ins of several cameras: one UDP
+ * responder answers M-SEARCH for all of them, every camera serves its device
+ * description over HTTP with its own latency. Checks that descriptions are
+ * fetched in parallel, cached by USN, and that search can stop early or be
+ * cancelled.
+ */
+public class SimpleSsdpClientTest {
+
+    private static final int RECEIVE_TIMEOUT = 1500; // [msec]
+
+    // description latencies [msec], 1.6 s if fetched one after another
+    private static final int[] LATENCIES = {
+            400, 100, 600, 200, 300
+    };
+
+    /** Stand-in camera: description server and how it replies to M-SEARCH. */
+    private static final class Camera {
+        final String mName;
+
+        final int mLatency;
+
+        final HttpServer mServer;
+
+        final ExecutorService mExecutor = Executors.newCachedThreadPool();
+
+        final AtomicInteger mFetches = new AtomicInteger();
+
+        volatile int mMaxAge = 1800;
+
+        volatile String mPath = "/dd.xml";
+
+        Camera(String name, int latency) throws IOException {
+            mName = name;
+            mLatency = latency;
+            mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            mServer.createContext("/", new HttpHandler() {
+                @Override
+                public void handle(HttpExchange exchange) throws IOException {
+                    mFetches.incrementAndGet();
+                    sleep(mLatency);
+                    byte[] body = description(mName).getBytes("UTF-8");
+                    exchange.sendResponseHeaders(200, body.length);
+                    OutputStream output = exchange.getResponseBody();
+                    output.write(body);
+                    output.close();
+                }
+            });
+            mServer.setExecutor(mExecutor);
+            mServer.start();
+        }
+
+        String reply() {
+            return "HTTP/1.1 200 OK\r\nCACHE-CONTROL: max-age=" + mMaxAge + "\r\nEXT:\r\n"
+                    + "LOCATION: http://127.0.0.1:" + mServer.getAddress().getPort() + mPath
+                    + "\r\nSERVER: UPnP/1.0 SonyImagingDevice/1.0\r\nST: "
+                    + "urn:schemas-sony-com:service:ScalarWebAPI:1\r\nUSN: uuid:" + mName
+                    + "::urn:schemas-sony-com:service:ScalarWebAPI:1\r\n\r\n";
+        }
+
+        void stop() {
+            mServer.stop(0);
+            mExecutor.shutdown();
+        }
+    }
+
+    /** Result of one search, as handler saw it. */
+    private static final class Search implements SimpleSsdpClient.SearchResultHandler {
+        final List<String> mFound = Collections.synchronizedList(new ArrayList<String>());
+
+        final long mStarted = System.nanoTime();
+
+        long mLastFound;
+
+        String mResult;
+
+        long mFinished;
+
+        @Override
+        public void onDeviceFound(ServerDevice device) {
+            mFound.add(device.getFriendlyName());
+            mLastFound = elapsed();
+        }
+
+        @Override
+        public synchronized void onFinished() {
+            finish("finished");
+        }
+
+        @Override
+        public synchronized void onErrorFinished() {
+            finish("error");
+        }
+
+        private void finish(String result) {
+            Check.that(mResult == null, "search finished twice");
+            mResult = result;
+            mFinished = elapsed();
+            notifyAll();
+        }
+
+        synchronized void await() throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (mResult == null && System.currentTimeMillis() < deadline) {
+                wait(100);
+            }
+            Check.that(mResult != null, "search finished");
+        }
+
+        long elapsed() {
+            return (System.nanoTime() - mStarted) / 1000000;
+        }
+    }
+
+    private static final List<Camera> cameras = new ArrayList<Camera>();
+
+    private static DatagramSocket responder;
+
+    public static void main(String[] args) throws Exception {
+        for (int i = 0; i < LATENCIES.length; i++) {
+            cameras.add(new Camera("cam" + i, LATENCIES[i]));
+        }
+        startResponder();
+
+        coldSearch();
+        warmSearch();
+        preferredDevice();
+        cancelled();
+        expiredAndMoved();
+
+        responder.close();
+        for (Camera camera : cameras) {
+            camera.stop();
+        }
+        System.out.println("SimpleSsdpClientTest passed");
+    }
+
+    // Descriptions are fetched in parallel as replies arrive
+    private static void coldSearch() throws Exception {
+        SimpleSsdpClient.clearDeviceCache();
+        int fetches = fetches();
+        Search search = search(null, 0);
+
+        Check.equal("finished", search.mResult, "result");
+        Check.equal(cameras.size(), search.mFound.size(), "found cameras");
+        Check.equal(fetches + cameras.size(), fetches(), "descriptions fetched");
+        Check.log("cold search: all " + cameras.size() + " cameras found after " + search.mLastFound
+                + "ms, serial fetching takes " + sum(LATENCIES) + "ms");
+        Check.that(search.mLastFound < sum(LATENCIES), "descriptions are fetched in parallel");
+    }
+
+    // Cameras seen before are reported without fetching their descriptions
+    private static void warmSearch() throws Exception {
+        int fetches = fetches();
+        Search search = search(null, 0);
+
+        Check.equal(cameras.size(), search.mFound.size(), "found cameras");
+        Check.equal(fetches, fetches(), "descriptions fetched");
+        Check.log("warm search: all cameras found after " + search.mLastFound + "ms");
+        Check.that(search.mLastFound < 300, "cached cameras are reported at once");
+    }
+
+    // Search stops as soon as preferred camera is found
+    private static void preferredDevice() throws Exception {
+        SimpleSsdpClient.clearDeviceCache();
+        Search search = search(new SimpleSsdpClient.DeviceFilter() {
+            @Override
+            public boolean accept(ServerDevice device) {
+                return "cam3".equals(device.getFriendlyName());
+            }
+        }, 0);
+
+        Check.equal("finished", search.mResult, "result");
+        Check.that(search.mFound.contains("cam3"), "preferred camera is found");
+        Check.equal("cam3", search.mFound.get(search.mFound.size() - 1), "last reported camera");
+        Check.log("preferred camera found after " + search.mLastFound + "ms, search finished after "
+                + search.mFinished + "ms");
+        Check.that(search.mFinished < RECEIVE_TIMEOUT, "search doesn't wait for timeout");
+
+        // from cache, first camera ends search
+        search = search(SimpleSsdpClient.ANY_DEVICE, 0);
+        Check.equal(1, search.mFound.size(), "cameras reported with ANY_DEVICE");
+        Check.that(search.mFinished < RECEIVE_TIMEOUT, "search doesn't wait for timeout");
+    }
+
+    // Cancel stops search at once, devices fetched later are not reported
+    private static void cancelled() throws Exception {
+        SimpleSsdpClient.clearDeviceCache();
+        Search search = search(null, 250);
+        int found = search.mFound.size();
+
+        Check.equal("finished", search.mResult, "result of cancelled search");
+        Check.that(search.mFinished < 400, "cancelled search finishes at once, " + search.mFinished + "ms");
+        Check.that(found < cameras.size(), "cameras found before cancel");
+        sleep(700);
+        Check.equal(found, search.mFound.size(), "cameras reported after cancel");
+    }
+
+    // Cache entry is dropped when max-age is over or camera moves
+    private static void expiredAndMoved() throws Exception {
+        SimpleSsdpClient.clearDeviceCache();
+        Camera expiring = cameras.get(1);
+        Camera moving = cameras.get(3);
+        expiring.mMaxAge = 1;
+        search(null, 0);
+
+        int expiringFetches = expiring.mFetches.get();
+        int movingFetches = moving.mFetches.get();
+        int fetches = fetches();
+        sleep(1100);
+        moving.mPath = "/moved/dd.xml";
+        Search search = search(null, 0);
+
+        Check.equal(cameras.size(), search.mFound.size(), "found cameras");
+        Check.equal(expiringFetches + 1, expiring.mFetches.get(), "fetches of expired camera");
+        Check.equal(movingFetches + 1, moving.mFetches.get(), "fetches of moved camera");
+        Check.equal(fetches + 2, fetches(), "descriptions fetched");
+    }
+
+    private static Search search(SimpleSsdpClient.DeviceFilter preferred, long cancelAfter)
+            throws Exception {
+        SimpleSsdpClient client = new SimpleSsdpClient(new InetSocketAddress(
+                InetAddress.getByName("127.0.0.1"), responder.getLocalPort()), RECEIVE_TIMEOUT);
+        Search search = new Search();
+        Check.that(client.search(search, preferred), "search started");
+        Check.that(!client.search(search, preferred), "second search while searching");
+        if (cancelAfter > 0) {
+            sleep(cancelAfter);
+            client.cancelSearching();
+        }
+        search.await();
+        Check.that(!client.isSearching(), "searching after finish");
+        return search;
+    }
+
+    // Answers every M-SEARCH with a reply per camera
+    private static void startResponder() throws IOException {
+        responder = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+        Thread thread = new Thread("SsdpResponder") {
+            @Override
+            public void run() {
+                byte[] buffer = new byte[2048];
+                try {
+                    while (true) {
+                        DatagramPacket request = new DatagramPacket(buffer, buffer.length);
+                        responder.receive(request);
+                        String message = new String(request.getData(), 0, request.getLength(),
+                                "UTF-8");
+                        if (!message.startsWith("M-SEARCH")) {
+                            continue;
+                        }
+                        for (Camera camera : cameras) {
+                            byte[] reply = camera.reply().getBytes("UTF-8");
+                            responder.send(new DatagramPacket(reply, reply.length, request
+                                    .getSocketAddress()));
+                        }
+                    }
+                } catch (IOException e) {
+                    // responder closed
+                }
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static String description(String name) {
+        return "<?xml version=\"1.0\"?>\n"
+                + "<root xmlns=\"urn:schemas-upnp-org:device-1-0\">\n"
+                + "  <specVersion><major>1</major><minor>0</minor></specVersion>\n"
+                + "  <device>\n"
+                + "    <deviceType>urn:schemas-upnp-org:device:Basic:1</deviceType>\n"
+                + "    <friendlyName>" + name + "</friendlyName>\n"
+                + "    <manufacturer>Sony Corporation</manufacturer>\n"
+                + "    <modelName>Stand-in</modelName>\n"
+                + "    <UDN>uuid:" + name + "</UDN>\n"
+                + "    <iconList><icon><mimetype>image/png</mimetype><width>48</width>"
+                + "<height>48</height><url>/icon.png</url></icon></iconList>\n"
+                + "    <av:X_ScalarWebAPI_DeviceInfo xmlns:av=\"urn:schemas-sony-com:av\">\n"
+                + "      <av:X_ScalarWebAPI_Version>1.0</av:X_ScalarWebAPI_Version>\n"
+                + "      <av:X_ScalarWebAPI_ServiceList>\n"
+                + "        <av:X_ScalarWebAPI_Service>\n"
+                + "          <av:X_ScalarWebAPI_ServiceType>camera</av:X_ScalarWebAPI_ServiceType>\n"
+                + "          <av:X_ScalarWebAPI_ActionList_URL>http://127.0.0.1:8080/sony"
+                + "</av:X_ScalarWebAPI_ActionList_URL>\n"
+                + "        </av:X_ScalarWebAPI_Service>\n"
+                + "      </av:X_ScalarWebAPI_ServiceList>\n"
+                + "    </av:X_ScalarWebAPI_DeviceInfo>\n"
+                + "  </device>\n"
+                + "</root>\n";
+    }
+
+    private static int fetches() {
+        int fetches = 0;
+        for (Camera camera : cameras) {
+            fetches += camera.mFetches.get();
+        }
+        return fetches;
+    }
+
+    private static int sum(int[] values) {
+        int sum = 0;
+        for (int value : values) {
+            sum += value;
+        }
+        return sum;
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.almalence.sony.cameraremote.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import com.almalence.Check;
+
+/**
+ * Calls per second and p50/p99 latency of getEvent, setShootMode and actZoom
+ * against a local stand-in camera which takes 2 msec to accept a connection.
+ * Compares a new connection per call, which httpPost used to open, with
+ * keep-alive connections of SimpleHttpClient.
+ */
+public class SimpleHttpClientBench {
+
+    private static final long SETUP_DELAY = 2; // [msec]
+
+    private static final int CALLS = 1000;
+
+    private static final String[] METHODS = {
+            "getEvent", "setShootMode", "actZoom"
+    };
+
+    public static void main(String[] args) throws Exception {
+        StandInHttpServer server = new StandInHttpServer();
+        server.setupDelay = SETUP_DELAY;
+        System.setProperty("http.keepAlive", "false");
+
+        for (String method : METHODS) {
+            boolean idempotent = method.startsWith("get");
+            for (int keepAlive = 0; keepAlive < 2; keepAlive++) {
+                LatencyHistogram histogram = new LatencyHistogram();
+                long started = System.nanoTime();
+                for (int id = 0; id < CALLS; id++) {
+                    String request = SimpleHttpClientTest.request(method, id);
+                    long start = System.nanoTime();
+                    String response = keepAlive > 0 ? SimpleHttpClient.httpPost(server.getUrl(),
+                            request, SimpleHttpClient.DEFAULT_READ_TIMEOUT, idempotent)
+                            : postOverNewConnection(server.getUrl(), request);
+                    histogram.record(System.nanoTime() - start);
+                    Check.that(response.endsWith("\"id\":" + id + "}"), "response " + response);
+                }
+                double seconds = (System.nanoTime() - started) / 1e9;
+                Check.log(String.format("%-12s %-16s %6.0f calls/s  p50 %.2fms  p99 %.2fms",
+                        method, keepAlive > 0 ? "keep-alive" : "connection/call",
+                        CALLS / seconds, histogram.getPercentileMillis(0.5),
+                        histogram.getPercentileMillis(0.99)));
+            }
+        }
+        Check.log("connections opened by httpPost: " + SimpleHttpClient.getOpenedConnectionCount());
+        server.close();
+        System.out.println("SimpleHttpClientBench done");
+    }
+
+    private static String postOverNewConnection(String url, String request) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        try {
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            OutputStream output = connection.getOutputStream();
+            output.write(request.getBytes("UTF-8"));
+            output.close();
+            InputStream input = connection.getInputStream();
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = input.read(buffer)) > 0) {
+                body.write(buffer, 0, read);
+            }
+            input.close();
+            return body.toString("UTF-8");
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.almalence.sony.cameraremote.utils;
+
+import java.io.IOException;
+
+import com.almalence.Check;
+
+/**
+ * SimpleHttpClient keep-alive connections against a local stand-in camera:
+ * connection reuse, chunked responses, and what is sent again when camera
+ * closes a reused connection. Requests which change camera state must never
+ * reach it twice.
+ */
+public class SimpleHttpClientTest {
+
+    private static StandInHttpServer server;
+
+    private static int nextId = 1;
+
+    public static void main(String[] args) throws Exception {
+        keepAlive();
+        chunkedResponse();
+        idleConnectionClosedByCamera();
+        connectionClosedAfterRequest();
+        System.out.println("SimpleHttpClientTest passed");
+    }
+
+    // One connection serves all calls
+    private static void keepAlive() throws IOException {
+        start();
+        for (int i = 0; i < 20; i++) {
+            call("setShootMode", false);
+        }
+        Check.equal(1, server.getAcceptedConnections(), "connections for 20 calls");
+    }
+
+    private static void chunkedResponse() throws IOException {
+        start();
+        server.chunked = true;
+        for (int i = 0; i < 3; i++) {
+            call("getEvent", true);
+        }
+        Check.equal(1, server.getAcceptedConnections(), "connections for chunked responses");
+    }
+
+    // Camera closed connection while it was idle in the pool
+    private static void idleConnectionClosedByCamera() throws IOException {
+        start();
+        server.idleTimeout = 50;
+        call("getEvent", true);
+        StandInHttpServer.sleep(150);
+        call("setShootMode", false);
+        Check.equal(1, server.count("setShootMode"), "setShootMode calls received");
+
+        StandInHttpServer.sleep(150);
+        call("actZoom", false);
+        Check.equal(1, server.count("actZoom"), "actZoom calls received");
+
+        StandInHttpServer.sleep(150);
+        call("getEvent", true);
+        Check.that(server.count("getEvent") >= 2, "getEvent is answered over new connection");
+    }
+
+    // Camera read the request from reused connection and closed it without
+    // answering, request may have been carried out
+    private static void connectionClosedAfterRequest() throws IOException {
+        start();
+        call("getEvent", true);
+        server.dropNextReusedRequest = true;
+        try {
+            call("actTakePicture", false);
+            Check.that(false, "actTakePicture without response must fail");
+        } catch (IOException e) {
+            // expected
+        }
+        Check.equal(1, server.count("actTakePicture"), "actTakePicture calls received");
+
+        // the same through the 3 argument method, which doesn't know the method
+        call("getEvent", true);
+        server.dropNextReusedRequest = true;
+        try {
+            SimpleHttpClient.httpPost(server.getUrl(), request("startMovieRec", nextId++),
+                    SimpleHttpClient.DEFAULT_READ_TIMEOUT);
+            Check.that(false, "startMovieRec without response must fail");
+        } catch (IOException e) {
+            // expected
+        }
+        Check.equal(1, server.count("startMovieRec"), "startMovieRec calls received");
+
+        call("getEvent", true);
+        int before = server.count("getEvent");
+        server.dropNextReusedRequest = true;
+        call("getEvent", true);
+        Check.equal(before + 2, server.count("getEvent"), "getEvent is sent again");
+    }
+
+    private static void start() throws IOException {
+        if (server != null) {
+            server.close();
+        }
+        SimpleHttpClient.closeIdleConnections();
+        server = new StandInHttpServer();
+    }
+
+    private static void call(String method, boolean idempotent) throws IOException {
+        int id = nextId++;
+        String response = SimpleHttpClient.httpPost(server.getUrl(), request(method, id),
+                SimpleHttpClient.DEFAULT_READ_TIMEOUT, idempotent);
+        Check.equal("{\"result\":[0],\"id\":" + id + "}", response, method + " response");
+    }
+
+    static String request(String method, int id) {
+        return "{\"method\":\"" + method + "\",\"params\":[],\"id\":" + id
+                + ",\"version\":\"1.0\"}";
+    }
+}
@@ -0,0 +1,326 @@
+package com.almalence.sony.cameraremote.utils;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Random;
+
+import com.almalence.Check;
+
+/**
+ * Frames per second and bytes allocated per frame of liveview slicing. A
+ * local stand-in camera serves a recorded liveview stream over HTTP: jpeg
+ * packets of 20-40 KB with padding, and an information packet (0x12) every
+ * 30 frames. Compares the slicer as it was, which builds a new array for
+ * every header, jpeg and padding, with SimpleLiveviewSlicer. Then the same
+ * recording is replayed from memory, where socket reads can't allocate, and
+ * SimpleLiveviewSlicer must not allocate anything once its frame buffer has
+ * grown.
+ */
+public class SimpleLiveviewSlicerBench {
+
+    private static final int FRAMES = 300;
+
+    private static final int REPEATS = 10; // recording is served this many times per connection
+
+    private static final int INFORMATION_INTERVAL = 30;
+
+    private static final int INFORMATION_HEADER_SIZE = 4 + 3 + 1 + 2 + 118 + 4 + 4 + 24;
+
+    private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory
+            .getThreadMXBean();
+
+    // first payload buffer of SimpleLiveviewSlicer, recorded jpegs fit in it
+    private static final int INITIAL_CAPACITY = 64 * 1024;
+
+    private static int[] sJpegSizes;
+
+    private static long sSink;
+
+    public static void main(String[] args) throws Exception {
+        byte[] recording = record(new Random(1));
+        StandInLiveview server = new StandInLiveview(recording);
+        System.out.println("  " + FRAMES + " frames, " + recording.length / FRAMES
+                + " B per packet, served " + REPEATS + " times per connection");
+        try {
+            for (int round = 0; round < 3; round++) {
+                long[] legacy = runLegacy(server.getUrl());
+                long[] pooled = runPooled(server.getUrl());
+                if (round == 2) {
+                    report("old slicer", legacy);
+                    report("SimpleLiveviewSlicer", pooled);
+                }
+            }
+        } finally {
+            server.close();
+        }
+
+        // JIT still allocates a little during the first rounds
+        for (int round = 0; round < 10; round++) {
+            SimpleLiveviewSlicer slicer = new SimpleLiveviewSlicer();
+            slicer.open(new ReplayStream(recording));
+            long[] replay = slice(slicer);
+            if (round == 9) {
+                report("SimpleLiveviewSlicer from memory", replay);
+                Check.equal(0, replay[1], "bytes allocated by SimpleLiveviewSlicer after first "
+                        + FRAMES + " frames");
+                Check.equal(INITIAL_CAPACITY, slicer.getAllocatedBytes(), "payload buffer bytes");
+            }
+        }
+        Check.that(sSink > 0, "jpegs sliced");
+        System.out.println("SimpleLiveviewSlicerBench done");
+    }
+
+    // Returns {nanoseconds, bytes allocated, frames} after the first pass of
+    // the recording
+    private static long[] runLegacy(String url) throws IOException {
+        LegacyLiveviewSlicer slicer = new LegacyLiveviewSlicer();
+        slicer.open(url);
+        long thread = Thread.currentThread().getId();
+        long started = 0;
+        long bytes = 0;
+        int mismatches = 0;
+        int frame = 0;
+        try {
+            for (; frame < FRAMES * REPEATS; frame++) {
+                if (frame == FRAMES) {
+                    bytes = THREADS.getThreadAllocatedBytes(thread);
+                    started = System.nanoTime();
+                }
+                LegacyLiveviewSlicer.Payload payload = slicer.nextPayload();
+                byte[] jpeg = payload.jpegData;
+                if (jpeg.length != sJpegSizes[frame % FRAMES] || jpeg[jpeg.length - 1] != (byte) 0xD9) {
+                    mismatches++;
+                }
+                sSink += jpeg.length;
+            }
+        } finally {
+            slicer.close();
+        }
+        long time = System.nanoTime() - started;
+        bytes = THREADS.getThreadAllocatedBytes(thread) - bytes;
+        Check.equal(0, mismatches, "jpegs sliced wrong by old slicer");
+        return new long[] {
+                time, bytes, frame - FRAMES
+        };
+    }
+
+    private static long[] runPooled(String url) throws IOException {
+        SimpleLiveviewSlicer slicer = new SimpleLiveviewSlicer();
+        slicer.open(url);
+        return slice(slicer);
+    }
+
+    private static long[] slice(SimpleLiveviewSlicer slicer) throws IOException {
+        long thread = Thread.currentThread().getId();
+        long started = 0;
+        long bytes = 0;
+        int mismatches = 0;
+        int frame = 0;
+        try {
+            for (; frame < FRAMES * REPEATS; frame++) {
+                if (frame == FRAMES) {
+                    bytes = THREADS.getThreadAllocatedBytes(thread);
+                    started = System.nanoTime();
+                }
+                SimpleLiveviewSlicer.Payload payload = slicer.nextPayload();
+                int length = payload.getJpegLength();
+                int last = payload.getJpegOffset() + length - 1;
+                if (length != sJpegSizes[frame % FRAMES] || payload.getJpegBuffer()[last] != (byte) 0xD9) {
+                    mismatches++;
+                }
+                sSink += length;
+                payload.release();
+            }
+        } finally {
+            slicer.close();
+        }
+        long time = System.nanoTime() - started;
+        bytes = THREADS.getThreadAllocatedBytes(thread) - bytes;
+        Check.equal(0, mismatches, "jpegs sliced wrong by SimpleLiveviewSlicer");
+        Check.equal(FRAMES * REPEATS, slicer.getPayloadCount(), "payloads of SimpleLiveviewSlicer");
+        return new long[] {
+                time, bytes, frame - FRAMES
+        };
+    }
+
+    private static void report(String name, long[] result) {
+        long frames = result[2];
+        System.out.println("  " + name + ": " + frames * 1000000000L / result[0] + " frames/s, "
+                + result[1] / frames + " B allocated per frame");
+    }
+
+    // Liveview packets as the camera sends them, see Camera Remote API
+    // liveview data format
+    private static byte[] record(Random random) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        sJpegSizes = new int[FRAMES];
+        for (int frame = 0; frame < FRAMES; frame++) {
+            if (frame % INFORMATION_INTERVAL == 0) {
+                writeCommonHeader(out, 0x12, frame);
+                byte[] information = new byte[INFORMATION_HEADER_SIZE];
+                random.nextBytes(information);
+                out.write(information);
+            }
+
+            int jpegSize = 20 * 1024 + random.nextInt(20 * 1024);
+            int paddingSize = random.nextInt(256);
+            sJpegSizes[frame] = jpegSize;
+            writeCommonHeader(out, 0x01, frame);
+
+            // payload header: start code, jpeg size, padding size, reserved
+            byte[] header = new byte[4 + 3 + 1 + 4 + 1 + 115];
+            header[0] = 0x24;
+            header[1] = 0x35;
+            header[2] = 0x68;
+            header[3] = 0x79;
+            header[4] = (byte) (jpegSize >> 16);
+            header[5] = (byte) (jpegSize >> 8);
+            header[6] = (byte) jpegSize;
+            header[7] = (byte) paddingSize;
+            out.write(header);
+
+            byte[] jpeg = new byte[jpegSize];
+            random.nextBytes(jpeg);
+            jpeg[0] = (byte) 0xFF;
+            jpeg[1] = (byte) 0xD8;
+            jpeg[jpegSize - 2] = (byte) 0xFF;
+            jpeg[jpegSize - 1] = (byte) 0xD9;
+            out.write(jpeg);
+            out.write(new byte[paddingSize]);
+        }
+        return out.toByteArray();
+    }
+
+    private static void writeCommonHeader(ByteArrayOutputStream out, int type, int sequence) {
+        int timestamp = sequence * 33;
+        out.write(0xFF);
+        out.write(type);
+        out.write(sequence >> 8);
+        out.write(sequence);
+        out.write(timestamp >> 24);
+        out.write(timestamp >> 16);
+        out.write(timestamp >> 8);
+        out.write(timestamp);
+    }
+
+    /** Recording REPEATS times, read and skipped without copying it. */
+    private static final class ReplayStream extends InputStream {
+        private final byte[] mRecording;
+
+        private int mPosition;
+
+        private int mRepeat;
+
+        ReplayStream(byte[] recording) {
+            mRecording = recording;
+        }
+
+        @Override
+        public int read() {
+            if (!available(1)) {
+                return -1;
+            }
+            return mRecording[mPosition++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (!available(length)) {
+                return -1;
+            }
+            int count = Math.min(length, mRecording.length - mPosition);
+            System.arraycopy(mRecording, mPosition, buffer, offset, count);
+            mPosition += count;
+            return count;
+        }
+
+        @Override
+        public long skip(long n) {
+            if (!available(n)) {
+                return 0;
+            }
+            int count = (int) Math.min(n, mRecording.length - mPosition);
+            mPosition += count;
+            return count;
+        }
+
+        private boolean available(long wanted) {
+            if (mPosition == mRecording.length && mRepeat + 1 < REPEATS) {
+                mPosition = 0;
+                mRepeat++;
+            }
+            return wanted > 0 && mPosition < mRecording.length;
+        }
+    }
+
+    /**
+     * Stand-in of camera liveview url. Every connection gets the recording
+     * REPEATS times in socket sized writes and is closed after it.
+     */
+    private static final class StandInLiveview {
+        private final ServerSocket mServerSocket;
+
+        StandInLiveview(final byte[] recording) throws IOException {
+            mServerSocket = new ServerSocket(0);
+            Thread acceptor = new Thread("StandInLiveview") {
+                @Override
+                public void run() {
+                    while (true) {
+                        Socket socket;
+                        try {
+                            socket = mServerSocket.accept();
+                        } catch (IOException e) {
+                            return;
+                        }
+                        serve(socket, recording);
+                    }
+                }
+            };
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        String getUrl() {
+            return "http://127.0.0.1:" + mServerSocket.getLocalPort() + "/liveview/liveviewstream";
+        }
+
+        void close() throws IOException {
+            mServerSocket.close();
+        }
+
+        private static void serve(Socket socket, byte[] recording) {
+            try {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(
+                        socket.getInputStream(), "UTF-8"));
+                String line;
+                while ((line = reader.readLine()) != null && line.length() > 0) {
+                    // request headers aren't needed
+                }
+                OutputStream output = socket.getOutputStream();
+                output.write(("HTTP/1.1 200 OK\r\nContent-Type: image/jpeg\r\n"
+                        + "Connection: close\r\n\r\n").getBytes("UTF-8"));
+                for (int repeat = 0; repeat < REPEATS; repeat++) {
+                    for (int offset = 0; offset < recording.length; offset += 8192) {
+                        output.write(recording, offset, Math.min(8192, recording.length - offset));
+                    }
+                }
+                output.flush();
+            } catch (IOException e) {
+                // slicer went away
+            } finally {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // nothing to do
+                }
+            }
+        }
+    }
+}
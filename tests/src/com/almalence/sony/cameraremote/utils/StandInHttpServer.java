@@ -0,0 +1,175 @@
+package com.almalence.sony.cameraremote.utils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Local stand-in of camera JSON-RPC endpoint for SimpleHttpClient harnesses.
+ * Answers every call with {"result":[0],"id":id} over keep-alive connections
+ * and logs method names in order they arrive. Camera misbehaviour is switched
+ * on with the public fields.
+ */
+final class StandInHttpServer {
+
+    private static final Pattern METHOD = Pattern.compile("\"method\":\"(\\w+)\"");
+
+    private static final Pattern ID = Pattern.compile("\"id\":(\\d+)");
+
+    /** Time camera takes to accept new connection [msec]. */
+    volatile long setupDelay;
+
+    /** Connection idle for this long is closed by camera [msec], 0 never. */
+    volatile int idleTimeout;
+
+    /**
+     * Next request on a connection which has already served one is read and
+     * then connection is closed without response.
+     */
+    volatile boolean dropNextReusedRequest;
+
+    volatile boolean chunked;
+
+    final List<String> methods = Collections.synchronizedList(new ArrayList<String>());
+
+    private final ServerSocket mServerSocket;
+
+    private volatile int mAccepted;
+
+    StandInHttpServer() throws IOException {
+        mServerSocket = new ServerSocket(0);
+        Thread acceptor = new Thread("StandInHttpServer") {
+            @Override
+            public void run() {
+                while (true) {
+                    final Socket socket;
+                    try {
+                        socket = mServerSocket.accept();
+                    } catch (IOException e) {
+                        return;
+                    }
+                    mAccepted++;
+                    Thread connection = new Thread() {
+                        @Override
+                        public void run() {
+                            serve(socket);
+                        }
+                    };
+                    connection.setDaemon(true);
+                    connection.start();
+                }
+            }
+        };
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    String getUrl() {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort() + "/sony/camera";
+    }
+
+    int getAcceptedConnections() {
+        return mAccepted;
+    }
+
+    int count(String method) {
+        return Collections.frequency(methods, method);
+    }
+
+    void close() throws IOException {
+        mServerSocket.close();
+    }
+
+    private void serve(Socket socket) {
+        try {
+            socket.setTcpNoDelay(true);
+            sleep(setupDelay);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    socket.getInputStream(), "UTF-8"));
+            OutputStream output = socket.getOutputStream();
+            int served = 0;
+            while (true) {
+                socket.setSoTimeout(idleTimeout);
+                String line;
+                try {
+                    line = reader.readLine();
+                } catch (SocketTimeoutException e) {
+                    // camera gives up idle connection
+                    return;
+                }
+                if (line == null) {
+                    return;
+                }
+                socket.setSoTimeout(0);
+                int length = 0;
+                while ((line = reader.readLine()).length() > 0) {
+                    if (line.toLowerCase().startsWith("content-length:")) {
+                        length = Integer.parseInt(line.substring(15).trim());
+                    }
+                }
+                char[] body = new char[length];
+                for (int read = 0; read < length;) {
+                    read += reader.read(body, read, length - read);
+                }
+                String request = new String(body);
+                methods.add(find(METHOD, request));
+
+                if (served > 0 && dropNextReusedRequest) {
+                    dropNextReusedRequest = false;
+                    return;
+                }
+                byte[] response = ("{\"result\":[0],\"id\":" + find(ID, request) + "}")
+                        .getBytes("UTF-8");
+                if (chunked) {
+                    int half = response.length / 2;
+                    output.write(("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n"
+                            + Integer.toHexString(half) + "\r\n").getBytes("UTF-8"));
+                    output.write(response, 0, half);
+                    output.write(("\r\n" + Integer.toHexString(response.length - half) + "\r\n")
+                            .getBytes("UTF-8"));
+                    output.write(response, half, response.length - half);
+                    output.write("\r\n0\r\n\r\n".getBytes("UTF-8"));
+                } else {
+                    output.write(("HTTP/1.1 200 OK\r\nContent-Type: application/json\r\n"
+                            + "Content-Length: " + response.length + "\r\n\r\n").getBytes("UTF-8"));
+                    output.write(response);
+                }
+                output.flush();
+                served++;
+            }
+        } catch (IOException e) {
+            // client went away
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // nothing to do
+            }
+        }
+    }
+
+    private static String find(Pattern pattern, String text) {
+        Matcher matcher = pattern.matcher(text);
+        return matcher.find() ? matcher.group(1) : "";
+    }
+
+    static void sleep(long ms) {
+        if (ms <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+}
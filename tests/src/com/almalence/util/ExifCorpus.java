@@ -0,0 +1,203 @@
+/*
+The contents of this file are subject to the Mozilla Public License
+Version 1.1 (the "License"); you may not use this file except in
+compliance with the License. You may obtain a copy of the License at
+http://www.mozilla.org/MPL/
+
+Software distributed under the License is distributed on an "AS IS"
+basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+License for the specific language governing rights and limitations
+under the License.
+
+The Original Code is collection of files collectively known as Open Camera.
+
+The Initial Developer of the Original Code is Almalence Inc.
+Portions created by Initial Developer are Copyright (C) 2013
+by Almalence Inc. All Rights Reserved.
+ */
+
+package com.almalence.util;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+/***
+ * Camera-like jpegs with Exif for Exif harnesses, generated from a seed so
+ * that no image files are kept in the tree. IFD0 has make, model,
+ * orientation, resolution and SubIFD pointer, SubIFD has the shooting tags
+ * capture reads and a maker note. Odd images are Intel byte order with APP1
+ * right after SOI, even ones are Motorola with APP1 after JFIF APP0.
+ ***/
+public final class ExifCorpus
+{
+	public static final int			TAG_EXIF_SUB_IFD		= 0x8769;
+
+	private static final int[]		FORMAT_SIZES			= { 0, 1, 1, 2, 4, 8, 1, 1, 2, 4, 8, 4, 8 };
+	private static final String[]	MAKES					= { "Sony", "samsung", "LGE", "HTC  " };
+	private static final int[]		EXPOSURE_DENOMINATORS	= { 30, 4000, 100, 3 };
+
+	private ExifCorpus()
+	{
+	}
+
+	/**
+	 * Jpegs of 640x480 to 1024x768 with Exif.
+	 */
+	public static List<byte[]> generate(int count, long seed) throws IOException
+	{
+		Random random = new Random(seed);
+		List<byte[]> corpus = new ArrayList<byte[]>();
+		for (int n = 0; n < count; n++)
+		{
+			int width = 640 + 128 * (n % 4);
+			byte[] exif = exifPayload(n % 2 == 0, random, n);
+			corpus.add(insertApp1(image(width, width * 3 / 4, n, random), exif, n % 2 == 0));
+		}
+		return corpus;
+	}
+
+	/**
+	 * Jpeg of noisy gradient, without metadata besides JFIF APP0.
+	 */
+	public static byte[] image(int width, int height, int variant, Random random) throws IOException
+	{
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < height; y++)
+			for (int x = 0; x < width; x++)
+				image.setRGB(x, y, ((x * 7 + y * 3 + variant * 50) & 255) * 0x10101 ^ random.nextInt(40));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ImageIO.write(image, "jpg", out);
+		return out.toByteArray();
+	}
+
+	/**
+	 * Inserts APP1 segment with payload right after SOI, or after JFIF APP0
+	 * which ImageIO writes first.
+	 */
+	public static byte[] insertApp1(byte[] jpeg, byte[] payload, boolean afterJfif)
+	{
+		int at = 2;
+		if (afterJfif)
+			at = 4 + (((jpeg[4] & 0xFF) << 8) | (jpeg[5] & 0xFF));
+		ByteArrayOutputStream out = new ByteArrayOutputStream(jpeg.length + payload.length + 4);
+		out.write(jpeg, 0, at);
+		out.write(0xFF);
+		out.write(0xE1);
+		out.write((payload.length + 2) >> 8);
+		out.write((payload.length + 2) & 0xFF);
+		out.write(payload, 0, payload.length);
+		out.write(jpeg, at, jpeg.length - at);
+		return out.toByteArray();
+	}
+
+	/**
+	 * APP1 payload: "Exif\0\0" followed by TIFF data with IFD0 and SubIFD.
+	 */
+	public static byte[] exifPayload(boolean motorola, Random random, int variant)
+	{
+		ByteOrder order = motorola ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+		int width = 640 + 128 * (variant % 4);
+		Object[][] ifd0 = {
+				{ 0x010F, 2, (MAKES[variant % MAKES.length] + "\0").getBytes() },
+				{ 0x0110, 2, ("Model-" + random.nextInt(1000) + "\0").getBytes() },
+				{ 0x0112, 3, shorts(order, 1 + random.nextInt(8)) },
+				{ 0x011A, 5, rational(order, 72, 1) },
+				{ 0x011B, 5, rational(order, 72, 1) },
+				{ 0x0128, 3, shorts(order, 2) },
+				{ 0x0132, 2, "2014:06:01 12:00:00\0".getBytes() },
+				{ TAG_EXIF_SUB_IFD, 4, null } };
+		Object[][] subIfd = {
+				{ 0x829A, 5, rational(order, variant % 3 == 0 ? 10 : 1, EXPOSURE_DENOMINATORS[variant % 4]) },
+				{ 0x829D, 5, rational(order, 22 + variant % 7, 10) },
+				{ 0x8824, 2, "spectral\0".getBytes() },
+				{ 0x8827, 3, variant % 5 == 0 ? shorts(order, 100, 200) : shorts(order, 50 * (1 + variant % 16)) },
+				{ 0x9000, 7, "0220".getBytes() },
+				{ 0x9003, 2, "2014:06:01 12:00:00\0".getBytes() },
+				{ 0x9204, 10, rational(order, -1, 3) },
+				{ 0x9207, 3, shorts(order, variant % 6) },
+				{ 0x9209, 3, shorts(order, variant % 2 == 0 ? 0x10 : 0x19) },
+				{ 0x920A, 5, rational(order, 430 + variant, 100) },
+				{ 0x927C, 7, new byte[64] },
+				{ 0xA002, 4, longs(order, width) },
+				{ 0xA003, 4, longs(order, width * 3 / 4) },
+				{ 0xA403, 3, shorts(order, variant % 2) },
+				{ 0xA406, 3, shorts(order, variant % 4) } };
+
+		ByteBuffer buffer = ByteBuffer.allocate(4096).order(order);
+		buffer.put("Exif\0\0".getBytes());
+		int tiff = buffer.position();
+		buffer.put(motorola ? "MM".getBytes() : "II".getBytes());
+		buffer.putShort((short) 42);
+		buffer.putInt(8);
+
+		int ifd0Offset = 8;
+		int subIfdOffset = ifd0Offset + 2 + 12 * ifd0.length + 4;
+		int[] dataOffset = { subIfdOffset + 2 + 12 * subIfd.length + 4 };
+		writeIfd(buffer, tiff, ifd0Offset, ifd0, dataOffset, subIfdOffset);
+		writeIfd(buffer, tiff, subIfdOffset, subIfd, dataOffset, 0);
+		return Arrays.copyOf(buffer.array(), tiff + dataOffset[0]);
+	}
+
+	// Entries are {tag, format, value}, null value is the SubIFD pointer.
+	// Values longer than 4 bytes go to dataOffset, which is advanced.
+	private static void writeIfd(ByteBuffer buffer, int tiff, int offset, Object[][] entries, int[] dataOffset,
+			int subIfdOffset)
+	{
+		buffer.putShort(tiff + offset, (short) entries.length);
+		for (int i = 0; i < entries.length; i++)
+		{
+			int format = (Integer) entries[i][1];
+			byte[] value = (byte[]) entries[i][2];
+			int entry = tiff + offset + 2 + 12 * i;
+			buffer.putShort(entry, (short) (int) (Integer) entries[i][0]);
+			buffer.putShort(entry + 2, (short) format);
+			if (value == null)
+			{
+				buffer.putInt(entry + 4, 1);
+				buffer.putInt(entry + 8, subIfdOffset);
+				continue;
+			}
+
+			buffer.putInt(entry + 4, value.length / FORMAT_SIZES[format]);
+			if (value.length <= 4)
+			{
+				for (int k = 0; k < value.length; k++)
+					buffer.put(entry + 8 + k, value[k]);
+			} else
+			{
+				buffer.putInt(entry + 8, dataOffset[0]);
+				for (int k = 0; k < value.length; k++)
+					buffer.put(tiff + dataOffset[0] + k, value[k]);
+				dataOffset[0] += value.length + (value.length & 1);
+			}
+		}
+		buffer.putInt(tiff + offset + 2 + 12 * entries.length, 0);
+	}
+
+	private static byte[] shorts(ByteOrder order, int... values)
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(2 * values.length).order(order);
+		for (int value : values)
+			buffer.putShort((short) value);
+		return buffer.array();
+	}
+
+	private static byte[] longs(ByteOrder order, int value)
+	{
+		return ByteBuffer.allocate(4).order(order).putInt(value).array();
+	}
+
+	private static byte[] rational(ByteOrder order, int numerator, int denominator)
+	{
+		return ByteBuffer.allocate(8).order(order).putInt(numerator).putInt(denominator).array();
+	}
+}
@@ -0,0 +1,225 @@
+/*
+The contents of this file are subject to the Mozilla Public License
+Version 1.1 (the "License"); you may not use this file except in
+compliance with the License. You may obtain a copy of the License at
+http://www.mozilla.org/MPL/
+
+Software distributed under the License is distributed on an "AS IS"
+basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+License for the specific language governing rights and limitations
+under the License.
+
+The Original Code is collection of files collectively known as Open Camera.
+
+The Initial Developer of the Original Code is Almalence Inc.
+Portions created by Initial Developer are Copyright (C) 2013
+by Almalence Inc. All Rights Reserved.
+ */
+
+package com.almalence.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import com.almalence.Check;
+import com.almalence.util.exifreader.lang.BufferReader;
+import com.almalence.util.exifreader.lang.ByteArrayReader;
+import com.almalence.util.exifreader.lang.RandomAccessFileReader;
+import com.almalence.util.exifreader.lang.Rational;
+import com.almalence.util.exifreader.metadata.Directory;
+import com.almalence.util.exifreader.metadata.Metadata;
+import com.almalence.util.exifreader.metadata.Tag;
+import com.almalence.util.exifreader.metadata.exif.ExifIFD0Directory;
+import com.almalence.util.exifreader.metadata.exif.ExifReader;
+import com.almalence.util.exifreader.metadata.exif.ExifSubIFDDirectory;
+
+/***
+ * IfdTable against a TreeMap of tag to value under random puts and removes,
+ * including the serialized IFD. Then values stored from Motorola byte order,
+ * directly and through ExifReader with both buffer readers, which copy tag
+ * values straight into the table.
+ ***/
+public class IfdTableTest
+{
+	public static void main(String[] args) throws Exception
+	{
+		model();
+		motorolaByteOrder();
+		readers();
+		System.out.println("IfdTableTest passed");
+	}
+
+	private static void model()
+	{
+		Random random = new Random(1);
+		int operations = 0;
+		for (int iteration = 0; iteration < 5000; iteration++)
+		{
+			IfdTable table = new IfdTable();
+			TreeMap<Integer, byte[]> values = new TreeMap<Integer, byte[]>();
+			TreeMap<Integer, Integer> formats = new TreeMap<Integer, Integer>();
+			int count = random.nextInt(200);
+			for (int o = 0; o < count; o++, operations++)
+			{
+				int tag = random.nextInt(40);
+				if (random.nextInt(4) == 0)
+				{
+					Check.equal(values.remove(tag) != null, table.remove(tag), "remove of tag " + tag);
+					formats.remove(tag);
+				} else
+				{
+					int format = 1 + random.nextInt(12);
+					int components = random.nextInt(random.nextBoolean() ? 3 : 40);
+					byte[] value = new byte[components * IfdTable.FORMAT_WIDTHS[format]];
+					random.nextBytes(value);
+					if (random.nextBoolean())
+					{
+						// put may reallocate arena
+						int offset = table.put(tag, format, components);
+						System.arraycopy(value, 0, table.getArena(), offset, value.length);
+					} else
+						table.put(tag, format, components, value, 0, false);
+					values.put(tag, value);
+					formats.put(tag, format);
+				}
+				check(table, values);
+			}
+			checkWritten(table, values, formats);
+		}
+		Check.log(operations + " puts and removes match TreeMap");
+	}
+
+	private static void check(IfdTable table, TreeMap<Integer, byte[]> values)
+	{
+		Check.equal(values.size(), table.size(), "size");
+		int index = 0;
+		int extra = 0;
+		for (Map.Entry<Integer, byte[]> entry : values.entrySet())
+		{
+			byte[] value = entry.getValue();
+			Check.equal((long) entry.getKey(), table.getTag(index), "tag order");
+			Check.equal(value.length, table.getByteCount(index), "byte count of tag " + entry.getKey());
+			for (int k = 0; k < value.length; k++)
+				Check.equal(value[k], table.getArena()[table.getValueOffset(index) + k], "value of tag " + entry.getKey());
+			if (value.length > 4)
+				extra += value.length;
+			index++;
+		}
+		Check.equal(6 + IfdTable.ENTRY_SIZE * values.size() + extra, table.getRequiredSpace(), "required space");
+	}
+
+	private static void checkWritten(IfdTable table, TreeMap<Integer, byte[]> values, TreeMap<Integer, Integer> formats)
+	{
+		byte[] out = new byte[table.getRequiredSpace() + 8];
+		Check.equal(out.length, table.write(out, 8, 0), "end of written IFD");
+		Check.equal(values.size(), IfdTable.readUInt16(out, 8), "written entry count");
+		int entry = 10;
+		for (Map.Entry<Integer, byte[]> tag : values.entrySet())
+		{
+			byte[] value = tag.getValue();
+			int valueOffset = value.length > 4 ? IfdTable.readInt32(out, entry + 8) : entry + 8;
+			Check.equal((long) tag.getKey(), IfdTable.readUInt16(out, entry), "written tag");
+			Check.equal((long) formats.get(tag.getKey()), IfdTable.readUInt16(out, entry + 2), "written format");
+			for (int k = 0; k < value.length; k++)
+				Check.equal(value[k], out[valueOffset + k], "written value of tag " + tag.getKey());
+			entry += IfdTable.ENTRY_SIZE;
+		}
+	}
+
+	private static void motorolaByteOrder()
+	{
+		IfdTable table = new IfdTable();
+		table.put(1, IfdTable.FORMAT_SIGNED_RATIONAL, 2, new byte[] { -1, -1, -1, -1, 0, 0, 0, 3, 0, 0, 1, 0, 0, 0,
+				0, 7 }, 0, true);
+		int index = table.indexOf(1);
+		Check.equal(-1, table.getNumerator(index, 0), "numerator");
+		Check.equal(3, table.getDenominator(index, 0), "denominator");
+		Check.equal(256, table.getNumerator(index, 1), "second numerator");
+		Check.equal(7, table.getDenominator(index, 1), "second denominator");
+
+		table.put(2, IfdTable.FORMAT_SIGNED_SHORT, 2, new byte[] { 9, -1, -2, 0, 5 }, 1, true);
+		index = table.indexOf(2);
+		Check.equal(-2, table.getInt(index, 0), "signed short");
+		Check.equal(5, table.getInt(index, 1), "second signed short");
+
+		table.put(3, IfdTable.FORMAT_UNSIGNED_LONG, 1, new byte[] { 0x12, 0x34, 0x56, 0x78 }, 0, true);
+		Check.equal(0x12345678, table.getInt(table.indexOf(3), 0), "unsigned long");
+
+		// bytes and strings are kept as they are
+		table.put(4, IfdTable.FORMAT_ASCII, 3, "ab\0".getBytes(), 0, true);
+		index = table.indexOf(4);
+		Check.equal((byte) 'a', table.getArena()[table.getValueOffset(index)], "string");
+
+		// value copied to arena by caller, then converted
+		int offset = table.put(5, IfdTable.FORMAT_UNSIGNED_SHORT, 1);
+		table.getArena()[offset] = 0x01;
+		table.getArena()[offset + 1] = 0x02;
+		table.fromMotorolaByteOrder(table.indexOf(5));
+		Check.equal(0x0102, table.getInt(table.indexOf(5), 0), "unsigned short converted in arena");
+	}
+
+	// Same Exif in both byte orders, read from array and from file, must give
+	// the same directories
+	private static void readers() throws Exception
+	{
+		for (int variant = 0; variant < 4; variant++)
+		{
+			byte[] motorola = ExifCorpus.exifPayload(true, new Random(variant), variant);
+			byte[] intel = ExifCorpus.exifPayload(false, new Random(variant), variant);
+
+			Metadata expected = read(new ByteArrayReader(intel));
+			compare(expected, read(new ByteArrayReader(motorola)), "Motorola array, variant " + variant);
+			compare(expected, read(fileReader(motorola)), "Motorola file, variant " + variant);
+			compare(expected, read(fileReader(intel)), "Intel file, variant " + variant);
+
+			Directory subIfd = expected.getDirectory(ExifSubIFDDirectory.class);
+			Check.equal(new Rational(-1, 3), subIfd.getRational(ExifSubIFDDirectory.TAG_EXPOSURE_BIAS), "exposure bias");
+			Check.equal(new Rational(430 + variant, 100), subIfd.getRational(ExifSubIFDDirectory.TAG_FOCAL_LENGTH),
+					"focal length");
+			Check.equal(640 + 128 * variant, subIfd.getInt(ExifSubIFDDirectory.TAG_EXIF_IMAGE_WIDTH), "image width");
+			Check.equal(variant == 0 ? "100 200" : String.valueOf(50 * (1 + variant)),
+					subIfd.getString(ExifSubIFDDirectory.TAG_ISO_EQUIVALENT), "iso");
+		}
+	}
+
+	private static Metadata read(BufferReader reader)
+	{
+		Metadata metadata = new Metadata();
+		new ExifReader().extract(reader, metadata);
+		return metadata;
+	}
+
+	private static BufferReader fileReader(byte[] payload) throws Exception
+	{
+		File file = File.createTempFile("exif", ".bin");
+		file.deleteOnExit();
+		FileOutputStream out = new FileOutputStream(file);
+		out.write(payload);
+		out.close();
+		return new RandomAccessFileReader(new RandomAccessFile(file, "r"));
+	}
+
+	private static final List<Class<? extends Directory>>	COMPARED	= Arrays.<Class<? extends Directory>> asList(
+																			ExifIFD0Directory.class,
+																			ExifSubIFDDirectory.class);
+
+	private static void compare(Metadata expected, Metadata actual, String what)
+	{
+		for (Class<? extends Directory> type : COMPARED)
+		{
+			Directory expectedDirectory = expected.getDirectory(type);
+			Directory actualDirectory = actual.getDirectory(type);
+			Check.that(!actualDirectory.hasErrors(), what + ": " + actualDirectory.getErrors());
+			Check.equal(expectedDirectory.getTagCount(), actualDirectory.getTagCount(), what + ": tag count");
+			for (Tag tag : expectedDirectory.getTags())
+				Check.equal(expectedDirectory.getString(tag.getTagType()), actualDirectory.getString(tag.getTagType()),
+						what + ": tag " + tag.getTagName());
+		}
+	}
+}
@@ -0,0 +1,290 @@
+/*
+The contents of this file are subject to the Mozilla Public License
+Version 1.1 (the "License"); you may not use this file except in
+compliance with the License. You may obtain a copy of the License at
+http://www.mozilla.org/MPL/
+
+Software distributed under the License is distributed on an "AS IS"
+basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+License for the specific language governing rights and limitations
+under the License.
+
+The Original Code is collection of files collectively known as Open Camera.
+
+The Initial Developer of the Original Code is Almalence Inc.
+Portions created by Initial Developer are Copyright (C) 2013
+by Almalence Inc. All Rights Reserved.
+ */
+
+package com.almalence.util;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.graphics.Bitmap;
+
+import com.almalence.Check;
+
+/***
+ * MemoryImageCache with stand-in bitmaps: cache and pool byte accounting,
+ * bitmaps removed from cache are left alone since views may still draw them,
+ * only released bitmaps are reused, pool trimming by bucket age, and one
+ * background load per key however many times it's asked for.
+ ***/
+public class MemoryImageCacheTest
+{
+	private static final int	W		= 40;
+	private static final int	H		= 30;
+	private static final int	BYTES	= W * H * 4;	// ARGB_8888
+
+	public static void main(String[] args) throws Exception
+	{
+		byteAccounting();
+		removedBitmapsAreNotReused();
+		releasedBitmapsAreReused();
+		poolTrimming();
+		decodeIntoPooledBitmap();
+		inFlightDedupe();
+		System.out.println("MemoryImageCacheTest passed");
+	}
+
+	// Cache keeps bitmaps within its byte budget, least recently used go first
+	private static void byteAccounting()
+	{
+		MemoryImageCache cache = new MemoryImageCache(3 * BYTES);
+		Bitmap a = bitmap(), b = bitmap(), c = bitmap();
+		cache.addBitmap("a", a);
+		cache.addBitmap("b", b);
+		cache.addBitmap("c", c);
+		Check.equal(3 * BYTES, cache.getBytes(), "bytes of 3 bitmaps");
+
+		Check.that(cache.getBitmap("a") == a, "a is cached");
+		cache.addBitmap("d", bitmap());
+		Check.equal(3 * BYTES, cache.getBytes(), "bytes after eviction");
+		Check.equal(1, cache.getEvictions(), "evictions");
+		Check.that(cache.getBitmap("b") == null, "least recently used b is evicted");
+		Check.that(cache.getBitmap("a") == a, "a stays");
+
+		Bitmap small = Bitmap.createBitmap(W, H, Bitmap.Config.RGB_565);
+		cache.addBitmap("small", small);
+		// evicts c, least recently used now
+		Check.equal(2 * BYTES + W * H * 2, cache.getBytes(), "bytes of bitmaps of two configs");
+
+		cache.remove("a");
+		Check.equal(BYTES + W * H * 2, cache.getBytes(), "bytes after remove");
+		Check.equal(2, cache.getHits(), "hits");
+		Check.equal(1, cache.getMisses(), "misses");
+
+		cache.clear();
+		Check.equal(0, cache.getBytes(), "bytes after clear");
+		Check.equal(0, cache.getPoolBytes(), "pool bytes after clear");
+	}
+
+	// Evicted, replaced, removed and cleared bitmaps may still be shown. They
+	// must not be recycled or handed out again.
+	private static void removedBitmapsAreNotReused()
+	{
+		MemoryImageCache cache = new MemoryImageCache(2 * BYTES);
+		Bitmap evicted = bitmap(), replaced = bitmap(), removed = bitmap(), cleared = bitmap();
+		cache.addBitmap("evicted", evicted);
+		cache.addBitmap("replaced", replaced);
+		cache.addBitmap("removed", removed);
+		cache.addBitmap("replaced", bitmap());
+		cache.remove("removed");
+		cache.addBitmap("cleared", cleared);
+		cache.clear();
+
+		Bitmap[] dropped = { evicted, replaced, removed, cleared };
+		for (Bitmap bitmap : dropped)
+			Check.that(!bitmap.isRecycled(), "bitmap removed from cache isn't recycled");
+		Check.equal(0, cache.getPoolBytes(), "pool bytes");
+
+		Bitmap obtained = cache.obtainBitmap(W, H, Bitmap.Config.ARGB_8888);
+		for (Bitmap bitmap : dropped)
+			Check.that(obtained != bitmap, "bitmap removed from cache isn't handed out");
+		Check.equal(0, cache.getReused(), "reused bitmaps");
+
+		cache.addBitmap("shown", bitmap());
+		Bitmap shown = cache.getBitmap("shown");
+		cache.release();
+		Check.that(!shown.isRecycled(), "release() doesn't recycle cached bitmap");
+		Check.equal(0, cache.getBytes(), "bytes after release");
+	}
+
+	// Explicitly released bitmaps are reused by size and config, bitmaps
+	// which can't be reused are recycled
+	private static void releasedBitmapsAreReused()
+	{
+		MemoryImageCache cache = new MemoryImageCache(4 * BYTES, 2 * BYTES);
+		Bitmap released = bitmap();
+		cache.releaseBitmap(released);
+		Check.equal(BYTES, cache.getPoolBytes(), "pool bytes after release");
+		Check.equal(0, cache.getBytes(), "released bitmap isn't cached");
+
+		Check.that(cache.getReusableBitmap(W, H, Bitmap.Config.RGB_565) == null, "no bitmap of other config");
+		Check.that(cache.getReusableBitmap(H, W, Bitmap.Config.ARGB_8888) == null, "no bitmap of other size");
+		Check.that(cache.obtainBitmap(W, H, Bitmap.Config.ARGB_8888) == released, "released bitmap is reused");
+		Check.equal(1, cache.getReused(), "reused bitmaps");
+		Check.equal(0, cache.getPoolBytes(), "pool bytes after reuse");
+
+		Bitmap immutable = Bitmap.createBitmap(released, 0, 0, W, H);
+		cache.releaseBitmap(immutable);
+		Check.that(immutable.isRecycled(), "immutable bitmap is recycled");
+
+		Bitmap big = Bitmap.createBitmap(W * 3, H, Bitmap.Config.ARGB_8888);
+		cache.releaseBitmap(big);
+		Check.that(big.isRecycled(), "bitmap above pool limit is recycled");
+		Check.equal(0, cache.getPoolBytes(), "pool bytes");
+
+		// rotation takes result from pool and releases source to it
+		Bitmap source = bitmap();
+		Bitmap target = Bitmap.createBitmap(H, W, Bitmap.Config.ARGB_8888);
+		cache.releaseBitmap(target);
+		Bitmap rotated = cache.rotateBitmap(source, 90);
+		Check.that(rotated == target, "rotated bitmap comes from pool");
+		Check.equal(BYTES, cache.getPoolBytes(), "source of rotation is pooled");
+		Check.that(cache.obtainBitmap(W, H, Bitmap.Config.ARGB_8888) == source, "source of rotation is reused");
+		Check.that(cache.rotateBitmap(rotated, 360) == rotated, "no rotation");
+	}
+
+	// Pool over its limit recycles bitmaps of least recently used buckets
+	private static void poolTrimming()
+	{
+		int wideBytes = (W + 1) * H * 4;
+		int tallBytes = W * (H + 1) * 4;
+		MemoryImageCache cache = new MemoryImageCache(BYTES, 4 * BYTES);
+		Bitmap wide = Bitmap.createBitmap(W + 1, H, Bitmap.Config.ARGB_8888);
+		Bitmap wideToo = Bitmap.createBitmap(W + 1, H, Bitmap.Config.ARGB_8888);
+		Bitmap old = bitmap();
+		cache.releaseBitmap(wide);
+		cache.releaseBitmap(wideToo);
+		cache.releaseBitmap(old);
+		Check.equal(2 * wideBytes + BYTES, cache.getPoolBytes(), "pool bytes");
+
+		// taking from bucket of wide bitmaps makes it more recent than bucket
+		// of old one
+		Bitmap taken = cache.getReusableBitmap(W + 1, H, Bitmap.Config.ARGB_8888);
+		cache.releaseBitmap(taken);
+		Check.equal(2 * wideBytes + BYTES, cache.getPoolBytes(), "pool bytes after take and release");
+
+		Bitmap tall = Bitmap.createBitmap(W, H + 1, Bitmap.Config.ARGB_8888);
+		cache.releaseBitmap(tall);
+		Check.that(old.isRecycled(), "bitmap of least recently used bucket is recycled");
+		Check.that(!wide.isRecycled() && !wideToo.isRecycled() && !tall.isRecycled(), "others are kept");
+		Check.equal(2 * wideBytes + tallBytes, cache.getPoolBytes(), "pool bytes after trim");
+
+		cache.addBitmap("shown", bitmap());
+		cache.trimPool(tallBytes);
+		Check.that(wide.isRecycled() && wideToo.isRecycled(), "older bucket is trimmed first");
+		Check.that(!tall.isRecycled(), "newest bucket fits");
+		Check.equal(tallBytes, cache.getPoolBytes(), "pool bytes after trimPool");
+		Check.equal(BYTES, cache.getBytes(), "trimPool doesn't touch cache");
+
+		Bitmap shown = cache.getBitmap("shown");
+		cache.release();
+		Check.that(tall.isRecycled(), "release() recycles pool");
+		Check.that(!shown.isRecycled(), "release() doesn't recycle cached bitmap");
+		Check.equal(0, cache.getPoolBytes(), "pool bytes after release");
+	}
+
+	private static void decodeIntoPooledBitmap() throws Exception
+	{
+		File file = File.createTempFile("thumbnail", ".txt");
+		file.deleteOnExit();
+		FileWriter writer = new FileWriter(file);
+		writer.write(W + " " + H + "\n");
+		writer.close();
+
+		MemoryImageCache cache = new MemoryImageCache(4 * BYTES);
+		Bitmap pooled = bitmap();
+		cache.releaseBitmap(pooled);
+		cache.addBitmap("file", file);
+		Check.that(cache.getBitmap("file") == pooled, "file is decoded into pooled bitmap");
+		Check.equal(BYTES, cache.getBytes(), "bytes of decoded bitmap");
+		Check.equal(0, cache.getPoolBytes(), "pool bytes after decode");
+
+		cache.addBitmap("file2", file);
+		Bitmap decoded = cache.getBitmap("file2");
+		Check.that(decoded != null && decoded != pooled, "file is decoded into new bitmap when pool is empty");
+	}
+
+	// Loads of a key are not started while one is running or key is cached
+	private static void inFlightDedupe() throws Exception
+	{
+		MemoryImageCache cache = new MemoryImageCache(4 * BYTES);
+		final CountDownLatch proceed = new CountDownLatch(1);
+		final AtomicInteger loads = new AtomicInteger();
+		final AtomicInteger loaded = new AtomicInteger();
+		final CountDownLatch done = new CountDownLatch(1);
+		MemoryImageCache.Loader loader = new MemoryImageCache.Loader()
+		{
+			@Override
+			public Bitmap load(String key)
+			{
+				loads.incrementAndGet();
+				await(proceed);
+				return bitmap();
+			}
+		};
+		cache.setOnBitmapLoadedListener(new MemoryImageCache.OnBitmapLoadedListener()
+		{
+			@Override
+			public void onBitmapLoaded(String key, Bitmap bitmap)
+			{
+				loaded.incrementAndGet();
+				done.countDown();
+			}
+		});
+
+		for (int i = 0; i < 10; i++)
+			cache.load("thumbnail", loader);
+		proceed.countDown();
+		Check.that(done.await(5, TimeUnit.SECONDS), "load finishes");
+		Check.equal(1, loads.get(), "loads of one key");
+		Check.equal(1, loaded.get(), "listener calls");
+		Check.that(cache.getBitmap("thumbnail") != null, "loaded bitmap is cached");
+
+		cache.load("thumbnail", loader);
+		Thread.sleep(50);
+		Check.equal(1, loads.get(), "loads of cached key");
+
+		// failed load doesn't keep key in flight
+		final AtomicInteger failed = new AtomicInteger();
+		MemoryImageCache.Loader failing = new MemoryImageCache.Loader()
+		{
+			@Override
+			public Bitmap load(String key)
+			{
+				failed.incrementAndGet();
+				return null;
+			}
+		};
+		long deadline = System.currentTimeMillis() + 5000;
+		while (failed.get() < 2 && System.currentTimeMillis() < deadline)
+		{
+			cache.load("missing", failing);
+			Thread.sleep(10);
+		}
+		Check.that(failed.get() >= 2, "key is loaded again after failed load");
+		Check.that(cache.getBitmap("missing") == null, "failed load isn't cached");
+	}
+
+	private static Bitmap bitmap()
+	{
+		return Bitmap.createBitmap(W, H, Bitmap.Config.ARGB_8888);
+	}
+
+	private static void await(CountDownLatch latch)
+	{
+		try
+		{
+			latch.await(5, TimeUnit.SECONDS);
+		} catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+}
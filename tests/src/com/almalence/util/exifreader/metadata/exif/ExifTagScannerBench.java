@@ -0,0 +1,104 @@
+/*
+ * Copyright 2002-2012 Drew Noakes
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ * More information about this project is available at:
+ *
+ *    http://drewnoakes.com/code/exif/
+ *    http://code.google.com/p/metadata-extractor/
+ */
+package com.almalence.util.exifreader.metadata.exif;
+
+import java.io.ByteArrayInputStream;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import com.almalence.Check;
+import com.almalence.util.ExifCorpus;
+import com.almalence.util.exifreader.imaging.jpeg.JpegMetadataReader;
+import com.almalence.util.exifreader.metadata.Directory;
+import com.almalence.util.exifreader.metadata.Metadata;
+
+/**
+ * Time and heap allocated per captured frame to read the tags capture needs, with JpegMetadataReader
+ * as before and with ExifTagScanner. Allocation is measured with the per-thread counter of HotSpot.
+ */
+public class ExifTagScannerBench
+{
+    private static final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static long sink;
+
+    public static void main(String[] args) throws Exception
+    {
+        List<byte[]> corpus = ExifCorpus.generate(12, 1);
+        for (int round = 0; round < 3; round++) {
+            // last round is reported, first ones warm up
+            boolean report = round == 2;
+            measure("JpegMetadataReader", corpus, 300, false, report);
+            measure("ExifTagScanner    ", corpus, 30000, true, report);
+        }
+        System.out.println("ExifTagScannerBench done");
+    }
+
+    private static void measure(String name, List<byte[]> corpus, int iterations, boolean scanner, boolean report)
+            throws Exception
+    {
+        long thread = Thread.currentThread().getId();
+        long bytes = threads.getThreadAllocatedBytes(thread);
+        long started = System.nanoTime();
+        for (int i = 0; i < iterations; i++)
+            for (byte[] jpeg : corpus)
+                sink += scanner ? scan(jpeg) : readMetadata(jpeg);
+        long time = System.nanoTime() - started;
+        bytes = threads.getThreadAllocatedBytes(thread) - bytes;
+
+        long frames = (long) iterations * corpus.size();
+        if (report)
+            Check.log(name + ": " + time / frames + " ns/frame, " + bytes / frames + " B/frame");
+    }
+
+    private static int readMetadata(byte[] jpeg) throws Exception
+    {
+        Metadata metadata = JpegMetadataReader.readMetadata(new ByteArrayInputStream(jpeg));
+        Directory ifd0 = metadata.getDirectory(ExifIFD0Directory.class);
+        Directory subIfd = metadata.getDirectory(ExifSubIFDDirectory.class);
+        int length = 0;
+        for (int tag : ExifTagScannerTest.IFD0_TAGS)
+            length += length(ifd0.getString(tag));
+        for (int tag : ExifTagScannerTest.SUB_IFD_TAGS)
+            length += length(subIfd.getString(tag));
+        return length;
+    }
+
+    private static int scan(byte[] jpeg)
+    {
+        // PluginManagerBase makes a scanner per frame
+        ExifTagScanner scanner = new ExifTagScanner(ExifTagScannerTest.IFD0_TAGS, ExifTagScannerTest.SUB_IFD_TAGS);
+        if (!scanner.scan(jpeg))
+            return 0;
+        int length = 0;
+        for (int tag : ExifTagScannerTest.IFD0_TAGS)
+            length += length(scanner.getString(ExifTagScanner.IFD0, tag));
+        for (int tag : ExifTagScannerTest.SUB_IFD_TAGS)
+            length += length(scanner.getString(ExifTagScanner.SUB_IFD, tag));
+        return length;
+    }
+
+    private static int length(String value)
+    {
+        return value == null ? 0 : value.length();
+    }
+}
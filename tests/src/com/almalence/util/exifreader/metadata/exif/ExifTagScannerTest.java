@@ -0,0 +1,158 @@
+/*
+ * Copyright 2002-2012 Drew Noakes
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ * More information about this project is available at:
+ *
+ *    http://drewnoakes.com/code/exif/
+ *    http://code.google.com/p/metadata-extractor/
+ */
+package com.almalence.util.exifreader.metadata.exif;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import com.almalence.Check;
+import com.almalence.util.ExifCorpus;
+import com.almalence.util.exifreader.imaging.jpeg.JpegMetadataReader;
+import com.almalence.util.exifreader.metadata.Directory;
+import com.almalence.util.exifreader.metadata.Metadata;
+
+/**
+ * ExifTagScanner against JpegMetadataReader on generated camera jpegs of both byte orders: every tag
+ * capture reads, plus a few it doesn't, must give the same text and numbers. Then truncated and
+ * mutated jpegs must be rejected or read without exceptions.
+ */
+public class ExifTagScannerTest
+{
+    // the tags PluginManagerBase reads, exposure bias and one tag not in corpus
+    static final int[] IFD0_TAGS = { ExifIFD0Directory.TAG_MAKE, ExifIFD0Directory.TAG_MODEL,
+            ExifIFD0Directory.TAG_ORIENTATION, ExifIFD0Directory.TAG_X_RESOLUTION };
+    static final int[] SUB_IFD_TAGS = { ExifSubIFDDirectory.TAG_EXPOSURE_TIME, ExifSubIFDDirectory.TAG_FNUMBER,
+            ExifSubIFDDirectory.TAG_FLASH, ExifSubIFDDirectory.TAG_FOCAL_LENGTH,
+            ExifSubIFDDirectory.TAG_ISO_EQUIVALENT, ExifSubIFDDirectory.TAG_WHITE_BALANCE_MODE,
+            ExifSubIFDDirectory.TAG_SPECTRAL_SENSITIVITY, ExifSubIFDDirectory.TAG_EXIF_VERSION,
+            ExifSubIFDDirectory.TAG_SCENE_CAPTURE_TYPE, ExifSubIFDDirectory.TAG_METERING_MODE,
+            ExifSubIFDDirectory.TAG_EXPOSURE_BIAS, ExifSubIFDDirectory.TAG_EXIF_IMAGE_WIDTH,
+            ExifSubIFDDirectory.TAG_SUBJECT_DISTANCE };
+
+    public static void main(String[] args) throws Exception
+    {
+        List<byte[]> corpus = ExifCorpus.generate(12, 1);
+        equivalence(corpus);
+        partOfArray(corpus.get(3));
+        noExif();
+        mutated(corpus);
+        System.out.println("ExifTagScannerTest passed");
+    }
+
+    private static void equivalence(List<byte[]> corpus) throws Exception
+    {
+        ExifTagScanner scanner = new ExifTagScanner(IFD0_TAGS, SUB_IFD_TAGS);
+        for (int n = 0; n < corpus.size(); n++) {
+            byte[] jpeg = corpus.get(n);
+            Metadata metadata = JpegMetadataReader.readMetadata(new ByteArrayInputStream(jpeg));
+            Check.that(scanner.scan(jpeg), "jpeg " + n + " has Exif");
+            compare(n, scanner, ExifTagScanner.IFD0, metadata.getDirectory(ExifIFD0Directory.class), IFD0_TAGS);
+            compare(n, scanner, ExifTagScanner.SUB_IFD, metadata.getDirectory(ExifSubIFDDirectory.class),
+                    SUB_IFD_TAGS);
+        }
+        Check.log(corpus.size() + " jpegs, " + (IFD0_TAGS.length + SUB_IFD_TAGS.length)
+                + " tags each read the same as JpegMetadataReader");
+    }
+
+    private static void compare(int n, ExifTagScanner scanner, int directory, Directory expected, int[] tags)
+            throws Exception
+    {
+        for (int tag : tags) {
+            String what = "jpeg " + n + ", tag 0x" + Integer.toHexString(tag);
+            Check.equal(expected.containsTag(tag), scanner.hasTag(directory, tag), what + " presence");
+            Check.equal(expected.getString(tag), scanner.getString(directory, tag), what + " text");
+            // Directory converts only single values, scanner also takes the first of an array
+            Object value = expected.getObject(tag);
+            if (value == null || value instanceof String || value.getClass().isArray())
+                continue;
+            Check.equal(expected.getDouble(tag), scanner.getDouble(directory, tag, Double.NaN), what + " double");
+            if (expected.getRational(tag) == null)
+                Check.equal(expected.getInt(tag), scanner.getInt(directory, tag, -1), what + " int");
+        }
+    }
+
+    // jpeg in the middle of a larger buffer, like a frame in a reused array
+    private static void partOfArray(byte[] jpeg) throws Exception
+    {
+        byte[] buffer = new byte[jpeg.length + 300];
+        Arrays.fill(buffer, (byte) 0xFF);
+        System.arraycopy(jpeg, 0, buffer, 100, jpeg.length);
+
+        ExifTagScanner whole = new ExifTagScanner(IFD0_TAGS, SUB_IFD_TAGS);
+        ExifTagScanner part = new ExifTagScanner(IFD0_TAGS, SUB_IFD_TAGS);
+        Check.that(whole.scan(jpeg), "whole jpeg has Exif");
+        Check.that(part.scan(buffer, 100, jpeg.length), "jpeg at offset 100 has Exif");
+        for (int tag : SUB_IFD_TAGS)
+            Check.equal(whole.getString(ExifTagScanner.SUB_IFD, tag), part.getString(ExifTagScanner.SUB_IFD, tag),
+                    "tag 0x" + Integer.toHexString(tag) + " of jpeg at offset");
+        Check.that(!part.scan(buffer, 99, jpeg.length), "scan from wrong offset");
+    }
+
+    private static void noExif() throws Exception
+    {
+        ExifTagScanner scanner = new ExifTagScanner(IFD0_TAGS, SUB_IFD_TAGS);
+        byte[] plain = ExifCorpus.image(64, 48, 0, new Random(2));
+        Check.that(!scanner.scan(plain), "jpeg without Exif");
+        Check.that(!scanner.hasTag(ExifTagScanner.IFD0, ExifIFD0Directory.TAG_MAKE), "tags of jpeg without Exif");
+        Check.equal(null, scanner.getString(ExifTagScanner.IFD0, ExifIFD0Directory.TAG_MAKE), "make of jpeg without Exif");
+        Check.that(!scanner.scan(new byte[0]), "empty array");
+        Check.that(!scanner.scan(new byte[] { (byte) 0xFF, (byte) 0xD8, (byte) 0xFF }), "SOI only");
+    }
+
+    // Truncated jpegs with a few bytes changed: scanner must not throw,
+    // whatever garbage it finds
+    private static void mutated(List<byte[]> corpus)
+    {
+        Random random = new Random(5);
+        ExifTagScanner scanner = new ExifTagScanner(IFD0_TAGS, SUB_IFD_TAGS);
+        int runs = 0;
+        int found = 0;
+        List<String> failures = new ArrayList<String>();
+        for (byte[] jpeg : corpus) {
+            for (int k = 0; k < 5000; k++) {
+                byte[] input = Arrays.copyOf(jpeg, 40 + random.nextInt(600));
+                for (int m = 0; m < 3; m++)
+                    input[20 + random.nextInt(input.length - 20)] = (byte) random.nextInt();
+                runs++;
+                try {
+                    if (!scanner.scan(input))
+                        continue;
+                    found++;
+                    for (int tag : IFD0_TAGS)
+                        scanner.getString(ExifTagScanner.IFD0, tag);
+                    for (int tag : SUB_IFD_TAGS) {
+                        scanner.getString(ExifTagScanner.SUB_IFD, tag);
+                        scanner.getDouble(ExifTagScanner.SUB_IFD, tag, 0);
+                        scanner.getInt(ExifTagScanner.SUB_IFD, tag, 0);
+                    }
+                } catch (RuntimeException e) {
+                    if (failures.size() < 3)
+                        failures.add(e.toString());
+                }
+            }
+        }
+        Check.log(runs + " mutated jpegs, " + found + " with Exif segment");
+        Check.that(failures.isEmpty(), "exceptions on mutated input: " + failures);
+    }
+}
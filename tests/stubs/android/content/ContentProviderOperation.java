@@ -0,0 +1,54 @@
+package android.content;
+
+import android.net.Uri;
+
+/***
+ * Desktop stand-in of android.content.ContentProviderOperation for JVM
+ * harnesses, only inserts without back references.
+ ***/
+public class ContentProviderOperation
+{
+	private final Uri		uri;
+	private ContentValues	values;
+
+	private ContentProviderOperation(Uri uri)
+	{
+		this.uri = uri;
+	}
+
+	public static Builder newInsert(Uri uri)
+	{
+		return new Builder(new ContentProviderOperation(uri));
+	}
+
+	public Uri getUri()
+	{
+		return uri;
+	}
+
+	public ContentValues resolveValueBackReferences(ContentProviderResult[] backRefs, int numBackRefs)
+	{
+		return values;
+	}
+
+	public static class Builder
+	{
+		private final ContentProviderOperation	operation;
+
+		private Builder(ContentProviderOperation operation)
+		{
+			this.operation = operation;
+		}
+
+		public Builder withValues(ContentValues values)
+		{
+			operation.values = values;
+			return this;
+		}
+
+		public ContentProviderOperation build()
+		{
+			return operation;
+		}
+	}
+}
@@ -0,0 +1,17 @@
+package android.content;
+
+import android.net.Uri;
+
+/***
+ * Desktop stand-in of android.content.ContentProviderResult for JVM
+ * harnesses.
+ ***/
+public class ContentProviderResult
+{
+	public final Uri	uri;
+
+	public ContentProviderResult(Uri uri)
+	{
+		this.uri = uri;
+	}
+}
@@ -0,0 +1,24 @@
+package android.content;
+
+import java.util.ArrayList;
+
+import android.net.Uri;
+import android.os.RemoteException;
+
+/***
+ * Desktop stand-in of android.content.ContentResolver for JVM harnesses.
+ * There is no provider behind it, harness overrides the calls it expects.
+ ***/
+public class ContentResolver
+{
+	public ContentProviderResult[] applyBatch(String authority, ArrayList<ContentProviderOperation> operations)
+			throws RemoteException, OperationApplicationException
+	{
+		throw new UnsupportedOperationException("applyBatch");
+	}
+
+	public Uri insert(Uri url, ContentValues values)
+	{
+		throw new UnsupportedOperationException("insert");
+	}
+}
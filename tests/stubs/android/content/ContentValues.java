@@ -0,0 +1,38 @@
+package android.content;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/***
+ * Desktop stand-in of android.content.ContentValues for JVM harnesses.
+ ***/
+public final class ContentValues
+{
+	private final Map<String, Object>	values	= new HashMap<String, Object>();
+
+	public void put(String key, String value)
+	{
+		values.put(key, value);
+	}
+
+	public void put(String key, Integer value)
+	{
+		values.put(key, value);
+	}
+
+	public void put(String key, Long value)
+	{
+		values.put(key, value);
+	}
+
+	public String getAsString(String key)
+	{
+		Object value = values.get(key);
+		return value != null ? value.toString() : null;
+	}
+
+	public int size()
+	{
+		return values.size();
+	}
+}
@@ -0,0 +1,29 @@
+package android.content;
+
+import android.os.Looper;
+
+/***
+ * Desktop stand-in of android.content.Context for JVM harnesses. Broadcasts
+ * are dropped.
+ ***/
+public class Context
+{
+	public Context getApplicationContext()
+	{
+		return this;
+	}
+
+	public Looper getMainLooper()
+	{
+		return Looper.getMainLooper();
+	}
+
+	public ContentResolver getContentResolver()
+	{
+		return new ContentResolver();
+	}
+
+	public void sendBroadcast(Intent intent)
+	{
+	}
+}
@@ -0,0 +1,30 @@
+package android.content;
+
+import android.net.Uri;
+
+/***
+ * Desktop stand-in of android.content.Intent for JVM harnesses.
+ ***/
+public class Intent
+{
+	public static final String	ACTION_MEDIA_SCANNER_SCAN_FILE	= "android.intent.action.MEDIA_SCANNER_SCAN_FILE";
+
+	private final String		action;
+	private final Uri			data;
+
+	public Intent(String action, Uri uri)
+	{
+		this.action = action;
+		this.data = uri;
+	}
+
+	public String getAction()
+	{
+		return action;
+	}
+
+	public Uri getData()
+	{
+		return data;
+	}
+}
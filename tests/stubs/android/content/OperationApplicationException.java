@@ -0,0 +1,15 @@
+package android.content;
+
+/***
+ * Desktop stand-in of android.content.OperationApplicationException for JVM
+ * harnesses.
+ ***/
+public class OperationApplicationException extends Exception
+{
+	private static final long	serialVersionUID	= 1L;
+
+	public OperationApplicationException(String message)
+	{
+		super(message);
+	}
+}
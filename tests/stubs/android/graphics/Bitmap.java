@@ -0,0 +1,142 @@
+package android.graphics;
+
+import java.util.Arrays;
+
+/***
+ * Desktop stand-in of android.graphics.Bitmap for JVM harnesses. Keeps size,
+ * config and state, pixels only once they are set. Bitmaps created with a size
+ * are mutable, like the framework ones.
+ ***/
+public final class Bitmap
+{
+	public enum Config
+	{
+		ALPHA_8(1), RGB_565(2), ARGB_4444(2), ARGB_8888(4);
+
+		final int	bytesPerPixel;
+
+		Config(int bytesPerPixel)
+		{
+			this.bytesPerPixel = bytesPerPixel;
+		}
+	}
+
+	private final int		width;
+	private final int		height;
+	private final Config	config;
+	private final boolean	mutable;
+	private boolean			recycled;
+	private int[]			pixels;
+
+	Bitmap(int width, int height, Config config, boolean mutable)
+	{
+		this.width = width;
+		this.height = height;
+		this.config = config;
+		this.mutable = mutable;
+	}
+
+	public static Bitmap createBitmap(int width, int height, Config config)
+	{
+		if (width <= 0 || height <= 0)
+			throw new IllegalArgumentException("width and height must be > 0");
+		return new Bitmap(width, height, config, true);
+	}
+
+	public static Bitmap createBitmap(Bitmap source, int x, int y, int width, int height)
+	{
+		return new Bitmap(width, height, source.config, false);
+	}
+
+	// Decoded bitmaps are immutable unless asked otherwise
+	Bitmap asImmutable()
+	{
+		Bitmap bitmap = new Bitmap(width, height, config, false);
+		bitmap.pixels = pixels;
+		return bitmap;
+	}
+
+	public int getWidth()
+	{
+		return width;
+	}
+
+	public int getHeight()
+	{
+		return height;
+	}
+
+	public Config getConfig()
+	{
+		return config;
+	}
+
+	public boolean isMutable()
+	{
+		return mutable;
+	}
+
+	public int getByteCount()
+	{
+		return width * height * config.bytesPerPixel;
+	}
+
+	public int getAllocationByteCount()
+	{
+		return getByteCount();
+	}
+
+	public void eraseColor(int color)
+	{
+		checkRecycled();
+		checkMutable();
+		Arrays.fill(pixels(), color);
+	}
+
+	public void setPixels(int[] colors, int offset, int stride, int x, int y, int width, int height)
+	{
+		checkRecycled();
+		checkMutable();
+		if (x < 0 || y < 0 || x + width > this.width || y + height > this.height)
+			throw new IllegalArgumentException("rectangle is outside of bitmap");
+		for (int row = 0; row < height; row++)
+			System.arraycopy(colors, offset + row * stride, pixels(), (y + row) * this.width + x, width);
+	}
+
+	public int getPixel(int x, int y)
+	{
+		checkRecycled();
+		if (x < 0 || y < 0 || x >= width || y >= height)
+			throw new IllegalArgumentException("pixel is outside of bitmap");
+		return pixels != null ? pixels[y * width + x] : 0;
+	}
+
+	public void recycle()
+	{
+		recycled = true;
+	}
+
+	public boolean isRecycled()
+	{
+		return recycled;
+	}
+
+	private int[] pixels()
+	{
+		if (pixels == null)
+			pixels = new int[width * height];
+		return pixels;
+	}
+
+	private void checkMutable()
+	{
+		if (!mutable)
+			throw new IllegalStateException("Can't change immutable bitmap");
+	}
+
+	void checkRecycled()
+	{
+		if (recycled)
+			throw new IllegalStateException("Can't use a recycled bitmap");
+	}
+}
@@ -0,0 +1,91 @@
+package android.graphics;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+
+/***
+ * Desktop stand-in of android.graphics.BitmapFactory for JVM harnesses.
+ * "Image" is text "width height [color]". Options.inBitmap is reused when it
+ * has the same size and config.
+ ***/
+public class BitmapFactory
+{
+	public static class Options
+	{
+		public boolean			inJustDecodeBounds;
+		public boolean			inMutable;
+		public Bitmap			inBitmap;
+		public Bitmap.Config	inPreferredConfig	= Bitmap.Config.ARGB_8888;
+		public int				outWidth;
+		public int				outHeight;
+	}
+
+	public static Bitmap decodeFile(String pathName, Options opts)
+	{
+		String image;
+		try
+		{
+			BufferedReader reader = new BufferedReader(new FileReader(pathName));
+			try
+			{
+				image = reader.readLine();
+			} finally
+			{
+				reader.close();
+			}
+		} catch (IOException e)
+		{
+			return null;
+		}
+		return decode(image, opts);
+	}
+
+	public static Bitmap decodeByteArray(byte[] data, int offset, int length, Options opts)
+	{
+		try
+		{
+			return decode(new String(data, offset, length, "UTF-8"), opts);
+		} catch (IOException e)
+		{
+			return null;
+		}
+	}
+
+	private static Bitmap decode(String image, Options opts)
+	{
+		int width;
+		int height;
+		int color;
+		try
+		{
+			String[] fields = image.trim().split(" ");
+			width = Integer.parseInt(fields[0]);
+			height = Integer.parseInt(fields[1]);
+			color = fields.length > 2 ? (int) Long.parseLong(fields[2]) : 0;
+		} catch (RuntimeException e)
+		{
+			return null;
+		}
+
+		Options options = opts != null ? opts : new Options();
+		options.outWidth = width;
+		options.outHeight = height;
+		if (options.inJustDecodeBounds)
+			return null;
+
+		Bitmap bitmap = options.inBitmap;
+		if (bitmap != null)
+		{
+			bitmap.checkRecycled();
+			if (!bitmap.isMutable() || bitmap.getWidth() != width || bitmap.getHeight() != height
+					|| bitmap.getConfig() != options.inPreferredConfig)
+				throw new IllegalArgumentException("Problem decoding into existing bitmap");
+		} else
+			bitmap = new Bitmap(width, height, options.inPreferredConfig, true);
+
+		if (color != 0)
+			bitmap.eraseColor(color);
+		return options.inBitmap != null || options.inMutable ? bitmap : bitmap.asImmutable();
+	}
+}
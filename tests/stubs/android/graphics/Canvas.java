@@ -0,0 +1,26 @@
+package android.graphics;
+
+/***
+ * Desktop stand-in of android.graphics.Canvas for JVM harnesses. Drawn bitmap
+ * isn't scaled, its top left pixel fills the whole target, which tells source
+ * bitmaps apart. Refuses recycled and immutable bitmaps like the framework one.
+ ***/
+public class Canvas
+{
+	private final Bitmap	bitmap;
+
+	public Canvas(Bitmap bitmap)
+	{
+		if (!bitmap.isMutable())
+			throw new IllegalStateException("Immutable bitmap passed to Canvas constructor");
+		bitmap.checkRecycled();
+		this.bitmap = bitmap;
+	}
+
+	public void drawBitmap(Bitmap source, Matrix matrix, Paint paint)
+	{
+		bitmap.checkRecycled();
+		source.checkRecycled();
+		bitmap.eraseColor(source.getPixel(0, 0));
+	}
+}
@@ -0,0 +1,76 @@
+package android.graphics;
+
+/***
+ * Desktop stand-in of android.graphics.Matrix for JVM harnesses. Affine
+ * transforms of scale, rotation and translation.
+ ***/
+public class Matrix
+{
+	// x' = a * x + b * y + tx, y' = c * x + d * y + ty
+	private double	a	= 1;
+	private double	b	= 0;
+	private double	c	= 0;
+	private double	d	= 1;
+	private double	tx;
+	private double	ty;
+
+	public void setScale(float sx, float sy)
+	{
+		set(sx, 0, 0, sy, 0, 0);
+	}
+
+	public void setRotate(float degrees)
+	{
+		double radians = Math.toRadians(degrees);
+		set(Math.cos(radians), -Math.sin(radians), Math.sin(radians), Math.cos(radians), 0, 0);
+	}
+
+	public boolean postRotate(float degrees)
+	{
+		double radians = Math.toRadians(degrees);
+		double cos = Math.cos(radians);
+		double sin = Math.sin(radians);
+		set(cos * a - sin * c, cos * b - sin * d, sin * a + cos * c, sin * b + cos * d, cos * tx - sin * ty, sin
+				* tx + cos * ty);
+		return true;
+	}
+
+	public boolean postTranslate(float x, float y)
+	{
+		tx += x;
+		ty += y;
+		return true;
+	}
+
+	public boolean mapRect(RectF rect)
+	{
+		float[] xs = { rect.left, rect.right, rect.right, rect.left };
+		float[] ys = { rect.top, rect.top, rect.bottom, rect.bottom };
+		float left = Float.MAX_VALUE, top = Float.MAX_VALUE;
+		float right = -Float.MAX_VALUE, bottom = -Float.MAX_VALUE;
+		for (int i = 0; i < 4; i++)
+		{
+			float x = (float) (a * xs[i] + b * ys[i] + tx);
+			float y = (float) (c * xs[i] + d * ys[i] + ty);
+			left = Math.min(left, x);
+			top = Math.min(top, y);
+			right = Math.max(right, x);
+			bottom = Math.max(bottom, y);
+		}
+		rect.left = left;
+		rect.top = top;
+		rect.right = right;
+		rect.bottom = bottom;
+		return Math.abs(b) < 1e-9 && Math.abs(c) < 1e-9 || Math.abs(a) < 1e-9 && Math.abs(d) < 1e-9;
+	}
+
+	private void set(double a, double b, double c, double d, double tx, double ty)
+	{
+		this.a = a;
+		this.b = b;
+		this.c = c;
+		this.d = d;
+		this.tx = tx;
+		this.ty = ty;
+	}
+}
@@ -0,0 +1,21 @@
+package android.graphics;
+
+/***
+ * Desktop stand-in of android.graphics.Paint for JVM harnesses.
+ ***/
+public class Paint
+{
+	public static final int	FILTER_BITMAP_FLAG	= 2;
+
+	private final int		flags;
+
+	public Paint(int flags)
+	{
+		this.flags = flags;
+	}
+
+	public int getFlags()
+	{
+		return flags;
+	}
+}
@@ -0,0 +1,30 @@
+package android.graphics;
+
+/***
+ * Desktop stand-in of android.graphics.RectF for JVM harnesses.
+ ***/
+public class RectF
+{
+	public float	left;
+	public float	top;
+	public float	right;
+	public float	bottom;
+
+	public RectF(float left, float top, float right, float bottom)
+	{
+		this.left = left;
+		this.top = top;
+		this.right = right;
+		this.bottom = bottom;
+	}
+
+	public final float width()
+	{
+		return right - left;
+	}
+
+	public final float height()
+	{
+		return bottom - top;
+	}
+}
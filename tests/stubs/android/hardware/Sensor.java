@@ -0,0 +1,24 @@
+package android.hardware;
+
+/***
+ * Desktop stand-in of android.hardware.Sensor for JVM harnesses.
+ ***/
+public final class Sensor
+{
+	public static final int	TYPE_ACCELEROMETER	= 1;
+	public static final int	TYPE_MAGNETIC_FIELD	= 2;
+	public static final int	TYPE_GYROSCOPE		= 4;
+	public static final int	TYPE_GRAVITY		= 9;
+
+	private final int		type;
+
+	public Sensor(int type)
+	{
+		this.type = type;
+	}
+
+	public int getType()
+	{
+		return type;
+	}
+}
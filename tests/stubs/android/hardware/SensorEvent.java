@@ -0,0 +1,19 @@
+package android.hardware;
+
+/***
+ * Desktop stand-in of android.hardware.SensorEvent for JVM harnesses. Like
+ * the framework one, it has only a hidden constructor taking number of
+ * values.
+ ***/
+public class SensorEvent
+{
+	public final float[]	values;
+	public Sensor			sensor;
+	public int				accuracy;
+	public long				timestamp;
+
+	SensorEvent(int valueSize)
+	{
+		values = new float[valueSize];
+	}
+}
@@ -0,0 +1,11 @@
+package android.hardware;
+
+/***
+ * Desktop stand-in of android.hardware.SensorEventListener for JVM harnesses.
+ ***/
+public interface SensorEventListener
+{
+	void onSensorChanged(SensorEvent event);
+
+	void onAccuracyChanged(Sensor sensor, int accuracy);
+}
@@ -0,0 +1,75 @@
+package android.hardware;
+
+/***
+ * Desktop stand-in of android.hardware.SensorManager for JVM harnesses.
+ * getRotationMatrix and getOrientation compute the same way as the framework
+ * ones, for 3x3 matrices.
+ ***/
+public abstract class SensorManager
+{
+	public static final float	STANDARD_GRAVITY			= 9.80665f;
+
+	public static final int		SENSOR_STATUS_ACCURACY_HIGH	= 3;
+
+	public static boolean getRotationMatrix(float[] R, float[] I, float[] gravity, float[] geomagnetic)
+	{
+		float Ax = gravity[0];
+		float Ay = gravity[1];
+		float Az = gravity[2];
+
+		final float normsqA = (Ax * Ax + Ay * Ay + Az * Az);
+		final float g = 9.81f;
+		final float freeFallGravitySquared = 0.01f * g * g;
+		if (normsqA < freeFallGravitySquared)
+			return false;
+
+		final float Ex = geomagnetic[0];
+		final float Ey = geomagnetic[1];
+		final float Ez = geomagnetic[2];
+		float Hx = Ey * Az - Ez * Ay;
+		float Hy = Ez * Ax - Ex * Az;
+		float Hz = Ex * Ay - Ey * Ax;
+		final float normH = (float) Math.sqrt(Hx * Hx + Hy * Hy + Hz * Hz);
+		if (normH < 0.1f)
+			return false;
+
+		final float invH = 1.0f / normH;
+		Hx *= invH;
+		Hy *= invH;
+		Hz *= invH;
+		final float invA = 1.0f / (float) Math.sqrt(Ax * Ax + Ay * Ay + Az * Az);
+		Ax *= invA;
+		Ay *= invA;
+		Az *= invA;
+		final float Mx = Ay * Hz - Az * Hy;
+		final float My = Az * Hx - Ax * Hz;
+		final float Mz = Ax * Hy - Ay * Hx;
+		if (R != null)
+		{
+			if (R.length != 9)
+				throw new UnsupportedOperationException("only 3x3 matrices");
+			R[0] = Hx;
+			R[1] = Hy;
+			R[2] = Hz;
+			R[3] = Mx;
+			R[4] = My;
+			R[5] = Mz;
+			R[6] = Ax;
+			R[7] = Ay;
+			R[8] = Az;
+		}
+		if (I != null)
+			throw new UnsupportedOperationException("inclination matrix");
+		return true;
+	}
+
+	public static float[] getOrientation(float[] R, float[] values)
+	{
+		if (R.length != 9)
+			throw new UnsupportedOperationException("only 3x3 matrices");
+		values[0] = (float) Math.atan2(R[1], R[4]);
+		values[1] = (float) Math.asin(-R[7]);
+		values[2] = (float) Math.atan2(-R[6], R[8]);
+		return values;
+	}
+}
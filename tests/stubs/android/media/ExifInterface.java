@@ -0,0 +1,75 @@
+package android.media;
+
+import java.io.File;
+import java.io.IOException;
+
+import com.almalence.plugins.export.ExifDriver.ExifDriver;
+import com.almalence.plugins.export.ExifDriver.Values.ValueByteArray;
+import com.almalence.plugins.export.ExifDriver.Values.ValueNumber;
+
+/***
+ * Desktop stand-in of android.media.ExifInterface for JVM harnesses. Like the
+ * framework one, saveAttributes writes the whole file anew with the changed
+ * attributes and replaces the original. Only make, model and orientation are
+ * kept.
+ ***/
+public class ExifInterface
+{
+	public static final String	TAG_MAKE				= "Make";
+	public static final String	TAG_MODEL				= "Model";
+	public static final String	TAG_ORIENTATION			= "Orientation";
+
+	public static final int		ORIENTATION_NORMAL		= 1;
+	public static final int		ORIENTATION_ROTATE_180	= 3;
+	public static final int		ORIENTATION_ROTATE_90	= 6;
+	public static final int		ORIENTATION_ROTATE_270	= 8;
+
+	private final String		filename;
+	private String				make;
+	private String				model;
+	private String				orientation;
+
+	public ExifInterface(String filename) throws IOException
+	{
+		if (!new File(filename).isFile())
+			throw new IOException(filename + " not found");
+		this.filename = filename;
+	}
+
+	public void setAttribute(String tag, String value)
+	{
+		if (TAG_MAKE.equals(tag))
+			make = value;
+		else if (TAG_MODEL.equals(tag))
+			model = value;
+		else if (TAG_ORIENTATION.equals(tag))
+			orientation = value;
+	}
+
+	public void saveAttributes() throws IOException
+	{
+		ExifDriver driver = ExifDriver.getInstance(filename);
+		if (driver == null)
+			throw new IOException("no Exif in " + filename);
+		if (make != null)
+			driver.getIfd0().put(ExifDriver.TAG_MAKE, ascii(make));
+		if (model != null)
+			driver.getIfd0().put(ExifDriver.TAG_MODEL, ascii(model));
+		if (orientation != null)
+			driver.getIfd0().put(ExifDriver.TAG_ORIENTATION,
+					new ValueNumber(ExifDriver.FORMAT_UNSIGNED_SHORT, Integer.parseInt(orientation)));
+
+		File file = new File(filename);
+		File rewritten = new File(filename + ".exif");
+		driver.save(rewritten.getPath());
+		if (!file.delete() || !rewritten.renameTo(file))
+			throw new IOException("can't replace " + filename);
+	}
+
+	private static ValueByteArray ascii(String value)
+	{
+		ValueByteArray bytes = new ValueByteArray(ExifDriver.FORMAT_ASCII_STRINGS);
+		bytes.setBytes((value + "\0").getBytes());
+		return bytes;
+	}
+}
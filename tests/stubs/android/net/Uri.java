@@ -0,0 +1,37 @@
+package android.net;
+
+/***
+ * Desktop stand-in of android.net.Uri for JVM harnesses, keeps the string.
+ ***/
+public final class Uri
+{
+	private final String	uri;
+
+	private Uri(String uri)
+	{
+		this.uri = uri;
+	}
+
+	public static Uri parse(String uriString)
+	{
+		return new Uri(uriString);
+	}
+
+	@Override
+	public boolean equals(Object o)
+	{
+		return o instanceof Uri && ((Uri) o).uri.equals(uri);
+	}
+
+	@Override
+	public int hashCode()
+	{
+		return uri.hashCode();
+	}
+
+	@Override
+	public String toString()
+	{
+		return uri;
+	}
+}
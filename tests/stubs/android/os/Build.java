@@ -0,0 +1,17 @@
+package android.os;
+
+/***
+ * Desktop stand-in of android.os.Build for JVM harnesses, reports KitKat.
+ ***/
+public final class Build
+{
+	public static final class VERSION
+	{
+		public static final int	SDK_INT	= VERSION_CODES.KITKAT;
+	}
+
+	public static final class VERSION_CODES
+	{
+		public static final int	KITKAT	= 19;
+	}
+}
@@ -0,0 +1,149 @@
+package android.os;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/***
+ * Desktop stand-in of android.os.Handler for JVM harnesses. All handlers share
+ * one daemon thread which plays the main looper and delivers messages when
+ * they are due.
+ ***/
+public class Handler
+{
+	public interface Callback
+	{
+		boolean handleMessage(Message msg);
+	}
+
+	private static final List<Message>	queue	= new ArrayList<Message>();
+	private static Thread				looper;
+
+	private final Callback				callback;
+
+	public Handler()
+	{
+		this((Callback) null);
+	}
+
+	public Handler(Callback callback)
+	{
+		this.callback = callback;
+	}
+
+	public Handler(Looper looper)
+	{
+		this((Callback) null);
+	}
+
+	public final boolean post(Runnable r)
+	{
+		Message msg = new Message();
+		msg.callback = r;
+		return enqueue(msg, 0);
+	}
+
+	public void handleMessage(Message msg)
+	{
+	}
+
+	public final boolean sendEmptyMessage(int what)
+	{
+		return sendEmptyMessageDelayed(what, 0);
+	}
+
+	public final boolean sendEmptyMessageDelayed(int what, long delayMillis)
+	{
+		Message msg = new Message();
+		msg.what = what;
+		return enqueue(msg, delayMillis);
+	}
+
+	private boolean enqueue(Message msg, long delayMillis)
+	{
+		msg.target = this;
+		msg.when = SystemClock.uptimeMillis() + Math.max(0, delayMillis);
+		synchronized (queue)
+		{
+			queue.add(msg);
+			if (looper == null)
+			{
+				looper = new Thread(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						loop();
+					}
+				}, "main");
+				looper.setDaemon(true);
+				looper.start();
+			}
+			queue.notifyAll();
+		}
+		return true;
+	}
+
+	public final void removeMessages(int what)
+	{
+		synchronized (queue)
+		{
+			for (Iterator<Message> i = queue.iterator(); i.hasNext();)
+			{
+				Message msg = i.next();
+				if (msg.target == this && msg.callback == null && msg.what == what)
+					i.remove();
+			}
+		}
+	}
+
+	public final boolean hasMessages(int what)
+	{
+		synchronized (queue)
+		{
+			for (Message msg : queue)
+				if (msg.target == this && msg.callback == null && msg.what == what)
+					return true;
+			return false;
+		}
+	}
+
+	private void dispatchMessage(Message msg)
+	{
+		if (msg.callback != null)
+			msg.callback.run();
+		else if (callback == null || !callback.handleMessage(msg))
+			handleMessage(msg);
+	}
+
+	private static void loop()
+	{
+		while (true)
+		{
+			Message next = null;
+			synchronized (queue)
+			{
+				long now = SystemClock.uptimeMillis();
+				long wait = Long.MAX_VALUE;
+				for (Message msg : queue)
+					if (msg.when <= now && (next == null || msg.when < next.when))
+						next = msg;
+					else if (msg.when > now)
+						wait = Math.min(wait, msg.when - now);
+				if (next == null)
+				{
+					try
+					{
+						queue.wait(wait == Long.MAX_VALUE ? 0 : wait);
+					} catch (InterruptedException e)
+					{
+						return;
+					}
+					continue;
+				}
+				queue.remove(next);
+			}
+			next.target.dispatchMessage(next);
+		}
+	}
+}
@@ -0,0 +1,19 @@
+package android.os;
+
+/***
+ * Desktop stand-in of android.os.Looper for JVM harnesses. There is only the
+ * main looper, Handler plays it on its shared thread.
+ ***/
+public final class Looper
+{
+	private static final Looper	main	= new Looper();
+
+	private Looper()
+	{
+	}
+
+	public static Looper getMainLooper()
+	{
+		return main;
+	}
+}
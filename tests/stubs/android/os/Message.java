@@ -0,0 +1,12 @@
+package android.os;
+
+/***
+ * Desktop stand-in of android.os.Message for JVM harnesses.
+ ***/
+public final class Message
+{
+	public int	what;
+	long		when;
+	Handler		target;
+	Runnable	callback;
+}
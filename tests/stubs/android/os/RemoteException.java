@@ -0,0 +1,9 @@
+package android.os;
+
+/***
+ * Desktop stand-in of android.os.RemoteException for JVM harnesses.
+ ***/
+public class RemoteException extends Exception
+{
+	private static final long	serialVersionUID	= 1L;
+}
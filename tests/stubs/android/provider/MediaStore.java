@@ -0,0 +1,13 @@
+package android.provider;
+
+/***
+ * Desktop stand-in of android.provider.MediaStore for JVM harnesses.
+ ***/
+public final class MediaStore
+{
+	public static final String	AUTHORITY	= "media";
+
+	private MediaStore()
+	{
+	}
+}
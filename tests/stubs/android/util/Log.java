@@ -0,0 +1,63 @@
+package android.util;
+
+/***
+ * Desktop stand-in of android.util.Log for JVM harnesses. Warnings and errors
+ * are counted, so harness can check them, messages are dropped.
+ ***/
+public final class Log
+{
+	public static int	warnings;
+	public static int	errors;
+
+	private Log()
+	{
+	}
+
+	public static int v(String tag, String msg)
+	{
+		return 0;
+	}
+
+	public static int d(String tag, String msg)
+	{
+		return 0;
+	}
+
+	public static int d(String tag, String msg, Throwable tr)
+	{
+		return 0;
+	}
+
+	public static int i(String tag, String msg)
+	{
+		return 0;
+	}
+
+	public static int w(String tag, String msg)
+	{
+		return w(tag, msg, null);
+	}
+
+	public static int w(String tag, String msg, Throwable tr)
+	{
+		synchronized (Log.class)
+		{
+			warnings++;
+		}
+		return 0;
+	}
+
+	public static int e(String tag, String msg)
+	{
+		return e(tag, msg, null);
+	}
+
+	public static int e(String tag, String msg, Throwable tr)
+	{
+		synchronized (Log.class)
+		{
+			errors++;
+		}
+		return 0;
+	}
+}
@@ -0,0 +1,113 @@
+package android.util;
+
+import java.io.Reader;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+/***
+ * Desktop stand-in of android.util.Xml for JVM harnesses. Pull parser is
+ * backed by StAX, with namespaces processed as Android parser does: names
+ * are local names.
+ ***/
+public final class Xml
+{
+	private Xml()
+	{
+	}
+
+	public static XmlPullParser newPullParser()
+	{
+		return new StaxPullParser();
+	}
+
+	private static class StaxPullParser implements XmlPullParser
+	{
+		private XMLStreamReader	reader;
+		private boolean			started	= false;
+
+		@Override
+		public void setInput(Reader in) throws XmlPullParserException
+		{
+			try
+			{
+				XMLInputFactory factory = XMLInputFactory.newInstance();
+				factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+				reader = factory.createXMLStreamReader(in);
+			} catch (XMLStreamException e)
+			{
+				throw new XmlPullParserException(e.getMessage());
+			}
+		}
+
+		@Override
+		public int next() throws XmlPullParserException
+		{
+			try
+			{
+				if (!started)
+				{
+					started = true;
+					return START_DOCUMENT;
+				}
+				while (reader.hasNext())
+				{
+					switch (reader.next())
+					{
+					case XMLStreamConstants.START_ELEMENT:
+						return START_TAG;
+					case XMLStreamConstants.END_ELEMENT:
+						return END_TAG;
+					case XMLStreamConstants.CHARACTERS:
+					case XMLStreamConstants.CDATA:
+					case XMLStreamConstants.SPACE:
+						return TEXT;
+					case XMLStreamConstants.END_DOCUMENT:
+						return END_DOCUMENT;
+					default:
+						break;
+					}
+				}
+				return END_DOCUMENT;
+			} catch (XMLStreamException e)
+			{
+				throw new XmlPullParserException(e.getMessage());
+			}
+		}
+
+		@Override
+		public String getName()
+		{
+			return reader.getLocalName();
+		}
+
+		@Override
+		public String getText()
+		{
+			return reader.getText();
+		}
+
+		@Override
+		public int getAttributeCount()
+		{
+			return reader.getAttributeCount();
+		}
+
+		@Override
+		public String getAttributeName(int index)
+		{
+			return reader.getAttributeLocalName(index);
+		}
+
+		@Override
+		public String getAttributeValue(int index)
+		{
+			return reader.getAttributeValue(index);
+		}
+	}
+}
@@ -0,0 +1,106 @@
+package com.almalence.plugins.capture.preshot;
+
+import java.util.Arrays;
+
+/***
+ * Desktop stand-in of native PreShot buffer for JVM harnesses. Frame i is
+ * filled with color(i), reads take a while and are counted, so harnesses can
+ * tell frames apart and see reads which run at the same time.
+ ***/
+public final class PreShot
+{
+	private static int		frames;
+	private static long		readMillis;
+	private static int		active;
+	private static int		maxActive;
+	private static int		reads;
+	private static int		outputArrays;
+	private static int[]	lastOutput;
+
+	private PreShot()
+	{
+	}
+
+	// Buffer of given number of frames, each read takes readMillis
+	public static synchronized void reset(int frameCount, long millis)
+	{
+		frames = frameCount;
+		readMillis = millis;
+		active = 0;
+		maxActive = 0;
+		reads = 0;
+		outputArrays = 0;
+		lastOutput = null;
+	}
+
+	public static int color(int idx)
+	{
+		return 0xFF000000 | idx;
+	}
+
+	public static synchronized int getReads()
+	{
+		return reads;
+	}
+
+	// most reads which ran at the same time
+	public static synchronized int getMaxActive()
+	{
+		return maxActive;
+	}
+
+	// output arrays of GetFromBufferRGBAScaled which differ from previous one
+	public static synchronized int getOutputArrays()
+	{
+		return outputArrays;
+	}
+
+	public static boolean GetFromBufferRGBAScaled(int idx, int[] out, int outWidth, int outHeight, int rotation)
+	{
+		if (out.length < outWidth * outHeight)
+			return false;
+		if (!read(idx))
+			return false;
+
+		synchronized (PreShot.class)
+		{
+			if (out != lastOutput)
+				outputArrays++;
+			lastOutput = out;
+		}
+		Arrays.fill(out, 0, outWidth * outHeight, color(idx));
+		return true;
+	}
+
+	// "Jpeg" of previewW x previewH, see BitmapFactory stand-in
+	public static byte[] GetFromBufferToShowInSlow(int idx, int previewW, int previewH)
+	{
+		if (!read(idx))
+			return new byte[0];
+		return (previewW + " " + previewH + " " + color(idx)).getBytes();
+	}
+
+	private static boolean read(int idx)
+	{
+		synchronized (PreShot.class)
+		{
+			reads++;
+			active++;
+			maxActive = Math.max(maxActive, active);
+		}
+		try
+		{
+			Thread.sleep(readMillis);
+		} catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		} finally
+		{
+			synchronized (PreShot.class)
+			{
+				active--;
+			}
+		}
+		return idx >= 0 && idx < frames;
+	}
+}
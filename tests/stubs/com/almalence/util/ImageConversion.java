@@ -0,0 +1,59 @@
+package com.almalence.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/***
+ * Desktop stand-in of native ImageConversion for JVM harnesses. Jpeg is read
+ * with ImageIO and accepted on the same terms as libjpeg decoder: output size
+ * has to be jpeg size divided by 1, 2, 4 or 8, rounded up. Y plane is filled
+ * with the scale, chroma with 128.
+ ***/
+public class ImageConversion
+{
+	private ImageConversion()
+	{
+	}
+
+	public static boolean JpegDecodeToNV21(byte[] in, int offset, int length, byte[] out, int sx, int sy)
+	{
+		int width;
+		int height;
+		try
+		{
+			ImageInputStream stream = ImageIO.createImageInputStream(new ByteArrayInputStream(in, offset, length));
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+			if (!readers.hasNext())
+				return false;
+			ImageReader reader = readers.next();
+			reader.setInput(stream);
+			width = reader.getWidth(0);
+			height = reader.getHeight(0);
+			reader.dispose();
+		} catch (IOException e)
+		{
+			return false;
+		}
+
+		int denom;
+		for (denom = 1; denom <= 8; denom *= 2)
+			if ((width + denom - 1) / denom == sx && (height + denom - 1) / denom == sy)
+				break;
+		if (denom > 8)
+			return false;
+
+		int ySize = sx * sy;
+		if (out.length < ySize + 2 * ((sx + 1) / 2) * ((sy + 1) / 2))
+			throw new ArrayIndexOutOfBoundsException("NV21 buffer of " + out.length + " bytes for " + sx + "x" + sy);
+		for (int i = 0; i < ySize; i++)
+			out[i] = (byte) denom;
+		for (int i = ySize; i < out.length; i++)
+			out[i] = (byte) 128;
+		return true;
+	}
+}
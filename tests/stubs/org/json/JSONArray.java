@@ -0,0 +1,134 @@
+package org.json;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/***
+ * Desktop stand-in of org.json.JSONArray for JVM harnesses.
+ ***/
+public class JSONArray
+{
+	private final List<Object>	values	= new ArrayList<Object>();
+
+	public JSONArray()
+	{
+	}
+
+	public JSONArray(String json) throws JSONException
+	{
+		JSONTokener tokener = new JSONTokener(json);
+		Object value = tokener.nextValue();
+		if (!(value instanceof JSONArray) || !tokener.atEnd())
+			throw new JSONException("not a JSON array: " + json);
+		values.addAll(((JSONArray) value).values);
+	}
+
+	public JSONArray put(Object value)
+	{
+		values.add(value);
+		return this;
+	}
+
+	public JSONArray put(boolean value)
+	{
+		return put(Boolean.valueOf(value));
+	}
+
+	public JSONArray put(int value)
+	{
+		return put(Integer.valueOf(value));
+	}
+
+	public JSONArray put(long value)
+	{
+		return put(Long.valueOf(value));
+	}
+
+	public JSONArray put(double value) throws JSONException
+	{
+		return put(Double.valueOf(value));
+	}
+
+	public JSONArray put(int index, Object value) throws JSONException
+	{
+		if (index < 0)
+			throw new JSONException("index " + index);
+		while (values.size() <= index)
+			values.add(null);
+		values.set(index, value);
+		return this;
+	}
+
+	public int length()
+	{
+		return values.size();
+	}
+
+	public boolean isNull(int index)
+	{
+		Object value = opt(index);
+		return value == null || value == JSONObject.NULL;
+	}
+
+	public Object opt(int index)
+	{
+		return index < 0 || index >= values.size() ? null : values.get(index);
+	}
+
+	public Object get(int index) throws JSONException
+	{
+		Object value = opt(index);
+		if (value == null)
+			throw new JSONException("no value at " + index);
+		return value;
+	}
+
+	public String getString(int index) throws JSONException
+	{
+		Object value = get(index);
+		return value instanceof String ? (String) value : String.valueOf(value);
+	}
+
+	public int getInt(int index) throws JSONException
+	{
+		return JSONObject.toNumber(index, get(index)).intValue();
+	}
+
+	public boolean getBoolean(int index) throws JSONException
+	{
+		Object value = get(index);
+		if (value instanceof Boolean)
+			return (Boolean) value;
+		throw new JSONException(index + " is not a boolean: " + value);
+	}
+
+	public JSONArray getJSONArray(int index) throws JSONException
+	{
+		Object value = get(index);
+		if (!(value instanceof JSONArray))
+			throw new JSONException(index + " is not a JSONArray: " + value);
+		return (JSONArray) value;
+	}
+
+	public JSONObject getJSONObject(int index) throws JSONException
+	{
+		Object value = get(index);
+		if (!(value instanceof JSONObject))
+			throw new JSONException(index + " is not a JSONObject: " + value);
+		return (JSONObject) value;
+	}
+
+	@Override
+	public String toString()
+	{
+		StringBuilder builder = new StringBuilder("[");
+		for (int i = 0; i < values.size(); i++)
+		{
+			if (i > 0)
+				builder.append(',');
+			Object value = values.get(i);
+			JSONObject.write(value == null ? JSONObject.NULL : value, builder);
+		}
+		return builder.append(']').toString();
+	}
+}
@@ -0,0 +1,14 @@
+package org.json;
+
+/***
+ * Desktop stand-in of org.json.JSONException for JVM harnesses.
+ ***/
+public class JSONException extends Exception
+{
+	private static final long	serialVersionUID	= 1L;
+
+	public JSONException(String msg)
+	{
+		super(msg);
+	}
+}
@@ -0,0 +1,239 @@
+package org.json;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/***
+ * Desktop stand-in of org.json.JSONObject for JVM harnesses. Keeps names in
+ * insertion order and prints compact text, like the framework one.
+ ***/
+public class JSONObject
+{
+	public static final Object			NULL	= new Object()
+												{
+													@Override
+													public boolean equals(Object o)
+													{
+														return o == this || o == null;
+													}
+
+													@Override
+													public int hashCode()
+													{
+														return 0;
+													}
+
+													@Override
+													public String toString()
+													{
+														return "null";
+													}
+												};
+
+	private final Map<String, Object>	values	= new LinkedHashMap<String, Object>();
+
+	public JSONObject()
+	{
+	}
+
+	public JSONObject(String json) throws JSONException
+	{
+		JSONTokener tokener = new JSONTokener(json);
+		Object value = tokener.nextValue();
+		if (!(value instanceof JSONObject) || !tokener.atEnd())
+			throw new JSONException("not a JSON object: " + json);
+		values.putAll(((JSONObject) value).values);
+	}
+
+	public JSONObject put(String name, Object value) throws JSONException
+	{
+		if (name == null)
+			throw new JSONException("name is null");
+		if (value == null)
+			values.remove(name);
+		else
+			values.put(name, value);
+		return this;
+	}
+
+	public JSONObject put(String name, boolean value) throws JSONException
+	{
+		return put(name, Boolean.valueOf(value));
+	}
+
+	public JSONObject put(String name, int value) throws JSONException
+	{
+		return put(name, Integer.valueOf(value));
+	}
+
+	public JSONObject put(String name, long value) throws JSONException
+	{
+		return put(name, Long.valueOf(value));
+	}
+
+	public JSONObject put(String name, double value) throws JSONException
+	{
+		return put(name, Double.valueOf(value));
+	}
+
+	public int length()
+	{
+		return values.size();
+	}
+
+	public boolean has(String name)
+	{
+		return values.containsKey(name);
+	}
+
+	public boolean isNull(String name)
+	{
+		Object value = values.get(name);
+		return value == null || value == NULL;
+	}
+
+	public Iterator<String> keys()
+	{
+		return values.keySet().iterator();
+	}
+
+	public Object opt(String name)
+	{
+		return values.get(name);
+	}
+
+	public Object get(String name) throws JSONException
+	{
+		Object value = values.get(name);
+		if (value == null)
+			throw new JSONException("no value for " + name);
+		return value;
+	}
+
+	public String getString(String name) throws JSONException
+	{
+		Object value = get(name);
+		return value instanceof String ? (String) value : String.valueOf(value);
+	}
+
+	public String optString(String name)
+	{
+		Object value = values.get(name);
+		return value == null || value == NULL ? "" : String.valueOf(value);
+	}
+
+	public int getInt(String name) throws JSONException
+	{
+		return toNumber(name, get(name)).intValue();
+	}
+
+	public long getLong(String name) throws JSONException
+	{
+		return toNumber(name, get(name)).longValue();
+	}
+
+	public boolean getBoolean(String name) throws JSONException
+	{
+		Object value = get(name);
+		if (value instanceof Boolean)
+			return (Boolean) value;
+		if ("true".equalsIgnoreCase(String.valueOf(value)) || "false".equalsIgnoreCase(String.valueOf(value)))
+			return Boolean.parseBoolean(String.valueOf(value));
+		throw new JSONException(name + " is not a boolean: " + value);
+	}
+
+	public JSONArray getJSONArray(String name) throws JSONException
+	{
+		Object value = get(name);
+		if (!(value instanceof JSONArray))
+			throw new JSONException(name + " is not a JSONArray: " + value);
+		return (JSONArray) value;
+	}
+
+	public JSONObject getJSONObject(String name) throws JSONException
+	{
+		Object value = get(name);
+		if (!(value instanceof JSONObject))
+			throw new JSONException(name + " is not a JSONObject: " + value);
+		return (JSONObject) value;
+	}
+
+	@Override
+	public String toString()
+	{
+		StringBuilder builder = new StringBuilder("{");
+		for (Map.Entry<String, Object> entry : values.entrySet())
+		{
+			if (builder.length() > 1)
+				builder.append(',');
+			quote(entry.getKey(), builder);
+			builder.append(':');
+			write(entry.getValue(), builder);
+		}
+		return builder.append('}').toString();
+	}
+
+	static Number toNumber(Object where, Object value) throws JSONException
+	{
+		if (value instanceof Number)
+			return (Number) value;
+		try
+		{
+			return Double.valueOf(String.valueOf(value));
+		} catch (NumberFormatException e)
+		{
+			throw new JSONException(where + " is not a number: " + value);
+		}
+	}
+
+	static void write(Object value, StringBuilder builder)
+	{
+		if (value instanceof String)
+			quote((String) value, builder);
+		else if (value instanceof Double && ((Double) value) == Math.rint((Double) value)
+				&& !Double.isInfinite((Double) value))
+			builder.append(((Double) value).longValue());
+		else
+			builder.append(value);
+	}
+
+	static void quote(String text, StringBuilder builder)
+	{
+		builder.append('"');
+		for (int i = 0; i < text.length(); i++)
+		{
+			char c = text.charAt(i);
+			switch (c)
+			{
+			case '"':
+			case '\\':
+			case '/':
+				builder.append('\\').append(c);
+				break;
+			case '\b':
+				builder.append("\\b");
+				break;
+			case '\f':
+				builder.append("\\f");
+				break;
+			case '\n':
+				builder.append("\\n");
+				break;
+			case '\r':
+				builder.append("\\r");
+				break;
+			case '\t':
+				builder.append("\\t");
+				break;
+			default:
+				if (c < 0x20)
+					builder.append(String.format("\\u%04x", (int) c));
+				else
+					builder.append(c);
+				break;
+			}
+		}
+		builder.append('"');
+	}
+}
@@ -0,0 +1,169 @@
+package org.json;
+
+/***
+ * Desktop stand-in of org.json.JSONTokener for JVM harnesses. Reads strict
+ * JSON: objects, arrays, strings, numbers, true, false and null.
+ ***/
+public class JSONTokener
+{
+	private final String	in;
+	private int				pos;
+
+	public JSONTokener(String in)
+	{
+		this.in = in;
+	}
+
+	public Object nextValue() throws JSONException
+	{
+		char c = nextClean();
+		switch (c)
+		{
+		case '{':
+			return readObject();
+		case '[':
+			return readArray();
+		case '"':
+			return readString();
+		default:
+			pos--;
+			return readLiteral();
+		}
+	}
+
+	boolean atEnd()
+	{
+		while (pos < in.length() && Character.isWhitespace(in.charAt(pos)))
+			pos++;
+		return pos == in.length();
+	}
+
+	private JSONObject readObject() throws JSONException
+	{
+		JSONObject object = new JSONObject();
+		if (nextClean() == '}')
+			return object;
+		pos--;
+		while (true)
+		{
+			if (nextClean() != '"')
+				throw syntaxError("name expected");
+			String name = readString();
+			if (nextClean() != ':')
+				throw syntaxError("':' expected");
+			object.put(name, nextValue());
+			char c = nextClean();
+			if (c == '}')
+				return object;
+			if (c != ',')
+				throw syntaxError("',' or '}' expected");
+		}
+	}
+
+	private JSONArray readArray() throws JSONException
+	{
+		JSONArray array = new JSONArray();
+		if (nextClean() == ']')
+			return array;
+		pos--;
+		while (true)
+		{
+			array.put(nextValue());
+			char c = nextClean();
+			if (c == ']')
+				return array;
+			if (c != ',')
+				throw syntaxError("',' or ']' expected");
+		}
+	}
+
+	private String readString() throws JSONException
+	{
+		StringBuilder builder = new StringBuilder();
+		while (true)
+		{
+			if (pos >= in.length())
+				throw syntaxError("unterminated string");
+			char c = in.charAt(pos++);
+			if (c == '"')
+				return builder.toString();
+			if (c != '\\')
+			{
+				builder.append(c);
+				continue;
+			}
+			if (pos >= in.length())
+				throw syntaxError("unterminated escape");
+			c = in.charAt(pos++);
+			switch (c)
+			{
+			case 'b':
+				builder.append('\b');
+				break;
+			case 'f':
+				builder.append('\f');
+				break;
+			case 'n':
+				builder.append('\n');
+				break;
+			case 'r':
+				builder.append('\r');
+				break;
+			case 't':
+				builder.append('\t');
+				break;
+			case 'u':
+				if (pos + 4 > in.length())
+					throw syntaxError("unterminated escape");
+				builder.append((char) Integer.parseInt(in.substring(pos, pos + 4), 16));
+				pos += 4;
+				break;
+			default:
+				builder.append(c);
+				break;
+			}
+		}
+	}
+
+	private Object readLiteral() throws JSONException
+	{
+		int start = pos;
+		while (pos < in.length() && ",:]} \t\r\n".indexOf(in.charAt(pos)) < 0)
+			pos++;
+		String literal = in.substring(start, pos);
+		if (literal.length() == 0)
+			throw syntaxError("value expected");
+		if ("null".equals(literal))
+			return JSONObject.NULL;
+		if ("true".equals(literal))
+			return Boolean.TRUE;
+		if ("false".equals(literal))
+			return Boolean.FALSE;
+		try
+		{
+			if (literal.indexOf('.') < 0 && literal.indexOf('e') < 0 && literal.indexOf('E') < 0)
+			{
+				long value = Long.parseLong(literal);
+				if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE)
+					return Integer.valueOf((int) value);
+				return Long.valueOf(value);
+			}
+			return Double.valueOf(literal);
+		} catch (NumberFormatException e)
+		{
+			throw syntaxError("bad value " + literal);
+		}
+	}
+
+	private char nextClean() throws JSONException
+	{
+		if (atEnd())
+			throw syntaxError("unexpected end");
+		return in.charAt(pos++);
+	}
+
+	private JSONException syntaxError(String message)
+	{
+		return new JSONException(message + " at character " + pos + " of " + in);
+	}
+}
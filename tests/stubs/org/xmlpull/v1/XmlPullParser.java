@@ -0,0 +1,31 @@
+package org.xmlpull.v1;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/***
+ * Desktop stand-in of XmlPullParser for JVM harnesses, the part XmlElement
+ * uses. Implemented by android.util.Xml stand-in.
+ ***/
+public interface XmlPullParser
+{
+	int	START_DOCUMENT	= 0;
+	int	END_DOCUMENT	= 1;
+	int	START_TAG		= 2;
+	int	END_TAG			= 3;
+	int	TEXT			= 4;
+
+	void setInput(Reader in) throws XmlPullParserException;
+
+	int next() throws XmlPullParserException, IOException;
+
+	String getName();
+
+	String getText();
+
+	int getAttributeCount();
+
+	String getAttributeName(int index);
+
+	String getAttributeValue(int index);
+}
@@ -0,0 +1,14 @@
+package org.xmlpull.v1;
+
+/***
+ * Desktop stand-in of XmlPullParserException for JVM harnesses.
+ ***/
+public class XmlPullParserException extends Exception
+{
+	private static final long	serialVersionUID	= 1L;
+
+	public XmlPullParserException(String msg)
+	{
+		super(msg);
+	}
+}